@@ -0,0 +1,123 @@
+package com.enterprise.email.autoreply;
+
+import com.enterprise.email.entity.AutoReplySettings;
+import com.enterprise.email.utils.AhoCorasickMatcher;
+import lombok.Getter;
+
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * 编译后的别名自动回复策略（构建后不可变，线程安全）
+ *
+ * 排除发件人与主题关键词在编译时拆分、去空白并转为小写：
+ * 排除列表的语义是"发件人地址包含该项"，完整地址和域名类的项放入哈希集合，
+ * 按发件人地址、域名和上级域名直接查找；未命中时再用自动机对地址扫描一次，覆盖其他子串形式的项。
+ * 关键词同样编译为自动机，对小写主题扫描一次。
+ */
+@Getter
+public final class AutoReplyPolicy {
+
+    private final Long settingsId;
+    private final Long aliasId;
+    private final boolean active;
+    private final LocalDateTime startTime;
+    private final LocalDateTime endTime;
+    private final boolean externalOnly;
+    private final Integer replyFrequency;
+    private final String replySubject;
+    private final String replyContent;
+    private final String contentType;
+
+    private final Set<String> excludedExact;
+    private final AhoCorasickMatcher excludedMatcher;
+    private final AhoCorasickMatcher keywordMatcher;
+
+    private AutoReplyPolicy(AutoReplySettings settings, Set<String> excludedExact,
+                            AhoCorasickMatcher excludedMatcher, AhoCorasickMatcher keywordMatcher) {
+        this.settingsId = settings.getId();
+        this.aliasId = settings.getAliasId();
+        this.active = Boolean.TRUE.equals(settings.getIsActive());
+        this.startTime = settings.getStartTime();
+        this.endTime = settings.getEndTime();
+        this.externalOnly = Boolean.TRUE.equals(settings.getExternalOnly());
+        this.replyFrequency = settings.getReplyFrequency();
+        this.replySubject = settings.getReplySubject();
+        this.replyContent = settings.getReplyContent();
+        this.contentType = settings.getContentType();
+        this.excludedExact = excludedExact;
+        this.excludedMatcher = excludedMatcher;
+        this.keywordMatcher = keywordMatcher;
+    }
+
+    /**
+     * 编译自动回复设置
+     */
+    public static AutoReplyPolicy compile(AutoReplySettings settings) {
+        List<String> excluded = splitLower(settings.getExcludeSenders());
+        List<String> keywords = splitLower(settings.getIncludeKeywords());
+        return new AutoReplyPolicy(settings,
+                Collections.unmodifiableSet(new HashSet<>(excluded)),
+                excluded.isEmpty() ? null : AhoCorasickMatcher.build(excluded),
+                keywords.isEmpty() ? null : AhoCorasickMatcher.build(keywords));
+    }
+
+    /**
+     * 当前时间是否在启用状态和时间范围内
+     */
+    public boolean isEffective(LocalDateTime now) {
+        if (!active) {
+            return false;
+        }
+        if (startTime != null && now.isBefore(startTime)) {
+            return false;
+        }
+        return endTime == null || !now.isAfter(endTime);
+    }
+
+    /**
+     * 发件人是否在排除列表中（地址需已转为小写）
+     */
+    public boolean isExcluded(String lowerSender) {
+        if (excludedMatcher == null) {
+            return false;
+        }
+        if (excludedExact.contains(lowerSender)) {
+            return true;
+        }
+        int at = lowerSender.lastIndexOf('@');
+        if (at >= 0) {
+            if (excludedExact.contains(lowerSender.substring(at))) {
+                return true;
+            }
+            // 域名及各级上级域名
+            for (int i = at; i >= 0 && i < lowerSender.length() - 1; i = lowerSender.indexOf('.', i + 1)) {
+                if (excludedExact.contains(lowerSender.substring(i + 1))) {
+                    return true;
+                }
+            }
+        }
+        return excludedMatcher.matchesAny(lowerSender);
+    }
+
+    /**
+     * 主题是否满足关键词条件（没有设置关键词时总是满足）
+     */
+    public boolean matchesKeywords(String subject) {
+        return keywordMatcher == null || (subject != null && keywordMatcher.matchesAny(subject.toLowerCase()));
+    }
+
+    private static List<String> splitLower(String value) {
+        if (value == null || value.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<String> items = new ArrayList<>();
+        for (String item : value.split(",")) {
+            String trimmed = item.trim().toLowerCase();
+            if (!trimmed.isEmpty()) {
+                items.add(trimmed);
+            }
+        }
+        return items;
+    }
+}
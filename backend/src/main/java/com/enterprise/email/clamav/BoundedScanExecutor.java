@@ -0,0 +1,90 @@
+package com.enterprise.email.clamav;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 固定线程数、有界在途数的扫描执行器
+ *
+ * 提交方在在途任务（执行中和排队中）达到上限时阻塞，遍历目录的速度因此不会超过扫描速度，
+ * 排队的路径数保持有界。线程数通常取clamd的MaxThreads，使clamd的扫描线程保持忙碌。
+ */
+public final class BoundedScanExecutor implements AutoCloseable {
+
+    private static final AtomicInteger SEQUENCE = new AtomicInteger();
+
+    private final ThreadPoolExecutor workers;
+    private final Semaphore permits;
+    private final int capacity;
+
+    /**
+     * @param threads  工作线程数
+     * @param capacity 在途任务上限（不小于线程数）
+     */
+    public BoundedScanExecutor(int threads, int capacity, String namePrefix) {
+        int size = Math.max(1, threads);
+        this.capacity = Math.max(size, capacity);
+        this.permits = new Semaphore(this.capacity);
+        int id = SEQUENCE.incrementAndGet();
+        AtomicInteger index = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(size, size, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, namePrefix + id + "-" + index.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 提交任务，在途任务已满时阻塞
+     */
+    public void submit(Runnable task) throws InterruptedException {
+        permits.acquire();
+        execute(task);
+    }
+
+    /**
+     * 提交任务，在途任务已满时最多等待timeout，超时返回false
+     */
+    public boolean trySubmit(Runnable task, long timeout, TimeUnit unit) throws InterruptedException {
+        if (!permits.tryAcquire(timeout, unit)) {
+            return false;
+        }
+        execute(task);
+        return true;
+    }
+
+    /**
+     * 等待所有已提交的任务完成，超时返回false
+     */
+    public boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+        if (!permits.tryAcquire(capacity, timeout, unit)) {
+            return false;
+        }
+        permits.release(capacity);
+        return true;
+    }
+
+    public int inFlight() {
+        return capacity - permits.availablePermits();
+    }
+
+    @Override
+    public void close() {
+        workers.shutdown();
+    }
+
+    private void execute(Runnable task) {
+        try {
+            workers.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    permits.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            permits.release();
+            throw e;
+        }
+    }
+}
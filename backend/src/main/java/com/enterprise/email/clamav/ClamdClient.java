@@ -0,0 +1,318 @@
+package com.enterprise.email.clamav;
+
+import com.enterprise.email.entity.ClamAVConfig;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * clamd客户端
+ *
+ * 每个clamd地址（配置了clamd_socket且文件存在时使用本地UNIX套接字，否则TCP）一个IDSESSION连接池，
+ * 连接数不超过配置的max_connections。优先使用空闲连接，其次新建连接，连接数已满时在负载最小的连接上
+ * 流水线发送（每条连接同时在途的命令不超过pipeline-depth），都不可用时等待connection_timeout。
+ * 内容按块从输入流读入连接复用的直接缓冲区后写出，不在堆上保存整个文件；累计长度超过
+ * max_file_size和stream_max_length（clamd的StreamMaxLength）中较小者时停止发送并返回超长。
+ * 空闲时间超过clamd IdleTimeout一半的连接主动关闭，避免使用已被clamd断开的连接。
+ */
+@Slf4j
+@Component
+public class ClamdClient {
+
+    private static final long DEFAULT_STREAM_MAX_LENGTH = 25L * 1024 * 1024;
+    private static final String DEFAULT_HOST = "localhost";
+    private static final int DEFAULT_PORT = 3310;
+
+    @Value("${email.clamav.chunk-size:65536}")
+    private int chunkSize;
+
+    @Value("${email.clamav.pipeline-depth:4}")
+    private int pipelineDepth;
+
+    private final Map<String, Pool> pools = new ConcurrentHashMap<>();
+
+    private final AtomicLong scans = new AtomicLong();
+    private final AtomicLong pipelined = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong tooLarge = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong sessionsOpened = new AtomicLong();
+
+    /**
+     * 扫描输入流，不关闭inputStream
+     */
+    public ClamdScanResult scan(ClamAVConfig config, InputStream inputStream) throws IOException {
+        return scan(config, inputStream, null);
+    }
+
+    /**
+     * 扫描输入流，同时用发送的内容更新digest（超长时摘要不完整）
+     */
+    public ClamdScanResult scan(ClamAVConfig config, InputStream inputStream, MessageDigest digest) throws IOException {
+        long start = System.currentTimeMillis();
+        Pool pool = pool(config);
+        int readTimeout = config.getReadTimeout() != null ? config.getReadTimeout() : 30000;
+        ClamdSession session = pool.acquire(config);
+        ClamdSession.Submission submission = null;
+        try {
+            ReadableByteChannel source = inputStream instanceof FileInputStream
+                    ? ((FileInputStream) inputStream).getChannel() : Channels.newChannel(inputStream);
+            submission = session.instream(source, maxStreamLength(config), digest, readTimeout);
+            scans.incrementAndGet();
+            bytesSent.addAndGet(submission.bytes);
+
+            String reply = submission.reply.get(readTimeout, TimeUnit.MILLISECONDS);
+            long elapsed = System.currentTimeMillis() - start;
+            ClamdScanResult result = ClamdScanResult.fromReply(reply, submission.bytes, elapsed);
+            // 只发送了前缀：前缀中发现的病毒照常返回，前缀干净时不能判定整体干净
+            if (submission.tooLarge && result.getStatus() == ClamdScanResult.Status.CLEAN) {
+                result = new ClamdScanResult(ClamdScanResult.Status.TOO_LARGE, null, reply, submission.bytes, elapsed);
+            }
+            if (result.getStatus() == ClamdScanResult.Status.TOO_LARGE) {
+                tooLarge.incrementAndGet();
+            }
+            return result;
+        } catch (TimeoutException e) {
+            failures.incrementAndGet();
+            // clamd可能已无响应，不再向这条连接发送命令
+            session.close();
+            throw new IOException("clamd扫描超时: " + readTimeout + "ms");
+        } catch (ExecutionException e) {
+            failures.incrementAndGet();
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause.getMessage(), cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            if (submission != null) {
+                session.abandon(submission.id);
+            }
+            throw new IOException("扫描被中断");
+        } catch (IOException e) {
+            failures.incrementAndGet();
+            throw e;
+        } finally {
+            pool.release(session);
+        }
+    }
+
+    /**
+     * PING clamd，返回应答（正常为PONG）
+     */
+    public String ping(ClamAVConfig config) throws IOException {
+        int timeout = config.getConnectionTimeout() != null ? config.getConnectionTimeout() : 5000;
+        return ClamdSession.ping(endpoint(config), timeout);
+    }
+
+    /**
+     * 单次扫描允许发送的最大字节数
+     */
+    public static long maxStreamLength(ClamAVConfig config) {
+        long limit = DEFAULT_STREAM_MAX_LENGTH;
+        if (config.getStreamMaxLength() != null && config.getStreamMaxLength() > 0) {
+            limit = config.getStreamMaxLength();
+        }
+        if (config.getMaxFileSize() != null && config.getMaxFileSize() > 0) {
+            limit = Math.min(limit, config.getMaxFileSize());
+        }
+        return limit;
+    }
+
+    /**
+     * 关闭空闲过久的连接
+     */
+    @Scheduled(fixedDelayString = "${email.clamav.pool.sweep-millis:10000}")
+    public void evictIdleSessions() {
+        for (Pool pool : pools.values()) {
+            pool.evictIdle();
+        }
+    }
+
+    public Map<String, Object> getStatistics() {
+        List<Map<String, Object>> endpoints = new ArrayList<>();
+        for (Pool pool : pools.values()) {
+            endpoints.add(pool.statistics());
+        }
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("scans", scans.get());
+        stats.put("pipelinedScans", pipelined.get());
+        stats.put("bytesSent", bytesSent.get());
+        stats.put("tooLarge", tooLarge.get());
+        stats.put("failures", failures.get());
+        stats.put("sessionsOpened", sessionsOpened.get());
+        stats.put("endpoints", endpoints);
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        for (Pool pool : pools.values()) {
+            pool.closeAll();
+        }
+        pools.clear();
+    }
+
+    private Pool pool(ClamAVConfig config) {
+        SocketAddress address = endpoint(config);
+        String key = address instanceof UnixDomainSocketAddress
+                ? "unix:" + ((UnixDomainSocketAddress) address).getPath()
+                : ((InetSocketAddress) address).getHostString() + ":" + ((InetSocketAddress) address).getPort();
+        return pools.computeIfAbsent(key, k -> new Pool(k, address));
+    }
+
+    private static SocketAddress endpoint(ClamAVConfig config) {
+        String socket = config.getClamdSocket();
+        if (socket != null && !socket.trim().isEmpty() && Files.exists(Paths.get(socket.trim()))) {
+            return UnixDomainSocketAddress.of(socket.trim());
+        }
+        String host = config.getClamdHost() != null && !config.getClamdHost().trim().isEmpty()
+                ? config.getClamdHost().trim() : DEFAULT_HOST;
+        int port = config.getClamdPort() != null ? config.getClamdPort() : DEFAULT_PORT;
+        return new InetSocketAddress(host, port);
+    }
+
+    /**
+     * 单个clamd地址的连接池
+     */
+    private final class Pool {
+        private final String key;
+        private final SocketAddress address;
+        private final List<ClamdSession> sessions = new ArrayList<>();
+        private int opening;
+        private long idleMillis = 15000;
+
+        private Pool(String key, SocketAddress address) {
+            this.key = key;
+            this.address = address;
+        }
+
+        ClamdSession acquire(ClamAVConfig config) throws IOException {
+            int maxSessions = Math.max(1, config.getMaxConnections() != null ? config.getMaxConnections() : 10);
+            int connectTimeout = config.getConnectionTimeout() != null ? config.getConnectionTimeout() : 5000;
+            long deadline = System.currentTimeMillis() + connectTimeout;
+
+            synchronized (this) {
+                // clamd的IdleTimeout单位为秒，默认30
+                idleMillis = (config.getIdleTimeout() != null && config.getIdleTimeout() > 0
+                        ? config.getIdleTimeout() : 30) * 500L;
+                while (true) {
+                    evictIdleLocked();
+                    ClamdSession best = null;
+                    for (ClamdSession session : sessions) {
+                        if (best == null || session.leased < best.leased) {
+                            best = session;
+                        }
+                    }
+                    if (best != null && best.leased == 0) {
+                        best.leased++;
+                        return best;
+                    }
+                    if (sessions.size() + opening < maxSessions) {
+                        opening++;
+                        break;
+                    }
+                    if (best != null && best.leased < Math.max(1, pipelineDepth)) {
+                        best.leased++;
+                        pipelined.incrementAndGet();
+                        return best;
+                    }
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        throw new IOException("等待clamd连接超时: " + key);
+                    }
+                    try {
+                        wait(remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("等待clamd连接被中断");
+                    }
+                }
+            }
+
+            // 在锁外建立连接，不阻塞其他调用方使用已有连接
+            ClamdSession session = null;
+            try {
+                session = ClamdSession.open(address, connectTimeout, Math.max(1024, chunkSize));
+                sessionsOpened.incrementAndGet();
+                return session;
+            } finally {
+                synchronized (this) {
+                    opening--;
+                    if (session != null) {
+                        session.leased = 1;
+                        sessions.add(session);
+                    }
+                    notifyAll();
+                }
+            }
+        }
+
+        synchronized void release(ClamdSession session) {
+            session.leased--;
+            session.lastUsed = System.currentTimeMillis();
+            if (session.isClosed()) {
+                sessions.remove(session);
+            }
+            notifyAll();
+        }
+
+        synchronized void evictIdle() {
+            evictIdleLocked();
+        }
+
+        private void evictIdleLocked() {
+            long now = System.currentTimeMillis();
+            Iterator<ClamdSession> iterator = sessions.iterator();
+            while (iterator.hasNext()) {
+                ClamdSession session = iterator.next();
+                if (session.isClosed()) {
+                    iterator.remove();
+                } else if (session.leased == 0 && session.pendingCount() == 0 && now - session.lastUsed > idleMillis) {
+                    iterator.remove();
+                    session.close();
+                }
+            }
+        }
+
+        synchronized void closeAll() {
+            for (ClamdSession session : sessions) {
+                session.close();
+            }
+            sessions.clear();
+        }
+
+        synchronized Map<String, Object> statistics() {
+            int leased = 0;
+            int pending = 0;
+            for (ClamdSession session : sessions) {
+                leased += session.leased;
+                pending += session.pendingCount();
+            }
+            Map<String, Object> stats = new HashMap<>();
+            stats.put("endpoint", key);
+            stats.put("sessions", sessions.size());
+            stats.put("inUse", leased);
+            stats.put("pendingReplies", pending);
+            return stats;
+        }
+    }
+}
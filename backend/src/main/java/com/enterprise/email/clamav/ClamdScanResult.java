@@ -0,0 +1,75 @@
+package com.enterprise.email.clamav;
+
+import lombok.Getter;
+
+/**
+ * 一次INSTREAM扫描的结果（不可变）
+ */
+@Getter
+public final class ClamdScanResult {
+
+    public enum Status {
+        /** 未发现病毒 */
+        CLEAN,
+        /** 发现病毒 */
+        INFECTED,
+        /** 内容超过流长度上限，未完成扫描 */
+        TOO_LARGE,
+        /** clamd返回错误 */
+        ERROR
+    }
+
+    private final Status status;
+    private final String virusName;
+    /** clamd的应答（已去掉会话中的命令编号） */
+    private final String response;
+    /** 发送给clamd的字节数 */
+    private final long bytes;
+    private final long responseTime;
+    private final boolean fromCache;
+
+    public ClamdScanResult(Status status, String virusName, String response, long bytes, long responseTime) {
+        this(status, virusName, response, bytes, responseTime, false);
+    }
+
+    private ClamdScanResult(Status status, String virusName, String response, long bytes, long responseTime,
+                            boolean fromCache) {
+        this.status = status;
+        this.virusName = virusName;
+        this.response = response;
+        this.bytes = bytes;
+        this.responseTime = responseTime;
+        this.fromCache = fromCache;
+    }
+
+    /**
+     * 标记为来自缓存的副本（响应时间为0）
+     */
+    public ClamdScanResult asCached() {
+        return fromCache ? this : new ClamdScanResult(status, virusName, response, bytes, 0, true);
+    }
+
+    /**
+     * 解析 "stream: OK"、"stream: Eicar-Signature FOUND"、"... ERROR" 形式的应答
+     */
+    public static ClamdScanResult fromReply(String reply, long bytes, long responseTime) {
+        String text = reply != null ? reply.trim() : "";
+        if (text.endsWith(" FOUND")) {
+            String body = text.substring(0, text.length() - " FOUND".length());
+            int colon = body.lastIndexOf(": ");
+            String virusName = colon >= 0 ? body.substring(colon + 2) : body;
+            return new ClamdScanResult(Status.INFECTED, virusName.trim(), text, bytes, responseTime);
+        }
+        if (text.endsWith(" OK")) {
+            return new ClamdScanResult(Status.CLEAN, null, text, bytes, responseTime);
+        }
+        if (text.contains("size limit exceeded")) {
+            return new ClamdScanResult(Status.TOO_LARGE, null, text, bytes, responseTime);
+        }
+        return new ClamdScanResult(Status.ERROR, null, text, bytes, responseTime);
+    }
+
+    public boolean isInfected() {
+        return status == Status.INFECTED;
+    }
+}
@@ -0,0 +1,363 @@
+package com.enterprise.email.clamav;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 一条clamd IDSESSION连接
+ *
+ * 会话内的每条命令由clamd按顺序编号（从1开始），应答以"编号: "开头、以\0结尾，顺序不一定与命令一致。
+ * 发送方持有写锁依次写入命令和INSTREAM数据块，写完即释放，下一条命令可以在上一条的应答返回前发送（流水线）；
+ * 读取线程按编号完成对应的Future。数据块复用会话自己的直接缓冲区，前4字节是块长度。
+ *
+ * 阻塞的SocketChannel不受SO_TIMEOUT限制，建立会话、PING和每次INSTREAM发送都登记一个截止时间，
+ * 到期时由计时线程关闭通道（会话随之关闭），阻塞中的读写立即返回，不会长期占住写锁和调用线程。
+ */
+@Slf4j
+final class ClamdSession implements Closeable {
+
+    private static final byte[] IDSESSION = "zIDSESSION\0".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] INSTREAM = "zINSTREAM\0".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] END = "zEND\0".getBytes(StandardCharsets.US_ASCII);
+    private static final AtomicInteger SEQUENCE = new AtomicInteger();
+    private static final ScheduledThreadPoolExecutor DEADLINES = deadlineTimer();
+
+    private final SocketChannel channel;
+    private final ByteBuffer chunk;
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final Map<Integer, CompletableFuture<String>> pending = new ConcurrentHashMap<>();
+    private final Thread reader;
+    private int nextId;
+
+    /** 连接池分配给调用方、尚未归还的次数，由连接池加锁维护 */
+    int leased;
+    volatile long lastUsed = System.currentTimeMillis();
+    private volatile boolean closed;
+
+    private ClamdSession(SocketChannel channel, int chunkSize) {
+        this.channel = channel;
+        this.chunk = ByteBuffer.allocateDirect(chunkSize + 4);
+        this.reader = new Thread(this::readLoop, "clamd-session-" + SEQUENCE.incrementAndGet());
+        this.reader.setDaemon(true);
+    }
+
+    /**
+     * 连接clamd（TCP或本地UNIX套接字）并进入IDSESSION模式
+     */
+    static ClamdSession open(SocketAddress address, int connectTimeoutMillis, int chunkSize) throws IOException {
+        boolean unix = address instanceof UnixDomainSocketAddress;
+        SocketChannel channel = unix ? SocketChannel.open(StandardProtocolFamily.UNIX) : SocketChannel.open();
+        Deadline deadline = new Deadline(() -> closeQuietly(channel), connectTimeoutMillis);
+        try {
+            if (unix) {
+                channel.connect(address);
+            } else {
+                channel.socket().connect(address, connectTimeoutMillis);
+                channel.socket().setTcpNoDelay(true);
+            }
+            ClamdSession session = new ClamdSession(channel, chunkSize);
+            session.writeFully(ByteBuffer.wrap(IDSESSION));
+            if (!deadline.cancel()) {
+                throw new AsynchronousCloseException();
+            }
+            session.reader.start();
+            return session;
+        } catch (IOException e) {
+            boolean expired = !deadline.cancel();
+            channel.close();
+            if (expired) {
+                throw new IOException("连接clamd超时: " + connectTimeoutMillis + "ms");
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 一次PING，使用独立的短连接
+     */
+    static String ping(SocketAddress address, int timeoutMillis) throws IOException {
+        SocketChannel channel = address instanceof UnixDomainSocketAddress
+                ? SocketChannel.open(StandardProtocolFamily.UNIX) : SocketChannel.open();
+        Deadline deadline = new Deadline(() -> closeQuietly(channel), timeoutMillis);
+        try (channel) {
+            if (address instanceof InetSocketAddress) {
+                channel.socket().connect(address, timeoutMillis);
+            } else {
+                channel.connect(address);
+            }
+            ByteBuffer command = ByteBuffer.wrap("zPING\0".getBytes(StandardCharsets.US_ASCII));
+            while (command.hasRemaining()) {
+                channel.write(command);
+            }
+            ByteBuffer in = ByteBuffer.allocate(64);
+            while (in.hasRemaining() && channel.read(in) >= 0) {
+                if (in.position() > 0 && in.get(in.position() - 1) == 0) {
+                    break;
+                }
+            }
+            in.flip();
+            String reply = StandardCharsets.US_ASCII.decode(in).toString();
+            if (!deadline.cancel()) {
+                throw new AsynchronousCloseException();
+            }
+            return reply.endsWith("\0") ? reply.substring(0, reply.length() - 1) : reply;
+        } catch (IOException e) {
+            if (!deadline.cancel()) {
+                throw new IOException("clamd PING超时: " + timeoutMillis + "ms");
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 发送INSTREAM命令并把source按块写出，写完结束块后立即返回，应答通过返回值中的Future获取。
+     * 累计长度超过maxLength时不再发送后续数据，直接发送结束块并标记为超长。digest不为null时用发送的内容更新摘要。
+     * 发送超过writeTimeoutMillis时关闭会话并抛出异常，排在写锁后的流水线调用随即失败
+     */
+    Submission instream(ReadableByteChannel source, long maxLength, MessageDigest digest, long writeTimeoutMillis)
+            throws IOException {
+        writeLock.lock();
+        try {
+            if (closed) {
+                throw new IOException("clamd会话已关闭");
+            }
+            int id = ++nextId;
+            CompletableFuture<String> reply = new CompletableFuture<>();
+            pending.put(id, reply);
+            Deadline deadline = new Deadline(this::close, writeTimeoutMillis);
+            try {
+                writeFully(ByteBuffer.wrap(INSTREAM));
+                long total = 0;
+                boolean tooLarge = false;
+                boolean eof = false;
+                while (!eof) {
+                    chunk.clear();
+                    chunk.position(4);
+                    while (chunk.hasRemaining()) {
+                        if (source.read(chunk) < 0) {
+                            eof = true;
+                            break;
+                        }
+                    }
+                    int length = chunk.position() - 4;
+                    if (length == 0) {
+                        break;
+                    }
+                    if (total + length > maxLength) {
+                        tooLarge = true;
+                        break;
+                    }
+                    chunk.putInt(0, length);
+                    chunk.flip();
+                    if (digest != null) {
+                        digest.update(chunk.duplicate().position(4));
+                    }
+                    writeFully(chunk);
+                    total += length;
+                }
+                chunk.clear();
+                chunk.putInt(0);
+                chunk.flip();
+                writeFully(chunk);
+                if (!deadline.cancel()) {
+                    throw new AsynchronousCloseException();
+                }
+                lastUsed = System.currentTimeMillis();
+                return new Submission(id, reply, total, tooLarge);
+            } catch (IOException e) {
+                // INSTREAM写到一半，会话状态不可恢复
+                boolean expired = !deadline.cancel();
+                pending.remove(id);
+                close();
+                if (expired) {
+                    throw new IOException("clamd写入超时: " + writeTimeoutMillis + "ms");
+                }
+                throw e;
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * 放弃等待某条命令的应答（超时后调用），应答到达时丢弃
+     */
+    void abandon(int id) {
+        pending.remove(id);
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    int pendingCount() {
+        return pending.size();
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (writeLock.tryLock()) {
+            try {
+                if (channel.isOpen()) {
+                    writeFully(ByteBuffer.wrap(END));
+                }
+            } catch (IOException e) {
+                // 连接已断开，直接关闭
+            } finally {
+                writeLock.unlock();
+            }
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.debug("关闭clamd会话失败: {}", e.getMessage());
+        }
+        failPending(new IOException("clamd会话已关闭"));
+    }
+
+    private static ScheduledThreadPoolExecutor deadlineTimer() {
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "clamd-deadline");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.setRemoveOnCancelPolicy(true);
+        return timer;
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // 已关闭
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private void readLoop() {
+        ByteBuffer in = ByteBuffer.allocate(8192);
+        ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+        try {
+            while (!closed) {
+                in.clear();
+                if (channel.read(in) < 0) {
+                    break;
+                }
+                in.flip();
+                while (in.hasRemaining()) {
+                    byte b = in.get();
+                    if (b != 0) {
+                        line.write(b);
+                        continue;
+                    }
+                    String reply = line.toString(StandardCharsets.UTF_8);
+                    line.reset();
+                    if (!dispatch(reply)) {
+                        log.warn("clamd返回无法识别的应答，关闭会话: {}", reply);
+                        close();
+                        return;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                log.debug("读取clamd应答失败: {}", e.getMessage());
+            }
+        }
+        close();
+    }
+
+    private boolean dispatch(String reply) {
+        int colon = reply.indexOf(": ");
+        if (colon <= 0) {
+            return false;
+        }
+        int id;
+        try {
+            id = Integer.parseInt(reply.substring(0, colon));
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        CompletableFuture<String> future = pending.remove(id);
+        if (future != null) {
+            future.complete(reply.substring(colon + 2));
+        }
+        return true;
+    }
+
+    private void failPending(IOException error) {
+        for (Integer id : pending.keySet()) {
+            CompletableFuture<String> future = pending.remove(id);
+            if (future != null) {
+                future.completeExceptionally(error);
+            }
+        }
+    }
+
+    /**
+     * 截止时间：到期时执行关闭动作，阻塞在通道上的读写以AsynchronousCloseException返回
+     */
+    private static final class Deadline {
+        private final ScheduledFuture<?> task;
+        private volatile boolean expired;
+
+        private Deadline(Runnable onExpire, long timeoutMillis) {
+            this.task = DEADLINES.schedule(() -> {
+                expired = true;
+                onExpire.run();
+            }, Math.max(1, timeoutMillis), TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * 取消截止时间，已经到期时返回false
+         */
+        boolean cancel() {
+            task.cancel(false);
+            return !expired;
+        }
+    }
+
+    static final class Submission {
+        final int id;
+        final CompletableFuture<String> reply;
+        final long bytes;
+        final boolean tooLarge;
+
+        private Submission(int id, CompletableFuture<String> reply, long bytes, boolean tooLarge) {
+            this.id = id;
+            this.reply = reply;
+            this.bytes = bytes;
+            this.tooLarge = tooLarge;
+        }
+    }
+}
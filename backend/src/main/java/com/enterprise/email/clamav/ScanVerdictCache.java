@@ -0,0 +1,255 @@
+package com.enterprise.email.clamav;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 病毒扫描结论缓存（按 域名 + 内容SHA-256 缓存）
+ *
+ * 每条结论记录扫描时的病毒库版本：干净的结论只在版本相同时有效，病毒库更新后自动失效（updateSignatures
+ * 还会主动清除）；发现病毒的结论与版本无关，直到过期。容量有上限，按键哈希分段加锁，每段按LRU淘汰。
+ * 同一内容的并发扫描合并为一次clamd请求，其余调用方等待同一结果。超长和错误的结果不缓存。
+ */
+@Component
+public class ScanVerdictCache {
+
+    private static final int SEGMENTS = 16;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final Map<String, CompletableFuture<ClamdScanResult>> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    @Value("${email.clamav.verdict-cache.ttl-seconds:86400}")
+    private long ttlSeconds;
+
+    public ScanVerdictCache(@Value("${email.clamav.verdict-cache.max-entries:50000}") int maxEntries,
+                            MeterRegistry meterRegistry) {
+        int perSegment = Math.max(8, maxEntries / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(perSegment, evictions);
+        }
+
+        FunctionCounter.builder("clamav.verdict.cache.hits", hits, AtomicLong::get)
+            .description("病毒扫描结论缓存命中次数")
+            .register(meterRegistry);
+        FunctionCounter.builder("clamav.verdict.cache.misses", misses, AtomicLong::get)
+            .description("病毒扫描结论缓存未命中次数")
+            .register(meterRegistry);
+        FunctionCounter.builder("clamav.verdict.cache.coalesced", coalesced, AtomicLong::get)
+            .description("合并到进行中扫描的次数")
+            .register(meterRegistry);
+        Gauge.builder("clamav.verdict.cache.hit.ratio", this, ScanVerdictCache::hitRate)
+            .description("病毒扫描结论缓存命中率（含合并）")
+            .register(meterRegistry);
+        Gauge.builder("clamav.verdict.cache.size", this, ScanVerdictCache::size)
+            .description("缓存的结论数")
+            .register(meterRegistry);
+    }
+
+    /**
+     * 读取缓存的结论，没有、已过期或病毒库版本已变化时返回null
+     */
+    public ClamdScanResult get(String domain, String sha256, String signatureVersion) {
+        String key = key(domain, sha256);
+        Segment segment = segment(key);
+        ClamdScanResult result;
+        synchronized (segment) {
+            result = segment.get(key, normalize(signatureVersion), System.currentTimeMillis());
+        }
+        if (result != null) {
+            hits.incrementAndGet();
+        }
+        return result;
+    }
+
+    /**
+     * 读取缓存；未命中时合并到同一内容进行中的扫描，或调用scanner扫描并写入缓存
+     */
+    public ClamdScanResult getOrScan(String domain, String sha256, String signatureVersion, Scanner scanner)
+            throws IOException {
+        ClamdScanResult cached = get(domain, sha256, signatureVersion);
+        if (cached != null) {
+            return cached;
+        }
+
+        String key = key(domain, sha256);
+        CompletableFuture<ClamdScanResult> created = new CompletableFuture<>();
+        CompletableFuture<ClamdScanResult> existing = inFlight.putIfAbsent(key, created);
+        if (existing != null) {
+            coalesced.incrementAndGet();
+            return await(existing).asCached();
+        }
+        misses.incrementAndGet();
+
+        try {
+            ClamdScanResult result = scanner.scan();
+            put(domain, sha256, signatureVersion, result);
+            created.complete(result);
+            return result;
+        } catch (IOException | RuntimeException e) {
+            created.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, created);
+        }
+    }
+
+    /**
+     * 写入扫描结论，只缓存干净和发现病毒的结果
+     */
+    public void put(String domain, String sha256, String signatureVersion, ClamdScanResult result) {
+        if (result == null || (result.getStatus() != ClamdScanResult.Status.CLEAN && !result.isInfected())) {
+            return;
+        }
+        String key = key(domain, sha256);
+        Entry entry = new Entry(result.asCached(), normalize(signatureVersion),
+                System.currentTimeMillis() + ttlSeconds * 1000);
+        Segment segment = segment(key);
+        synchronized (segment) {
+            segment.map.put(key, entry);
+        }
+    }
+
+    /**
+     * 清除指定域名的全部干净结论（病毒库更新后调用）
+     */
+    public int invalidateClean(String domain) {
+        String prefix = domain + " ";
+        int removed = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                Iterator<Map.Entry<String, Entry>> iterator = segment.map.entrySet().iterator();
+                while (iterator.hasNext()) {
+                    Map.Entry<String, Entry> entry = iterator.next();
+                    if (entry.getKey().startsWith(prefix) && !entry.getValue().result.isInfected()) {
+                        iterator.remove();
+                        removed++;
+                    }
+                }
+            }
+        }
+        invalidations.addAndGet(removed);
+        return removed;
+    }
+
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("size", size());
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("coalesced", coalesced.get());
+        stats.put("evictions", evictions.get());
+        stats.put("invalidations", invalidations.get());
+        stats.put("inFlight", inFlight.size());
+        stats.put("hitRate", Math.round(hitRate() * 10000) / 100.0);
+        return stats;
+    }
+
+    private double hitRate() {
+        long saved = hits.get() + coalesced.get();
+        long lookups = saved + misses.get();
+        return lookups > 0 ? (double) saved / lookups : 0.0;
+    }
+
+    private int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.map.size();
+            }
+        }
+        return size;
+    }
+
+    private static ClamdScanResult await(CompletableFuture<ClamdScanResult> future) throws IOException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause.getMessage(), cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("等待扫描结果被中断");
+        }
+    }
+
+    private static String key(String domain, String sha256) {
+        return domain + " " + sha256;
+    }
+
+    private static String normalize(String signatureVersion) {
+        return signatureVersion != null ? signatureVersion : "";
+    }
+
+    private Segment segment(String key) {
+        int hash = key.hashCode();
+        return segments[(hash ^ (hash >>> 16)) & (SEGMENTS - 1)];
+    }
+
+    /**
+     * 扫描回调
+     */
+    @FunctionalInterface
+    public interface Scanner {
+        ClamdScanResult scan() throws IOException;
+    }
+
+    private static final class Entry {
+        private final ClamdScanResult result;
+        private final String signatureVersion;
+        private final long expiresAt;
+
+        private Entry(ClamdScanResult result, String signatureVersion, long expiresAt) {
+            this.result = result;
+            this.signatureVersion = signatureVersion;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private static final class Segment {
+        private final LinkedHashMap<String, Entry> map;
+
+        private Segment(int capacity, AtomicLong evictions) {
+            this.map = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                    if (size() > capacity) {
+                        evictions.incrementAndGet();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        private ClamdScanResult get(String key, String signatureVersion, long now) {
+            Entry entry = map.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.expiresAt <= now || (!entry.result.isInfected() && !entry.signatureVersion.equals(signatureVersion))) {
+                map.remove(key);
+                return null;
+            }
+            return entry.result;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.enterprise.email.config;
+
+import com.enterprise.email.service.impl.AutoReplyServiceImpl;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+/**
+ * 自动回复配置
+ */
+@Configuration
+public class AutoReplyConfig {
+
+    /**
+     * 订阅自动回复策略失效频道，使任一节点修改的设置都能及时失效各节点的本地缓存
+     */
+    @Bean
+    @ConditionalOnProperty(name = "email.auto-reply.policy-redis-enabled", havingValue = "true", matchIfMissing = true)
+    public RedisMessageListenerContainer autoReplyPolicyListenerContainer(RedisConnectionFactory connectionFactory,
+                                                                         AutoReplyServiceImpl autoReplyService) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        container.addMessageListener(autoReplyService, new ChannelTopic(AutoReplyServiceImpl.POLICY_CHANNEL));
+        return container;
+    }
+}
@@ -33,4 +33,22 @@ public class EmailTaskConfig {
         executor.initialize();
         return executor;
     }
+
+    /**
+     * 附件文件I/O线程池（孤儿清理、批量删除等，限制并发磁盘操作）
+     */
+    @Bean("attachmentIoExecutor")
+    public Executor attachmentIoExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(4);
+        executor.setMaxPoolSize(4);
+        executor.setQueueCapacity(1000);
+        executor.setKeepAliveSeconds(60);
+        executor.setThreadNamePrefix("AttachmentIo-");
+        executor.setRejectedExecutionHandler(new java.util.concurrent.ThreadPoolExecutor.CallerRunsPolicy());
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(30);
+        executor.initialize();
+        return executor;
+    }
 }
\ No newline at end of file
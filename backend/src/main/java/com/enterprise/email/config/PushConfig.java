@@ -0,0 +1,29 @@
+package com.enterprise.email.config;
+
+import com.enterprise.email.service.impl.PushServiceImpl;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+/**
+ * 服务端推送配置
+ */
+@Configuration
+public class PushConfig {
+
+    /**
+     * 订阅推送事件频道，使任一节点产生的事件都能投递到持有连接的节点
+     */
+    @Bean
+    @ConditionalOnProperty(name = "email.push.redis-enabled", havingValue = "true", matchIfMissing = true)
+    public RedisMessageListenerContainer pushListenerContainer(RedisConnectionFactory connectionFactory,
+                                                               PushServiceImpl pushService) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        container.addMessageListener(pushService, new ChannelTopic(PushServiceImpl.CHANNEL));
+        return container;
+    }
+}
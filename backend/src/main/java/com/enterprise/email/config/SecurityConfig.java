@@ -73,6 +73,8 @@ public class SecurityConfig {
                 .requestMatchers("/health", "/info").permitAll()
                 .requestMatchers("/druid/**").permitAll()
                 .requestMatchers("/swagger-ui/**", "/v3/api-docs/**").permitAll()
+                // 内联图片由签名校验
+                .requestMatchers(HttpMethod.GET, "/api/email/attachments/*/inline").permitAll()
                 
                 // 管理员端点
                 .requestMatchers("/admin/**").hasRole("ADMIN")
@@ -0,0 +1,101 @@
+package com.enterprise.email.controller;
+
+import com.enterprise.email.service.ArchiveService;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Map;
+
+/**
+ * 邮件归档管理控制器
+ */
+@Slf4j
+@RestController
+@RequestMapping("/api/archive")
+@RequiredArgsConstructor
+@Tag(name = "邮件归档", description = "冷归档任务管理接口")
+public class ArchiveController {
+
+    private final ArchiveService archiveService;
+
+    @Operation(summary = "启动归档任务")
+    @PostMapping("/run")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<Map<String, Object>> startArchive() {
+        try {
+            boolean started = archiveService.startArchive();
+            
+            return ResponseEntity.ok(Map.of(
+                "success", started,
+                "message", started ? "归档任务已启动" : "已有归档或恢复任务在执行"
+            ));
+            
+        } catch (Exception e) {
+            log.error("启动归档任务失败", e);
+            return ResponseEntity.badRequest().body(Map.of(
+                "success", false,
+                "message", "启动归档任务失败: " + e.getMessage()
+            ));
+        }
+    }
+
+    @Operation(summary = "恢复用户的归档邮件")
+    @PostMapping("/restore/{userId}")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<Map<String, Object>> startRestore(
+            @Parameter(description = "用户ID") @PathVariable Long userId) {
+        
+        try {
+            boolean started = archiveService.startRestore(userId);
+            
+            return ResponseEntity.ok(Map.of(
+                "success", started,
+                "message", started ? "恢复任务已启动" : "已有归档或恢复任务在执行"
+            ));
+            
+        } catch (Exception e) {
+            log.error("启动恢复任务失败", e);
+            return ResponseEntity.badRequest().body(Map.of(
+                "success", false,
+                "message", "启动恢复任务失败: " + e.getMessage()
+            ));
+        }
+    }
+
+    @Operation(summary = "停止归档或恢复任务")
+    @PostMapping("/stop")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<Map<String, Object>> stopJob() {
+        archiveService.stopJob();
+        
+        return ResponseEntity.ok(Map.of(
+            "success", true,
+            "message", "已请求停止，当前批次完成后退出"
+        ));
+    }
+
+    @Operation(summary = "获取归档状态")
+    @GetMapping("/status")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<Map<String, Object>> getArchiveStatus() {
+        try {
+            return ResponseEntity.ok(Map.of(
+                "success", true,
+                "data", archiveService.getArchiveStatus()
+            ));
+            
+        } catch (Exception e) {
+            log.error("获取归档状态失败", e);
+            return ResponseEntity.badRequest().body(Map.of(
+                "success", false,
+                "message", "获取归档状态失败: " + e.getMessage()
+            ));
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.enterprise.email.controller;
+
+import com.enterprise.email.entity.ClamAVFileState;
+import com.enterprise.email.entity.ClamAVScanJob;
+import com.enterprise.email.service.ClamAVScanJobService;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 病毒扫描任务控制器
+ */
+@Slf4j
+@RestController
+@RequestMapping("/api/clamav/scan-jobs")
+@RequiredArgsConstructor
+@PreAuthorize("hasRole('ADMIN')")
+@Tag(name = "病毒扫描任务", description = "目录病毒扫描任务管理接口")
+public class ClamAVScanJobController {
+
+    private final ClamAVScanJobService scanJobService;
+
+    @Operation(summary = "启动目录扫描任务")
+    @PostMapping
+    public ResponseEntity<Map<String, Object>> startScanJob(
+            @Parameter(description = "域名") @RequestParam String domain,
+            @Parameter(description = "扫描目录") @RequestParam String rootPath,
+            @Parameter(description = "是否包含子目录") @RequestParam(defaultValue = "true") boolean recursive) {
+
+        try {
+            ClamAVScanJob job = scanJobService.startScanJob(domain, rootPath, recursive);
+
+            return ResponseEntity.ok(Map.of(
+                "success", true,
+                "data", job,
+                "message", "扫描任务已启动"
+            ));
+
+        } catch (Exception e) {
+            log.error("启动扫描任务失败", e);
+            return ResponseEntity.badRequest().body(Map.of(
+                "success", false,
+                "message", "启动扫描任务失败: " + e.getMessage()
+            ));
+        }
+    }
+
+    @Operation(summary = "获取域名最近的扫描任务")
+    @GetMapping
+    public ResponseEntity<Map<String, Object>> getScanJobs(
+            @Parameter(description = "域名") @RequestParam String domain,
+            @Parameter(description = "数量") @RequestParam(defaultValue = "20") int limit) {
+
+        try {
+            List<ClamAVScanJob> jobs = scanJobService.getScanJobs(domain, Math.max(1, Math.min(limit, 100)));
+
+            return ResponseEntity.ok(Map.of(
+                "success", true,
+                "data", jobs
+            ));
+
+        } catch (Exception e) {
+            log.error("获取扫描任务失败", e);
+            return ResponseEntity.badRequest().body(Map.of(
+                "success", false,
+                "message", "获取扫描任务失败: " + e.getMessage()
+            ));
+        }
+    }
+
+    @Operation(summary = "获取扫描任务进度")
+    @GetMapping("/{jobId}")
+    public ResponseEntity<Map<String, Object>> getScanJobProgress(
+            @Parameter(description = "任务ID") @PathVariable Long jobId) {
+
+        try {
+            return ResponseEntity.ok(Map.of(
+                "success", true,
+                "data", scanJobService.getScanJobProgress(jobId)
+            ));
+
+        } catch (Exception e) {
+            log.error("获取扫描任务进度失败", e);
+            return ResponseEntity.badRequest().body(Map.of(
+                "success", false,
+                "message", "获取任务进度失败: " + e.getMessage()
+            ));
+        }
+    }
+
+    @Operation(summary = "获取扫描任务发现的病毒文件")
+    @GetMapping("/{jobId}/infections")
+    public ResponseEntity<Map<String, Object>> getScanJobInfections(
+            @Parameter(description = "任务ID") @PathVariable Long jobId,
+            @Parameter(description = "数量") @RequestParam(defaultValue = "100") int limit) {
+
+        try {
+            List<ClamAVFileState> infections = scanJobService.getScanJobInfections(jobId, limit);
+
+            return ResponseEntity.ok(Map.of(
+                "success", true,
+                "data", infections
+            ));
+
+        } catch (Exception e) {
+            log.error("获取扫描任务病毒文件失败", e);
+            return ResponseEntity.badRequest().body(Map.of(
+                "success", false,
+                "message", "获取病毒文件失败: " + e.getMessage()
+            ));
+        }
+    }
+
+    @Operation(summary = "取消扫描任务")
+    @PostMapping("/{jobId}/cancel")
+    public ResponseEntity<Map<String, Object>> cancelScanJob(
+            @Parameter(description = "任务ID") @PathVariable Long jobId) {
+
+        try {
+            boolean cancelled = scanJobService.cancelScanJob(jobId);
+
+            return ResponseEntity.ok(Map.of(
+                "success", cancelled,
+                "message", cancelled ? "已请求取消任务" : "任务不存在或已完成"
+            ));
+
+        } catch (Exception e) {
+            log.error("取消扫描任务失败", e);
+            return ResponseEntity.badRequest().body(Map.of(
+                "success", false,
+                "message", "取消任务失败: " + e.getMessage()
+            ));
+        }
+    }
+
+    @Operation(summary = "从检查点继续扫描任务")
+    @PostMapping("/{jobId}/resume")
+    public ResponseEntity<Map<String, Object>> resumeScanJob(
+            @Parameter(description = "任务ID") @PathVariable Long jobId) {
+
+        try {
+            ClamAVScanJob job = scanJobService.resumeScanJob(jobId);
+
+            return ResponseEntity.ok(Map.of(
+                "success", true,
+                "data", job,
+                "message", "任务已继续"
+            ));
+
+        } catch (Exception e) {
+            log.error("继续扫描任务失败", e);
+            return ResponseEntity.badRequest().body(Map.of(
+                "success", false,
+                "message", "继续任务失败: " + e.getMessage()
+            ));
+        }
+    }
+}
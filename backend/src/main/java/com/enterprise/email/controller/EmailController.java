@@ -1,26 +1,34 @@
 package com.enterprise.email.controller;
 
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.enterprise.email.dto.AttachmentContent;
+import com.enterprise.email.dto.BulkJobStatus;
+import com.enterprise.email.dto.BulkOperationRequest;
 import com.enterprise.email.dto.EmailDto;
 import com.enterprise.email.dto.SendEmailRequest;
 import com.enterprise.email.entity.Email;
 import com.enterprise.email.entity.EmailAttachment;
+import com.enterprise.email.entity.EmailThread;
+import com.enterprise.email.service.BulkEmailService;
 import com.enterprise.email.service.EmailAttachmentService;
 import com.enterprise.email.service.EmailService;
+import com.enterprise.email.service.EmailThreadService;
+import com.enterprise.email.service.PushService;
+import com.enterprise.email.utils.AttachmentDownloadWriter;
 import com.enterprise.email.utils.SecurityUtils;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.core.io.ByteArrayResource;
-import org.springframework.core.io.Resource;
-import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import javax.validation.Valid;
 import javax.validation.constraints.NotNull;
@@ -41,6 +49,10 @@ public class EmailController {
 
     private final EmailService emailService;
     private final EmailAttachmentService attachmentService;
+    private final EmailThreadService emailThreadService;
+    private final PushService pushService;
+    private final BulkEmailService bulkEmailService;
+    private final AttachmentDownloadWriter attachmentDownloadWriter;
 
     @Operation(summary = "发送邮件")
     @PostMapping("/send")
@@ -96,6 +108,64 @@ public class EmailController {
         }
     }
 
+    @Operation(summary = "订阅邮件事件流（新邮件、标记变化、计数增量）")
+    @GetMapping(value = "/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter subscribeEvents() {
+        Long userId = SecurityUtils.getCurrentUserId();
+        return pushService.subscribe(userId);
+    }
+
+    @Operation(summary = "获取会话列表")
+    @GetMapping("/threads")
+    public ResponseEntity<Map<String, Object>> getThreads(
+            @Parameter(description = "页码") @RequestParam(defaultValue = "1") Integer page,
+            @Parameter(description = "每页大小") @RequestParam(defaultValue = "20") Integer size) {
+        
+        try {
+            Long userId = SecurityUtils.getCurrentUserId();
+            var result = emailThreadService.getThreads(userId, new Page<EmailThread>(page, size));
+            
+            return ResponseEntity.ok(Map.of(
+                "success", true,
+                "data", result
+            ));
+            
+        } catch (Exception e) {
+            log.error("获取会话列表失败", e);
+            return ResponseEntity.badRequest().body(Map.of(
+                "success", false,
+                "message", "获取会话列表失败: " + e.getMessage()
+            ));
+        }
+    }
+
+    @Operation(summary = "获取会话邮件")
+    @GetMapping("/threads/{threadId}")
+    public ResponseEntity<Map<String, Object>> getThreadEmails(
+            @Parameter(description = "会话ID") @PathVariable Long threadId) {
+        
+        try {
+            Long userId = SecurityUtils.getCurrentUserId();
+            List<Email> emails = emailThreadService.getThreadEmails(threadId, userId);
+            
+            if (emails == null) {
+                return ResponseEntity.notFound().build();
+            }
+            
+            return ResponseEntity.ok(Map.of(
+                "success", true,
+                "data", emails
+            ));
+            
+        } catch (Exception e) {
+            log.error("获取会话邮件失败", e);
+            return ResponseEntity.badRequest().body(Map.of(
+                "success", false,
+                "message", "获取会话邮件失败: " + e.getMessage()
+            ));
+        }
+    }
+
     @Operation(summary = "获取邮件详情")
     @GetMapping("/{emailId}")
     public ResponseEntity<Map<String, Object>> getEmailDetail(
@@ -357,30 +427,57 @@ public class EmailController {
 
     @Operation(summary = "下载附件")
     @GetMapping("/attachments/{attachmentId}/download")
-    public ResponseEntity<Resource> downloadAttachment(
-            @Parameter(description = "附件ID") @PathVariable Long attachmentId) {
+    public void downloadAttachment(
+            @Parameter(description = "附件ID") @PathVariable Long attachmentId,
+            HttpServletRequest request,
+            HttpServletResponse response) throws IOException {
         
         try {
             Long userId = SecurityUtils.getCurrentUserId();
-            EmailAttachment attachment = attachmentService.getAttachmentById(attachmentId);
+            AttachmentContent content = attachmentService.openAttachment(attachmentId, userId);
             
-            if (attachment == null) {
-                return ResponseEntity.notFound().build();
+            if (content == null) {
+                response.sendError(HttpServletResponse.SC_NOT_FOUND);
+                return;
             }
             
-            byte[] data = attachmentService.downloadAttachment(attachmentId, userId);
-            ByteArrayResource resource = new ByteArrayResource(data);
-            
-            return ResponseEntity.ok()
-                    .header(HttpHeaders.CONTENT_DISPOSITION, 
-                           "attachment; filename=\"" + attachment.getFileName() + "\"")
-                    .contentType(MediaType.APPLICATION_OCTET_STREAM)
-                    .contentLength(data.length)
-                    .body(resource);
+            // 流式输出，支持Range/If-Range与ETag协商
+            attachmentDownloadWriter.write(request, response, content);
                     
         } catch (IOException e) {
+            if (response.isCommitted()) {
+                // 客户端中断下载
+                log.debug("附件下载中断: attachmentId={}, error={}", attachmentId, e.getMessage());
+                return;
+            }
             log.error("下载附件失败", e);
-            return ResponseEntity.badRequest().build();
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+        }
+    }
+
+    @Operation(summary = "内联图片", description = "邮件正文中cid:引用改写后的地址，凭签名访问，无需认证头")
+    @GetMapping("/attachments/{attachmentId}/inline")
+    public void inlineAttachment(
+            @Parameter(description = "附件ID") @PathVariable Long attachmentId,
+            @Parameter(description = "邮件所属用户ID") @RequestParam Long uid,
+            @Parameter(description = "签名") @RequestParam String sig,
+            HttpServletRequest request,
+            HttpServletResponse response) throws IOException {
+
+        try {
+            AttachmentContent content = attachmentService.openInlineAttachment(attachmentId, uid, sig);
+            if (content == null) {
+                response.sendError(HttpServletResponse.SC_NOT_FOUND);
+                return;
+            }
+            attachmentDownloadWriter.write(request, response, content);
+        } catch (IOException e) {
+            if (response.isCommitted()) {
+                log.debug("内联附件输出中断: attachmentId={}, error={}", attachmentId, e.getMessage());
+                return;
+            }
+            log.error("读取内联附件失败", e);
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST);
         }
     }
 
@@ -456,24 +553,32 @@ public class EmailController {
         try {
             Long userId = SecurityUtils.getCurrentUserId();
             
-            for (Long emailId : emailIds) {
-                switch (action) {
-                    case "read":
-                        emailService.markAsRead(emailId, userId);
-                        break;
-                    case "important":
-                        boolean important = Boolean.parseBoolean(value);
-                        emailService.markAsImportant(emailId, userId, important);
-                        break;
-                    case "delete":
+            String operation;
+            switch (action) {
+                case "read":
+                    operation = "read";
+                    break;
+                case "important":
+                    operation = Boolean.parseBoolean(value) ? "important" : "unimportant";
+                    break;
+                case "delete":
+                    for (Long emailId : emailIds) {
                         emailService.deleteEmail(emailId, userId);
-                        break;
-                    default:
-                        return ResponseEntity.badRequest().body(Map.of(
-                            "success", false,
-                            "message", "不支持的操作类型"
-                        ));
-                }
+                    }
+                    operation = null;
+                    break;
+                default:
+                    return ResponseEntity.badRequest().body(Map.of(
+                        "success", false,
+                        "message", "不支持的操作类型"
+                    ));
+            }
+            
+            if (operation != null) {
+                BulkOperationRequest request = new BulkOperationRequest();
+                request.setOperation(operation);
+                request.setEmailIds(emailIds);
+                bulkEmailService.submit(request, userId);
             }
             
             return ResponseEntity.ok(Map.of(
@@ -489,4 +594,58 @@ public class EmailController {
             ));
         }
     }
-}
\ No newline at end of file
+
+    @Operation(summary = "批量操作邮件", description = "按邮件ID列表或筛选条件批量标记、移动邮件，大量邮件转为后台任务")
+    @PostMapping("/bulk")
+    public ResponseEntity<Map<String, Object>> bulkOperation(@Valid @RequestBody BulkOperationRequest request) {
+        try {
+            Long userId = SecurityUtils.getCurrentUserId();
+            BulkJobStatus status = bulkEmailService.submit(request, userId);
+            boolean completed = !BulkJobStatus.STATUS_RUNNING.equals(status.getStatus());
+            
+            return ResponseEntity.ok(Map.of(
+                "success", true,
+                "message", completed ? "批量操作成功" : "批量操作已转为后台任务",
+                "data", status
+            ));
+            
+        } catch (Exception e) {
+            log.error("批量操作邮件失败", e);
+            return ResponseEntity.badRequest().body(Map.of(
+                "success", false,
+                "message", "批量操作失败: " + e.getMessage()
+            ));
+        }
+    }
+
+    @Operation(summary = "查询批量操作进度")
+    @GetMapping("/bulk/{jobId}")
+    public ResponseEntity<Map<String, Object>> getBulkJob(
+            @Parameter(description = "任务ID") @PathVariable String jobId) {
+        
+        Long userId = SecurityUtils.getCurrentUserId();
+        BulkJobStatus status = bulkEmailService.getJob(jobId, userId);
+        if (status == null) {
+            return ResponseEntity.notFound().build();
+        }
+        
+        return ResponseEntity.ok(Map.of(
+            "success", true,
+            "data", status
+        ));
+    }
+
+    @Operation(summary = "取消批量操作")
+    @DeleteMapping("/bulk/{jobId}")
+    public ResponseEntity<Map<String, Object>> cancelBulkJob(
+            @Parameter(description = "任务ID") @PathVariable String jobId) {
+        
+        Long userId = SecurityUtils.getCurrentUserId();
+        boolean cancelled = bulkEmailService.cancelJob(jobId, userId);
+        
+        return ResponseEntity.ok(Map.of(
+            "success", cancelled,
+            "message", cancelled ? "已请求取消，当前批次完成后停止" : "任务不存在或已结束"
+        ));
+    }
+}
@@ -0,0 +1,183 @@
+package com.enterprise.email.controller;
+
+import com.enterprise.email.entity.RefilterJob;
+import com.enterprise.email.service.RefilterService;
+import com.enterprise.email.service.UserAliasService;
+import com.enterprise.email.utils.SecurityUtils;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 邮件重新过滤控制器
+ */
+@Slf4j
+@RestController
+@RequestMapping("/api/refilter")
+@RequiredArgsConstructor
+@Tag(name = "重新过滤", description = "把当前过滤规则追溯应用到已有邮件")
+public class RefilterController {
+
+    private final RefilterService refilterService;
+    private final UserAliasService userAliasService;
+
+    @Operation(summary = "启动别名的重新过滤任务")
+    @PostMapping("/aliases/{aliasId}")
+    public ResponseEntity<Map<String, Object>> startRefilter(
+            @Parameter(description = "别名ID") @PathVariable Long aliasId) {
+
+        try {
+            Long userId = SecurityUtils.getCurrentUserId();
+            if (!userAliasService.isAliasOwnedByUser(aliasId, userId)) {
+                return ResponseEntity.badRequest().body(Map.of(
+                    "success", false,
+                    "message", "无权限操作该别名"
+                ));
+            }
+
+            RefilterJob job = refilterService.startRefilter(aliasId);
+
+            return ResponseEntity.ok(Map.of(
+                "success", true,
+                "data", job,
+                "message", "重新过滤任务已启动"
+            ));
+
+        } catch (Exception e) {
+            log.error("启动重新过滤任务失败", e);
+            return ResponseEntity.badRequest().body(Map.of(
+                "success", false,
+                "message", "启动重新过滤任务失败: " + e.getMessage()
+            ));
+        }
+    }
+
+    @Operation(summary = "获取别名最近的重新过滤任务")
+    @GetMapping("/aliases/{aliasId}/jobs")
+    public ResponseEntity<Map<String, Object>> getRefilterJobs(
+            @Parameter(description = "别名ID") @PathVariable Long aliasId,
+            @Parameter(description = "数量") @RequestParam(defaultValue = "20") int limit) {
+
+        try {
+            Long userId = SecurityUtils.getCurrentUserId();
+            if (!userAliasService.isAliasOwnedByUser(aliasId, userId)) {
+                return ResponseEntity.badRequest().body(Map.of(
+                    "success", false,
+                    "message", "无权限操作该别名"
+                ));
+            }
+
+            List<RefilterJob> jobs = refilterService.getRefilterJobs(aliasId, Math.max(1, Math.min(limit, 100)));
+
+            return ResponseEntity.ok(Map.of(
+                "success", true,
+                "data", jobs
+            ));
+
+        } catch (Exception e) {
+            log.error("获取重新过滤任务失败", e);
+            return ResponseEntity.badRequest().body(Map.of(
+                "success", false,
+                "message", "获取重新过滤任务失败: " + e.getMessage()
+            ));
+        }
+    }
+
+    @Operation(summary = "获取重新过滤任务进度")
+    @GetMapping("/jobs/{jobId}")
+    public ResponseEntity<Map<String, Object>> getRefilterProgress(
+            @Parameter(description = "任务ID") @PathVariable Long jobId) {
+
+        try {
+            if (!isJobOwnedByCurrentUser(jobId)) {
+                return ResponseEntity.badRequest().body(Map.of(
+                    "success", false,
+                    "message", "任务不存在"
+                ));
+            }
+
+            return ResponseEntity.ok(Map.of(
+                "success", true,
+                "data", refilterService.getRefilterProgress(jobId)
+            ));
+
+        } catch (Exception e) {
+            log.error("获取重新过滤任务进度失败", e);
+            return ResponseEntity.badRequest().body(Map.of(
+                "success", false,
+                "message", "获取任务进度失败: " + e.getMessage()
+            ));
+        }
+    }
+
+    @Operation(summary = "取消重新过滤任务")
+    @PostMapping("/jobs/{jobId}/cancel")
+    public ResponseEntity<Map<String, Object>> cancelRefilter(
+            @Parameter(description = "任务ID") @PathVariable Long jobId) {
+
+        try {
+            if (!isJobOwnedByCurrentUser(jobId)) {
+                return ResponseEntity.badRequest().body(Map.of(
+                    "success", false,
+                    "message", "任务不存在"
+                ));
+            }
+
+            boolean cancelled = refilterService.cancelRefilter(jobId);
+
+            return ResponseEntity.ok(Map.of(
+                "success", cancelled,
+                "message", cancelled ? "已请求取消任务" : "任务已完成，无法取消"
+            ));
+
+        } catch (Exception e) {
+            log.error("取消重新过滤任务失败", e);
+            return ResponseEntity.badRequest().body(Map.of(
+                "success", false,
+                "message", "取消任务失败: " + e.getMessage()
+            ));
+        }
+    }
+
+    @Operation(summary = "从检查点继续重新过滤任务")
+    @PostMapping("/jobs/{jobId}/resume")
+    public ResponseEntity<Map<String, Object>> resumeRefilter(
+            @Parameter(description = "任务ID") @PathVariable Long jobId) {
+
+        try {
+            if (!isJobOwnedByCurrentUser(jobId)) {
+                return ResponseEntity.badRequest().body(Map.of(
+                    "success", false,
+                    "message", "任务不存在"
+                ));
+            }
+
+            RefilterJob job = refilterService.resumeRefilter(jobId);
+
+            return ResponseEntity.ok(Map.of(
+                "success", true,
+                "data", job,
+                "message", "任务已继续"
+            ));
+
+        } catch (Exception e) {
+            log.error("继续重新过滤任务失败", e);
+            return ResponseEntity.badRequest().body(Map.of(
+                "success", false,
+                "message", "继续任务失败: " + e.getMessage()
+            ));
+        }
+    }
+
+    private boolean isJobOwnedByCurrentUser(Long jobId) {
+        RefilterJob job = refilterService.getRefilterJob(jobId);
+        return job != null && SecurityUtils.getCurrentUserId().equals(job.getUserId());
+    }
+}
@@ -0,0 +1,226 @@
+package com.enterprise.email.dnsbl;
+
+import lombok.Getter;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * DNS报文编解码（只覆盖黑名单查询需要的部分：单个问题的A记录查询与应答解析）
+ */
+@Getter
+public final class DnsMessage {
+
+    public static final int TYPE_A = 1;
+    public static final int TYPE_SOA = 6;
+    public static final int CLASS_IN = 1;
+
+    public static final int RCODE_NOERROR = 0;
+    public static final int RCODE_SERVFAIL = 2;
+    public static final int RCODE_NXDOMAIN = 3;
+    public static final int RCODE_REFUSED = 5;
+
+    private final int id;
+    private final int rcode;
+    private final boolean response;
+    private final boolean truncated;
+    private final String questionName;
+    private final int questionType;
+    /** A记录地址（每个4字节） */
+    private final List<byte[]> addresses;
+    /** A记录中最小的TTL（秒），没有A记录时为-1 */
+    private final long answerTtl;
+    /** 权威段SOA的否定缓存TTL（min(TTL, MINIMUM)，秒），没有SOA时为-1 */
+    private final long negativeTtl;
+
+    private DnsMessage(int id, int rcode, boolean response, boolean truncated, String questionName, int questionType,
+                       List<byte[]> addresses, long answerTtl, long negativeTtl) {
+        this.id = id;
+        this.rcode = rcode;
+        this.response = response;
+        this.truncated = truncated;
+        this.questionName = questionName;
+        this.questionType = questionType;
+        this.addresses = addresses;
+        this.answerTtl = answerTtl;
+        this.negativeTtl = negativeTtl;
+    }
+
+    /**
+     * 编码A记录查询（设置RD标志）
+     */
+    public static byte[] encodeQuery(int id, String name) {
+        ByteBuffer buffer = ByteBuffer.allocate(12 + name.length() + 2 + 4);
+        buffer.putShort((short) id);
+        buffer.putShort((short) 0x0100);
+        buffer.putShort((short) 1);
+        buffer.putShort((short) 0);
+        buffer.putShort((short) 0);
+        buffer.putShort((short) 0);
+        writeName(buffer, name);
+        buffer.putShort((short) TYPE_A);
+        buffer.putShort((short) CLASS_IN);
+        byte[] packet = new byte[buffer.position()];
+        buffer.flip();
+        buffer.get(packet);
+        return packet;
+    }
+
+    /**
+     * 校验查询名称（标签不超过63字节、总长不超过253字节、只含ASCII）
+     */
+    public static boolean isValidName(String name) {
+        if (name == null || name.isEmpty() || name.length() > 253) {
+            return false;
+        }
+        int labelStart = 0;
+        for (int i = 0; i <= name.length(); i++) {
+            if (i == name.length() || name.charAt(i) == '.') {
+                int length = i - labelStart;
+                if (length == 0 || length > 63) {
+                    return false;
+                }
+                labelStart = i + 1;
+            } else if (name.charAt(i) > 0x7e || name.charAt(i) <= 0x20) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 解析应答报文，格式错误时抛出IllegalArgumentException
+     */
+    public static DnsMessage parse(byte[] data, int length) {
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(data, 0, length);
+            int id = buffer.getShort() & 0xffff;
+            int flags = buffer.getShort() & 0xffff;
+            int qdCount = buffer.getShort() & 0xffff;
+            int anCount = buffer.getShort() & 0xffff;
+            int nsCount = buffer.getShort() & 0xffff;
+            buffer.getShort();
+
+            String questionName = null;
+            int questionType = 0;
+            for (int i = 0; i < qdCount; i++) {
+                String name = readName(data, buffer, length);
+                int type = buffer.getShort() & 0xffff;
+                buffer.getShort();
+                if (i == 0) {
+                    questionName = name;
+                    questionType = type;
+                }
+            }
+
+            List<byte[]> addresses = new ArrayList<>();
+            long answerTtl = -1;
+            for (int i = 0; i < anCount; i++) {
+                skipName(data, buffer, length);
+                int type = buffer.getShort() & 0xffff;
+                int recordClass = buffer.getShort() & 0xffff;
+                long ttl = buffer.getInt() & 0xffffffffL;
+                int rdLength = buffer.getShort() & 0xffff;
+                if (type == TYPE_A && recordClass == CLASS_IN && rdLength == 4) {
+                    byte[] address = new byte[4];
+                    buffer.get(address);
+                    addresses.add(address);
+                    answerTtl = answerTtl < 0 ? ttl : Math.min(answerTtl, ttl);
+                } else {
+                    buffer.position(buffer.position() + rdLength);
+                }
+            }
+
+            long negativeTtl = -1;
+            for (int i = 0; i < nsCount; i++) {
+                skipName(data, buffer, length);
+                int type = buffer.getShort() & 0xffff;
+                buffer.getShort();
+                long ttl = buffer.getInt() & 0xffffffffL;
+                int rdLength = buffer.getShort() & 0xffff;
+                int end = buffer.position() + rdLength;
+                if (type == TYPE_SOA) {
+                    skipName(data, buffer, length);
+                    skipName(data, buffer, length);
+                    // serial refresh retry expire minimum
+                    buffer.position(buffer.position() + 16);
+                    long minimum = buffer.getInt() & 0xffffffffL;
+                    negativeTtl = Math.min(ttl, minimum);
+                }
+                buffer.position(end);
+            }
+
+            return new DnsMessage(id, flags & 0x000f, (flags & 0x8000) != 0, (flags & 0x0200) != 0,
+                    questionName, questionType, Collections.unmodifiableList(addresses), answerTtl, negativeTtl);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("DNS报文格式错误", e);
+        }
+    }
+
+    private static void writeName(ByteBuffer buffer, String name) {
+        for (String label : name.split("\\.")) {
+            buffer.put((byte) label.length());
+            for (int i = 0; i < label.length(); i++) {
+                buffer.put((byte) label.charAt(i));
+            }
+        }
+        buffer.put((byte) 0);
+    }
+
+    private static String readName(byte[] data, ByteBuffer buffer, int length) {
+        StringBuilder name = new StringBuilder();
+        int position = buffer.position();
+        int resume = -1;
+        // 压缩指针最多跟随的次数，防止构造的循环指针
+        for (int jumps = 0; jumps < 64; ) {
+            if (position >= length) {
+                throw new IllegalArgumentException("名称越界");
+            }
+            int labelLength = data[position] & 0xff;
+            if (labelLength == 0) {
+                buffer.position(resume >= 0 ? resume : position + 1);
+                return name.toString();
+            }
+            if ((labelLength & 0xc0) == 0xc0) {
+                if (resume < 0) {
+                    resume = position + 2;
+                }
+                position = ((labelLength & 0x3f) << 8) | (data[position + 1] & 0xff);
+                jumps++;
+                continue;
+            }
+            if (position + 1 + labelLength > length) {
+                throw new IllegalArgumentException("标签越界");
+            }
+            if (name.length() > 0) {
+                name.append('.');
+            }
+            for (int i = 0; i < labelLength; i++) {
+                name.append((char) (data[position + 1 + i] & 0xff));
+            }
+            position += 1 + labelLength;
+        }
+        throw new IllegalArgumentException("名称压缩指针过多");
+    }
+
+    private static void skipName(byte[] data, ByteBuffer buffer, int length) {
+        int position = buffer.position();
+        while (true) {
+            if (position >= length) {
+                throw new IllegalArgumentException("名称越界");
+            }
+            int labelLength = data[position] & 0xff;
+            if (labelLength == 0) {
+                buffer.position(position + 1);
+                return;
+            }
+            if ((labelLength & 0xc0) == 0xc0) {
+                buffer.position(position + 2);
+                return;
+            }
+            position += 1 + labelLength;
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package com.enterprise.email.dnsbl;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 共享的异步UDP DNS客户端
+ *
+ * 所有查询共用一个UDP套接字，按事务ID区分未完成的查询，一个接收线程负责读取应答并完成对应的Future，
+ * 调用方不占用线程等待。事务ID随机分配，应答的来源地址、事务ID和问题名称都一致时才接受，
+ * 超时的查询由Future的超时机制完成并移出等待表。
+ */
+@Slf4j
+@Component
+public class DnsUdpClient {
+
+    private static final int MAX_PENDING = 60000;
+    private static final int MAX_PACKET = 4096;
+
+    private final InetSocketAddress resolver;
+    private final DatagramChannel channel;
+    private final Thread receiver;
+    private final SecureRandom random = new SecureRandom();
+    private final Map<Integer, PendingQuery> pending = new ConcurrentHashMap<>();
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong mismatched = new AtomicLong();
+
+    private volatile boolean running = true;
+
+    /**
+     * @param resolver 递归解析服务器（host或host:port），为空时读取/etc/resolv.conf的第一个nameserver
+     */
+    public DnsUdpClient(@Value("${email.dnsbl.resolver:}") String resolver) throws IOException {
+        this.resolver = parseResolver(resolver);
+        this.channel = DatagramChannel.open();
+        this.channel.bind(null);
+        this.receiver = new Thread(this::receiveLoop, "dnsbl-dns-receiver");
+        this.receiver.setDaemon(true);
+        this.receiver.start();
+        log.info("DNS客户端已启动: resolver={}", this.resolver);
+    }
+
+    /**
+     * 发送A记录查询，超时后Future以TimeoutException完成
+     */
+    public CompletableFuture<DnsMessage> query(String name, long timeoutMillis) {
+        String question = name.toLowerCase();
+        if (!DnsMessage.isValidName(question)) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("无效的查询名称: " + name));
+        }
+        if (pending.size() >= MAX_PENDING) {
+            return CompletableFuture.failedFuture(new IllegalStateException("未完成的DNS查询过多"));
+        }
+
+        CompletableFuture<DnsMessage> future = new CompletableFuture<>();
+        PendingQuery query = new PendingQuery(question, future);
+        int id;
+        do {
+            id = random.nextInt(0x10000);
+        } while (pending.putIfAbsent(id, query) != null);
+
+        int queryId = id;
+        future.orTimeout(Math.max(1, timeoutMillis), TimeUnit.MILLISECONDS)
+                .whenComplete((response, error) -> {
+                    pending.remove(queryId, query);
+                    if (error instanceof TimeoutException) {
+                        timeouts.incrementAndGet();
+                    }
+                });
+
+        try {
+            channel.send(ByteBuffer.wrap(DnsMessage.encodeQuery(queryId, question)), resolver);
+            sent.incrementAndGet();
+        } catch (IOException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    public InetSocketAddress getResolver() {
+        return resolver;
+    }
+
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("resolver", resolver.toString());
+        stats.put("pending", pending.size());
+        stats.put("sent", sent.get());
+        stats.put("received", received.get());
+        stats.put("timeouts", timeouts.get());
+        stats.put("mismatched", mismatched.get());
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.warn("关闭DNS套接字失败: {}", e.getMessage());
+        }
+        pending.values().forEach(query -> query.future.completeExceptionally(new ClosedChannelException()));
+        pending.clear();
+    }
+
+    private void receiveLoop() {
+        ByteBuffer buffer = ByteBuffer.allocate(MAX_PACKET);
+        while (running) {
+            try {
+                buffer.clear();
+                SocketAddress source = channel.receive(buffer);
+                if (source == null) {
+                    continue;
+                }
+                received.incrementAndGet();
+                if (!resolver.equals(source)) {
+                    mismatched.incrementAndGet();
+                    continue;
+                }
+                dispatch(buffer.array(), buffer.position());
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (Exception e) {
+                if (running) {
+                    log.warn("接收DNS应答失败: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void dispatch(byte[] data, int length) {
+        DnsMessage message;
+        try {
+            message = DnsMessage.parse(data, length);
+        } catch (IllegalArgumentException e) {
+            mismatched.incrementAndGet();
+            return;
+        }
+        PendingQuery query = pending.get(message.getId());
+        if (query == null || !message.isResponse() || !query.name.equalsIgnoreCase(message.getQuestionName())) {
+            mismatched.incrementAndGet();
+            return;
+        }
+        if (pending.remove(message.getId(), query)) {
+            query.future.complete(message);
+        }
+    }
+
+    private static InetSocketAddress parseResolver(String value) throws IOException {
+        String address = value != null ? value.trim() : "";
+        if (address.isEmpty()) {
+            address = systemNameserver();
+        }
+        int port = 53;
+        int colon = address.lastIndexOf(':');
+        if (address.startsWith("[")) {
+            int end = address.indexOf(']');
+            if (end + 1 < address.length() && address.charAt(end + 1) == ':') {
+                port = Integer.parseInt(address.substring(end + 2));
+            }
+            address = address.substring(1, end);
+        } else if (colon > 0 && address.indexOf(':') == colon) {
+            port = Integer.parseInt(address.substring(colon + 1));
+            address = address.substring(0, colon);
+        }
+        return new InetSocketAddress(address, port);
+    }
+
+    private static String systemNameserver() {
+        Path resolvConf = Paths.get("/etc/resolv.conf");
+        try {
+            if (Files.isReadable(resolvConf)) {
+                List<String> lines = Files.readAllLines(resolvConf);
+                for (String line : lines) {
+                    String[] parts = line.trim().split("\\s+");
+                    if (parts.length >= 2 && "nameserver".equals(parts[0])) {
+                        return parts[1].contains(":") ? "[" + parts[1] + "]" : parts[1];
+                    }
+                }
+            }
+        } catch (IOException e) {
+            log.warn("读取/etc/resolv.conf失败: {}", e.getMessage());
+        }
+        return "127.0.0.1";
+    }
+
+    private static final class PendingQuery {
+        private final String name;
+        private final CompletableFuture<DnsMessage> future;
+
+        private PendingQuery(String name, CompletableFuture<DnsMessage> future) {
+            this.name = name;
+            this.future = future;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.enterprise.email.dnsbl;
+
+import java.net.InetAddress;
+
+/**
+ * 黑名单查询名称构造
+ */
+public final class DnsblNames {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private DnsblNames() {
+    }
+
+    /**
+     * IP地址的反向查询前缀：IPv4按字节倒序（1.2.3.4 -> 4.3.2.1），
+     * IPv6按半字节倒序展开为32个标签；IPv4映射的IPv6地址按IPv4处理。不是IP地址时返回null
+     */
+    public static String reverseIp(String ip) {
+        byte[] address = parseIp(ip);
+        if (address == null) {
+            return null;
+        }
+        StringBuilder name = new StringBuilder(address.length == 4 ? 15 : 63);
+        for (int i = address.length - 1; i >= 0; i--) {
+            int value = address[i] & 0xff;
+            if (name.length() > 0) {
+                name.append('.');
+            }
+            if (address.length == 4) {
+                name.append(value);
+            } else {
+                name.append(HEX[value & 0x0f]).append('.').append(HEX[value >>> 4]);
+            }
+        }
+        return name.toString();
+    }
+
+    /**
+     * 解析IP字面量（不做DNS解析），不是合法的IP地址时返回null
+     */
+    public static byte[] parseIp(String ip) {
+        if (ip == null) {
+            return null;
+        }
+        String value = ip.trim();
+        if (value.startsWith("[") && value.endsWith("]")) {
+            value = value.substring(1, value.length() - 1);
+        }
+        if (value.isEmpty()) {
+            return null;
+        }
+        if (value.indexOf(':') < 0) {
+            return parseIpv4(value);
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (Character.digit(c, 16) < 0 && c != ':' && c != '.') {
+                return null;
+            }
+        }
+        try {
+            // IPv4映射地址解析为Inet4Address，返回4字节
+            return InetAddress.getByName(value).getAddress();
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static byte[] parseIpv4(String value) {
+        byte[] address = new byte[4];
+        int part = 0;
+        int octet = -1;
+        for (int i = 0; i <= value.length(); i++) {
+            char c = i < value.length() ? value.charAt(i) : '.';
+            if (c == '.') {
+                if (octet < 0 || part > 3) {
+                    return null;
+                }
+                address[part++] = (byte) octet;
+                octet = -1;
+            } else if (c >= '0' && c <= '9') {
+                octet = (octet < 0 ? 0 : octet * 10) + (c - '0');
+                if (octet > 255) {
+                    return null;
+                }
+            } else {
+                return null;
+            }
+        }
+        return part == 4 ? address : null;
+    }
+}
@@ -0,0 +1,203 @@
+package com.enterprise.email.dnsbl;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * 黑名单并发查询
+ *
+ * 对同一个查询前缀（反向IP或域名），先读取各区域缓存的结论，其余区域在同一个截止时间内并发查询
+ * （同时在途的数量不超过上限；其他请求正在查询的同一区域合并等待，不重复发送，合并的查询先于本请求
+ * 超时时在剩余时间内重新查询），应答按完成顺序处理；
+ * 列入的区域数达到阈值后停止等待并立即返回，截止时间到达时未应答的区域记为超时。
+ * 停止等待的查询不会取消，完成后仍写入缓存供后续请求使用。
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class DnsblQueryEngine {
+
+    private final DnsUdpClient dnsClient;
+    private final DnsblVerdictCache verdictCache;
+
+    /**
+     * @param prefix        查询前缀（反向IP或域名）
+     * @param zones         区域列表
+     * @param budgetMillis  整体截止时间（毫秒）
+     * @param maxInFlight   同时在途的查询数上限
+     * @param threshold     列入多少个区域后提前结束，0表示查询全部区域
+     * @param maxTtlSeconds 列入结论的缓存时长上限
+     * @return 与zones顺序一致的结果
+     */
+    public List<DnsblZoneResult> query(String prefix, List<DnsblZone> zones, long budgetMillis,
+                                       int maxInFlight, int threshold, long maxTtlSeconds) {
+        int count = zones.size();
+        long start = System.currentTimeMillis();
+        long deadline = start + Math.max(1, budgetMillis);
+        int limit = Math.max(1, maxInFlight);
+
+        DnsblZoneResult[] results = new DnsblZoneResult[count];
+        int listed = 0;
+        for (int i = 0; i < count; i++) {
+            DnsblZoneResult cached = verdictCache.get(zones.get(i).getHostname(), prefix);
+            if (cached != null) {
+                results[i] = cached.asCached();
+                if (cached.isListed()) {
+                    listed++;
+                }
+            }
+        }
+
+        List<CompletableFuture<DnsblZoneResult>> futures = new ArrayList<>(Collections.nCopies(count, null));
+        BlockingQueue<Integer> completed = new LinkedBlockingQueue<>();
+        int next = 0;
+        int inFlight = 0;
+        try {
+            while (threshold <= 0 || listed < threshold) {
+                while (next < count && inFlight < limit) {
+                    int index = next++;
+                    if (results[index] != null) {
+                        continue;
+                    }
+                    if (deadline <= System.currentTimeMillis()) {
+                        next = count;
+                        break;
+                    }
+                    DnsblZone zone = zones.get(index);
+                    CompletableFuture<DnsblZoneResult> future = verdictCache.getOrLoad(zone.getHostname(), prefix,
+                            maxTtlSeconds, deadline, timeout -> resolve(zone, prefix, timeout));
+                    futures.set(index, future);
+                    future.whenComplete((response, error) -> completed.add(index));
+                    inFlight++;
+                }
+                if (inFlight == 0) {
+                    break;
+                }
+                long remaining = deadline - System.currentTimeMillis();
+                Integer index = remaining > 0 ? completed.poll(remaining, TimeUnit.MILLISECONDS) : completed.poll();
+                if (index == null) {
+                    break;
+                }
+                inFlight--;
+                results[index] = outcome(zones.get(index), futures.get(index), System.currentTimeMillis() - start);
+                if (results[index].isListed()) {
+                    listed++;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        boolean expired = System.currentTimeMillis() >= deadline;
+        List<DnsblZoneResult> ordered = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            DnsblZoneResult result = results[i];
+            CompletableFuture<DnsblZoneResult> future = futures.get(i);
+            if (result == null) {
+                String hostname = zones.get(i).getHostname();
+                if (future != null && future.isDone()) {
+                    // 在结束前刚刚完成、还未从队列取出
+                    result = outcome(zones.get(i), future, System.currentTimeMillis() - start);
+                } else if (future != null && expired) {
+                    result = new DnsblZoneResult(hostname, DnsblZoneResult.Status.TIMEOUT, null,
+                            "查询超时", -1, System.currentTimeMillis() - start);
+                } else {
+                    result = new DnsblZoneResult(hostname, DnsblZoneResult.Status.SKIPPED, null,
+                            expired ? "截止时间已到，未查询" : "已达到列入阈值", -1, 0);
+                }
+            }
+            ordered.add(result);
+        }
+        return ordered;
+    }
+
+    private CompletableFuture<DnsblZoneResult> resolve(DnsblZone zone, String prefix, long timeoutMillis) {
+        long sentAt = System.currentTimeMillis();
+        return dnsClient.query(prefix + "." + zone.getHostname(), timeoutMillis)
+                .handle((message, error) -> decode(zone, message, error, System.currentTimeMillis() - sentAt));
+    }
+
+    private DnsblZoneResult outcome(DnsblZone zone, CompletableFuture<DnsblZoneResult> future, long elapsed) {
+        try {
+            DnsblZoneResult result = future.getNow(null);
+            if (result != null) {
+                return result;
+            }
+        } catch (CompletionException | CancellationException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            return new DnsblZoneResult(zone.getHostname(), DnsblZoneResult.Status.ERROR, null,
+                    "查询失败: " + cause.getMessage(), -1, elapsed);
+        }
+        return new DnsblZoneResult(zone.getHostname(), DnsblZoneResult.Status.TIMEOUT, null, "查询超时", -1, elapsed);
+    }
+
+    private DnsblZoneResult decode(DnsblZone zone, DnsMessage message, Throwable error, long elapsed) {
+        String hostname = zone.getHostname();
+        if (error != null) {
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            if (cause instanceof TimeoutException) {
+                return new DnsblZoneResult(hostname, DnsblZoneResult.Status.TIMEOUT, null, "查询超时", -1, elapsed);
+            }
+            return new DnsblZoneResult(hostname, DnsblZoneResult.Status.ERROR, null,
+                    "查询失败: " + cause.getMessage(), -1, elapsed);
+        }
+
+        if (message.getRcode() == DnsMessage.RCODE_NXDOMAIN) {
+            return new DnsblZoneResult(hostname, DnsblZoneResult.Status.NOT_LISTED, null, null,
+                    message.getNegativeTtl(), elapsed);
+        }
+        if (message.getRcode() != DnsMessage.RCODE_NOERROR) {
+            return new DnsblZoneResult(hostname, DnsblZoneResult.Status.ERROR, null,
+                    "DNS错误: " + rcodeName(message.getRcode()), -1, elapsed);
+        }
+
+        List<String> codes = new ArrayList<>();
+        List<String> reasons = new ArrayList<>();
+        for (byte[] address : message.getAddresses()) {
+            if ((address[0] & 0xff) != 127) {
+                continue;
+            }
+            String code = (address[0] & 0xff) + "." + (address[1] & 0xff) + "." + (address[2] & 0xff) + "." + (address[3] & 0xff);
+            if (DnsblZone.isErrorCode(code)) {
+                return errorCodeResult(hostname, code, elapsed);
+            }
+            if (!zone.isListingCode(code)) {
+                continue;
+            }
+            codes.add(code);
+            String description = zone.describeCode(code);
+            reasons.add(description != null ? description : code);
+        }
+        if (codes.isEmpty()) {
+            long ttl = message.getAnswerTtl() >= 0 ? message.getAnswerTtl() : message.getNegativeTtl();
+            return new DnsblZoneResult(hostname, DnsblZoneResult.Status.NOT_LISTED, null, null, ttl, elapsed);
+        }
+        return new DnsblZoneResult(hostname, DnsblZoneResult.Status.LISTED, codes,
+                "Listed in " + zone.getName() + " (" + String.join(", ", reasons) + ")", message.getAnswerTtl(), elapsed);
+    }
+
+    /**
+     * 区域返回错误码时的结果，本地镜像与网络查询共用
+     */
+    public static DnsblZoneResult errorCodeResult(String hostname, String code, long elapsed) {
+        return new DnsblZoneResult(hostname, DnsblZoneResult.Status.ERROR, List.of(code),
+                "区域返回错误码 " + code, -1, elapsed);
+    }
+
+    private static String rcodeName(int rcode) {
+        switch (rcode) {
+            case DnsMessage.RCODE_SERVFAIL:
+                return "SERVFAIL";
+            case DnsMessage.RCODE_REFUSED:
+                return "REFUSED";
+            default:
+                return "RCODE " + rcode;
+        }
+    }
+}
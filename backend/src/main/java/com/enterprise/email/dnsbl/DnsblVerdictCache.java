@@ -0,0 +1,262 @@
+package com.enterprise.email.dnsbl;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongFunction;
+import java.util.function.Predicate;
+
+/**
+ * 黑名单查询结果缓存（按 区域 + 查询前缀 缓存单个区域的结论）
+ *
+ * 容量有上限，按键哈希分段加锁，每段是分段LRU：新写入的结论进入试用区，再次命中后晋升到保护区，
+ * 淘汰优先发生在试用区，大量只出现一次的IP（如僵尸网络）不会挤掉反复出现的热点结论。
+ * 列入的结论按应答TTL缓存，未列入的结论按SOA给出的否定TTL缓存（均不超过各自的上限），错误和超时不缓存。
+ * 同一个键的并发查询合并为一次，其余调用方等待同一个Future；合并的查询按发起方的截止时间超时后，
+ * 截止时间更晚的等待方用自己剩余的时间重新查询。缓存的结论对象不可变，可以直接共享。
+ */
+@Component
+public class DnsblVerdictCache {
+
+    private final Segment[] segments;
+    private final int mask;
+    private final Map<String, CompletableFuture<DnsblZoneResult>> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    @Value("${email.dnsbl.cache.min-ttl-seconds:30}")
+    private long minTtlSeconds;
+
+    @Value("${email.dnsbl.cache.negative-ttl-seconds:300}")
+    private long negativeTtlSeconds;
+
+    public DnsblVerdictCache(@Value("${email.dnsbl.cache.max-entries:100000}") int maxEntries) {
+        int size = 16;
+        int perSegment = Math.max(8, maxEntries / size);
+        this.segments = new Segment[size];
+        for (int i = 0; i < size; i++) {
+            segments[i] = new Segment(perSegment, evictions);
+        }
+        this.mask = size - 1;
+    }
+
+    /**
+     * 读取缓存的结论，没有或已过期时返回null
+     */
+    public DnsblZoneResult get(String zone, String prefix) {
+        String key = key(zone, prefix);
+        Segment segment = segment(key);
+        DnsblZoneResult result;
+        synchronized (segment) {
+            result = segment.get(key, System.currentTimeMillis());
+        }
+        if (result != null) {
+            hits.incrementAndGet();
+        }
+        return result;
+    }
+
+    /**
+     * 读取缓存；未命中时合并到进行中的查询，或调用loader发起新查询并在完成后写入缓存
+     *
+     * @param maxTtlSeconds 列入结论的缓存时长上限
+     * @param deadline      本调用方的截止时间（System.currentTimeMillis）
+     * @param loader        按超时毫秒数发起查询
+     */
+    public CompletableFuture<DnsblZoneResult> getOrLoad(String zone, String prefix, long maxTtlSeconds, long deadline,
+                                                        LongFunction<CompletableFuture<DnsblZoneResult>> loader) {
+        DnsblZoneResult cached = get(zone, prefix);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        String key = key(zone, prefix);
+        CompletableFuture<DnsblZoneResult> created = new CompletableFuture<>();
+        CompletableFuture<DnsblZoneResult> existing = inFlight.putIfAbsent(key, created);
+        if (existing != null) {
+            coalesced.incrementAndGet();
+            // 合并的查询按发起方的截止时间超时，本调用方还有剩余时间时自己再查一次
+            return existing.thenCompose(result -> result.getStatus() == DnsblZoneResult.Status.TIMEOUT
+                    && deadline > System.currentTimeMillis()
+                    ? getOrLoad(zone, prefix, maxTtlSeconds, deadline, loader)
+                    : CompletableFuture.completedFuture(result));
+        }
+        misses.incrementAndGet();
+
+        CompletableFuture<DnsblZoneResult> load;
+        try {
+            load = loader.apply(Math.max(1, deadline - System.currentTimeMillis()));
+        } catch (RuntimeException e) {
+            load = CompletableFuture.failedFuture(e);
+        }
+        load.whenComplete((result, error) -> {
+            if (result != null) {
+                put(key, result, maxTtlSeconds);
+            }
+            inFlight.remove(key, created);
+            if (error != null) {
+                created.completeExceptionally(error);
+            } else {
+                created.complete(result);
+            }
+        });
+        return created;
+    }
+
+    /**
+     * 失效指定区域的所有结论
+     */
+    public int invalidateZones(Collection<String> zones) {
+        Set<String> prefixes = new HashSet<>();
+        for (String zone : zones) {
+            prefixes.add(zone.trim().toLowerCase() + " ");
+        }
+        int removed = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                removed += segment.removeIf(key -> prefixes.contains(key.substring(0, key.indexOf(' ') + 1)));
+            }
+        }
+        return removed;
+    }
+
+    public void clear() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.probation.clear();
+                segment.protectedEntries.clear();
+            }
+        }
+    }
+
+    public Map<String, Object> getStatistics() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.probation.size() + segment.protectedEntries.size();
+            }
+        }
+        long hitCount = hits.get();
+        long lookups = hitCount + misses.get() + coalesced.get();
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("cacheSize", size);
+        stats.put("hits", hitCount);
+        stats.put("misses", misses.get());
+        stats.put("coalesced", coalesced.get());
+        stats.put("evictions", evictions.get());
+        stats.put("inFlight", inFlight.size());
+        stats.put("hitRate", lookups > 0 ? Math.round(hitCount * 10000.0 / lookups) / 100.0 : 0.0);
+        return stats;
+    }
+
+    private void put(String key, DnsblZoneResult result, long maxTtlSeconds) {
+        long ttl;
+        if (result.getStatus() == DnsblZoneResult.Status.LISTED) {
+            ttl = result.getTtlSeconds() >= 0 ? Math.min(result.getTtlSeconds(), maxTtlSeconds) : maxTtlSeconds;
+        } else if (result.getStatus() == DnsblZoneResult.Status.NOT_LISTED) {
+            ttl = result.getTtlSeconds() >= 0 ? Math.min(result.getTtlSeconds(), negativeTtlSeconds) : negativeTtlSeconds;
+        } else {
+            return;
+        }
+        ttl = Math.max(ttl, Math.min(minTtlSeconds, maxTtlSeconds));
+        if (ttl <= 0) {
+            return;
+        }
+        Segment segment = segment(key);
+        synchronized (segment) {
+            segment.put(key, new Entry(result, System.currentTimeMillis() + ttl * 1000));
+        }
+    }
+
+    private static String key(String zone, String prefix) {
+        return zone.toLowerCase() + " " + prefix.toLowerCase();
+    }
+
+    private Segment segment(String key) {
+        int h = key.hashCode();
+        return segments[(h ^ (h >>> 16)) & mask];
+    }
+
+    private static final class Entry {
+        private final DnsblZoneResult result;
+        private final long expiresAt;
+
+        private Entry(DnsblZoneResult result, long expiresAt) {
+            this.result = result;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * 分段LRU：试用区占20%，保护区占80%，两者都按访问顺序排列
+     */
+    private static final class Segment {
+        private final LinkedHashMap<String, Entry> probation = new LinkedHashMap<>(16, 0.75f, true);
+        private final LinkedHashMap<String, Entry> protectedEntries = new LinkedHashMap<>(16, 0.75f, true);
+        private final int probationCapacity;
+        private final int protectedCapacity;
+        private final AtomicLong evictions;
+
+        private Segment(int capacity, AtomicLong evictions) {
+            this.probationCapacity = Math.max(1, capacity / 5);
+            this.protectedCapacity = Math.max(1, capacity - probationCapacity);
+            this.evictions = evictions;
+        }
+
+        private DnsblZoneResult get(String key, long now) {
+            Entry entry = protectedEntries.get(key);
+            if (entry != null) {
+                if (entry.expiresAt <= now) {
+                    protectedEntries.remove(key);
+                    return null;
+                }
+                return entry.result;
+            }
+            entry = probation.remove(key);
+            if (entry == null || entry.expiresAt <= now) {
+                return null;
+            }
+            // 再次命中，晋升到保护区；保护区满时最久未访问的降回试用区
+            protectedEntries.put(key, entry);
+            if (protectedEntries.size() > protectedCapacity) {
+                Iterator<Map.Entry<String, Entry>> eldest = protectedEntries.entrySet().iterator();
+                Map.Entry<String, Entry> demoted = eldest.next();
+                eldest.remove();
+                addProbation(demoted.getKey(), demoted.getValue());
+            }
+            return entry.result;
+        }
+
+        private void put(String key, Entry entry) {
+            if (protectedEntries.containsKey(key)) {
+                protectedEntries.put(key, entry);
+                return;
+            }
+            addProbation(key, entry);
+        }
+
+        private void addProbation(String key, Entry entry) {
+            probation.put(key, entry);
+            if (probation.size() > probationCapacity) {
+                Iterator<String> eldest = probation.keySet().iterator();
+                eldest.next();
+                eldest.remove();
+                evictions.incrementAndGet();
+            }
+        }
+
+        private int removeIf(Predicate<String> filter) {
+            int before = probation.size() + protectedEntries.size();
+            probation.keySet().removeIf(filter);
+            protectedEntries.keySet().removeIf(filter);
+            return before - probation.size() - protectedEntries.size();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.enterprise.email.dnsbl;
+
+import lombok.Getter;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 黑名单区域（来自配置中的服务器列表）
+ */
+@Getter
+public final class DnsblZone {
+
+    private final String hostname;
+    private final String name;
+    /** 返回码 -> 说明，为空时127.0.0.0/8内的返回码都视为列入 */
+    private final Map<String, String> returnCodes;
+
+    public DnsblZone(String hostname, String name, Map<String, String> returnCodes) {
+        this.hostname = hostname.trim().toLowerCase();
+        this.name = name != null ? name : hostname;
+        this.returnCodes = returnCodes != null ? Collections.unmodifiableMap(new LinkedHashMap<>(returnCodes))
+                : Collections.emptyMap();
+    }
+
+    /**
+     * 127.255.255.x 是区域拒绝查询等错误（如通过公共解析服务器查询），不是列入
+     */
+    public static boolean isErrorCode(String code) {
+        return code.startsWith("127.255.255.");
+    }
+
+    /**
+     * 返回码是否表示列入：须在127.0.0.0/8内，配置了返回码时还须是其中之一
+     */
+    public boolean isListingCode(String code) {
+        return code.startsWith("127.") && (returnCodes.isEmpty() || returnCodes.containsKey(code));
+    }
+
+    /**
+     * 返回码的说明，未配置时返回null
+     */
+    public String describeCode(String code) {
+        return returnCodes.get(code);
+    }
+
+    /**
+     * 从服务器配置项构造，没有hostname或enabled为false时返回null
+     */
+    public static DnsblZone fromConfig(Map<String, Object> server) {
+        Object hostname = server.get("hostname");
+        if (!(hostname instanceof String) || ((String) hostname).trim().isEmpty()
+                || Boolean.FALSE.equals(server.get("enabled"))) {
+            return null;
+        }
+        Map<String, String> codes = null;
+        Object configured = server.get("returnCodes");
+        if (configured instanceof Map) {
+            codes = new LinkedHashMap<>();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) configured).entrySet()) {
+                codes.put(String.valueOf(entry.getKey()), String.valueOf(entry.getValue()));
+            }
+        }
+        Object name = server.get("name");
+        return new DnsblZone((String) hostname, name instanceof String ? (String) name : null, codes);
+    }
+}
@@ -0,0 +1,95 @@
+package com.enterprise.email.dnsbl;
+
+import lombok.Getter;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 单个区域的查询结果（不可变）
+ */
+@Getter
+public final class DnsblZoneResult {
+
+    public enum Status {
+        /** 已列入 */
+        LISTED,
+        /** 未列入（NXDOMAIN或没有有效返回码） */
+        NOT_LISTED,
+        /** 区域或解析服务器返回错误 */
+        ERROR,
+        /** 截止时间内没有应答 */
+        TIMEOUT,
+        /** 达到列入阈值后未查询或已取消 */
+        SKIPPED
+    }
+
+    private final String zone;
+    private final Status status;
+    private final List<String> returnCodes;
+    private final String reason;
+    /** 结果可缓存的秒数（来自应答TTL或SOA），未知时为-1 */
+    private final long ttlSeconds;
+    private final long responseTime;
+    private final boolean fromCache;
+
+    public DnsblZoneResult(String zone, Status status, List<String> returnCodes, String reason,
+                           long ttlSeconds, long responseTime) {
+        this(zone, status, returnCodes != null ? Collections.unmodifiableList(returnCodes) : Collections.emptyList(),
+                reason, ttlSeconds, responseTime, false);
+    }
+
+    private DnsblZoneResult(String zone, Status status, List<String> returnCodes, String reason,
+                            long ttlSeconds, long responseTime, boolean fromCache) {
+        this.zone = zone;
+        this.status = status;
+        this.returnCodes = returnCodes;
+        this.reason = reason;
+        this.ttlSeconds = ttlSeconds;
+        this.responseTime = responseTime;
+        this.fromCache = fromCache;
+    }
+
+    /**
+     * 标记为来自缓存的副本（响应时间为0）
+     */
+    public DnsblZoneResult asCached() {
+        return fromCache ? this : new DnsblZoneResult(zone, status, returnCodes, reason, ttlSeconds, 0, true);
+    }
+
+    public boolean isListed() {
+        return status == Status.LISTED;
+    }
+
+    public boolean isError() {
+        return status == Status.ERROR || status == Status.TIMEOUT;
+    }
+
+    /**
+     * 转换为接口返回的结果格式
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> result = new HashMap<>();
+        result.put("server", zone);
+        result.put("status", status.name());
+        result.put("blacklisted", isListed());
+        if (fromCache) {
+            result.put("fromCache", true);
+        }
+        if (status != Status.SKIPPED) {
+            result.put("responseTime", responseTime);
+        }
+        if (!returnCodes.isEmpty()) {
+            result.put("returnCodes", returnCodes);
+        }
+        if (isListed()) {
+            result.put("reason", reason);
+        } else if (isError()) {
+            result.put("error", true);
+            result.put("message", reason);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,99 @@
+package com.enterprise.email.dnsbl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 域名区域数据（rbldnsd dnset）
+ *
+ * example.com 只匹配该域名，*.example.com 只匹配子域名，.example.com 同时匹配域名和子域名；
+ * 前缀 ! 表示排除。查找先查完整域名，再由近到远查各级上级域名的通配项，先遇到的记录生效。
+ */
+public final class DomainSet implements ZoneDataset {
+
+    private static final int EXCLUDED = -1;
+
+    private final Map<String, Integer> exact;
+    private final Map<String, Integer> wildcard;
+    private final ZoneListing[] values;
+
+    private DomainSet(Map<String, Integer> exact, Map<String, Integer> wildcard, ZoneListing[] values) {
+        this.exact = exact;
+        this.wildcard = wildcard;
+        this.values = values;
+    }
+
+    /**
+     * 解析dnset数据，格式错误的行跳过并计入invalid
+     */
+    public static DomainSet parse(Iterable<String> lines, int[] invalid) {
+        Map<String, Integer> exact = new HashMap<>();
+        Map<String, Integer> wildcard = new HashMap<>();
+        List<ZoneListing> values = new ArrayList<>();
+        Map<String, Integer> valueIndex = new HashMap<>();
+
+        ZoneDataset.parseLines(lines, false, (entry, excluded, listing) -> {
+            String name = entry.toLowerCase();
+            boolean matchSelf = true;
+            boolean matchChildren = false;
+            if (name.startsWith("*.")) {
+                name = name.substring(2);
+                matchSelf = false;
+                matchChildren = true;
+            } else if (name.startsWith(".")) {
+                name = name.substring(1);
+                matchChildren = true;
+            }
+            if (name.endsWith(".")) {
+                name = name.substring(0, name.length() - 1);
+            }
+            if (!DnsMessage.isValidName(name)) {
+                invalid[0]++;
+                return;
+            }
+            int value = EXCLUDED;
+            if (!excluded) {
+                value = valueIndex.computeIfAbsent(listing.getCode() + '\0' + listing.getText(), k -> {
+                    values.add(listing);
+                    return values.size() - 1;
+                });
+            }
+            if (matchSelf) {
+                merge(exact, name, value);
+            }
+            if (matchChildren) {
+                merge(wildcard, name, value);
+            }
+        });
+        return new DomainSet(exact, wildcard, values.toArray(new ZoneListing[0]));
+    }
+
+    @Override
+    public ZoneListing lookupDomain(String domain) {
+        Integer value = exact.get(domain);
+        if (value != null) {
+            return value >= 0 ? values[value] : null;
+        }
+        for (int dot = domain.indexOf('.'); dot >= 0; dot = domain.indexOf('.', dot + 1)) {
+            value = wildcard.get(domain.substring(dot + 1));
+            if (value != null) {
+                return value >= 0 ? values[value] : null;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public int size() {
+        return exact.size() + wildcard.size();
+    }
+
+    /**
+     * 同一名称重复出现时排除项优先
+     */
+    private static void merge(Map<String, Integer> map, String name, int value) {
+        map.merge(name, value, (old, added) -> old == EXCLUDED ? old : added);
+    }
+}
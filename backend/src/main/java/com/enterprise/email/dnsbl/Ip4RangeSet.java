@@ -0,0 +1,262 @@
+package com.enterprise.email.dnsbl;
+
+import java.util.*;
+
+/**
+ * IPv4区域数据（rbldnsd ip4set）
+ *
+ * 加载时把单个地址、CIDR、地址区间统一为区间，按"越具体越优先、排除项总是优先"展开为互不重叠的区间，
+ * 相邻且返回值相同的区间合并；结果保存为按起始地址排序的int数组（按无符号比较），查找是一次二分。
+ */
+public final class Ip4RangeSet implements ZoneDataset {
+
+    private final int[] starts;
+    private final int[] ends;
+    private final int[] valueIds;
+    private final ZoneListing[] values;
+    private final int entries;
+
+    private Ip4RangeSet(int[] starts, int[] ends, int[] valueIds, ZoneListing[] values, int entries) {
+        this.starts = starts;
+        this.ends = ends;
+        this.valueIds = valueIds;
+        this.values = values;
+        this.entries = entries;
+    }
+
+    /**
+     * 解析ip4set数据，格式错误的行跳过并计入invalid
+     */
+    public static Ip4RangeSet parse(Iterable<String> lines, int[] invalid) {
+        List<long[]> ranges = new ArrayList<>();
+        List<ZoneListing> values = new ArrayList<>();
+        Map<String, Integer> valueIndex = new HashMap<>();
+
+        ZoneDataset.parseLines(lines, false, (entry, excluded, listing) -> {
+            long[] range = parseRange(entry);
+            if (range == null) {
+                invalid[0]++;
+                return;
+            }
+            int value = -1;
+            if (!excluded) {
+                value = valueIndex.computeIfAbsent(listing.getCode() + '\0' + listing.getText(), k -> {
+                    values.add(listing);
+                    return values.size() - 1;
+                });
+            }
+            ranges.add(new long[]{range[0], range[1], value});
+        });
+
+        List<long[]> segments = disjoint(ranges);
+        if (segments == null) {
+            // 有重叠或排除项：范围大的先铺，具体的后铺覆盖，排除项最后铺
+            ranges.sort((x, y) -> {
+                boolean xExcluded = x[2] < 0;
+                boolean yExcluded = y[2] < 0;
+                if (xExcluded != yExcluded) {
+                    return xExcluded ? 1 : -1;
+                }
+                return Long.compare(y[1] - y[0], x[1] - x[0]);
+            });
+            TreeMap<Long, long[]> painted = new TreeMap<>();
+            for (long[] range : ranges) {
+                paint(painted, range[0], range[1], range[2]);
+            }
+            segments = new ArrayList<>(painted.size());
+            for (Map.Entry<Long, long[]> segment : painted.entrySet()) {
+                segments.add(new long[]{segment.getKey(), segment.getValue()[0], segment.getValue()[1]});
+            }
+        }
+
+        int size = 0;
+        long[][] merged = new long[segments.size()][];
+        for (long[] segment : segments) {
+            long start = segment[0];
+            long end = segment[1];
+            long value = segment[2];
+            if (value < 0) {
+                continue;
+            }
+            if (size > 0 && merged[size - 1][1] + 1 == start && merged[size - 1][2] == value) {
+                merged[size - 1][1] = end;
+            } else {
+                merged[size++] = new long[]{start, end, value};
+            }
+        }
+
+        int[] starts = new int[size];
+        int[] ends = new int[size];
+        int[] ids = new int[size];
+        for (int i = 0; i < size; i++) {
+            starts[i] = (int) merged[i][0];
+            ends[i] = (int) merged[i][1];
+            ids[i] = (int) merged[i][2];
+        }
+        return new Ip4RangeSet(starts, ends, ids, values.toArray(new ZoneListing[0]), ranges.size());
+    }
+
+    @Override
+    public ZoneListing lookupIp(byte[] address) {
+        if (address.length != 4) {
+            return null;
+        }
+        int ip = ((address[0] & 0xff) << 24) | ((address[1] & 0xff) << 16) | ((address[2] & 0xff) << 8) | (address[3] & 0xff);
+        int low = 0;
+        int high = starts.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (Integer.compareUnsigned(starts[mid], ip) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        if (high < 0 || Integer.compareUnsigned(ip, ends[high]) > 0) {
+            return null;
+        }
+        return values[valueIds[high]];
+    }
+
+    @Override
+    public int size() {
+        return entries;
+    }
+
+    /**
+     * 合并后的区间数
+     */
+    public int rangeCount() {
+        return starts.length;
+    }
+
+    /**
+     * 按起始地址排序；没有排除项且区间互不重叠时（常见的逐个地址列表）直接返回排序结果，否则返回null。
+     * 完全相同的区间重复出现时保留后出现的一条，与铺设的结果一致
+     */
+    private static List<long[]> disjoint(List<long[]> ranges) {
+        List<long[]> sorted = new ArrayList<>(ranges);
+        sorted.sort((x, y) -> Long.compare(x[0], y[0]));
+        List<long[]> result = new ArrayList<>(sorted.size());
+        long[] previous = null;
+        for (long[] range : sorted) {
+            if (range[2] < 0) {
+                return null;
+            }
+            if (previous != null && range[0] == previous[0] && range[1] == previous[1]) {
+                result.set(result.size() - 1, range);
+            } else if (previous != null && range[0] <= previous[1]) {
+                return null;
+            } else {
+                result.add(range);
+            }
+            previous = range;
+        }
+        return result;
+    }
+
+    /**
+     * 把[start, end]铺上value，覆盖原有的部分
+     */
+    private static void paint(TreeMap<Long, long[]> painted, long start, long end, long value) {
+        Map.Entry<Long, long[]> head = painted.floorEntry(start);
+        if (head != null && head.getKey() < start && head.getValue()[0] >= start) {
+            long headEnd = head.getValue()[0];
+            head.getValue()[0] = start - 1;
+            painted.put(start, new long[]{headEnd, head.getValue()[1]});
+        }
+        Map.Entry<Long, long[]> tail = painted.floorEntry(end);
+        if (tail != null && tail.getValue()[0] > end) {
+            painted.put(end + 1, new long[]{tail.getValue()[0], tail.getValue()[1]});
+            tail.getValue()[0] = end;
+        }
+        painted.subMap(start, true, end, true).clear();
+        painted.put(start, new long[]{end, value});
+    }
+
+    /**
+     * 解析 a.b.c.d、a.b.c.d/n、a.b.c.d-e.f.g.h、a.b.c.d-h 以及省略尾部的 a.b.c（/24）、a.b（/16）、a（/8）
+     */
+    static long[] parseRange(String entry) {
+        int dash = entry.indexOf('-');
+        if (dash > 0) {
+            long[] first = parsePartial(entry.substring(0, dash));
+            if (first == null || first[1] != 4) {
+                return null;
+            }
+            String last = entry.substring(dash + 1);
+            long end;
+            if (last.indexOf('.') < 0) {
+                long octet = parseOctet(last);
+                if (octet < 0) {
+                    return null;
+                }
+                end = (first[0] & 0xffffff00L) | octet;
+            } else {
+                long[] second = parsePartial(last);
+                if (second == null || second[1] != 4) {
+                    return null;
+                }
+                end = second[0];
+            }
+            return end >= first[0] ? new long[]{first[0], end} : null;
+        }
+
+        int slash = entry.indexOf('/');
+        long[] address = parsePartial(slash > 0 ? entry.substring(0, slash) : entry);
+        if (address == null) {
+            return null;
+        }
+        int bits = (int) address[1] * 8;
+        if (slash > 0) {
+            try {
+                bits = Integer.parseInt(entry.substring(slash + 1));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            if (bits < 0 || bits > 32) {
+                return null;
+            }
+        }
+        long size = 1L << (32 - bits);
+        long start = address[0] & ~(size - 1) & 0xffffffffL;
+        return new long[]{start, start + size - 1};
+    }
+
+    /**
+     * 返回 {地址, 给出的字节数}
+     */
+    private static long[] parsePartial(String text) {
+        String[] parts = text.split("\\.", -1);
+        if (parts.length < 1 || parts.length > 4) {
+            return null;
+        }
+        long address = 0;
+        for (int i = 0; i < 4; i++) {
+            long octet = 0;
+            if (i < parts.length) {
+                octet = parseOctet(parts[i]);
+                if (octet < 0) {
+                    return null;
+                }
+            }
+            address = (address << 8) | octet;
+        }
+        return new long[]{address, parts.length};
+    }
+
+    private static long parseOctet(String text) {
+        if (text.isEmpty() || text.length() > 3) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value <= 255 ? value : -1;
+    }
+}
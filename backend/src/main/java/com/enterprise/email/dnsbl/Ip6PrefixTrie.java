@@ -0,0 +1,178 @@
+package com.enterprise.email.dnsbl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * IPv6区域数据（rbldnsd ip6trie）
+ *
+ * 路径压缩的二叉前缀树：只有分叉和带值的节点才存在，节点保存完整的前缀（两个long）和长度，
+ * 查找沿树向下比较前缀，取最长匹配的节点；最长匹配是排除项时视为未列入。
+ */
+public final class Ip6PrefixTrie implements ZoneDataset {
+
+    private static final int NONE = -2;
+    private static final int EXCLUDED = -1;
+
+    private final Node root;
+    private final ZoneListing[] values;
+    private final int entries;
+
+    private Ip6PrefixTrie(Node root, ZoneListing[] values, int entries) {
+        this.root = root;
+        this.values = values;
+        this.entries = entries;
+    }
+
+    /**
+     * 解析ip6trie数据（前缀/长度 或 完整地址，值与条目之间用空白分隔），格式错误的行跳过并计入invalid
+     */
+    public static Ip6PrefixTrie parse(Iterable<String> lines, int[] invalid) {
+        List<ZoneListing> values = new ArrayList<>();
+        Map<String, Integer> valueIndex = new HashMap<>();
+        Node[] root = new Node[1];
+        int[] count = new int[1];
+
+        ZoneDataset.parseLines(lines, true, (entry, excluded, listing) -> {
+            int slash = entry.indexOf('/');
+            byte[] address = DnsblNames.parseIp(slash > 0 ? entry.substring(0, slash) : entry);
+            int length = 128;
+            if (slash > 0) {
+                try {
+                    length = Integer.parseInt(entry.substring(slash + 1));
+                } catch (NumberFormatException e) {
+                    length = -1;
+                }
+            }
+            if (address == null || address.length != 16 || length < 0 || length > 128) {
+                invalid[0]++;
+                return;
+            }
+            int value = EXCLUDED;
+            if (!excluded) {
+                value = valueIndex.computeIfAbsent(listing.getCode() + '\0' + listing.getText(), k -> {
+                    values.add(listing);
+                    return values.size() - 1;
+                });
+            }
+            long hi = mask(toLong(address, 0), length);
+            long lo = mask(toLong(address, 8), length - 64);
+            root[0] = insert(root[0], hi, lo, length, value);
+            count[0]++;
+        });
+        return new Ip6PrefixTrie(root[0], values.toArray(new ZoneListing[0]), count[0]);
+    }
+
+    @Override
+    public ZoneListing lookupIp(byte[] address) {
+        if (address.length != 16) {
+            return null;
+        }
+        long hi = toLong(address, 0);
+        long lo = toLong(address, 8);
+        int best = NONE;
+        Node node = root;
+        while (node != null) {
+            if (commonPrefix(node.hi, node.lo, hi, lo) < node.length) {
+                break;
+            }
+            if (node.value != NONE) {
+                best = node.value;
+            }
+            if (node.length == 128) {
+                break;
+            }
+            node = bit(hi, lo, node.length) == 0 ? node.zero : node.one;
+        }
+        return best >= 0 ? values[best] : null;
+    }
+
+    @Override
+    public int size() {
+        return entries;
+    }
+
+    private static Node insert(Node node, long hi, long lo, int length, int value) {
+        if (node == null) {
+            return new Node(hi, lo, length, value);
+        }
+        int common = Math.min(Math.min(commonPrefix(node.hi, node.lo, hi, lo), node.length), length);
+        if (common == node.length) {
+            if (length == node.length) {
+                // 同一前缀重复出现时排除项优先
+                if (node.value != EXCLUDED) {
+                    node.value = value;
+                }
+                return node;
+            }
+            if (bit(hi, lo, node.length) == 0) {
+                node.zero = insert(node.zero, hi, lo, length, value);
+            } else {
+                node.one = insert(node.one, hi, lo, length, value);
+            }
+            return node;
+        }
+
+        Node split = new Node(mask(hi, common), mask(lo, common - 64), common, NONE);
+        Node leaf = common == length ? null : new Node(hi, lo, length, value);
+        if (leaf == null) {
+            split.value = value;
+        }
+        if (bit(node.hi, node.lo, common) == 0) {
+            split.zero = node;
+            split.one = leaf;
+        } else {
+            split.one = node;
+            split.zero = leaf;
+        }
+        return split;
+    }
+
+    private static int commonPrefix(long hi1, long lo1, long hi2, long lo2) {
+        long x = hi1 ^ hi2;
+        if (x != 0) {
+            return Long.numberOfLeadingZeros(x);
+        }
+        return 64 + Long.numberOfLeadingZeros(lo1 ^ lo2);
+    }
+
+    private static int bit(long hi, long lo, int index) {
+        return (int) (index < 64 ? (hi >>> (63 - index)) & 1 : (lo >>> (127 - index)) & 1);
+    }
+
+    /**
+     * 保留高bits位（bits<=0时为0，>=64时不变）
+     */
+    private static long mask(long value, int bits) {
+        if (bits <= 0) {
+            return 0;
+        }
+        return bits >= 64 ? value : value & (-1L << (64 - bits));
+    }
+
+    private static long toLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (bytes[offset + i] & 0xff);
+        }
+        return value;
+    }
+
+    private static final class Node {
+        private final long hi;
+        private final long lo;
+        private final int length;
+        private int value;
+        private Node zero;
+        private Node one;
+
+        private Node(long hi, long lo, int length, int value) {
+            this.hi = hi;
+            this.lo = lo;
+            this.length = length;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.enterprise.email.dnsbl;
+
+/**
+ * 本地镜像的一份区域数据（构建后不可变，线程安全）
+ */
+public interface ZoneDataset {
+
+    /**
+     * 查找IP地址（4或16字节），未列入或被排除时返回null
+     */
+    default ZoneListing lookupIp(byte[] address) {
+        return null;
+    }
+
+    /**
+     * 查找域名（小写、不带结尾的点），未列入或被排除时返回null
+     */
+    default ZoneListing lookupDomain(String domain) {
+        return null;
+    }
+
+    /**
+     * 记录条数
+     */
+    int size();
+
+    /**
+     * 逐行解析rbldnsd数据文件的公共部分：跳过空行、注释和 $ 指令，":A:TXT" 行设置默认值（按空白分隔时 "::" 开头的行是IPv6条目），
+     * 其余行拆分为条目和值交给handler
+     */
+    static void parseLines(Iterable<String> lines, boolean whitespaceOnly, LineHandler handler) {
+        ZoneListing defaults = ZoneListing.DEFAULT;
+        for (String raw : lines) {
+            String line = raw.trim();
+            if (line.isEmpty() || line.charAt(0) == '#' || line.charAt(0) == ';' || line.charAt(0) == '$') {
+                continue;
+            }
+            // IPv6条目（如 ::/0、::1）同样以冒号开头，只按空白分隔的数据里以 :: 开头的行仍是条目
+            if (line.charAt(0) == ':' && !(whitespaceOnly && line.startsWith("::"))) {
+                defaults = ZoneListing.parse(line, ZoneListing.DEFAULT);
+                continue;
+            }
+            int split = -1;
+            for (int i = 0; i < line.length(); i++) {
+                char c = line.charAt(i);
+                if (Character.isWhitespace(c) || (!whitespaceOnly && c == ':')) {
+                    split = i;
+                    break;
+                }
+            }
+            String entry = split >= 0 ? line.substring(0, split) : line;
+            String value = split >= 0 ? line.substring(split).trim() : "";
+            boolean excluded = entry.startsWith("!");
+            if (excluded) {
+                entry = entry.substring(1);
+            }
+            handler.accept(entry, excluded, value.isEmpty() ? defaults : ZoneListing.parse(value, defaults));
+        }
+    }
+
+    @FunctionalInterface
+    interface LineHandler {
+        void accept(String entry, boolean excluded, ZoneListing listing);
+    }
+}
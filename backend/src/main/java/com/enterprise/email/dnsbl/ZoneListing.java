@@ -0,0 +1,52 @@
+package com.enterprise.email.dnsbl;
+
+import lombok.Getter;
+
+/**
+ * 本地镜像区域中一条记录的返回值（A记录返回码与TXT说明）
+ */
+@Getter
+public final class ZoneListing {
+
+    public static final ZoneListing DEFAULT = new ZoneListing("127.0.0.2", null);
+
+    private final String code;
+    private final String text;
+
+    public ZoneListing(String code, String text) {
+        this.code = code;
+        this.text = text;
+    }
+
+    /**
+     * 解析rbldnsd格式的值 ":A:TXT"，A可以只写最后一个字节（如 2 表示 127.0.0.2），省略的部分取默认值
+     */
+    public static ZoneListing parse(String value, ZoneListing defaults) {
+        String body = value.trim();
+        if (body.startsWith(":")) {
+            body = body.substring(1);
+        }
+        if (body.isEmpty()) {
+            return defaults;
+        }
+        int colon = body.indexOf(':');
+        String code = (colon >= 0 ? body.substring(0, colon) : body).trim();
+        String text = colon >= 0 ? body.substring(colon + 1).trim() : null;
+        if (code.isEmpty()) {
+            code = defaults.code;
+        } else if (code.indexOf('.') < 0) {
+            code = "127.0.0." + code;
+        }
+        if (text == null || text.isEmpty()) {
+            text = defaults.text;
+        }
+        return new ZoneListing(code, text);
+    }
+
+    /**
+     * 说明文字，rbldnsd中的 $ 替换为查询的地址或域名
+     */
+    public String describe(String query) {
+        return text != null ? text.replace("$", query) : null;
+    }
+}
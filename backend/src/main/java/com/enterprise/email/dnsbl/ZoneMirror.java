@@ -0,0 +1,240 @@
+package com.enterprise.email.dnsbl;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * 本地镜像的黑名单区域（rbldnsd格式数据文件）
+ *
+ * 配置 email.dnsbl.mirror.datasets 与rbldnsd的命令行相同，逗号分隔的 区域:类型:文件，
+ * 类型为 ip4set、ip6trie（或ip6tset）、dnset，同一区域可以有多份数据。
+ * 被镜像的区域完全在本地查找，不再访问网络；未镜像的区域照常查询DNS。
+ *
+ * 定时检查文件的修改时间和大小，变化的文件在后台线程解析为新的数据，未变化的沿用原对象，
+ * 全部就绪后一次替换整个快照（双缓冲），查找方始终看到完整的旧快照或新快照。
+ */
+@Slf4j
+@Component
+public class ZoneMirror {
+
+    @Value("${email.dnsbl.mirror.datasets:}")
+    private String datasetSpec;
+
+    private volatile Map<String, List<Dataset>> zones = Collections.emptyMap();
+
+    private final AtomicLong lookups = new AtomicLong();
+    private final AtomicLong listed = new AtomicLong();
+    private final AtomicLong reloads = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        reload();
+    }
+
+    /**
+     * 区域是否在本地镜像
+     */
+    public boolean isMirrored(String zone) {
+        return zones.containsKey(zone.toLowerCase());
+    }
+
+    /**
+     * 在镜像区域中查找IP，未列入时返回null
+     */
+    public ZoneListing lookupIp(String zone, byte[] address) {
+        List<Dataset> datasets = zones.get(zone.toLowerCase());
+        if (datasets == null) {
+            return null;
+        }
+        lookups.incrementAndGet();
+        for (Dataset dataset : datasets) {
+            ZoneListing listing = dataset.data.lookupIp(address);
+            if (listing != null) {
+                listed.incrementAndGet();
+                return listing;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 在镜像区域中查找域名，未列入时返回null
+     */
+    public ZoneListing lookupDomain(String zone, String domain) {
+        List<Dataset> datasets = zones.get(zone.toLowerCase());
+        if (datasets == null) {
+            return null;
+        }
+        lookups.incrementAndGet();
+        String name = domain.toLowerCase();
+        if (name.endsWith(".")) {
+            name = name.substring(0, name.length() - 1);
+        }
+        for (Dataset dataset : datasets) {
+            ZoneListing listing = dataset.data.lookupDomain(name);
+            if (listing != null) {
+                listed.incrementAndGet();
+                return listing;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 检查数据文件，有变化时重新加载并替换快照
+     */
+    @Scheduled(fixedDelayString = "${email.dnsbl.mirror.check-millis:60000}")
+    public synchronized void reload() {
+        List<String[]> specs = parseSpec(datasetSpec);
+        if (specs.isEmpty() && zones.isEmpty()) {
+            return;
+        }
+
+        Map<String, Dataset> current = new HashMap<>();
+        for (List<Dataset> datasets : zones.values()) {
+            for (Dataset dataset : datasets) {
+                current.put(dataset.key(), dataset);
+            }
+        }
+
+        Map<String, List<Dataset>> next = new HashMap<>();
+        boolean changed = specs.size() != current.size();
+        for (String[] spec : specs) {
+            String zone = spec[0];
+            String type = spec[1];
+            Path path = Paths.get(spec[2]);
+            Dataset previous = current.get(zone + ":" + type + ":" + path);
+            Dataset dataset = previous;
+            try {
+                long modified = Files.getLastModifiedTime(path).toMillis();
+                long size = Files.size(path);
+                if (previous == null || previous.modified != modified || previous.size != size) {
+                    dataset = load(zone, type, path, modified, size);
+                    changed = true;
+                }
+            } catch (Exception e) {
+                // 文件暂时不可读时保留旧数据
+                log.error("加载DNSBL镜像数据失败: zone={}, file={}, error={}", zone, path, e.getMessage());
+            }
+            if (dataset != null) {
+                next.computeIfAbsent(zone, k -> new ArrayList<>()).add(dataset);
+            }
+        }
+
+        if (changed) {
+            Map<String, List<Dataset>> snapshot = new HashMap<>();
+            next.forEach((zone, datasets) -> snapshot.put(zone, Collections.unmodifiableList(datasets)));
+            zones = Collections.unmodifiableMap(snapshot);
+            reloads.incrementAndGet();
+            log.info("DNSBL镜像区域已更新: zones={}", snapshot.keySet());
+        }
+    }
+
+    public Map<String, Object> getStatistics() {
+        List<Map<String, Object>> datasets = new ArrayList<>();
+        for (List<Dataset> list : zones.values()) {
+            for (Dataset dataset : list) {
+                Map<String, Object> item = new LinkedHashMap<>();
+                item.put("zone", dataset.zone);
+                item.put("type", dataset.type);
+                item.put("file", dataset.path.toString());
+                item.put("entries", dataset.data.size());
+                item.put("invalidLines", dataset.invalid);
+                item.put("loadMillis", dataset.loadMillis);
+                item.put("loadedAt", dataset.loadedAt);
+                datasets.add(item);
+            }
+        }
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("zones", new ArrayList<>(zones.keySet()));
+        stats.put("datasets", datasets);
+        stats.put("lookups", lookups.get());
+        stats.put("listed", listed.get());
+        stats.put("reloads", reloads.get());
+        return stats;
+    }
+
+    private Dataset load(String zone, String type, Path path, long modified, long size) throws IOException {
+        long start = System.currentTimeMillis();
+        int[] invalid = new int[1];
+        ZoneDataset data;
+        try (Stream<String> stream = Files.lines(path, StandardCharsets.ISO_8859_1)) {
+            Iterable<String> lines = stream::iterator;
+            switch (type) {
+                case "ip4set":
+                    data = Ip4RangeSet.parse(lines, invalid);
+                    break;
+                case "ip6trie":
+                case "ip6tset":
+                    data = Ip6PrefixTrie.parse(lines, invalid);
+                    break;
+                case "dnset":
+                    data = DomainSet.parse(lines, invalid);
+                    break;
+                default:
+                    throw new IllegalArgumentException("不支持的数据类型: " + type);
+            }
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        log.info("加载DNSBL镜像数据: zone={}, type={}, file={}, entries={}, invalid={}, {}ms",
+                zone, type, path, data.size(), invalid[0], elapsed);
+        return new Dataset(zone, type, path, modified, size, data, invalid[0], elapsed);
+    }
+
+    private static List<String[]> parseSpec(String spec) {
+        List<String[]> specs = new ArrayList<>();
+        if (spec == null || spec.trim().isEmpty()) {
+            return specs;
+        }
+        for (String item : spec.split(",")) {
+            String[] parts = item.trim().split(":", 3);
+            if (parts.length != 3 || parts[0].isEmpty() || parts[2].isEmpty()) {
+                log.warn("无效的DNSBL镜像配置: {}", item);
+                continue;
+            }
+            specs.add(new String[]{parts[0].trim().toLowerCase(), parts[1].trim().toLowerCase(), parts[2].trim()});
+        }
+        return specs;
+    }
+
+    private static final class Dataset {
+        private final String zone;
+        private final String type;
+        private final Path path;
+        private final long modified;
+        private final long size;
+        private final ZoneDataset data;
+        private final int invalid;
+        private final long loadMillis;
+        private final LocalDateTime loadedAt = LocalDateTime.now();
+
+        private Dataset(String zone, String type, Path path, long modified, long size, ZoneDataset data,
+                        int invalid, long loadMillis) {
+            this.zone = zone;
+            this.type = type;
+            this.path = path;
+            this.modified = modified;
+            this.size = size;
+            this.data = data;
+            this.invalid = invalid;
+            this.loadMillis = loadMillis;
+        }
+
+        private String key() {
+            return zone + ":" + type + ":" + path;
+        }
+    }
+}
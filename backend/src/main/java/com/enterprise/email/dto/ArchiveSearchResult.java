@@ -0,0 +1,33 @@
+package com.enterprise.email.dto;
+
+import com.enterprise.email.entity.Email;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 归档搜索结果
+ */
+@Data
+@AllArgsConstructor
+public class ArchiveSearchResult {
+
+    /**
+     * 结果顺序：时间倒序（无时间的在后），同一时间按ID倒序，与邮件表分页查询的排序一致
+     */
+    public static final Comparator<Email> NEWEST_FIRST = Comparator
+            .comparing(Email::getReceivedTime, Comparator.nullsLast(Comparator.reverseOrder()))
+            .thenComparing(Email::getId, Comparator.nullsLast(Comparator.reverseOrder()));
+
+    /**
+     * 按时间倒序的前若干封匹配邮件
+     */
+    private List<Email> records;
+
+    /**
+     * 全部匹配邮件数
+     */
+    private long total;
+}
@@ -0,0 +1,54 @@
+package com.enterprise.email.dto;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.nio.file.Path;
+
+/**
+ * 附件下载内容描述（只描述磁盘上的文件，不持有数据）
+ */
+@Data
+@Builder
+public class AttachmentContent {
+
+    /**
+     * 附件ID
+     */
+    private Long attachmentId;
+
+    /**
+     * 下载文件名
+     */
+    private String fileName;
+
+    /**
+     * 文件类型
+     */
+    private String contentType;
+
+    /**
+     * 存储文件路径
+     */
+    private Path path;
+
+    /**
+     * 原始内容大小（字节，解压后）
+     */
+    private long size;
+
+    /**
+     * 内容SHA-256，用作ETag
+     */
+    private String contentHash;
+
+    /**
+     * 存储是否为gzip压缩
+     */
+    private boolean compressed;
+
+    /**
+     * 最后修改时间（毫秒）
+     */
+    private long lastModified;
+}
@@ -0,0 +1,74 @@
+package com.enterprise.email.dto;
+
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * 批量邮件操作任务进度
+ * 由执行任务的线程逐批更新，查询方读取的是最近一批完成后的快照
+ */
+@Data
+public class BulkJobStatus {
+
+    /**
+     * 任务ID
+     */
+    private String jobId;
+
+    /**
+     * 用户ID
+     */
+    private Long userId;
+
+    /**
+     * 操作类型
+     */
+    private String operation;
+
+    /**
+     * 任务状态
+     */
+    private volatile String status;
+
+    /**
+     * 预计处理的邮件数
+     */
+    private volatile long total;
+
+    /**
+     * 已处理的邮件数
+     */
+    private volatile long processed;
+
+    /**
+     * 实际发生变化的邮件数
+     */
+    private volatile long updated;
+
+    /**
+     * 已完成的批次数
+     */
+    private volatile int chunks;
+
+    /**
+     * 失败原因
+     */
+    private volatile String message;
+
+    /**
+     * 开始时间
+     */
+    private LocalDateTime startTime;
+
+    /**
+     * 结束时间
+     */
+    private volatile LocalDateTime endTime;
+
+    // 任务状态常量
+    public static final String STATUS_RUNNING = "RUNNING";
+    public static final String STATUS_COMPLETED = "COMPLETED";
+    public static final String STATUS_CANCELLED = "CANCELLED";
+    public static final String STATUS_FAILED = "FAILED";
+}
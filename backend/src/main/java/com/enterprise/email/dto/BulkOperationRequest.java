@@ -0,0 +1,51 @@
+package com.enterprise.email.dto;
+
+import lombok.Data;
+
+import javax.validation.constraints.NotBlank;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * 批量邮件操作请求DTO
+ * 指定邮件ID列表时只处理这些邮件，否则按筛选条件选取邮件
+ */
+@Data
+public class BulkOperationRequest {
+
+    /**
+     * 操作类型：read、unread、important、unimportant、delete（移入垃圾箱）、restore（恢复到收件箱）、move
+     */
+    @NotBlank(message = "操作类型不能为空")
+    private String operation;
+
+    /**
+     * 移动操作的目标文件夹：inbox、sent、draft、trash
+     */
+    private String targetType;
+
+    /**
+     * 邮件ID列表
+     */
+    private List<Long> emailIds;
+
+    /**
+     * 筛选：文件夹类型
+     */
+    private String type;
+
+    /**
+     * 筛选：别名ID
+     */
+    private Long aliasId;
+
+    /**
+     * 筛选：早于该时间接收的邮件
+     */
+    private LocalDateTime before;
+
+    /**
+     * 筛选：搜索关键词（主题、发件人、收件人、正文）
+     */
+    private String keyword;
+}
@@ -41,6 +41,8 @@ public class EmailDto {
     
     private String contentText;
     private String contentHtml;
+    private String snippet;
+    private Integer textLength;
     private Long sizeBytes;
     private String emailType;
     private Boolean isRead;
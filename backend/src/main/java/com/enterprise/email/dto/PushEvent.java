@@ -0,0 +1,48 @@
+package com.enterprise.email.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Map;
+
+/**
+ * 推送事件（经Redis在节点间转发，由持有连接的节点合并后推送给客户端）
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class PushEvent {
+
+    /**
+     * 事件类型
+     */
+    private String type;
+
+    /**
+     * 目标用户ID
+     */
+    private Long userId;
+
+    /**
+     * 别名ID
+     */
+    private Long aliasId;
+
+    /**
+     * 事件数据
+     */
+    private Map<String, Object> data;
+
+    /**
+     * 产生时间（毫秒）
+     */
+    private Long timestamp;
+
+    // 事件类型常量
+    public static final String TYPE_NEW_MAIL = "new_mail";
+    public static final String TYPE_FLAG_CHANGE = "flag_change";
+    public static final String TYPE_COUNTER_DELTA = "counter_delta";
+}
@@ -0,0 +1,74 @@
+package com.enterprise.email.entity;
+
+import com.baomidou.mybatisplus.annotation.*;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * 归档稀疏索引块（同一用户按ID连续的若干封邮件压缩为一个块）
+ */
+@Data
+@TableName("archive_index")
+public class ArchiveIndexBlock {
+
+    @TableId(value = "id", type = IdType.ASSIGN_ID)
+    private Long id;
+
+    /**
+     * 段ID
+     */
+    @TableField("segment_id")
+    private Long segmentId;
+
+    /**
+     * 用户ID
+     */
+    @TableField("user_id")
+    private Long userId;
+
+    /**
+     * 块内最小邮件ID
+     */
+    @TableField("first_id")
+    private Long firstId;
+
+    /**
+     * 块内最大邮件ID
+     */
+    @TableField("last_id")
+    private Long lastId;
+
+    /**
+     * 块内最早邮件时间
+     */
+    @TableField("min_time")
+    private LocalDateTime minTime;
+
+    /**
+     * 块内最晚邮件时间
+     */
+    @TableField("max_time")
+    private LocalDateTime maxTime;
+
+    /**
+     * 块在段文件中的偏移
+     */
+    @TableField("block_offset")
+    private Long blockOffset;
+
+    /**
+     * 块长度（字节）
+     */
+    @TableField("block_length")
+    private Integer blockLength;
+
+    /**
+     * 块内邮件数
+     */
+    @TableField("record_count")
+    private Integer recordCount;
+
+    @TableField("create_time")
+    private LocalDateTime createTime;
+}
@@ -0,0 +1,57 @@
+package com.enterprise.email.entity;
+
+import com.baomidou.mybatisplus.annotation.*;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * 归档段文件实体（只追加写入，写满后封存）
+ */
+@Data
+@TableName("archive_segments")
+public class ArchiveSegment {
+
+    @TableId(value = "id", type = IdType.ASSIGN_ID)
+    private Long id;
+
+    /**
+     * 段文件名
+     */
+    @TableField("file_name")
+    private String fileName;
+
+    /**
+     * 写入该段的存储标识（段目录中的标识文件，各节点必须一致）
+     */
+    @TableField("store_id")
+    private String storeId;
+
+    /**
+     * 状态
+     */
+    @TableField("status")
+    private String status;
+
+    /**
+     * 已提交的文件大小（字节）
+     */
+    @TableField("size_bytes")
+    private Long sizeBytes;
+
+    /**
+     * 邮件数
+     */
+    @TableField("record_count")
+    private Integer recordCount;
+
+    @TableField("create_time")
+    private LocalDateTime createTime;
+
+    @TableField("update_time")
+    private LocalDateTime updateTime;
+
+    // 状态常量
+    public static final String STATUS_OPEN = "OPEN";
+    public static final String STATUS_SEALED = "SEALED";
+}
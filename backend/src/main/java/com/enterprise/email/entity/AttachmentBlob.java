@@ -0,0 +1,69 @@
+package com.enterprise.email.entity;
+
+import com.baomidou.mybatisplus.annotation.*;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * 附件内容块实体（按SHA-256内容寻址，多封邮件共享同一份物理文件）
+ */
+@Data
+@TableName("attachment_blobs")
+public class AttachmentBlob {
+
+    @TableId(value = "id", type = IdType.ASSIGN_ID)
+    private Long id;
+
+    /**
+     * 内容SHA-256（十六进制小写）
+     */
+    @TableField("content_hash")
+    private String contentHash;
+
+    /**
+     * 文件大小（字节）
+     */
+    @TableField("file_size")
+    private Long fileSize;
+
+    /**
+     * 实际存储大小（压缩后，字节）
+     */
+    @TableField("stored_size")
+    private Long storedSize;
+
+    /**
+     * 存储压缩方式（none/gzip）
+     */
+    @TableField("compression")
+    private String compression;
+
+    /**
+     * 存储路径（相对于附件根目录，形如 ab/cd/abcd...）
+     */
+    @TableField("storage_path")
+    private String storagePath;
+
+    /**
+     * 引用计数（引用该内容的附件记录数）
+     */
+    @TableField("ref_count")
+    private Integer refCount;
+
+    /**
+     * 最后一次引用释放时间（引用计数归零后用于孤儿清理的宽限期判断）
+     */
+    @TableField("last_release_time")
+    private LocalDateTime lastReleaseTime;
+
+    @TableField(value = "create_time", fill = FieldFill.INSERT)
+    private LocalDateTime createTime;
+
+    @TableField(value = "update_time", fill = FieldFill.INSERT_UPDATE)
+    private LocalDateTime updateTime;
+
+    // 压缩方式常量
+    public static final String COMPRESSION_NONE = "none";
+    public static final String COMPRESSION_GZIP = "gzip";
+}
@@ -0,0 +1,71 @@
+package com.enterprise.email.entity;
+
+import com.baomidou.mybatisplus.annotation.*;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * 文件最近一次扫描的状态（用于跳过大小、修改时间或内容未变化的文件）
+ */
+@Data
+@TableName("clamav_file_states")
+public class ClamAVFileState {
+
+    @TableId(value = "id", type = IdType.ASSIGN_ID)
+    private Long id;
+
+    @TableField("domain")
+    private String domain;
+
+    /**
+     * 文件路径的SHA-256
+     */
+    @TableField("path_hash")
+    private String pathHash;
+
+    /**
+     * 所在目录路径的SHA-256（按目录批量读取）
+     */
+    @TableField("dir_hash")
+    private String dirHash;
+
+    @TableField("file_path")
+    private String filePath;
+
+    @TableField("file_size")
+    private Long fileSize;
+
+    /**
+     * 文件修改时间（毫秒）
+     */
+    @TableField("modified_time")
+    private Long modifiedTime;
+
+    /**
+     * 文件内容的SHA-256
+     */
+    @TableField("sha256")
+    private String sha256;
+
+    /**
+     * 扫描时的病毒库版本
+     */
+    @TableField("signatures_version")
+    private String signaturesVersion;
+
+    @TableField("infected")
+    private Boolean infected;
+
+    @TableField("virus_name")
+    private String virusName;
+
+    /**
+     * 最近一次处理该文件的扫描任务
+     */
+    @TableField("job_id")
+    private Long jobId;
+
+    @TableField("scanned_time")
+    private LocalDateTime scannedTime;
+}
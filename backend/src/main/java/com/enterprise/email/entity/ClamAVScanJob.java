@@ -0,0 +1,138 @@
+package com.enterprise.email.entity;
+
+import com.baomidou.mybatisplus.annotation.*;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * 病毒扫描任务（并行扫描目录，按遍历顺序记录检查点，可取消、可从检查点继续）
+ */
+@Data
+@TableName("clamav_scan_jobs")
+public class ClamAVScanJob {
+
+    @TableId(value = "id", type = IdType.ASSIGN_ID)
+    private Long id;
+
+    /**
+     * 域名（使用该域名的ClamAV配置）
+     */
+    @TableField("domain")
+    private String domain;
+
+    /**
+     * 扫描的根目录
+     */
+    @TableField("root_path")
+    private String rootPath;
+
+    /**
+     * 是否包含子目录
+     */
+    @TableField("include_subdirs")
+    private Boolean recursive;
+
+    /**
+     * 任务状态
+     */
+    @TableField("status")
+    private String status;
+
+    /**
+     * 检查点：按遍历顺序已处理完的文件数
+     */
+    @TableField("checkpoint_count")
+    private Long checkpointCount;
+
+    /**
+     * 检查点：按名称排序遍历时最后一个处理完的文件路径，继续任务时从它之后开始
+     */
+    @TableField("checkpoint_path")
+    private String checkpointPath;
+
+    /**
+     * 已遍历到的文件数
+     */
+    @TableField("total_files")
+    private Long totalFiles;
+
+    /**
+     * 已发送clamd扫描的文件数
+     */
+    @TableField("scanned_count")
+    private Long scannedCount;
+
+    /**
+     * 未变化而跳过的文件数
+     */
+    @TableField("skipped_count")
+    private Long skippedCount;
+
+    /**
+     * 发现病毒的文件数
+     */
+    @TableField("infected_count")
+    private Long infectedCount;
+
+    /**
+     * 超过大小限制未扫描的文件数
+     */
+    @TableField("oversize_count")
+    private Long oversizeCount;
+
+    /**
+     * 扫描失败的文件数
+     */
+    @TableField("error_count")
+    private Long errorCount;
+
+    /**
+     * 已扫描的字节数
+     */
+    @TableField("bytes_scanned")
+    private Long bytesScanned;
+
+    /**
+     * 最近一次错误信息
+     */
+    @TableField("error_message")
+    private String errorMessage;
+
+    /**
+     * 开始时间
+     */
+    @TableField("started_time")
+    private LocalDateTime startedTime;
+
+    /**
+     * 结束时间（完成、取消或失败）
+     */
+    @TableField("completed_time")
+    private LocalDateTime completedTime;
+
+    /**
+     * 运行任务的节点
+     */
+    @TableField("owner")
+    private String owner;
+
+    /**
+     * 租约到期时间，运行节点在检查点续期；过期后其他节点可以接管
+     */
+    @TableField("lease_until")
+    private LocalDateTime leaseUntil;
+
+    @TableField("create_time")
+    private LocalDateTime createTime;
+
+    @TableField("update_time")
+    private LocalDateTime updateTime;
+
+    // 任务状态常量
+    public static final String STATUS_PENDING = "PENDING";
+    public static final String STATUS_RUNNING = "RUNNING";
+    public static final String STATUS_CANCELLED = "CANCELLED";
+    public static final String STATUS_COMPLETED = "COMPLETED";
+    public static final String STATUS_FAILED = "FAILED";
+}
@@ -84,6 +84,12 @@ public class Domain extends BaseEntity {
     @TableField("imap_ssl")
     private Boolean imapSsl;
 
+    /**
+     * 邮件归档天数（超过该天数的邮件移入归档存储，为空表示不归档）
+     */
+    @TableField("archive_after_days")
+    private Integer archiveAfterDays;
+
     /**
      * 创建者ID
      */
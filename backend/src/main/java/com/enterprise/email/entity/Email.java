@@ -42,6 +42,24 @@ public class Email extends BaseEntity {
     @TableField("message_id")
     private String messageId;
 
+    /**
+     * 回复的邮件ID（In-Reply-To头）
+     */
+    @TableField("in_reply_to")
+    private String inReplyTo;
+
+    /**
+     * 引用的邮件ID列表（References头）
+     */
+    @TableField("message_references")
+    private String messageReferences;
+
+    /**
+     * 会话ID
+     */
+    @TableField("thread_id")
+    private Long threadId;
+
     /**
      * 发件人
      */
@@ -86,6 +104,36 @@ public class Email extends BaseEntity {
     @TableField("content_html")
     private String contentHtml;
 
+    /**
+     * 净化后的HTML内容（cid:引用已改写为附件地址）
+     */
+    @TableField("content_sanitized")
+    private String contentSanitized;
+
+    /**
+     * 正文摘要
+     */
+    @TableField("snippet")
+    private String snippet;
+
+    /**
+     * 正文纯文本长度
+     */
+    @TableField("text_length")
+    private Integer textLength;
+
+    /**
+     * 渲染结果对应的净化策略版本
+     */
+    @TableField("render_version")
+    private Integer renderVersion;
+
+    /**
+     * 渲染时有未解析的cid:引用（新增带Content-ID的附件时重新渲染）
+     */
+    @TableField("render_cids_pending")
+    private Boolean renderCidsPending;
+
     /**
      * 邮件大小（字节）
      */
@@ -157,6 +205,8 @@ public class Email extends BaseEntity {
     public static final String TYPE_SENT = "sent";
     public static final String TYPE_DRAFT = "draft";
     public static final String TYPE_TRASH = "trash";
+    public static final String TYPE_JUNK = "junk";
+    public static final String TYPE_QUARANTINE = "quarantine";
 
     // 邮件状态常量
     public static final String STATUS_NEW = "new";
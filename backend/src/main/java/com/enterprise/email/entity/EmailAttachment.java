@@ -61,6 +61,18 @@ public class EmailAttachment extends BaseEntity {
     @TableField("file_md5")
     private String fileMd5;
 
+    /**
+     * 内容SHA-256（关联 attachment_blobs.content_hash）
+     */
+    @TableField("content_hash")
+    private String contentHash;
+
+    /**
+     * 附件状态
+     */
+    @TableField("status")
+    private String status;
+
     /**
      * 是否为内嵌图片
      */
@@ -72,4 +84,8 @@ public class EmailAttachment extends BaseEntity {
      */
     @TableField("content_id")
     private String contentId;
+
+    // 附件状态常量
+    public static final String STATUS_NORMAL = "normal";
+    public static final String STATUS_TEMP = "temp";
 }
\ No newline at end of file
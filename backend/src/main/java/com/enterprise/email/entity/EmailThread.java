@@ -0,0 +1,59 @@
+package com.enterprise.email.entity;
+
+import com.baomidou.mybatisplus.annotation.*;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * 邮件会话实体（持久化的并查集节点，mergedInto指向并入的会话，为空表示根会话）
+ */
+@Data
+@TableName("email_threads")
+public class EmailThread {
+
+    @TableId(value = "id", type = IdType.ASSIGN_ID)
+    private Long id;
+
+    /**
+     * 用户ID
+     */
+    @TableField("user_id")
+    private Long userId;
+
+    /**
+     * 会话主题（首封邮件主题）
+     */
+    @TableField("subject")
+    private String subject;
+
+    /**
+     * 并入的会话ID
+     */
+    @TableField("merged_into")
+    private Long mergedInto;
+
+    /**
+     * 邮件数
+     */
+    @TableField("message_count")
+    private Integer messageCount;
+
+    /**
+     * 未读数
+     */
+    @TableField("unread_count")
+    private Integer unreadCount;
+
+    /**
+     * 最新邮件时间
+     */
+    @TableField("latest_time")
+    private LocalDateTime latestTime;
+
+    @TableField("create_time")
+    private LocalDateTime createTime;
+
+    @TableField("update_time")
+    private LocalDateTime updateTime;
+}
@@ -0,0 +1,48 @@
+package com.enterprise.email.entity;
+
+import com.baomidou.mybatisplus.annotation.*;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * 会话键映射实体（Message-ID或规范化主题到会话的映射）
+ */
+@Data
+@TableName("email_thread_keys")
+public class EmailThreadKey {
+
+    @TableId(value = "id", type = IdType.ASSIGN_ID)
+    private Long id;
+
+    /**
+     * 用户ID
+     */
+    @TableField("user_id")
+    private Long userId;
+
+    /**
+     * 键类型
+     */
+    @TableField("key_type")
+    private String keyType;
+
+    /**
+     * 键值
+     */
+    @TableField("thread_key")
+    private String threadKey;
+
+    /**
+     * 会话ID（可能已被合并，使用时需解析到根会话）
+     */
+    @TableField("thread_id")
+    private Long threadId;
+
+    @TableField("create_time")
+    private LocalDateTime createTime;
+
+    // 键类型常量
+    public static final String TYPE_MESSAGE = "message";
+    public static final String TYPE_SUBJECT = "subject";
+}
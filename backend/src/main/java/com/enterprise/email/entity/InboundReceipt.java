@@ -0,0 +1,41 @@
+package com.enterprise.email.entity;
+
+import com.baomidou.mybatisplus.annotation.*;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * 入站邮件处理记录（每个别名的每封邮件只经过一次入站流水线）
+ */
+@Data
+@TableName("inbound_receipts")
+public class InboundReceipt {
+
+    @TableId(value = "id", type = IdType.ASSIGN_ID)
+    private Long id;
+
+    @TableField("alias_id")
+    private Long aliasId;
+
+    /**
+     * 邮件标识：Message-ID，没有时为原始内容的SHA-256
+     */
+    @TableField("message_key")
+    private String messageKey;
+
+    /**
+     * 处置方式（deliver/reject/discard/quarantine）
+     */
+    @TableField("disposition")
+    private String disposition;
+
+    /**
+     * 保存的邮件ID（未保存时为空）
+     */
+    @TableField("email_id")
+    private Long emailId;
+
+    @TableField("create_time")
+    private LocalDateTime createTime;
+}
@@ -0,0 +1,35 @@
+package com.enterprise.email.entity;
+
+import com.baomidou.mybatisplus.annotation.*;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * 跨节点任务租约（同一时刻只有持有未过期租约的节点执行该任务）
+ */
+@Data
+@TableName("job_leases")
+public class JobLease {
+
+    /**
+     * 租约名称
+     */
+    @TableId(value = "name", type = IdType.INPUT)
+    private String name;
+
+    /**
+     * 持有节点
+     */
+    @TableField("owner")
+    private String owner;
+
+    /**
+     * 租约到期时间
+     */
+    @TableField("lease_until")
+    private LocalDateTime leaseUntil;
+
+    @TableField("update_time")
+    private LocalDateTime updateTime;
+}
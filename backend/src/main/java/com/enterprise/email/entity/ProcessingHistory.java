@@ -0,0 +1,52 @@
+package com.enterprise.email.entity;
+
+import com.baomidou.mybatisplus.annotation.*;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * 邮件处理历史实体（Sieve规则执行、转发、自动回复）
+ */
+@Data
+@TableName("processing_history")
+public class ProcessingHistory {
+
+    @TableId(value = "id", type = IdType.ASSIGN_ID)
+    private Long id;
+
+    /**
+     * 用户别名ID
+     */
+    @TableField("user_alias_id")
+    private Long userAliasId;
+
+    /**
+     * 来源
+     */
+    @TableField("source")
+    private String source;
+
+    /**
+     * 关联的规则或配置ID
+     */
+    @TableField("ref_id")
+    private Long refId;
+
+    /**
+     * 记录内容（JSON）
+     */
+    @TableField("detail")
+    private String detail;
+
+    /**
+     * 发生时间
+     */
+    @TableField("occurred_at")
+    private LocalDateTime occurredAt;
+
+    // 来源常量
+    public static final String SOURCE_SIEVE = "SIEVE";
+    public static final String SOURCE_FORWARDING = "FORWARDING";
+    public static final String SOURCE_AUTORESPONDER = "AUTORESPONDER";
+}
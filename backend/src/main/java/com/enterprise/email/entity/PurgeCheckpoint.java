@@ -0,0 +1,69 @@
+package com.enterprise.email.entity;
+
+import com.baomidou.mybatisplus.annotation.*;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * 后台批处理任务检查点（清理、归档等按主键分批推进的任务，重启后从检查点继续）
+ */
+@Data
+@TableName("purge_checkpoints")
+public class PurgeCheckpoint {
+
+    /**
+     * 清理任务名称
+     */
+    @TableId(value = "job_name", type = IdType.INPUT)
+    private String jobName;
+
+    /**
+     * 已处理的最大主键
+     */
+    @TableField("last_id")
+    private Long lastId;
+
+    /**
+     * 本轮清理的基准时间，各保留期由此计算（恢复时沿用，保证同一轮条件一致）
+     */
+    @TableField("cutoff_time")
+    private LocalDateTime cutoffTime;
+
+    /**
+     * 任务状态
+     */
+    @TableField("status")
+    private String status;
+
+    /**
+     * 本轮已处理记录数
+     */
+    @TableField("processed_count")
+    private Long processedCount;
+
+    /**
+     * 本轮已删除文件数
+     */
+    @TableField("deleted_files")
+    private Long deletedFiles;
+
+    /**
+     * 本轮开始时间
+     */
+    @TableField("started_time")
+    private LocalDateTime startedTime;
+
+    /**
+     * 最近完成时间
+     */
+    @TableField("completed_time")
+    private LocalDateTime completedTime;
+
+    @TableField("update_time")
+    private LocalDateTime updateTime;
+
+    // 任务状态常量
+    public static final String STATUS_RUNNING = "RUNNING";
+    public static final String STATUS_COMPLETED = "COMPLETED";
+}
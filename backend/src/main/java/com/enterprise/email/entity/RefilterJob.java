@@ -0,0 +1,108 @@
+package com.enterprise.email.entity;
+
+import com.baomidou.mybatisplus.annotation.*;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * 重新过滤任务（按当前规则对别名下已有邮件重新求值，按主键分批推进，可取消、可从检查点继续）
+ */
+@Data
+@TableName("refilter_jobs")
+public class RefilterJob {
+
+    @TableId(value = "id", type = IdType.ASSIGN_ID)
+    private Long id;
+
+    /**
+     * 用户ID
+     */
+    @TableField("user_id")
+    private Long userId;
+
+    /**
+     * 用户别名ID
+     */
+    @TableField("user_alias_id")
+    private Long userAliasId;
+
+    /**
+     * 任务状态
+     */
+    @TableField("status")
+    private String status;
+
+    /**
+     * 已处理的最大邮件ID
+     */
+    @TableField("last_id")
+    private Long lastId;
+
+    /**
+     * 创建任务时的邮件总数（用于计算进度）
+     */
+    @TableField("total_count")
+    private Long totalCount;
+
+    /**
+     * 已求值邮件数
+     */
+    @TableField("scanned_count")
+    private Long scannedCount;
+
+    /**
+     * 已改变文件夹的邮件数
+     */
+    @TableField("changed_count")
+    private Long changedCount;
+
+    /**
+     * 求值失败的邮件数
+     */
+    @TableField("error_count")
+    private Long errorCount;
+
+    /**
+     * 最近一次错误信息
+     */
+    @TableField("error_message")
+    private String errorMessage;
+
+    /**
+     * 开始时间
+     */
+    @TableField("started_time")
+    private LocalDateTime startedTime;
+
+    /**
+     * 结束时间（完成、取消或失败）
+     */
+    @TableField("completed_time")
+    private LocalDateTime completedTime;
+
+    /**
+     * 运行任务的节点
+     */
+    @TableField("owner")
+    private String owner;
+
+    /**
+     * 租约到期时间，运行节点每批续期；过期后其他节点可以接管
+     */
+    @TableField("lease_until")
+    private LocalDateTime leaseUntil;
+
+    @TableField("create_time")
+    private LocalDateTime createTime;
+
+    @TableField("update_time")
+    private LocalDateTime updateTime;
+
+    // 任务状态常量
+    public static final String STATUS_PENDING = "PENDING";
+    public static final String STATUS_RUNNING = "RUNNING";
+    public static final String STATUS_CANCELLED = "CANCELLED";
+    public static final String STATUS_COMPLETED = "COMPLETED";
+    public static final String STATUS_FAILED = "FAILED";
+}
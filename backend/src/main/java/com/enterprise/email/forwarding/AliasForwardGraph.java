@@ -0,0 +1,404 @@
+package com.enterprise.email.forwarding;
+
+import com.enterprise.email.entity.AliasForwardRule;
+import com.enterprise.email.mapper.AliasForwardRuleMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.util.StringUtils;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 别名转发关系图（进程内）
+ *
+ * 节点是邮件地址（不区分大小写），边是"启用别名的启用规则：别名地址 → 转发目标"。
+ * 启动时整体加载，规则变更通过 {@link ForwardRuleChangedEvent} 在事务提交后按规则ID增量更新，
+ * 并定时整体重载以收敛其他节点上的变更与别名启停。
+ *
+ * 每个节点惰性缓存两类结果：
+ * 1. 可达集合：新增边 u→v 构成循环当且仅当 u 可从 v 到达，查询只需一次集合查找；
+ *    新增边时把 v 及其可达集合并入 u 与其祖先已缓存的可达集合，删除边时使 u 与其祖先的缓存失效；
+ * 2. 展开后的投递地址：沿无条件规则一直展开到终点（无规则的地址、带条件规则的别名、保留原件的别名），
+ *    转发时直接投递到这些地址，不再逐跳重发。
+ */
+@Slf4j
+@Component
+public class AliasForwardGraph {
+
+    private static final String CONDITION_ALL = "ALL";
+
+    private final AliasForwardRuleMapper forwardRuleMapper;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private Graph graph = new Graph();
+    private volatile boolean loaded;
+    private boolean reloading;
+    private final Set<Long> changedDuringReload = new HashSet<>();
+
+    private final AtomicLong reloads = new AtomicLong();
+    private final AtomicLong incrementalUpdates = new AtomicLong();
+    private final AtomicLong cycleChecks = new AtomicLong();
+    private final AtomicLong reachComputations = new AtomicLong();
+    private final AtomicLong deliveryComputations = new AtomicLong();
+
+    public AliasForwardGraph(AliasForwardRuleMapper forwardRuleMapper) {
+        this.forwardRuleMapper = forwardRuleMapper;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        reload();
+    }
+
+    /**
+     * 从数据库整体重建关系图；重建期间到达的增量变更在替换后重新应用
+     */
+    @Scheduled(initialDelayString = "${email.forward-graph.reload-millis:300000}",
+            fixedDelayString = "${email.forward-graph.reload-millis:300000}")
+    public void reload() {
+        lock.writeLock().lock();
+        try {
+            reloading = true;
+            changedDuringReload.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        Graph next = new Graph();
+        try {
+            for (AliasForwardRule rule : forwardRuleMapper.findActiveEdges()) {
+                next.addEdge(rule);
+            }
+        } catch (Exception e) {
+            log.error("加载转发关系图失败: {}", e.getMessage(), e);
+            lock.writeLock().lock();
+            try {
+                reloading = false;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            return;
+        }
+
+        List<Long> replay;
+        lock.writeLock().lock();
+        try {
+            graph = next;
+            loaded = true;
+            reloading = false;
+            replay = new ArrayList<>(changedDuringReload);
+            changedDuringReload.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        reloads.incrementAndGet();
+        if (!replay.isEmpty()) {
+            refresh(replay);
+        }
+        log.info("转发关系图已加载: nodes={}, edges={}", next.nodes.size(), next.edges.size());
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onRuleChanged(ForwardRuleChangedEvent event) {
+        refresh(event.getRuleIds());
+    }
+
+    /**
+     * 按规则ID重新读取规则并更新对应的边（规则已删除或停用时移除边）
+     */
+    public void refresh(Collection<Long> ruleIds) {
+        if (ruleIds == null || ruleIds.isEmpty()) {
+            return;
+        }
+        List<AliasForwardRule> rows;
+        try {
+            rows = forwardRuleMapper.findActiveEdgesByIds(ruleIds);
+        } catch (Exception e) {
+            log.error("更新转发关系图失败，等待定时重载: ruleIds={}, error={}", ruleIds, e.getMessage());
+            return;
+        }
+        Map<Long, AliasForwardRule> active = new HashMap<>();
+        for (AliasForwardRule row : rows) {
+            active.put(row.getId(), row);
+        }
+
+        lock.writeLock().lock();
+        try {
+            for (Long ruleId : ruleIds) {
+                graph.removeRule(ruleId);
+                AliasForwardRule row = active.get(ruleId);
+                if (row != null) {
+                    graph.addEdge(row);
+                }
+            }
+            if (reloading) {
+                changedDuringReload.addAll(ruleIds);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        incrementalUpdates.incrementAndGet();
+    }
+
+    /**
+     * 新增转发 source → target 是否会构成循环
+     */
+    public boolean wouldCreateCycle(String sourceAddress, String targetAddress) {
+        String source = normalize(sourceAddress);
+        String target = normalize(targetAddress);
+        if (source.equals(target)) {
+            return true;
+        }
+        cycleChecks.incrementAndGet();
+        lock.readLock().lock();
+        try {
+            Node sourceNode = graph.nodes.get(source);
+            Node targetNode = graph.nodes.get(target);
+            if (sourceNode == null || targetNode == null) {
+                return false;
+            }
+            return reach(targetNode).contains(sourceNode);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 投递到该地址的邮件沿无条件转发规则展开后的最终投递地址
+     */
+    public Set<String> getDeliverySet(String address) {
+        String key = normalize(address);
+        lock.readLock().lock();
+        try {
+            Node node = graph.nodes.get(key);
+            if (node == null) {
+                return Collections.singleton(address.trim());
+            }
+            return delivery(node, new HashSet<>());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<>();
+        lock.readLock().lock();
+        try {
+            stats.put("nodes", graph.nodes.size());
+            stats.put("edges", graph.edges.size());
+        } finally {
+            lock.readLock().unlock();
+        }
+        stats.put("loaded", loaded);
+        stats.put("reloads", reloads.get());
+        stats.put("incrementalUpdates", incrementalUpdates.get());
+        stats.put("cycleChecks", cycleChecks.get());
+        stats.put("reachComputations", reachComputations.get());
+        stats.put("deliveryComputations", deliveryComputations.get());
+        return stats;
+    }
+
+    /**
+     * 节点的可达集合（调用方持有读锁）；遇到已缓存可达集合的节点直接并入，不再展开
+     */
+    private Set<Node> reach(Node start) {
+        Set<Node> cached = start.reach;
+        if (cached != null) {
+            return cached;
+        }
+        reachComputations.incrementAndGet();
+        Set<Node> result = new HashSet<>();
+        Deque<Node> stack = new ArrayDeque<>(start.out.keySet());
+        while (!stack.isEmpty()) {
+            Node node = stack.pop();
+            if (!result.add(node)) {
+                continue;
+            }
+            Set<Node> known = node.reach;
+            if (known != null) {
+                result.addAll(known);
+            } else {
+                stack.addAll(node.out.keySet());
+            }
+        }
+        start.reach = result;
+        return result;
+    }
+
+    /**
+     * 展开投递地址（调用方持有读锁），path用于防御存量数据中的循环
+     */
+    private Set<String> delivery(Node node, Set<Node> path) {
+        Set<String> cached = node.delivery;
+        if (cached != null) {
+            return cached;
+        }
+        if (!path.add(node)) {
+            return Collections.emptySet();
+        }
+        deliveryComputations.incrementAndGet();
+        Set<String> result = new LinkedHashSet<>();
+        if (node.conditional > 0 || node.unconditional == 0) {
+            // 带条件的规则需要按邮件内容判断，交给该别名自己的入站处理
+            result.add(node.address);
+        } else {
+            if (node.keepOriginal > 0) {
+                result.add(node.address);
+            }
+            for (Node target : node.out.keySet()) {
+                result.addAll(delivery(target, path));
+            }
+        }
+        path.remove(node);
+        Set<String> frozen = Collections.unmodifiableSet(result);
+        node.delivery = frozen;
+        return frozen;
+    }
+
+    private static String normalize(String address) {
+        return address == null ? "" : address.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * 图结构，只在写锁下修改
+     */
+    private static final class Graph {
+        private final Map<String, Node> nodes = new HashMap<>();
+        private final Map<Long, Edge> edges = new HashMap<>();
+
+        private void addEdge(AliasForwardRule rule) {
+            if (!StringUtils.hasText(rule.getAliasAddress()) || !StringUtils.hasText(rule.getForwardTo())) {
+                return;
+            }
+            Node from = node(rule.getAliasAddress());
+            Node to = node(rule.getForwardTo());
+            boolean conditional = rule.getConditionType() != null && !CONDITION_ALL.equalsIgnoreCase(rule.getConditionType());
+            boolean keepOriginal = !Boolean.FALSE.equals(rule.getKeepOriginal());
+            Edge edge = new Edge(from, to, conditional, keepOriginal);
+            Edge replaced = edges.put(rule.getId(), edge);
+            if (replaced != null) {
+                detach(replaced);
+            }
+
+            if (conditional) {
+                from.conditional++;
+            } else {
+                from.unconditional++;
+                if (keepOriginal) {
+                    from.keepOriginal++;
+                }
+            }
+            boolean newAdjacency = from.out.merge(to, 1, Integer::sum) == 1;
+            to.in.merge(from, 1, Integer::sum);
+
+            // 增量更新祖先的可达集合：并入 to 及其可达集合；to 的可达集合未知时只能失效
+            Set<Node> toReach = to.reach;
+            for (Node ancestor : ancestors(from)) {
+                ancestor.delivery = null;
+                if (newAdjacency && ancestor.reach != null && !ancestor.reach.contains(to)) {
+                    if (toReach != null) {
+                        ancestor.reach.add(to);
+                        ancestor.reach.addAll(toReach);
+                    } else {
+                        ancestor.reach = null;
+                    }
+                }
+            }
+        }
+
+        private void removeRule(Long ruleId) {
+            Edge edge = edges.remove(ruleId);
+            if (edge != null) {
+                detach(edge);
+            }
+        }
+
+        private void detach(Edge edge) {
+            Node from = edge.from;
+            Node to = edge.to;
+            if (edge.conditional) {
+                from.conditional--;
+            } else {
+                from.unconditional--;
+                if (edge.keepOriginal) {
+                    from.keepOriginal--;
+                }
+            }
+            boolean removedAdjacency = from.out.merge(to, -1, Integer::sum) == 0;
+            if (removedAdjacency) {
+                from.out.remove(to);
+            }
+            if (to.in.merge(from, -1, Integer::sum) == 0) {
+                to.in.remove(from);
+            }
+
+            for (Node ancestor : ancestors(from)) {
+                ancestor.delivery = null;
+                if (removedAdjacency) {
+                    ancestor.reach = null;
+                }
+            }
+        }
+
+        /**
+         * 节点自身及所有能到达它的节点
+         */
+        private List<Node> ancestors(Node node) {
+            List<Node> result = new ArrayList<>();
+            Set<Node> seen = new HashSet<>();
+            Deque<Node> stack = new ArrayDeque<>();
+            stack.push(node);
+            while (!stack.isEmpty()) {
+                Node current = stack.pop();
+                if (seen.add(current)) {
+                    result.add(current);
+                    stack.addAll(current.in.keySet());
+                }
+            }
+            return result;
+        }
+
+        private Node node(String address) {
+            return nodes.computeIfAbsent(normalize(address), key -> new Node(address.trim()));
+        }
+    }
+
+    private static final class Node {
+        private final String address;
+        private final Map<Node, Integer> out = new HashMap<>();
+        private final Map<Node, Integer> in = new HashMap<>();
+        private int unconditional;
+        private int conditional;
+        private int keepOriginal;
+        private volatile Set<Node> reach;
+        private volatile Set<String> delivery;
+
+        private Node(String address) {
+            this.address = address;
+        }
+    }
+
+    private static final class Edge {
+        private final Node from;
+        private final Node to;
+        private final boolean conditional;
+        private final boolean keepOriginal;
+
+        private Edge(Node from, Node to, boolean conditional, boolean keepOriginal) {
+            this.from = from;
+            this.to = to;
+            this.conditional = conditional;
+            this.keepOriginal = keepOriginal;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.enterprise.email.forwarding;
+
+import lombok.Getter;
+import org.springframework.context.ApplicationEvent;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 转发规则变更事件（创建、修改、删除、启停）
+ *
+ * 只携带规则ID，监听方在事务提交后按ID重新读取规则的当前状态。
+ */
+@Getter
+public class ForwardRuleChangedEvent extends ApplicationEvent {
+
+    private final List<Long> ruleIds;
+
+    public ForwardRuleChangedEvent(Object source, Collection<Long> ruleIds) {
+        super(source);
+        this.ruleIds = Collections.unmodifiableList(new ArrayList<>(ruleIds));
+    }
+
+    public ForwardRuleChangedEvent(Object source, Long ruleId) {
+        this(source, Collections.singletonList(ruleId));
+    }
+}
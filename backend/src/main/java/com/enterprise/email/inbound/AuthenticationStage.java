@@ -0,0 +1,49 @@
+package com.enterprise.email.inbound;
+
+import com.enterprise.email.service.EmailAuthService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * SPF/DKIM/DMARC认证：DMARC失败且策略为reject时拒收，策略为quarantine时标记为垃圾邮件
+ */
+@Component
+@Order(100)
+@RequiredArgsConstructor
+public class AuthenticationStage implements InboundStage {
+
+    private final EmailAuthService emailAuthService;
+
+    @Override
+    public String getName() {
+        return "auth";
+    }
+
+    @Override
+    public boolean process(InboundContext context) {
+        String clientIp = context.getMessage().getEnvelope().getClientIp();
+        if (clientIp == null) {
+            context.putResult(getName(), "skipped");
+            return true;
+        }
+
+        Map<String, Object> result = emailAuthService.verifyEmailAuthentication(context.getMessage().getRaw(), clientIp);
+        context.putResult(getName(), result);
+
+        Object dmarc = result.get("dmarc");
+        if (dmarc instanceof Map && "fail".equals(((Map<?, ?>) dmarc).get("result"))) {
+            Object policy = ((Map<?, ?>) dmarc).get("policy");
+            if ("reject".equals(policy)) {
+                context.stop(getName(), InboundContext.REJECT, "DMARC验证失败");
+                return false;
+            }
+            if ("quarantine".equals(policy)) {
+                context.setJunk(true);
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,32 @@
+package com.enterprise.email.inbound;
+
+import com.enterprise.email.service.AutoresponderService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+/**
+ * 自动回复（垃圾邮件不回复）
+ */
+@Component
+@Order(500)
+@RequiredArgsConstructor
+public class AutoresponderStage implements InboundStage {
+
+    private final AutoresponderService autoresponderService;
+
+    @Override
+    public String getName() {
+        return "autoresponder";
+    }
+
+    @Override
+    public boolean process(InboundContext context) {
+        if (context.isJunk()) {
+            context.putResult(getName(), "skipped");
+            return true;
+        }
+        context.putResult(getName(), autoresponderService.processAutoReply(context.getMessage(), context.getUserAliasId()));
+        return true;
+    }
+}
@@ -0,0 +1,61 @@
+package com.enterprise.email.inbound;
+
+import com.enterprise.email.service.ClamAVService;
+import com.enterprise.email.service.RspamdService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 病毒与垃圾邮件扫描：先查病毒（命中即拒收，不再做垃圾评分），再由Rspamd评分；
+ * 扫描失败时抛出异常，由流水线隔离邮件
+ */
+@Component
+@Order(200)
+@RequiredArgsConstructor
+public class ContentScanStage implements InboundStage {
+
+    private final ClamAVService clamAVService;
+    private final RspamdService rspamdService;
+
+    @Override
+    public String getName() {
+        return "scan";
+    }
+
+    @Override
+    public boolean process(InboundContext context) {
+        ParsedMessage message = context.getMessage();
+        Map<String, Object> result = new HashMap<>();
+        context.putResult(getName(), result);
+
+        Map<String, Object> virus = clamAVService.scanEmail(message.getRawBytes(), context.getDomain());
+        result.put("virus", virus);
+        if ("ERROR".equals(virus.get("status"))) {
+            throw new IllegalStateException("病毒扫描失败: " + virus.get("message"));
+        }
+        if (Boolean.TRUE.equals(virus.get("infected"))) {
+            context.stop(getName(), InboundContext.REJECT, "检测到病毒: " + virus.get("virusName"));
+            return false;
+        }
+
+        String clientIp = message.getEnvelope().getClientIp();
+        Map<String, Object> spam = rspamdService.checkSpam(message.getRawBytes(), clientIp != null ? clientIp : "127.0.0.1",
+                context.getDomain());
+        result.put("spam", spam);
+        if ("ERROR".equals(spam.get("status"))) {
+            throw new IllegalStateException("垃圾邮件检查失败: " + spam.get("message"));
+        }
+        if ("reject".equals(spam.get("action"))) {
+            context.stop(getName(), InboundContext.REJECT, "垃圾邮件评分超过拒收阈值");
+            return false;
+        }
+        if (Boolean.TRUE.equals(spam.get("isSpam"))) {
+            context.setJunk(true);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,33 @@
+package com.enterprise.email.inbound;
+
+import com.enterprise.email.service.AliasForwardRuleService;
+import com.enterprise.email.service.ForwardingService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+/**
+ * 转发：用户转发配置与别名转发规则
+ */
+@Component
+@Order(400)
+@RequiredArgsConstructor
+public class ForwardingStage implements InboundStage {
+
+    private final ForwardingService forwardingService;
+    private final AliasForwardRuleService aliasForwardRuleService;
+
+    @Override
+    public String getName() {
+        return "forwarding";
+    }
+
+    @Override
+    public boolean process(InboundContext context) {
+        context.putResult(getName(), forwardingService.processEmailForwarding(context.getMessage(), context.getUserAliasId()));
+        if (context.getAliasAddress() != null) {
+            aliasForwardRuleService.executeEmailForwarding(context.getAliasAddress(), context.getMessage());
+        }
+        return true;
+    }
+}
@@ -0,0 +1,164 @@
+package com.enterprise.email.inbound;
+
+import com.enterprise.email.entity.Email;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.*;
+
+/**
+ * 一封入站邮件在流水线中的处理状态
+ */
+@Getter
+public class InboundContext {
+
+    public static final String DELIVER = "deliver";
+    public static final String REJECT = "reject";
+    public static final String DISCARD = "discard";
+    public static final String QUARANTINE = "quarantine";
+
+    // 与email_type列长度一致
+    private static final int MAX_FOLDER_LENGTH = 20;
+
+    private final ParsedMessage message;
+    private final Long userAliasId;
+    private final String aliasAddress;
+    private final String domain;
+
+    private final Map<String, Object> stageResults = new LinkedHashMap<>();
+    private final Map<String, Long> stageMicros = new LinkedHashMap<>();
+    private final List<String> errors = new ArrayList<>();
+
+    private String disposition = DELIVER;
+    private String reason;
+    private String stoppedAt;
+
+    /**
+     * 判定为垃圾邮件（仍然投递，但不再自动回复）
+     */
+    @Setter
+    private boolean junk;
+
+    /**
+     * Sieve指定的目标文件夹
+     */
+    @Setter
+    private String folder;
+
+    /**
+     * 是否保存到本地邮箱（Sieve只执行redirect且没有keep/fileinto时为false）
+     */
+    @Setter
+    private boolean keep = true;
+
+    /**
+     * Sieve redirect的目标地址
+     */
+    private final List<String> redirects = new ArrayList<>();
+
+    /**
+     * 邮件在来源邮箱中的UID（IMAP收取时设置）
+     */
+    @Setter
+    private String messageUid;
+
+    /**
+     * 已保存的邮件
+     */
+    @Setter
+    private Email storedEmail;
+
+    /**
+     * 处理阶段异常，邮件只保存到隔离文件夹，不再执行后续阶段
+     */
+    private boolean quarantined;
+
+    /**
+     * 整条流水线耗时（微秒）
+     */
+    @Setter(AccessLevel.PACKAGE)
+    private long totalMicros;
+
+    public InboundContext(ParsedMessage message, Long userAliasId, String aliasAddress, String domain) {
+        this.message = message;
+        this.userAliasId = userAliasId;
+        this.aliasAddress = aliasAddress;
+        this.domain = domain;
+    }
+
+    public void putResult(String stage, Object result) {
+        stageResults.put(stage, result);
+    }
+
+    /**
+     * 终止处理并记录处置方式
+     */
+    public void stop(String stage, String disposition, String reason) {
+        this.stoppedAt = stage;
+        this.disposition = disposition;
+        this.reason = reason;
+    }
+
+    public boolean isStopped() {
+        return stoppedAt != null;
+    }
+
+    /**
+     * 处理失败时隔离邮件（失败即关闭：不投递到收件箱，不转发，不自动回复）
+     */
+    public void quarantine(String stage, String reason) {
+        this.quarantined = true;
+        this.stoppedAt = stage;
+        this.disposition = QUARANTINE;
+        this.reason = reason;
+    }
+
+    public void addRedirect(String address) {
+        if (address != null && !address.trim().isEmpty() && !redirects.contains(address.trim())) {
+            redirects.add(address.trim());
+        }
+    }
+
+    /**
+     * 保存邮件的目标文件夹：隔离 > Sieve fileinto > 垃圾邮件 > 收件箱
+     */
+    public String resolveFolder() {
+        if (quarantined) {
+            return Email.TYPE_QUARANTINE;
+        }
+        if (folder != null && !folder.trim().isEmpty() && folder.trim().length() <= MAX_FOLDER_LENGTH) {
+            return folder.trim().toLowerCase(Locale.ROOT);
+        }
+        return junk ? Email.TYPE_JUNK : Email.TYPE_INBOX;
+    }
+
+    void addError(String error) {
+        errors.add(error);
+    }
+
+    void recordTiming(String stage, long nanos) {
+        stageMicros.put(stage, nanos / 1_000L);
+    }
+
+    /**
+     * 汇总处理结果
+     */
+    public Map<String, Object> toResult() {
+        Map<String, Object> result = new HashMap<>();
+        result.put("disposition", disposition);
+        result.put("reason", reason);
+        result.put("stoppedAt", stoppedAt);
+        result.put("junk", junk);
+        result.put("folder", folder);
+        result.put("keep", keep);
+        result.put("redirects", redirects);
+        result.put("quarantined", quarantined);
+        result.put("emailId", storedEmail != null ? storedEmail.getId() : null);
+        result.put("stages", stageResults);
+        result.put("timings", stageMicros);
+        result.put("errors", errors);
+        result.put("totalMicros", totalMicros);
+        return result;
+    }
+}
@@ -0,0 +1,144 @@
+package com.enterprise.email.inbound;
+
+import com.enterprise.email.entity.UserAlias;
+import com.enterprise.email.service.UserAliasService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 入站邮件处理流水线
+ *
+ * 邮件只解析一次，按顺序经过认证 → 病毒/垃圾扫描 → Sieve → 入库 → redirect → 转发 → 自动回复，
+ * 所有阶段共用同一个 {@link ParsedMessage}。任一阶段返回false即短路（拒收、丢弃）。
+ * 入库前的阶段异常时失败即关闭：邮件只保存到隔离文件夹，不再执行后续阶段；入库本身失败时抛出异常，
+ * 由调用方稍后重试；入库后的阶段异常只记录错误。每个阶段的调用次数、耗时与短路次数单独统计。
+ */
+@Slf4j
+@Service
+public class InboundPipeline {
+
+    private final List<InboundStage> stages;
+    private final UserAliasService userAliasService;
+    private final Map<String, StageMetrics> metrics = new ConcurrentHashMap<>();
+
+    public InboundPipeline(List<InboundStage> stages, UserAliasService userAliasService) {
+        this.stages = stages;
+        this.userAliasService = userAliasService;
+        for (InboundStage stage : stages) {
+            metrics.put(stage.getName(), new StageMetrics());
+        }
+    }
+
+    /**
+     * 处理一封投递到别名的原始邮件
+     */
+    public Map<String, Object> process(String rawEmail, ParsedMessage.Envelope envelope, Long userAliasId) {
+        return process(ParsedMessage.parse(rawEmail, envelope), userAliasId);
+    }
+
+    /**
+     * 处理一封已解析的邮件
+     */
+    public Map<String, Object> process(ParsedMessage message, Long userAliasId) {
+        return deliver(message, userAliasId, null).toResult();
+    }
+
+    /**
+     * 处理一封邮件并返回处理状态（messageUid为来源邮箱中的UID，可为空）
+     */
+    public InboundContext deliver(ParsedMessage message, Long userAliasId, String messageUid) {
+        UserAlias alias = userAliasService.getById(userAliasId);
+        if (alias == null) {
+            throw new RuntimeException("别名不存在");
+        }
+        String aliasAddress = alias.getAliasAddress();
+        String domain = alias.getDomainName();
+        if (domain == null && aliasAddress != null && aliasAddress.indexOf('@') > 0) {
+            domain = aliasAddress.substring(aliasAddress.indexOf('@') + 1);
+        }
+
+        InboundContext context = new InboundContext(message, userAliasId, aliasAddress, domain);
+        context.setMessageUid(messageUid);
+        long pipelineStart = System.nanoTime();
+
+        for (InboundStage stage : stages) {
+            boolean storeStage = stage instanceof StoreStage;
+            if (context.isQuarantined() && !storeStage) {
+                continue;
+            }
+            StageMetrics stageMetrics = metrics.get(stage.getName());
+            long start = System.nanoTime();
+            boolean proceed = true;
+            try {
+                proceed = stage.process(context);
+            } catch (Exception e) {
+                log.error("入站处理阶段失败: stage={}, userAliasId={}, error={}", stage.getName(), userAliasId, e.getMessage(), e);
+                stageMetrics.errors.increment();
+                context.addError(stage.getName() + ": " + e.getMessage());
+                if (storeStage) {
+                    throw new RuntimeException("保存入站邮件失败: " + e.getMessage(), e);
+                }
+                if (context.getStoredEmail() == null) {
+                    context.quarantine(stage.getName(), "处理阶段失败: " + e.getMessage());
+                }
+            }
+            long elapsed = System.nanoTime() - start;
+            context.recordTiming(stage.getName(), elapsed);
+            stageMetrics.record(elapsed);
+
+            if (context.isQuarantined() && storeStage) {
+                log.warn("入站邮件已隔离: userAliasId={}, stage={}, reason={}",
+                        userAliasId, context.getStoppedAt(), context.getReason());
+                break;
+            }
+            if (!proceed) {
+                stageMetrics.shortCircuits.increment();
+                log.info("入站处理短路: stage={}, disposition={}, reason={}",
+                        stage.getName(), context.getDisposition(), context.getReason());
+                break;
+            }
+        }
+
+        context.setTotalMicros((System.nanoTime() - pipelineStart) / 1_000L);
+        return context;
+    }
+
+    /**
+     * 各阶段的耗时统计（按执行顺序）
+     */
+    public List<Map<String, Object>> getStageMetrics() {
+        List<Map<String, Object>> result = new ArrayList<>();
+        for (InboundStage stage : stages) {
+            StageMetrics stageMetrics = metrics.get(stage.getName());
+            long invocations = stageMetrics.invocations.sum();
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("stage", stage.getName());
+            item.put("invocations", invocations);
+            item.put("avgMicros", invocations > 0 ? stageMetrics.totalNanos.sum() / invocations / 1_000L : 0L);
+            item.put("maxMicros", stageMetrics.maxNanos.get() / 1_000L);
+            item.put("shortCircuits", stageMetrics.shortCircuits.sum());
+            item.put("errors", stageMetrics.errors.sum());
+            result.add(item);
+        }
+        return result;
+    }
+
+    private static final class StageMetrics {
+        private final LongAdder invocations = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final LongAdder shortCircuits = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+
+        private void record(long nanos) {
+            invocations.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+    }
+}
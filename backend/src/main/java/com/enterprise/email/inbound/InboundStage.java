@@ -0,0 +1,20 @@
+package com.enterprise.email.inbound;
+
+/**
+ * 入站处理阶段
+ * 各阶段以 {@link org.springframework.core.annotation.Order} 排序，共享同一个 {@link InboundContext}
+ */
+public interface InboundStage {
+
+    /**
+     * 阶段名称（用于结果与耗时统计）
+     */
+    String getName();
+
+    /**
+     * 处理邮件
+     *
+     * @return false 表示短路，后续阶段不再执行
+     */
+    boolean process(InboundContext context);
+}
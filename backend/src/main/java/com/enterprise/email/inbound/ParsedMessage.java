@@ -0,0 +1,205 @@
+package com.enterprise.email.inbound;
+
+import com.enterprise.email.sieve.ContainsIndex;
+import com.enterprise.email.sieve.ContainsScan;
+import com.enterprise.email.sieve.SieveMessage;
+import com.enterprise.email.utils.EmailContentParser;
+import lombok.Getter;
+
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * 入站邮件的一次解析结果
+ *
+ * 原始内容只切分一次，头部与正文由 {@link SieveMessage} 持有，认证、扫描、Sieve、转发、自动回复与入库共用；
+ * MIME结构（解码后的正文与附件）在首次需要时才解析。从字节解析时保留原始字节，病毒扫描、垃圾邮件检查与
+ * MIME解析都使用原始字节，非UTF-8的8bit正文（如GBK）与二进制内容不会被改写。内容本身不可变，内部只缓存派生结果，
+ * 实例随一次入站处理创建，不在线程间共享。
+ */
+public final class ParsedMessage {
+
+    private static final Session SESSION = Session.getInstance(new Properties());
+
+    @Getter
+    private final String raw;
+    private final SieveMessage view;
+    @Getter
+    private final Envelope envelope;
+    private byte[] rawBytes;
+
+    private Map<String, String> singleHeaders;
+    private MimeMessage mimeMessage;
+    private EmailContentParser.ParseResult content;
+    private final Map<Long, ContainsScan> containsScans = new HashMap<>(2);
+
+    private ParsedMessage(String raw, byte[] rawBytes, SieveMessage view, Envelope envelope) {
+        this.raw = raw;
+        this.rawBytes = rawBytes;
+        this.view = view;
+        this.envelope = envelope;
+    }
+
+    /**
+     * 解析原始邮件（没有SMTP信封信息）
+     */
+    public static ParsedMessage parse(String raw) {
+        return parse(raw, Envelope.EMPTY);
+    }
+
+    /**
+     * 解析原始邮件
+     */
+    public static ParsedMessage parse(String raw, Envelope envelope) {
+        String content = raw != null ? raw : "";
+        return new ParsedMessage(content, null, SieveMessage.parse(content), envelope != null ? envelope : Envelope.EMPTY);
+    }
+
+    /**
+     * 按原始字节解析（IMAP收取等），文本视图按UTF-8解码，扫描与MIME解析使用原始字节
+     */
+    public static ParsedMessage parse(byte[] raw, Envelope envelope) {
+        byte[] bytes = raw != null ? raw : new byte[0];
+        String content = new String(bytes, StandardCharsets.UTF_8);
+        return new ParsedMessage(content, bytes, SieveMessage.parse(content), envelope != null ? envelope : Envelope.EMPTY);
+    }
+
+    /**
+     * 原始字节（从文本解析时按UTF-8编码），返回内部数组，调用方不得修改
+     */
+    public byte[] getRawBytes() {
+        if (rawBytes == null) {
+            rawBytes = raw.getBytes(StandardCharsets.UTF_8);
+        }
+        return rawBytes;
+    }
+
+    /**
+     * 过滤规则求值使用的视图
+     */
+    public SieveMessage getSieveMessage() {
+        return view;
+    }
+
+    /**
+     * 头部的第一个取值（名称不区分大小写，不存在时返回null）
+     */
+    public String header(String name) {
+        return view.firstHeader(name.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * 头部的全部取值
+     */
+    public List<String> headers(String name) {
+        return view.headers(name.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * 每个头部取最后一个值的只读表（兼容按单值头部编写的条件）
+     */
+    public Map<String, String> getSingleHeaders() {
+        if (singleHeaders == null) {
+            Map<String, String> headers = new HashMap<>(view.headerNames().size() * 2);
+            for (String name : view.headerNames()) {
+                List<String> values = view.headers(name);
+                headers.put(name, values.get(values.size() - 1));
+            }
+            singleHeaders = Collections.unmodifiableMap(headers);
+        }
+        return singleHeaders;
+    }
+
+    public String getFrom() {
+        return header("from");
+    }
+
+    public String getTo() {
+        return header("to");
+    }
+
+    public String getSubject() {
+        return header("subject");
+    }
+
+    /**
+     * 未解码的正文
+     */
+    public String getBody() {
+        return view.getBody();
+    }
+
+    public long getSize() {
+        return view.getSize();
+    }
+
+    /**
+     * MIME结构（首次调用时解析）
+     */
+    public MimeMessage getMimeMessage() throws MessagingException {
+        if (mimeMessage == null) {
+            mimeMessage = new MimeMessage(SESSION, new ByteArrayInputStream(getRawBytes()));
+        }
+        return mimeMessage;
+    }
+
+    /**
+     * 解码后的文本、HTML与附件信息（首次调用时解析）
+     */
+    public EmailContentParser.ParseResult getContent() throws MessagingException, IOException {
+        if (content == null) {
+            content = EmailContentParser.parseContent(getMimeMessage());
+        }
+        return content;
+    }
+
+    /**
+     * 别名的"包含"条件扫描器；同一别名在本次处理中共用，每个字段最多扫描一次
+     */
+    public ContainsScan containsScan(Long userAliasId, ContainsIndex index) {
+        return containsScans.computeIfAbsent(userAliasId, id -> index.scan(id, view));
+    }
+
+    /**
+     * 转换为转发、自动回复等服务使用的邮件数据（每次返回新表，调用方可自行追加字段）
+     */
+    public Map<String, Object> toEmailData() {
+        Map<String, String> headers = getSingleHeaders();
+        Map<String, Object> emailData = new HashMap<>();
+        emailData.put("headers", headers);
+        emailData.put("content", raw);
+        emailData.put("body", getBody());
+        emailData.put("from", headers.get("from"));
+        emailData.put("to", headers.get("to"));
+        emailData.put("subject", headers.get("subject"));
+        emailData.put("date", headers.get("date"));
+        emailData.put("size", raw.length());
+        return emailData;
+    }
+
+    /**
+     * SMTP信封信息（不可变）
+     */
+    @Getter
+    public static final class Envelope {
+
+        public static final Envelope EMPTY = new Envelope(null, Collections.emptyList(), null, null);
+
+        private final String mailFrom;
+        private final List<String> rcptTo;
+        private final String clientIp;
+        private final String helo;
+
+        public Envelope(String mailFrom, List<String> rcptTo, String clientIp, String helo) {
+            this.mailFrom = mailFrom;
+            this.rcptTo = rcptTo != null ? Collections.unmodifiableList(new ArrayList<>(rcptTo)) : Collections.emptyList();
+            this.clientIp = clientIp;
+            this.helo = helo;
+        }
+    }
+}
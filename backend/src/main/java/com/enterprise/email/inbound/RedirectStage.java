@@ -0,0 +1,68 @@
+package com.enterprise.email.inbound;
+
+import com.enterprise.email.entity.Email;
+import com.enterprise.email.service.EmailService;
+import com.enterprise.email.service.SmtpService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sieve redirect：把邮件发往规则指定的地址；邮件未保存且全部发送失败时保存到收件箱，不丢失邮件
+ */
+@Slf4j
+@Component
+@Order(380)
+@RequiredArgsConstructor
+public class RedirectStage implements InboundStage {
+
+    private final SmtpService smtpService;
+    private final EmailService emailService;
+
+    @Override
+    public String getName() {
+        return "redirect";
+    }
+
+    @Override
+    public boolean process(InboundContext context) {
+        if (context.getRedirects().isEmpty()) {
+            return true;
+        }
+
+        ParsedMessage message = context.getMessage();
+        String subject = message.getSubject() != null ? message.getSubject() : "";
+        List<String> sent = new ArrayList<>();
+        List<String> failed = new ArrayList<>();
+        for (String target : context.getRedirects()) {
+            if (target.equalsIgnoreCase(context.getAliasAddress())) {
+                continue;
+            }
+            try {
+                smtpService.sendSimpleEmail(context.getAliasAddress(), target, subject, message.getRaw());
+                sent.add(target);
+            } catch (Exception e) {
+                log.error("Sieve redirect失败: {} -> {}, error={}", context.getAliasAddress(), target, e.getMessage());
+                failed.add(target);
+            }
+        }
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("sent", sent);
+        result.put("failed", failed);
+        if (context.getStoredEmail() == null && sent.isEmpty()) {
+            Email email = emailService.storeInboundEmail(message, context.getUserAliasId(),
+                    Email.TYPE_INBOX, context.getMessageUid());
+            context.setStoredEmail(email);
+            result.put("fallbackEmailId", email.getId());
+        }
+        context.putResult(getName(), result);
+        return true;
+    }
+}
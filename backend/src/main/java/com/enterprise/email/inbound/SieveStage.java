@@ -0,0 +1,90 @@
+package com.enterprise.email.inbound;
+
+import com.enterprise.email.service.SieveService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sieve过滤：discard、reject终止处理，fileinto记录目标文件夹，redirect记录目标地址
+ * （只有redirect、没有keep或fileinto时不保存到本地）；规则求值失败时抛出异常，由流水线隔离邮件
+ */
+@Component
+@Order(300)
+@RequiredArgsConstructor
+public class SieveStage implements InboundStage {
+
+    private final SieveService sieveService;
+
+    @Override
+    public String getName() {
+        return "sieve";
+    }
+
+    @Override
+    public boolean process(InboundContext context) {
+        Map<String, Object> result = sieveService.applySieveRules(context.getMessage(), context.getUserAliasId());
+        context.putResult(getName(), result);
+        if (Boolean.TRUE.equals(result.get("error"))) {
+            throw new IllegalStateException("Sieve规则求值失败: " + result.get("message"));
+        }
+
+        Object action = result.get("finalAction");
+        if ("discard".equals(action)) {
+            context.stop(getName(), InboundContext.DISCARD, "Sieve规则丢弃");
+            return false;
+        }
+        if ("reject".equals(action)) {
+            context.stop(getName(), InboundContext.REJECT, "Sieve规则拒收");
+            return false;
+        }
+        if ("fileinto".equals(action) && result.get("actionData") instanceof Map) {
+            Object folder = ((Map<?, ?>) result.get("actionData")).get("folder");
+            context.setFolder(folder != null ? folder.toString() : null);
+        }
+        collectRedirects(context, result);
+        return true;
+    }
+
+    /**
+     * 收集所有命中规则的redirect动作
+     */
+    private void collectRedirects(InboundContext context, Map<String, Object> result) {
+        boolean explicitKeep = false;
+        if (result.get("appliedRules") instanceof List) {
+            for (Object applied : (List<?>) result.get("appliedRules")) {
+                if (!(applied instanceof Map)) {
+                    continue;
+                }
+                Map<?, ?> rule = (Map<?, ?>) applied;
+                if (rule.get("actions") instanceof List) {
+                    for (Object item : (List<?>) rule.get("actions")) {
+                        if (item instanceof Map) {
+                            explicitKeep |= collectAction(context, (Map<?, ?>) item);
+                        }
+                    }
+                } else {
+                    explicitKeep |= collectAction(context, rule);
+                }
+            }
+        }
+        if ("redirect".equals(result.get("finalAction")) && !explicitKeep) {
+            context.setKeep(false);
+        }
+    }
+
+    /**
+     * 记录redirect地址，返回动作是否保留邮件（keep、fileinto）
+     */
+    private boolean collectAction(InboundContext context, Map<?, ?> action) {
+        Object type = action.get("action");
+        if ("redirect".equals(type) && action.get("actionData") instanceof Map) {
+            Object address = ((Map<?, ?>) action.get("actionData")).get("address");
+            context.addRedirect(address != null ? address.toString() : null);
+        }
+        return "keep".equals(type) || "fileinto".equals(type);
+    }
+}
@@ -0,0 +1,45 @@
+package com.enterprise.email.inbound;
+
+import com.enterprise.email.entity.Email;
+import com.enterprise.email.service.EmailService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 入库：按流水线的判定保存到隔离、Sieve指定、垃圾邮件或收件箱文件夹；只redirect的邮件不保存。
+ * 在转发与自动回复之前执行，保证产生外发动作的邮件已经保存
+ */
+@Component
+@Order(350)
+@RequiredArgsConstructor
+public class StoreStage implements InboundStage {
+
+    private final EmailService emailService;
+
+    @Override
+    public String getName() {
+        return "store";
+    }
+
+    @Override
+    public boolean process(InboundContext context) {
+        if (!context.isKeep() && !context.isQuarantined()) {
+            context.putResult(getName(), "skipped");
+            return true;
+        }
+        String folder = context.resolveFolder();
+        Email email = emailService.storeInboundEmail(context.getMessage(), context.getUserAliasId(),
+                folder, context.getMessageUid());
+        context.setStoredEmail(email);
+        Map<String, Object> result = new HashMap<>();
+        result.put("emailId", email.getId());
+        result.put("threadId", email.getThreadId());
+        result.put("folder", folder);
+        context.putResult(getName(), result);
+        return true;
+    }
+}
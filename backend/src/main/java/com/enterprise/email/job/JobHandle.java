@@ -0,0 +1,53 @@
+package com.enterprise.email.job;
+
+/**
+ * 本节点上一个运行中任务的句柄，state为任务服务自己的运行状态（进度、速率等）
+ */
+public final class JobHandle<S> {
+
+    private final LeasedJobRunner<?, S> runner;
+    private final Long jobId;
+    private final S state;
+    private final long startedNanos = System.nanoTime();
+    volatile boolean cancelled;
+    volatile boolean lost;
+
+    JobHandle(LeasedJobRunner<?, S> runner, Long jobId, S state) {
+        this.runner = runner;
+        this.jobId = jobId;
+        this.state = state;
+    }
+
+    public Long getJobId() {
+        return jobId;
+    }
+
+    public S getState() {
+        return state;
+    }
+
+    public long getStartedNanos() {
+        return startedNanos;
+    }
+
+    /**
+     * 运行任务的节点，写进度时作为条件
+     */
+    public String getOwner() {
+        return runner.getOwner();
+    }
+
+    /**
+     * 已取消、应用正在关闭或失去租约时返回true
+     */
+    public boolean isStopped() {
+        return cancelled || lost || runner.isShuttingDown();
+    }
+
+    /**
+     * 在检查点续租并读取其他节点写入的取消状态，返回任务是否应继续
+     */
+    public boolean checkpoint() {
+        return !isStopped() && runner.renew(this);
+    }
+}
@@ -0,0 +1,41 @@
+package com.enterprise.email.job;
+
+/**
+ * 后台任务表的访问接口，由各任务服务按自己的任务表实现
+ *
+ * 认领、续租和结束都是带owner条件的更新，任务被其他节点接管后原节点的写入不再生效。
+ */
+public interface JobStore {
+
+    /**
+     * 任务结束状态
+     */
+    enum Outcome {
+        COMPLETED, CANCELLED, FAILED
+    }
+
+    /**
+     * 认领任务：任务未在运行或租约已过期，且同一范围内没有其他租约未过期的任务时成功
+     */
+    boolean claim(Long jobId, String owner, long leaseSeconds);
+
+    /**
+     * 续租，返回false表示任务已被取消或被其他节点接管
+     */
+    boolean renew(Long jobId, String owner, long leaseSeconds);
+
+    /**
+     * 放弃租约，任务保持运行状态，其他节点可以立即继续
+     */
+    void releaseLease(Long jobId, String owner);
+
+    /**
+     * 任务是否已被取消（或已删除）
+     */
+    boolean isCancelled(Long jobId);
+
+    /**
+     * 写入结束状态，只在任务仍由owner运行时生效
+     */
+    void finish(Long jobId, String owner, Outcome outcome, String error);
+}
@@ -0,0 +1,157 @@
+package com.enterprise.email.job;
+
+import com.enterprise.email.service.JobLeaseService;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 可继续的后台任务运行器，重新过滤、病毒扫描等任务服务共用
+ *
+ * 同一范围键（别名、域名等）同时只运行一个任务：本节点用运行表去重，跨节点时在锁定范围租约行的事务内
+ * 由JobStore以条件更新认领任务。任务体在检查点调用 {@link JobHandle#checkpoint()} 续租，续租失败说明任务
+ * 已被取消或被其他节点接管，任务体随即停止。结束状态只在仍持有任务时写入；应用关闭时任务保持运行状态
+ * 并放弃租约，其他节点或重启后可以立即从检查点继续。
+ */
+@Slf4j
+public final class LeasedJobRunner<K, S> {
+
+    /**
+     * 任务体：运行到底返回true，因取消、关闭或失去租约中途停止返回false，失败时抛出异常
+     */
+    @FunctionalInterface
+    public interface Body<S> {
+        boolean run(JobHandle<S> handle) throws Exception;
+    }
+
+    private final String scope;
+    private final JobStore store;
+    private final JobLeaseService leaseService;
+    private final Executor executor;
+    private final long leaseSeconds;
+    private final String busyMessage;
+    private final Map<K, JobHandle<S>> running = new ConcurrentHashMap<>();
+    private volatile boolean shuttingDown;
+
+    /**
+     * @param scope        任务类型，与范围键组成范围租约名
+     * @param leaseSeconds 租约时长，需大于两次检查点之间的最长间隔
+     * @param busyMessage  范围内已有任务运行时的错误信息
+     */
+    public LeasedJobRunner(String scope, JobStore store, JobLeaseService leaseService, Executor executor,
+                           long leaseSeconds, String busyMessage) {
+        this.scope = scope;
+        this.store = store;
+        this.leaseService = leaseService;
+        this.executor = executor;
+        this.leaseSeconds = Math.max(1, leaseSeconds);
+        this.busyMessage = busyMessage;
+    }
+
+    /**
+     * 认领并在任务线程池上运行任务，认领失败或队列已满时抛出异常
+     */
+    public JobHandle<S> launch(Long jobId, K key, S state, Body<S> body) {
+        JobHandle<S> handle = new JobHandle<>(this, jobId, state);
+        if (running.putIfAbsent(key, handle) != null) {
+            throw new RuntimeException(busyMessage);
+        }
+        boolean claimed;
+        try {
+            claimed = Boolean.TRUE.equals(leaseService.runLocked(scope + ":" + key,
+                    () -> store.claim(jobId, getOwner(), leaseSeconds)));
+        } catch (RuntimeException e) {
+            running.remove(key, handle);
+            throw e;
+        }
+        if (!claimed) {
+            running.remove(key, handle);
+            throw new RuntimeException(busyMessage + "（可能在其他节点）");
+        }
+        try {
+            executor.execute(() -> run(key, handle, body));
+        } catch (RejectedExecutionException e) {
+            running.remove(key, handle);
+            store.releaseLease(jobId, getOwner());
+            throw new RuntimeException("任务队列已满，请稍后重试");
+        }
+        return handle;
+    }
+
+    /**
+     * 本节点上运行中的指定任务，不在本节点运行时返回null
+     */
+    public JobHandle<S> get(K key, Long jobId) {
+        JobHandle<S> handle = running.get(key);
+        return handle != null && handle.getJobId().equals(jobId) ? handle : null;
+    }
+
+    public boolean isRunning(K key) {
+        return running.containsKey(key);
+    }
+
+    /**
+     * 本节点上运行的任务立即置为取消；其他节点上的任务在下一次续租时感知
+     */
+    public void cancel(K key, Long jobId) {
+        JobHandle<S> handle = get(key, jobId);
+        if (handle != null) {
+            handle.cancelled = true;
+        }
+    }
+
+    /**
+     * 应用关闭：运行中的任务在下一个检查点停止并放弃租约
+     */
+    public void shutdown() {
+        shuttingDown = true;
+    }
+
+    public String getOwner() {
+        return leaseService.getNodeId();
+    }
+
+    boolean isShuttingDown() {
+        return shuttingDown;
+    }
+
+    boolean renew(JobHandle<S> handle) {
+        if (store.renew(handle.getJobId(), getOwner(), leaseSeconds)) {
+            return true;
+        }
+        if (store.isCancelled(handle.getJobId())) {
+            handle.cancelled = true;
+        } else {
+            handle.lost = true;
+        }
+        return false;
+    }
+
+    private void run(K key, JobHandle<S> handle, Body<S> body) {
+        Long jobId = handle.getJobId();
+        try {
+            if (body.run(handle)) {
+                store.finish(jobId, getOwner(), JobStore.Outcome.COMPLETED, null);
+            } else if (handle.cancelled) {
+                store.finish(jobId, getOwner(), JobStore.Outcome.CANCELLED, null);
+            } else if (handle.lost) {
+                log.warn("任务已被其他节点接管，本节点停止: scope={}, jobId={}", scope, jobId);
+            } else {
+                store.releaseLease(jobId, getOwner());
+                log.info("应用关闭，任务停在检查点: scope={}, jobId={}", scope, jobId);
+            }
+        } catch (Exception e) {
+            log.error("任务失败: scope={}, jobId={}, error={}", scope, jobId, e.getMessage(), e);
+            try {
+                store.finish(jobId, getOwner(), JobStore.Outcome.FAILED, e.getMessage());
+            } catch (Exception ex) {
+                log.error("更新任务状态失败: scope={}, jobId={}, error={}", scope, jobId, ex.getMessage());
+            }
+        } finally {
+            running.remove(key, handle);
+        }
+    }
+}
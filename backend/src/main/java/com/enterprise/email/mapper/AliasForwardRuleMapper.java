@@ -8,6 +8,7 @@ import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
 import org.apache.ibatis.annotations.Select;
 
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -64,4 +65,41 @@ public interface AliasForwardRuleMapper extends BaseMapper<AliasForwardRule> {
                                            @Param("subject") String subject,
                                            @Param("fromEmail") String fromEmail,
                                            @Param("toEmail") String toEmail);
-}
\ No newline at end of file
+
+    /**
+     * 查询所有生效的转发边（规则与所属别名均启用）
+     */
+    @Select("SELECT afr.id, afr.alias_id, afr.forward_to, afr.condition_type, afr.keep_original, afr.is_active, " +
+            "ua.alias_address " +
+            "FROM alias_forward_rules afr " +
+            "INNER JOIN user_aliases ua ON afr.alias_id = ua.id " +
+            "WHERE afr.is_active = true AND ua.is_active = true")
+    List<AliasForwardRule> findActiveEdges();
+
+    /**
+     * 按规则ID查询生效的转发边（已删除或停用的规则不返回）
+     */
+    @Select("<script>" +
+            "SELECT afr.id, afr.alias_id, afr.forward_to, afr.condition_type, afr.keep_original, afr.is_active, " +
+            "ua.alias_address " +
+            "FROM alias_forward_rules afr " +
+            "INNER JOIN user_aliases ua ON afr.alias_id = ua.id " +
+            "WHERE afr.is_active = true AND ua.is_active = true AND afr.id IN " +
+            "<foreach collection='ruleIds' item='id' open='(' separator=',' close=')'>#{id}</foreach>" +
+            "</script>")
+    List<AliasForwardRule> findActiveEdgesByIds(@Param("ruleIds") Collection<Long> ruleIds);
+
+    /**
+     * 按别名地址查询生效规则的转发目标，保存规则前沿转发链在数据库中检查循环时使用；
+     * 加共享锁读取最新提交的数据，不受事务一致性快照的影响
+     */
+    @Select("<script>" +
+            "SELECT afr.forward_to " +
+            "FROM alias_forward_rules afr " +
+            "INNER JOIN user_aliases ua ON afr.alias_id = ua.id " +
+            "WHERE afr.is_active = true AND ua.is_active = true AND ua.alias_address IN " +
+            "<foreach collection='addresses' item='address' open='(' separator=',' close=')'>#{address}</foreach> " +
+            "LOCK IN SHARE MODE" +
+            "</script>")
+    List<String> findActiveTargetsByAddresses(@Param("addresses") Collection<String> addresses);
+}
@@ -0,0 +1,40 @@
+package com.enterprise.email.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.enterprise.email.entity.ArchiveIndexBlock;
+import org.apache.ibatis.annotations.*;
+
+import java.util.List;
+
+/**
+ * 归档稀疏索引数据访问层
+ */
+@Mapper
+public interface ArchiveIndexMapper extends BaseMapper<ArchiveIndexBlock> {
+
+    /**
+     * 查询ID范围覆盖指定邮件的块
+     */
+    @Select("SELECT * FROM archive_index WHERE user_id = #{userId} AND first_id <= #{emailId} " +
+            "AND last_id >= #{emailId}")
+    List<ArchiveIndexBlock> selectBlocksContaining(@Param("userId") Long userId, @Param("emailId") Long emailId);
+
+    /**
+     * 按块ID分批查询用户的块（归档搜索）
+     */
+    @Select("SELECT * FROM archive_index WHERE user_id = #{userId} AND id > #{afterId} ORDER BY id ASC LIMIT #{limit}")
+    List<ArchiveIndexBlock> selectUserBlocksAfter(@Param("userId") Long userId, @Param("afterId") Long afterId,
+                                                  @Param("limit") int limit);
+
+    /**
+     * 按块ID顺序查询用户的块（恢复任务）
+     */
+    @Select("SELECT * FROM archive_index WHERE user_id = #{userId} ORDER BY id ASC LIMIT #{limit}")
+    List<ArchiveIndexBlock> selectUserBlocks(@Param("userId") Long userId, @Param("limit") int limit);
+
+    /**
+     * 统计段内剩余的块数
+     */
+    @Select("SELECT COUNT(*) FROM archive_index WHERE segment_id = #{segmentId}")
+    long countBySegment(@Param("segmentId") Long segmentId);
+}
@@ -0,0 +1,33 @@
+package com.enterprise.email.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.enterprise.email.entity.ArchiveSegment;
+import org.apache.ibatis.annotations.*;
+
+import java.util.List;
+
+/**
+ * 归档段文件数据访问层
+ */
+@Mapper
+public interface ArchiveSegmentMapper extends BaseMapper<ArchiveSegment> {
+
+    /**
+     * 查询当前写入中的段
+     */
+    @Select("SELECT * FROM archive_segments WHERE status = 'OPEN' ORDER BY id DESC LIMIT 1")
+    ArchiveSegment selectOpenSegment();
+
+    /**
+     * 记录追加写入后的大小与邮件数
+     */
+    @Update("UPDATE archive_segments SET size_bytes = #{sizeBytes}, record_count = record_count + #{records}, " +
+            "update_time = NOW() WHERE id = #{id}")
+    int updateAppended(@Param("id") Long id, @Param("sizeBytes") long sizeBytes, @Param("records") int records);
+
+    /**
+     * 已有段所在存储的标识
+     */
+    @Select("SELECT DISTINCT store_id FROM archive_segments WHERE store_id IS NOT NULL")
+    List<String> selectStoreIds();
+}
@@ -0,0 +1,90 @@
+package com.enterprise.email.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.enterprise.email.entity.AttachmentBlob;
+import org.apache.ibatis.annotations.*;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 附件内容块数据访问层
+ */
+@Mapper
+public interface AttachmentBlobMapper extends BaseMapper<AttachmentBlob> {
+
+    /**
+     * 根据内容哈希查询
+     */
+    @Select("SELECT * FROM attachment_blobs WHERE content_hash = #{contentHash}")
+    AttachmentBlob selectByHash(@Param("contentHash") String contentHash);
+
+    /**
+     * 新增引用：内容不存在时插入，存在时引用计数加一（单条语句保证原子性）
+     */
+    @Insert("INSERT INTO attachment_blobs (id, content_hash, file_size, stored_size, compression, storage_path, " +
+            "ref_count, create_time, update_time) " +
+            "VALUES (#{id}, #{contentHash}, #{fileSize}, #{storedSize}, #{compression}, #{storagePath}, #{delta}, NOW(), NOW()) " +
+            "ON DUPLICATE KEY UPDATE ref_count = ref_count + #{delta}, last_release_time = NULL, update_time = NOW()")
+    int upsertReference(@Param("id") Long id,
+                        @Param("contentHash") String contentHash,
+                        @Param("fileSize") Long fileSize,
+                        @Param("storedSize") Long storedSize,
+                        @Param("compression") String compression,
+                        @Param("storagePath") String storagePath,
+                        @Param("delta") int delta);
+
+    /**
+     * 登记无引用的内容（写入文件的事务已回滚），由孤儿清理任务在宽限期后回收；记录已存在时不做修改
+     */
+    @Insert("INSERT INTO attachment_blobs (id, content_hash, file_size, stored_size, compression, storage_path, " +
+            "ref_count, last_release_time, create_time, update_time) " +
+            "VALUES (#{id}, #{contentHash}, #{fileSize}, #{storedSize}, #{compression}, #{storagePath}, 0, NOW(), NOW(), NOW()) " +
+            "ON DUPLICATE KEY UPDATE id = id")
+    int registerOrphan(@Param("id") Long id,
+                       @Param("contentHash") String contentHash,
+                       @Param("fileSize") Long fileSize,
+                       @Param("storedSize") Long storedSize,
+                       @Param("compression") String compression,
+                       @Param("storagePath") String storagePath);
+
+    /**
+     * 已存在内容的引用计数增加
+     */
+    @Update("UPDATE attachment_blobs SET ref_count = ref_count + #{delta}, last_release_time = NULL, " +
+            "update_time = NOW() WHERE content_hash = #{contentHash}")
+    int incrementReference(@Param("contentHash") String contentHash, @Param("delta") int delta);
+
+    /**
+     * 释放引用，计数不会小于零
+     */
+    @Update("UPDATE attachment_blobs SET ref_count = GREATEST(ref_count - #{delta}, 0), " +
+            "last_release_time = NOW(), update_time = NOW() WHERE content_hash = #{contentHash}")
+    int releaseReference(@Param("contentHash") String contentHash, @Param("delta") int delta);
+
+    /**
+     * 查询宽限期之前已无引用的内容块（按主键分批）
+     */
+    @Select("SELECT * FROM attachment_blobs WHERE ref_count = 0 AND last_release_time < #{cutoffTime} " +
+            "AND id > #{afterId} ORDER BY id ASC LIMIT #{limit}")
+    List<AttachmentBlob> selectOrphans(@Param("cutoffTime") LocalDateTime cutoffTime,
+                                       @Param("afterId") Long afterId,
+                                       @Param("limit") int limit);
+
+    /**
+     * 删除无引用的内容块记录（仅当引用计数仍为零时生效）
+     */
+    @Delete("DELETE FROM attachment_blobs WHERE id = #{id} AND ref_count = 0")
+    int deleteIfOrphan(@Param("id") Long id);
+
+    /**
+     * 存储统计：物理占用与逻辑引用
+     */
+    @Select("SELECT COUNT(*) AS blob_count, COALESCE(SUM(file_size), 0) AS physical_bytes, " +
+            "COALESCE(SUM(file_size * ref_count), 0) AS logical_bytes, " +
+            "COALESCE(SUM(stored_size), 0) AS stored_bytes, " +
+            "SUM(CASE WHEN ref_count = 0 THEN 1 ELSE 0 END) AS orphan_count " +
+            "FROM attachment_blobs")
+    Map<String, Object> selectStorageStatistics();
+}
@@ -50,6 +50,17 @@ public interface AutoReplySettingsMapper extends BaseMapper<AutoReplySettings> {
             "AND (ars.end_time IS NULL OR ars.end_time >= NOW())")
     AutoReplySettings findActiveByAliasAddress(@Param("aliasAddress") String aliasAddress);
 
+    /**
+     * 根据别名地址查询自动回复设置（不限状态和时间范围，用于编译缓存）
+     */
+    @Select("SELECT ars.*, ua.alias_address, d.domain_name " +
+            "FROM auto_reply_settings ars " +
+            "LEFT JOIN user_aliases ua ON ars.alias_id = ua.id " +
+            "LEFT JOIN domains d ON ua.domain_id = d.id " +
+            "WHERE ua.alias_address = #{aliasAddress} " +
+            "LIMIT 1")
+    AutoReplySettings findByAliasAddress(@Param("aliasAddress") String aliasAddress);
+
     /**
      * 分页查询自动回复设置
      */
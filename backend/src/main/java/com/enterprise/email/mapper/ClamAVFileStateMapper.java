@@ -0,0 +1,45 @@
+package com.enterprise.email.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.enterprise.email.entity.ClamAVFileState;
+import org.apache.ibatis.annotations.Insert;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+
+import java.util.List;
+
+/**
+ * 文件扫描状态数据访问层
+ */
+@Mapper
+public interface ClamAVFileStateMapper extends BaseMapper<ClamAVFileState> {
+
+    /**
+     * 读取一个目录下全部文件的扫描状态
+     */
+    @Select("SELECT * FROM clamav_file_states WHERE domain = #{domain} AND dir_hash = #{dirHash}")
+    List<ClamAVFileState> selectByDirectory(@Param("domain") String domain, @Param("dirHash") String dirHash);
+
+    /**
+     * 批量写入扫描状态（同一文件覆盖）
+     */
+    @Insert("<script>" +
+            "INSERT INTO clamav_file_states (id, domain, path_hash, dir_hash, file_path, file_size, modified_time, sha256, " +
+            "signatures_version, infected, virus_name, job_id, scanned_time) VALUES " +
+            "<foreach collection='rows' item='row' separator=','>" +
+            "(#{row.id}, #{row.domain}, #{row.pathHash}, #{row.dirHash}, #{row.filePath}, #{row.fileSize}, #{row.modifiedTime}, " +
+            "#{row.sha256}, #{row.signaturesVersion}, #{row.infected}, #{row.virusName}, #{row.jobId}, #{row.scannedTime})" +
+            "</foreach>" +
+            " ON DUPLICATE KEY UPDATE file_size = VALUES(file_size), modified_time = VALUES(modified_time), " +
+            "sha256 = VALUES(sha256), signatures_version = VALUES(signatures_version), infected = VALUES(infected), " +
+            "virus_name = VALUES(virus_name), job_id = VALUES(job_id), scanned_time = VALUES(scanned_time)" +
+            "</script>")
+    int upsertBatch(@Param("rows") List<ClamAVFileState> rows);
+
+    /**
+     * 查询任务发现的病毒文件
+     */
+    @Select("SELECT * FROM clamav_file_states WHERE job_id = #{jobId} AND infected = 1 ORDER BY id LIMIT #{limit}")
+    List<ClamAVFileState> selectInfectedByJob(@Param("jobId") Long jobId, @Param("limit") int limit);
+}
@@ -0,0 +1,53 @@
+package com.enterprise.email.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.enterprise.email.entity.ClamAVScanJob;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.annotations.Update;
+
+import java.util.List;
+
+/**
+ * 病毒扫描任务数据访问层
+ */
+@Mapper
+public interface ClamAVScanJobMapper extends BaseMapper<ClamAVScanJob> {
+
+    /**
+     * 查询域名最近的扫描任务
+     */
+    @Select("SELECT * FROM clamav_scan_jobs WHERE domain = #{domain} ORDER BY id DESC LIMIT #{limit}")
+    List<ClamAVScanJob> selectRecentByDomain(@Param("domain") String domain, @Param("limit") int limit);
+
+    /**
+     * 域名下除指定任务外租约未过期的运行中任务数
+     */
+    @Select("SELECT COUNT(*) FROM clamav_scan_jobs WHERE domain = #{domain} AND id <> #{excludeId} " +
+            "AND status = 'RUNNING' AND lease_until > NOW()")
+    long countActiveByDomain(@Param("domain") String domain, @Param("excludeId") Long excludeId);
+
+    /**
+     * 认领任务：未在运行或租约已过期时才成功，返回更新行数
+     */
+    @Update("UPDATE clamav_scan_jobs SET status = 'RUNNING', owner = #{owner}, " +
+            "lease_until = DATE_ADD(NOW(), INTERVAL #{leaseSeconds} SECOND), " +
+            "started_time = COALESCE(started_time, NOW()), completed_time = NULL, update_time = NOW() " +
+            "WHERE id = #{id} AND status <> 'COMPLETED' " +
+            "AND (status <> 'RUNNING' OR lease_until IS NULL OR lease_until <= NOW())")
+    int claim(@Param("id") Long id, @Param("owner") String owner, @Param("leaseSeconds") long leaseSeconds);
+
+    /**
+     * 续租：任务仍由owner运行时延长租约；返回0表示已被取消或被其他节点接管
+     */
+    @Update("UPDATE clamav_scan_jobs SET lease_until = DATE_ADD(NOW(), INTERVAL #{leaseSeconds} SECOND) " +
+            "WHERE id = #{id} AND owner = #{owner} AND status = 'RUNNING'")
+    int renew(@Param("id") Long id, @Param("owner") String owner, @Param("leaseSeconds") long leaseSeconds);
+
+    /**
+     * 放弃租约（应用关闭时），任务保持运行状态，其他节点可以立即继续
+     */
+    @Update("UPDATE clamav_scan_jobs SET lease_until = NOW() WHERE id = #{id} AND owner = #{owner} AND status = 'RUNNING'")
+    int releaseLease(@Param("id") Long id, @Param("owner") String owner);
+}
@@ -5,6 +5,7 @@ import com.enterprise.email.entity.DnsblConfig;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
 import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.annotations.Update;
 
 import java.util.List;
 
@@ -57,4 +58,20 @@ public interface DnsblConfigMapper extends BaseMapper<DnsblConfig> {
             "AND (last_health_check IS NULL OR last_health_check <= DATE_SUB(NOW(), INTERVAL 1 HOUR)) " +
             "AND deleted = 0")
     List<DnsblConfig> selectHealthCheckDueConfigs();
-}
\ No newline at end of file
+
+    /**
+     * 累加查询次数与黑白名单命中次数（单条语句，不覆盖其他节点的累加）
+     */
+    @Update("UPDATE dnsbl_configs SET total_queries = COALESCE(total_queries, 0) + 1, " +
+            "blacklist_hits = COALESCE(blacklist_hits, 0) + #{blacklistHits}, " +
+            "whitelist_hits = COALESCE(whitelist_hits, 0) + #{whitelistHits}, last_query_at = NOW() WHERE id = #{id}")
+    int incrementQueries(@Param("id") Long id, @Param("blacklistHits") int blacklistHits,
+                         @Param("whitelistHits") int whitelistHits);
+
+    /**
+     * 累加查询超时与DNS错误次数（单条语句，不覆盖其他节点的累加）
+     */
+    @Update("UPDATE dnsbl_configs SET timeout_errors = COALESCE(timeout_errors, 0) + #{timeouts}, " +
+            "dns_errors = COALESCE(dns_errors, 0) + #{errors} WHERE id = #{id}")
+    int incrementErrors(@Param("id") Long id, @Param("timeouts") long timeouts, @Param("errors") long errors);
+}
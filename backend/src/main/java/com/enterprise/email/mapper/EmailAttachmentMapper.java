@@ -0,0 +1,69 @@
+package com.enterprise.email.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.enterprise.email.entity.EmailAttachment;
+import org.apache.ibatis.annotations.Delete;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * 邮件附件数据访问层
+ */
+@Mapper
+public interface EmailAttachmentMapper extends BaseMapper<EmailAttachment> {
+
+    /**
+     * 根据邮件ID查询附件
+     */
+    @Select("SELECT * FROM email_attachments WHERE email_id = #{emailId} AND deleted = 0 ORDER BY id ASC")
+    List<EmailAttachment> selectByEmailId(@Param("emailId") Long emailId);
+
+    /**
+     * 查询一批邮件中仍有效（未释放内容引用）的附件
+     */
+    @Select("<script>" +
+            "SELECT id, email_id, content_hash FROM email_attachments WHERE deleted = 0 AND email_id IN " +
+            "<foreach collection='emailIds' item='emailId' open='(' separator=',' close=')'>" +
+            "#{emailId}" +
+            "</foreach>" +
+            "</script>")
+    List<EmailAttachment> selectLiveByEmailIds(@Param("emailIds") List<Long> emailIds);
+
+    /**
+     * 按邮件ID批量物理删除附件记录
+     */
+    @Delete("<script>" +
+            "DELETE FROM email_attachments WHERE email_id IN " +
+            "<foreach collection='emailIds' item='emailId' open='(' separator=',' close=')'>" +
+            "#{emailId}" +
+            "</foreach>" +
+            "</script>")
+    int hardDeleteByEmailIds(@Param("emailIds") List<Long> emailIds);
+
+    /**
+     * 按主键分批查询可清理的附件：过期临时附件，或超过保留期的已删除附件
+     */
+    @Select("SELECT id, email_id, content_hash, status, deleted FROM email_attachments WHERE id > #{afterId} " +
+            "AND ((deleted = 0 AND status = 'temp' AND create_time < #{tempCutoff}) " +
+            "     OR (deleted = 1 AND update_time < #{retentionCutoff})) " +
+            "ORDER BY id ASC LIMIT #{limit}")
+    List<EmailAttachment> selectPurgeableAttachments(@Param("tempCutoff") LocalDateTime tempCutoff,
+                                                     @Param("retentionCutoff") LocalDateTime retentionCutoff,
+                                                     @Param("afterId") Long afterId,
+                                                     @Param("limit") int limit);
+
+    /**
+     * 按ID批量物理删除附件记录
+     */
+    @Delete("<script>" +
+            "DELETE FROM email_attachments WHERE id IN " +
+            "<foreach collection='ids' item='id' open='(' separator=',' close=')'>" +
+            "#{id}" +
+            "</foreach>" +
+            "</script>")
+    int hardDeleteByIds(@Param("ids") List<Long> ids);
+}
@@ -4,8 +4,10 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import com.baomidou.mybatisplus.core.metadata.IPage;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.enterprise.email.entity.Email;
+import org.apache.ibatis.annotations.Delete;
 import org.apache.ibatis.annotations.Param;
 import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.annotations.Update;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDateTime;
@@ -95,22 +97,26 @@ public interface EmailMapper extends BaseMapper<Email> {
     List<Email.UnreadCount> getUnreadCounts(@Param("userId") Long userId);
 
     /**
-     * 批量更新邮件状态
-     */
-    @Select("UPDATE emails SET " +
-            "is_read = CASE WHEN #{operation} = 'read' THEN 1 " +
-            "              WHEN #{operation} = 'unread' THEN 0 " +
-            "              ELSE is_read END, " +
-            "is_important = CASE WHEN #{operation} = 'important' THEN 1 " +
-            "                   WHEN #{operation} = 'unimportant' THEN 0 " +
-            "                   ELSE is_important END, " +
-            "email_type = CASE WHEN #{operation} = 'delete' THEN 'trash' " +
-            "                 WHEN #{operation} = 'restore' THEN 'inbox' " +
-            "                 ELSE email_type END, " +
-            "update_time = NOW() " +
-            "WHERE id IN (${emailIds}) AND user_id = #{userId}")
-    void batchUpdateEmails(@Param("emailIds") String emailIds, 
-                          @Param("operation") String operation, 
+     * 按ID批量更新邮件状态（移动操作的目标文件夹由targetType指定）
+     */
+    @Update("<script>" +
+            "UPDATE emails SET " +
+            "<choose>" +
+            "<when test=\"operation == 'read'\">is_read = 1</when>" +
+            "<when test=\"operation == 'unread'\">is_read = 0</when>" +
+            "<when test=\"operation == 'important'\">is_important = 1</when>" +
+            "<when test=\"operation == 'unimportant'\">is_important = 0</when>" +
+            "<when test=\"operation == 'delete'\">email_type = 'trash'</when>" +
+            "<when test=\"operation == 'restore'\">email_type = 'inbox'</when>" +
+            "<otherwise>email_type = #{targetType}</otherwise>" +
+            "</choose>" +
+            ", update_time = NOW() " +
+            "WHERE user_id = #{userId} AND deleted = 0 AND id IN " +
+            "<foreach collection='emailIds' item='id' open='(' separator=',' close=')'>#{id}</foreach>" +
+            "</script>")
+    int batchUpdateEmails(@Param("emailIds") List<Long> emailIds,
+                          @Param("operation") String operation,
+                          @Param("targetType") String targetType,
                           @Param("userId") Long userId);
 
     /**
@@ -126,9 +132,121 @@ public interface EmailMapper extends BaseMapper<Email> {
     Email findByMessageUid(@Param("messageUid") String messageUid, @Param("aliasId") Long aliasId);
 
     /**
-     * 清理过期的垃圾邮件
+     * 按主键分批查询过期的垃圾箱邮件ID
+     */
+    @Select("SELECT id FROM emails WHERE id > #{afterId} AND email_type = 'trash' AND deleted = 0 " +
+            "AND update_time < #{cutoffTime} ORDER BY id ASC LIMIT #{limit}")
+    List<Long> selectExpiredTrashIds(@Param("cutoffTime") LocalDateTime cutoffTime,
+                                     @Param("afterId") Long afterId,
+                                     @Param("limit") int limit);
+
+    /**
+     * 按ID批量逻辑删除邮件
+     */
+    @Update("<script>" +
+            "UPDATE emails SET deleted = 1, update_time = NOW() WHERE deleted = 0 AND id IN " +
+            "<foreach collection='ids' item='id' open='(' separator=',' close=')'>" +
+            "#{id}" +
+            "</foreach>" +
+            "</script>")
+    int markDeletedByIds(@Param("ids") List<Long> ids);
+
+    /**
+     * 按主键分批查询超过保留期的已删除邮件（仅返回清理所需字段）
+     */
+    @Select("SELECT id, user_id, message_id, thread_id, file_path FROM emails WHERE id > #{afterId} AND deleted = 1 " +
+            "AND update_time < #{cutoffTime} ORDER BY id ASC LIMIT #{limit}")
+    List<Email> selectPurgeableEmails(@Param("cutoffTime") LocalDateTime cutoffTime,
+                                      @Param("afterId") Long afterId,
+                                      @Param("limit") int limit);
+
+    /**
+     * 按ID批量物理删除已逻辑删除的邮件
+     */
+    @Delete("<script>" +
+            "DELETE FROM emails WHERE deleted = 1 AND id IN " +
+            "<foreach collection='ids' item='id' open='(' separator=',' close=')'>" +
+            "#{id}" +
+            "</foreach>" +
+            "</script>")
+    int hardDeleteByIds(@Param("ids") List<Long> ids);
+
+    /**
+     * 按用户ID分批查询有邮件达到所属域名归档天数的用户
+     */
+    @Select("SELECT DISTINCT e.user_id FROM emails e " +
+            "JOIN user_aliases a ON e.alias_id = a.id " +
+            "JOIN domains d ON a.domain_id = d.id " +
+            "WHERE e.user_id > #{afterUserId} AND e.deleted = 0 AND d.archive_after_days IS NOT NULL " +
+            "AND COALESCE(e.received_time, e.sent_time, e.create_time) < " +
+            "    DATE_SUB(#{runTime}, INTERVAL d.archive_after_days DAY) " +
+            "ORDER BY e.user_id ASC LIMIT #{limit}")
+    List<Long> selectArchiveUsers(@Param("runTime") LocalDateTime runTime,
+                                  @Param("afterUserId") Long afterUserId,
+                                  @Param("limit") int limit);
+
+    /**
+     * 按时间正序查询用户达到归档天数的最早若干封邮件（归档后行被删除，重复调用即取下一批）
+     */
+    @Select("SELECT e.* FROM emails e " +
+            "JOIN user_aliases a ON e.alias_id = a.id " +
+            "JOIN domains d ON a.domain_id = d.id " +
+            "WHERE e.user_id = #{userId} AND e.deleted = 0 AND d.archive_after_days IS NOT NULL " +
+            "AND COALESCE(e.received_time, e.sent_time, e.create_time) < " +
+            "    DATE_SUB(#{runTime}, INTERVAL d.archive_after_days DAY) " +
+            "ORDER BY COALESCE(e.received_time, e.sent_time, e.create_time) ASC, e.id ASC LIMIT #{limit}")
+    List<Email> selectUserArchiveCandidates(@Param("runTime") LocalDateTime runTime,
+                                            @Param("userId") Long userId,
+                                            @Param("limit") int limit);
+
+    /**
+     * 按ID批量删除已写入归档的邮件行
+     */
+    @Delete("<script>" +
+            "DELETE FROM emails WHERE id IN " +
+            "<foreach collection='ids' item='id' open='(' separator=',' close=')'>" +
+            "#{id}" +
+            "</foreach>" +
+            "</script>")
+    int deleteArchivedByIds(@Param("ids") List<Long> ids);
+
+    /**
+     * 邮件新增了带Content-ID的附件：渲染时有未解析cid:引用的邮件清除渲染版本，下次读取时重新渲染一次
+     */
+    @Update("UPDATE emails SET render_version = 0 WHERE id = #{emailId} AND render_cids_pending = TRUE")
+    int invalidatePendingCidRender(@Param("emailId") Long emailId);
+
+    /**
+     * 按主键分批查询别名下参与重新过滤的邮件（仅返回规则求值与维护计数所需字段）
+     *
+     * 已发送、草稿、垃圾箱以及入站处理放入垃圾邮件、隔离区的邮件除外，规则不能把它们移回普通文件夹
+     */
+    @Select("SELECT id, user_id, sender, recipient, cc, subject, message_id, in_reply_to, content_text, " +
+            "size_bytes, email_type, is_read, thread_id, sent_time FROM emails " +
+            "WHERE alias_id = #{aliasId} AND id > #{afterId} AND deleted = 0 " +
+            "AND email_type NOT IN ('sent', 'draft', 'trash', 'junk', 'quarantine') ORDER BY id ASC LIMIT #{limit}")
+    List<Email> selectRefilterChunk(@Param("aliasId") Long aliasId,
+                                    @Param("afterId") Long afterId,
+                                    @Param("limit") int limit);
+
+    /**
+     * 统计别名下参与重新过滤的邮件数
+     */
+    @Select("SELECT COUNT(*) FROM emails WHERE alias_id = #{aliasId} AND deleted = 0 " +
+            "AND email_type NOT IN ('sent', 'draft', 'trash', 'junk', 'quarantine')")
+    long countRefilterCandidates(@Param("aliasId") Long aliasId);
+
+    /**
+     * 按ID批量移动邮件；只移动仍在原文件夹中的邮件，读取之后被用户移动过的不受影响
      */
-    @Select("UPDATE emails SET deleted = 1 " +
-            "WHERE email_type = 'trash' AND update_time < #{cutoffTime}")
-    void cleanTrashEmails(@Param("cutoffTime") LocalDateTime cutoffTime);
-}
\ No newline at end of file
+    @Update("<script>" +
+            "UPDATE emails SET email_type = #{targetType}, update_time = NOW() " +
+            "WHERE deleted = 0 AND email_type = #{expectedType} AND id IN " +
+            "<foreach collection='ids' item='id' open='(' separator=',' close=')'>" +
+            "#{id}" +
+            "</foreach>" +
+            "</script>")
+    int moveEmails(@Param("ids") List<Long> ids,
+                   @Param("expectedType") String expectedType,
+                   @Param("targetType") String targetType);
+}
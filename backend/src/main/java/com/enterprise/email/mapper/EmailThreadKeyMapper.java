@@ -0,0 +1,63 @@
+package com.enterprise.email.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.enterprise.email.entity.EmailThreadKey;
+import org.apache.ibatis.annotations.*;
+
+import java.util.List;
+
+/**
+ * 会话键映射数据访问层
+ */
+@Mapper
+public interface EmailThreadKeyMapper extends BaseMapper<EmailThreadKey> {
+
+    /**
+     * 批量查询键对应的会话
+     */
+    @Select("<script>" +
+            "SELECT * FROM email_thread_keys WHERE user_id = #{userId} AND key_type = #{keyType} AND thread_key IN " +
+            "<foreach collection='keys' item='key' open='(' separator=',' close=')'>" +
+            "#{key}" +
+            "</foreach>" +
+            "</script>")
+    List<EmailThreadKey> selectByKeys(@Param("userId") Long userId,
+                                      @Param("keyType") String keyType,
+                                      @Param("keys") List<String> keys);
+
+    /**
+     * 删除邮件物理删除后不再有邮件使用的Message-ID键（邮件表中的Message-ID带尖括号或不带均视为仍在使用）
+     */
+    @Delete("<script>" +
+            "DELETE FROM email_thread_keys WHERE user_id = #{userId} AND key_type = 'message' AND thread_key IN " +
+            "<foreach collection='keys' item='key' open='(' separator=',' close=')'>" +
+            "#{key}" +
+            "</foreach>" +
+            " AND NOT EXISTS (SELECT 1 FROM emails e WHERE e.user_id = #{userId} " +
+            "AND e.message_id IN (email_thread_keys.thread_key, CONCAT('&lt;', email_thread_keys.thread_key, '&gt;')))" +
+            "</script>")
+    int deleteUnreferencedMessageKeys(@Param("userId") Long userId, @Param("keys") List<String> keys);
+
+    /**
+     * 登记键（已存在的键保持原映射）
+     */
+    @Insert("INSERT IGNORE INTO email_thread_keys (id, user_id, key_type, thread_key, thread_id, create_time) " +
+            "VALUES (#{id}, #{userId}, #{keyType}, #{threadKey}, #{threadId}, NOW())")
+    int insertIgnore(@Param("id") Long id,
+                     @Param("userId") Long userId,
+                     @Param("keyType") String keyType,
+                     @Param("threadKey") String threadKey,
+                     @Param("threadId") Long threadId);
+
+    /**
+     * 登记键（已存在的键改为指向新会话）
+     */
+    @Insert("INSERT INTO email_thread_keys (id, user_id, key_type, thread_key, thread_id, create_time) " +
+            "VALUES (#{id}, #{userId}, #{keyType}, #{threadKey}, #{threadId}, NOW()) " +
+            "ON DUPLICATE KEY UPDATE thread_id = #{threadId}")
+    int upsert(@Param("id") Long id,
+               @Param("userId") Long userId,
+               @Param("keyType") String keyType,
+               @Param("threadKey") String threadKey,
+               @Param("threadId") Long threadId);
+}
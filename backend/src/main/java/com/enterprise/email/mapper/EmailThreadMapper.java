@@ -0,0 +1,75 @@
+package com.enterprise.email.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.baomidou.mybatisplus.core.metadata.IPage;
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.enterprise.email.entity.EmailThread;
+import org.apache.ibatis.annotations.*;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * 邮件会话数据访问层
+ */
+@Mapper
+public interface EmailThreadMapper extends BaseMapper<EmailThread> {
+
+    /**
+     * 会话列表页：按最新邮件时间倒序（命中 user_id, merged_into, latest_time 索引）
+     */
+    @Select("SELECT * FROM email_threads WHERE user_id = #{userId} AND merged_into IS NULL " +
+            "AND message_count > 0 ORDER BY latest_time DESC")
+    IPage<EmailThread> selectThreadPage(Page<EmailThread> page, @Param("userId") Long userId);
+
+    /**
+     * 新邮件计入会话聚合（只计入根会话，已被合并时返回0）
+     */
+    @Update("UPDATE email_threads SET message_count = message_count + #{count}, " +
+            "unread_count = unread_count + #{unread}, " +
+            "latest_time = CASE WHEN latest_time IS NULL OR latest_time < #{latestTime} " +
+            "THEN #{latestTime} ELSE latest_time END, update_time = NOW() " +
+            "WHERE id = #{threadId} AND merged_into IS NULL")
+    int addMessages(@Param("threadId") Long threadId,
+                    @Param("count") int count,
+                    @Param("unread") int unread,
+                    @Param("latestTime") LocalDateTime latestTime);
+
+    /**
+     * 调整未读数
+     */
+    @Update("UPDATE email_threads SET unread_count = GREATEST(unread_count + #{delta}, 0), update_time = NOW() " +
+            "WHERE id = #{threadId}")
+    int adjustUnread(@Param("threadId") Long threadId, @Param("delta") int delta);
+
+    /**
+     * 按主键顺序锁定两个会话并读取最新数据（合并前使用，并发合并按同一顺序加锁）
+     */
+    @Select("SELECT * FROM email_threads WHERE id IN (#{a}, #{b}) ORDER BY id FOR UPDATE")
+    List<EmailThread> selectPairForUpdate(@Param("a") Long a, @Param("b") Long b);
+
+    /**
+     * 将会话并入另一会话（聚合转移到目标会话后清零）
+     */
+    @Update("UPDATE email_threads SET merged_into = #{targetId}, message_count = 0, unread_count = 0, " +
+            "update_time = NOW() WHERE id = #{threadId} AND merged_into IS NULL")
+    int markMerged(@Param("threadId") Long threadId, @Param("targetId") Long targetId);
+
+    /**
+     * 将被合并会话的邮件改挂到目标会话
+     */
+    @Update("UPDATE emails SET thread_id = #{targetId} WHERE thread_id = #{threadId}")
+    int moveEmails(@Param("threadId") Long threadId, @Param("targetId") Long targetId);
+
+    /**
+     * 按邮件表重新计算会话聚合（邮件删除、移动后使用）
+     */
+    @Update("UPDATE email_threads t SET " +
+            "message_count = (SELECT COUNT(*) FROM emails e WHERE e.thread_id = t.id AND e.deleted = 0), " +
+            "unread_count = (SELECT COUNT(*) FROM emails e WHERE e.thread_id = t.id AND e.deleted = 0 " +
+            "                AND e.is_read = FALSE), " +
+            "latest_time = (SELECT MAX(COALESCE(e.received_time, e.sent_time)) FROM emails e " +
+            "               WHERE e.thread_id = t.id AND e.deleted = 0), " +
+            "update_time = NOW() WHERE t.id = #{threadId}")
+    int recomputeAggregates(@Param("threadId") Long threadId);
+}
@@ -0,0 +1,33 @@
+package com.enterprise.email.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.enterprise.email.entity.InboundReceipt;
+import org.apache.ibatis.annotations.*;
+
+/**
+ * 入站邮件处理记录数据访问层
+ */
+@Mapper
+public interface InboundReceiptMapper extends BaseMapper<InboundReceipt> {
+
+    /**
+     * 认领一封邮件的处理权，已被处理（或其他节点正在处理）时返回0
+     */
+    @Insert("INSERT IGNORE INTO inbound_receipts (id, alias_id, message_key, create_time) " +
+            "VALUES (#{id}, #{aliasId}, #{messageKey}, NOW())")
+    int claim(@Param("id") Long id, @Param("aliasId") Long aliasId, @Param("messageKey") String messageKey);
+
+    /**
+     * 记录处理结果
+     */
+    @Update("UPDATE inbound_receipts SET disposition = #{disposition}, email_id = #{emailId} " +
+            "WHERE alias_id = #{aliasId} AND message_key = #{messageKey}")
+    int complete(@Param("aliasId") Long aliasId, @Param("messageKey") String messageKey,
+                 @Param("disposition") String disposition, @Param("emailId") Long emailId);
+
+    /**
+     * 处理失败时释放认领，下次收取时重试
+     */
+    @Delete("DELETE FROM inbound_receipts WHERE alias_id = #{aliasId} AND message_key = #{messageKey}")
+    int release(@Param("aliasId") Long aliasId, @Param("messageKey") String messageKey);
+}
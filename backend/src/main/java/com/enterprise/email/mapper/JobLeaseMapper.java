@@ -0,0 +1,40 @@
+package com.enterprise.email.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.enterprise.email.entity.JobLease;
+import org.apache.ibatis.annotations.*;
+
+/**
+ * 跨节点任务租约数据访问层
+ */
+@Mapper
+public interface JobLeaseMapper extends BaseMapper<JobLease> {
+
+    /**
+     * 租约行不存在时创建（已过期、无持有者）
+     */
+    @Insert("INSERT IGNORE INTO job_leases (name, owner, lease_until, update_time) " +
+            "VALUES (#{name}, '', NOW(), NOW())")
+    int ensure(@Param("name") String name);
+
+    /**
+     * 获取或续期租约：仅当租约已过期或本节点已持有时成功
+     */
+    @Update("UPDATE job_leases SET owner = #{owner}, " +
+            "lease_until = DATE_ADD(NOW(), INTERVAL #{seconds} SECOND), update_time = NOW() " +
+            "WHERE name = #{name} AND (owner = #{owner} OR lease_until < NOW())")
+    int acquire(@Param("name") String name, @Param("owner") String owner, @Param("seconds") long seconds);
+
+    /**
+     * 锁定租约行直到事务结束
+     */
+    @Select("SELECT name FROM job_leases WHERE name = #{name} FOR UPDATE")
+    String lock(@Param("name") String name);
+
+    /**
+     * 释放本节点持有的租约
+     */
+    @Update("UPDATE job_leases SET lease_until = NOW(), update_time = NOW() " +
+            "WHERE name = #{name} AND owner = #{owner}")
+    int release(@Param("name") String name, @Param("owner") String owner);
+}
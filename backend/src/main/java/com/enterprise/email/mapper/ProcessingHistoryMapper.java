@@ -0,0 +1,50 @@
+package com.enterprise.email.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.enterprise.email.entity.ProcessingHistory;
+import org.apache.ibatis.annotations.*;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * 邮件处理历史数据访问层
+ */
+@Mapper
+public interface ProcessingHistoryMapper extends BaseMapper<ProcessingHistory> {
+
+    /**
+     * 批量写入
+     */
+    @Insert("<script>" +
+            "INSERT INTO processing_history (id, user_alias_id, source, ref_id, detail, occurred_at) VALUES " +
+            "<foreach collection='rows' item='row' separator=','>" +
+            "(#{row.id}, #{row.userAliasId}, #{row.source}, #{row.refId}, #{row.detail}, #{row.occurredAt})" +
+            "</foreach>" +
+            "</script>")
+    int insertBatch(@Param("rows") List<ProcessingHistory> rows);
+
+    /**
+     * 查询ID小于beforeId的最近记录（按ID倒序，beforeId为空表示不限）
+     */
+    @Select("<script>" +
+            "SELECT * FROM processing_history WHERE user_alias_id = #{userAliasId} AND source = #{source} " +
+            "<if test='beforeId != null'>AND id &lt; #{beforeId} </if>" +
+            "<if test='after != null'>AND occurred_at &gt;= #{after} </if>" +
+            "ORDER BY id DESC LIMIT #{limit}" +
+            "</script>")
+    List<ProcessingHistory> selectRecent(@Param("userAliasId") Long userAliasId,
+                                         @Param("source") String source,
+                                         @Param("beforeId") Long beforeId,
+                                         @Param("after") LocalDateTime after,
+                                         @Param("limit") int limit);
+
+    /**
+     * 删除早于指定时间的记录
+     */
+    @Delete("DELETE FROM processing_history WHERE user_alias_id = #{userAliasId} AND source = #{source} " +
+            "AND occurred_at < #{before}")
+    int deleteBefore(@Param("userAliasId") Long userAliasId,
+                     @Param("source") String source,
+                     @Param("before") LocalDateTime before);
+}
@@ -0,0 +1,12 @@
+package com.enterprise.email.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.enterprise.email.entity.PurgeCheckpoint;
+import org.apache.ibatis.annotations.Mapper;
+
+/**
+ * 清理任务检查点数据访问层
+ */
+@Mapper
+public interface PurgeCheckpointMapper extends BaseMapper<PurgeCheckpoint> {
+}
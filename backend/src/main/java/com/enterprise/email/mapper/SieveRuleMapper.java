@@ -5,8 +5,10 @@ import com.enterprise.email.entity.SieveRule;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
 import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.annotations.Update;
 
 import java.util.List;
+import java.util.Map;
 
 /**
  * Sieve规则数据访问层
@@ -29,6 +31,27 @@ public interface SieveRuleMapper extends BaseMapper<SieveRule> {
             "ORDER BY priority ASC")
     List<SieveRule> selectActiveByUserAliasId(@Param("userAliasId") Long userAliasId);
 
+    /**
+     * 根据用户别名ID查询启用的Sieve规则（不按生效时间过滤，供编译缓存使用）
+     */
+    @Select("SELECT * FROM sieve_rules WHERE user_alias_id = #{userAliasId} AND enabled = 1 AND deleted = 0 " +
+            "ORDER BY priority ASC")
+    List<SieveRule> selectEnabledByUserAliasId(@Param("userAliasId") Long userAliasId);
+
+    /**
+     * 累加规则应用次数
+     */
+    @Update("UPDATE sieve_rules SET applied_count = COALESCE(applied_count, 0) + 1, last_applied_at = NOW() " +
+            "WHERE id = #{ruleId}")
+    int incrementAppliedCount(@Param("ruleId") Long ruleId);
+
+    /**
+     * 记录规则执行错误
+     */
+    @Update("UPDATE sieve_rules SET error_count = COALESCE(error_count, 0) + 1, last_error = #{error}, " +
+            "last_error_at = NOW() WHERE id = #{ruleId}")
+    int recordError(@Param("ruleId") Long ruleId, @Param("error") String error);
+
     /**
      * 根据规则类型查询规则
      */
@@ -0,0 +1,58 @@
+package com.enterprise.email.rspamd;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rspamd /checkv2 的应答
+ */
+@Data
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class RspamdCheckResult {
+
+    /** 未被Rspamd处理（例如设置了跳过） */
+    @JsonProperty("is_skipped")
+    private boolean skipped;
+
+    private double score;
+
+    @JsonProperty("required_score")
+    private double requiredScore;
+
+    /** no action、greylist、add header、rewrite subject、soft reject、reject */
+    private String action;
+
+    private Map<String, Symbol> symbols = new LinkedHashMap<>();
+
+    @JsonProperty("message-id")
+    private String messageId;
+
+    /** Rspamd处理耗时（秒） */
+    @JsonProperty("time_real")
+    private double timeReal;
+
+    /**
+     * 命中的规则
+     */
+    @Data
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class Symbol {
+
+        private String name;
+
+        private double score;
+
+        @JsonProperty("metric_score")
+        private double metricScore;
+
+        private String description;
+
+        private List<String> options = new ArrayList<>();
+    }
+}
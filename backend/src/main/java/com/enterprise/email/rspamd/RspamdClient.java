@@ -0,0 +1,360 @@
+package com.enterprise.email.rspamd;
+
+import com.enterprise.email.entity.RspamdConfig;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Rspamd HTTP客户端
+ *
+ * 所有请求共用一个HTTP/1.1客户端，连接保持并复用（空闲超时由jdk.httpclient.keepalive.timeout控制）。
+ * 每个Rspamd地址同时在途的请求数不超过max-connections-per-host，因此到该地址的连接数也不超过这个值；
+ * 超出的请求在该地址的队列中等待，队列有上限，满时直接失败。排队超过queue-timeout的请求由定时器
+ * 移出队列并以超时失败；发出后超过request-timeout以超时失败，并取消在途的HTTP请求。
+ * 邮件内容作为流式请求体按块编码发送（带Content-Length），应答解析为类型化的结果。
+ */
+@Component
+public class RspamdClient {
+
+    private static final String DEFAULT_HOST = "localhost";
+    private static final int DEFAULT_PORT = 11333;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ExecutorService executor;
+    private final HttpClient httpClient;
+    private final Map<String, HostLimiter> limiters = new ConcurrentHashMap<>();
+
+    @Value("${email.rspamd.http.request-timeout-millis:10000}")
+    private long requestTimeoutMillis;
+
+    @Value("${email.rspamd.http.queue-timeout-millis:5000}")
+    private long queueTimeoutMillis;
+
+    @Value("${email.rspamd.http.max-connections-per-host:16}")
+    private int maxConnectionsPerHost;
+
+    @Value("${email.rspamd.http.max-pending-per-host:1000}")
+    private int maxPendingPerHost;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+
+    public RspamdClient(@Value("${email.rspamd.http.connect-timeout-millis:2000}") long connectTimeoutMillis,
+                        @Value("${email.rspamd.http.io-threads:4}") int ioThreads) {
+        AtomicInteger index = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(Math.max(1, ioThreads), r -> {
+            Thread thread = new Thread(r, "rspamd-http-" + index.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofMillis(connectTimeoutMillis))
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .executor(executor)
+                .build();
+    }
+
+    /**
+     * 检查邮件（/checkv2），headers中值为空的项不发送
+     */
+    public CompletableFuture<RspamdCheckResult> checkAsync(RspamdConfig config, CharSequence message,
+                                                           Map<String, String> headers) {
+        return checkAsync(config, () -> new Utf8InputStream(message), Utf8InputStream.encodedLength(message), headers);
+    }
+
+    /**
+     * 检查邮件，message每次调用返回从头读取的新流，length为内容字节数
+     */
+    public CompletableFuture<RspamdCheckResult> checkAsync(RspamdConfig config, Supplier<InputStream> message,
+                                                           long length, Map<String, String> headers) {
+        HttpRequest.Builder builder = request(config, "/checkv2").POST(body(message, length));
+        if (headers != null) {
+            headers.forEach((name, value) -> {
+                if (value != null && !value.isEmpty()) {
+                    builder.header(name, headerValue(value));
+                }
+            });
+        }
+        return send(config, builder.build(), length, bytes -> objectMapper.readValue(bytes, RspamdCheckResult.class));
+    }
+
+    public RspamdCheckResult check(RspamdConfig config, CharSequence message, Map<String, String> headers)
+            throws IOException {
+        return await(checkAsync(config, message, headers));
+    }
+
+    /**
+     * 按原始字节检查邮件，不经过字符解码
+     */
+    public RspamdCheckResult check(RspamdConfig config, byte[] message, Map<String, String> headers)
+            throws IOException {
+        return await(checkAsync(config, () -> new ByteArrayInputStream(message), message.length, headers));
+    }
+
+    /**
+     * 贝叶斯学习（/learnspam、/learnham）
+     */
+    public CompletableFuture<Boolean> learnAsync(RspamdConfig config, boolean spam, CharSequence message) {
+        long length = Utf8InputStream.encodedLength(message);
+        HttpRequest request = request(config, spam ? "/learnspam" : "/learnham")
+                .POST(body(() -> new Utf8InputStream(message), length))
+                .build();
+        return send(config, request, length, bytes -> Boolean.TRUE);
+    }
+
+    public boolean ping(RspamdConfig config) throws IOException {
+        return await(send(config, request(config, "/ping").GET().build(), 0, bytes -> Boolean.TRUE));
+    }
+
+    public Map<String, Object> stat(RspamdConfig config) throws IOException {
+        return await(send(config, request(config, "/stat").GET().build(), 0,
+                bytes -> objectMapper.readValue(bytes, new TypeReference<LinkedHashMap<String, Object>>() {})));
+    }
+
+    /**
+     * 等待异步请求完成，失败时抛出IOException
+     */
+    public static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw asIOException(e.getCause() != null ? e.getCause() : e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("等待Rspamd应答被中断");
+        }
+    }
+
+    /**
+     * 把异步请求的失败原因转为IOException（去掉CompletionException包装）
+     */
+    public static IOException asIOException(Throwable error) {
+        Throwable cause = error;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        if (cause instanceof IOException) {
+            return (IOException) cause;
+        }
+        if (cause instanceof TimeoutException) {
+            return new IOException("Rspamd请求超时", cause);
+        }
+        return new IOException(cause.getMessage(), cause);
+    }
+
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("requests", requests.get());
+        stats.put("failures", failures.get());
+        stats.put("timeouts", timeouts.get());
+        stats.put("rejected", rejected.get());
+        stats.put("bytesSent", bytesSent.get());
+        Map<String, Object> hosts = new HashMap<>();
+        limiters.forEach((host, limiter) -> hosts.put(host, limiter.statistics()));
+        stats.put("hosts", hosts);
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private <T> CompletableFuture<T> send(RspamdConfig config, HttpRequest request, long bodyLength,
+                                          BodyParser<T> parser) {
+        requests.incrementAndGet();
+        HostLimiter limiter = limiters.computeIfAbsent(authority(config), key -> new HostLimiter());
+        CompletableFuture<T> result = new CompletableFuture<>();
+        result.whenComplete((value, error) -> {
+            if (error != null) {
+                failures.incrementAndGet();
+                if (error instanceof TimeoutException || error instanceof HttpTimeoutException) {
+                    timeouts.incrementAndGet();
+                }
+            }
+        });
+
+        Call call = () -> {
+            if (result.isDone()) {
+                // 排队期间已超时或被调用方取消
+                return false;
+            }
+            try {
+                // 从发出时开始计算请求超时；结果超时或被取消时取消在途请求，连接名额随之释放
+                result.orTimeout(requestTimeoutMillis, TimeUnit.MILLISECONDS);
+                CompletableFuture<HttpResponse<byte[]>> inflight =
+                        httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray());
+                result.whenComplete((value, error) -> {
+                    if (error != null) {
+                        inflight.cancel(true);
+                    }
+                });
+                inflight.whenComplete((response, error) -> {
+                    limiter.release();
+                    if (error != null) {
+                        result.completeExceptionally(asIOException(error));
+                        return;
+                    }
+                    bytesSent.addAndGet(bodyLength);
+                    if (response.statusCode() / 100 != 2) {
+                        result.completeExceptionally(new IOException("Rspamd返回HTTP " + response.statusCode()));
+                        return;
+                    }
+                    try {
+                        result.complete(parser.parse(response.body()));
+                    } catch (IOException | RuntimeException e) {
+                        result.completeExceptionally(new IOException("解析Rspamd应答失败: " + e.getMessage(), e));
+                    }
+                });
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+                return false;
+            }
+            return true;
+        };
+
+        if (!limiter.submit(call)) {
+            rejected.incrementAndGet();
+            result.completeExceptionally(new IOException("Rspamd请求队列已满: " + authority(config)));
+            return result;
+        }
+        // 排队超时单独计时：仍在队列中时移出并失败；调用方取消时同样移出，不再占用队列名额
+        CompletableFuture.delayedExecutor(queueTimeoutMillis, TimeUnit.MILLISECONDS).execute(() -> {
+            if (limiter.remove(call)) {
+                result.completeExceptionally(new TimeoutException("Rspamd请求排队超时: " + authority(config)));
+            }
+        });
+        result.whenComplete((value, error) -> {
+            if (error != null) {
+                limiter.remove(call);
+            }
+        });
+        return result;
+    }
+
+    private HttpRequest.Builder request(RspamdConfig config, String path) {
+        return HttpRequest.newBuilder(URI.create("http://" + authority(config) + path))
+                .timeout(Duration.ofMillis(requestTimeoutMillis));
+    }
+
+    /**
+     * 控制字符和非Latin-1字符不能出现在HTTP头中，替换为'?'
+     */
+    private static String headerValue(String value) {
+        StringBuilder sanitized = null;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if ((c < 0x20 && c != '\t') || c == 0x7f || c > 0xff) {
+                if (sanitized == null) {
+                    sanitized = new StringBuilder(value);
+                }
+                sanitized.setCharAt(i, '?');
+            }
+        }
+        return sanitized != null ? sanitized.toString() : value;
+    }
+
+    private static HttpRequest.BodyPublisher body(Supplier<InputStream> message, long length) {
+        return HttpRequest.BodyPublishers.fromPublisher(HttpRequest.BodyPublishers.ofInputStream(message), length);
+    }
+
+    private static String authority(RspamdConfig config) {
+        String host = config.getRspamdHost() != null && !config.getRspamdHost().isEmpty()
+                ? config.getRspamdHost() : DEFAULT_HOST;
+        int port = config.getRspamdPort() != null ? config.getRspamdPort() : DEFAULT_PORT;
+        return (host.indexOf(':') >= 0 && !host.startsWith("[") ? "[" + host + "]" : host) + ":" + port;
+    }
+
+    @FunctionalInterface
+    private interface BodyParser<T> {
+        T parse(byte[] body) throws IOException;
+    }
+
+    /**
+     * 排队的请求，返回false表示未发出（已超时或发送失败），不占用连接名额
+     */
+    @FunctionalInterface
+    private interface Call {
+        boolean start();
+    }
+
+    /**
+     * 单个Rspamd地址的在途请求限制
+     */
+    private final class HostLimiter {
+        private final Deque<Call> waiting = new ArrayDeque<>();
+        private int active;
+
+        boolean submit(Call call) {
+            synchronized (this) {
+                if (active >= Math.max(1, maxConnectionsPerHost)) {
+                    if (waiting.size() >= maxPendingPerHost) {
+                        return false;
+                    }
+                    waiting.add(call);
+                    return true;
+                }
+                active++;
+            }
+            if (!call.start()) {
+                release();
+            }
+            return true;
+        }
+
+        /**
+         * 把仍在排队的请求移出队列，已发出或已移出时返回false
+         */
+        synchronized boolean remove(Call call) {
+            return waiting.remove(call);
+        }
+
+        /**
+         * 一个请求结束，名额交给下一个仍需发出的排队请求
+         */
+        void release() {
+            while (true) {
+                Call next;
+                synchronized (this) {
+                    next = waiting.poll();
+                    if (next == null) {
+                        active--;
+                        return;
+                    }
+                }
+                if (next.start()) {
+                    return;
+                }
+            }
+        }
+
+        synchronized Map<String, Object> statistics() {
+            Map<String, Object> stats = new HashMap<>();
+            stats.put("active", active);
+            stats.put("waiting", waiting.size());
+            return stats;
+        }
+    }
+}
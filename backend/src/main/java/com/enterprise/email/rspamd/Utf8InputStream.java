@@ -0,0 +1,91 @@
+package com.enterprise.email.rspamd;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 按块把字符序列编码为UTF-8的输入流，不生成整封邮件的字节数组
+ *
+ * 不成对的代理字符编码为'?'，与String.getBytes(UTF_8)一致。
+ */
+final class Utf8InputStream extends InputStream {
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final CharBuffer chars;
+    private final ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+    private boolean finished;
+
+    Utf8InputStream(CharSequence text) {
+        this.chars = CharBuffer.wrap(text);
+        bytes.flip();
+    }
+
+    /**
+     * 计算UTF-8编码后的字节数
+     */
+    static long encodedLength(CharSequence text) {
+        long length = 0;
+        int size = text.length();
+        for (int i = 0; i < size; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < size && Character.isLowSurrogate(text.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    @Override
+    public int read() {
+        byte[] one = new byte[1];
+        return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (len == 0) {
+            return 0;
+        }
+        while (!bytes.hasRemaining()) {
+            if (finished) {
+                return -1;
+            }
+            fill();
+        }
+        int n = Math.min(len, bytes.remaining());
+        bytes.get(b, off, n);
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return bytes.remaining();
+    }
+
+    private void fill() {
+        bytes.clear();
+        // 输入已完整，每次都按输入结束编码；缓冲区写满时返回OVERFLOW，下次继续
+        if (encoder.encode(chars, bytes, true).isUnderflow()) {
+            encoder.flush(bytes);
+            finished = true;
+        }
+        bytes.flip();
+    }
+}
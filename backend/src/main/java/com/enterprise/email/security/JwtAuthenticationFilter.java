@@ -23,6 +23,8 @@ import java.io.IOException;
 @RequiredArgsConstructor
 public class JwtAuthenticationFilter extends OncePerRequestFilter {
 
+    private static final String EVENT_STREAM_PATH = "/email/events";
+
     private final JwtTokenProvider tokenProvider;
     private final UserDetailsServiceImpl userDetailsService;
     private final LoginAnomalyDetectionService loginAnomalyDetectionService;
@@ -62,6 +64,10 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
         if (StringUtils.hasText(bearerToken) && bearerToken.startsWith("Bearer ")) {
             return bearerToken.substring(7);
         }
+        // 浏览器EventSource无法设置请求头，事件流接口允许通过参数携带令牌
+        if (request.getRequestURI().endsWith(EVENT_STREAM_PATH)) {
+            return request.getParameter("access_token");
+        }
         return null;
     }
 
@@ -3,6 +3,7 @@ package com.enterprise.email.service;
 import com.baomidou.mybatisplus.core.metadata.IPage;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.enterprise.email.entity.AliasForwardRule;
+import com.enterprise.email.inbound.ParsedMessage;
 
 import java.util.List;
 
@@ -76,4 +77,9 @@ public interface AliasForwardRuleService {
      * 执行邮件转发
      */
     void executeEmailForwarding(String aliasAddress, String originalEmail);
+
+    /**
+     * 对已解析的邮件执行转发（按真实主题与发件人匹配规则）
+     */
+    void executeEmailForwarding(String aliasAddress, ParsedMessage message);
 }
\ No newline at end of file
@@ -0,0 +1,53 @@
+package com.enterprise.email.service;
+
+import com.enterprise.email.dto.ArchiveSearchResult;
+import com.enterprise.email.entity.Email;
+
+import java.util.Map;
+
+/**
+ * 邮件冷归档服务接口
+ * 按域名归档天数把旧邮件移入只追加的压缩段文件，读取与搜索时透明回落到归档
+ */
+public interface ArchiveService {
+
+    /**
+     * 在后台启动归档任务（已有任务执行时返回false）
+     */
+    boolean startArchive();
+
+    /**
+     * 在后台启动恢复任务，把用户的归档邮件移回邮件表（已有任务执行时返回false）
+     */
+    boolean startRestore(Long userId);
+
+    /**
+     * 执行归档任务，从检查点继续
+     */
+    Map<String, Object> runArchive();
+
+    /**
+     * 执行用户归档邮件的恢复任务，从检查点继续
+     */
+    Map<String, Object> runRestore(Long userId);
+
+    /**
+     * 请求停止正在执行的任务，当前批次完成后退出
+     */
+    void stopJob();
+
+    /**
+     * 读取归档邮件（不存在或不属于该用户时返回null）
+     */
+    Email findArchivedEmail(Long emailId, Long userId);
+
+    /**
+     * 搜索用户的归档邮件，返回按时间倒序的前limit封与全部匹配数
+     */
+    ArchiveSearchResult searchArchived(Long userId, Long aliasId, String type, String keyword, int limit);
+
+    /**
+     * 获取归档状态
+     */
+    Map<String, Object> getArchiveStatus();
+}
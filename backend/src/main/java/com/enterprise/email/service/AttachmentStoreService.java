@@ -0,0 +1,84 @@
+package com.enterprise.email.service;
+
+import com.enterprise.email.entity.AttachmentBlob;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * 附件内容存储服务接口
+ * 按SHA-256内容寻址，两级十六进制分片目录存放，数据库维护引用计数
+ */
+public interface AttachmentStoreService {
+
+    /**
+     * 写入内容并增加一次引用（写入与哈希计算在同一次读取中完成，可压缩类型按配置压缩存储）
+     */
+    StoredContent store(InputStream inputStream, String contentType) throws IOException;
+
+    /**
+     * 根据内容哈希获取内容块信息
+     */
+    AttachmentBlob getBlob(String contentHash);
+
+    /**
+     * 为已存在的内容增加引用（转发、复制等场景，不产生额外文件）
+     */
+    void addReferences(String contentHash, int count);
+
+    /**
+     * 释放引用，引用归零的内容由孤儿清理任务回收
+     */
+    void releaseReferences(String contentHash, int count);
+
+    /**
+     * 根据内容哈希解析文件的绝对路径
+     */
+    Path resolvePath(String contentHash);
+
+    /**
+     * 清理无引用的内容文件，返回删除的文件数
+     */
+    int sweepOrphans();
+
+    /**
+     * 获取存储统计（物理占用、逻辑引用、去重节省等）
+     */
+    Map<String, Object> getStorageStatistics();
+
+    /**
+     * 已存储内容
+     */
+    @Data
+    @AllArgsConstructor
+    class StoredContent {
+        /**
+         * 内容SHA-256
+         */
+        private String contentHash;
+
+        /**
+         * 内容大小（字节）
+         */
+        private long size;
+
+        /**
+         * 文件绝对路径
+         */
+        private Path path;
+
+        /**
+         * 存储压缩方式
+         */
+        private String compression;
+
+        /**
+         * 是否命中已有内容（去重）
+         */
+        private boolean deduplicated;
+    }
+}
@@ -1,6 +1,7 @@
 package com.enterprise.email.service;
 
 import com.enterprise.email.entity.AutoresponderConfig;
+import com.enterprise.email.inbound.ParsedMessage;
 
 import java.util.List;
 import java.util.Map;
@@ -45,6 +46,11 @@ public interface AutoresponderService {
      */
     Map<String, Object> processAutoReply(String emailContent, Long userAliasId);
 
+    /**
+     * 处理已解析邮件的自动回复
+     */
+    Map<String, Object> processAutoReply(ParsedMessage message, Long userAliasId);
+
     /**
      * 测试自动回复配置
      */
@@ -0,0 +1,26 @@
+package com.enterprise.email.service;
+
+import com.enterprise.email.dto.BulkJobStatus;
+import com.enterprise.email.dto.BulkOperationRequest;
+
+/**
+ * 批量邮件操作服务接口
+ * 按ID列表或筛选条件批量标记、移动邮件；少量邮件同步完成，大量邮件转为后台任务按主键分批执行
+ */
+public interface BulkEmailService {
+
+    /**
+     * 提交批量操作（选中邮件数不超过同步阈值时直接执行，返回的进度状态为已完成）
+     */
+    BulkJobStatus submit(BulkOperationRequest request, Long userId);
+
+    /**
+     * 查询任务进度（任务不存在或不属于该用户时返回null）
+     */
+    BulkJobStatus getJob(String jobId, Long userId);
+
+    /**
+     * 取消任务，当前批次完成后停止
+     */
+    boolean cancelJob(String jobId, Long userId);
+}
@@ -0,0 +1,48 @@
+package com.enterprise.email.service;
+
+import com.enterprise.email.entity.ClamAVFileState;
+import com.enterprise.email.entity.ClamAVScanJob;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 病毒扫描任务服务（附件存储等大目录的定期重新扫描）
+ */
+public interface ClamAVScanJobService {
+
+    /**
+     * 创建并启动目录扫描任务（同一域名同时只运行一个任务）
+     */
+    ClamAVScanJob startScanJob(String domain, String rootPath, boolean recursive);
+
+    /**
+     * 取消任务，在途的文件扫描完成并写入检查点后停止
+     */
+    boolean cancelScanJob(Long jobId);
+
+    /**
+     * 从检查点继续已取消、失败或因重启中断的任务
+     */
+    ClamAVScanJob resumeScanJob(Long jobId);
+
+    /**
+     * 获取任务（不存在时返回null）
+     */
+    ClamAVScanJob getScanJob(Long jobId);
+
+    /**
+     * 获取任务进度
+     */
+    Map<String, Object> getScanJobProgress(Long jobId);
+
+    /**
+     * 获取任务发现的病毒文件
+     */
+    List<ClamAVFileState> getScanJobInfections(Long jobId, int limit);
+
+    /**
+     * 获取域名最近的扫描任务
+     */
+    List<ClamAVScanJob> getScanJobs(String domain, int limit);
+}
@@ -51,6 +51,11 @@ public interface ClamAVService {
      */
     Map<String, Object> scanEmail(String emailContent, String domain);
 
+    /**
+     * 按原始字节扫描邮件内容
+     */
+    Map<String, Object> scanEmail(byte[] emailContent, String domain);
+
     /**
      * 批量扫描文件
      */
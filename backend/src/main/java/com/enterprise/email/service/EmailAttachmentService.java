@@ -1,5 +1,6 @@
 package com.enterprise.email.service;
 
+import com.enterprise.email.dto.AttachmentContent;
 import com.enterprise.email.entity.EmailAttachment;
 import org.springframework.web.multipart.MultipartFile;
 
@@ -27,9 +28,19 @@ public interface EmailAttachmentService {
     EmailAttachment getAttachmentById(Long attachmentId);
 
     /**
-     * 下载附件
+     * 打开附件内容用于流式下载（附件不存在或无权限时返回null）
      */
-    byte[] downloadAttachment(Long attachmentId, Long userId) throws IOException;
+    AttachmentContent openAttachment(Long attachmentId, Long userId) throws IOException;
+
+    /**
+     * 获取内联图片地址（带上下文路径和签名，<img>请求不携带认证头）
+     */
+    String getInlineUrl(Long attachmentId, Long userId);
+
+    /**
+     * 校验签名后打开内联附件（签名无效、附件不存在或无权限时返回null）
+     */
+    AttachmentContent openInlineAttachment(Long attachmentId, Long userId, String signature) throws IOException;
 
     /**
      * 删除附件
@@ -41,6 +52,11 @@ public interface EmailAttachmentService {
      */
     void deleteAttachmentsByEmailId(Long emailId);
 
+    /**
+     * 将源邮件的附件复制到目标邮件（仅增加内容引用，不复制文件）
+     */
+    List<EmailAttachment> copyAttachments(Long sourceEmailId, Long targetEmailId);
+
     /**
      * 获取附件的下载URL
      */
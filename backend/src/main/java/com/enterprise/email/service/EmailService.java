@@ -6,6 +6,7 @@ import com.baomidou.mybatisplus.extension.service.IService;
 import com.enterprise.email.entity.Email;
 import com.enterprise.email.dto.EmailDto;
 import com.enterprise.email.dto.SendEmailRequest;
+import com.enterprise.email.inbound.ParsedMessage;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.util.List;
@@ -84,4 +85,9 @@ public interface EmailService extends IService<Email> {
      * 批量操作邮件
      */
     void batchOperateEmails(List<Long> emailIds, String operation, Long userId);
+
+    /**
+     * 保存入站流水线投递的邮件到指定文件夹（复用流水线的解析结果，messageUid可为空）
+     */
+    Email storeInboundEmail(ParsedMessage message, Long aliasId, String folder, String messageUid);
 }
\ No newline at end of file
@@ -0,0 +1,56 @@
+package com.enterprise.email.service;
+
+import com.baomidou.mybatisplus.core.metadata.IPage;
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.enterprise.email.entity.Email;
+import com.enterprise.email.entity.EmailThread;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 邮件会话服务接口
+ * 收信与发信时根据Message-ID、In-Reply-To、References与规范化主题归并会话，并维护会话聚合
+ */
+public interface EmailThreadService {
+
+    /**
+     * 为即将保存的邮件分配会话并计入聚合（需在邮件保存前调用；已设置threadId时加入该会话）
+     */
+    void assignThread(Email email);
+
+    /**
+     * 邮件已读状态变化后调整会话未读数
+     */
+    void onReadStateChanged(Email email, boolean read);
+
+    /**
+     * 邮件删除或移出后重新计算会话聚合
+     */
+    void onEmailRemoved(Email email);
+
+    /**
+     * 批量操作后重新计算相关会话的聚合
+     */
+    void refreshThreads(Collection<Long> threadIds);
+
+    /**
+     * 邮件物理删除后（需在同一事务内调用）：删除这些邮件自身Message-ID的会话键，并重新计算相关会话的聚合
+     */
+    void onEmailsPurged(Collection<Email> emails);
+
+    /**
+     * 解析会话的根会话ID
+     */
+    Long resolveThreadId(Long threadId);
+
+    /**
+     * 分页查询用户的会话列表
+     */
+    IPage<EmailThread> getThreads(Long userId, Page<EmailThread> page);
+
+    /**
+     * 获取会话内的邮件（按时间正序）
+     */
+    List<Email> getThreadEmails(Long threadId, Long userId);
+}
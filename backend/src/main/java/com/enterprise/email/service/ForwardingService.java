@@ -1,6 +1,7 @@
 package com.enterprise.email.service;
 
 import com.enterprise.email.entity.ForwardingConfig;
+import com.enterprise.email.inbound.ParsedMessage;
 
 import java.util.List;
 import java.util.Map;
@@ -45,6 +46,11 @@ public interface ForwardingService {
      */
     Map<String, Object> processEmailForwarding(String emailContent, Long userAliasId);
 
+    /**
+     * 处理已解析邮件的转发
+     */
+    Map<String, Object> processEmailForwarding(ParsedMessage message, Long userAliasId);
+
     /**
      * 测试转发配置
      */
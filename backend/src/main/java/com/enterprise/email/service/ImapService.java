@@ -4,6 +4,7 @@ import com.enterprise.email.entity.Domain;
 import com.enterprise.email.entity.UserAlias;
 import com.enterprise.email.entity.Email;
 import com.enterprise.email.entity.ImapPop3Config;
+import com.enterprise.email.inbound.ParsedMessage;
 
 import javax.mail.MessagingException;
 import java.util.List;
@@ -35,6 +36,11 @@ public interface ImapService {
      */
     List<Email> getNewEmails(UserAlias alias, String folderName) throws MessagingException;
 
+    /**
+     * 获取新邮件的原始内容（按UID，交给入站流水线处理）
+     */
+    Map<String, ParsedMessage> getNewMessages(UserAlias alias, String folderName) throws MessagingException;
+
     /**
      * 获取邮件夹列表
      */
@@ -0,0 +1,30 @@
+package com.enterprise.email.service;
+
+import java.util.function.Supplier;
+
+/**
+ * 跨节点任务租约服务接口
+ * 多节点部署时保证同名后台任务只在一个节点执行；执行期间需在租约到期前续期
+ */
+public interface JobLeaseService {
+
+    /**
+     * 获取或续期租约，其他节点持有未过期租约时返回false
+     */
+    boolean tryAcquire(String name, long leaseSeconds);
+
+    /**
+     * 释放本节点持有的租约
+     */
+    void release(String name);
+
+    /**
+     * 在锁定同名租约行的事务内执行，同名的调用在各节点间串行
+     */
+    <T> T runLocked(String name, Supplier<T> action);
+
+    /**
+     * 本节点标识
+     */
+    String getNodeId();
+}
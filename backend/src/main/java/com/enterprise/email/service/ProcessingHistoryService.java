@@ -0,0 +1,39 @@
+package com.enterprise.email.service;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 邮件处理历史服务
+ * 每个别名的最近记录保存在固定容量的环形缓冲区中，同时交给后台线程批量写入数据库
+ */
+public interface ProcessingHistoryService {
+
+    /**
+     * 记录一条历史（不阻塞调用方）
+     *
+     * @param source 来源，见 {@link com.enterprise.email.entity.ProcessingHistory}
+     * @param refId  关联的规则或配置ID（可为空）
+     */
+    void record(String source, Long userAliasId, Long refId, Map<String, Object> entry);
+
+    /**
+     * 最近的历史（从旧到新），优先从内存读取，不足时从数据库补齐
+     */
+    List<Map<String, Object>> getRecent(String source, Long userAliasId, int limit);
+
+    /**
+     * 清理早于指定天数的历史
+     */
+    boolean cleanup(String source, Long userAliasId, int days);
+
+    /**
+     * 把待写入的历史批量写入数据库
+     */
+    void flush();
+
+    /**
+     * 缓冲区与写入统计
+     */
+    Map<String, Object> getStatistics();
+}
@@ -0,0 +1,25 @@
+package com.enterprise.email.service;
+
+import java.util.Map;
+
+/**
+ * 后台数据清理服务接口
+ * 按主键顺序小批量清理垃圾箱、过期附件与已逻辑删除的数据，支持断点续跑
+ */
+public interface PurgeService {
+
+    /**
+     * 执行一轮完整清理（垃圾箱过期 → 物理删除邮件 → 附件记录 → 孤儿文件）
+     */
+    Map<String, Object> runPurge();
+
+    /**
+     * 请求停止正在执行的清理，当前批次完成后退出，下次从检查点继续
+     */
+    void stopPurge();
+
+    /**
+     * 获取清理状态（各任务检查点）
+     */
+    Map<String, Object> getPurgeStatus();
+}
@@ -0,0 +1,44 @@
+package com.enterprise.email.service;
+
+import com.enterprise.email.dto.PushEvent;
+import com.enterprise.email.entity.Email;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.Map;
+
+/**
+ * 服务端推送服务接口
+ * 新邮件、标记变化与计数增量经Redis发布订阅分发到持有连接的节点，按用户合并后以SSE推送
+ */
+public interface PushService {
+
+    /**
+     * 建立用户的事件流连接
+     */
+    SseEmitter subscribe(Long userId);
+
+    /**
+     * 发布事件（处于事务中时在提交后发布）
+     */
+    void publish(PushEvent event);
+
+    /**
+     * 发布新邮件事件（未读邮件同时发布计数增量）
+     */
+    void publishNewMail(Email email);
+
+    /**
+     * 发布标记变化事件
+     */
+    void publishFlagChange(Email email, String flag, Object value);
+
+    /**
+     * 发布计数增量事件
+     */
+    void publishCounterDelta(Long userId, Long aliasId, int unreadDelta, int totalDelta);
+
+    /**
+     * 获取推送连接统计
+     */
+    Map<String, Object> getStatistics();
+}
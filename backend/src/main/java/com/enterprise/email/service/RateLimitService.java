@@ -0,0 +1,41 @@
+package com.enterprise.email.service;
+
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * 分布式滑动窗口限流服务
+ * 计数保存在Redis中，每次同步只需一次Lua脚本往返，多节点部署时限额整体生效
+ */
+public interface RateLimitService {
+
+    /**
+     * 尝试占用一次配额
+     *
+     * @param key    限流键
+     * @param limit  窗口内允许的次数
+     * @param window 滑动窗口长度
+     * @return 是否占用成功
+     */
+    boolean tryAcquire(String key, int limit, Duration window);
+
+    /**
+     * 只检查窗口内是否还有配额，不占用
+     */
+    boolean isAllowed(String key, int limit, Duration window);
+
+    /**
+     * 窗口内已占用的次数（包含各节点已预取未用完的配额）
+     */
+    long getCount(String key, Duration window);
+
+    /**
+     * 清除以指定前缀开头的所有限流计数
+     */
+    void resetByPrefix(String keyPrefix);
+
+    /**
+     * 本地近缓存命中与Redis往返统计
+     */
+    Map<String, Object> getStatistics();
+}
@@ -0,0 +1,42 @@
+package com.enterprise.email.service;
+
+import com.enterprise.email.entity.RefilterJob;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 邮件重新过滤服务（新建或修改规则后，把当前规则追溯应用到别名下已有的邮件）
+ */
+public interface RefilterService {
+
+    /**
+     * 创建并启动别名的重新过滤任务（同一别名同时只运行一个任务）
+     */
+    RefilterJob startRefilter(Long userAliasId);
+
+    /**
+     * 取消任务，当前批次写完后停止
+     */
+    boolean cancelRefilter(Long jobId);
+
+    /**
+     * 从检查点继续已取消、失败或因重启中断的任务
+     */
+    RefilterJob resumeRefilter(Long jobId);
+
+    /**
+     * 获取任务（不存在时返回null）
+     */
+    RefilterJob getRefilterJob(Long jobId);
+
+    /**
+     * 获取任务进度
+     */
+    Map<String, Object> getRefilterProgress(Long jobId);
+
+    /**
+     * 获取别名最近的重新过滤任务
+     */
+    List<RefilterJob> getRefilterJobs(Long userAliasId, int limit);
+}
@@ -0,0 +1,31 @@
+package com.enterprise.email.service;
+
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * 自动回复发件人抑制服务
+ * 记录"窗口内已回复过的发件人"，本地保存为带过期时间、总量有上限的集合，可选以Redis同步多个节点
+ */
+public interface ReplySuppressionService {
+
+    /**
+     * 是否已被抑制（只查本地记录，不访问Redis）
+     */
+    boolean isSuppressed(String key);
+
+    /**
+     * 占用：窗口内第一次占用返回true，已被占用（包括其他节点占用）返回false
+     */
+    boolean claim(String key, Duration window);
+
+    /**
+     * 清除以指定前缀开头的所有记录
+     */
+    void clearByPrefix(String keyPrefix);
+
+    /**
+     * 本地记录数、淘汰数与Redis往返统计
+     */
+    Map<String, Object> getStatistics();
+}
@@ -40,6 +40,11 @@ public interface RspamdService {
      */
     Map<String, Object> checkSpam(String emailContent, String senderIp, String domain);
 
+    /**
+     * 按原始字节检查邮件是否为垃圾邮件（非UTF-8的8bit内容原样提交）
+     */
+    Map<String, Object> checkSpam(byte[] emailContent, String senderIp, String domain);
+
     /**
      * 学习垃圾邮件
      */
@@ -1,6 +1,8 @@
 package com.enterprise.email.service;
 
 import com.enterprise.email.entity.SieveRule;
+import com.enterprise.email.inbound.ParsedMessage;
+import com.enterprise.email.sieve.SieveMessage;
 
 import java.util.List;
 import java.util.Map;
@@ -45,6 +47,16 @@ public interface SieveService {
      */
     Map<String, Object> applySieveRules(String emailContent, Long userAliasId);
 
+    /**
+     * 应用Sieve规则到已解析的邮件（入站流水线共用同一份解析结果）
+     */
+    Map<String, Object> applySieveRules(ParsedMessage message, Long userAliasId);
+
+    /**
+     * 只求值规则，不更新规则统计、不记录执行历史（用于对已有邮件重新过滤）
+     */
+    Map<String, Object> evaluateSieveRules(SieveMessage message, Long userAliasId);
+
     /**
      * 测试Sieve规则
      */
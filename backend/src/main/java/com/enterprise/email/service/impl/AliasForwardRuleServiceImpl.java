@@ -1,27 +1,37 @@
 package com.enterprise.email.service.impl;
 
-import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.baomidou.mybatisplus.core.metadata.IPage;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.enterprise.email.entity.AliasForwardRule;
 import com.enterprise.email.entity.UserAlias;
+import com.enterprise.email.forwarding.AliasForwardGraph;
+import com.enterprise.email.forwarding.ForwardRuleChangedEvent;
+import com.enterprise.email.inbound.ParsedMessage;
 import com.enterprise.email.mapper.AliasForwardRuleMapper;
 import com.enterprise.email.mapper.UserAliasMapper;
 import com.enterprise.email.service.AliasForwardRuleService;
 import com.enterprise.email.service.EmailService;
+import com.enterprise.email.service.JobLeaseService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.StringUtils;
 
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Set;
-import java.util.HashSet;
 
 /**
  * 别名转发规则服务实现类
+ *
+ * 新增、修改与重新启用规则在保存前锁定全局转发锁行，并在同一事务内沿数据库中的转发链检查循环，
+ * 各节点的规则变更因此串行，不会因关系图过期或两个节点各自保存半个环而形成循环。
+ * 进程内关系图只用于 {@link #checkForwardLoop} 的快速查询和转发展开。
  */
 @Slf4j
 @Service
@@ -32,6 +42,21 @@ public class AliasForwardRuleServiceImpl extends ServiceImpl<AliasForwardRuleMap
     private final AliasForwardRuleMapper forwardRuleMapper;
     private final UserAliasMapper userAliasMapper;
     private final EmailService emailService;
+    private final AliasForwardGraph forwardGraph;
+    private final ApplicationEventPublisher eventPublisher;
+    private final JobLeaseService jobLeaseService;
+
+    /**
+     * 转发规则变更的全局锁名
+     */
+    private static final String FORWARD_RULE_LOCK = "alias-forward-rules";
+
+    /**
+     * 数据库检查时最多展开的地址数，超出时保守处理，认为存在循环
+     */
+    private static final int MAX_WALK_ADDRESSES = 10000;
+
+    private static final int WALK_BATCH_SIZE = 500;
 
     @Override
     @Transactional
@@ -45,7 +70,7 @@ public class AliasForwardRuleServiceImpl extends ServiceImpl<AliasForwardRuleMap
             }
 
             // 检查是否存在循环转发
-            if (checkForwardLoop(forwardRule.getAliasId(), forwardRule.getForwardTo())) {
+            if (checkForwardLoopLocked(alias, forwardRule.getForwardTo())) {
                 log.error("检测到循环转发: {} -> {}", alias.getAliasAddress(), forwardRule.getForwardTo());
                 return false;
             }
@@ -66,6 +91,7 @@ public class AliasForwardRuleServiceImpl extends ServiceImpl<AliasForwardRuleMap
 
             boolean result = save(forwardRule);
             if (result) {
+                eventPublisher.publishEvent(new ForwardRuleChangedEvent(this, forwardRule.getId()));
                 log.info("创建转发规则成功: {} -> {}", alias.getAliasAddress(), forwardRule.getForwardTo());
             }
             return result;
@@ -86,17 +112,21 @@ public class AliasForwardRuleServiceImpl extends ServiceImpl<AliasForwardRuleMap
                 return false;
             }
 
-            // 如果修改了转发目标，检查循环转发
-            if (!existing.getForwardTo().equals(forwardRule.getForwardTo())) {
-                if (checkForwardLoop(forwardRule.getAliasId(), forwardRule.getForwardTo())) {
+            // 如果修改了别名或转发目标，检查循环转发
+            Long aliasId = forwardRule.getAliasId() != null ? forwardRule.getAliasId() : existing.getAliasId();
+            String forwardTo = forwardRule.getForwardTo() != null ? forwardRule.getForwardTo() : existing.getForwardTo();
+            if (!aliasId.equals(existing.getAliasId()) || !forwardTo.equals(existing.getForwardTo())) {
+                UserAlias alias = userAliasMapper.selectById(aliasId);
+                if (alias == null || checkForwardLoopLocked(alias, forwardTo)) {
                     log.error("检测到循环转发: aliasId={}, forwardTo={}", 
-                            forwardRule.getAliasId(), forwardRule.getForwardTo());
+                            aliasId, forwardTo);
                     return false;
                 }
             }
 
             boolean result = updateById(forwardRule);
             if (result) {
+                eventPublisher.publishEvent(new ForwardRuleChangedEvent(this, forwardRule.getId()));
                 log.info("更新转发规则成功: ruleId={}", forwardRule.getId());
             }
             return result;
@@ -113,6 +143,7 @@ public class AliasForwardRuleServiceImpl extends ServiceImpl<AliasForwardRuleMap
         try {
             boolean result = removeById(ruleId);
             if (result) {
+                eventPublisher.publishEvent(new ForwardRuleChangedEvent(this, ruleId));
                 log.info("删除转发规则成功: ruleId={}", ruleId);
             }
             return result;
@@ -157,12 +188,24 @@ public class AliasForwardRuleServiceImpl extends ServiceImpl<AliasForwardRuleMap
     @Transactional
     public boolean toggleForwardRuleStatus(Long ruleId, Boolean isActive) {
         try {
+            // 重新启用的规则同样可能构成循环
+            if (Boolean.TRUE.equals(isActive)) {
+                AliasForwardRule existing = getById(ruleId);
+                UserAlias alias = existing != null ? userAliasMapper.selectById(existing.getAliasId()) : null;
+                if (alias != null && !Boolean.TRUE.equals(existing.getIsActive())
+                        && checkForwardLoopLocked(alias, existing.getForwardTo())) {
+                    log.error("检测到循环转发: aliasId={}, forwardTo={}", existing.getAliasId(), existing.getForwardTo());
+                    return false;
+                }
+            }
+
             AliasForwardRule rule = new AliasForwardRule();
             rule.setId(ruleId);
             rule.setIsActive(isActive);
             
             boolean result = updateById(rule);
             if (result) {
+                eventPublisher.publishEvent(new ForwardRuleChangedEvent(this, ruleId));
                 log.info("切换转发规则状态成功: ruleId={}, isActive={}", ruleId, isActive);
             }
             return result;
@@ -178,6 +221,7 @@ public class AliasForwardRuleServiceImpl extends ServiceImpl<AliasForwardRuleMap
         try {
             boolean result = removeByIds(ruleIds);
             if (result) {
+                eventPublisher.publishEvent(new ForwardRuleChangedEvent(this, ruleIds));
                 log.info("批量删除转发规则成功: count={}", ruleIds.size());
             }
             return result;
@@ -196,9 +240,13 @@ public class AliasForwardRuleServiceImpl extends ServiceImpl<AliasForwardRuleMap
                 return false;
             }
 
-            // 使用集合跟踪已访问的地址，防止无限循环
-            Set<String> visitedAddresses = new HashSet<>();
-            return checkForwardLoopRecursive(forwardTo, currentAlias.getAliasAddress(), visitedAddresses, 0);
+            if (!forwardGraph.isLoaded()) {
+                forwardGraph.reload();
+                if (!forwardGraph.isLoaded()) {
+                    return true; // 关系图不可用时保守处理，认为存在循环
+                }
+            }
+            return forwardGraph.wouldCreateCycle(currentAlias.getAliasAddress(), forwardTo);
 
         } catch (Exception e) {
             log.error("检查循环转发失败", e);
@@ -207,82 +255,105 @@ public class AliasForwardRuleServiceImpl extends ServiceImpl<AliasForwardRuleMap
     }
 
     /**
-     * 递归检查循环转发
+     * 保存规则前的循环检查：锁定全局转发锁行（随当前事务结束释放），沿数据库中的转发链
+     * 确认新边 alias → forwardTo 不会构成循环；不使用可能过期的进程内关系图
      */
-    private boolean checkForwardLoopRecursive(String targetAddress, String originalAddress, 
-                                            Set<String> visitedAddresses, int depth) {
-        // 防止递归过深
-        if (depth > 10) {
-            return true;
-        }
-
-        // 如果目标地址就是原始地址，存在循环
-        if (targetAddress.equals(originalAddress)) {
-            return true;
-        }
-
-        // 如果已经访问过这个地址，存在循环
-        if (visitedAddresses.contains(targetAddress)) {
+    private boolean checkForwardLoopLocked(UserAlias alias, String forwardTo) {
+        String source = normalize(alias.getAliasAddress());
+        String target = normalize(forwardTo);
+        if (source.equals(target)) {
             return true;
         }
+        return Boolean.TRUE.equals(jobLeaseService.runLocked(FORWARD_RULE_LOCK, () -> {
+            try {
+                return reachesInDatabase(target, source);
+            } catch (Exception e) {
+                log.error("检查循环转发失败", e);
+                return true; // 出错时保守处理，认为存在循环
+            }
+        }));
+    }
 
-        visitedAddresses.add(targetAddress);
-
-        // 查找目标地址是否也是某个别名，并且有转发规则
-        QueryWrapper<UserAlias> wrapper = new QueryWrapper<>();
-        wrapper.eq("alias_address", targetAddress);
-        wrapper.eq("is_active", true);
-        UserAlias targetAlias = userAliasMapper.selectOne(wrapper);
-
-        if (targetAlias != null) {
-            // 查找该别名的转发规则
-            List<AliasForwardRule> rules = forwardRuleMapper.findByAliasId(targetAlias.getId());
-            for (AliasForwardRule rule : rules) {
-                if (rule.getIsActive()) {
-                    // 递归检查
-                    if (checkForwardLoopRecursive(rule.getForwardTo(), originalAddress, 
-                                                visitedAddresses, depth + 1)) {
+    /**
+     * 从start出发沿生效的转发规则逐层展开，能到达goal时返回true
+     */
+    private boolean reachesInDatabase(String start, String goal) {
+        Set<String> visited = new HashSet<>();
+        visited.add(start);
+        List<String> frontier = List.of(start);
+        while (!frontier.isEmpty()) {
+            List<String> next = new ArrayList<>();
+            for (int i = 0; i < frontier.size(); i += WALK_BATCH_SIZE) {
+                List<String> batch = frontier.subList(i, Math.min(frontier.size(), i + WALK_BATCH_SIZE));
+                for (String target : forwardRuleMapper.findActiveTargetsByAddresses(batch)) {
+                    String address = normalize(target);
+                    if (address.equals(goal)) {
                         return true;
                     }
+                    if (!address.isEmpty() && visited.add(address)) {
+                        next.add(address);
+                    }
                 }
             }
+            if (visited.size() > MAX_WALK_ADDRESSES) {
+                log.warn("转发链过长，按存在循环处理: start={}, addresses={}", start, visited.size());
+                return true;
+            }
+            frontier = next;
         }
-
         return false;
     }
 
+    private static String normalize(String address) {
+        return address == null ? "" : address.trim().toLowerCase(Locale.ROOT);
+    }
+
     @Override
     @Transactional
     public void executeEmailForwarding(String aliasAddress, String originalEmail) {
+        executeEmailForwarding(aliasAddress, ParsedMessage.parse(originalEmail));
+    }
+
+    @Override
+    @Transactional
+    public void executeEmailForwarding(String aliasAddress, ParsedMessage message) {
         try {
-            // 解析原始邮件信息
-            // 这里简化处理，实际应该解析邮件头信息
-            String subject = "转发邮件";
-            String fromEmail = "sender@example.com";
+            // 主题与发件人取自已解析的头部，信封发件人优先
+            String subject = StringUtils.hasText(message.getSubject()) ? message.getSubject() : "转发邮件";
+            String fromEmail = StringUtils.hasText(message.getEnvelope().getMailFrom())
+                    ? message.getEnvelope().getMailFrom() : message.getFrom();
             String toEmail = aliasAddress;
 
             // 查找匹配的转发规则
             List<AliasForwardRule> matchingRules = findMatchingForwardRules(
                 aliasAddress, subject, fromEmail, toEmail);
 
+            // 构建转发邮件
+            String forwardSubject = "Fwd: " + subject;
+            String forwardContent = "---------- 转发邮件 ----------\n" + message.getRaw();
+
+            // 目标按关系图展开到最终地址，多条规则展开到同一地址时只投递一次
+            Set<String> delivered = new HashSet<>();
+            delivered.add(aliasAddress.trim().toLowerCase(Locale.ROOT));
             for (AliasForwardRule rule : matchingRules) {
-                try {
-                    // 构建转发邮件
-                    String forwardSubject = "Fwd: " + subject;
-                    String forwardContent = "---------- 转发邮件 ----------\n" + originalEmail;
-
-                    // 发送转发邮件
-                    emailService.sendTextEmail(
-                        aliasAddress,           // 发件人
-                        rule.getForwardTo(),    // 收件人
-                        forwardSubject,         // 主题
-                        forwardContent          // 内容
-                    );
-
-                    log.info("邮件转发成功: {} -> {}", aliasAddress, rule.getForwardTo());
-
-                } catch (Exception e) {
-                    log.error("转发邮件失败: {} -> {}", aliasAddress, rule.getForwardTo(), e);
+                for (String target : forwardGraph.getDeliverySet(rule.getForwardTo())) {
+                    if (!delivered.add(target.toLowerCase(Locale.ROOT))) {
+                        continue;
+                    }
+                    try {
+                        // 发送转发邮件
+                        emailService.sendTextEmail(
+                            aliasAddress,           // 发件人
+                            target,                 // 收件人
+                            forwardSubject,         // 主题
+                            forwardContent          // 内容
+                        );
+
+                        log.info("邮件转发成功: {} -> {} (规则目标: {})", aliasAddress, target, rule.getForwardTo());
+
+                    } catch (Exception e) {
+                        log.error("转发邮件失败: {} -> {}", aliasAddress, target, e);
+                    }
                 }
             }
 
@@ -0,0 +1,573 @@
+package com.enterprise.email.service.impl;
+
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.baomidou.mybatisplus.core.toolkit.IdWorker;
+import com.enterprise.email.dto.ArchiveSearchResult;
+import com.enterprise.email.entity.ArchiveIndexBlock;
+import com.enterprise.email.entity.ArchiveSegment;
+import com.enterprise.email.entity.Email;
+import com.enterprise.email.entity.PurgeCheckpoint;
+import com.enterprise.email.mapper.ArchiveIndexMapper;
+import com.enterprise.email.mapper.ArchiveSegmentMapper;
+import com.enterprise.email.mapper.EmailMapper;
+import com.enterprise.email.mapper.PurgeCheckpointMapper;
+import com.enterprise.email.service.ArchiveService;
+import com.enterprise.email.service.EmailThreadService;
+import com.enterprise.email.service.JobLeaseService;
+import com.enterprise.email.utils.ArchiveSegmentStore;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+/**
+ * 邮件冷归档服务实现类
+ *
+ * 归档：按用户ID逐个处理，每个用户的待归档邮件按时间正序分批读取，切成块追加写入段文件并刷盘，
+ * 然后在一个事务中写入稀疏索引、删除邮件行并重新计算相关会话的聚合；刷盘后事务前中断只会在段尾
+ * 留下未被索引引用的数据。同一用户的块按时间连续，检查点记录已完成的用户ID。
+ * 恢复：逐块读回邮件插入邮件表，并在同一事务中删除该块索引，因此可以随时中断后继续。
+ *
+ * 归档与恢复持有跨节点租约，同一时刻只在一个节点执行。段文件目录（email.archive.path）必须是
+ * 所有节点共享的存储：目录中的标识文件与段记录的存储标识不一致时启动失败，不会写入或读取。
+ */
+@Slf4j
+@Service
+public class ArchiveServiceImpl implements ArchiveService {
+
+    private static final String JOB_ARCHIVE = "archive";
+    private static final String JOB_RESTORE_PREFIX = "restore:";
+    private static final String LEASE_NAME = "archive";
+    private static final int USER_BATCH = 100;
+    private static final int SEARCH_BATCH_BLOCKS = 200;
+
+    private final EmailMapper emailMapper;
+    private final ArchiveSegmentMapper segmentMapper;
+    private final ArchiveIndexMapper indexMapper;
+    private final PurgeCheckpointMapper checkpointMapper;
+    private final ArchiveSegmentStore segmentStore;
+    private final ObjectMapper objectMapper;
+    private final TransactionTemplate transactionTemplate;
+    private final EmailThreadService emailThreadService;
+    private final JobLeaseService leaseService;
+    private final Executor taskExecutor;
+
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private final AtomicBoolean stopRequested = new AtomicBoolean(false);
+
+    @Value("${email.archive.chunk-size:500}")
+    private int chunkSize;
+
+    @Value("${email.archive.block-records:64}")
+    private int blockRecords;
+
+    @Value("${email.archive.segment-max-bytes:268435456}")
+    private long segmentMaxBytes;
+
+    @Value("${email.archive.pause-millis:50}")
+    private long pauseMillis;
+
+    @Value("${email.archive.restore-batch-blocks:20}")
+    private int restoreBatchBlocks;
+
+    @Value("${email.archive.lease-seconds:300}")
+    private long leaseSeconds;
+
+    public ArchiveServiceImpl(EmailMapper emailMapper,
+                              ArchiveSegmentMapper segmentMapper,
+                              ArchiveIndexMapper indexMapper,
+                              PurgeCheckpointMapper checkpointMapper,
+                              ArchiveSegmentStore segmentStore,
+                              ObjectMapper objectMapper,
+                              TransactionTemplate transactionTemplate,
+                              EmailThreadService emailThreadService,
+                              JobLeaseService leaseService,
+                              @Qualifier("emailTaskExecutor") Executor taskExecutor) {
+        this.emailMapper = emailMapper;
+        this.segmentMapper = segmentMapper;
+        this.indexMapper = indexMapper;
+        this.checkpointMapper = checkpointMapper;
+        this.segmentStore = segmentStore;
+        this.objectMapper = objectMapper;
+        this.transactionTemplate = transactionTemplate;
+        this.emailThreadService = emailThreadService;
+        this.leaseService = leaseService;
+        this.taskExecutor = taskExecutor;
+    }
+
+    /**
+     * 启动时确认段文件目录与已有段记录属于同一份存储
+     */
+    @PostConstruct
+    public void verifyStorage() {
+        try {
+            verifyStore();
+        } catch (IOException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public boolean startArchive() {
+        if (running.get()) {
+            return false;
+        }
+        taskExecutor.execute(this::runArchive);
+        return true;
+    }
+
+    @Override
+    public boolean startRestore(Long userId) {
+        if (running.get()) {
+            return false;
+        }
+        taskExecutor.execute(() -> runRestore(userId));
+        return true;
+    }
+
+    @Override
+    public Map<String, Object> runArchive() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        if (!acquire()) {
+            result.put("skipped", true);
+            return result;
+        }
+
+        try {
+            verifyStore();
+            PurgeCheckpoint checkpoint = loadCheckpoint(JOB_ARCHIVE);
+            log.info("开始邮件归档: lastUserId={}", checkpoint.getLastId());
+
+            while (!stopRequested.get()) {
+                List<Long> userIds = emailMapper.selectArchiveUsers(
+                        checkpoint.getCutoffTime(), checkpoint.getLastId(), USER_BATCH);
+                if (userIds.isEmpty()) {
+                    completeCheckpoint(checkpoint);
+                    break;
+                }
+
+                for (Long userId : userIds) {
+                    if (!archiveUser(checkpoint, userId)) {
+                        break;
+                    }
+                    checkpoint.setLastId(userId);
+                    checkpoint.setUpdateTime(LocalDateTime.now());
+                    checkpointMapper.updateById(checkpoint);
+                }
+            }
+
+            result.put("status", checkpoint.getStatus());
+            result.put("archived", checkpoint.getProcessedCount());
+            log.info("邮件归档结束: {}", result);
+            return result;
+
+        } catch (IOException e) {
+            log.error("邮件归档失败，下次从检查点继续", e);
+            throw new RuntimeException("邮件归档失败: " + e.getMessage());
+        } finally {
+            releaseLease();
+        }
+    }
+
+    @Override
+    public Map<String, Object> runRestore(Long userId) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        if (!acquire()) {
+            result.put("skipped", true);
+            return result;
+        }
+
+        try {
+            verifyStore();
+            PurgeCheckpoint checkpoint = loadCheckpoint(JOB_RESTORE_PREFIX + userId);
+            Set<Long> touchedSegments = new HashSet<>();
+            log.info("开始恢复归档邮件: userId={}", userId);
+
+            while (!stopRequested.get() && renewLease()) {
+                List<ArchiveIndexBlock> blocks = indexMapper.selectUserBlocks(userId, restoreBatchBlocks);
+                if (blocks.isEmpty()) {
+                    completeCheckpoint(checkpoint);
+                    break;
+                }
+
+                for (ArchiveIndexBlock block : blocks) {
+                    List<Email> emails = readBlock(block);
+                    transactionTemplate.executeWithoutResult(status -> {
+                        for (Email email : emails) {
+                            if (emailMapper.selectById(email.getId()) == null) {
+                                // 归档期间会话可能已被合并，挂到合并后的会话
+                                email.setThreadId(emailThreadService.resolveThreadId(email.getThreadId()));
+                                emailMapper.insert(email);
+                            }
+                        }
+                        indexMapper.deleteById(block.getId());
+                        emailThreadService.refreshThreads(threadIds(emails));
+                    });
+                    touchedSegments.add(block.getSegmentId());
+                    checkpoint.setLastId(block.getId());
+                    checkpoint.setProcessedCount(checkpoint.getProcessedCount() + emails.size());
+                }
+
+                checkpoint.setUpdateTime(LocalDateTime.now());
+                checkpointMapper.updateById(checkpoint);
+                pause();
+            }
+
+            releaseEmptySegments(touchedSegments);
+
+            result.put("status", checkpoint.getStatus());
+            result.put("restored", checkpoint.getProcessedCount());
+            log.info("恢复归档邮件结束: userId={}, result={}", userId, result);
+            return result;
+
+        } catch (IOException e) {
+            log.error("恢复归档邮件失败，下次从检查点继续: userId={}", userId, e);
+            throw new RuntimeException("恢复归档邮件失败: " + e.getMessage());
+        } finally {
+            releaseLease();
+        }
+    }
+
+    @Override
+    public void stopJob() {
+        if (running.get()) {
+            stopRequested.set(true);
+        }
+    }
+
+    @Override
+    public Email findArchivedEmail(Long emailId, Long userId) {
+        try {
+            for (ArchiveIndexBlock block : indexMapper.selectBlocksContaining(userId, emailId)) {
+                for (Email email : readBlock(block)) {
+                    if (emailId.equals(email.getId())) {
+                        return email;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            log.error("读取归档邮件失败: emailId={}, error={}", emailId, e.getMessage());
+        }
+        return null;
+    }
+
+    @Override
+    public ArchiveSearchResult searchArchived(Long userId, Long aliasId, String type, String keyword, int limit) {
+        // 保留排序最靠前的limit封（堆顶为其中最靠后的一封），同时统计全部匹配数
+        PriorityQueue<Email> top = new PriorityQueue<>(Math.max(1, limit) + 1, ArchiveSearchResult.NEWEST_FIRST.reversed());
+        long total = 0;
+        String needle = keyword != null ? keyword.trim().toLowerCase() : "";
+        try {
+            long afterId = 0L;
+            while (true) {
+                List<ArchiveIndexBlock> blocks = indexMapper.selectUserBlocksAfter(userId, afterId, SEARCH_BATCH_BLOCKS);
+                if (blocks.isEmpty()) {
+                    break;
+                }
+                for (ArchiveIndexBlock block : blocks) {
+                    for (Email email : readBlock(block)) {
+                        if ((aliasId == null || aliasId.equals(email.getAliasId()))
+                                && (type == null || type.isBlank() || type.equals(email.getEmailType()))
+                                && matchesKeyword(email, needle)) {
+                            total++;
+                            if (limit > 0) {
+                                top.add(email);
+                                if (top.size() > limit) {
+                                    top.poll();
+                                }
+                            }
+                        }
+                    }
+                }
+                afterId = blocks.get(blocks.size() - 1).getId();
+            }
+        } catch (IOException e) {
+            log.error("搜索归档邮件失败: userId={}, error={}", userId, e.getMessage());
+        }
+
+        List<Email> matches = new ArrayList<>(top);
+        matches.sort(ArchiveSearchResult.NEWEST_FIRST);
+        return new ArchiveSearchResult(matches, total);
+    }
+
+    @Override
+    public Map<String, Object> getArchiveStatus() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("running", running.get());
+        status.put("segments", segmentMapper.selectCount(null));
+        status.put("blocks", indexMapper.selectCount(null));
+
+        LambdaQueryWrapper<PurgeCheckpoint> wrapper = new LambdaQueryWrapper<>();
+        wrapper.eq(PurgeCheckpoint::getJobName, JOB_ARCHIVE)
+               .or()
+               .likeRight(PurgeCheckpoint::getJobName, JOB_RESTORE_PREFIX);
+        status.put("checkpoints", checkpointMapper.selectList(wrapper));
+        return status;
+    }
+
+    /**
+     * 归档一个用户的全部待归档邮件，被停止时返回false
+     */
+    private boolean archiveUser(PurgeCheckpoint checkpoint, Long userId) throws IOException {
+        while (!stopRequested.get() && renewLease()) {
+            List<Email> emails = emailMapper.selectUserArchiveCandidates(checkpoint.getCutoffTime(), userId, chunkSize);
+            if (emails.isEmpty()) {
+                return true;
+            }
+
+            archiveChunk(emails);
+
+            checkpoint.setProcessedCount(checkpoint.getProcessedCount() + emails.size());
+            checkpoint.setUpdateTime(LocalDateTime.now());
+            checkpointMapper.updateById(checkpoint);
+            pause();
+        }
+        return false;
+    }
+
+    /**
+     * 写入同一用户按时间排序的一批邮件：追加块并刷盘后，在事务中写索引、删除邮件行并更新会话聚合
+     */
+    private void archiveChunk(List<Email> emails) throws IOException {
+        ArchiveSegment segment = currentSegment();
+
+        List<List<Email>> blocks = new ArrayList<>();
+        for (int i = 0; i < emails.size(); i += blockRecords) {
+            blocks.add(emails.subList(i, Math.min(i + blockRecords, emails.size())));
+        }
+
+        List<List<byte[]>> payloads = new ArrayList<>(blocks.size());
+        for (List<Email> block : blocks) {
+            List<byte[]> records = new ArrayList<>(block.size());
+            for (Email email : block) {
+                records.add(objectMapper.writeValueAsBytes(email));
+            }
+            payloads.add(records);
+        }
+
+        List<long[]> locations = segmentStore.appendBlocks(segment.getFileName(), payloads);
+        long segmentSize = segmentStore.size(segment.getFileName());
+
+        List<Long> ids = emails.stream().map(Email::getId).collect(Collectors.toList());
+        transactionTemplate.executeWithoutResult(status -> {
+            for (int i = 0; i < blocks.size(); i++) {
+                indexMapper.insert(toIndexBlock(segment.getId(), blocks.get(i), locations.get(i)));
+            }
+            emailMapper.deleteArchivedByIds(ids);
+            segmentMapper.updateAppended(segment.getId(), segmentSize, emails.size());
+            emailThreadService.refreshThreads(threadIds(emails));
+        });
+    }
+
+    private ArchiveIndexBlock toIndexBlock(Long segmentId, List<Email> emails, long[] location) {
+        ArchiveIndexBlock block = new ArchiveIndexBlock();
+        block.setSegmentId(segmentId);
+        block.setUserId(emails.get(0).getUserId());
+        block.setFirstId(emails.stream().map(Email::getId).min(Comparator.naturalOrder()).orElse(0L));
+        block.setLastId(emails.stream().map(Email::getId).max(Comparator.naturalOrder()).orElse(0L));
+        block.setMinTime(emails.stream().map(this::messageTime).filter(Objects::nonNull)
+                .min(Comparator.naturalOrder()).orElse(null));
+        block.setMaxTime(emails.stream().map(this::messageTime).filter(Objects::nonNull)
+                .max(Comparator.naturalOrder()).orElse(null));
+        block.setBlockOffset(location[0]);
+        block.setBlockLength((int) location[1]);
+        block.setRecordCount(emails.size());
+        block.setCreateTime(LocalDateTime.now());
+        return block;
+    }
+
+    /**
+     * 当前写入的段，超过大小上限时封存并新建
+     */
+    private ArchiveSegment currentSegment() throws IOException {
+        String storeId = segmentStore.getOrCreateStoreId();
+        ArchiveSegment segment = segmentMapper.selectOpenSegment();
+        if (segment != null && segment.getStoreId() != null && !segment.getStoreId().equals(storeId)) {
+            throw new IOException("归档段目录不是各节点共享的存储: " + segment.getFileName());
+        }
+        if (segment != null && segment.getSizeBytes() < segmentMaxBytes) {
+            return segment;
+        }
+        if (segment != null) {
+            segment.setStatus(ArchiveSegment.STATUS_SEALED);
+            segment.setUpdateTime(LocalDateTime.now());
+            segmentMapper.updateById(segment);
+        }
+
+        ArchiveSegment created = new ArchiveSegment();
+        created.setId(IdWorker.getId());
+        created.setFileName("segment-" + created.getId() + ".dat");
+        created.setStoreId(storeId);
+        created.setStatus(ArchiveSegment.STATUS_OPEN);
+        created.setSizeBytes(0L);
+        created.setRecordCount(0);
+        created.setCreateTime(LocalDateTime.now());
+        created.setUpdateTime(LocalDateTime.now());
+        segmentMapper.insert(created);
+        return created;
+    }
+
+    private List<Email> readBlock(ArchiveIndexBlock block) throws IOException {
+        ArchiveSegment segment = segmentMapper.selectById(block.getSegmentId());
+        if (segment == null) {
+            throw new IOException("归档段不存在: " + block.getSegmentId());
+        }
+        if (segment.getStoreId() != null && !segment.getStoreId().equals(segmentStore.readStoreId())) {
+            throw new IOException("归档段不在本节点的段目录中: " + segment.getFileName());
+        }
+        List<Email> emails = new ArrayList<>(block.getRecordCount());
+        for (byte[] record : segmentStore.readBlock(segment.getFileName(), block.getBlockOffset(), block.getBlockLength())) {
+            emails.add(objectMapper.readValue(record, Email.class));
+        }
+        return emails;
+    }
+
+    /**
+     * 恢复后没有剩余块的已封存段可以删除
+     */
+    private void releaseEmptySegments(Set<Long> segmentIds) {
+        for (Long segmentId : segmentIds) {
+            ArchiveSegment segment = segmentMapper.selectById(segmentId);
+            if (segment == null || !ArchiveSegment.STATUS_SEALED.equals(segment.getStatus())
+                    || indexMapper.countBySegment(segmentId) > 0) {
+                continue;
+            }
+            try {
+                segmentStore.delete(segment.getFileName());
+                segmentMapper.deleteById(segmentId);
+                log.info("删除空归档段: {}", segment.getFileName());
+            } catch (IOException e) {
+                log.error("删除空归档段失败: file={}, error={}", segment.getFileName(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 已有段记录的存储标识必须与本节点段目录的标识一致（目录为共享存储）
+     */
+    private void verifyStore() throws IOException {
+        List<String> storeIds = segmentMapper.selectStoreIds();
+        if (storeIds.isEmpty()) {
+            return;
+        }
+        String local = segmentStore.readStoreId();
+        if (storeIds.size() > 1 || !storeIds.get(0).equals(local)) {
+            throw new IOException("归档段目录 " + segmentStore.resolve("") + " 不是各节点共享的存储（段记录的存储标识 "
+                    + storeIds + "，本节点 " + local + "），请把email.archive.path配置为共享目录");
+        }
+    }
+
+    /**
+     * 获取本节点的任务标志与跨节点租约
+     */
+    private boolean acquire() {
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+        if (!leaseService.tryAcquire(LEASE_NAME, leaseSeconds)) {
+            log.info("归档任务正在其他节点执行，本节点跳过");
+            running.set(false);
+            return false;
+        }
+        stopRequested.set(false);
+        return true;
+    }
+
+    /**
+     * 续期租约，失去租约时停止任务
+     */
+    private boolean renewLease() {
+        if (leaseService.tryAcquire(LEASE_NAME, leaseSeconds)) {
+            return true;
+        }
+        log.warn("归档任务租约已被其他节点取得，停止执行");
+        stopRequested.set(true);
+        return false;
+    }
+
+    private void releaseLease() {
+        leaseService.release(LEASE_NAME);
+        running.set(false);
+    }
+
+    private Set<Long> threadIds(List<Email> emails) {
+        Set<Long> threadIds = new HashSet<>();
+        for (Email email : emails) {
+            if (email.getThreadId() != null) {
+                threadIds.add(email.getThreadId());
+            }
+        }
+        return threadIds;
+    }
+
+    private boolean matchesKeyword(Email email, String needle) {
+        if (needle.isEmpty()) {
+            return true;
+        }
+        return containsIgnoreCase(email.getSubject(), needle)
+                || containsIgnoreCase(email.getSender(), needle)
+                || containsIgnoreCase(email.getRecipient(), needle)
+                || containsIgnoreCase(email.getContentText(), needle);
+    }
+
+    private boolean containsIgnoreCase(String value, String needle) {
+        return value != null && value.toLowerCase().contains(needle);
+    }
+
+    private LocalDateTime messageTime(Email email) {
+        return email.getReceivedTime() != null ? email.getReceivedTime() : email.getSentTime();
+    }
+
+    private PurgeCheckpoint loadCheckpoint(String jobName) {
+        PurgeCheckpoint checkpoint = checkpointMapper.selectById(jobName);
+        if (checkpoint != null && PurgeCheckpoint.STATUS_RUNNING.equals(checkpoint.getStatus())) {
+            log.info("从检查点继续任务: job={}, lastId={}", jobName, checkpoint.getLastId());
+            return checkpoint;
+        }
+
+        boolean exists = checkpoint != null;
+        if (!exists) {
+            checkpoint = new PurgeCheckpoint();
+            checkpoint.setJobName(jobName);
+        }
+        checkpoint.setLastId(0L);
+        checkpoint.setStatus(PurgeCheckpoint.STATUS_RUNNING);
+        checkpoint.setProcessedCount(0L);
+        checkpoint.setDeletedFiles(0L);
+        checkpoint.setCutoffTime(LocalDateTime.now());
+        checkpoint.setStartedTime(LocalDateTime.now());
+        checkpoint.setUpdateTime(LocalDateTime.now());
+        if (exists) {
+            checkpointMapper.updateById(checkpoint);
+        } else {
+            checkpointMapper.insert(checkpoint);
+        }
+        return checkpoint;
+    }
+
+    private void completeCheckpoint(PurgeCheckpoint checkpoint) {
+        checkpoint.setStatus(PurgeCheckpoint.STATUS_COMPLETED);
+        checkpoint.setCompletedTime(LocalDateTime.now());
+        checkpoint.setUpdateTime(LocalDateTime.now());
+        checkpointMapper.updateById(checkpoint);
+    }
+
+    private void pause() {
+        try {
+            Thread.sleep(pauseMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            stopRequested.set(true);
+        }
+    }
+}
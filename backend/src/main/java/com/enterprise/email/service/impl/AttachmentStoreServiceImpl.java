@@ -0,0 +1,368 @@
+package com.enterprise.email.service.impl;
+
+import com.baomidou.mybatisplus.core.toolkit.IdWorker;
+import com.enterprise.email.entity.AttachmentBlob;
+import com.enterprise.email.mapper.AttachmentBlobMapper;
+import com.enterprise.email.service.AttachmentStoreService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 附件内容存储服务实现类
+ *
+ * 目录布局：{base}/ab/cd/abcd...（SHA-256十六进制），临时文件写入 {base}/.tmp 后原子重命名。
+ * 同一内容的写入与清理由数据库行锁串行（各节点共用）：写入先按哈希插入或增加引用再检查、移入文件，
+ * 清理在同一事务内先删除仍为零引用的记录再删除文件，因此不会删除刚被其他事务引用的文件。
+ * 新移入文件的事务回滚时，以零引用登记该内容，由孤儿清理任务在宽限期后回收文件。
+ * 引用与移入总在同一事务内：调用方没有事务时自行开启，移入失败时引用随事务撤销。
+ */
+@Slf4j
+@Service
+public class AttachmentStoreServiceImpl implements AttachmentStoreService {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final AttachmentBlobMapper blobMapper;
+    private final Executor ioExecutor;
+    private final TransactionTemplate transaction;
+    private final TransactionTemplate newTransaction;
+
+    // 清理限速：下一个可用的删除时间点（纳秒）
+    private final AtomicLong nextSweepSlot = new AtomicLong(0);
+
+    @Value("${email.attachment.path:/data/email/attachments}")
+    private String attachmentBasePath;
+
+    @Value("${email.attachment.compression.enabled:false}")
+    private boolean compressionEnabled;
+
+    @Value("${email.attachment.compression.types:text/plain,text/html,text/csv,application/json,application/xml}")
+    private String compressibleTypes;
+
+    @Value("${email.attachment.sweep.concurrency:4}")
+    private int sweepConcurrency;
+
+    @Value("${email.attachment.sweep.rate-per-second:200}")
+    private int sweepRatePerSecond;
+
+    @Value("${email.attachment.sweep.batch-size:500}")
+    private int sweepBatchSize;
+
+    @Value("${email.attachment.sweep.grace-minutes:60}")
+    private long sweepGraceMinutes;
+
+    public AttachmentStoreServiceImpl(AttachmentBlobMapper blobMapper,
+                                      @Qualifier("attachmentIoExecutor") Executor ioExecutor,
+                                      TransactionTemplate transactionTemplate) {
+        this.blobMapper = blobMapper;
+        this.ioExecutor = ioExecutor;
+        this.transaction = transactionTemplate;
+        this.newTransaction = new TransactionTemplate(transactionTemplate.getTransactionManager());
+        this.newTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    @Override
+    public StoredContent store(InputStream inputStream, String contentType) throws IOException {
+        Path tempDir = Paths.get(attachmentBasePath, ".tmp");
+        Files.createDirectories(tempDir);
+        Path tempFile = Files.createTempFile(tempDir, "upload-", ".part");
+
+        try {
+            MessageDigest digest = newSha256();
+            boolean compress = isCompressible(contentType);
+            long size = 0;
+
+            // 单次读取：边写临时文件边计算哈希（哈希基于原始内容，与是否压缩无关）
+            try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                OutputStream outputStream = Channels.newOutputStream(channel);
+                if (compress) {
+                    outputStream = new GZIPOutputStream(outputStream, BUFFER_SIZE);
+                }
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int bytesRead;
+                while ((bytesRead = inputStream.read(buffer)) != -1) {
+                    digest.update(buffer, 0, bytesRead);
+                    outputStream.write(buffer, 0, bytesRead);
+                    size += bytesRead;
+                }
+                if (outputStream instanceof GZIPOutputStream) {
+                    ((GZIPOutputStream) outputStream).finish();
+                }
+                outputStream.flush();
+                channel.force(true);
+            }
+            long storedSize = Files.size(tempFile);
+            String compression = compress ? AttachmentBlob.COMPRESSION_GZIP : AttachmentBlob.COMPRESSION_NONE;
+
+            String contentHash = toHex(digest.digest());
+            String relativePath = toRelativePath(contentHash);
+            Path target = Paths.get(attachmentBasePath).resolve(relativePath);
+
+            boolean deduplicated;
+            try {
+                deduplicated = Boolean.TRUE.equals(transaction.execute(status -> {
+                    try {
+                        return reference(tempFile, target, contentHash, size, storedSize, compression, relativePath);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+
+            if (deduplicated) {
+                // 已有内容以首次写入时的存储方式为准
+                AttachmentBlob existing = blobMapper.selectByHash(contentHash);
+                if (existing != null && existing.getCompression() != null) {
+                    compression = existing.getCompression();
+                }
+            }
+
+            log.debug("附件内容写入完成: hash={}, size={}, storedSize={}, deduplicated={}",
+                    contentHash, size, storedSize, deduplicated);
+            return new StoredContent(contentHash, size, target, compression, deduplicated);
+
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * 插入或增加引用后检查并移入文件，返回内容是否已存在。在调用方事务内执行（没有时为新事务）：
+     * 记录行锁保持到事务结束，其他节点同一内容的写入与清理在此等待，文件检查与移入不会与清理交错
+     */
+    private boolean reference(Path tempFile, Path target, String contentHash, long size, long storedSize,
+                              String compression, String relativePath) throws IOException {
+        blobMapper.upsertReference(IdWorker.getId(), contentHash, size, storedSize,
+                compression, relativePath, 1);
+        if (Files.exists(target)) {
+            return true;
+        }
+        Files.createDirectories(target.getParent());
+        moveAtomically(tempFile, target);
+        registerRollbackCleanup(contentHash, size, storedSize, compression, relativePath);
+        return false;
+    }
+
+    @Override
+    public AttachmentBlob getBlob(String contentHash) {
+        return contentHash != null ? blobMapper.selectByHash(contentHash) : null;
+    }
+
+    @Override
+    public void addReferences(String contentHash, int count) {
+        if (contentHash == null || count <= 0) {
+            return;
+        }
+        int updated = blobMapper.incrementReference(contentHash, count);
+        if (updated == 0) {
+            throw new IllegalStateException("附件内容不存在: " + contentHash);
+        }
+    }
+
+    @Override
+    public void releaseReferences(String contentHash, int count) {
+        if (contentHash == null || count <= 0) {
+            return;
+        }
+        blobMapper.releaseReference(contentHash, count);
+    }
+
+    @Override
+    public Path resolvePath(String contentHash) {
+        return Paths.get(attachmentBasePath).resolve(toRelativePath(contentHash));
+    }
+
+    @Override
+    public int sweepOrphans() {
+        LocalDateTime cutoffTime = LocalDateTime.now().minusMinutes(sweepGraceMinutes);
+        Semaphore inFlight = new Semaphore(Math.max(1, sweepConcurrency));
+        AtomicInteger deletedCount = new AtomicInteger();
+        AtomicLong freedBytes = new AtomicLong();
+        long afterId = 0L;
+
+        while (true) {
+            List<AttachmentBlob> orphans = blobMapper.selectOrphans(cutoffTime, afterId, sweepBatchSize);
+            if (orphans.isEmpty()) {
+                break;
+            }
+
+            List<CompletableFuture<Void>> futures = new ArrayList<>(orphans.size());
+            for (AttachmentBlob orphan : orphans) {
+                inFlight.acquireUninterruptibly();
+                futures.add(CompletableFuture.runAsync(() -> {
+                    try {
+                        awaitSweepPermit();
+                        if (deleteOrphan(orphan)) {
+                            deletedCount.incrementAndGet();
+                            freedBytes.addAndGet(orphan.getFileSize() != null ? orphan.getFileSize() : 0L);
+                        }
+                    } finally {
+                        inFlight.release();
+                    }
+                }, ioExecutor));
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+
+            afterId = orphans.get(orphans.size() - 1).getId();
+            if (orphans.size() < sweepBatchSize) {
+                break;
+            }
+        }
+
+        log.info("附件孤儿内容清理完成: deleted={}, freedBytes={}", deletedCount.get(), freedBytes.get());
+        return deletedCount.get();
+    }
+
+    @Override
+    public Map<String, Object> getStorageStatistics() {
+        Map<String, Object> stats = new HashMap<>();
+        Map<String, Object> raw = blobMapper.selectStorageStatistics();
+        if (raw != null) {
+            stats.putAll(raw);
+            long physical = toLong(raw.get("physical_bytes"));
+            long logical = toLong(raw.get("logical_bytes"));
+            stats.put("saved_bytes", Math.max(0, logical - physical));
+        }
+        stats.put("base_path", attachmentBasePath);
+        return stats;
+    }
+
+    /**
+     * 删除单个孤儿内容：在同一事务内先删除仍为零引用的记录，再删除文件；
+     * 事务提交前记录行保持锁定，同一内容的并发写入等待提交后重新插入并移入自己的文件
+     */
+    private boolean deleteOrphan(AttachmentBlob orphan) {
+        Path path = Paths.get(attachmentBasePath).resolve(orphan.getStoragePath());
+        try {
+            return Boolean.TRUE.equals(newTransaction.execute(status -> {
+                if (blobMapper.deleteIfOrphan(orphan.getId()) == 0) {
+                    // 清理前已被重新引用
+                    return false;
+                }
+                try {
+                    Files.deleteIfExists(path);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e.getMessage(), e);
+                }
+                return true;
+            }));
+        } catch (Exception e) {
+            log.error("删除附件内容文件失败: path={}, error={}", path, e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * 调用方事务回滚时新插入的记录随之撤销，文件无人引用：以零引用重新登记，交给孤儿清理任务回收。
+     * 其他事务已引用该内容时登记不生效
+     */
+    private void registerRollbackCleanup(String contentHash, long size, long storedSize,
+                                         String compression, String relativePath) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status != STATUS_ROLLED_BACK) {
+                    return;
+                }
+                try {
+                    newTransaction.executeWithoutResult(tx -> blobMapper.registerOrphan(IdWorker.getId(),
+                            contentHash, size, storedSize, compression, relativePath));
+                } catch (Exception e) {
+                    log.error("登记回滚后的附件内容失败: hash={}, error={}", contentHash, e.getMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * 清理限速：按固定间隔发放删除许可
+     */
+    private void awaitSweepPermit() {
+        if (sweepRatePerSecond <= 0) {
+            return;
+        }
+        long interval = 1_000_000_000L / sweepRatePerSecond;
+        long now = System.nanoTime();
+        long slot = nextSweepSlot.getAndUpdate(prev -> Math.max(prev, now) + interval);
+        long waitNanos = slot - now;
+        if (waitNanos > 0) {
+            LockSupport.parkNanos(waitNanos);
+        }
+    }
+
+    private boolean isCompressible(String contentType) {
+        if (!compressionEnabled || contentType == null) {
+            return false;
+        }
+        String baseType = contentType.split(";")[0].trim().toLowerCase();
+        return Arrays.asList(compressibleTypes.split(",")).contains(baseType);
+    }
+
+    private void moveAtomically(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * 两级分片相对路径：ab/cd/abcd...
+     */
+    private String toRelativePath(String contentHash) {
+        return contentHash.substring(0, 2) + "/" + contentHash.substring(2, 4) + "/" + contentHash;
+    }
+
+    private MessageDigest newSha256() throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-256算法不可用", e);
+        }
+    }
+
+    private String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0x0f];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0x0f];
+        }
+        return new String(chars);
+    }
+
+    private long toLong(Object value) {
+        return value instanceof Number ? ((Number) value).longValue() : 0L;
+    }
+}
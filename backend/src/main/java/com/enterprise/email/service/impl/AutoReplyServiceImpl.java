@@ -5,41 +5,86 @@ import com.baomidou.mybatisplus.core.conditions.update.UpdateWrapper;
 import com.baomidou.mybatisplus.core.metadata.IPage;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.enterprise.email.autoreply.AutoReplyPolicy;
 import com.enterprise.email.entity.AutoReplySettings;
 import com.enterprise.email.entity.UserAlias;
 import com.enterprise.email.mapper.AutoReplySettingsMapper;
 import com.enterprise.email.mapper.UserAliasMapper;
 import com.enterprise.email.service.AutoReplyService;
 import com.enterprise.email.service.EmailService;
-import lombok.RequiredArgsConstructor;
+import com.enterprise.email.service.ReplySuppressionService;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.util.StringUtils;
 
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
+import java.util.Map;
 
 /**
  * 自动回复设置服务实现类
+ *
+ * 每封来信都要判断是否自动回复，设置按别名地址编译为不可变的策略缓存在本地（包括"没有设置"的结果），
+ * 缓存总量有上限，超出时淘汰最早写入的策略；"窗口内已回复过的发件人"记录在抑制服务中。
+ * 设置变更在事务提交后失效本地缓存，并通过Redis频道通知其他节点失效；每次失效推进缓存代数，
+ * 失效前开始加载的旧数据不会再写入缓存。过期时间兜底其他途径的修改和丢失的通知。
  */
 @Slf4j
 @Service
-@RequiredArgsConstructor
 public class AutoReplyServiceImpl extends ServiceImpl<AutoReplySettingsMapper, AutoReplySettings> 
-        implements AutoReplyService {
+        implements AutoReplyService, MessageListener {
+
+    public static final String POLICY_CHANNEL = "email:auto-reply:policy-evict";
+
+    /**
+     * 失效全部策略的通知内容
+     */
+    private static final String EVICT_ALL = "*";
 
     private final AutoReplySettingsMapper autoReplyMapper;
     private final UserAliasMapper userAliasMapper;
     private final EmailService emailService;
-    private final RedisTemplate<String, Object> redisTemplate;
-
-    private static final String AUTO_REPLY_CACHE_KEY = "auto_reply:sent:";
-    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+    private final ReplySuppressionService replySuppressionService;
+    private final StringRedisTemplate redisTemplate;
+
+    private static final String AUTO_REPLY_RATE_KEY = "auto_reply:";
+
+    // 别名地址（小写） -> 编译后的策略，按写入顺序淘汰；所有访问在policyCache上同步
+    private final PolicyCache policyCache;
+
+    // 缓存代数，每次失效加一
+    private long policyGeneration;
+
+    @Value("${email.auto-reply.policy-ttl-seconds:300}")
+    private long policyTtlSeconds;
+
+    @Value("${email.auto-reply.policy-redis-enabled:true}")
+    private boolean policyRedisEnabled;
+
+    public AutoReplyServiceImpl(AutoReplySettingsMapper autoReplyMapper,
+                                UserAliasMapper userAliasMapper,
+                                EmailService emailService,
+                                ReplySuppressionService replySuppressionService,
+                                StringRedisTemplate redisTemplate,
+                                @Value("${email.auto-reply.policy-cache-size:10000}") int policyCacheSize) {
+        this.autoReplyMapper = autoReplyMapper;
+        this.userAliasMapper = userAliasMapper;
+        this.emailService = emailService;
+        this.replySuppressionService = replySuppressionService;
+        this.redisTemplate = redisTemplate;
+        this.policyCache = new PolicyCache(Math.max(1, policyCacheSize));
+    }
 
     @Override
     @Transactional
@@ -85,6 +130,7 @@ public class AutoReplyServiceImpl extends ServiceImpl<AutoReplySettingsMapper, A
             boolean result = save(autoReply);
             if (result) {
                 log.info("创建自动回复设置成功: aliasId={}", autoReply.getAliasId());
+                evictPolicy(autoReply.getAliasId());
             }
             return result;
 
@@ -113,6 +159,10 @@ public class AutoReplyServiceImpl extends ServiceImpl<AutoReplySettingsMapper, A
             boolean result = updateById(autoReply);
             if (result) {
                 log.info("更新自动回复设置成功: id={}", autoReply.getId());
+                evictPolicy(existing.getAliasId());
+                if (autoReply.getAliasId() != null && !autoReply.getAliasId().equals(existing.getAliasId())) {
+                    evictPolicy(autoReply.getAliasId());
+                }
             }
             return result;
 
@@ -126,11 +176,13 @@ public class AutoReplyServiceImpl extends ServiceImpl<AutoReplySettingsMapper, A
     @Transactional
     public boolean deleteAutoReply(Long autoReplyId) {
         try {
+            // 删除前读取设置，删除后无法再按ID找到别名
+            AutoReplySettings existing = getById(autoReplyId);
             boolean result = removeById(autoReplyId);
             if (result) {
                 log.info("删除自动回复设置成功: id={}", autoReplyId);
                 // 清理相关缓存
-                clearAutoReplyCacheForSetting(autoReplyId);
+                clearAutoReplyCacheForSetting(existing);
             }
             return result;
         } catch (Exception e) {
@@ -178,6 +230,10 @@ public class AutoReplyServiceImpl extends ServiceImpl<AutoReplySettingsMapper, A
             boolean result = updateById(settings);
             if (result) {
                 log.info("切换自动回复状态成功: id={}, isActive={}", autoReplyId, isActive);
+                AutoReplySettings existing = getById(autoReplyId);
+                if (existing != null) {
+                    evictPolicy(existing.getAliasId());
+                }
             }
             return result;
         } catch (Exception e) {
@@ -189,46 +245,30 @@ public class AutoReplyServiceImpl extends ServiceImpl<AutoReplySettingsMapper, A
     @Override
     public boolean shouldSendAutoReply(String aliasAddress, String fromEmail, String subject) {
         try {
-            // 获取激活的自动回复设置
-            AutoReplySettings settings = getActiveAutoReplyByAlias(aliasAddress);
-            if (settings == null || !settings.getIsActive()) {
+            // 获取编译后的自动回复策略，检查状态和时间范围
+            AutoReplyPolicy policy = getPolicy(aliasAddress);
+            if (policy == null || !policy.isEffective(LocalDateTime.now())) {
                 return false;
             }
 
-            // 检查时间范围
-            LocalDateTime now = LocalDateTime.now();
-            if (settings.getStartTime() != null && now.isBefore(settings.getStartTime())) {
-                return false;
-            }
-            if (settings.getEndTime() != null && now.isAfter(settings.getEndTime())) {
+            // 检查排除发件人列表
+            String sender = fromEmail.trim().toLowerCase();
+            if (policy.isExcluded(sender)) {
                 return false;
             }
 
-            // 检查是否只对外部邮件回复
-            if (settings.getExternalOnly() && isInternalEmail(fromEmail)) {
+            // 检查包含主题关键词
+            if (!policy.matchesKeywords(subject)) {
                 return false;
             }
 
-            // 检查排除发件人列表
-            if (StringUtils.hasText(settings.getExcludeSenders())) {
-                List<String> excludedSenders = Arrays.asList(settings.getExcludeSenders().split(","));
-                if (excludedSenders.stream().anyMatch(sender -> fromEmail.toLowerCase().contains(sender.toLowerCase().trim()))) {
-                    return false;
-                }
-            }
-
-            // 检查包含主题关键词
-            if (StringUtils.hasText(settings.getIncludeKeywords())) {
-                List<String> keywords = Arrays.asList(settings.getIncludeKeywords().split(","));
-                boolean matchKeyword = keywords.stream().anyMatch(keyword -> 
-                    subject.toLowerCase().contains(keyword.toLowerCase().trim()));
-                if (!matchKeyword) {
-                    return false;
-                }
+            // 检查发送频率限制
+            if (!checkReplyFrequency(aliasAddress, fromEmail, policy.getReplyFrequency())) {
+                return false;
             }
 
-            // 检查发送频率限制
-            if (!checkReplyFrequency(aliasAddress, fromEmail, settings.getReplyFrequency())) {
+            // 检查是否只对外部邮件回复（需要查询数据库，放在最后）
+            if (policy.isExternalOnly() && isInternalEmail(fromEmail)) {
                 return false;
             }
 
@@ -244,12 +284,18 @@ public class AutoReplyServiceImpl extends ServiceImpl<AutoReplySettingsMapper, A
     @Transactional
     public void sendAutoReply(String aliasAddress, String toEmail, String originalSubject) {
         try {
-            AutoReplySettings settings = getActiveAutoReplyByAlias(aliasAddress);
-            if (settings == null) {
+            AutoReplyPolicy settings = getPolicy(aliasAddress);
+            if (settings == null || !settings.isEffective(LocalDateTime.now())) {
                 log.warn("未找到激活的自动回复设置: {}", aliasAddress);
                 return;
             }
 
+            // 占用发件人的回复频率（多节点同时投递时只有一个节点发送）
+            if (!acquireReplySlot(aliasAddress, toEmail, settings.getReplyFrequency())) {
+                log.debug("超出自动回复频率限制: {} -> {}", aliasAddress, toEmail);
+                return;
+            }
+
             // 构建回复主题
             String replySubject = settings.getReplySubject();
             if (!StringUtils.hasText(replySubject)) {
@@ -269,9 +315,6 @@ public class AutoReplyServiceImpl extends ServiceImpl<AutoReplySettingsMapper, A
                 emailService.sendTextEmail(aliasAddress, toEmail, replySubject, replyContent);
             }
 
-            // 记录发送历史，用于频率控制
-            recordAutoReplySent(aliasAddress, toEmail);
-
             log.info("自动回复发送成功: {} -> {}", aliasAddress, toEmail);
 
         } catch (Exception e) {
@@ -292,6 +335,7 @@ public class AutoReplyServiceImpl extends ServiceImpl<AutoReplySettingsMapper, A
             int count = getBaseMapper().update(null, wrapper);
             if (count > 0) {
                 log.info("更新过期的自动回复设置: count={}", count);
+                afterCommit(EVICT_ALL);
             }
             return count;
 
@@ -354,72 +398,179 @@ public class AutoReplyServiceImpl extends ServiceImpl<AutoReplySettingsMapper, A
     }
 
     /**
-     * 检查回复频率限制
+     * 回复频率对应的滑动窗口（1：每天一次，2：每周一次），不限制时返回null
+     */
+    private Duration replyWindow(Integer frequency) {
+        if (frequency == null) {
+            return null;
+        }
+        switch (frequency) {
+            case 1:
+                return Duration.ofDays(1);
+            case 2:
+                return Duration.ofDays(7);
+            default:
+                return null;
+        }
+    }
+
+    private String replyLimitKey(String aliasAddress, String fromEmail) {
+        return AUTO_REPLY_RATE_KEY + aliasAddress.toLowerCase() + ":" + fromEmail.trim().toLowerCase();
+    }
+
+    /**
+     * 检查回复频率限制（不占用，只查本地记录）
      */
     private boolean checkReplyFrequency(String aliasAddress, String fromEmail, Integer frequency) {
-        if (frequency == null || frequency == 0) {
-            return true; // 无限制
+        Duration window = replyWindow(frequency);
+        return window == null || !replySuppressionService.isSuppressed(replyLimitKey(aliasAddress, fromEmail));
+    }
+
+    /**
+     * 占用回复频率：窗口内对同一发件人只回复一次
+     */
+    private boolean acquireReplySlot(String aliasAddress, String fromEmail, Integer frequency) {
+        Duration window = replyWindow(frequency);
+        return window == null || replySuppressionService.claim(replyLimitKey(aliasAddress, fromEmail), window);
+    }
+
+    /**
+     * 获取别名的编译策略（没有设置时返回null），缓存过期或不存在时从数据库加载
+     */
+    private AutoReplyPolicy getPolicy(String aliasAddress) {
+        String key = aliasAddress.trim().toLowerCase();
+        long now = System.currentTimeMillis();
+        long generation;
+        synchronized (policyCache) {
+            CachedPolicy cached = policyCache.get(key);
+            if (cached != null && cached.expiresAt > now) {
+                return cached.policy;
+            }
+            generation = policyGeneration;
         }
 
-        String cacheKey = AUTO_REPLY_CACHE_KEY + aliasAddress + ":" + fromEmail;
-        
-        try {
-            switch (frequency) {
-                case 1: // 每天一次
-                    String today = LocalDateTime.now().format(DATE_FORMATTER);
-                    String lastReplyDate = (String) redisTemplate.opsForValue().get(cacheKey + ":daily");
-                    return !today.equals(lastReplyDate);
-                    
-                case 2: // 每周一次
-                    Long lastReplyTime = (Long) redisTemplate.opsForValue().get(cacheKey + ":weekly");
-                    if (lastReplyTime == null) {
-                        return true;
-                    }
-                    return System.currentTimeMillis() - lastReplyTime > 7 * 24 * 60 * 60 * 1000L;
-                    
-                default:
-                    return true;
+        AutoReplySettings settings = autoReplyMapper.findByAliasAddress(key);
+        AutoReplyPolicy policy = settings != null ? AutoReplyPolicy.compile(settings) : null;
+        synchronized (policyCache) {
+            // 加载期间发生过失效时读到的可能是旧数据，不写入缓存
+            if (generation == policyGeneration) {
+                policyCache.put(key, new CachedPolicy(policy, now + policyTtlSeconds * 1000));
             }
-        } catch (Exception e) {
-            log.error("检查回复频率限制失败", e);
-            return true; // 出错时允许发送
         }
+        return policy;
+    }
+
+    /**
+     * 在事务提交后失效别名的编译策略（别名地址在事务内读取）
+     */
+    private void evictPolicy(Long aliasId) {
+        if (aliasId == null) {
+            return;
+        }
+        UserAlias alias = userAliasMapper.selectById(aliasId);
+        String address = alias != null && alias.getAliasAddress() != null
+                ? alias.getAliasAddress().trim().toLowerCase() : "";
+        afterCommit(aliasId + ":" + address);
     }
 
     /**
-     * 记录自动回复发送历史
+     * 事务提交后失效本地缓存并通知其他节点；不在事务中时立即执行
      */
-    private void recordAutoReplySent(String aliasAddress, String fromEmail) {
-        String cacheKey = AUTO_REPLY_CACHE_KEY + aliasAddress + ":" + fromEmail;
-        
+    private void afterCommit(String target) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    invalidate(target);
+                }
+            });
+        } else {
+            invalidate(target);
+        }
+    }
+
+    private void invalidate(String target) {
+        evictLocal(target);
+        if (!policyRedisEnabled) {
+            return;
+        }
         try {
-            // 记录每日发送
-            String today = LocalDateTime.now().format(DATE_FORMATTER);
-            redisTemplate.opsForValue().set(cacheKey + ":daily", today, 25, TimeUnit.HOURS);
-            
-            // 记录每周发送
-            redisTemplate.opsForValue().set(cacheKey + ":weekly", System.currentTimeMillis(), 8, TimeUnit.DAYS);
-            
+            redisTemplate.convertAndSend(POLICY_CHANNEL, target);
         } catch (Exception e) {
-            log.error("记录自动回复发送历史失败", e);
+            log.warn("发布自动回复策略失效通知失败，其他节点等待缓存过期: target={}, error={}", target, e.getMessage());
+        }
+    }
+
+    /**
+     * Redis频道消息：其他节点（包括本节点）修改了设置
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        evictLocal(new String(message.getBody(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 失效本地缓存：target为"*"或"别名ID:别名地址"
+     */
+    private void evictLocal(String target) {
+        synchronized (policyCache) {
+            policyGeneration++;
+            if (EVICT_ALL.equals(target)) {
+                policyCache.clear();
+                return;
+            }
+            int separator = target.indexOf(':');
+            if (separator < 0) {
+                return;
+            }
+            String aliasId = target.substring(0, separator);
+            String address = target.substring(separator + 1);
+            policyCache.values().removeIf(cached -> cached.policy != null
+                    && aliasId.equals(String.valueOf(cached.policy.getAliasId())));
+            if (!address.isEmpty()) {
+                policyCache.remove(address);
+            }
         }
     }
 
     /**
      * 清理自动回复缓存
      */
-    private void clearAutoReplyCacheForSetting(Long autoReplyId) {
+    private void clearAutoReplyCacheForSetting(AutoReplySettings settings) {
         try {
-            AutoReplySettings settings = getById(autoReplyId);
             if (settings != null && settings.getAliasId() != null) {
+                evictPolicy(settings.getAliasId());
                 UserAlias alias = userAliasMapper.selectById(settings.getAliasId());
                 if (alias != null) {
-                    String pattern = AUTO_REPLY_CACHE_KEY + alias.getAliasAddress() + ":*";
-                    redisTemplate.delete(redisTemplate.keys(pattern));
+                    replySuppressionService.clearByPrefix(AUTO_REPLY_RATE_KEY + alias.getAliasAddress().toLowerCase() + ":");
                 }
             }
         } catch (Exception e) {
             log.error("清理自动回复缓存失败", e);
         }
     }
+
+    private static final class PolicyCache extends LinkedHashMap<String, CachedPolicy> {
+        private final int capacity;
+
+        private PolicyCache(int capacity) {
+            super(16, 0.75f, false);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedPolicy> eldest) {
+            return size() > capacity;
+        }
+    }
+
+    private static final class CachedPolicy {
+        private final AutoReplyPolicy policy;
+        private final long expiresAt;
+
+        private CachedPolicy(AutoReplyPolicy policy, long expiresAt) {
+            this.policy = policy;
+            this.expiresAt = expiresAt;
+        }
+    }
 }
\ No newline at end of file
@@ -1,15 +1,22 @@
 package com.enterprise.email.service.impl;
 
 import com.enterprise.email.entity.AutoresponderConfig;
+import com.enterprise.email.entity.ProcessingHistory;
+import com.enterprise.email.inbound.ParsedMessage;
 import com.enterprise.email.mapper.AutoresponderConfigMapper;
 import com.enterprise.email.service.AutoresponderService;
+import com.enterprise.email.service.ProcessingHistoryService;
+import com.enterprise.email.service.RateLimitService;
 import com.enterprise.email.service.SmtpService;
+import com.enterprise.email.sieve.ContainsIndex;
+import com.enterprise.email.sieve.ContainsScan;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.time.format.DateTimeFormatter;
@@ -25,14 +32,14 @@ import java.util.regex.Pattern;
 @RequiredArgsConstructor
 public class AutoresponderServiceImpl implements AutoresponderService {
 
+    private static final String RATE_LIMIT_KEY = "autoresponder:";
+
     private final AutoresponderConfigMapper autoresponderConfigMapper;
     private final SmtpService smtpService;
+    private final ContainsIndex containsIndex;
+    private final ProcessingHistoryService historyService;
+    private final RateLimitService rateLimitService;
     private final ObjectMapper objectMapper = new ObjectMapper();
-    
-    // 回复历史缓存
-    private final Map<Long, List<Map<String, Object>>> replyHistory = new HashMap<>();
-    // 发送记录缓存
-    private final Map<String, Map<String, LocalDateTime>> sendRecords = new HashMap<>();
 
     @Override
     public boolean createAutoresponderConfig(AutoresponderConfig config) {
@@ -107,14 +114,22 @@ public class AutoresponderServiceImpl implements AutoresponderService {
 
     @Override
     public Map<String, Object> processAutoReply(String emailContent, Long userAliasId) {
+        return processAutoReply(ParsedMessage.parse(emailContent), userAliasId);
+    }
+
+    @Override
+    public Map<String, Object> processAutoReply(ParsedMessage message, Long userAliasId) {
         Map<String, Object> result = new HashMap<>();
         List<Map<String, Object>> sentReplies = new ArrayList<>();
         
         try {
             List<AutoresponderConfig> configs = getUserActiveConfigs(userAliasId);
             
-            // 解析邮件内容
-            Map<String, Object> emailData = parseEmailContent(emailContent);
+            Map<String, Object> emailData = emailData(message);
+            
+            // 触发关键字统一登记，每个头部字段只扫描一次（与同一封邮件的其他过滤阶段共用）
+            registerContainsNeedles(userAliasId, configs);
+            emailData.put("containsScan", message.containsScan(userAliasId, containsIndex));
             
             boolean replySent = false;
             
@@ -129,6 +144,12 @@ public class AutoresponderServiceImpl implements AutoresponderService {
                     Map<String, Object> shouldReply = shouldSendAutoReply(config, emailData);
                     
                     if (Boolean.TRUE.equals(shouldReply.get("shouldSend"))) {
+                        // 占用发件人回复间隔（并发投递时只有一个节点能拿到）
+                        if (!acquireReplySlot(config, (String) emailData.get("from"))) {
+                            updateSkipStatistics(config, "超出频率限制");
+                            continue;
+                        }
+                        
                         // 发送自动回复
                         boolean sent = sendAutoReply(config, emailData);
                         
@@ -188,7 +209,7 @@ public class AutoresponderServiceImpl implements AutoresponderService {
             }
             
             // 解析邮件内容
-            Map<String, Object> emailData = parseEmailContent(emailContent);
+            Map<String, Object> emailData = emailData(ParsedMessage.parse(emailContent));
             
             // 检查是否应该发送回复
             Map<String, Object> shouldReply = shouldSendAutoReply(config, emailData);
@@ -247,9 +268,6 @@ public class AutoresponderServiceImpl implements AutoresponderService {
             boolean sent = smtpService.sendEmail(replyEmail);
             
             if (sent) {
-                // 记录发送记录
-                recordSendRecord(config.getId(), fromEmail);
-                
                 // 更新配置统计
                 config.setCurrentReplies(config.getCurrentReplies() + 1);
                 config.setTotalReplies(config.getTotalReplies() + 1);
@@ -601,31 +619,12 @@ public class AutoresponderServiceImpl implements AutoresponderService {
 
     @Override
     public List<Map<String, Object>> getAutoReplyHistory(Long userAliasId, int limit) {
-        List<Map<String, Object>> history = replyHistory.get(userAliasId);
-        if (history == null) {
-            return new ArrayList<>();
-        }
-        
-        int start = Math.max(0, history.size() - limit);
-        return new ArrayList<>(history.subList(start, history.size()));
+        return historyService.getRecent(ProcessingHistory.SOURCE_AUTORESPONDER, userAliasId, limit);
     }
 
     @Override
     public boolean cleanupAutoReplyHistory(Long userAliasId, int days) {
-        try {
-            List<Map<String, Object>> history = replyHistory.get(userAliasId);
-            if (history != null) {
-                LocalDateTime cutoff = LocalDateTime.now().minusDays(days);
-                history.removeIf(record -> {
-                    LocalDateTime recordTime = (LocalDateTime) record.get("sentAt");
-                    return recordTime != null && recordTime.isBefore(cutoff);
-                });
-            }
-            return true;
-        } catch (Exception e) {
-            log.error("清理自动回复历史失败: {}", e.getMessage(), e);
-            return false;
-        }
+        return historyService.cleanup(ProcessingHistory.SOURCE_AUTORESPONDER, userAliasId, days);
     }
 
     @Override
@@ -638,6 +637,7 @@ public class AutoresponderServiceImpl implements AutoresponderService {
                 config.setTotalTriggers(0L);
                 config.setSkippedCount(0L);
                 config.setErrorCount(0L);
+                rateLimitService.resetByPrefix(RATE_LIMIT_KEY + configId + ":");
                 return updateAutoresponderConfig(config);
             }
         } catch (Exception e) {
@@ -811,44 +811,12 @@ public class AutoresponderServiceImpl implements AutoresponderService {
         if (config.getPriority() == null) config.setPriority(100);
     }
 
-    private Map<String, Object> parseEmailContent(String emailContent) {
-        Map<String, Object> emailData = new HashMap<>();
-        
-        try {
-            String[] lines = emailContent.split("\n");
-            Map<String, String> headers = new HashMap<>();
-            StringBuilder body = new StringBuilder();
-            boolean inBody = false;
-            
-            for (String line : lines) {
-                if (!inBody && line.trim().isEmpty()) {
-                    inBody = true;
-                    continue;
-                }
-                
-                if (!inBody) {
-                    int colonIndex = line.indexOf(':');
-                    if (colonIndex > 0) {
-                        String headerName = line.substring(0, colonIndex).trim().toLowerCase();
-                        String headerValue = line.substring(colonIndex + 1).trim();
-                        headers.put(headerName, headerValue);
-                    }
-                } else {
-                    body.append(line).append("\n");
-                }
-            }
-            
-            emailData.put("headers", headers);
-            emailData.put("content", body.toString());
-            emailData.put("from", headers.get("from"));
-            emailData.put("to", headers.get("to"));
-            emailData.put("subject", headers.get("subject"));
-            emailData.put("date", headers.get("date"));
-            
-        } catch (Exception e) {
-            log.error("解析邮件内容失败: {}", e.getMessage(), e);
-        }
-        
+    /**
+     * 自动回复使用的邮件数据（content为正文）
+     */
+    private Map<String, Object> emailData(ParsedMessage message) {
+        Map<String, Object> emailData = message.toEmailData();
+        emailData.put("content", message.getBody());
         return emailData;
     }
 
@@ -905,23 +873,30 @@ public class AutoresponderServiceImpl implements AutoresponderService {
         return false;
     }
 
+    private static String replyLimitKey(Long configId, String fromEmail) {
+        return RATE_LIMIT_KEY + configId + ":" + (fromEmail != null ? fromEmail.trim().toLowerCase() : "");
+    }
+
+    /**
+     * 检查回复间隔内是否已回复过该发件人（不占用）
+     */
     private boolean checkFrequencyLimit(AutoresponderConfig config, String fromEmail) {
-        String key = config.getId() + "_" + fromEmail;
-        Map<String, LocalDateTime> records = sendRecords.get(key);
-        
-        if (records == null) {
+        if (config.getReplyInterval() == null || config.getReplyInterval() <= 0) {
             return true;
         }
-        
-        LocalDateTime lastSent = records.get("lastSent");
-        if (lastSent == null) {
+        return rateLimitService.isAllowed(replyLimitKey(config.getId(), fromEmail), 1,
+                Duration.ofHours(config.getReplyInterval()));
+    }
+
+    /**
+     * 占用该发件人在回复间隔内唯一的一次回复（所有节点共享）
+     */
+    private boolean acquireReplySlot(AutoresponderConfig config, String fromEmail) {
+        if (config.getReplyInterval() == null || config.getReplyInterval() <= 0) {
             return true;
         }
-        
-        LocalDateTime now = LocalDateTime.now();
-        long hoursSinceLastSent = java.time.Duration.between(lastSent, now).toHours();
-        
-        return hoursSinceLastSent >= config.getReplyInterval();
+        return rateLimitService.tryAcquire(replyLimitKey(config.getId(), fromEmail), 1,
+                Duration.ofHours(config.getReplyInterval()));
     }
 
     private boolean isInActiveTimeRange(AutoresponderConfig config) {
@@ -993,6 +968,12 @@ public class AutoresponderServiceImpl implements AutoresponderService {
         String operator = (String) condition.get("operator");
         String value = (String) condition.get("value");
         
+        String field = triggerField(condition);
+        if ("contains".equals(operator) && field != null && value != null
+                && emailData.get("containsScan") instanceof ContainsScan) {
+            return ((ContainsScan) emailData.get("containsScan")).contains(field, value, false);
+        }
+        
         switch (type) {
             case "subject":
                 String subject = (String) emailData.get("subject");
@@ -1011,6 +992,58 @@ public class AutoresponderServiceImpl implements AutoresponderService {
         }
     }
 
+    /**
+     * 触发条件对应的头部字段（不支持的类型返回null）
+     */
+    private String triggerField(Map<String, Object> condition) {
+        Object type = condition.get("type");
+        if ("subject".equals(type)) {
+            return ContainsIndex.headerField("subject");
+        }
+        if ("sender".equals(type)) {
+            return ContainsIndex.headerField("from");
+        }
+        if ("header".equals(type) && condition.get("header") != null) {
+            return ContainsIndex.headerField(condition.get("header").toString());
+        }
+        return null;
+    }
+
+    /**
+     * 登记启用配置中的"包含"关键字；签名由配置ID与条件内容哈希组成，未变化时不重新解析
+     */
+    private void registerContainsNeedles(Long userAliasId, List<AutoresponderConfig> configs) {
+        StringBuilder signature = new StringBuilder();
+        for (AutoresponderConfig config : configs) {
+            if (!"ALL".equals(config.getTriggerType()) && config.getTriggerConditions() != null) {
+                signature.append(config.getId()).append(':').append(config.getTriggerConditions().hashCode()).append(';');
+            }
+        }
+        containsIndex.update(userAliasId, ContainsIndex.SOURCE_AUTORESPONDER, signature.toString(), () -> {
+            List<ContainsIndex.Needle> needles = new ArrayList<>();
+            for (AutoresponderConfig config : configs) {
+                if ("ALL".equals(config.getTriggerType()) || config.getTriggerConditions() == null) {
+                    continue;
+                }
+                try {
+                    List<Map<String, Object>> conditions = objectMapper.readValue(
+                        config.getTriggerConditions(), new TypeReference<List<Map<String, Object>>>() {}
+                    );
+                    for (Map<String, Object> condition : conditions) {
+                        String field = triggerField(condition);
+                        Object value = condition.get("value");
+                        if ("contains".equals(condition.get("operator")) && field != null && value != null) {
+                            needles.add(new ContainsIndex.Needle(field, value.toString(), false));
+                        }
+                    }
+                } catch (Exception e) {
+                    log.warn("解析触发条件失败: configId={}, error={}", config.getId(), e.getMessage());
+                }
+            }
+            return needles;
+        });
+    }
+
     private boolean evaluateStringCondition(String actual, String expected, String operator) {
         if (actual == null) {
             return false;
@@ -1061,21 +1094,9 @@ public class AutoresponderServiceImpl implements AutoresponderService {
         }
     }
 
-    private void recordSendRecord(Long configId, String email) {
-        String key = configId + "_" + email;
-        Map<String, LocalDateTime> record = new HashMap<>();
-        record.put("lastSent", LocalDateTime.now());
-        sendRecords.put(key, record);
-    }
-
     private void recordAutoReplyHistory(Long userAliasId, Map<String, Object> replyInfo) {
-        List<Map<String, Object>> history = replyHistory.computeIfAbsent(userAliasId, k -> new ArrayList<>());
-        history.add(replyInfo);
-        
-        // 保持历史记录在合理范围内
-        if (history.size() > 1000) {
-            history.subList(0, history.size() - 1000).clear();
-        }
+        Object refId = replyInfo.get("configId");
+        historyService.record(ProcessingHistory.SOURCE_AUTORESPONDER, userAliasId, refId instanceof Long ? (Long) refId : null, replyInfo);
     }
 
     private Map<String, Object> getUserData(Long userAliasId) {
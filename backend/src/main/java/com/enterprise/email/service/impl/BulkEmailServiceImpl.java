@@ -0,0 +1,361 @@
+package com.enterprise.email.service.impl;
+
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.baomidou.mybatisplus.core.toolkit.IdWorker;
+import com.enterprise.email.dto.BulkJobStatus;
+import com.enterprise.email.dto.BulkOperationRequest;
+import com.enterprise.email.entity.Email;
+import com.enterprise.email.mapper.EmailMapper;
+import com.enterprise.email.service.BulkEmailService;
+import com.enterprise.email.service.EmailThreadService;
+import com.enterprise.email.service.PushService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.StringUtils;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * 批量邮件操作服务实现类
+ *
+ * 选中的邮件按主键升序分批处理：每批在一个事务中读取当前状态、只更新真正会变化的邮件，
+ * 并按别名汇总未读计数增量随事务提交推送，因此客户端计数与邮件表逐批保持一致。
+ * 按筛选条件选取时以上一批的最大ID为游标，被移出筛选范围的邮件不会导致跳页或重复。
+ */
+@Slf4j
+@Service
+public class BulkEmailServiceImpl implements BulkEmailService {
+
+    private static final Set<String> OPERATIONS = Set.of(
+            "read", "unread", "important", "unimportant", "delete", "restore", "move");
+    private static final Set<String> FOLDERS = Set.of("inbox", "sent", "draft", "trash");
+    private static final long JOB_RETENTION_MINUTES = 60;
+
+    private final EmailMapper emailMapper;
+    private final EmailThreadService emailThreadService;
+    private final PushService pushService;
+    private final TransactionTemplate transactionTemplate;
+    private final Executor taskExecutor;
+
+    private final Map<String, BulkJobStatus> jobs = new ConcurrentHashMap<>();
+    private final Set<String> cancelRequests = ConcurrentHashMap.newKeySet();
+
+    @Value("${email.bulk.sync-threshold:200}")
+    private int syncThreshold;
+
+    @Value("${email.bulk.chunk-size:500}")
+    private int chunkSize;
+
+    @Value("${email.bulk.pause-millis:20}")
+    private long pauseMillis;
+
+    public BulkEmailServiceImpl(EmailMapper emailMapper,
+                                EmailThreadService emailThreadService,
+                                PushService pushService,
+                                TransactionTemplate transactionTemplate,
+                                @Qualifier("emailTaskExecutor") Executor taskExecutor) {
+        this.emailMapper = emailMapper;
+        this.emailThreadService = emailThreadService;
+        this.pushService = pushService;
+        this.transactionTemplate = transactionTemplate;
+        this.taskExecutor = taskExecutor;
+    }
+
+    @Override
+    public BulkJobStatus submit(BulkOperationRequest request, Long userId) {
+        String operation = request.getOperation();
+        if (operation == null || !OPERATIONS.contains(operation)) {
+            throw new RuntimeException("不支持的操作类型: " + operation);
+        }
+        String targetType = resolveTargetType(operation, request.getTargetType());
+
+        List<Long> emailIds = null;
+        long total;
+        if (request.getEmailIds() != null && !request.getEmailIds().isEmpty()) {
+            emailIds = new ArrayList<>(new TreeSet<>(request.getEmailIds()));
+            total = emailIds.size();
+        } else {
+            total = emailMapper.selectCount(filterWrapper(request, userId, 0L));
+        }
+
+        BulkJobStatus status = new BulkJobStatus();
+        status.setJobId(String.valueOf(IdWorker.getId()));
+        status.setUserId(userId);
+        status.setOperation(operation);
+        status.setStatus(BulkJobStatus.STATUS_RUNNING);
+        status.setTotal(total);
+        status.setStartTime(LocalDateTime.now());
+
+        if (total <= syncThreshold) {
+            execute(status, request, emailIds, targetType, true);
+            if (BulkJobStatus.STATUS_FAILED.equals(status.getStatus())) {
+                throw new RuntimeException("批量操作失败: " + status.getMessage());
+            }
+            return status;
+        }
+
+        pruneJobs();
+        jobs.put(status.getJobId(), status);
+        List<Long> selectedIds = emailIds;
+        taskExecutor.execute(() -> execute(status, request, selectedIds, targetType, false));
+        log.info("批量操作转为后台任务: jobId={}, userId={}, operation={}, total={}",
+                status.getJobId(), userId, operation, total);
+        return status;
+    }
+
+    @Override
+    public BulkJobStatus getJob(String jobId, Long userId) {
+        BulkJobStatus status = jobs.get(jobId);
+        return status != null && status.getUserId().equals(userId) ? status : null;
+    }
+
+    @Override
+    public boolean cancelJob(String jobId, Long userId) {
+        BulkJobStatus status = getJob(jobId, userId);
+        if (status == null || !BulkJobStatus.STATUS_RUNNING.equals(status.getStatus())) {
+            return false;
+        }
+        cancelRequests.add(jobId);
+        return true;
+    }
+
+    private void execute(BulkJobStatus status, BulkOperationRequest request, List<Long> emailIds,
+                         String targetType, boolean sync) {
+        Long userId = status.getUserId();
+        String operation = status.getOperation();
+        long afterId = 0L;
+        int index = 0;
+
+        try {
+            while (true) {
+                if (cancelRequests.remove(status.getJobId())) {
+                    status.setStatus(BulkJobStatus.STATUS_CANCELLED);
+                    break;
+                }
+
+                List<Long> slice = null;
+                if (emailIds != null) {
+                    if (index >= emailIds.size()) {
+                        break;
+                    }
+                    slice = emailIds.subList(index, Math.min(index + chunkSize, emailIds.size()));
+                    index += slice.size();
+                }
+
+                List<Long> chunkIds = slice;
+                long cursor = afterId;
+                ChunkResult result = transactionTemplate.execute(tx ->
+                        applyChunk(request, userId, operation, targetType, chunkIds, cursor, sync));
+                if (result == null || (emailIds == null && result.selected == 0)) {
+                    break;
+                }
+
+                afterId = Math.max(afterId, result.lastId);
+                status.setProcessed(status.getProcessed() + (slice != null ? slice.size() : result.selected));
+                status.setUpdated(status.getUpdated() + result.updated);
+                status.setChunks(status.getChunks() + 1);
+
+                if (emailIds == null && result.selected < chunkSize) {
+                    break;
+                }
+                if (!sync && pauseMillis > 0) {
+                    Thread.sleep(pauseMillis);
+                }
+            }
+
+            if (BulkJobStatus.STATUS_RUNNING.equals(status.getStatus())) {
+                status.setStatus(BulkJobStatus.STATUS_COMPLETED);
+            }
+            if (!sync) {
+                log.info("批量操作任务结束: jobId={}, status={}, processed={}, updated={}",
+                        status.getJobId(), status.getStatus(), status.getProcessed(), status.getUpdated());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            status.setStatus(BulkJobStatus.STATUS_CANCELLED);
+        } catch (Exception e) {
+            log.error("批量操作失败: jobId={}, userId={}, operation={}", status.getJobId(), userId, operation, e);
+            status.setStatus(BulkJobStatus.STATUS_FAILED);
+            status.setMessage(e.getMessage());
+        } finally {
+            cancelRequests.remove(status.getJobId());
+            status.setEndTime(LocalDateTime.now());
+        }
+    }
+
+    /**
+     * 处理一批邮件：读取当前状态，更新发生变化的邮件，维护会话聚合并推送计数增量
+     */
+    private ChunkResult applyChunk(BulkOperationRequest request, Long userId, String operation, String targetType,
+                                   List<Long> chunkIds, long afterId, boolean publishFlags) {
+        LambdaQueryWrapper<Email> wrapper;
+        if (chunkIds != null) {
+            wrapper = new LambdaQueryWrapper<>();
+            wrapper.eq(Email::getUserId, userId)
+                   .in(Email::getId, chunkIds);
+        } else {
+            wrapper = filterWrapper(request, userId, afterId);
+            wrapper.orderByAsc(Email::getId)
+                   .last("LIMIT " + chunkSize);
+        }
+        wrapper.select(Email::getId, Email::getUserId, Email::getAliasId, Email::getIsRead,
+                Email::getIsImportant, Email::getEmailType, Email::getThreadId);
+        List<Email> rows = emailMapper.selectList(wrapper);
+
+        ChunkResult result = new ChunkResult();
+        result.selected = rows.size();
+        if (rows.isEmpty()) {
+            return result;
+        }
+
+        List<Email> changed = new ArrayList<>();
+        Map<Long, Integer> unreadDeltas = new HashMap<>();
+        Set<Long> threadIds = new HashSet<>();
+        for (Email email : rows) {
+            result.lastId = Math.max(result.lastId, email.getId());
+            if (!changes(email, operation, targetType)) {
+                continue;
+            }
+            changed.add(email);
+            int delta = unreadDelta(email, operation, targetType);
+            if (delta != 0 && email.getAliasId() != null) {
+                unreadDeltas.merge(email.getAliasId(), delta, Integer::sum);
+            }
+            if (email.getThreadId() != null && ("read".equals(operation) || "unread".equals(operation))) {
+                threadIds.add(email.getThreadId());
+            }
+        }
+        if (changed.isEmpty()) {
+            return result;
+        }
+
+        List<Long> changedIds = new ArrayList<>(changed.size());
+        for (Email email : changed) {
+            changedIds.add(email.getId());
+        }
+        result.updated = emailMapper.batchUpdateEmails(changedIds, operation, targetType, userId);
+
+        if (!threadIds.isEmpty()) {
+            emailThreadService.refreshThreads(threadIds);
+        }
+        unreadDeltas.forEach((aliasId, delta) -> pushService.publishCounterDelta(userId, aliasId, delta, 0));
+
+        // 少量邮件同步处理时逐封推送标记变化，后台任务只推送计数增量，客户端据此刷新列表
+        if (publishFlags) {
+            for (Email email : changed) {
+                publishFlagChange(email, operation, targetType);
+            }
+        }
+        return result;
+    }
+
+    private LambdaQueryWrapper<Email> filterWrapper(BulkOperationRequest request, Long userId, long afterId) {
+        LambdaQueryWrapper<Email> wrapper = new LambdaQueryWrapper<>();
+        wrapper.eq(Email::getUserId, userId)
+               .gt(afterId > 0, Email::getId, afterId)
+               .eq(request.getAliasId() != null, Email::getAliasId, request.getAliasId())
+               .eq(StringUtils.hasText(request.getType()), Email::getEmailType, request.getType())
+               .lt(request.getBefore() != null, Email::getReceivedTime, request.getBefore());
+
+        if (StringUtils.hasText(request.getKeyword())) {
+            String keyword = request.getKeyword();
+            wrapper.and(w -> w.like(Email::getSubject, keyword)
+                    .or().like(Email::getSender, keyword)
+                    .or().like(Email::getRecipient, keyword)
+                    .or().like(Email::getContentText, keyword));
+        }
+        return wrapper;
+    }
+
+    private String resolveTargetType(String operation, String targetType) {
+        switch (operation) {
+            case "delete":
+                return "trash";
+            case "restore":
+                return "inbox";
+            case "move":
+                if (targetType == null || !FOLDERS.contains(targetType)) {
+                    throw new RuntimeException("不支持的目标文件夹: " + targetType);
+                }
+                return targetType;
+            default:
+                return null;
+        }
+    }
+
+    private boolean changes(Email email, String operation, String targetType) {
+        boolean read = Boolean.TRUE.equals(email.getIsRead());
+        boolean important = Boolean.TRUE.equals(email.getIsImportant());
+        switch (operation) {
+            case "read":
+                return !read;
+            case "unread":
+                return read;
+            case "important":
+                return !important;
+            case "unimportant":
+                return important;
+            default:
+                return !targetType.equals(email.getEmailType());
+        }
+    }
+
+    /**
+     * 别名未读计数（收件箱未读邮件）的变化量
+     */
+    private int unreadDelta(Email email, String operation, String targetType) {
+        boolean read = Boolean.TRUE.equals(email.getIsRead());
+        boolean inbox = "inbox".equals(email.getEmailType());
+        boolean before = !read && inbox;
+        boolean after;
+        switch (operation) {
+            case "read":
+                after = false;
+                break;
+            case "unread":
+                after = inbox;
+                break;
+            case "important":
+            case "unimportant":
+                after = before;
+                break;
+            default:
+                after = !read && "inbox".equals(targetType);
+                break;
+        }
+        return (after ? 1 : 0) - (before ? 1 : 0);
+    }
+
+    private void publishFlagChange(Email email, String operation, String targetType) {
+        switch (operation) {
+            case "read":
+            case "unread":
+                pushService.publishFlagChange(email, "read", "read".equals(operation));
+                break;
+            case "important":
+            case "unimportant":
+                pushService.publishFlagChange(email, "important", "important".equals(operation));
+                break;
+            default:
+                pushService.publishFlagChange(email, "folder", targetType);
+                break;
+        }
+    }
+
+    private void pruneJobs() {
+        LocalDateTime expireBefore = LocalDateTime.now().minusMinutes(JOB_RETENTION_MINUTES);
+        jobs.values().removeIf(job -> job.getEndTime() != null && job.getEndTime().isBefore(expireBefore));
+    }
+
+    private static class ChunkResult {
+        int selected;
+        int updated;
+        long lastId;
+    }
+}
@@ -0,0 +1,813 @@
+package com.enterprise.email.service.impl;
+
+import com.baomidou.mybatisplus.core.conditions.update.LambdaUpdateWrapper;
+import com.baomidou.mybatisplus.core.toolkit.IdWorker;
+import com.enterprise.email.clamav.BoundedScanExecutor;
+import com.enterprise.email.clamav.ClamdClient;
+import com.enterprise.email.clamav.ClamdScanResult;
+import com.enterprise.email.clamav.ContentHash;
+import com.enterprise.email.clamav.ScanVerdictCache;
+import com.enterprise.email.entity.ClamAVConfig;
+import com.enterprise.email.entity.ClamAVFileState;
+import com.enterprise.email.entity.ClamAVScanJob;
+import com.enterprise.email.job.JobHandle;
+import com.enterprise.email.job.JobStore;
+import com.enterprise.email.job.LeasedJobRunner;
+import com.enterprise.email.mapper.ClamAVFileStateMapper;
+import com.enterprise.email.mapper.ClamAVScanJobMapper;
+import com.enterprise.email.service.ClamAVScanJobService;
+import com.enterprise.email.service.ClamAVService;
+import com.enterprise.email.service.JobLeaseService;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 病毒扫描任务服务实现类
+ *
+ * 遍历线程按名称排序深度优先遍历目录，逐个产出文件，交给线程数等于clamd MaxThreads的扫描执行器，在途文件数有上限，
+ * 遍历不会超前于扫描。每个文件按遍历顺序编号，完成结果按编号归并，连续完成前缀中的最后一个文件路径即检查点，
+ * 与该前缀内文件的扫描状态和计数一起定期写入；继续任务时按同样顺序遍历并跳过检查点及之前的路径，
+ * 两次运行之间增删文件不影响其余文件的位置。
+ * 文件状态表记录每个文件上次扫描时的大小、修改时间、内容摘要和病毒库版本：三者与病毒库版本都未变化的文件直接跳过，
+ * 只有修改时间变化而内容摘要相同的文件也不再发送clamd；其余文件经扫描结论缓存扫描（相同内容只扫描一次）。
+ * 任务只记录发现的病毒，不移动或删除文件，由管理员根据报告处理。
+ * 任务的认领、续租、取消和结束由 {@link LeasedJobRunner} 处理，同一域名同时只运行一个任务，每个检查点续租。
+ */
+@Slf4j
+@Service
+public class ClamAVScanJobServiceImpl implements ClamAVScanJobService {
+
+    private static final int STATE_BATCH = 500;
+    // 遍历顺序上允许领先检查点的文件数，限制乱序完成结果占用的内存
+    private static final long MAX_LEAD = 10000;
+    private static final int MAX_REPORT = 1000;
+
+    private final ClamAVScanJobMapper jobMapper;
+    private final ClamAVFileStateMapper stateMapper;
+    private final ClamAVService clamAVService;
+    private final ClamdClient clamdClient;
+    private final ScanVerdictCache verdictCache;
+    // 范围键为域名
+    private final LeasedJobRunner<String, RunState> runner;
+
+    @Value("${email.clamav.scan-job.checkpoint-millis:5000}")
+    private long checkpointMillis;
+
+    @Value("${email.clamav.scan-job.queue-per-thread:4}")
+    private int queuePerThread;
+
+    public ClamAVScanJobServiceImpl(ClamAVScanJobMapper jobMapper,
+                                    ClamAVFileStateMapper stateMapper,
+                                    ClamAVService clamAVService,
+                                    ClamdClient clamdClient,
+                                    ScanVerdictCache verdictCache,
+                                    JobLeaseService jobLeaseService,
+                                    @Qualifier("emailTaskExecutor") Executor taskExecutor,
+                                    @Value("${email.clamav.scan-job.lease-seconds:120}") long leaseSeconds) {
+        this.jobMapper = jobMapper;
+        this.stateMapper = stateMapper;
+        this.clamAVService = clamAVService;
+        this.clamdClient = clamdClient;
+        this.verdictCache = verdictCache;
+        // 租约时长需大于检查点间隔
+        this.runner = new LeasedJobRunner<>("clamav-scan", new ScanJobStore(), jobLeaseService, taskExecutor,
+                leaseSeconds, "该域名已有正在运行的扫描任务");
+    }
+
+    @Override
+    public ClamAVScanJob startScanJob(String domain, String rootPath, boolean recursive) {
+        ClamAVConfig config = clamAVService.getClamAVConfig(domain);
+        if (config == null || !Boolean.TRUE.equals(config.getEnabled())) {
+            throw new RuntimeException("ClamAV配置不存在或未启用");
+        }
+        Path root = Paths.get(rootPath).toAbsolutePath().normalize();
+        if (!Files.isDirectory(root)) {
+            throw new RuntimeException("扫描目录不存在");
+        }
+        if (runner.isRunning(domain) || jobMapper.countActiveByDomain(domain, 0L) > 0) {
+            throw new RuntimeException("该域名已有正在运行的扫描任务");
+        }
+
+        LocalDateTime now = LocalDateTime.now();
+        ClamAVScanJob job = new ClamAVScanJob();
+        job.setDomain(domain);
+        job.setRootPath(root.toString());
+        job.setRecursive(recursive);
+        job.setStatus(ClamAVScanJob.STATUS_PENDING);
+        job.setCheckpointCount(0L);
+        job.setTotalFiles(0L);
+        job.setScannedCount(0L);
+        job.setSkippedCount(0L);
+        job.setInfectedCount(0L);
+        job.setOversizeCount(0L);
+        job.setErrorCount(0L);
+        job.setBytesScanned(0L);
+        job.setCreateTime(now);
+        job.setUpdateTime(now);
+        jobMapper.insert(job);
+
+        try {
+            launch(job);
+        } catch (RuntimeException e) {
+            ClamAVScanJob failed = new ClamAVScanJob();
+            failed.setId(job.getId());
+            failed.setStatus(ClamAVScanJob.STATUS_FAILED);
+            failed.setErrorMessage(truncate(e.getMessage()));
+            failed.setCompletedTime(LocalDateTime.now());
+            failed.setUpdateTime(LocalDateTime.now());
+            jobMapper.updateById(failed);
+            throw e;
+        }
+        log.info("病毒扫描任务已创建: jobId={}, domain={}, root={}", job.getId(), domain, job.getRootPath());
+        return job;
+    }
+
+    @Override
+    public boolean cancelScanJob(Long jobId) {
+        ClamAVScanJob job = jobMapper.selectById(jobId);
+        if (job == null || ClamAVScanJob.STATUS_COMPLETED.equals(job.getStatus())) {
+            return false;
+        }
+        runner.cancel(job.getDomain(), jobId);
+
+        // 写入取消状态，其他节点上运行的任务在下一个检查点续租失败后停止
+        ClamAVScanJob update = new ClamAVScanJob();
+        update.setId(jobId);
+        update.setStatus(ClamAVScanJob.STATUS_CANCELLED);
+        update.setUpdateTime(LocalDateTime.now());
+        jobMapper.updateById(update);
+        log.info("已请求取消病毒扫描任务: jobId={}", jobId);
+        return true;
+    }
+
+    @Override
+    public ClamAVScanJob resumeScanJob(Long jobId) {
+        ClamAVScanJob job = jobMapper.selectById(jobId);
+        if (job == null) {
+            throw new RuntimeException("病毒扫描任务不存在");
+        }
+        if (ClamAVScanJob.STATUS_COMPLETED.equals(job.getStatus())) {
+            throw new RuntimeException("病毒扫描任务已完成");
+        }
+        launch(job);
+        log.info("继续病毒扫描任务: jobId={}, checkpoint={}", jobId, job.getCheckpointCount());
+        return job;
+    }
+
+    @Override
+    public ClamAVScanJob getScanJob(Long jobId) {
+        return jobMapper.selectById(jobId);
+    }
+
+    @Override
+    public Map<String, Object> getScanJobProgress(Long jobId) {
+        ClamAVScanJob job = jobMapper.selectById(jobId);
+        if (job == null) {
+            throw new RuntimeException("病毒扫描任务不存在");
+        }
+        Map<String, Object> progress = new LinkedHashMap<>();
+        progress.put("jobId", job.getId());
+        progress.put("domain", job.getDomain());
+        progress.put("rootPath", job.getRootPath());
+        progress.put("status", job.getStatus());
+        progress.put("checkpointCount", job.getCheckpointCount());
+        progress.put("totalFiles", job.getTotalFiles());
+        progress.put("scannedCount", job.getScannedCount());
+        progress.put("skippedCount", job.getSkippedCount());
+        progress.put("infectedCount", job.getInfectedCount());
+        progress.put("oversizeCount", job.getOversizeCount());
+        progress.put("errorCount", job.getErrorCount());
+        progress.put("bytesScanned", job.getBytesScanned());
+        progress.put("errorMessage", job.getErrorMessage());
+        progress.put("startedTime", job.getStartedTime());
+        progress.put("completedTime", job.getCompletedTime());
+        progress.put("owner", job.getOwner());
+
+        JobHandle<RunState> running = runner.get(job.getDomain(), jobId);
+        progress.put("runningOnThisNode", running != null);
+        if (running != null) {
+            Progress current = running.getState().progress;
+            double seconds = Math.max(1e-3, (System.nanoTime() - running.getStartedNanos()) / 1e9);
+            if (current != null) {
+                progress.put("filesPerSecond", Math.round(current.processedThisRun() / seconds));
+                progress.put("bytesPerSecond", Math.round(current.bytesThisRun() / seconds));
+                progress.put("walkedFiles", current.walked());
+            }
+            BoundedScanExecutor executor = running.getState().executor;
+            progress.put("inFlight", executor != null ? executor.inFlight() : 0);
+        }
+        return progress;
+    }
+
+    @Override
+    public List<ClamAVFileState> getScanJobInfections(Long jobId, int limit) {
+        return stateMapper.selectInfectedByJob(jobId, Math.max(1, Math.min(limit, MAX_REPORT)));
+    }
+
+    @Override
+    public List<ClamAVScanJob> getScanJobs(String domain, int limit) {
+        return jobMapper.selectRecentByDomain(domain, limit);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // 运行中的任务保持RUNNING状态退出，其他节点或重启后可从检查点继续
+        runner.shutdown();
+    }
+
+    private void launch(ClamAVScanJob job) {
+        runner.launch(job.getId(), job.getDomain(), new RunState(), handle -> run(job, handle));
+    }
+
+    /**
+     * 遍历并扫描到底返回true；被取消、接管或应用关闭时停在检查点，返回false
+     */
+    private boolean run(ClamAVScanJob job, JobHandle<RunState> handle) throws Exception {
+        ClamAVConfig config = clamAVService.getClamAVConfig(job.getDomain());
+        if (config == null || !Boolean.TRUE.equals(config.getEnabled())) {
+            throw new RuntimeException("ClamAV配置不存在或未启用");
+        }
+        Path root = Paths.get(job.getRootPath());
+        if (!Files.isDirectory(root)) {
+            throw new RuntimeException("扫描目录不存在");
+        }
+
+        int threads = config.getScanThreads() != null && config.getScanThreads() > 0 ? config.getScanThreads() : 4;
+        RunState state = handle.getState();
+        Progress progress = new Progress(job);
+        state.progress = progress;
+        try (BoundedScanExecutor executor = new BoundedScanExecutor(threads,
+                threads * Math.max(1, queuePerThread), "clamav-job-")) {
+            state.executor = executor;
+            Walker walker = new Walker(job, handle, config, executor, progress, root);
+            walker.walk(root, Boolean.FALSE.equals(job.getRecursive()) ? 1 : Integer.MAX_VALUE);
+            // 等待在途文件完成，期间继续写检查点
+            while (!executor.awaitIdle(checkpointMillis, TimeUnit.MILLISECONDS)) {
+                walker.checkpoint(true);
+            }
+            walker.checkpoint(true);
+        } finally {
+            state.executor = null;
+        }
+
+        if (handle.isStopped()) {
+            return false;
+        }
+        log.info("病毒扫描任务完成: jobId={}, files={}, scanned={}, skipped={}, infected={}",
+                job.getId(), progress.processed, progress.scanned, progress.skipped, progress.infected);
+        return true;
+    }
+
+    /**
+     * 遍历目录并分发文件（只在遍历线程上运行，检查点也只由该线程写入）
+     */
+    private final class Walker {
+        private final ClamAVScanJob job;
+        private final JobHandle<RunState> handle;
+        private final ClamAVConfig config;
+        private final BoundedScanExecutor executor;
+        private final Progress progress;
+        private final Path root;
+        private final String domain;
+        private final String version;
+        private final long maxLength;
+        private final long walkedBase;
+        private final Map<Path, Map<String, ClamAVFileState>> directoryStates = new HashMap<>();
+        // 检查点相对根目录的路径，遍历越过它之后置为null
+        private Path resumeAfter;
+        private long sequence;
+        private long lastCheckpoint = System.currentTimeMillis();
+
+        private Walker(ClamAVScanJob job, JobHandle<RunState> handle, ClamAVConfig config,
+                       BoundedScanExecutor executor, Progress progress, Path root) {
+            this.job = job;
+            this.handle = handle;
+            this.config = config;
+            this.executor = executor;
+            this.progress = progress;
+            this.root = root;
+            this.domain = job.getDomain();
+            this.version = config.getSignaturesVersion() != null ? config.getSignaturesVersion() : "";
+            this.maxLength = ClamdClient.maxStreamLength(config);
+            this.walkedBase = progress.processed;
+            String checkpointPath = job.getCheckpointPath();
+            if (checkpointPath != null && Paths.get(checkpointPath).startsWith(root)) {
+                this.resumeAfter = root.relativize(Paths.get(checkpointPath));
+            }
+        }
+
+        /**
+         * 按名称排序的深度优先遍历，目录内容不变时两次遍历顺序一致；返回false表示已停止
+         */
+        private boolean walk(Path dir, int depth) {
+            if (stopped()) {
+                return false;
+            }
+            List<Path> entries = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+                stream.forEach(entries::add);
+            } catch (IOException | DirectoryIteratorException e) {
+                return visitFailed(dir, "无法访问: " + e.getMessage());
+            }
+            entries.sort(Comparator.comparing(entry -> entry.getFileName().toString()));
+            try {
+                for (Path entry : entries) {
+                    int position = resumePosition(entry);
+                    if (position < 0) {
+                        // 检查点之前的文件和目录已在上次运行中处理
+                        continue;
+                    }
+                    BasicFileAttributes attrs;
+                    try {
+                        attrs = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    } catch (IOException e) {
+                        if (position > 0 && !visitFailed(entry, "无法访问: " + e.getMessage())) {
+                            return false;
+                        }
+                        continue;
+                    }
+                    if (attrs.isDirectory()) {
+                        if (depth > 1 && !walk(entry, depth - 1)) {
+                            return false;
+                        }
+                    } else if (attrs.isRegularFile() && position > 0 && !visitFile(entry, attrs)) {
+                        return false;
+                    }
+                }
+            } finally {
+                directoryStates.remove(dir);
+            }
+            return true;
+        }
+
+        /**
+         * 路径相对检查点的位置：1在检查点之后，0是检查点本身或其上级目录，-1在检查点之前
+         */
+        private int resumePosition(Path entry) {
+            if (resumeAfter == null) {
+                return 1;
+            }
+            Path relative = root.relativize(entry);
+            int count = Math.min(relative.getNameCount(), resumeAfter.getNameCount());
+            for (int i = 0; i < count; i++) {
+                int c = relative.getName(i).toString().compareTo(resumeAfter.getName(i).toString());
+                if (c < 0) {
+                    return -1;
+                }
+                if (c > 0) {
+                    // 遍历有序，之后的路径都在检查点之后
+                    resumeAfter = null;
+                    return 1;
+                }
+            }
+            return relative.getNameCount() > resumeAfter.getNameCount() ? 1 : 0;
+        }
+
+        private boolean visitFile(Path file, BasicFileAttributes attrs) {
+            long index = sequence++;
+            progress.walked(walkedBase + index + 1);
+            if (!awaitLead(index)) {
+                return false;
+            }
+
+            String path = file.toAbsolutePath().toString();
+            long size = attrs.size();
+            long modified = attrs.lastModifiedTime().toMillis();
+            if (size > maxLength) {
+                progress.complete(index, Outcome.oversize(path));
+                checkpoint(false);
+                return true;
+            }
+
+            String dirHash = hashText(file.toAbsolutePath().getParent().toString());
+            ClamAVFileState state = directoryStates.computeIfAbsent(file.getParent(), dir -> loadStates(dirHash)).get(path);
+            if (state != null && version.equals(state.getSignaturesVersion())
+                    && Objects.equals(state.getFileSize(), size) && Objects.equals(state.getModifiedTime(), modified)) {
+                // 大小、修改时间和病毒库版本都未变化；病毒文件重新记到本任务名下，出现在本任务的报告中
+                boolean infected = Boolean.TRUE.equals(state.getInfected());
+                ClamAVFileState row = infected ? copyState(state, job.getId()) : null;
+                progress.complete(index, Outcome.skipped(path, infected, row));
+                checkpoint(false);
+                return true;
+            }
+
+            Runnable task = () -> {
+                // 取消或关闭后排队中的文件不再扫描，它们在检查点之后，继续任务时重新处理
+                if (!stopped()) {
+                    progress.complete(index, scanOne(file, path, dirHash, size, modified, state));
+                }
+            };
+            try {
+                while (!executor.trySubmit(task, checkpointMillis, TimeUnit.MILLISECONDS)) {
+                    checkpoint(true);
+                    if (stopped()) {
+                        return false;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            checkpoint(false);
+            return true;
+        }
+
+        private boolean visitFailed(Path file, String error) {
+            long index = sequence++;
+            progress.walked(walkedBase + index + 1);
+            progress.complete(index, Outcome.error(file.toAbsolutePath().toString(), error));
+            return !stopped();
+        }
+
+        /**
+         * 检查点落后太多时等待在途文件完成
+         */
+        private boolean awaitLead(long index) {
+            try {
+                while (!progress.awaitWatermark(index - MAX_LEAD, checkpointMillis)) {
+                    checkpoint(true);
+                    if (stopped()) {
+                        return false;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            return !stopped();
+        }
+
+        private ClamdScanResult scan(Path file) throws IOException {
+            try (InputStream in = new FileInputStream(file.toFile())) {
+                return clamdClient.scan(config, in);
+            }
+        }
+
+        private Outcome scanOne(Path file, String path, String dirHash, long size, long modified, ClamAVFileState state) {
+            try {
+                String sha256 = ContentHash.of(file);
+                if (state != null && sha256.equals(state.getSha256()) && version.equals(state.getSignaturesVersion())) {
+                    // 只有修改时间变化，内容相同，沿用上次的结论
+                    ClamAVFileState row = copyState(state, job.getId());
+                    row.setFileSize(size);
+                    row.setModifiedTime(modified);
+                    return Outcome.skipped(path, Boolean.TRUE.equals(state.getInfected()), row);
+                }
+
+                ClamdScanResult scan = verdictCache.getOrScan(domain, sha256, version, () -> scan(file));
+                if (scan.getStatus() == ClamdScanResult.Status.TOO_LARGE) {
+                    return Outcome.oversize(path);
+                }
+                if (scan.getStatus() == ClamdScanResult.Status.ERROR) {
+                    return Outcome.error(path, scan.getResponse());
+                }
+                ClamAVFileState row = new ClamAVFileState();
+                row.setId(state != null ? state.getId() : IdWorker.getId());
+                row.setDomain(domain);
+                row.setPathHash(hashText(path));
+                row.setDirHash(dirHash);
+                row.setFilePath(path);
+                row.setFileSize(size);
+                row.setModifiedTime(modified);
+                row.setSha256(sha256);
+                row.setSignaturesVersion(version);
+                row.setInfected(scan.isInfected());
+                row.setVirusName(scan.getVirusName());
+                row.setJobId(job.getId());
+                row.setScannedTime(LocalDateTime.now());
+                if (scan.isInfected()) {
+                    log.warn("扫描任务发现病毒: jobId={}, file={}, virus={}", job.getId(), path, scan.getVirusName());
+                }
+                return Outcome.scanned(row, scan.isFromCache() ? 0 : scan.getBytes());
+            } catch (Exception e) {
+                return Outcome.error(path, e.getMessage());
+            }
+        }
+
+        private Map<String, ClamAVFileState> loadStates(String dirHash) {
+            Map<String, ClamAVFileState> states = new HashMap<>();
+            for (ClamAVFileState state : stateMapper.selectByDirectory(domain, dirHash)) {
+                states.put(state.getFilePath(), state);
+            }
+            return states;
+        }
+
+        /**
+         * 写入连续完成部分的文件状态和计数，再推进检查点；同时续租并读取其他节点写入的取消状态
+         */
+        private void checkpoint(boolean force) {
+            long now = System.currentTimeMillis();
+            if (!force && now - lastCheckpoint < checkpointMillis) {
+                return;
+            }
+            lastCheckpoint = now;
+            Snapshot snapshot = progress.drain();
+            for (int i = 0; i < snapshot.rows.size(); i += STATE_BATCH) {
+                stateMapper.upsertBatch(snapshot.rows.subList(i, Math.min(snapshot.rows.size(), i + STATE_BATCH)));
+            }
+
+            ClamAVScanJob update = new ClamAVScanJob();
+            update.setCheckpointCount(snapshot.processed);
+            update.setCheckpointPath(snapshot.lastPath);
+            update.setTotalFiles(snapshot.walked);
+            update.setScannedCount(snapshot.scanned);
+            update.setSkippedCount(snapshot.skipped);
+            update.setInfectedCount(snapshot.infected);
+            update.setOversizeCount(snapshot.oversize);
+            update.setErrorCount(snapshot.errors);
+            update.setBytesScanned(snapshot.bytes);
+            update.setErrorMessage(truncate(snapshot.lastError));
+            update.setUpdateTime(LocalDateTime.now());
+            jobMapper.update(update, ownedBy(job.getId(), handle.getOwner()));
+
+            handle.checkpoint();
+        }
+
+        private boolean stopped() {
+            return handle.isStopped();
+        }
+    }
+
+    /**
+     * 按本次运行的遍历编号归并完成结果：连续完成的前缀计入计数，其最后一个文件成为新的检查点
+     */
+    private static final class Progress {
+        private final Map<Long, Outcome> completed = new HashMap<>();
+        private final List<ClamAVFileState> rows = new ArrayList<>();
+        private final long initialBytes;
+        // 本次运行中下一个待归并的编号
+        private long watermark;
+        private long processed;
+        private String lastPath;
+        private long walked;
+        private long scanned;
+        private long skipped;
+        private long infected;
+        private long oversize;
+        private long errors;
+        private long bytes;
+        private String lastError;
+
+        private Progress(ClamAVScanJob job) {
+            this.processed = value(job.getCheckpointCount());
+            this.lastPath = job.getCheckpointPath();
+            this.walked = value(job.getTotalFiles());
+            this.scanned = value(job.getScannedCount());
+            this.skipped = value(job.getSkippedCount());
+            this.infected = value(job.getInfectedCount());
+            this.oversize = value(job.getOversizeCount());
+            this.errors = value(job.getErrorCount());
+            this.bytes = value(job.getBytesScanned());
+            this.initialBytes = bytes;
+        }
+
+        synchronized void walked(long count) {
+            walked = Math.max(walked, count);
+        }
+
+        synchronized long walked() {
+            return walked;
+        }
+
+        synchronized void complete(long index, Outcome outcome) {
+            completed.put(index, outcome);
+            Outcome next;
+            while ((next = completed.remove(watermark)) != null) {
+                fold(next);
+                watermark++;
+                processed++;
+                lastPath = next.path;
+            }
+            notifyAll();
+        }
+
+        /**
+         * 等待检查点到达target，超时返回false
+         */
+        synchronized boolean awaitWatermark(long target, long timeoutMillis) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            while (watermark < target) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                wait(remaining);
+            }
+            return true;
+        }
+
+        synchronized Snapshot drain() {
+            List<ClamAVFileState> pending = new ArrayList<>(rows);
+            rows.clear();
+            return new Snapshot(pending, processed, lastPath, walked, scanned, skipped, infected, oversize, errors, bytes,
+                    lastError);
+        }
+
+        synchronized long processedThisRun() {
+            return watermark;
+        }
+
+        synchronized long bytesThisRun() {
+            return bytes - initialBytes;
+        }
+
+        private void fold(Outcome outcome) {
+            switch (outcome.kind) {
+                case SCANNED:
+                    scanned++;
+                    bytes += outcome.bytes;
+                    break;
+                case SKIPPED:
+                    skipped++;
+                    break;
+                case OVERSIZE:
+                    oversize++;
+                    break;
+                default:
+                    errors++;
+                    lastError = outcome.path + ": " + outcome.error;
+            }
+            if (outcome.infected) {
+                infected++;
+            }
+            if (outcome.row != null) {
+                rows.add(outcome.row);
+            }
+        }
+
+        private static long value(Long value) {
+            return value != null ? value : 0;
+        }
+    }
+
+    private static final class Snapshot {
+        private final List<ClamAVFileState> rows;
+        private final long processed;
+        private final String lastPath;
+        private final long walked;
+        private final long scanned;
+        private final long skipped;
+        private final long infected;
+        private final long oversize;
+        private final long errors;
+        private final long bytes;
+        private final String lastError;
+
+        private Snapshot(List<ClamAVFileState> rows, long processed, String lastPath, long walked, long scanned,
+                         long skipped, long infected, long oversize, long errors, long bytes, String lastError) {
+            this.rows = rows;
+            this.processed = processed;
+            this.lastPath = lastPath;
+            this.walked = walked;
+            this.scanned = scanned;
+            this.skipped = skipped;
+            this.infected = infected;
+            this.oversize = oversize;
+            this.errors = errors;
+            this.bytes = bytes;
+            this.lastError = lastError;
+        }
+    }
+
+    private enum OutcomeKind {
+        SCANNED, SKIPPED, OVERSIZE, ERROR
+    }
+
+    private static final class Outcome {
+        private final OutcomeKind kind;
+        private final String path;
+        private final boolean infected;
+        private final long bytes;
+        private final ClamAVFileState row;
+        private final String error;
+
+        private Outcome(OutcomeKind kind, String path, boolean infected, long bytes, ClamAVFileState row, String error) {
+            this.kind = kind;
+            this.path = path;
+            this.infected = infected;
+            this.bytes = bytes;
+            this.row = row;
+            this.error = error;
+        }
+
+        static Outcome scanned(ClamAVFileState row, long bytes) {
+            return new Outcome(OutcomeKind.SCANNED, row.getFilePath(), Boolean.TRUE.equals(row.getInfected()), bytes, row, null);
+        }
+
+        static Outcome skipped(String path, boolean infected, ClamAVFileState row) {
+            return new Outcome(OutcomeKind.SKIPPED, path, infected, 0, row, null);
+        }
+
+        static Outcome oversize(String path) {
+            return new Outcome(OutcomeKind.OVERSIZE, path, false, 0, null, null);
+        }
+
+        static Outcome error(String path, String error) {
+            return new Outcome(OutcomeKind.ERROR, path, false, 0, null, error);
+        }
+    }
+
+    private static ClamAVFileState copyState(ClamAVFileState state, Long jobId) {
+        ClamAVFileState row = new ClamAVFileState();
+        row.setId(state.getId());
+        row.setDomain(state.getDomain());
+        row.setPathHash(state.getPathHash());
+        row.setDirHash(state.getDirHash());
+        row.setFilePath(state.getFilePath());
+        row.setFileSize(state.getFileSize());
+        row.setModifiedTime(state.getModifiedTime());
+        row.setSha256(state.getSha256());
+        row.setSignaturesVersion(state.getSignaturesVersion());
+        row.setInfected(state.getInfected());
+        row.setVirusName(state.getVirusName());
+        row.setJobId(jobId);
+        row.setScannedTime(state.getScannedTime());
+        return row;
+    }
+
+    private static String hashText(String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        return ContentHash.of(bytes, 0, bytes.length);
+    }
+
+    private boolean isCancelledInStore(Long jobId) {
+        ClamAVScanJob stored = jobMapper.selectById(jobId);
+        return stored == null || ClamAVScanJob.STATUS_CANCELLED.equals(stored.getStatus());
+    }
+
+    /**
+     * 只更新仍由owner运行的任务，被接管后不覆盖新节点写入的进度和状态
+     */
+    private LambdaUpdateWrapper<ClamAVScanJob> ownedBy(Long jobId, String owner) {
+        return new LambdaUpdateWrapper<ClamAVScanJob>()
+                .eq(ClamAVScanJob::getId, jobId)
+                .eq(ClamAVScanJob::getOwner, owner);
+    }
+
+    private static String truncate(String message) {
+        return message != null && message.length() > 500 ? message.substring(0, 500) : message;
+    }
+
+    /**
+     * clamav_scan_jobs上的认领与续租；同一域名的认领由运行器在范围锁内串行执行
+     */
+    private final class ScanJobStore implements JobStore {
+
+        @Override
+        public boolean claim(Long jobId, String owner, long leaseSeconds) {
+            ClamAVScanJob job = jobMapper.selectById(jobId);
+            return job != null && jobMapper.countActiveByDomain(job.getDomain(), jobId) == 0
+                    && jobMapper.claim(jobId, owner, leaseSeconds) > 0;
+        }
+
+        @Override
+        public boolean renew(Long jobId, String owner, long leaseSeconds) {
+            return jobMapper.renew(jobId, owner, leaseSeconds) > 0;
+        }
+
+        @Override
+        public void releaseLease(Long jobId, String owner) {
+            jobMapper.releaseLease(jobId, owner);
+        }
+
+        @Override
+        public boolean isCancelled(Long jobId) {
+            return isCancelledInStore(jobId);
+        }
+
+        @Override
+        public void finish(Long jobId, String owner, Outcome outcome, String error) {
+            ClamAVScanJob update = new ClamAVScanJob();
+            update.setStatus(outcome == Outcome.COMPLETED ? ClamAVScanJob.STATUS_COMPLETED
+                    : outcome == Outcome.CANCELLED ? ClamAVScanJob.STATUS_CANCELLED : ClamAVScanJob.STATUS_FAILED);
+            update.setCompletedTime(LocalDateTime.now());
+            update.setUpdateTime(LocalDateTime.now());
+            if (error != null) {
+                update.setErrorMessage(truncate(error));
+            }
+            jobMapper.update(update, ownedBy(jobId, owner));
+        }
+    }
+
+    /**
+     * 本节点上运行中任务的进度与扫描执行器，供进度查询读取
+     */
+    private static final class RunState {
+        private volatile Progress progress;
+        private volatile BoundedScanExecutor executor;
+    }
+}
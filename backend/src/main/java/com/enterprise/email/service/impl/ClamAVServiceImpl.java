@@ -1,18 +1,27 @@
 package com.enterprise.email.service.impl;
 
+import com.enterprise.email.clamav.BoundedScanExecutor;
+import com.enterprise.email.clamav.ClamdClient;
+import com.enterprise.email.clamav.ClamdScanResult;
+import com.enterprise.email.clamav.ContentHash;
+import com.enterprise.email.clamav.ScanVerdictCache;
 import com.enterprise.email.entity.ClamAVConfig;
 import com.enterprise.email.mapper.ClamAVConfigMapper;
 import com.enterprise.email.service.ClamAVService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.io.*;
-import java.net.Socket;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
 import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * ClamAV防病毒服务实现
@@ -23,9 +32,14 @@ import java.util.concurrent.ConcurrentHashMap;
 public class ClamAVServiceImpl implements ClamAVService {
 
     private final ClamAVConfigMapper clamAVConfigMapper;
+    private final ClamdClient clamdClient;
+    private final ScanVerdictCache verdictCache;
     
-    // 缓存扫描结果和统计信息
-    private final Map<String, Map<String, Object>> scanCache = new ConcurrentHashMap<>();
+    // 不超过该大小的内容先读入内存计算摘要，命中缓存时不再发送给clamd
+    @Value("${email.clamav.verdict-cache.inline-bytes:1048576}")
+    private int verdictInlineBytes;
+    
+    // 隔离文件缓存
     private final Map<String, List<Map<String, Object>>> quarantineCache = new ConcurrentHashMap<>();
 
     @Override
@@ -100,6 +114,13 @@ public class ClamAVServiceImpl implements ClamAVService {
 
     @Override
     public Map<String, Object> scanStream(InputStream inputStream, String fileName, String domain) {
+        return scanStream(inputStream, fileName, domain, null);
+    }
+
+    /**
+     * @param sha256 内容的摘要，调用方已知时传入，否则为null
+     */
+    private Map<String, Object> scanStream(InputStream inputStream, String fileName, String domain, String sha256) {
         Map<String, Object> result = new HashMap<>();
         
         try {
@@ -109,56 +130,37 @@ public class ClamAVServiceImpl implements ClamAVService {
                 return result;
             }
             
-            // 检查文件大小限制
-            byte[] fileData = inputStream.readAllBytes();
-            if (fileData.length > config.getMaxFileSize()) {
+            // 相同内容复用扫描结论；未命中时按块流式发送到clamd，超过大小限制时停止发送
+            ClamdScanResult scan = scanContent(config, domain, inputStream, sha256);
+            if (scan.getStatus() == ClamdScanResult.Status.TOO_LARGE) {
                 result.put("status", "FILE_TOO_LARGE");
                 result.put("message", "文件大小超过限制");
                 return result;
             }
+            if (scan.getStatus() == ClamdScanResult.Status.ERROR) {
+                result.put("status", "ERROR");
+                result.put("message", scan.getResponse());
+                return result;
+            }
             
-            // 连接到ClamAV守护进程
-            try (Socket socket = new Socket(config.getClamdHost(), config.getClamdPort())) {
-                socket.setSoTimeout(config.getReadTimeout());
-                
-                OutputStream out = socket.getOutputStream();
-                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-                
-                // 发送INSTREAM命令
-                out.write("zINSTREAM\0".getBytes());
-                
-                // 发送文件数据
-                byte[] sizeBytes = ByteBuffer.allocate(4).putInt(fileData.length).array();
-                out.write(sizeBytes);
-                out.write(fileData);
-                
-                // 发送结束标记
-                out.write(ByteBuffer.allocate(4).putInt(0).array());
-                out.flush();
-                
-                // 读取扫描结果
-                String response = in.readLine();
-                
-                boolean isInfected = response != null && response.contains("FOUND");
-                String virusName = null;
-                
-                if (isInfected) {
-                    virusName = extractVirusName(response);
-                    handleInfectedFile(fileName, virusName, config);
-                }
-                
-                result.put("infected", isInfected);
-                result.put("virusName", virusName);
-                result.put("fileName", fileName);
-                result.put("fileSize", fileData.length);
-                result.put("scanTime", LocalDateTime.now());
-                result.put("response", response);
-                
-                // 更新统计信息
-                updateScanStatistics(domain, isInfected, virusName);
-                
+            boolean isInfected = scan.isInfected();
+            String virusName = scan.getVirusName();
+            
+            if (isInfected) {
+                handleInfectedFile(fileName, virusName, config);
             }
             
+            result.put("infected", isInfected);
+            result.put("virusName", virusName);
+            result.put("fileName", fileName);
+            result.put("fileSize", scan.getBytes());
+            result.put("scanTime", LocalDateTime.now());
+            result.put("response", scan.getResponse());
+            result.put("cached", scan.isFromCache());
+            
+            // 更新统计信息
+            updateScanStatistics(domain, isInfected, virusName);
+            
         } catch (Exception e) {
             log.error("扫描文件流失败: {}", e.getMessage(), e);
             result.put("status", "ERROR");
@@ -179,8 +181,9 @@ public class ClamAVServiceImpl implements ClamAVService {
                 return result;
             }
             
+            String sha256 = ContentHash.of(file.toPath());
             try (FileInputStream fis = new FileInputStream(file)) {
-                result = scanStream(fis, file.getName(), domain);
+                result = scanStream(fis, file.getName(), domain, sha256);
                 result.put("filePath", filePath);
             }
             
@@ -195,13 +198,17 @@ public class ClamAVServiceImpl implements ClamAVService {
 
     @Override
     public Map<String, Object> scanEmail(String emailContent, String domain) {
+        return scanEmail(emailContent.getBytes(StandardCharsets.UTF_8), domain);
+    }
+
+    @Override
+    public Map<String, Object> scanEmail(byte[] emailBytes, String domain) {
         Map<String, Object> result = new HashMap<>();
         
         try {
-            byte[] emailBytes = emailContent.getBytes(StandardCharsets.UTF_8);
             InputStream emailStream = new ByteArrayInputStream(emailBytes);
             
-            result = scanStream(emailStream, "email.eml", domain);
+            result = scanStream(emailStream, "email.eml", domain, ContentHash.of(emailBytes, 0, emailBytes.length));
             result.put("emailSize", emailBytes.length);
             
         } catch (Exception e) {
@@ -215,29 +222,72 @@ public class ClamAVServiceImpl implements ClamAVService {
 
     @Override
     public List<Map<String, Object>> batchScanFiles(List<String> filePaths, String domain) {
-        List<Map<String, Object>> results = new ArrayList<>();
+        @SuppressWarnings("unchecked")
+        Map<String, Object>[] results = new Map[filePaths.size()];
         
-        for (String filePath : filePaths) {
-            Map<String, Object> result = scanFile(filePath, domain);
-            results.add(result);
+        // 按clamd的MaxThreads并行扫描，结果保持输入顺序
+        int threads = scanThreads(domain);
+        try (BoundedScanExecutor executor = new BoundedScanExecutor(threads, threads * 2, "clamav-batch-")) {
+            for (int i = 0; i < filePaths.size(); i++) {
+                int index = i;
+                executor.submit(() -> results[index] = scanFile(filePaths.get(index), domain));
+            }
+            executor.awaitIdle(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("批量扫描被中断: domain={}", domain);
         }
         
-        return results;
+        for (int i = 0; i < results.length; i++) {
+            if (results[i] == null) {
+                Map<String, Object> result = new HashMap<>();
+                result.put("status", "INTERRUPTED");
+                result.put("filePath", filePaths.get(i));
+                results[i] = result;
+            }
+        }
+        return new ArrayList<>(Arrays.asList(results));
     }
 
     @Override
     public Map<String, Object> scanDirectory(String directoryPath, String domain, boolean recursive) {
         Map<String, Object> result = new HashMap<>();
-        List<Map<String, Object>> fileResults = new ArrayList<>();
+        List<Map<String, Object>> fileResults = Collections.synchronizedList(new ArrayList<>());
         
         try {
-            File directory = new File(directoryPath);
-            if (!directory.exists() || !directory.isDirectory()) {
+            Path directory = Paths.get(directoryPath);
+            if (!Files.isDirectory(directory)) {
                 result.put("status", "DIRECTORY_NOT_FOUND");
                 return result;
             }
             
-            scanDirectoryRecursive(directory, domain, recursive, fileResults);
+            // 遍历与扫描并行进行，在途文件数有上限
+            int threads = scanThreads(domain);
+            try (BoundedScanExecutor executor = new BoundedScanExecutor(threads, threads * 4, "clamav-dir-")) {
+                Files.walkFileTree(directory, EnumSet.noneOf(FileVisitOption.class), recursive ? Integer.MAX_VALUE : 1,
+                    new SimpleFileVisitor<Path>() {
+                        @Override
+                        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                            if (!attrs.isRegularFile()) {
+                                return FileVisitResult.CONTINUE;
+                            }
+                            try {
+                                executor.submit(() -> fileResults.add(scanFile(file.toAbsolutePath().toString(), domain)));
+                                return FileVisitResult.CONTINUE;
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                                return FileVisitResult.TERMINATE;
+                            }
+                        }
+
+                        @Override
+                        public FileVisitResult visitFileFailed(Path file, IOException e) {
+                            log.warn("无法访问文件: {}, {}", file, e.getMessage());
+                            return FileVisitResult.CONTINUE;
+                        }
+                    });
+                executor.awaitIdle(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            }
             
             int totalFiles = fileResults.size();
             long infectedFiles = fileResults.stream()
@@ -247,9 +297,12 @@ public class ClamAVServiceImpl implements ClamAVService {
             result.put("totalFiles", totalFiles);
             result.put("infectedFiles", infectedFiles);
             result.put("cleanFiles", totalFiles - infectedFiles);
-            result.put("files", fileResults);
+            result.put("files", new ArrayList<>(fileResults));
             result.put("scanTime", LocalDateTime.now());
             
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            result.put("status", "INTERRUPTED");
         } catch (Exception e) {
             log.error("扫描目录失败: {}", e.getMessage(), e);
             result.put("status", "ERROR");
@@ -271,28 +324,17 @@ public class ClamAVServiceImpl implements ClamAVService {
             }
             
             // 尝试连接到ClamAV守护进程
-            try (Socket socket = new Socket(config.getClamdHost(), config.getClamdPort())) {
-                socket.setSoTimeout(config.getConnectionTimeout());
-                
-                OutputStream out = socket.getOutputStream();
-                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-                
-                // 发送PING命令
-                out.write("zPING\0".getBytes());
-                out.flush();
-                
-                String response = in.readLine();
-                boolean online = "PONG".equals(response);
-                
-                status.put("online", online);
-                status.put("response", response);
-                status.put("host", config.getClamdHost());
-                status.put("port", config.getClamdPort());
-                status.put("version", config.getVersion());
-                status.put("enabled", config.getEnabled());
-                status.put("lastScanTime", config.getLastScanTime());
-                
-            }
+            String response = clamdClient.ping(config);
+            boolean online = "PONG".equals(response);
+            
+            status.put("online", online);
+            status.put("response", response);
+            status.put("host", config.getClamdHost());
+            status.put("port", config.getClamdPort());
+            status.put("socket", config.getClamdSocket());
+            status.put("version", config.getVersion());
+            status.put("enabled", config.getEnabled());
+            status.put("lastScanTime", config.getLastScanTime());
             
         } catch (Exception e) {
             log.error("检查ClamAV服务状态失败: {}", e.getMessage(), e);
@@ -350,7 +392,9 @@ public class ClamAVServiceImpl implements ClamAVService {
             config.setStatus("ACTIVE");
             updateClamAVConfig(config);
             
-            log.info("病毒库更新完成: {}", domain);
+            // 新病毒库可能识别出之前判定为干净的内容
+            int invalidated = verdictCache.invalidateClean(domain);
+            log.info("病毒库更新完成: {}, 清除干净结论缓存{}条", domain, invalidated);
             return true;
             
         } catch (Exception e) {
@@ -504,7 +548,8 @@ public class ClamAVServiceImpl implements ClamAVService {
                 quarantineInfo.put("virusName", virusName);
                 quarantineInfo.put("quarantineTime", LocalDateTime.now());
                 
-                List<Map<String, Object>> quarantineList = quarantineCache.computeIfAbsent(domain, k -> new ArrayList<>());
+                List<Map<String, Object>> quarantineList = quarantineCache.computeIfAbsent(domain,
+                    k -> Collections.synchronizedList(new ArrayList<>()));
                 quarantineList.add(quarantineInfo);
                 
                 log.info("文件隔离成功: {} -> {}", filePath, quarantineFile.getAbsolutePath());
@@ -617,7 +662,9 @@ public class ClamAVServiceImpl implements ClamAVService {
             configContent.append("# ClamAV Configuration for ").append(config.getDomain()).append("\n\n");
             
             // 基本配置
-            configContent.append("LocalSocket /tmp/clamd.socket\n");
+            String localSocket = config.getClamdSocket() != null && !config.getClamdSocket().trim().isEmpty()
+                ? config.getClamdSocket().trim() : "/tmp/clamd.socket";
+            configContent.append("LocalSocket ").append(localSocket).append("\n");
             configContent.append("FixStaleSocket true\n");
             configContent.append("LocalSocketGroup clamav\n");
             configContent.append("LocalSocketMode 666\n");
@@ -633,6 +680,7 @@ public class ClamAVServiceImpl implements ClamAVService {
             // 扫描配置
             configContent.append("MaxFileSize ").append(config.getMaxFileSize() / 1024 / 1024).append("M\n");
             configContent.append("MaxScanSize ").append(config.getMaxScanSize() / 1024 / 1024).append("M\n");
+            configContent.append("StreamMaxLength ").append(ClamdClient.maxStreamLength(config) / 1024 / 1024).append("M\n");
             configContent.append("MaxFiles ").append(config.getMaxFiles()).append("\n");
             configContent.append("MaxRecursion ").append(config.getMaxRecursion()).append("\n");
             
@@ -720,6 +768,8 @@ public class ClamAVServiceImpl implements ClamAVService {
         metrics.put("avgScanTime", 1500); // 毫秒
         metrics.put("peakMemoryUsage", 256); // MB
         metrics.put("cpuUsage", 15.5); // 百分比
+        metrics.put("clamdClient", clamdClient.getStatistics());
+        metrics.put("verdictCache", verdictCache.getStatistics());
         return metrics;
     }
 
@@ -785,6 +835,29 @@ public class ClamAVServiceImpl implements ClamAVService {
     }
 
     // 私有辅助方法
+    private ClamdScanResult scanContent(ClamAVConfig config, String domain, InputStream inputStream, String sha256)
+            throws IOException {
+        String version = config.getSignaturesVersion();
+        InputStream content = inputStream;
+        if (sha256 == null) {
+            byte[] head = inputStream.readNBytes(verdictInlineBytes + 1);
+            if (head.length > verdictInlineBytes) {
+                // 大内容边发送边计算摘要，扫描完成后写入缓存供之后相同的内容使用
+                MessageDigest digest = ContentHash.newDigest();
+                ClamdScanResult scan = clamdClient.scan(config,
+                    new SequenceInputStream(new ByteArrayInputStream(head), inputStream), digest);
+                if (scan.getStatus() != ClamdScanResult.Status.TOO_LARGE) {
+                    verdictCache.put(domain, ContentHash.hex(digest), version, scan);
+                }
+                return scan;
+            }
+            sha256 = ContentHash.of(head, 0, head.length);
+            content = new ByteArrayInputStream(head);
+        }
+        InputStream source = content;
+        return verdictCache.getOrScan(domain, sha256, version, () -> clamdClient.scan(config, source));
+    }
+
     private void setDefaultValues(ClamAVConfig config) {
         if (config.getClamdPort() == null) config.setClamdPort(3310);
         if (config.getConnectionTimeout() == null) config.setConnectionTimeout(5000);
@@ -792,6 +865,7 @@ public class ClamAVServiceImpl implements ClamAVService {
         if (config.getMaxConnections() == null) config.setMaxConnections(10);
         if (config.getMaxFileSize() == null) config.setMaxFileSize(25L * 1024 * 1024); // 25MB
         if (config.getMaxScanSize() == null) config.setMaxScanSize(100L * 1024 * 1024); // 100MB
+        if (config.getStreamMaxLength() == null) config.setStreamMaxLength(25L * 1024 * 1024); // 25MB
         if (config.getMaxFiles() == null) config.setMaxFiles(10000);
         if (config.getMaxRecursion() == null) config.setMaxRecursion(16);
         if (config.getVirusAction() == null) config.setVirusAction("QUARANTINE");
@@ -846,18 +920,13 @@ public class ClamAVServiceImpl implements ClamAVService {
         }
     }
 
-    private void scanDirectoryRecursive(File directory, String domain, boolean recursive, List<Map<String, Object>> results) {
-        File[] files = directory.listFiles();
-        if (files != null) {
-            for (File file : files) {
-                if (file.isFile()) {
-                    Map<String, Object> result = scanFile(file.getAbsolutePath(), domain);
-                    results.add(result);
-                } else if (file.isDirectory() && recursive) {
-                    scanDirectoryRecursive(file, domain, recursive, results);
-                }
-            }
-        }
+    /**
+     * 并行扫描的线程数，与clamd的MaxThreads一致
+     */
+    private int scanThreads(String domain) {
+        ClamAVConfig config = getClamAVConfig(domain);
+        return config != null && config.getScanThreads() != null && config.getScanThreads() > 0
+            ? config.getScanThreads() : 4;
     }
 
     private List<String> parseListString(String listString) {
@@ -866,30 +935,4 @@ public class ClamAVServiceImpl implements ClamAVService {
         }
         return Arrays.asList(listString.split(","));
     }
-
-    // ByteBuffer辅助类，简化实现
-    private static class ByteBuffer {
-        private final byte[] buffer;
-        private int position = 0;
-        
-        private ByteBuffer(byte[] buffer) {
-            this.buffer = buffer;
-        }
-        
-        public static ByteBuffer allocate(int capacity) {
-            return new ByteBuffer(new byte[capacity]);
-        }
-        
-        public ByteBuffer putInt(int value) {
-            buffer[position++] = (byte) (value >>> 24);
-            buffer[position++] = (byte) (value >>> 16);
-            buffer[position++] = (byte) (value >>> 8);
-            buffer[position++] = (byte) value;
-            return this;
-        }
-        
-        public byte[] array() {
-            return buffer;
-        }
-    }
 }
\ No newline at end of file
@@ -1,5 +1,12 @@
 package com.enterprise.email.service.impl;
 
+import com.enterprise.email.dnsbl.DnsblNames;
+import com.enterprise.email.dnsbl.DnsblQueryEngine;
+import com.enterprise.email.dnsbl.DnsblVerdictCache;
+import com.enterprise.email.dnsbl.DnsblZone;
+import com.enterprise.email.dnsbl.DnsblZoneResult;
+import com.enterprise.email.dnsbl.ZoneListing;
+import com.enterprise.email.dnsbl.ZoneMirror;
 import com.enterprise.email.entity.DnsblConfig;
 import com.enterprise.email.mapper.DnsblConfigMapper;
 import com.enterprise.email.service.DnsblService;
@@ -7,9 +14,9 @@ import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.net.InetAddress;
 import java.time.LocalDateTime;
 import java.util.*;
 import java.util.concurrent.*;
@@ -23,11 +30,14 @@ import java.util.concurrent.*;
 public class DnsblServiceImpl implements DnsblService {
 
     private final DnsblConfigMapper dnsblConfigMapper;
+    private final DnsblQueryEngine queryEngine;
+    private final DnsblVerdictCache verdictCache;
+    private final ZoneMirror zoneMirror;
     private final ObjectMapper objectMapper = new ObjectMapper();
-    
-    // 查询结果缓存
-    private final Map<String, Map<String, Object>> queryCache = new ConcurrentHashMap<>();
-    private final Map<String, Long> cacheTimestamps = new ConcurrentHashMap<>();
+
+    // 列入多少个区域后停止查询其余区域，0表示查询全部
+    @Value("${email.dnsbl.listing-threshold:1}")
+    private int listingThreshold;
     
     // 查询历史记录
     private final Map<String, List<Map<String, Object>>> queryHistory = new ConcurrentHashMap<>();
@@ -103,14 +113,6 @@ public class DnsblServiceImpl implements DnsblService {
         Map<String, Object> result = new HashMap<>();
         
         try {
-            // 检查缓存
-            String cacheKey = domain + "_ip_" + ip;
-            if (isCacheValid(cacheKey)) {
-                result = queryCache.get(cacheKey);
-                result.put("fromCache", true);
-                return result;
-            }
-            
             DnsblConfig config = getDnsblConfig(domain);
             if (config == null || !config.getEnabled() || !config.getCheckIpBlacklist()) {
                 result.put("checked", false);
@@ -144,8 +146,15 @@ public class DnsblServiceImpl implements DnsblService {
                 return result;
             }
             
+            String reversedIp = DnsblNames.reverseIp(ip);
+            if (reversedIp == null) {
+                result.put("checked", false);
+                result.put("reason", "无效的IP地址");
+                return result;
+            }
+
             // 并发查询多个DNSBL服务器
-            List<Map<String, Object>> queryResults = queryDnsblServers(ip, dnsblServers, config);
+            List<Map<String, Object>> queryResults = queryZones(reversedIp, DnsblNames.parseIp(ip), ip.trim(), dnsblServers, config);
             
             // 分析查询结果
             boolean blacklisted = false;
@@ -167,15 +176,14 @@ public class DnsblServiceImpl implements DnsblService {
             result.put("queriedServers", dnsblServers.size());
             result.put("responseTime", calculateAverageResponseTime(queryResults));
             result.put("checkedAt", LocalDateTime.now());
+            boolean fromCache = allFromCache(queryResults);
+            result.put("fromCache", fromCache);
             
-            // 更新统计信息
-            updateStatistics(config, blacklisted, false);
-            
-            // 缓存结果
-            cacheResult(cacheKey, result, config.getCacheTtl());
-            
-            // 记录查询历史
-            recordQueryHistory(domain, "IP", ip, result);
+            // 各区域结论都来自缓存时不重复计入统计和历史
+            if (!fromCache) {
+                updateStatistics(config, blacklisted, false);
+                recordQueryHistory(domain, "IP", ip, result);
+            }
             
         } catch (Exception e) {
             log.error("检查IP黑名单失败: ip={}, domain={}, error={}", ip, domain, e.getMessage(), e);
@@ -191,14 +199,6 @@ public class DnsblServiceImpl implements DnsblService {
         Map<String, Object> result = new HashMap<>();
         
         try {
-            // 检查缓存
-            String cacheKey = domain + "_domain_" + domainToCheck;
-            if (isCacheValid(cacheKey)) {
-                result = queryCache.get(cacheKey);
-                result.put("fromCache", true);
-                return result;
-            }
-            
             DnsblConfig config = getDnsblConfig(domain);
             if (config == null || !config.getEnabled() || !config.getCheckDomainBlacklist()) {
                 result.put("checked", false);
@@ -231,7 +231,8 @@ public class DnsblServiceImpl implements DnsblService {
             }
             
             // 查询SURBL服务器
-            List<Map<String, Object>> queryResults = querySurblServers(domainToCheck, surblServers, config);
+            String checkedName = domainToCheck.trim().toLowerCase();
+            List<Map<String, Object>> queryResults = queryZones(checkedName, null, checkedName, surblServers, config);
             
             // 分析查询结果
             boolean blacklisted = false;
@@ -253,12 +254,12 @@ public class DnsblServiceImpl implements DnsblService {
             result.put("queriedServers", surblServers.size());
             result.put("responseTime", calculateAverageResponseTime(queryResults));
             result.put("checkedAt", LocalDateTime.now());
+            boolean fromCache = allFromCache(queryResults);
+            result.put("fromCache", fromCache);
             
-            // 缓存结果
-            cacheResult(cacheKey, result, config.getCacheTtl());
-            
-            // 记录查询历史
-            recordQueryHistory(domain, "DOMAIN", domainToCheck, result);
+            if (!fromCache) {
+                recordQueryHistory(domain, "DOMAIN", domainToCheck, result);
+            }
             
         } catch (Exception e) {
             log.error("检查域名黑名单失败: domain={}, checkDomain={}, error={}", domainToCheck, domain, e.getMessage(), e);
@@ -274,14 +275,6 @@ public class DnsblServiceImpl implements DnsblService {
         Map<String, Object> result = new HashMap<>();
         
         try {
-            // 检查缓存
-            String cacheKey = domain + "_url_" + url.hashCode();
-            if (isCacheValid(cacheKey)) {
-                result = queryCache.get(cacheKey);
-                result.put("fromCache", true);
-                return result;
-            }
-            
             DnsblConfig config = getDnsblConfig(domain);
             if (config == null || !config.getEnabled() || !config.getCheckUrlBlacklist()) {
                 result.put("checked", false);
@@ -301,7 +294,8 @@ public class DnsblServiceImpl implements DnsblService {
             String urlDomain = extractDomainFromUrl(url);
             
             // 查询URIBL服务器
-            List<Map<String, Object>> queryResults = queryUriblServers(urlDomain, uriblServers, config);
+            String checkedName = urlDomain.trim().toLowerCase();
+            List<Map<String, Object>> queryResults = queryZones(checkedName, null, checkedName, uriblServers, config);
             
             // 分析查询结果
             boolean blacklisted = false;
@@ -324,12 +318,12 @@ public class DnsblServiceImpl implements DnsblService {
             result.put("queriedServers", uriblServers.size());
             result.put("responseTime", calculateAverageResponseTime(queryResults));
             result.put("checkedAt", LocalDateTime.now());
+            boolean fromCache = allFromCache(queryResults);
+            result.put("fromCache", fromCache);
             
-            // 缓存结果
-            cacheResult(cacheKey, result, config.getCacheTtl());
-            
-            // 记录查询历史
-            recordQueryHistory(domain, "URL", url, result);
+            if (!fromCache) {
+                recordQueryHistory(domain, "URL", url, result);
+            }
             
         } catch (Exception e) {
             log.error("检查URL黑名单失败: url={}, domain={}, error={}", url, domain, e.getMessage(), e);
@@ -803,18 +797,20 @@ public class DnsblServiceImpl implements DnsblService {
 
     @Override
     public boolean clearDnsblCache(String domain) {
-        queryCache.entrySet().removeIf(entry -> entry.getKey().startsWith(domain + "_"));
-        cacheTimestamps.entrySet().removeIf(entry -> entry.getKey().startsWith(domain + "_"));
+        DnsblConfig config = getDnsblConfig(domain);
+        if (config == null) {
+            return false;
+        }
+        int removed = verdictCache.invalidateZones(configuredZones(config));
+        log.info("清理DNSBL缓存: domain={}, count={}", domain, removed);
         return true;
     }
 
     @Override
     public Map<String, Object> getCacheStatistics(String domain) {
-        Map<String, Object> stats = new HashMap<>();
-        long cacheSize = queryCache.entrySet().stream()
-            .mapToLong(entry -> entry.getKey().startsWith(domain + "_") ? 1 : 0)
-            .sum();
-        stats.put("cacheSize", cacheSize);
+        // 结论按区域缓存，多个域名配置共用同一份缓存
+        Map<String, Object> stats = verdictCache.getStatistics();
+        stats.put("mirror", zoneMirror.getStatistics());
         return stats;
     }
 
@@ -882,141 +878,136 @@ public class DnsblServiceImpl implements DnsblService {
         return Arrays.asList(blacklist.split(",")).contains(entry.trim());
     }
 
-    private List<Map<String, Object>> queryDnsblServers(String ip, List<Map<String, Object>> servers, DnsblConfig config) {
-        List<Map<String, Object>> results = new ArrayList<>();
-        ExecutorService executor = Executors.newFixedThreadPool(config.getMaxConcurrentQueries());
-        List<Future<Map<String, Object>>> futures = new ArrayList<>();
-        
+    /**
+     * 查询所有区域：本地镜像的区域直接查找，其余区域在配置的截止时间内并发查询，列入数达到阈值后提前结束
+     *
+     * @param prefix  DNS查询前缀（反向IP或域名）
+     * @param address IP查询时的地址字节，域名查询时为null
+     * @param query   原始的IP或域名（用于镜像区域的说明文字）
+     */
+    private List<Map<String, Object>> queryZones(String prefix, byte[] address, String query,
+                                                 List<Map<String, Object>> servers, DnsblConfig config) {
+        List<DnsblZone> zones = new ArrayList<>();
         for (Map<String, Object> server : servers) {
-            Future<Map<String, Object>> future = executor.submit(() -> queryDnsblServer(ip, server, config));
-            futures.add(future);
+            DnsblZone zone = DnsblZone.fromConfig(server);
+            if (zone != null) {
+                zones.add(zone);
+            }
         }
-        
-        for (Future<Map<String, Object>> future : futures) {
-            try {
-                Map<String, Object> result = future.get(config.getTimeout(), TimeUnit.MILLISECONDS);
-                results.add(result);
-            } catch (Exception e) {
-                Map<String, Object> errorResult = new HashMap<>();
-                errorResult.put("error", true);
-                errorResult.put("message", e.getMessage());
-                results.add(errorResult);
+
+        DnsblZoneResult[] zoneResults = new DnsblZoneResult[zones.size()];
+        List<DnsblZone> remoteZones = new ArrayList<>();
+        List<Integer> remoteIndexes = new ArrayList<>();
+        int localListed = 0;
+        for (int i = 0; i < zones.size(); i++) {
+            DnsblZone zone = zones.get(i);
+            if (!zoneMirror.isMirrored(zone.getHostname())) {
+                remoteZones.add(zone);
+                remoteIndexes.add(i);
+                continue;
+            }
+            ZoneListing listing = address != null ? zoneMirror.lookupIp(zone.getHostname(), address)
+                    : zoneMirror.lookupDomain(zone.getHostname(), query);
+            zoneResults[i] = mirrorResult(zone, listing, query);
+            if (zoneResults[i].isListed()) {
+                localListed++;
             }
         }
-        
-        executor.shutdown();
-        return results;
-    }
 
-    private Map<String, Object> queryDnsblServer(String ip, Map<String, Object> server, DnsblConfig config) {
-        Map<String, Object> result = new HashMap<>();
-        long startTime = System.currentTimeMillis();
-        
-        try {
-            String serverName = (String) server.get("hostname");
-            String[] ipParts = ip.split("\\.");
-            String reversedIp = ipParts[3] + "." + ipParts[2] + "." + ipParts[1] + "." + ipParts[0];
-            String queryDomain = reversedIp + "." + serverName;
-            
-            // 模拟DNS查询
-            // InetAddress.getByName(queryDomain);
-            
-            // 模拟查询结果
-            boolean blacklisted = Math.random() < 0.1; // 10%概率命中黑名单
-            
-            result.put("server", serverName);
-            result.put("blacklisted", blacklisted);
-            result.put("responseTime", System.currentTimeMillis() - startTime);
-            
-            if (blacklisted) {
-                result.put("reason", "Listed in " + serverName);
+        if (!remoteZones.isEmpty()) {
+            List<DnsblZoneResult> remoteResults;
+            if (listingThreshold > 0 && localListed >= listingThreshold) {
+                remoteResults = new ArrayList<>();
+                for (DnsblZone zone : remoteZones) {
+                    remoteResults.add(new DnsblZoneResult(zone.getHostname(), DnsblZoneResult.Status.SKIPPED, null,
+                            "已达到列入阈值", -1, 0));
+                }
+            } else {
+                remoteResults = queryEngine.query(prefix, remoteZones, config.getTimeout(), config.getMaxConcurrentQueries(),
+                        listingThreshold > 0 ? listingThreshold - localListed : 0, config.getCacheTtl());
+            }
+            for (int i = 0; i < remoteResults.size(); i++) {
+                zoneResults[remoteIndexes.get(i)] = remoteResults.get(i);
             }
-            
-        } catch (Exception e) {
-            result.put("error", true);
-            result.put("message", e.getMessage());
-            result.put("responseTime", System.currentTimeMillis() - startTime);
         }
-        
-        return result;
-    }
 
-    private List<Map<String, Object>> querySurblServers(String domain, List<Map<String, Object>> servers, DnsblConfig config) {
-        List<Map<String, Object>> results = new ArrayList<>();
-        
-        for (Map<String, Object> server : servers) {
-            Map<String, Object> result = querySurblServer(domain, server, config);
-            results.add(result);
+        List<Map<String, Object>> results = new ArrayList<>(zoneResults.length);
+        long timeouts = 0;
+        long errors = 0;
+        for (DnsblZoneResult zoneResult : zoneResults) {
+            results.add(zoneResult.toMap());
+            if (zoneResult.getStatus() == DnsblZoneResult.Status.TIMEOUT) {
+                timeouts++;
+            } else if (zoneResult.getStatus() == DnsblZoneResult.Status.ERROR) {
+                errors++;
+            }
+        }
+        if (timeouts > 0 || errors > 0) {
+            // IP、域名、URL与服务器测试都经过这里：直接累加到库中，不依赖之后是否写回整条配置
+            config.setTimeoutErrors(nullToZero(config.getTimeoutErrors()) + timeouts);
+            config.setDnsErrors(nullToZero(config.getDnsErrors()) + errors);
+            if (config.getId() != null) {
+                try {
+                    dnsblConfigMapper.incrementErrors(config.getId(), timeouts, errors);
+                } catch (Exception e) {
+                    log.warn("更新DNSBL错误统计失败: domain={}, error={}", config.getDomain(), e.getMessage());
+                }
+            }
         }
-        
         return results;
     }
 
-    private Map<String, Object> querySurblServer(String domain, Map<String, Object> server, DnsblConfig config) {
-        Map<String, Object> result = new HashMap<>();
-        long startTime = System.currentTimeMillis();
-        
-        try {
-            String serverName = (String) server.get("hostname");
-            String queryDomain = domain + "." + serverName;
-            
-            // 模拟DNS查询
-            boolean blacklisted = Math.random() < 0.05; // 5%概率命中黑名单
-            
-            result.put("server", serverName);
-            result.put("blacklisted", blacklisted);
-            result.put("responseTime", System.currentTimeMillis() - startTime);
-            
-            if (blacklisted) {
-                result.put("reason", "Listed in " + serverName);
-            }
-            
-        } catch (Exception e) {
+    private Map<String, Object> queryDnsblServer(String ip, Map<String, Object> server, DnsblConfig config) {
+        DnsblZone zone = DnsblZone.fromConfig(server);
+        String reversedIp = DnsblNames.reverseIp(ip);
+        if (zone == null || reversedIp == null) {
+            Map<String, Object> result = new HashMap<>();
+            result.put("server", server.get("hostname"));
             result.put("error", true);
-            result.put("message", e.getMessage());
-            result.put("responseTime", System.currentTimeMillis() - startTime);
+            result.put("message", zone == null ? "服务器未启用或配置无效" : "无效的IP地址");
+            return result;
         }
-        
-        return result;
+        return queryZones(reversedIp, DnsblNames.parseIp(ip), ip, Collections.singletonList(server), config).get(0);
     }
 
-    private List<Map<String, Object>> queryUriblServers(String domain, List<Map<String, Object>> servers, DnsblConfig config) {
-        List<Map<String, Object>> results = new ArrayList<>();
-        
-        for (Map<String, Object> server : servers) {
-            Map<String, Object> result = queryUriblServer(domain, server, config);
-            results.add(result);
+    /**
+     * 镜像记录按与网络查询相同的规则解读返回码：错误码记为错误，不在区域返回码内的不算列入
+     */
+    private DnsblZoneResult mirrorResult(DnsblZone zone, ZoneListing listing, String query) {
+        String code = listing != null ? listing.getCode() : null;
+        if (code != null && DnsblZone.isErrorCode(code)) {
+            return DnsblQueryEngine.errorCodeResult(zone.getHostname(), code, 0);
         }
-        
-        return results;
+        if (code == null || !zone.isListingCode(code)) {
+            return new DnsblZoneResult(zone.getHostname(), DnsblZoneResult.Status.NOT_LISTED, null, null, -1, 0);
+        }
+        String description = zone.describeCode(code);
+        if (description == null) {
+            description = listing.describe(query);
+        }
+        return new DnsblZoneResult(zone.getHostname(), DnsblZoneResult.Status.LISTED, Collections.singletonList(code),
+                "Listed in " + zone.getName() + " (" + (description != null ? description : code) + ")", -1, 0);
     }
 
-    private Map<String, Object> queryUriblServer(String domain, Map<String, Object> server, DnsblConfig config) {
-        Map<String, Object> result = new HashMap<>();
-        long startTime = System.currentTimeMillis();
-        
-        try {
-            String serverName = (String) server.get("hostname");
-            String queryDomain = domain + "." + serverName;
-            
-            // 模拟DNS查询
-            boolean blacklisted = Math.random() < 0.03; // 3%概率命中黑名单
-            
-            result.put("server", serverName);
-            result.put("blacklisted", blacklisted);
-            result.put("responseTime", System.currentTimeMillis() - startTime);
-            
-            if (blacklisted) {
-                result.put("reason", "Listed in " + serverName);
+    private boolean allFromCache(List<Map<String, Object>> results) {
+        return !results.isEmpty() && results.stream().allMatch(r -> Boolean.TRUE.equals(r.get("fromCache")));
+    }
+
+    private Set<String> configuredZones(DnsblConfig config) {
+        Set<String> zones = new HashSet<>();
+        for (String servers : Arrays.asList(config.getDnsblServers(), config.getSurblServers(), config.getUriblServers())) {
+            for (Map<String, Object> server : parseDnsblServers(servers)) {
+                DnsblZone zone = DnsblZone.fromConfig(server);
+                if (zone != null) {
+                    zones.add(zone.getHostname());
+                }
             }
-            
-        } catch (Exception e) {
-            result.put("error", true);
-            result.put("message", e.getMessage());
-            result.put("responseTime", System.currentTimeMillis() - startTime);
         }
-        
-        return result;
+        return zones;
+    }
+
+    private static long nullToZero(Long value) {
+        return value != null ? value : 0L;
     }
 
     private String extractDomainFromUrl(String url) {
@@ -1064,43 +1055,13 @@ public class DnsblServiceImpl implements DnsblService {
 
     private void updateStatistics(DnsblConfig config, boolean blacklisted, boolean whitelisted) {
         try {
-            config.setTotalQueries(config.getTotalQueries() + 1);
-            if (blacklisted) {
-                config.setBlacklistHits(config.getBlacklistHits() + 1);
-            }
-            if (whitelisted) {
-                config.setWhitelistHits(config.getWhitelistHits() + 1);
-            }
-            config.setLastQueryAt(LocalDateTime.now());
-            updateDnsblConfig(config);
+            // 只累加计数列，不写回整条配置，避免覆盖其他请求累加的错误统计
+            dnsblConfigMapper.incrementQueries(config.getId(), blacklisted ? 1 : 0, whitelisted ? 1 : 0);
         } catch (Exception e) {
             log.error("更新统计信息失败: {}", e.getMessage(), e);
         }
     }
 
-    private boolean isCacheValid(String cacheKey) {
-        if (!queryCache.containsKey(cacheKey)) {
-            return false;
-        }
-        
-        Long timestamp = cacheTimestamps.get(cacheKey);
-        if (timestamp == null) {
-            return false;
-        }
-        
-        DnsblConfig config = getDnsblConfig(cacheKey.split("_")[0]);
-        if (config == null) {
-            return false;
-        }
-        
-        return System.currentTimeMillis() - timestamp < config.getCacheTtl() * 1000L;
-    }
-
-    private void cacheResult(String cacheKey, Map<String, Object> result, int ttl) {
-        queryCache.put(cacheKey, new HashMap<>(result));
-        cacheTimestamps.put(cacheKey, System.currentTimeMillis());
-    }
-
     private void recordQueryHistory(String domain, String type, String query, Map<String, Object> result) {
         List<Map<String, Object>> history = queryHistory.computeIfAbsent(domain, k -> new ArrayList<>());
         
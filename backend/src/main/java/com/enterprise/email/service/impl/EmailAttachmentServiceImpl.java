@@ -1,23 +1,35 @@
 package com.enterprise.email.service.impl;
 
+import com.enterprise.email.dto.AttachmentContent;
+import com.enterprise.email.entity.AttachmentBlob;
+import com.enterprise.email.entity.Email;
 import com.enterprise.email.entity.EmailAttachment;
 import com.enterprise.email.mapper.EmailAttachmentMapper;
+import com.enterprise.email.mapper.EmailMapper;
+import com.enterprise.email.service.ArchiveService;
+import com.enterprise.email.service.AttachmentStoreService;
 import com.enterprise.email.service.EmailAttachmentService;
 import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
 
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.stream.Collectors;
 
 /**
  * 邮件附件服务实现类
@@ -28,9 +40,9 @@ import java.util.*;
 public class EmailAttachmentServiceImpl implements EmailAttachmentService {
 
     private final EmailAttachmentMapper attachmentMapper;
-
-    @Value("${email.attachment.path:/data/email/attachments}")
-    private String attachmentBasePath;
+    private final EmailMapper emailMapper;
+    private final AttachmentStoreService attachmentStoreService;
+    private final ArchiveService archiveService;
 
     @Value("${email.attachment.max-size:50MB}")
     private String maxFileSize;
@@ -38,6 +50,12 @@ public class EmailAttachmentServiceImpl implements EmailAttachmentService {
     @Value("${email.attachment.allowed-types:jpg,jpeg,png,gif,pdf,doc,docx,xls,xlsx,ppt,pptx,txt,zip,rar}")
     private String allowedFileTypes;
 
+    @Value("${email.attachment.inline-secret:${app.jwt.secret}}")
+    private String inlineSecret;
+
+    @Value("${server.servlet.context-path:}")
+    private String contextPath;
+
     // 允许的文件MIME类型
     private static final Set<String> ALLOWED_MIME_TYPES = Set.of(
         "image/jpeg", "image/png", "image/gif", "image/webp",
@@ -51,6 +69,7 @@ public class EmailAttachmentServiceImpl implements EmailAttachmentService {
     );
 
     @Override
+    @Transactional(rollbackFor = Exception.class)
     public List<EmailAttachment> saveAttachments(Long emailId, List<MultipartFile> files) throws IOException {
         List<EmailAttachment> attachments = new ArrayList<>();
         
@@ -58,12 +77,6 @@ public class EmailAttachmentServiceImpl implements EmailAttachmentService {
             return attachments;
         }
         
-        // 确保附件目录存在
-        Path attachmentDir = Paths.get(attachmentBasePath);
-        if (!Files.exists(attachmentDir)) {
-            Files.createDirectories(attachmentDir);
-        }
-        
         for (MultipartFile file : files) {
             if (!file.isEmpty()) {
                 try {
@@ -83,10 +96,7 @@ public class EmailAttachmentServiceImpl implements EmailAttachmentService {
 
     @Override
     public List<EmailAttachment> getAttachmentsByEmailId(Long emailId) {
-        LambdaQueryWrapper<EmailAttachment> wrapper = new LambdaQueryWrapper<>();
-        wrapper.eq(EmailAttachment::getEmailId, emailId)
-               .orderByAsc(EmailAttachment::getCreatedTime);
-        return attachmentMapper.selectList(wrapper);
+        return attachmentMapper.selectByEmailId(emailId);
     }
 
     @Override
@@ -95,26 +105,45 @@ public class EmailAttachmentServiceImpl implements EmailAttachmentService {
     }
 
     @Override
-    public byte[] downloadAttachment(Long attachmentId, Long userId) throws IOException {
+    public AttachmentContent openAttachment(Long attachmentId, Long userId) throws IOException {
         EmailAttachment attachment = getAttachmentById(attachmentId);
         if (attachment == null) {
-            throw new IOException("附件不存在");
+            return null;
         }
         
-        // 这里应该添加权限检查，确保用户有权限下载该附件
-        // 简化实现，实际应该检查邮件的所有者
+        // 权限检查：附件所属邮件必须属于当前用户
+        if (attachment.getEmailId() != null) {
+            Email email = emailMapper.selectById(attachment.getEmailId());
+            if (email == null) {
+                email = archiveService.findArchivedEmail(attachment.getEmailId(), userId);
+            }
+            if (email == null || !email.getUserId().equals(userId)) {
+                log.warn("无权限下载附件: attachmentId={}, userId={}", attachmentId, userId);
+                return null;
+            }
+        }
         
-        Path filePath = Paths.get(attachment.getFilePath());
+        AttachmentBlob blob = attachmentStoreService.getBlob(attachment.getContentHash());
+        Path filePath = blob != null
+                ? attachmentStoreService.resolvePath(blob.getContentHash())
+                : Paths.get(attachment.getFilePath());
         if (!Files.exists(filePath)) {
             throw new IOException("附件文件不存在: " + attachment.getFileName());
         }
         
-        try {
-            return Files.readAllBytes(filePath);
-        } catch (IOException e) {
-            log.error("读取附件文件失败: {}, error: {}", attachment.getFileName(), e.getMessage());
-            throw new IOException("读取附件失败", e);
-        }
+        boolean compressed = blob != null && AttachmentBlob.COMPRESSION_GZIP.equals(blob.getCompression());
+        long size = blob != null && blob.getFileSize() != null ? blob.getFileSize() : Files.size(filePath);
+        
+        return AttachmentContent.builder()
+                .attachmentId(attachmentId)
+                .fileName(attachment.getFileName())
+                .contentType(attachment.getContentType())
+                .path(filePath)
+                .size(size)
+                .contentHash(blob != null ? blob.getContentHash() : String.valueOf(attachmentId))
+                .compressed(compressed)
+                .lastModified(Files.getLastModifiedTime(filePath).toMillis())
+                .build();
     }
 
     @Override
@@ -125,34 +154,17 @@ public class EmailAttachmentServiceImpl implements EmailAttachmentService {
             return;
         }
         
-        // 删除数据库记录
+        // 删除数据库记录并释放内容引用，文件由孤儿清理任务回收
         attachmentMapper.deleteById(attachmentId);
-        
-        // 删除文件
-        try {
-            Path filePath = Paths.get(attachment.getFilePath());
-            if (Files.exists(filePath)) {
-                Files.delete(filePath);
-                log.info("附件文件删除成功: {}", attachment.getFileName());
-            }
-        } catch (IOException e) {
-            log.error("删除附件文件失败: {}, error: {}", attachment.getFileName(), e.getMessage());
-        }
+        attachmentStoreService.releaseReferences(attachment.getContentHash(), 1);
+        log.info("附件删除成功: {}", attachment.getFileName());
     }
 
     @Override
     public void deleteAttachmentsByEmailId(Long emailId) {
         List<EmailAttachment> attachments = getAttachmentsByEmailId(emailId);
-        
-        for (EmailAttachment attachment : attachments) {
-            try {
-                Path filePath = Paths.get(attachment.getFilePath());
-                if (Files.exists(filePath)) {
-                    Files.delete(filePath);
-                }
-            } catch (IOException e) {
-                log.error("删除附件文件失败: {}, error: {}", attachment.getFileName(), e.getMessage());
-            }
+        if (attachments.isEmpty()) {
+            return;
         }
         
         // 删除数据库记录
@@ -160,12 +172,83 @@ public class EmailAttachmentServiceImpl implements EmailAttachmentService {
         wrapper.eq(EmailAttachment::getEmailId, emailId);
         attachmentMapper.delete(wrapper);
         
+        // 按内容合并释放引用，同一内容只更新一次
+        releaseReferences(attachments);
+        
         log.info("邮件附件删除完成: emailId={}, count={}", emailId, attachments.size());
     }
 
+    @Override
+    public List<EmailAttachment> copyAttachments(Long sourceEmailId, Long targetEmailId) {
+        List<EmailAttachment> sources = getAttachmentsByEmailId(sourceEmailId);
+        List<EmailAttachment> copies = new ArrayList<>(sources.size());
+        boolean hasContentId = false;
+        
+        for (EmailAttachment source : sources) {
+            if (source.getContentHash() == null) {
+                continue;
+            }
+            // 只增加内容引用，不复制文件
+            attachmentStoreService.addReferences(source.getContentHash(), 1);
+            
+            EmailAttachment copy = new EmailAttachment();
+            copy.setEmailId(targetEmailId);
+            copy.setFileName(source.getFileName());
+            copy.setOriginalName(source.getOriginalName());
+            copy.setContentType(source.getContentType());
+            copy.setFileSize(source.getFileSize());
+            copy.setFilePath(source.getFilePath());
+            copy.setContentHash(source.getContentHash());
+            copy.setIsInline(source.getIsInline());
+            copy.setContentId(source.getContentId());
+            copy.setStatus(EmailAttachment.STATUS_NORMAL);
+            attachmentMapper.insert(copy);
+            copies.add(copy);
+            hasContentId |= copy.getContentId() != null;
+        }
+        if (hasContentId && targetEmailId != null) {
+            // 已渲染的邮件中未解析的cid:引用现在可能可以解析
+            emailMapper.invalidatePendingCidRender(targetEmailId);
+        }
+        
+        log.info("邮件附件引用复制完成: from={}, to={}, count={}", sourceEmailId, targetEmailId, copies.size());
+        return copies;
+    }
+
+    @Override
+    public String getInlineUrl(Long attachmentId, Long userId) {
+        return contextPath + "/api/email/attachments/" + attachmentId + "/inline?uid=" + userId
+                + "&sig=" + signInline(attachmentId, userId);
+    }
+
+    @Override
+    public AttachmentContent openInlineAttachment(Long attachmentId, Long userId, String signature) throws IOException {
+        if (userId == null || signature == null || !MessageDigest.isEqual(
+                signInline(attachmentId, userId).getBytes(StandardCharsets.US_ASCII),
+                signature.getBytes(StandardCharsets.US_ASCII))) {
+            log.warn("内联附件签名无效: attachmentId={}, userId={}", attachmentId, userId);
+            return null;
+        }
+        return openAttachment(attachmentId, userId);
+    }
+
+    /**
+     * 内联地址签名：HMAC-SHA256(附件ID:用户ID)，Base64url编码
+     */
+    private String signInline(Long attachmentId, Long userId) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(inlineSecret.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+            byte[] digest = mac.doFinal((attachmentId + ":" + userId).getBytes(StandardCharsets.US_ASCII));
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(digest);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256不可用", e);
+        }
+    }
+
     @Override
     public String getAttachmentDownloadUrl(Long attachmentId) {
-        return "/api/email/attachments/" + attachmentId + "/download";
+        return contextPath + "/api/email/attachments/" + attachmentId + "/download";
     }
 
     @Override
@@ -227,29 +310,22 @@ public class EmailAttachmentServiceImpl implements EmailAttachmentService {
             
             LambdaQueryWrapper<EmailAttachment> wrapper = new LambdaQueryWrapper<>();
             wrapper.eq(EmailAttachment::getStatus, EmailAttachment.STATUS_TEMP)
-                   .lt(EmailAttachment::getCreatedTime, expiredTime);
+                   .lt(EmailAttachment::getCreateTime, expiredTime);
             
             List<EmailAttachment> expiredAttachments = attachmentMapper.selectList(wrapper);
             
-            for (EmailAttachment attachment : expiredAttachments) {
-                try {
-                    // 删除文件
-                    Path filePath = Paths.get(attachment.getFilePath());
-                    if (Files.exists(filePath)) {
-                        Files.delete(filePath);
-                    }
-                    
-                    // 删除数据库记录
-                    attachmentMapper.deleteById(attachment.getId());
-                    
-                } catch (Exception e) {
-                    log.error("清理过期附件失败: {}, error: {}", 
-                             attachment.getFileName(), e.getMessage());
-                }
+            if (!expiredAttachments.isEmpty()) {
+                attachmentMapper.deleteBatchIds(expiredAttachments.stream()
+                        .map(EmailAttachment::getId)
+                        .collect(Collectors.toList()));
+                releaseReferences(expiredAttachments);
             }
             
             log.info("清理过期附件完成: count={}", expiredAttachments.size());
             
+            // 回收已无引用的内容文件
+            attachmentStoreService.sweepOrphans();
+            
         } catch (Exception e) {
             log.error("清理过期附件任务失败", e);
         }
@@ -269,69 +345,32 @@ public class EmailAttachmentServiceImpl implements EmailAttachmentService {
             throw new IOException("不支持的文件类型: " + originalFilename);
         }
         
-        // 生成唯一文件名
-        String uniqueFileName = generateUniqueFileName(originalFilename);
-        String relativePath = generateRelativePath(uniqueFileName);
-        Path fullPath = Paths.get(attachmentBasePath, relativePath);
-        
-        // 确保目录存在
-        Files.createDirectories(fullPath.getParent());
-        
-        // 保存文件
-        try (InputStream inputStream = file.getInputStream();
-             OutputStream outputStream = Files.newOutputStream(fullPath)) {
-            
-            byte[] buffer = new byte[8192];
-            int bytesRead;
-            while ((bytesRead = inputStream.read(buffer)) != -1) {
-                outputStream.write(buffer, 0, bytesRead);
-            }
+        // 内容寻址存储：相同内容只保存一份
+        AttachmentStoreService.StoredContent stored;
+        try (InputStream inputStream = file.getInputStream()) {
+            stored = attachmentStoreService.store(inputStream, file.getContentType());
         }
         
-        // 计算文件MD5
-        String md5 = calculateMD5(file);
-        
         // 创建附件记录
         EmailAttachment attachment = new EmailAttachment();
         attachment.setEmailId(emailId);
         attachment.setFileName(originalFilename);
-        attachment.setFileSize(file.getSize());
+        attachment.setOriginalName(originalFilename);
+        attachment.setFileSize(stored.getSize());
         attachment.setContentType(file.getContentType());
-        attachment.setFilePath(fullPath.toString());
-        attachment.setMd5Hash(md5);
-        attachment.setStatus(EmailAttachment.STATUS_NORMAL);
-        attachment.setCreatedTime(LocalDateTime.now());
+        attachment.setFilePath(stored.getPath().toString());
+        attachment.setContentHash(stored.getContentHash());
+        attachment.setStatus(emailId != null ? EmailAttachment.STATUS_NORMAL : EmailAttachment.STATUS_TEMP);
         
         // 保存到数据库
         attachmentMapper.insert(attachment);
         
-        log.info("附件保存成功: filename={}, size={}, path={}", 
-                originalFilename, file.getSize(), fullPath);
+        log.info("附件保存成功: filename={}, size={}, hash={}, deduplicated={}", 
+                originalFilename, stored.getSize(), stored.getContentHash(), stored.isDeduplicated());
         
         return attachment;
     }
 
-    /**
-     * 生成唯一文件名
-     */
-    private String generateUniqueFileName(String originalFilename) {
-        String extension = getFileExtension(originalFilename);
-        String baseName = getBaseName(originalFilename);
-        String timestamp = String.valueOf(System.currentTimeMillis());
-        String uuid = UUID.randomUUID().toString().replace("-", "").substring(0, 8);
-        
-        return baseName + "_" + timestamp + "_" + uuid + "." + extension;
-    }
-
-    /**
-     * 生成相对路径（按年月日分目录存储）
-     */
-    private String generateRelativePath(String fileName) {
-        LocalDateTime now = LocalDateTime.now();
-        return String.format("%d/%02d/%02d/%s", 
-                now.getYear(), now.getMonthValue(), now.getDayOfMonth(), fileName);
-    }
-
     /**
      * 获取文件扩展名
      */
@@ -344,13 +383,12 @@ public class EmailAttachmentServiceImpl implements EmailAttachmentService {
     }
 
     /**
-     * 获取文件基本名称（不含扩展名）
+     * 按内容哈希合并释放附件引用
      */
-    private String getBaseName(String fileName) {
-        int lastDotIndex = fileName.lastIndexOf('.');
-        if (lastDotIndex > 0) {
-            return fileName.substring(0, lastDotIndex);
-        }
-        return fileName;
+    private void releaseReferences(List<EmailAttachment> attachments) {
+        Map<String, Long> refCounts = attachments.stream()
+                .filter(attachment -> attachment.getContentHash() != null)
+                .collect(Collectors.groupingBy(EmailAttachment::getContentHash, Collectors.counting()));
+        refCounts.forEach((hash, count) -> attachmentStoreService.releaseReferences(hash, count.intValue()));
     }
 }
\ No newline at end of file
@@ -1,8 +1,9 @@
 package com.enterprise.email.service.impl;
 
 import com.enterprise.email.entity.UserAlias;
+import com.enterprise.email.service.ArchiveService;
 import com.enterprise.email.service.EmailService;
-import com.enterprise.email.service.EmailAttachmentService;
+import com.enterprise.email.service.PurgeService;
 import com.enterprise.email.service.UserAliasService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -23,7 +24,8 @@ public class EmailScheduleService {
 
     private final EmailService emailService;
     private final UserAliasService userAliasService;
-    private final EmailAttachmentService attachmentService;
+    private final PurgeService purgeService;
+    private final ArchiveService archiveService;
 
     /**
      * 定时同步邮件 - 每5分钟执行一次
@@ -47,18 +49,34 @@ public class EmailScheduleService {
     }
 
     /**
-     * 定时清理过期附件 - 每天凌晨2点执行
+     * 定时清理垃圾箱、过期附件与已删除数据 - 每天凌晨2点执行
      */
     @Scheduled(cron = "0 0 2 * * ?")
-    public void cleanExpiredAttachments() {
-        log.info("开始清理过期附件");
+    public void purgeExpiredData() {
+        log.info("开始后台数据清理");
         
         try {
-            attachmentService.cleanExpiredAttachments();
-            log.info("清理过期附件任务完成");
+            purgeService.runPurge();
+            log.info("后台数据清理任务完成");
             
         } catch (Exception e) {
-            log.error("清理过期附件任务失败", e);
+            log.error("后台数据清理任务失败", e);
+        }
+    }
+
+    /**
+     * 按域名归档策略归档旧邮件 - 每天凌晨3点执行
+     */
+    @Scheduled(cron = "0 0 3 * * ?")
+    public void archiveOldEmails() {
+        log.info("开始归档旧邮件");
+        
+        try {
+            archiveService.runArchive();
+            log.info("归档旧邮件任务完成");
+            
+        } catch (Exception e) {
+            log.error("归档旧邮件任务失败", e);
         }
     }
 
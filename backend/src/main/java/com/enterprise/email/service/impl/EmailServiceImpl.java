@@ -1,23 +1,44 @@
 package com.enterprise.email.service.impl;
 
 import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.baomidou.mybatisplus.core.conditions.update.LambdaUpdateWrapper;
 import com.baomidou.mybatisplus.core.metadata.IPage;
+import com.baomidou.mybatisplus.core.toolkit.IdWorker;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.enterprise.email.dto.ArchiveSearchResult;
 import com.enterprise.email.dto.EmailDto;
 import com.enterprise.email.dto.SendEmailRequest;
 import com.enterprise.email.entity.*;
+import com.enterprise.email.clamav.ContentHash;
+import com.enterprise.email.inbound.InboundContext;
+import com.enterprise.email.inbound.InboundPipeline;
+import com.enterprise.email.inbound.ParsedMessage;
 import com.enterprise.email.mapper.EmailMapper;
+import com.enterprise.email.mapper.InboundReceiptMapper;
 import com.enterprise.email.service.*;
+import com.enterprise.email.utils.EmailContentParser;
+import com.enterprise.email.utils.HtmlSanitizer;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
 
+import javax.mail.Address;
 import javax.mail.MessagingException;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeUtility;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 /**
@@ -33,10 +54,24 @@ public class EmailServiceImpl extends ServiceImpl<EmailMapper, Email> implements
     private final EmailAttachmentService attachmentService;
     private final UserAliasService userAliasService;
     private final DomainService domainService;
+    private final EmailThreadService emailThreadService;
+    private final PushService pushService;
+    private final ArchiveService archiveService;
+    private final InboundReceiptMapper inboundReceiptMapper;
+    // 流水线的入库阶段依赖本服务，延迟获取
+    private final ObjectProvider<InboundPipeline> inboundPipeline;
 
     @Override
     @Transactional
     public void sendEmail(SendEmailRequest request, Long userId, Long aliasId, List<MultipartFile> attachments) {
+        sendEmail(request, userId, aliasId, attachments, null, null);
+    }
+
+    /**
+     * 发送邮件（forwardFromEmailId不为空时，沿用原邮件附件的内容引用；replyTo不为空时归入原邮件会话）
+     */
+    private void sendEmail(SendEmailRequest request, Long userId, Long aliasId,
+                           List<MultipartFile> attachments, Long forwardFromEmailId, Email replyTo) {
         try {
             // 获取发件人别名
             UserAlias fromAlias = userAliasService.getById(aliasId);
@@ -66,6 +101,18 @@ public class EmailServiceImpl extends ServiceImpl<EmailMapper, Email> implements
                 email.setAttachmentCount(attachments.size());
             }
 
+            // 回复时记录引用关系并归入原会话
+            if (replyTo != null) {
+                email.setInReplyTo(replyTo.getMessageId());
+                String references = replyTo.getMessageReferences() != null ? replyTo.getMessageReferences() : "";
+                if (replyTo.getMessageId() != null) {
+                    references = (references + " " + replyTo.getMessageId()).trim();
+                }
+                email.setMessageReferences(references.isEmpty() ? null : references);
+                email.setThreadId(replyTo.getThreadId());
+            }
+            emailThreadService.assignThread(email);
+
             // 保存邮件
             save(email);
 
@@ -80,6 +127,19 @@ public class EmailServiceImpl extends ServiceImpl<EmailMapper, Email> implements
                 }
             }
 
+            // 转发时复用原邮件附件，不产生额外的文件
+            if (forwardFromEmailId != null) {
+                List<EmailAttachment> forwarded = attachmentService.copyAttachments(forwardFromEmailId, email.getId());
+                if (!forwarded.isEmpty()) {
+                    if (savedAttachments == null) {
+                        savedAttachments = new ArrayList<>();
+                    }
+                    savedAttachments.addAll(forwarded);
+                    email.setHasAttachment(true);
+                    email.setAttachmentCount(savedAttachments.size());
+                }
+            }
+
             // 发送邮件
             List<String> attachmentPaths = null;
             if (savedAttachments != null) {
@@ -99,7 +159,8 @@ public class EmailServiceImpl extends ServiceImpl<EmailMapper, Email> implements
                 attachmentPaths
             );
 
-            // 更新邮件状态为已发送
+            // 更新邮件状态为已发送，同时保存渲染结果（附件已保存，cid:引用可以解析）
+            renderContent(email);
             email.setStatus(Email.STATUS_SENT);
             updateById(email);
 
@@ -143,14 +204,38 @@ public class EmailServiceImpl extends ServiceImpl<EmailMapper, Email> implements
             );
         }
         
-        // 按时间倒序
-        wrapper.orderByDesc(Email::getReceivedTime);
+        // 按时间倒序，同一时间按ID倒序
+        wrapper.orderByDesc(Email::getReceivedTime).orderByDesc(Email::getId);
         
-        IPage<Email> emailPage = page(page, wrapper);
+        IPage<Email> emailPage;
+        List<Email> records;
+        long total;
+        if (keyword != null && !keyword.trim().isEmpty()) {
+            // 关键词搜索时，邮件表与归档的匹配结果按同一顺序合并后再分页：
+            // 两边各取前 offset+size 封，合并排序后截取本页，总数为两边匹配数之和
+            long size = Math.max(1, page.getSize());
+            long offset = Math.max(0, page.getCurrent() - 1) * size;
+            int window = (int) Math.min(Integer.MAX_VALUE, offset + size);
+            IPage<Email> head = page(new Page<>(1, window), wrapper);
+            ArchiveSearchResult archived = archiveService.searchArchived(userId, aliasId, type, keyword.trim(), window);
+
+            List<Email> merged = new ArrayList<>(head.getRecords().size() + archived.getRecords().size());
+            merged.addAll(head.getRecords());
+            merged.addAll(archived.getRecords());
+            merged.sort(ArchiveSearchResult.NEWEST_FIRST);
+            int from = (int) Math.min(offset, merged.size());
+            records = new ArrayList<>(merged.subList(from, (int) Math.min(offset + size, merged.size())));
+            total = head.getTotal() + archived.getTotal();
+            emailPage = new Page<>(page.getCurrent(), size);
+        } else {
+            emailPage = page(page, wrapper);
+            records = emailPage.getRecords();
+            total = emailPage.getTotal();
+        }
         
         // 转换为DTO
-        IPage<EmailDto> result = new Page<>(emailPage.getCurrent(), emailPage.getSize(), emailPage.getTotal());
-        List<EmailDto> emailDtos = emailPage.getRecords().stream()
+        IPage<EmailDto> result = new Page<>(emailPage.getCurrent(), emailPage.getSize(), total);
+        List<EmailDto> emailDtos = records.stream()
                 .map(this::convertToDto)
                 .collect(Collectors.toList());
         result.setRecords(emailDtos);
@@ -161,7 +246,16 @@ public class EmailServiceImpl extends ServiceImpl<EmailMapper, Email> implements
     @Override
     public EmailDto getEmailById(Long emailId, Long userId) {
         Email email = getById(emailId);
-        if (email == null || !email.getUserId().equals(userId)) {
+        if (email == null) {
+            // 已归档的邮件从归档段读取（只读）
+            Email archived = archiveService.findArchivedEmail(emailId, userId);
+            if (archived == null) {
+                return null;
+            }
+            ensureRendered(archived, false);
+            return convertToDto(archived);
+        }
+        if (!email.getUserId().equals(userId)) {
             return null;
         }
         
@@ -169,6 +263,9 @@ public class EmailServiceImpl extends ServiceImpl<EmailMapper, Email> implements
         if (!email.getIsRead()) {
             email.setIsRead(true);
             updateById(email);
+            emailThreadService.onReadStateChanged(email, true);
+            pushService.publishFlagChange(email, "read", true);
+            pushService.publishCounterDelta(userId, email.getAliasId(), -1, 0);
         }
         
         return convertToDto(email);
@@ -187,6 +284,8 @@ public class EmailServiceImpl extends ServiceImpl<EmailMapper, Email> implements
         
         // 删除邮件记录
         removeById(emailId);
+        emailThreadService.onEmailRemoved(email);
+        pushService.publishCounterDelta(userId, email.getAliasId(), Boolean.TRUE.equals(email.getIsRead()) ? 0 : -1, -1);
         
         log.info("邮件删除成功: emailId={}, userId={}", emailId, userId);
     }
@@ -201,6 +300,9 @@ public class EmailServiceImpl extends ServiceImpl<EmailMapper, Email> implements
         if (!email.getIsRead()) {
             email.setIsRead(true);
             updateById(email);
+            emailThreadService.onReadStateChanged(email, true);
+            pushService.publishFlagChange(email, "read", true);
+            pushService.publishCounterDelta(userId, email.getAliasId(), -1, 0);
         }
     }
 
@@ -213,6 +315,7 @@ public class EmailServiceImpl extends ServiceImpl<EmailMapper, Email> implements
         
         email.setIsImportant(important);
         updateById(email);
+        pushService.publishFlagChange(email, "important", important);
     }
 
     @Override
@@ -236,10 +339,15 @@ public class EmailServiceImpl extends ServiceImpl<EmailMapper, Email> implements
             
             // 同步收件箱邮件
             List<Email> inboxEmails = imapService.syncEmails(alias, "INBOX");
+            inboxEmails.forEach(this::renderContent);
+            List<Email> newInboxEmails = assignThreads(inboxEmails);
             saveOrUpdateBatch(inboxEmails);
+            newInboxEmails.forEach(pushService::publishNewMail);
             
             // 同步发件箱邮件
             List<Email> sentEmails = imapService.syncEmails(alias, "Sent");
+            sentEmails.forEach(this::renderContent);
+            assignThreads(sentEmails);
             saveOrUpdateBatch(sentEmails);
             
             // 断开连接
@@ -271,16 +379,20 @@ public class EmailServiceImpl extends ServiceImpl<EmailMapper, Email> implements
             imapService.connect(alias, domain);
             
             // 获取新邮件
-            List<Email> newEmails = imapService.getNewEmails(alias, "INBOX");
-            
-            // 保存新邮件
-            if (!newEmails.isEmpty()) {
-                saveOrUpdateBatch(newEmails);
-            }
+            Map<String, ParsedMessage> messages = imapService.getNewMessages(alias, "INBOX");
             
             // 断开连接
             imapService.disconnect();
             
+            // 每封新邮件只经过一次入站流水线（认证、扫描、Sieve、入库、redirect、转发、自动回复）
+            List<Email> newEmails = new ArrayList<>();
+            for (Map.Entry<String, ParsedMessage> entry : messages.entrySet()) {
+                Email stored = deliverInbound(alias, entry.getKey(), entry.getValue());
+                if (stored != null) {
+                    newEmails.add(stored);
+                }
+            }
+            
             return newEmails;
             
         } catch (Exception e) {
@@ -289,6 +401,132 @@ public class EmailServiceImpl extends ServiceImpl<EmailMapper, Email> implements
         }
     }
 
+    /**
+     * 收件人地址以逗号分隔保存（与发信记录一致），没有地址时返回null
+     */
+    private String joinAddresses(Address[] addresses) {
+        if (addresses == null || addresses.length == 0) {
+            return null;
+        }
+        List<String> values = new ArrayList<>(addresses.length);
+        for (Address address : addresses) {
+            values.add(address instanceof InternetAddress ? ((InternetAddress) address).getAddress() : address.toString());
+        }
+        return String.join(",", values);
+    }
+
+    /**
+     * 发件人、收件人列为非空的VARCHAR(255)：空值写入空串，超长时截断，避免入库失败后每次收取都重试
+     */
+    private static String fitAddressColumn(String value) {
+        if (value == null) {
+            return "";
+        }
+        return value.length() > 255 ? value.substring(0, 255) : value;
+    }
+
+    /**
+     * 认领并处理一封新邮件，已处理过或其他节点正在处理时跳过；处理失败时释放认领，下次收取时重试
+     */
+    private Email deliverInbound(UserAlias alias, String messageUid, ParsedMessage message) {
+        String messageId = message.header("message-id");
+        String messageKey;
+        if (messageId != null && !messageId.trim().isEmpty() && messageId.trim().length() <= 255) {
+            messageKey = messageId.trim();
+        } else {
+            byte[] raw = message.getRawBytes();
+            messageKey = ContentHash.of(raw, 0, raw.length);
+        }
+        if (inboundReceiptMapper.claim(IdWorker.getId(), alias.getId(), messageKey) == 0) {
+            return null;
+        }
+        // 本功能之前已同步保存的邮件不再重复处理
+        if (messageId != null && baseMapper.findByMessageId(messageId, alias.getUserId()) != null) {
+            inboundReceiptMapper.complete(alias.getId(), messageKey, InboundContext.DELIVER, null);
+            return null;
+        }
+
+        try {
+            InboundContext context = inboundPipeline.getObject().deliver(message, alias.getId(), messageUid);
+            Email stored = context.getStoredEmail();
+            inboundReceiptMapper.complete(alias.getId(), messageKey, context.getDisposition(),
+                    stored != null ? stored.getId() : null);
+            return stored;
+        } catch (RuntimeException e) {
+            inboundReceiptMapper.release(alias.getId(), messageKey);
+            log.error("处理入站邮件失败: aliasId={}, messageUid={}, error={}", alias.getId(), messageUid, e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    @Transactional
+    public Email storeInboundEmail(ParsedMessage message, Long aliasId, String folder, String messageUid) {
+        UserAlias alias = userAliasService.getById(aliasId);
+        if (alias == null) {
+            throw new RuntimeException("别名不存在");
+        }
+
+        try {
+            MimeMessage mimeMessage = message.getMimeMessage();
+            Email email = new Email();
+            email.setUserId(alias.getUserId());
+            email.setAliasId(alias.getId());
+            email.setMessageUid(messageUid);
+            email.setMessageId(message.header("message-id"));
+            email.setInReplyTo(message.header("in-reply-to"));
+            if (!message.headers("references").isEmpty()) {
+                email.setMessageReferences(String.join(" ", message.headers("references")));
+            }
+            String sender;
+            if (mimeMessage.getFrom() != null && mimeMessage.getFrom().length > 0) {
+                sender = MimeUtility.decodeText(mimeMessage.getFrom()[0].toString());
+            } else {
+                sender = message.getEnvelope().getMailFrom();
+            }
+            email.setSender(fitAddressColumn(sender));
+            // 只有密送或"undisclosed recipients"的邮件没有To头，依次退回信封收件人与别名地址
+            String recipient = joinAddresses(mimeMessage.getRecipients(MimeMessage.RecipientType.TO));
+            if (recipient == null && !message.getEnvelope().getRcptTo().isEmpty()) {
+                recipient = String.join(",", message.getEnvelope().getRcptTo());
+            }
+            if (recipient == null) {
+                recipient = alias.getAliasAddress();
+            }
+            email.setRecipient(fitAddressColumn(recipient));
+            email.setCc(joinAddresses(mimeMessage.getRecipients(MimeMessage.RecipientType.CC)));
+            // 解析时头部已按RFC 2047解码
+            email.setSubject(message.getSubject());
+            if (mimeMessage.getSentDate() != null) {
+                email.setSentTime(LocalDateTime.ofInstant(mimeMessage.getSentDate().toInstant(), ZoneId.systemDefault()));
+            }
+            email.setReceivedTime(LocalDateTime.now());
+            email.setSizeBytes(message.getSize());
+            email.setIsRead(false);
+            email.setIsImportant(false);
+            email.setEmailType(folder != null ? folder : Email.TYPE_INBOX);
+
+            EmailContentParser.ParseResult content = message.getContent();
+            email.setContentText(content.getTextContent());
+            email.setContentHtml(content.getHtmlContent());
+            email.setHasAttachment(content.hasAttachments());
+            email.setAttachmentCount(content.getAttachmentCount());
+            email.setStatus(Email.STATUS_PROCESSED);
+
+            renderContent(email);
+            emailThreadService.assignThread(email);
+            save(email);
+            if (!Email.TYPE_JUNK.equals(email.getEmailType()) && !Email.TYPE_QUARANTINE.equals(email.getEmailType())) {
+                pushService.publishNewMail(email);
+            }
+            return email;
+
+        } catch (Exception e) {
+            log.error("保存入站邮件失败: aliasId={}", aliasId, e);
+            throw new RuntimeException("保存入站邮件失败: " + e.getMessage());
+        }
+    }
+
     @Override
     public EmailDto.EmailStats getEmailStats(Long userId, Long aliasId) {
         LambdaQueryWrapper<Email> wrapper = new LambdaQueryWrapper<>();
@@ -372,8 +610,8 @@ public class EmailServiceImpl extends ServiceImpl<EmailMapper, Email> implements
         forwardRequest.setTextContent(forwardContent);
         forwardRequest.setHtmlContent(forwardHtmlContent);
         
-        // 发送转发邮件
-        sendEmail(forwardRequest, userId, aliasId, null);
+        // 发送转发邮件（附带原邮件附件）
+        sendEmail(forwardRequest, userId, aliasId, null, emailId, null);
     }
 
     @Override
@@ -407,13 +645,97 @@ public class EmailServiceImpl extends ServiceImpl<EmailMapper, Email> implements
         replyRequest.setHtmlContent(replyHtmlContent);
         
         // 发送回复邮件
-        sendEmail(replyRequest, userId, aliasId, null);
+        sendEmail(replyRequest, userId, aliasId, null, null, originalEmail);
+    }
+
+    /**
+     * 为新同步的邮件分配会话（已保存过的邮件跳过），返回新邮件
+     */
+    private List<Email> assignThreads(List<Email> emails) {
+        List<Email> added = new ArrayList<>();
+        for (Email email : emails) {
+            if (email != null && email.getId() == null && email.getThreadId() == null) {
+                emailThreadService.assignThread(email);
+                added.add(email);
+            }
+        }
+        return added;
+    }
+
+    /**
+     * 渲染结果缺失或由旧版净化策略生成时重新渲染（persist为true时写回邮件表）
+     */
+    private void ensureRendered(Email email, boolean persist) {
+        if (email.getRenderVersion() != null && email.getRenderVersion() >= HtmlSanitizer.POLICY_VERSION) {
+            return;
+        }
+        renderContent(email);
+        if (persist && email.getId() != null) {
+            LambdaUpdateWrapper<Email> wrapper = new LambdaUpdateWrapper<>();
+            wrapper.eq(Email::getId, email.getId())
+                   .set(Email::getContentSanitized, email.getContentSanitized())
+                   .set(Email::getSnippet, email.getSnippet())
+                   .set(Email::getTextLength, email.getTextLength())
+                   .set(Email::getRenderVersion, email.getRenderVersion())
+                   .set(Email::getRenderCidsPending, email.getRenderCidsPending());
+            update(wrapper);
+        }
+    }
+
+    /**
+     * 净化HTML、把cid:引用改写为带签名的内联图片地址，并提取摘要与文本长度
+     *
+     * 渲染版本总是写入当前策略版本；有cid:引用未能解析（邮件尚未保存或附件尚未入库）时另记标记，
+     * 只在之后为邮件新增带Content-ID的附件时才清除版本重新渲染，读取路径不会反复重新渲染和写回。
+     */
+    private void renderContent(Email email) {
+        Map<String, String> inlineUrls = new HashMap<>();
+        String html = email.getContentHtml();
+        if (email.getId() != null && html != null && html.toLowerCase().contains("cid:")) {
+            for (EmailAttachment attachment : attachmentService.getAttachmentsByEmailId(email.getId())) {
+                if (attachment.getContentId() != null) {
+                    inlineUrls.put(normalizeContentId(attachment.getContentId()),
+                            attachmentService.getInlineUrl(attachment.getId(), email.getUserId()));
+                }
+            }
+        }
+
+        boolean[] unresolved = new boolean[1];
+        HtmlSanitizer.RenderResult result = HtmlSanitizer.render(html, email.getContentText(), contentId -> {
+            String url = inlineUrls.get(normalizeContentId(contentId));
+            if (url == null) {
+                unresolved[0] = true;
+            }
+            return url;
+        });
+        email.setContentSanitized(result.getHtml());
+        email.setSnippet(result.getSnippet());
+        email.setTextLength(result.getTextLength());
+        email.setRenderVersion(HtmlSanitizer.POLICY_VERSION);
+        email.setRenderCidsPending(unresolved[0]);
+    }
+
+    private String normalizeContentId(String contentId) {
+        String value = contentId.trim();
+        if (value.startsWith("<") && value.endsWith(">")) {
+            value = value.substring(1, value.length() - 1);
+        }
+        // cid:地址中的Content-ID按URL编码（RFC 2392）
+        if (value.indexOf('%') >= 0) {
+            try {
+                value = URLDecoder.decode(value.replace("+", "%2B"), StandardCharsets.UTF_8);
+            } catch (IllegalArgumentException e) {
+                // 非法编码时按原样比较
+            }
+        }
+        return value.toLowerCase();
     }
 
     /**
      * 转换Email实体为EmailDto
      */
     private EmailDto convertToDto(Email email) {
+        ensureRendered(email, true);
         EmailDto dto = EmailDto.builder()
                 .id(email.getId())
                 .userId(email.getUserId())
@@ -426,7 +748,9 @@ public class EmailServiceImpl extends ServiceImpl<EmailMapper, Email> implements
                 .bcc(email.getBcc())
                 .subject(email.getSubject())
                 .contentText(email.getContentText())
-                .contentHtml(email.getContentHtml())
+                .contentHtml(email.getContentSanitized())
+                .snippet(email.getSnippet())
+                .textLength(email.getTextLength())
                 .emailType(email.getEmailType())
                 .sentTime(email.getSentTime())
                 .receivedTime(email.getReceivedTime())
@@ -0,0 +1,431 @@
+package com.enterprise.email.service.impl;
+
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.baomidou.mybatisplus.core.metadata.IPage;
+import com.baomidou.mybatisplus.core.toolkit.IdWorker;
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.enterprise.email.entity.Email;
+import com.enterprise.email.entity.EmailThread;
+import com.enterprise.email.entity.EmailThreadKey;
+import com.enterprise.email.mapper.EmailMapper;
+import com.enterprise.email.mapper.EmailThreadKeyMapper;
+import com.enterprise.email.mapper.EmailThreadMapper;
+import com.enterprise.email.service.EmailThreadService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 邮件会话服务实现类
+ *
+ * 会话表本身即持久化的并查集：merged_into 为父指针，根会话的 merged_into 为空。
+ * 内存中缓存父指针并做路径压缩，合并时按邮件数（union by size）把小会话并入大会话，
+ * 因此查找与合并均摊接近 O(α(n))；被合并会话的邮件改挂到根会话，每封邮件最多改挂 O(log n) 次。
+ * 同一用户的会话分配在进程内按用户分段加锁，只用于减少冲突；跨节点的正确性由数据库保证：
+ * 合并前按主键顺序锁定两个会话并确认都仍是根会话，新邮件只计入未被合并的会话，
+ * 缓存的父指针过期（会话已在其他节点合并）时从数据库重新解析到最终的根会话。
+ * 事务中读到或写入的父指针在提交后才进入缓存，回滚时丢弃。
+ */
+@Slf4j
+@Service
+public class EmailThreadServiceImpl implements EmailThreadService {
+
+    private static final int LOCK_STRIPES = 64;
+    private static final int MAX_KEY_LENGTH = 255;
+    private static final int MAX_REFERENCES = 20;
+    private static final int MAX_FIND_DEPTH = 64;
+
+    private static final Pattern MESSAGE_ID = Pattern.compile("<([^<>\\s]+)>");
+    private static final Pattern REPLY_PREFIX = Pattern.compile(
+            "^\\s*(re|fw|fwd|aw|sv|回复|答复|转发)\\s*(\\[\\d+\\])?\\s*[:：]\\s*", Pattern.CASE_INSENSITIVE);
+    private static final Pattern LIST_TAG = Pattern.compile("^\\s*\\[[^\\]]*\\]\\s*");
+
+    private final EmailThreadMapper threadMapper;
+    private final EmailThreadKeyMapper keyMapper;
+    private final EmailMapper emailMapper;
+    private final Object[] stripeLocks = new Object[LOCK_STRIPES];
+
+    // 会话父指针缓存（根会话指向自身）
+    private final Map<Long, Long> parents = new ConcurrentHashMap<>();
+    // 当前事务中待提交的父指针，作为事务资源的键
+    private final Object pendingParentsKey = new Object();
+
+    @Value("${email.thread.cache-size:100000}")
+    private int cacheSize;
+
+    public EmailThreadServiceImpl(EmailThreadMapper threadMapper,
+                                  EmailThreadKeyMapper keyMapper,
+                                  EmailMapper emailMapper) {
+        this.threadMapper = threadMapper;
+        this.keyMapper = keyMapper;
+        this.emailMapper = emailMapper;
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            stripeLocks[i] = new Object();
+        }
+    }
+
+    @Override
+    public void assignThread(Email email) {
+        if (email.getUserId() == null) {
+            return;
+        }
+        Long userId = email.getUserId();
+
+        List<String> ownIds = extractMessageIds(email.getMessageId());
+        List<String> parentIds = extractParentIds(email);
+        Set<String> keys = new LinkedHashSet<>();
+        if (!ownIds.isEmpty()) {
+            keys.add(ownIds.get(0));
+        }
+        keys.addAll(parentIds);
+
+        String normalizedSubject = normalizeSubject(email.getSubject());
+        boolean replySubject = isReplySubject(email.getSubject());
+        boolean unread = !Boolean.TRUE.equals(email.getIsRead());
+
+        synchronized (lockFor(userId)) {
+            // 已指定会话（如回复本地邮件）时以其为起点
+            Long threadId = email.getThreadId() != null ? find(email.getThreadId()) : null;
+
+            // 任一已知的Message-ID命中即归入该会话；命中多个会话说明迟到的父邮件连接了它们，合并
+            if (!keys.isEmpty()) {
+                for (EmailThreadKey key : keyMapper.selectByKeys(userId, EmailThreadKey.TYPE_MESSAGE, new ArrayList<>(keys))) {
+                    threadId = threadId == null ? find(key.getThreadId()) : union(threadId, key.getThreadId());
+                }
+            }
+
+            // 没有引用头的回复，按规范化主题归入最近的同主题会话
+            if (threadId == null && parentIds.isEmpty() && replySubject && !normalizedSubject.isEmpty()) {
+                List<EmailThreadKey> subjectKeys = keyMapper.selectByKeys(userId, EmailThreadKey.TYPE_SUBJECT,
+                        Collections.singletonList(normalizedSubject));
+                if (!subjectKeys.isEmpty()) {
+                    threadId = find(subjectKeys.get(0).getThreadId());
+                }
+            }
+
+            Long target = threadId != null ? addMessage(threadId, unread, messageTime(email)) : null;
+            boolean created = target == null;
+            if (created) {
+                target = createThread(userId, email.getSubject());
+                threadMapper.addMessages(target, 1, unread ? 1 : 0, messageTime(email));
+            }
+
+            // 登记自身与引用的Message-ID，父邮件迟到时可以找到本会话
+            for (String key : keys) {
+                keyMapper.insertIgnore(IdWorker.getId(), userId, EmailThreadKey.TYPE_MESSAGE, key, target);
+            }
+            if (created && !normalizedSubject.isEmpty()) {
+                keyMapper.upsert(IdWorker.getId(), userId, EmailThreadKey.TYPE_SUBJECT, normalizedSubject, target);
+            }
+
+            email.setThreadId(target);
+        }
+    }
+
+    @Override
+    public void onReadStateChanged(Email email, boolean read) {
+        if (email.getThreadId() == null) {
+            return;
+        }
+        threadMapper.adjustUnread(find(email.getThreadId()), read ? -1 : 1);
+    }
+
+    @Override
+    public void onEmailRemoved(Email email) {
+        if (email.getThreadId() == null) {
+            return;
+        }
+        threadMapper.recomputeAggregates(find(email.getThreadId()));
+    }
+
+    @Override
+    public void refreshThreads(Collection<Long> threadIds) {
+        Set<Long> roots = new HashSet<>();
+        for (Long threadId : threadIds) {
+            if (threadId != null) {
+                roots.add(find(threadId));
+            }
+        }
+        for (Long rootId : roots) {
+            threadMapper.recomputeAggregates(rootId);
+        }
+    }
+
+    @Override
+    public void onEmailsPurged(Collection<Email> emails) {
+        Map<Long, Set<String>> keysByUser = new HashMap<>();
+        Set<Long> threadIds = new HashSet<>();
+        for (Email email : emails) {
+            List<String> ownIds = extractMessageIds(email.getMessageId());
+            if (email.getUserId() != null && !ownIds.isEmpty()) {
+                keysByUser.computeIfAbsent(email.getUserId(), k -> new LinkedHashSet<>()).add(ownIds.get(0));
+            }
+            if (email.getThreadId() != null) {
+                threadIds.add(email.getThreadId());
+            }
+        }
+        // 同一Message-ID仍有其他邮件（如同步到多个别名）时保留键
+        keysByUser.forEach((userId, keys) ->
+                keyMapper.deleteUnreferencedMessageKeys(userId, new ArrayList<>(keys)));
+        refreshThreads(threadIds);
+    }
+
+    @Override
+    public Long resolveThreadId(Long threadId) {
+        return threadId != null ? find(threadId) : null;
+    }
+
+    @Override
+    public IPage<EmailThread> getThreads(Long userId, Page<EmailThread> page) {
+        return threadMapper.selectThreadPage(page, userId);
+    }
+
+    @Override
+    public List<Email> getThreadEmails(Long threadId, Long userId) {
+        Long rootId = find(threadId);
+        EmailThread thread = threadMapper.selectById(rootId);
+        if (thread == null || !thread.getUserId().equals(userId)) {
+            return null;
+        }
+
+        LambdaQueryWrapper<Email> wrapper = new LambdaQueryWrapper<>();
+        wrapper.eq(Email::getThreadId, rootId)
+               .eq(Email::getUserId, userId)
+               .orderByAsc(Email::getReceivedTime)
+               .orderByAsc(Email::getId);
+        return emailMapper.selectList(wrapper);
+    }
+
+    /**
+     * 查找根会话，并对经过的路径做压缩
+     */
+    private Long find(Long threadId) {
+        Long root = threadId;
+        List<Long> path = new ArrayList<>();
+        while (path.size() < MAX_FIND_DEPTH) {
+            Long parent = parentOf(root);
+            if (parent.equals(root)) {
+                break;
+            }
+            path.add(root);
+            root = parent;
+        }
+        for (Long node : path) {
+            cacheParent(node, root);
+        }
+        return root;
+    }
+
+    /**
+     * 合并两个会话：邮件数少的并入邮件数多的
+     */
+    private Long union(Long a, Long b) {
+        for (int attempt = 0; attempt < MAX_FIND_DEPTH; attempt++) {
+            Long rootA = find(a);
+            Long rootB = find(b);
+            if (rootA.equals(rootB)) {
+                return rootA;
+            }
+
+            EmailThread threadA = null;
+            EmailThread threadB = null;
+            for (EmailThread thread : threadMapper.selectPairForUpdate(rootA, rootB)) {
+                if (thread.getId().equals(rootA)) {
+                    threadA = thread;
+                } else {
+                    threadB = thread;
+                }
+            }
+            if (threadA == null || threadB == null) {
+                return threadA != null ? rootA : rootB;
+            }
+            if (threadA.getMergedInto() != null || threadB.getMergedInto() != null) {
+                // 缓存已过期（会话已在别处被合并），重新从数据库解析
+                parents.remove(rootA);
+                parents.remove(rootB);
+                continue;
+            }
+
+            EmailThread winner = sizeOf(threadA) >= sizeOf(threadB) ? threadA : threadB;
+            EmailThread loser = winner == threadA ? threadB : threadA;
+
+            // 两行已锁定且都是根会话，合并必然成功；聚合按邮件表重算，不依赖读到的计数
+            threadMapper.markMerged(loser.getId(), winner.getId());
+            threadMapper.moveEmails(loser.getId(), winner.getId());
+            threadMapper.recomputeAggregates(winner.getId());
+            cacheParent(loser.getId(), winner.getId());
+
+            log.debug("合并会话: from={}, into={}", loser.getId(), winner.getId());
+            return winner.getId();
+        }
+        throw new IllegalStateException("会话合并重试次数过多: " + a + ", " + b);
+    }
+
+    /**
+     * 新邮件计入会话；会话已被合并（缓存过期）时解析到最终的根会话再计入，会话不存在时返回null
+     */
+    private Long addMessage(Long threadId, boolean unread, LocalDateTime time) {
+        Long target = threadId;
+        for (int attempt = 0; attempt < MAX_FIND_DEPTH; attempt++) {
+            if (threadMapper.addMessages(target, 1, unread ? 1 : 0, time) > 0) {
+                return target;
+            }
+            parents.remove(target);
+            Long resolved = find(target);
+            if (resolved.equals(target)) {
+                return null;
+            }
+            target = resolved;
+        }
+        return null;
+    }
+
+    private Long parentOf(Long threadId) {
+        Long cached = parents.get(threadId);
+        if (cached != null) {
+            return cached;
+        }
+        EmailThread thread = threadMapper.selectById(threadId);
+        Long parent = thread != null && thread.getMergedInto() != null ? thread.getMergedInto() : threadId;
+        cacheParent(threadId, parent);
+        return parent;
+    }
+
+    /**
+     * 缓存父指针；在事务中时暂存，提交后才写入缓存，回滚时丢弃
+     */
+    @SuppressWarnings("unchecked")
+    private void cacheParent(Long threadId, Long parent) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            putParent(threadId, parent);
+            return;
+        }
+        Map<Long, Long> pending = (Map<Long, Long>) TransactionSynchronizationManager.getResource(pendingParentsKey);
+        if (pending == null) {
+            Map<Long, Long> created = new HashMap<>();
+            TransactionSynchronizationManager.bindResource(pendingParentsKey, created);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    created.forEach(EmailThreadServiceImpl.this::putParent);
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(pendingParentsKey);
+                }
+            });
+            pending = created;
+        }
+        pending.put(threadId, parent);
+    }
+
+    private void putParent(Long threadId, Long parent) {
+        if (parents.size() >= cacheSize) {
+            // 缓存只是加速，数据库中的父指针才是准确数据
+            parents.clear();
+        }
+        parents.put(threadId, parent);
+    }
+
+    private Long createThread(Long userId, String subject) {
+        EmailThread thread = new EmailThread();
+        thread.setUserId(userId);
+        thread.setSubject(subject);
+        thread.setMessageCount(0);
+        thread.setUnreadCount(0);
+        thread.setCreateTime(LocalDateTime.now());
+        thread.setUpdateTime(LocalDateTime.now());
+        threadMapper.insert(thread);
+        cacheParent(thread.getId(), thread.getId());
+        return thread.getId();
+    }
+
+    /**
+     * 父邮件ID：References（取最近的若干个）与In-Reply-To，排除自身
+     */
+    private List<String> extractParentIds(Email email) {
+        Set<String> ids = new LinkedHashSet<>();
+        List<String> references = extractMessageIds(email.getMessageReferences());
+        ids.addAll(references.subList(Math.max(0, references.size() - MAX_REFERENCES), references.size()));
+        ids.addAll(extractMessageIds(email.getInReplyTo()));
+        ids.removeAll(extractMessageIds(email.getMessageId()));
+        return new ArrayList<>(ids);
+    }
+
+    private List<String> extractMessageIds(String header) {
+        List<String> ids = new ArrayList<>();
+        if (header == null || header.isBlank()) {
+            return ids;
+        }
+        Matcher matcher = MESSAGE_ID.matcher(header);
+        while (matcher.find()) {
+            if (matcher.group(1).length() <= MAX_KEY_LENGTH) {
+                ids.add(matcher.group(1));
+            }
+        }
+        // 不带尖括号的非标准写法
+        String trimmed = header.trim();
+        if (ids.isEmpty() && !trimmed.contains(" ") && trimmed.length() <= MAX_KEY_LENGTH) {
+            ids.add(trimmed);
+        }
+        return ids;
+    }
+
+    /**
+     * 规范化主题：去除回复/转发前缀与邮件列表标签，合并空白并转为小写
+     */
+    private String normalizeSubject(String subject) {
+        if (subject == null) {
+            return "";
+        }
+        String result = subject;
+        boolean stripped = true;
+        while (stripped) {
+            stripped = false;
+            Matcher reply = REPLY_PREFIX.matcher(result);
+            if (reply.lookingAt()) {
+                result = result.substring(reply.end());
+                stripped = true;
+            }
+            Matcher tag = LIST_TAG.matcher(result);
+            if (tag.lookingAt()) {
+                result = result.substring(tag.end());
+                stripped = true;
+            }
+        }
+        result = result.replaceAll("\\s+", " ").trim().toLowerCase();
+        return result.length() > MAX_KEY_LENGTH ? result.substring(0, MAX_KEY_LENGTH) : result;
+    }
+
+    private boolean isReplySubject(String subject) {
+        if (subject == null) {
+            return false;
+        }
+        String rest = LIST_TAG.matcher(subject).replaceFirst("");
+        return REPLY_PREFIX.matcher(rest).lookingAt();
+    }
+
+    private LocalDateTime messageTime(Email email) {
+        if (email.getReceivedTime() != null) {
+            return email.getReceivedTime();
+        }
+        return email.getSentTime() != null ? email.getSentTime() : LocalDateTime.now();
+    }
+
+    private int sizeOf(EmailThread thread) {
+        return thread.getMessageCount() != null ? thread.getMessageCount() : 0;
+    }
+
+    private Object lockFor(Long userId) {
+        return stripeLocks[(int) Math.floorMod(userId, (long) LOCK_STRIPES)];
+    }
+}
@@ -1,15 +1,22 @@
 package com.enterprise.email.service.impl;
 
 import com.enterprise.email.entity.ForwardingConfig;
+import com.enterprise.email.entity.ProcessingHistory;
+import com.enterprise.email.inbound.ParsedMessage;
 import com.enterprise.email.mapper.ForwardingConfigMapper;
 import com.enterprise.email.service.ForwardingService;
+import com.enterprise.email.service.ProcessingHistoryService;
+import com.enterprise.email.service.RateLimitService;
 import com.enterprise.email.service.SmtpService;
+import com.enterprise.email.sieve.ContainsIndex;
+import com.enterprise.email.sieve.ContainsScan;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.util.*;
@@ -23,12 +30,16 @@ import java.util.regex.Pattern;
 @RequiredArgsConstructor
 public class ForwardingServiceImpl implements ForwardingService {
 
+    private static final String RATE_LIMIT_KEY = "forwarding:";
+    private static final Duration RATE_LIMIT_WINDOW = Duration.ofHours(1);
+
     private final ForwardingConfigMapper forwardingConfigMapper;
     private final SmtpService smtpService;
+    private final ContainsIndex containsIndex;
+    private final ProcessingHistoryService historyService;
+    private final RateLimitService rateLimitService;
     private final ObjectMapper objectMapper = new ObjectMapper();
     
-    // 转发历史缓存
-    private final Map<Long, List<Map<String, Object>>> forwardingHistory = new HashMap<>();
     // 转发队列
     private final List<Map<String, Object>> forwardingQueue = new ArrayList<>();
 
@@ -105,14 +116,22 @@ public class ForwardingServiceImpl implements ForwardingService {
 
     @Override
     public Map<String, Object> processEmailForwarding(String emailContent, Long userAliasId) {
+        return processEmailForwarding(ParsedMessage.parse(emailContent), userAliasId);
+    }
+
+    @Override
+    public Map<String, Object> processEmailForwarding(ParsedMessage message, Long userAliasId) {
         Map<String, Object> result = new HashMap<>();
         List<Map<String, Object>> forwardedEmails = new ArrayList<>();
         
         try {
             List<ForwardingConfig> configs = getUserActiveConfigs(userAliasId);
             
-            // 解析邮件内容
-            Map<String, Object> emailData = parseEmailContent(emailContent);
+            Map<String, Object> emailData = message.toEmailData();
+            
+            // 所有配置的"包含"条件共用一次字段扫描（与同一封邮件的Sieve过滤共用）
+            registerContainsNeedles(userAliasId, configs);
+            emailData.put("containsScan", message.containsScan(userAliasId, containsIndex));
             
             boolean emailForwarded = false;
             
@@ -127,8 +146,8 @@ public class ForwardingServiceImpl implements ForwardingService {
                     Map<String, Object> shouldForward = shouldForwardEmail(config, emailData);
                     
                     if (Boolean.TRUE.equals(shouldForward.get("shouldForward"))) {
-                        // 检查频率限制
-                        if (!checkRateLimit(config)) {
+                        // 占用频率配额
+                        if (!acquireRateLimit(config)) {
                             updateSkipStatistics(config, "超出频率限制");
                             continue;
                         }
@@ -192,7 +211,7 @@ public class ForwardingServiceImpl implements ForwardingService {
             }
             
             // 解析邮件内容
-            Map<String, Object> emailData = parseEmailContent(emailContent);
+            Map<String, Object> emailData = ParsedMessage.parse(emailContent).toEmailData();
             
             // 检查是否应该转发
             Map<String, Object> shouldForward = shouldForwardEmail(config, emailData);
@@ -264,8 +283,7 @@ public class ForwardingServiceImpl implements ForwardingService {
                 }
             }
             
-            // 更新转发计数
-            updateRateLimit(config);
+            // 记录最后转发时间
             config.setLastForwardedAt(LocalDateTime.now());
             updateForwardingConfig(config);
             
@@ -609,31 +627,12 @@ public class ForwardingServiceImpl implements ForwardingService {
 
     @Override
     public List<Map<String, Object>> getForwardingHistory(Long userAliasId, int limit) {
-        List<Map<String, Object>> history = forwardingHistory.get(userAliasId);
-        if (history == null) {
-            return new ArrayList<>();
-        }
-        
-        int start = Math.max(0, history.size() - limit);
-        return new ArrayList<>(history.subList(start, history.size()));
+        return historyService.getRecent(ProcessingHistory.SOURCE_FORWARDING, userAliasId, limit);
     }
 
     @Override
     public boolean cleanupForwardingHistory(Long userAliasId, int days) {
-        try {
-            List<Map<String, Object>> history = forwardingHistory.get(userAliasId);
-            if (history != null) {
-                LocalDateTime cutoff = LocalDateTime.now().minusDays(days);
-                history.removeIf(record -> {
-                    LocalDateTime recordTime = (LocalDateTime) record.get("forwardedAt");
-                    return recordTime != null && recordTime.isBefore(cutoff);
-                });
-            }
-            return true;
-        } catch (Exception e) {
-            log.error("清理转发历史失败: {}", e.getMessage(), e);
-            return false;
-        }
+        return historyService.cleanup(ProcessingHistory.SOURCE_FORWARDING, userAliasId, days);
     }
 
     @Override
@@ -646,6 +645,7 @@ public class ForwardingServiceImpl implements ForwardingService {
                 config.setFailedForwards(0L);
                 config.setSkippedCount(0L);
                 config.setCurrentHourCount(0);
+                rateLimitService.resetByPrefix(rateLimitKey(configId));
                 return updateForwardingConfig(config);
             }
         } catch (Exception e) {
@@ -892,49 +892,6 @@ public class ForwardingServiceImpl implements ForwardingService {
         if (config.getPriority() == null) config.setPriority(100);
     }
 
-    private Map<String, Object> parseEmailContent(String emailContent) {
-        Map<String, Object> emailData = new HashMap<>();
-        
-        try {
-            String[] lines = emailContent.split("\n");
-            Map<String, String> headers = new HashMap<>();
-            StringBuilder body = new StringBuilder();
-            boolean inBody = false;
-            
-            for (String line : lines) {
-                if (!inBody && line.trim().isEmpty()) {
-                    inBody = true;
-                    continue;
-                }
-                
-                if (!inBody) {
-                    int colonIndex = line.indexOf(':');
-                    if (colonIndex > 0) {
-                        String headerName = line.substring(0, colonIndex).trim().toLowerCase();
-                        String headerValue = line.substring(colonIndex + 1).trim();
-                        headers.put(headerName, headerValue);
-                    }
-                } else {
-                    body.append(line).append("\n");
-                }
-            }
-            
-            emailData.put("headers", headers);
-            emailData.put("content", emailContent);
-            emailData.put("body", body.toString());
-            emailData.put("from", headers.get("from"));
-            emailData.put("to", headers.get("to"));
-            emailData.put("subject", headers.get("subject"));
-            emailData.put("date", headers.get("date"));
-            emailData.put("size", emailContent.length());
-            
-        } catch (Exception e) {
-            log.error("解析邮件内容失败: {}", e.getMessage(), e);
-        }
-        
-        return emailData;
-    }
-
     private boolean isConfigEffective(ForwardingConfig config) {
         LocalDateTime now = LocalDateTime.now();
         
@@ -949,25 +906,28 @@ public class ForwardingServiceImpl implements ForwardingService {
         return true;
     }
 
+    private static String rateLimitKey(Long configId) {
+        return RATE_LIMIT_KEY + configId + ":";
+    }
+
+    /**
+     * 检查最近一小时是否还有转发配额（不占用）
+     */
     private boolean checkRateLimit(ForwardingConfig config) {
         if (config.getRateLimit() == null) {
             return true;
         }
-        
-        LocalDateTime now = LocalDateTime.now();
-        LocalDateTime currentHourStart = config.getCurrentHourStart();
-        
-        // 检查是否需要重置计数器（新的小时开始）
-        if (currentHourStart == null || now.getHour() != currentHourStart.getHour()) {
-            config.setCurrentHourCount(0);
-            config.setCurrentHourStart(now.withMinute(0).withSecond(0).withNano(0));
-        }
-        
-        return config.getCurrentHourCount() < config.getRateLimit();
+        return rateLimitService.isAllowed(rateLimitKey(config.getId()), config.getRateLimit(), RATE_LIMIT_WINDOW);
     }
 
-    private void updateRateLimit(ForwardingConfig config) {
-        config.setCurrentHourCount(config.getCurrentHourCount() + 1);
+    /**
+     * 占用一次转发配额（滑动一小时窗口，所有节点共享）
+     */
+    private boolean acquireRateLimit(ForwardingConfig config) {
+        if (config.getRateLimit() == null) {
+            return true;
+        }
+        return rateLimitService.tryAcquire(rateLimitKey(config.getId()), config.getRateLimit(), RATE_LIMIT_WINDOW);
     }
 
     private List<String> parseTargetAddresses(String targetAddressesJson) {
@@ -1118,6 +1078,13 @@ public class ForwardingServiceImpl implements ForwardingService {
         String operator = (String) condition.get("operator");
         String value = (String) condition.get("value");
         
+        // 字面量"包含"条件查询本封邮件的扫描结果
+        String field = containsField(condition);
+        if ("contains".equals(operator) && field != null && value != null
+                && emailData.get("containsScan") instanceof ContainsScan) {
+            return ((ContainsScan) emailData.get("containsScan")).contains(field, value, false);
+        }
+        
         switch (type) {
             case "subject":
                 String subject = (String) emailData.get("subject");
@@ -1143,6 +1110,64 @@ public class ForwardingServiceImpl implements ForwardingService {
         }
     }
 
+    /**
+     * 条件对应的扫描字段（不是字符串条件时返回null）
+     */
+    private String containsField(Map<String, Object> condition) {
+        String type = (String) condition.get("type");
+        if (type == null) {
+            return null;
+        }
+        switch (type) {
+            case "subject":
+                return ContainsIndex.headerField("subject");
+            case "sender":
+                return ContainsIndex.headerField("from");
+            case "header":
+                Object header = condition.get("header");
+                return header != null ? ContainsIndex.headerField(header.toString()) : null;
+            case "body":
+                return ContainsIndex.BODY_FIELD;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * 把别名下启用配置的"包含"条件登记到索引；条件签名不变时跳过解析
+     */
+    private void registerContainsNeedles(Long userAliasId, List<ForwardingConfig> configs) {
+        StringBuilder signature = new StringBuilder();
+        for (ForwardingConfig config : configs) {
+            if (!"ALL".equals(config.getConditionType()) && config.getConditions() != null) {
+                signature.append(config.getId()).append(':').append(config.getConditions().hashCode()).append(';');
+            }
+        }
+        containsIndex.update(userAliasId, ContainsIndex.SOURCE_FORWARDING, signature.toString(), () -> {
+            List<ContainsIndex.Needle> needles = new ArrayList<>();
+            for (ForwardingConfig config : configs) {
+                if ("ALL".equals(config.getConditionType()) || config.getConditions() == null) {
+                    continue;
+                }
+                try {
+                    List<Map<String, Object>> conditions = objectMapper.readValue(
+                        config.getConditions(), new TypeReference<List<Map<String, Object>>>() {}
+                    );
+                    for (Map<String, Object> condition : conditions) {
+                        String field = containsField(condition);
+                        Object value = condition.get("value");
+                        if ("contains".equals(condition.get("operator")) && field != null && value != null) {
+                            needles.add(new ContainsIndex.Needle(field, value.toString(), false));
+                        }
+                    }
+                } catch (Exception e) {
+                    log.warn("解析转发条件失败: configId={}, error={}", config.getId(), e.getMessage());
+                }
+            }
+            return needles;
+        });
+    }
+
     private boolean evaluateStringCondition(String actual, String expected, String operator) {
         if (actual == null) {
             return false;
@@ -1254,13 +1279,8 @@ public class ForwardingServiceImpl implements ForwardingService {
     }
 
     private void recordForwardingHistory(Long userAliasId, Map<String, Object> forwardInfo) {
-        List<Map<String, Object>> history = forwardingHistory.computeIfAbsent(userAliasId, k -> new ArrayList<>());
-        history.add(forwardInfo);
-        
-        // 保持历史记录在合理范围内
-        if (history.size() > 1000) {
-            history.subList(0, history.size() - 1000).clear();
-        }
+        Object refId = forwardInfo.get("configId");
+        historyService.record(ProcessingHistory.SOURCE_FORWARDING, userAliasId, refId instanceof Long ? (Long) refId : null, forwardInfo);
     }
 
     private String extractDomain(String email) {
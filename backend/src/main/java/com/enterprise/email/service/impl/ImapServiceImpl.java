@@ -5,6 +5,7 @@ import com.enterprise.email.entity.Email;
 import com.enterprise.email.entity.EmailAttachment;
 import com.enterprise.email.entity.UserAlias;
 import com.enterprise.email.entity.ImapPop3Config;
+import com.enterprise.email.inbound.ParsedMessage;
 import com.enterprise.email.mapper.ImapPop3ConfigMapper;
 import com.enterprise.email.service.ImapService;
 import com.enterprise.email.utils.EmailContentParser;
@@ -19,6 +20,8 @@ import javax.mail.internet.InternetAddress;
 import javax.mail.internet.MimeMessage;
 import javax.mail.internet.MimeMultipart;
 import javax.mail.internet.MimeUtility;
+import javax.mail.search.*;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.time.LocalDateTime;
@@ -180,6 +183,38 @@ public class ImapServiceImpl implements ImapService {
         return emails;
     }
 
+    @Override
+    public Map<String, ParsedMessage> getNewMessages(UserAlias alias, String folderName) throws MessagingException {
+        Map<String, ParsedMessage> messages = new LinkedHashMap<>();
+        
+        try {
+            Folder folder = store.getFolder(folderName);
+            folder.open(Folder.READ_ONLY);
+            currentFolder = folder;
+            
+            // 搜索未读邮件
+            SearchTerm searchTerm = new FlagTerm(new Flags(Flags.Flag.SEEN), false);
+            for (Message message : folder.search(searchTerm)) {
+                try {
+                    ByteArrayOutputStream raw = new ByteArrayOutputStream(Math.max(1024, message.getSize()));
+                    message.writeTo(raw);
+                    messages.put(String.valueOf(message.getMessageNumber()),
+                            ParsedMessage.parse(raw.toByteArray(), ParsedMessage.Envelope.EMPTY));
+                } catch (IOException | MessagingException e) {
+                    log.error("读取新邮件失败: {}", e.getMessage(), e);
+                }
+            }
+            
+            log.info("获取新邮件原始内容完成: folder={}, count={}", folderName, messages.size());
+            
+        } catch (MessagingException e) {
+            log.error("获取新邮件失败: folder={}, error={}", folderName, e.getMessage());
+            throw e;
+        }
+        
+        return messages;
+    }
+
     @Override
     public List<String> getFolders(UserAlias alias, Domain domain) throws MessagingException {
         List<String> folderNames = new ArrayList<>();
@@ -373,6 +408,16 @@ public class ImapServiceImpl implements ImapService {
             if (messageIds != null && messageIds.length > 0) {
                 email.setMessageId(messageIds[0]);
             }
+
+            // 设置会话相关头（In-Reply-To、References）
+            String[] inReplyTo = message.getHeader("In-Reply-To");
+            if (inReplyTo != null && inReplyTo.length > 0) {
+                email.setInReplyTo(inReplyTo[0]);
+            }
+            String[] references = message.getHeader("References");
+            if (references != null && references.length > 0) {
+                email.setMessageReferences(String.join(" ", references));
+            }
             
             // 发件人
             Address[] fromAddresses = message.getFrom();
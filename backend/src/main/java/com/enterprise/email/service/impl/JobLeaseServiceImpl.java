@@ -0,0 +1,74 @@
+package com.enterprise.email.service.impl;
+
+import com.enterprise.email.mapper.JobLeaseMapper;
+import com.enterprise.email.service.JobLeaseService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.net.InetAddress;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+/**
+ * 跨节点任务租约服务实现类
+ *
+ * 租约行以名称为主键，获取与续期都是一条带条件的UPDATE（已过期或本节点持有），
+ * 由数据库保证同一时刻只有一个节点成功；到期时间使用数据库时钟，不依赖各节点时钟一致。
+ */
+@Slf4j
+@Service
+public class JobLeaseServiceImpl implements JobLeaseService {
+
+    private final JobLeaseMapper leaseMapper;
+    private final TransactionTemplate transactionTemplate;
+    private final String nodeId;
+
+    public JobLeaseServiceImpl(JobLeaseMapper leaseMapper, TransactionTemplate transactionTemplate) {
+        this.leaseMapper = leaseMapper;
+        this.transactionTemplate = transactionTemplate;
+        this.nodeId = hostName() + "-" + UUID.randomUUID().toString().substring(0, 8);
+    }
+
+    @Override
+    public boolean tryAcquire(String name, long leaseSeconds) {
+        leaseMapper.ensure(name);
+        boolean acquired = leaseMapper.acquire(name, nodeId, Math.max(1, leaseSeconds)) > 0;
+        if (!acquired) {
+            log.debug("租约由其他节点持有: name={}", name);
+        }
+        return acquired;
+    }
+
+    @Override
+    public void release(String name) {
+        try {
+            leaseMapper.release(name, nodeId);
+        } catch (Exception e) {
+            // 释放失败时租约到期后自然失效
+            log.warn("释放租约失败: name={}, error={}", name, e.getMessage());
+        }
+    }
+
+    @Override
+    public <T> T runLocked(String name, Supplier<T> action) {
+        leaseMapper.ensure(name);
+        return transactionTemplate.execute(status -> {
+            leaseMapper.lock(name);
+            return action.get();
+        });
+    }
+
+    @Override
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    private static String hostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            return "node";
+        }
+    }
+}
@@ -0,0 +1,295 @@
+package com.enterprise.email.service.impl;
+
+import com.baomidou.mybatisplus.core.toolkit.IdWorker;
+import com.enterprise.email.entity.ProcessingHistory;
+import com.enterprise.email.mapper.ProcessingHistoryMapper;
+import com.enterprise.email.service.ProcessingHistoryService;
+import com.enterprise.email.utils.ConcurrentRingBuffer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PreDestroy;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 邮件处理历史服务实现类
+ *
+ * 写入路径只做两件事：追加到别名的无锁环形缓冲区，再放入无锁的多生产者队列；
+ * 后台定时任务作为唯一消费者取出队列按批写库。缓冲区数量与待写入条数都有全局上限，
+ * 超出缓冲区上限时淘汰最久未写入的别名（数据已在库中或队列里），队列满时放弃落库并计数。
+ * 记录ID在写入时分配且随时间递增，内存不足以回答查询时按最旧的内存记录ID从数据库向前补齐。
+ * 本节点的缓冲区只含本节点的写入：距上次读库超过复查间隔时重新读取最新记录并按ID与内存合并，
+ * 其他节点写入的记录和"库中已无更早记录"的判断最多滞后一个复查间隔。
+ */
+@Slf4j
+@Service
+public class ProcessingHistoryServiceImpl implements ProcessingHistoryService {
+
+    private final ProcessingHistoryMapper historyMapper;
+    private final ObjectMapper objectMapper;
+
+    private final Map<String, AliasHistory> buffers = new ConcurrentHashMap<>();
+    private final Queue<PendingRecord> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final AtomicBoolean flushing = new AtomicBoolean();
+
+    private final AtomicLong persistedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong storeReads = new AtomicLong();
+
+    @Value("${email.history.per-alias-capacity:256}")
+    private int perAliasCapacity;
+
+    @Value("${email.history.max-buffers:5000}")
+    private int maxBuffers;
+
+    @Value("${email.history.max-pending:50000}")
+    private int maxPending;
+
+    @Value("${email.history.batch-size:500}")
+    private int batchSize;
+
+    @Value("${email.history.store-recheck-millis:5000}")
+    private long storeRecheckMillis;
+
+    public ProcessingHistoryServiceImpl(ProcessingHistoryMapper historyMapper, ObjectMapper objectMapper) {
+        this.historyMapper = historyMapper;
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    public void record(String source, Long userAliasId, Long refId, Map<String, Object> entry) {
+        HistoryEntry historyEntry = new HistoryEntry(IdWorker.getId(), LocalDateTime.now(),
+                entry != null ? Collections.unmodifiableMap(new LinkedHashMap<>(entry)) : Collections.emptyMap());
+        AliasHistory history = buffers.computeIfAbsent(key(source, userAliasId), k -> new AliasHistory(perAliasCapacity));
+        history.ring.add(historyEntry);
+        history.lastWrite = System.nanoTime();
+
+        if (pendingCount.incrementAndGet() > maxPending) {
+            pendingCount.decrementAndGet();
+            if (droppedCount.incrementAndGet() % 1000 == 1) {
+                log.warn("处理历史待写入队列已满，放弃落库: source={}, dropped={}", source, droppedCount.get());
+            }
+            return;
+        }
+        pending.offer(new PendingRecord(source, userAliasId, refId, historyEntry));
+    }
+
+    @Override
+    public List<Map<String, Object>> getRecent(String source, Long userAliasId, int limit) {
+        if (limit <= 0) {
+            return new ArrayList<>();
+        }
+        AliasHistory history = buffers.get(key(source, userAliasId));
+        LocalDateTime notBefore = history != null ? history.notBefore : null;
+
+        List<HistoryEntry> memory = history != null
+                ? history.ring.recent(limit, e -> notBefore == null || !e.occurredAt.isBefore(notBefore))
+                : Collections.emptyList();
+
+        // 复查间隔内：内存已足够，或数据库中不再有更早的记录且缓冲区从未覆盖
+        long now = System.nanoTime();
+        boolean fresh = history != null && history.storeReadAt != 0
+                && now - history.storeReadAt < storeRecheckMillis * 1_000_000L;
+        if (fresh && (memory.size() >= limit || (history.storeExhausted && history.ring.isComplete()))) {
+            List<Map<String, Object>> result = new ArrayList<>(memory.size());
+            for (HistoryEntry entry : memory) {
+                result.add(new LinkedHashMap<>(entry.data));
+            }
+            return result;
+        }
+
+        // 复查间隔内只向前补齐内存之前的记录，否则重新读取最新记录以合并其他节点的写入
+        Long beforeId = fresh && !memory.isEmpty() ? memory.get(0).id : null;
+        int fetch = fresh ? limit - memory.size() : limit;
+        TreeMap<Long, Map<String, Object>> merged = new TreeMap<>();
+        try {
+            storeReads.incrementAndGet();
+            List<ProcessingHistory> rows = historyMapper.selectRecent(userAliasId, source, beforeId, notBefore, fetch);
+            for (ProcessingHistory row : rows) {
+                merged.put(row.getId(), readDetail(row));
+            }
+            if (history != null) {
+                history.storeExhausted = rows.size() < fetch;
+                history.storeReadAt = now;
+            }
+        } catch (Exception e) {
+            log.error("读取处理历史失败: source={}, userAliasId={}, error={}", source, userAliasId, e.getMessage());
+        }
+        for (HistoryEntry entry : memory) {
+            merged.put(entry.id, new LinkedHashMap<>(entry.data));
+        }
+
+        // 按ID从旧到新，取最近的limit条
+        List<Map<String, Object>> result = new ArrayList<>(merged.values());
+        return result.size() > limit ? new ArrayList<>(result.subList(result.size() - limit, result.size())) : result;
+    }
+
+    @Override
+    public boolean cleanup(String source, Long userAliasId, int days) {
+        LocalDateTime cutoff = LocalDateTime.now().minusDays(days);
+        AliasHistory history = buffers.get(key(source, userAliasId));
+        if (history != null) {
+            history.notBefore = cutoff;
+        }
+        try {
+            historyMapper.deleteBefore(userAliasId, source, cutoff);
+            return true;
+        } catch (Exception e) {
+            log.error("清理处理历史失败: source={}, userAliasId={}, error={}", source, userAliasId, e.getMessage(), e);
+            return false;
+        }
+    }
+
+    @Override
+    @Scheduled(fixedDelayString = "${email.history.flush-millis:1000}")
+    public void flush() {
+        if (!flushing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            List<ProcessingHistory> batch = new ArrayList<>(batchSize);
+            PendingRecord record;
+            while ((record = pending.poll()) != null) {
+                pendingCount.decrementAndGet();
+                batch.add(toRow(record));
+                if (batch.size() >= batchSize) {
+                    writeBatch(batch);
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+            if (!batch.isEmpty()) {
+                writeBatch(batch);
+            }
+            evictBuffers();
+        } finally {
+            flushing.set(false);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    @Override
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("buffers", buffers.size());
+        stats.put("maxBuffers", maxBuffers);
+        stats.put("perAliasCapacity", perAliasCapacity);
+        stats.put("pending", pendingCount.get());
+        stats.put("persisted", persistedCount.get());
+        stats.put("dropped", droppedCount.get());
+        stats.put("failed", failedCount.get());
+        stats.put("storeReads", storeReads.get());
+        return stats;
+    }
+
+    private void writeBatch(List<ProcessingHistory> batch) {
+        try {
+            historyMapper.insertBatch(batch);
+            persistedCount.addAndGet(batch.size());
+        } catch (Exception e) {
+            failedCount.addAndGet(batch.size());
+            log.error("批量写入处理历史失败: size={}, error={}", batch.size(), e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 缓冲区数量超出上限时淘汰最久未写入的别名
+     */
+    private void evictBuffers() {
+        int excess = buffers.size() - maxBuffers;
+        if (excess <= 0) {
+            return;
+        }
+        List<Map.Entry<String, AliasHistory>> entries = new ArrayList<>(buffers.entrySet());
+        entries.sort(Comparator.comparingLong(e -> e.getValue().lastWrite));
+        for (int i = 0; i < excess && i < entries.size(); i++) {
+            buffers.remove(entries.get(i).getKey(), entries.get(i).getValue());
+        }
+        log.debug("淘汰处理历史缓冲区: count={}", excess);
+    }
+
+    private ProcessingHistory toRow(PendingRecord record) {
+        ProcessingHistory row = new ProcessingHistory();
+        row.setId(record.entry.id);
+        row.setUserAliasId(record.userAliasId);
+        row.setSource(record.source);
+        row.setRefId(record.refId);
+        row.setOccurredAt(record.entry.occurredAt);
+        try {
+            row.setDetail(objectMapper.writeValueAsString(record.entry.data));
+        } catch (Exception e) {
+            log.warn("序列化处理历史失败: source={}, error={}", record.source, e.getMessage());
+        }
+        return row;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> readDetail(ProcessingHistory row) {
+        if (row.getDetail() != null) {
+            try {
+                return objectMapper.readValue(row.getDetail(), Map.class);
+            } catch (Exception e) {
+                log.warn("解析处理历史失败: id={}, error={}", row.getId(), e.getMessage());
+            }
+        }
+        Map<String, Object> data = new HashMap<>();
+        data.put("occurredAt", row.getOccurredAt());
+        return data;
+    }
+
+    private static String key(String source, Long userAliasId) {
+        return source + ':' + userAliasId;
+    }
+
+    private static final class AliasHistory {
+        private final ConcurrentRingBuffer<HistoryEntry> ring;
+        private volatile long lastWrite;
+        private volatile LocalDateTime notBefore;
+        private volatile boolean storeExhausted;
+        private volatile long storeReadAt;
+
+        private AliasHistory(int capacity) {
+            this.ring = new ConcurrentRingBuffer<>(capacity);
+        }
+    }
+
+    private static final class HistoryEntry {
+        private final long id;
+        private final LocalDateTime occurredAt;
+        private final Map<String, Object> data;
+
+        private HistoryEntry(long id, LocalDateTime occurredAt, Map<String, Object> data) {
+            this.id = id;
+            this.occurredAt = occurredAt;
+            this.data = data;
+        }
+    }
+
+    private static final class PendingRecord {
+        private final String source;
+        private final Long userAliasId;
+        private final Long refId;
+        private final HistoryEntry entry;
+
+        private PendingRecord(String source, Long userAliasId, Long refId, HistoryEntry entry) {
+            this.source = source;
+            this.userAliasId = userAliasId;
+            this.refId = refId;
+            this.entry = entry;
+        }
+    }
+}
@@ -0,0 +1,379 @@
+package com.enterprise.email.service.impl;
+
+import com.enterprise.email.entity.Email;
+import com.enterprise.email.entity.EmailAttachment;
+import com.enterprise.email.entity.PurgeCheckpoint;
+import com.enterprise.email.mapper.EmailAttachmentMapper;
+import com.enterprise.email.mapper.EmailMapper;
+import com.enterprise.email.mapper.PurgeCheckpointMapper;
+import com.enterprise.email.service.AttachmentStoreService;
+import com.enterprise.email.service.EmailThreadService;
+import com.enterprise.email.service.JobLeaseService;
+import com.enterprise.email.service.PurgeService;
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * 后台数据清理服务实现类
+ *
+ * 每个清理任务按主键升序小批量推进，每批在独立事务中完成并写入检查点；
+ * 批次大小按耗时自适应调整，批次之间按占空比暂停，避免长时间持有行锁和挤占数据库资源。
+ * 多节点部署时由跨节点租约保证同一时间只有一个节点推进检查点，每批之前续期，失去租约时停止。
+ */
+@Slf4j
+@Service
+public class PurgeServiceImpl implements PurgeService {
+
+    private static final String JOB_TRASH = "trash_expire";
+    private static final String JOB_EMAILS = "email_hard_delete";
+    private static final String JOB_ATTACHMENTS = "attachment_hard_delete";
+    private static final int MIN_CHUNK_SIZE = 50;
+    private static final String LEASE_NAME = "purge";
+
+    private final EmailMapper emailMapper;
+    private final EmailAttachmentMapper attachmentMapper;
+    private final PurgeCheckpointMapper checkpointMapper;
+    private final AttachmentStoreService attachmentStoreService;
+    private final EmailThreadService emailThreadService;
+    private final TransactionTemplate transactionTemplate;
+    private final JobLeaseService leaseService;
+    private final Executor ioExecutor;
+
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private final AtomicBoolean stopRequested = new AtomicBoolean(false);
+
+    @Value("${email.purge.trash-retention-days:30}")
+    private int trashRetentionDays;
+
+    @Value("${email.purge.deleted-retention-days:30}")
+    private int deletedRetentionDays;
+
+    @Value("${email.purge.temp-attachment-days:30}")
+    private int tempAttachmentDays;
+
+    @Value("${email.purge.chunk-size:500}")
+    private int maxChunkSize;
+
+    @Value("${email.purge.target-chunk-millis:200}")
+    private long targetChunkMillis;
+
+    @Value("${email.purge.duty-cycle:0.5}")
+    private double dutyCycle;
+
+    @Value("${email.purge.min-pause-millis:20}")
+    private long minPauseMillis;
+
+    @Value("${email.purge.file-concurrency:4}")
+    private int fileConcurrency;
+
+    @Value("${email.purge.lease-seconds:300}")
+    private long leaseSeconds;
+
+    public PurgeServiceImpl(EmailMapper emailMapper,
+                            EmailAttachmentMapper attachmentMapper,
+                            PurgeCheckpointMapper checkpointMapper,
+                            AttachmentStoreService attachmentStoreService,
+                            EmailThreadService emailThreadService,
+                            TransactionTemplate transactionTemplate,
+                            JobLeaseService leaseService,
+                            @Qualifier("attachmentIoExecutor") Executor ioExecutor) {
+        this.emailMapper = emailMapper;
+        this.attachmentMapper = attachmentMapper;
+        this.checkpointMapper = checkpointMapper;
+        this.attachmentStoreService = attachmentStoreService;
+        this.emailThreadService = emailThreadService;
+        this.transactionTemplate = transactionTemplate;
+        this.leaseService = leaseService;
+        this.ioExecutor = ioExecutor;
+    }
+
+    @Override
+    public Map<String, Object> runPurge() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        if (!running.compareAndSet(false, true)) {
+            log.warn("清理任务正在执行，跳过本次触发");
+            result.put("skipped", true);
+            return result;
+        }
+        if (!leaseService.tryAcquire(LEASE_NAME, leaseSeconds)) {
+            log.info("清理任务正在其他节点执行，本节点跳过");
+            running.set(false);
+            result.put("skipped", true);
+            return result;
+        }
+
+        stopRequested.set(false);
+        try {
+            log.info("开始后台数据清理");
+            result.put(JOB_TRASH, runJob(JOB_TRASH, this::expireTrashChunk));
+            result.put(JOB_EMAILS, runJob(JOB_EMAILS, this::hardDeleteEmailChunk));
+            result.put(JOB_ATTACHMENTS, runJob(JOB_ATTACHMENTS, this::hardDeleteAttachmentChunk));
+
+            if (!stopRequested.get()) {
+                result.put("orphanBlobsDeleted", attachmentStoreService.sweepOrphans());
+            }
+            result.put("stopped", stopRequested.get());
+            log.info("后台数据清理结束: {}", result);
+            return result;
+
+        } finally {
+            leaseService.release(LEASE_NAME);
+            running.set(false);
+        }
+    }
+
+    @Override
+    public void stopPurge() {
+        if (running.get()) {
+            stopRequested.set(true);
+            log.info("已请求停止后台数据清理，将在当前批次完成后退出");
+        }
+    }
+
+    @Override
+    public Map<String, Object> getPurgeStatus() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("running", running.get());
+        status.put("checkpoints", checkpointMapper.selectList(null));
+        return status;
+    }
+
+    /**
+     * 执行单个清理任务：从检查点恢复，逐批推进直到没有数据或被请求停止
+     */
+    private Map<String, Object> runJob(String jobName, ChunkStep step) {
+        PurgeCheckpoint checkpoint = loadCheckpoint(jobName);
+        int chunkSize = Math.max(MIN_CHUNK_SIZE, maxChunkSize);
+        int chunks = 0;
+
+        while (!stopRequested.get() && renewLease()) {
+            long begin = System.nanoTime();
+            ChunkResult chunk = step.process(checkpoint.getCutoffTime(), checkpoint.getLastId(), chunkSize);
+            if (chunk == null) {
+                checkpoint.setStatus(PurgeCheckpoint.STATUS_COMPLETED);
+                checkpoint.setCompletedTime(LocalDateTime.now());
+                checkpoint.setUpdateTime(LocalDateTime.now());
+                checkpointMapper.updateById(checkpoint);
+                break;
+            }
+
+            checkpoint.setLastId(chunk.lastId);
+            checkpoint.setProcessedCount(checkpoint.getProcessedCount() + chunk.processed);
+            checkpoint.setDeletedFiles(checkpoint.getDeletedFiles() + chunk.deletedFiles);
+            checkpoint.setUpdateTime(LocalDateTime.now());
+            checkpointMapper.updateById(checkpoint);
+            chunks++;
+
+            long elapsedMillis = (System.nanoTime() - begin) / 1_000_000;
+            chunkSize = adjustChunkSize(chunkSize, elapsedMillis);
+            pauseBetweenChunks(elapsedMillis);
+        }
+
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("status", checkpoint.getStatus());
+        summary.put("chunks", chunks);
+        summary.put("processed", checkpoint.getProcessedCount());
+        summary.put("deletedFiles", checkpoint.getDeletedFiles());
+        summary.put("lastId", checkpoint.getLastId());
+        return summary;
+    }
+
+    /**
+     * 续期租约，失去租约时停止任务
+     */
+    private boolean renewLease() {
+        if (leaseService.tryAcquire(LEASE_NAME, leaseSeconds)) {
+            return true;
+        }
+        log.warn("清理任务租约已被其他节点取得，停止执行");
+        stopRequested.set(true);
+        return false;
+    }
+
+    /**
+     * 垃圾箱中超过保留期的邮件转为逻辑删除
+     */
+    private ChunkResult expireTrashChunk(LocalDateTime runTime, long afterId, int limit) {
+        List<Long> ids = emailMapper.selectExpiredTrashIds(runTime.minusDays(trashRetentionDays), afterId, limit);
+        if (ids.isEmpty()) {
+            return null;
+        }
+        int updated = emailMapper.markDeletedByIds(ids);
+        return new ChunkResult(ids.get(ids.size() - 1), updated, 0);
+    }
+
+    /**
+     * 物理删除超过保留期的已删除邮件，级联附件记录、会话键与原始邮件文件，并重新计算相关会话的聚合
+     */
+    private ChunkResult hardDeleteEmailChunk(LocalDateTime runTime, long afterId, int limit) {
+        List<Email> emails = emailMapper.selectPurgeableEmails(runTime.minusDays(deletedRetentionDays), afterId, limit);
+        if (emails.isEmpty()) {
+            return null;
+        }
+        List<Long> ids = emails.stream().map(Email::getId).collect(Collectors.toList());
+
+        Integer deleted = transactionTemplate.execute(status -> {
+            // 仍有效的附件需释放内容引用，已删除的附件在删除时已释放
+            releaseReferences(attachmentMapper.selectLiveByEmailIds(ids));
+            attachmentMapper.hardDeleteByEmailIds(ids);
+            int count = emailMapper.hardDeleteByIds(ids);
+            emailThreadService.onEmailsPurged(emails);
+            return count;
+        });
+
+        // 事务提交后再删除文件
+        List<String> filePaths = emails.stream()
+                .map(Email::getFilePath)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+        int deletedFiles = deleteFiles(filePaths);
+
+        return new ChunkResult(ids.get(ids.size() - 1), deleted != null ? deleted : 0, deletedFiles);
+    }
+
+    /**
+     * 物理删除过期临时附件与超过保留期的已删除附件记录
+     */
+    private ChunkResult hardDeleteAttachmentChunk(LocalDateTime runTime, long afterId, int limit) {
+        List<EmailAttachment> attachments = attachmentMapper.selectPurgeableAttachments(
+                runTime.minusDays(tempAttachmentDays), runTime.minusDays(deletedRetentionDays), afterId, limit);
+        if (attachments.isEmpty()) {
+            return null;
+        }
+        List<Long> ids = attachments.stream().map(EmailAttachment::getId).collect(Collectors.toList());
+
+        Integer deleted = transactionTemplate.execute(status -> {
+            releaseReferences(attachments.stream()
+                    .filter(attachment -> Integer.valueOf(0).equals(attachment.getDeleted()))
+                    .collect(Collectors.toList()));
+            return attachmentMapper.hardDeleteByIds(ids);
+        });
+
+        return new ChunkResult(ids.get(ids.size() - 1), deleted != null ? deleted : 0, 0);
+    }
+
+    /**
+     * 并行删除文件，同时进行的删除不超过配置的并发数
+     */
+    private int deleteFiles(List<String> filePaths) {
+        if (filePaths.isEmpty()) {
+            return 0;
+        }
+        Semaphore inFlight = new Semaphore(Math.max(1, fileConcurrency));
+        AtomicInteger deletedCount = new AtomicInteger();
+        List<CompletableFuture<Void>> futures = new ArrayList<>(filePaths.size());
+
+        for (String filePath : filePaths) {
+            inFlight.acquireUninterruptibly();
+            futures.add(CompletableFuture.runAsync(() -> {
+                try {
+                    if (Files.deleteIfExists(Paths.get(filePath))) {
+                        deletedCount.incrementAndGet();
+                    }
+                } catch (IOException e) {
+                    log.error("删除邮件文件失败: path={}, error={}", filePath, e.getMessage());
+                } finally {
+                    inFlight.release();
+                }
+            }, ioExecutor));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        return deletedCount.get();
+    }
+
+    private void releaseReferences(List<EmailAttachment> attachments) {
+        attachments.stream()
+                .filter(attachment -> attachment.getContentHash() != null)
+                .collect(Collectors.groupingBy(EmailAttachment::getContentHash, Collectors.counting()))
+                .forEach((hash, count) -> attachmentStoreService.releaseReferences(hash, count.intValue()));
+    }
+
+    /**
+     * 加载检查点：上一轮未完成则继续，否则开始新一轮
+     */
+    private PurgeCheckpoint loadCheckpoint(String jobName) {
+        PurgeCheckpoint checkpoint = checkpointMapper.selectById(jobName);
+        if (checkpoint != null && PurgeCheckpoint.STATUS_RUNNING.equals(checkpoint.getStatus())) {
+            log.info("从检查点继续清理任务: job={}, lastId={}, processed={}",
+                    jobName, checkpoint.getLastId(), checkpoint.getProcessedCount());
+            return checkpoint;
+        }
+
+        boolean exists = checkpoint != null;
+        if (!exists) {
+            checkpoint = new PurgeCheckpoint();
+            checkpoint.setJobName(jobName);
+        }
+        checkpoint.setLastId(0L);
+        checkpoint.setStatus(PurgeCheckpoint.STATUS_RUNNING);
+        checkpoint.setProcessedCount(0L);
+        checkpoint.setDeletedFiles(0L);
+        checkpoint.setCutoffTime(LocalDateTime.now());
+        checkpoint.setStartedTime(LocalDateTime.now());
+        checkpoint.setUpdateTime(LocalDateTime.now());
+        if (exists) {
+            checkpointMapper.updateById(checkpoint);
+        } else {
+            checkpointMapper.insert(checkpoint);
+        }
+        return checkpoint;
+    }
+
+    /**
+     * 批次耗时超过目标时减半，明显低于目标时缓慢增大
+     */
+    private int adjustChunkSize(int chunkSize, long elapsedMillis) {
+        if (elapsedMillis > targetChunkMillis) {
+            return Math.max(MIN_CHUNK_SIZE, chunkSize / 2);
+        }
+        if (elapsedMillis < targetChunkMillis / 2) {
+            return Math.min(maxChunkSize, chunkSize + chunkSize / 4 + 1);
+        }
+        return chunkSize;
+    }
+
+    /**
+     * 按占空比暂停：数据库越忙（批次越慢），暂停越久
+     */
+    private void pauseBetweenChunks(long elapsedMillis) {
+        double ratio = dutyCycle > 0 && dutyCycle < 1 ? (1 - dutyCycle) / dutyCycle : 1;
+        long pauseMillis = Math.max(minPauseMillis, (long) (elapsedMillis * ratio));
+        try {
+            Thread.sleep(pauseMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            stopRequested.set(true);
+        }
+    }
+
+    /**
+     * 单批清理步骤，没有更多数据时返回null
+     */
+    @FunctionalInterface
+    private interface ChunkStep {
+        ChunkResult process(LocalDateTime runTime, long afterId, int limit);
+    }
+
+    @AllArgsConstructor
+    private static class ChunkResult {
+        private final long lastId;
+        private final int processed;
+        private final int deletedFiles;
+    }
+}
@@ -0,0 +1,354 @@
+package com.enterprise.email.service.impl;
+
+import com.enterprise.email.dto.PushEvent;
+import com.enterprise.email.entity.Email;
+import com.enterprise.email.service.PushService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 服务端推送服务实现类
+ *
+ * 事件先发布到Redis频道，所有节点（包括本节点）订阅后只投递给本节点持有的连接，
+ * 因此客户端连接到任一节点都能收到事件；Redis不可用时退化为本节点投递。
+ * 同一用户的事件在合并窗口内缓冲：计数增量按别名累加，标记变化同一邮件同一标记只保留最新值，
+ * 新邮件超过上限时只推送数量，避免批量收信时刷屏。
+ */
+@Slf4j
+@Service
+public class PushServiceImpl implements PushService, MessageListener {
+
+    public static final String CHANNEL = "email:push:events";
+
+    private final StringRedisTemplate redisTemplate;
+    private final ObjectMapper objectMapper;
+
+    // 本节点持有的连接
+    private final Map<Long, Set<SseEmitter>> connections = new ConcurrentHashMap<>();
+
+    // 待合并推送的事件
+    private final Map<Long, PendingEvents> pending = new ConcurrentHashMap<>();
+
+    private final AtomicLong publishedCount = new AtomicLong();
+    private final AtomicLong deliveredCount = new AtomicLong();
+
+    @Value("${email.push.redis-enabled:true}")
+    private boolean redisEnabled;
+
+    @Value("${email.push.timeout-millis:1800000}")
+    private long timeoutMillis;
+
+    @Value("${email.push.max-connections-per-user:5}")
+    private int maxConnectionsPerUser;
+
+    @Value("${email.push.max-new-mail-per-flush:20}")
+    private int maxNewMailPerFlush;
+
+    @Value("${email.push.reconnect-millis:3000}")
+    private long reconnectMillis;
+
+    public PushServiceImpl(StringRedisTemplate redisTemplate, ObjectMapper objectMapper) {
+        this.redisTemplate = redisTemplate;
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    public SseEmitter subscribe(Long userId) {
+        SseEmitter emitter = new SseEmitter(timeoutMillis);
+        Set<SseEmitter> userConnections = connections.computeIfAbsent(userId, id -> ConcurrentHashMap.newKeySet());
+
+        // 超出单用户连接数时关闭最早的连接
+        if (userConnections.size() >= maxConnectionsPerUser) {
+            userConnections.stream().findFirst().ifPresent(oldest -> {
+                userConnections.remove(oldest);
+                oldest.complete();
+            });
+        }
+        userConnections.add(emitter);
+
+        emitter.onCompletion(() -> removeConnection(userId, emitter));
+        emitter.onTimeout(() -> removeConnection(userId, emitter));
+        emitter.onError(e -> removeConnection(userId, emitter));
+
+        try {
+            emitter.send(SseEmitter.event()
+                    .name("ready")
+                    .reconnectTime(reconnectMillis)
+                    .data(Map.of("timestamp", System.currentTimeMillis())));
+        } catch (IOException e) {
+            removeConnection(userId, emitter);
+        }
+
+        log.debug("推送连接建立: userId={}, connections={}", userId, userConnections.size());
+        return emitter;
+    }
+
+    @Override
+    public void publish(PushEvent event) {
+        if (event.getUserId() == null) {
+            return;
+        }
+        if (event.getTimestamp() == null) {
+            event.setTimestamp(System.currentTimeMillis());
+        }
+
+        // 事务未提交前不推送，避免客户端读到回滚的数据
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    doPublish(event);
+                }
+            });
+        } else {
+            doPublish(event);
+        }
+    }
+
+    @Override
+    public void publishNewMail(Email email) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("emailId", email.getId());
+        data.put("threadId", email.getThreadId());
+        data.put("sender", email.getSender());
+        data.put("subject", email.getSubject());
+        data.put("receivedTime", email.getReceivedTime() != null ? email.getReceivedTime().toString() : null);
+
+        publish(PushEvent.builder()
+                .type(PushEvent.TYPE_NEW_MAIL)
+                .userId(email.getUserId())
+                .aliasId(email.getAliasId())
+                .data(data)
+                .build());
+
+        publishCounterDelta(email.getUserId(), email.getAliasId(),
+                Boolean.TRUE.equals(email.getIsRead()) ? 0 : 1, 1);
+    }
+
+    @Override
+    public void publishFlagChange(Email email, String flag, Object value) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("emailId", email.getId());
+        data.put("flag", flag);
+        data.put("value", value);
+
+        publish(PushEvent.builder()
+                .type(PushEvent.TYPE_FLAG_CHANGE)
+                .userId(email.getUserId())
+                .aliasId(email.getAliasId())
+                .data(data)
+                .build());
+    }
+
+    @Override
+    public void publishCounterDelta(Long userId, Long aliasId, int unreadDelta, int totalDelta) {
+        if (unreadDelta == 0 && totalDelta == 0) {
+            return;
+        }
+        Map<String, Object> data = new HashMap<>();
+        data.put("unread", unreadDelta);
+        data.put("total", totalDelta);
+
+        publish(PushEvent.builder()
+                .type(PushEvent.TYPE_COUNTER_DELTA)
+                .userId(userId)
+                .aliasId(aliasId)
+                .data(data)
+                .build());
+    }
+
+    @Override
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("users", connections.size());
+        stats.put("connections", connections.values().stream().mapToInt(Set::size).sum());
+        stats.put("published", publishedCount.get());
+        stats.put("delivered", deliveredCount.get());
+        stats.put("redisEnabled", redisEnabled);
+        return stats;
+    }
+
+    /**
+     * Redis频道消息：只处理本节点有连接的用户
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        try {
+            PushEvent event = objectMapper.readValue(
+                    new String(message.getBody(), StandardCharsets.UTF_8), PushEvent.class);
+            enqueueLocal(event);
+        } catch (Exception e) {
+            log.warn("解析推送事件失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 合并窗口结束：每个用户的缓冲事件合并后推送
+     */
+    @Scheduled(fixedDelayString = "${email.push.coalesce-millis:500}")
+    public void flushPending() {
+        for (Map.Entry<Long, PendingEvents> entry : pending.entrySet()) {
+            Long userId = entry.getKey();
+            Set<SseEmitter> userConnections = connections.get(userId);
+            if (userConnections == null || userConnections.isEmpty()) {
+                pending.remove(userId);
+                continue;
+            }
+
+            List<SseEmitter.SseEventBuilder> events = entry.getValue().drain(maxNewMailPerFlush);
+            for (SseEmitter.SseEventBuilder event : events) {
+                for (SseEmitter emitter : userConnections) {
+                    send(userId, emitter, event);
+                }
+            }
+        }
+    }
+
+    /**
+     * 心跳：保持连接不被代理断开，并及时清理失效连接
+     */
+    @Scheduled(fixedRateString = "${email.push.heartbeat-millis:25000}")
+    public void heartbeat() {
+        connections.forEach((userId, userConnections) -> {
+            for (SseEmitter emitter : userConnections) {
+                send(userId, emitter, SseEmitter.event().comment("heartbeat"));
+            }
+        });
+    }
+
+    private void doPublish(PushEvent event) {
+        publishedCount.incrementAndGet();
+        if (redisEnabled) {
+            try {
+                redisTemplate.convertAndSend(CHANNEL, objectMapper.writeValueAsString(event));
+                return;
+            } catch (Exception e) {
+                log.warn("发布推送事件到Redis失败，改为本节点投递: {}", e.getMessage());
+            }
+        }
+        enqueueLocal(event);
+    }
+
+    private void enqueueLocal(PushEvent event) {
+        if (event.getUserId() == null || !connections.containsKey(event.getUserId())) {
+            return;
+        }
+        pending.computeIfAbsent(event.getUserId(), id -> new PendingEvents()).add(event);
+    }
+
+    private void send(Long userId, SseEmitter emitter, SseEmitter.SseEventBuilder event) {
+        try {
+            emitter.send(event);
+            deliveredCount.incrementAndGet();
+        } catch (IOException | IllegalStateException e) {
+            removeConnection(userId, emitter);
+        }
+    }
+
+    private void removeConnection(Long userId, SseEmitter emitter) {
+        connections.computeIfPresent(userId, (id, userConnections) -> {
+            userConnections.remove(emitter);
+            return userConnections.isEmpty() ? null : userConnections;
+        });
+        if (!connections.containsKey(userId)) {
+            pending.remove(userId);
+        }
+    }
+
+    /**
+     * 单个用户的待推送事件缓冲
+     */
+    private static class PendingEvents {
+
+        private static final int MAX_BUFFERED_MAILS = 100;
+
+        private final List<Map<String, Object>> newMails = new ArrayList<>();
+        private int newMailCount;
+        private final Map<String, Map<String, Object>> flags = new LinkedHashMap<>();
+        private final Map<Long, int[]> counters = new LinkedHashMap<>();
+
+        synchronized void add(PushEvent event) {
+            Map<String, Object> data = event.getData() != null ? event.getData() : Collections.emptyMap();
+            switch (event.getType()) {
+                case PushEvent.TYPE_NEW_MAIL:
+                    Map<String, Object> mail = new HashMap<>(data);
+                    mail.put("aliasId", event.getAliasId());
+                    if (newMails.size() < MAX_BUFFERED_MAILS) {
+                        newMails.add(mail);
+                    }
+                    newMailCount++;
+                    break;
+                case PushEvent.TYPE_FLAG_CHANGE:
+                    Map<String, Object> flag = new HashMap<>(data);
+                    flag.put("aliasId", event.getAliasId());
+                    flags.put(data.get("emailId") + ":" + data.get("flag"), flag);
+                    break;
+                case PushEvent.TYPE_COUNTER_DELTA:
+                    int[] delta = counters.computeIfAbsent(event.getAliasId(), id -> new int[2]);
+                    delta[0] += toInt(data.get("unread"));
+                    delta[1] += toInt(data.get("total"));
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        /**
+         * 取出并清空缓冲，合并为待发送的SSE事件
+         */
+        synchronized List<SseEmitter.SseEventBuilder> drain(int maxNewMails) {
+            List<SseEmitter.SseEventBuilder> events = new ArrayList<>();
+
+            if (newMailCount > 0) {
+                Map<String, Object> data = new HashMap<>();
+                data.put("count", newMailCount);
+                // 数量过多时只推送数量，由客户端刷新列表
+                data.put("emails", newMailCount <= Math.min(maxNewMails, MAX_BUFFERED_MAILS) ? new ArrayList<>(newMails) : Collections.emptyList());
+                events.add(SseEmitter.event().name(PushEvent.TYPE_NEW_MAIL).data(data));
+            }
+            if (!flags.isEmpty()) {
+                events.add(SseEmitter.event().name(PushEvent.TYPE_FLAG_CHANGE).data(new ArrayList<>(flags.values())));
+            }
+            if (!counters.isEmpty()) {
+                List<Map<String, Object>> deltas = new ArrayList<>();
+                counters.forEach((aliasId, delta) -> {
+                    if (delta[0] != 0 || delta[1] != 0) {
+                        Map<String, Object> item = new HashMap<>();
+                        item.put("aliasId", aliasId);
+                        item.put("unread", delta[0]);
+                        item.put("total", delta[1]);
+                        deltas.add(item);
+                    }
+                });
+                if (!deltas.isEmpty()) {
+                    events.add(SseEmitter.event().name(PushEvent.TYPE_COUNTER_DELTA).data(deltas));
+                }
+            }
+
+            newMails.clear();
+            newMailCount = 0;
+            flags.clear();
+            counters.clear();
+            return events;
+        }
+
+        private static int toInt(Object value) {
+            return value instanceof Number ? ((Number) value).intValue() : 0;
+        }
+    }
+}
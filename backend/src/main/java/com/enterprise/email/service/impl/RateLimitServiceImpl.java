@@ -0,0 +1,321 @@
+package com.enterprise.email.service.impl;
+
+import com.enterprise.email.service.RateLimitService;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 分布式滑动窗口限流服务实现类
+ *
+ * 每个限流键在Redis中是一个哈希，按桶（窗口的1/N）累计次数，窗口外的桶在脚本中删除；
+ * 检查、扣减、归还在同一个Lua脚本中完成，一次往返。
+ * 本地近缓存按键保存两类信息以减少往返：
+ * 1. 预取的配额：限额较大时一次向Redis申请若干次（在Redis中立即计入当前桶），本地逐次消费，
+ *    跨桶后未用完的部分归还到原桶，因此各节点合计不会超过限额；
+ * 2. 拒绝标记：Redis返回配额已满时，到下一个桶边界之前直接拒绝。
+ */
+@Slf4j
+@Service
+public class RateLimitServiceImpl implements RateLimitService {
+
+    private static final String KEY_PREFIX = "email:rate:";
+    private static final int SCAN_BATCH = 500;
+
+    /**
+     * KEYS[1] 计数哈希
+     * ARGV[1] 当前毫秒 ARGV[2] 窗口毫秒 ARGV[3] 桶毫秒 ARGV[4] 限额
+     * ARGV[5] 申请次数 ARGV[6] 归还次数 ARGV[7] 归还到的桶
+     * 返回 {实际分配次数, 分配后窗口内总数, 当前桶}
+     */
+    private static final String SCRIPT =
+            "local now = tonumber(ARGV[1])\n" +
+            "local window = tonumber(ARGV[2])\n" +
+            "local bucketMs = tonumber(ARGV[3])\n" +
+            "local limit = tonumber(ARGV[4])\n" +
+            "local want = tonumber(ARGV[5])\n" +
+            "local refund = tonumber(ARGV[6])\n" +
+            "local current = math.floor(now / bucketMs)\n" +
+            "local oldest = current - math.floor(window / bucketMs) + 1\n" +
+            "if refund > 0 then\n" +
+            "  local used = tonumber(redis.call('HGET', KEYS[1], ARGV[7]) or '0')\n" +
+            "  if used > 0 then redis.call('HINCRBY', KEYS[1], ARGV[7], -math.min(used, refund)) end\n" +
+            "end\n" +
+            "local total = 0\n" +
+            "local fields = redis.call('HGETALL', KEYS[1])\n" +
+            "for i = 1, #fields, 2 do\n" +
+            "  if tonumber(fields[i]) < oldest then redis.call('HDEL', KEYS[1], fields[i])\n" +
+            "  else total = total + tonumber(fields[i + 1]) end\n" +
+            "end\n" +
+            "local granted = math.min(want, math.max(0, limit - total))\n" +
+            "if granted > 0 then\n" +
+            "  redis.call('HINCRBY', KEYS[1], tostring(current), granted)\n" +
+            "  total = total + granted\n" +
+            "end\n" +
+            "if total > 0 then redis.call('PEXPIRE', KEYS[1], window + bucketMs) end\n" +
+            "return {granted, total, current}";
+
+    private final StringRedisTemplate redisTemplate;
+    @SuppressWarnings("rawtypes")
+    private final DefaultRedisScript<List> script = new DefaultRedisScript<>(SCRIPT, List.class);
+
+    private final Map<String, LocalLimit> localLimits = new ConcurrentHashMap<>();
+
+    private final AtomicLong localHits = new AtomicLong();
+    private final AtomicLong remoteCalls = new AtomicLong();
+    private final AtomicLong denied = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    @Value("${email.rate-limit.buckets:60}")
+    private int buckets;
+
+    @Value("${email.rate-limit.max-lease:10}")
+    private int maxLease;
+
+    @Value("${email.rate-limit.max-local-keys:100000}")
+    private int maxLocalKeys;
+
+    @Value("${email.rate-limit.fail-open:true}")
+    private boolean failOpen;
+
+    public RateLimitServiceImpl(StringRedisTemplate redisTemplate) {
+        this.redisTemplate = redisTemplate;
+    }
+
+    @Override
+    public boolean tryAcquire(String key, int limit, Duration window) {
+        if (limit <= 0) {
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        long windowMs = Math.max(1, window.toMillis());
+        long bucketMs = bucketMillis(windowMs);
+
+        LocalLimit local = localLimit(key, windowMs);
+        if (local == null) {
+            // 本地键数量超出上限，不缓存直接申请一次
+            long[] reply = call(key, now, windowMs, bucketMs, limit, 1, 0, 0);
+            return reply == null ? failOpen : countDenied(reply[0] > 0);
+        }
+
+        synchronized (local) {
+            local.lastAccess = now;
+            long bucket = now / bucketMs;
+            if (local.deniedUntil > now) {
+                localHits.incrementAndGet();
+                return countDenied(false);
+            }
+            if (local.leased > 0 && local.bucket == bucket) {
+                local.leased--;
+                localHits.incrementAndGet();
+                return true;
+            }
+
+            int refund = local.bucket != bucket ? local.leased : 0;
+            long[] reply = call(key, now, windowMs, bucketMs, limit, leaseSize(limit), refund, local.bucket);
+            if (reply == null) {
+                return failOpen;
+            }
+            local.bucket = reply[2];
+            local.leased = (int) reply[0];
+            if (local.leased == 0) {
+                // 最早的桶至少要到下一个桶边界才会移出窗口
+                local.deniedUntil = (bucket + 1) * bucketMs;
+                return countDenied(false);
+            }
+            local.leased--;
+            return true;
+        }
+    }
+
+    @Override
+    public boolean isAllowed(String key, int limit, Duration window) {
+        if (limit <= 0) {
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        long windowMs = Math.max(1, window.toMillis());
+        long bucketMs = bucketMillis(windowMs);
+
+        LocalLimit local = localLimits.get(key);
+        if (local != null && local.windowMs == windowMs) {
+            synchronized (local) {
+                if (local.deniedUntil > now) {
+                    localHits.incrementAndGet();
+                    return false;
+                }
+                if (local.leased > 0 && local.bucket == now / bucketMs) {
+                    localHits.incrementAndGet();
+                    return true;
+                }
+            }
+        }
+        long[] reply = call(key, now, windowMs, bucketMs, limit, 0, 0, 0);
+        return reply == null ? failOpen : reply[1] < limit;
+    }
+
+    @Override
+    public long getCount(String key, Duration window) {
+        long windowMs = Math.max(1, window.toMillis());
+        long[] reply = call(key, System.currentTimeMillis(), windowMs, bucketMillis(windowMs), 0, 0, 0, 0);
+        return reply == null ? 0 : reply[1];
+    }
+
+    @Override
+    public void resetByPrefix(String keyPrefix) {
+        localLimits.keySet().removeIf(key -> key.startsWith(keyPrefix));
+        // 用SCAN分批遍历，避免KEYS在键多时阻塞Redis
+        ScanOptions options = ScanOptions.scanOptions().match(escapeGlob(KEY_PREFIX + keyPrefix) + "*").count(SCAN_BATCH).build();
+        try (Cursor<String> cursor = redisTemplate.scan(options)) {
+            List<String> batch = new ArrayList<>(SCAN_BATCH);
+            while (cursor.hasNext()) {
+                batch.add(cursor.next());
+                if (batch.size() >= SCAN_BATCH) {
+                    redisTemplate.delete(batch);
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                redisTemplate.delete(batch);
+            }
+        } catch (Exception e) {
+            log.error("清除限流计数失败: prefix={}, error={}", keyPrefix, e.getMessage());
+        }
+    }
+
+    /**
+     * 转义SCAN匹配模式中的通配字符，前缀按字面匹配
+     */
+    private static String escapeGlob(String value) {
+        return value.replaceAll("([*?\\[\\]\\\\])", "\\\\$1");
+    }
+
+    /**
+     * 归还跨桶后未用完的预取配额，并清理长时间未访问的本地状态
+     */
+    @Scheduled(fixedDelayString = "${email.rate-limit.release-millis:5000}")
+    public void releaseLeases() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, LocalLimit> entry : localLimits.entrySet()) {
+            LocalLimit local = entry.getValue();
+            synchronized (local) {
+                long bucketMs = bucketMillis(local.windowMs);
+                if (local.leased > 0 && local.bucket != now / bucketMs) {
+                    call(entry.getKey(), now, local.windowMs, bucketMs, 0, 0, local.leased, local.bucket);
+                    local.leased = 0;
+                }
+                if (local.leased == 0 && now - local.lastAccess > local.windowMs) {
+                    localLimits.remove(entry.getKey(), local);
+                }
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, LocalLimit> entry : localLimits.entrySet()) {
+            LocalLimit local = entry.getValue();
+            synchronized (local) {
+                if (local.leased > 0) {
+                    call(entry.getKey(), now, local.windowMs, bucketMillis(local.windowMs), 0, 0, local.leased, local.bucket);
+                    local.leased = 0;
+                }
+            }
+        }
+    }
+
+    @Override
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("localKeys", localLimits.size());
+        stats.put("localHits", localHits.get());
+        stats.put("remoteCalls", remoteCalls.get());
+        stats.put("denied", denied.get());
+        stats.put("failures", failures.get());
+        return stats;
+    }
+
+    private LocalLimit localLimit(String key, long windowMs) {
+        LocalLimit local = localLimits.get(key);
+        if (local != null && local.windowMs == windowMs) {
+            return local;
+        }
+        if (local == null && localLimits.size() >= maxLocalKeys) {
+            return null;
+        }
+        // 窗口变化（配置被修改）时放弃旧的本地状态，旧预取随Redis中的桶过期
+        LocalLimit created = new LocalLimit(windowMs);
+        if (local == null) {
+            LocalLimit existing = localLimits.putIfAbsent(key, created);
+            return existing != null ? existing : created;
+        }
+        localLimits.put(key, created);
+        return created;
+    }
+
+    /**
+     * 每次向Redis预取的次数：限额小时逐次申请，保证精确；限额大时批量预取
+     */
+    private int leaseSize(int limit) {
+        return Math.max(1, Math.min(maxLease, limit / 20));
+    }
+
+    private long bucketMillis(long windowMs) {
+        return Math.max(1, windowMs / Math.max(1, buckets));
+    }
+
+    private boolean countDenied(boolean allowed) {
+        if (!allowed) {
+            denied.incrementAndGet();
+        }
+        return allowed;
+    }
+
+    /**
+     * 执行限流脚本，失败时返回null
+     */
+    private long[] call(String key, long now, long windowMs, long bucketMs, int limit, int want, int refund, long refundBucket) {
+        remoteCalls.incrementAndGet();
+        try {
+            List<?> reply = redisTemplate.execute(script, Collections.singletonList(KEY_PREFIX + key),
+                    String.valueOf(now), String.valueOf(windowMs), String.valueOf(bucketMs), String.valueOf(limit),
+                    String.valueOf(want), String.valueOf(refund), String.valueOf(refundBucket));
+            if (reply == null || reply.size() < 3) {
+                throw new IllegalStateException("限流脚本返回值异常");
+            }
+            return new long[]{((Number) reply.get(0)).longValue(), ((Number) reply.get(1)).longValue(),
+                    ((Number) reply.get(2)).longValue()};
+        } catch (Exception e) {
+            failures.incrementAndGet();
+            log.error("限流计数失败: key={}, error={}", key, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 本节点对一个限流键的近缓存
+     */
+    private static final class LocalLimit {
+        private final long windowMs;
+        private long bucket;
+        private int leased;
+        private long deniedUntil;
+        private volatile long lastAccess;
+
+        private LocalLimit(long windowMs) {
+            this.windowMs = windowMs;
+        }
+    }
+}
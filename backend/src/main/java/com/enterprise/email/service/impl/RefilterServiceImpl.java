@@ -0,0 +1,426 @@
+package com.enterprise.email.service.impl;
+
+import com.baomidou.mybatisplus.core.conditions.update.LambdaUpdateWrapper;
+import com.enterprise.email.entity.Email;
+import com.enterprise.email.entity.RefilterJob;
+import com.enterprise.email.entity.UserAlias;
+import com.enterprise.email.job.JobHandle;
+import com.enterprise.email.job.JobStore;
+import com.enterprise.email.job.LeasedJobRunner;
+import com.enterprise.email.mapper.EmailMapper;
+import com.enterprise.email.mapper.RefilterJobMapper;
+import com.enterprise.email.mapper.UserAliasMapper;
+import com.enterprise.email.service.EmailThreadService;
+import com.enterprise.email.service.JobLeaseService;
+import com.enterprise.email.service.PushService;
+import com.enterprise.email.service.RefilterService;
+import com.enterprise.email.service.SieveService;
+import com.enterprise.email.sieve.SieveMessage;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+/**
+ * 邮件重新过滤服务实现类
+ *
+ * 任务按主键升序分批读取别名下的邮件（只取求值所需字段），每批在专用的ForkJoin池上并行求值已编译的规则，
+ * 只把目标文件夹与当前不同的邮件按（原文件夹, 目标文件夹）分组批量更新，刷新相关会话聚合并推送别名未读
+ * 计数增量，随后写入检查点。垃圾邮件与隔离区中的邮件不参与重新过滤。
+ * 重新过滤只求值规则，不更新规则统计、不记录执行历史，也不重发转发或拒收。
+ * 任务的认领、续租、取消和结束由 {@link LeasedJobRunner} 处理，同一别名同时只运行一个任务，每批之前续租。
+ */
+@Slf4j
+@Service
+public class RefilterServiceImpl implements RefilterService {
+
+    private static final int MAX_FOLDER_LENGTH = 20;
+
+    private final RefilterJobMapper jobMapper;
+    private final EmailMapper emailMapper;
+    private final UserAliasMapper userAliasMapper;
+    private final SieveService sieveService;
+    private final PushService pushService;
+    private final EmailThreadService emailThreadService;
+    private final ForkJoinPool evaluationPool;
+    // 范围键为别名ID
+    private final LeasedJobRunner<Long, RunState> runner;
+
+    @Value("${email.refilter.chunk-size:500}")
+    private int chunkSize;
+
+    public RefilterServiceImpl(RefilterJobMapper jobMapper,
+                               EmailMapper emailMapper,
+                               UserAliasMapper userAliasMapper,
+                               SieveService sieveService,
+                               PushService pushService,
+                               EmailThreadService emailThreadService,
+                               JobLeaseService jobLeaseService,
+                               @Qualifier("emailTaskExecutor") Executor taskExecutor,
+                               @Value("${email.refilter.parallelism:0}") int parallelism,
+                               @Value("${email.refilter.lease-seconds:120}") long leaseSeconds) {
+        this.jobMapper = jobMapper;
+        this.emailMapper = emailMapper;
+        this.userAliasMapper = userAliasMapper;
+        this.sieveService = sieveService;
+        this.pushService = pushService;
+        this.emailThreadService = emailThreadService;
+        this.evaluationPool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+        // 租约时长需大于处理一批的时间
+        this.runner = new LeasedJobRunner<>("refilter", new RefilterJobStore(), jobLeaseService, taskExecutor,
+                leaseSeconds, "该别名已有正在运行的重新过滤任务");
+    }
+
+    @Override
+    public RefilterJob startRefilter(Long userAliasId) {
+        UserAlias alias = userAliasMapper.selectById(userAliasId);
+        if (alias == null) {
+            throw new RuntimeException("别名不存在");
+        }
+        if (runner.isRunning(userAliasId) || jobMapper.countActiveByAlias(userAliasId, 0L) > 0) {
+            throw new RuntimeException("该别名已有正在运行的重新过滤任务");
+        }
+
+        LocalDateTime now = LocalDateTime.now();
+        RefilterJob job = new RefilterJob();
+        job.setUserId(alias.getUserId());
+        job.setUserAliasId(userAliasId);
+        job.setStatus(RefilterJob.STATUS_PENDING);
+        job.setLastId(0L);
+        job.setTotalCount(emailMapper.countRefilterCandidates(userAliasId));
+        job.setScannedCount(0L);
+        job.setChangedCount(0L);
+        job.setErrorCount(0L);
+        job.setCreateTime(now);
+        job.setUpdateTime(now);
+        jobMapper.insert(job);
+
+        try {
+            launch(job);
+        } catch (RuntimeException e) {
+            RefilterJob failed = new RefilterJob();
+            failed.setId(job.getId());
+            failed.setStatus(RefilterJob.STATUS_FAILED);
+            failed.setErrorMessage(truncate(e.getMessage()));
+            failed.setCompletedTime(LocalDateTime.now());
+            failed.setUpdateTime(LocalDateTime.now());
+            jobMapper.updateById(failed);
+            throw e;
+        }
+        log.info("重新过滤任务已创建: jobId={}, userAliasId={}, total={}", job.getId(), userAliasId, job.getTotalCount());
+        return job;
+    }
+
+    @Override
+    public boolean cancelRefilter(Long jobId) {
+        RefilterJob job = jobMapper.selectById(jobId);
+        if (job == null || RefilterJob.STATUS_COMPLETED.equals(job.getStatus())) {
+            return false;
+        }
+        runner.cancel(job.getUserAliasId(), jobId);
+
+        // 写入取消状态，其他节点上运行的任务在下一批之前续租失败后停止
+        RefilterJob update = new RefilterJob();
+        update.setId(jobId);
+        update.setStatus(RefilterJob.STATUS_CANCELLED);
+        update.setUpdateTime(LocalDateTime.now());
+        jobMapper.updateById(update);
+        log.info("已请求取消重新过滤任务: jobId={}", jobId);
+        return true;
+    }
+
+    @Override
+    public RefilterJob resumeRefilter(Long jobId) {
+        RefilterJob job = jobMapper.selectById(jobId);
+        if (job == null) {
+            throw new RuntimeException("重新过滤任务不存在");
+        }
+        if (RefilterJob.STATUS_COMPLETED.equals(job.getStatus())) {
+            throw new RuntimeException("重新过滤任务已完成");
+        }
+        launch(job);
+        log.info("继续重新过滤任务: jobId={}, lastId={}", jobId, job.getLastId());
+        return job;
+    }
+
+    @Override
+    public RefilterJob getRefilterJob(Long jobId) {
+        return jobMapper.selectById(jobId);
+    }
+
+    @Override
+    public Map<String, Object> getRefilterProgress(Long jobId) {
+        RefilterJob job = jobMapper.selectById(jobId);
+        if (job == null) {
+            throw new RuntimeException("重新过滤任务不存在");
+        }
+        Map<String, Object> progress = new LinkedHashMap<>();
+        progress.put("jobId", job.getId());
+        progress.put("userAliasId", job.getUserAliasId());
+        progress.put("status", job.getStatus());
+        progress.put("totalCount", job.getTotalCount());
+        progress.put("scannedCount", job.getScannedCount());
+        progress.put("changedCount", job.getChangedCount());
+        progress.put("errorCount", job.getErrorCount());
+        progress.put("errorMessage", job.getErrorMessage());
+        long total = job.getTotalCount() != null ? job.getTotalCount() : 0;
+        long scanned = job.getScannedCount() != null ? job.getScannedCount() : 0;
+        progress.put("percent", total > 0 ? Math.min(100.0, scanned * 100.0 / total) : 100.0);
+        progress.put("startedTime", job.getStartedTime());
+        progress.put("completedTime", job.getCompletedTime());
+        progress.put("owner", job.getOwner());
+
+        JobHandle<RunState> running = runner.get(job.getUserAliasId(), jobId);
+        progress.put("runningOnThisNode", running != null);
+        if (running != null) {
+            double seconds = Math.max(1e-3, (System.nanoTime() - running.getStartedNanos()) / 1e9);
+            progress.put("messagesPerSecond", Math.round(running.getState().scanned / seconds));
+        }
+        return progress;
+    }
+
+    @Override
+    public List<RefilterJob> getRefilterJobs(Long userAliasId, int limit) {
+        return jobMapper.selectRecentByAlias(userAliasId, limit);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // 运行中的任务保持RUNNING状态退出，其他节点或重启后可从检查点继续
+        runner.shutdown();
+        evaluationPool.shutdown();
+    }
+
+    private void launch(RefilterJob job) {
+        runner.launch(job.getId(), job.getUserAliasId(), new RunState(), handle -> run(job, handle));
+    }
+
+    /**
+     * 逐批推进直到没有数据；每批之前续租，被取消、接管或应用关闭时返回false
+     */
+    private boolean run(RefilterJob job, JobHandle<RunState> handle) throws Exception {
+        Long userAliasId = job.getUserAliasId();
+        while (handle.checkpoint()) {
+            List<Email> chunk = emailMapper.selectRefilterChunk(userAliasId, job.getLastId(), Math.max(1, chunkSize));
+            if (chunk.isEmpty()) {
+                log.info("重新过滤任务完成: jobId={}, scanned={}, changed={}",
+                        job.getId(), job.getScannedCount(), job.getChangedCount());
+                return true;
+            }
+
+            List<Decision> decisions = evaluate(chunk, userAliasId);
+            int changed = applyMoves(decisions, userAliasId);
+            String lastError = null;
+            long errors = 0;
+            for (Decision decision : decisions) {
+                if (decision.error != null) {
+                    errors++;
+                    lastError = decision.error;
+                }
+            }
+
+            // 只写进度字段，且只在仍持有任务时写入
+            job.setLastId(chunk.get(chunk.size() - 1).getId());
+            job.setScannedCount(job.getScannedCount() + chunk.size());
+            job.setChangedCount(job.getChangedCount() + changed);
+            job.setErrorCount(job.getErrorCount() + errors);
+            RefilterJob progress = new RefilterJob();
+            progress.setLastId(job.getLastId());
+            progress.setScannedCount(job.getScannedCount());
+            progress.setChangedCount(job.getChangedCount());
+            progress.setErrorCount(job.getErrorCount());
+            progress.setErrorMessage(truncate(lastError));
+            progress.setUpdateTime(LocalDateTime.now());
+            jobMapper.update(progress, ownedBy(job.getId(), handle.getOwner()));
+            handle.getState().scanned += chunk.size();
+        }
+        return false;
+    }
+
+    /**
+     * 在专用ForkJoin池上并行求值一批邮件
+     */
+    private List<Decision> evaluate(List<Email> chunk, Long userAliasId) throws Exception {
+        return evaluationPool.submit(() -> chunk.parallelStream()
+                .map(email -> decide(email, userAliasId))
+                .collect(Collectors.toList())).get();
+    }
+
+    private Decision decide(Email email, Long userAliasId) {
+        try {
+            Map<String, String> fields = new LinkedHashMap<>();
+            fields.put("from", email.getSender());
+            fields.put("to", email.getRecipient());
+            fields.put("cc", email.getCc());
+            fields.put("subject", email.getSubject());
+            fields.put("message-id", email.getMessageId());
+            fields.put("in-reply-to", email.getInReplyTo());
+            long size = email.getSizeBytes() != null ? email.getSizeBytes() : 0;
+            SieveMessage message = SieveMessage.of(fields, email.getContentText(), size);
+
+            Map<String, Object> result = sieveService.evaluateSieveRules(message, userAliasId);
+            if (Boolean.TRUE.equals(result.get("error"))) {
+                return new Decision(email, null, String.valueOf(result.get("message")));
+            }
+            String target = targetFolder(result);
+            if (target != null && target.length() > MAX_FOLDER_LENGTH) {
+                return new Decision(email, null, "文件夹名称过长: " + target);
+            }
+            return new Decision(email, target, null);
+        } catch (Exception e) {
+            return new Decision(email, null, e.getMessage());
+        }
+    }
+
+    /**
+     * 规则结果对应的目标文件夹；不产生移动的动作（保留、转发、拒收等）返回null
+     */
+    private String targetFolder(Map<String, Object> result) {
+        Object action = result.get("finalAction");
+        if ("discard".equals(action)) {
+            return Email.TYPE_TRASH;
+        }
+        if ("fileinto".equals(action) && result.get("actionData") instanceof Map) {
+            Object folder = ((Map<?, ?>) result.get("actionData")).get("folder");
+            if (folder != null && !folder.toString().trim().isEmpty()) {
+                return folder.toString().trim().toLowerCase(Locale.ROOT);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 只写变化：按（原文件夹, 目标文件夹）分组批量更新，未读与已读邮件分开更新以得到准确的未读计数增量；
+     * 与批量移动一样刷新相关会话聚合并推送别名的计数增量
+     */
+    private int applyMoves(List<Decision> decisions, Long userAliasId) {
+        Map<String, Map<String, List<Email>>> moves = new HashMap<>();
+        for (Decision decision : decisions) {
+            String current = decision.email.getEmailType();
+            if (decision.target == null || decision.target.equals(current)) {
+                continue;
+            }
+            moves.computeIfAbsent(current, k -> new HashMap<>())
+                    .computeIfAbsent(decision.target, k -> new ArrayList<>())
+                    .add(decision.email);
+        }
+        if (moves.isEmpty()) {
+            return 0;
+        }
+
+        int changed = 0;
+        int unreadDelta = 0;
+        Set<Long> threadIds = new HashSet<>();
+        for (Map.Entry<String, Map<String, List<Email>>> from : moves.entrySet()) {
+            for (Map.Entry<String, List<Email>> to : from.getValue().entrySet()) {
+                List<Long> unreadIds = new ArrayList<>();
+                List<Long> readIds = new ArrayList<>();
+                for (Email email : to.getValue()) {
+                    (Boolean.TRUE.equals(email.getIsRead()) ? readIds : unreadIds).add(email.getId());
+                    if (email.getThreadId() != null) {
+                        threadIds.add(email.getThreadId());
+                    }
+                }
+                int movedUnread = unreadIds.isEmpty() ? 0 : emailMapper.moveEmails(unreadIds, from.getKey(), to.getKey());
+                int movedRead = readIds.isEmpty() ? 0 : emailMapper.moveEmails(readIds, from.getKey(), to.getKey());
+                changed += movedUnread + movedRead;
+                // 未读计数只统计收件箱
+                unreadDelta += movedUnread * ((Email.TYPE_INBOX.equals(to.getKey()) ? 1 : 0)
+                        - (Email.TYPE_INBOX.equals(from.getKey()) ? 1 : 0));
+            }
+        }
+
+        if (changed > 0 && !threadIds.isEmpty()) {
+            emailThreadService.refreshThreads(threadIds);
+        }
+        if (unreadDelta != 0) {
+            pushService.publishCounterDelta(decisions.get(0).email.getUserId(), userAliasId, unreadDelta, 0);
+        }
+        return changed;
+    }
+
+    private boolean isCancelledInStore(Long jobId) {
+        RefilterJob stored = jobMapper.selectById(jobId);
+        return stored == null || RefilterJob.STATUS_CANCELLED.equals(stored.getStatus());
+    }
+
+    /**
+     * 只更新仍由owner运行的任务，被接管后不覆盖新节点写入的进度和状态
+     */
+    private LambdaUpdateWrapper<RefilterJob> ownedBy(Long jobId, String owner) {
+        return new LambdaUpdateWrapper<RefilterJob>()
+                .eq(RefilterJob::getId, jobId)
+                .eq(RefilterJob::getOwner, owner);
+    }
+
+    private static String truncate(String message) {
+        return message != null && message.length() > 500 ? message.substring(0, 500) : message;
+    }
+
+    /**
+     * refilter_jobs上的认领与续租；同一别名的认领由运行器在范围锁内串行执行
+     */
+    private final class RefilterJobStore implements JobStore {
+
+        @Override
+        public boolean claim(Long jobId, String owner, long leaseSeconds) {
+            RefilterJob job = jobMapper.selectById(jobId);
+            return job != null && jobMapper.countActiveByAlias(job.getUserAliasId(), jobId) == 0
+                    && jobMapper.claim(jobId, owner, leaseSeconds) > 0;
+        }
+
+        @Override
+        public boolean renew(Long jobId, String owner, long leaseSeconds) {
+            return jobMapper.renew(jobId, owner, leaseSeconds) > 0;
+        }
+
+        @Override
+        public void releaseLease(Long jobId, String owner) {
+            jobMapper.releaseLease(jobId, owner);
+        }
+
+        @Override
+        public boolean isCancelled(Long jobId) {
+            return isCancelledInStore(jobId);
+        }
+
+        @Override
+        public void finish(Long jobId, String owner, Outcome outcome, String error) {
+            RefilterJob update = new RefilterJob();
+            update.setStatus(outcome == Outcome.COMPLETED ? RefilterJob.STATUS_COMPLETED
+                    : outcome == Outcome.CANCELLED ? RefilterJob.STATUS_CANCELLED : RefilterJob.STATUS_FAILED);
+            update.setCompletedTime(LocalDateTime.now());
+            update.setUpdateTime(LocalDateTime.now());
+            if (error != null) {
+                update.setErrorMessage(truncate(error));
+            }
+            jobMapper.update(update, ownedBy(jobId, owner));
+        }
+    }
+
+    /**
+     * 本节点上运行中任务的速率统计
+     */
+    private static final class RunState {
+        private volatile long scanned;
+    }
+
+    private static final class Decision {
+        private final Email email;
+        private final String target;
+        private final String error;
+
+        private Decision(Email email, String target, String error) {
+            this.email = email;
+            this.target = target;
+            this.error = error;
+        }
+    }
+}
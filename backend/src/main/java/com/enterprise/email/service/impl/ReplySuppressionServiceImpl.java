@@ -0,0 +1,152 @@
+package com.enterprise.email.service.impl;
+
+import com.enterprise.email.service.ReplySuppressionService;
+import com.enterprise.email.utils.ExpiringKeySet;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 自动回复发件人抑制服务实现类
+ *
+ * 本地集合按键记录抑制截止时间，超出容量时淘汰最早写入的记录；本地已有记录时不访问Redis。
+ * 启用Redis时占用使用SET NX PX，一次往返即可判断其他节点是否已回复过；
+ * 占用失败时按Redis中剩余的过期时间写入本地，之后同一发件人的判断都在本地完成。
+ * Redis不可用时退化为只用本地记录（单节点语义）。
+ */
+@Slf4j
+@Service
+public class ReplySuppressionServiceImpl implements ReplySuppressionService {
+
+    private static final String KEY_PREFIX = "email:reply-suppress:";
+
+    /**
+     * 按前缀清除时每批SCAN与删除的键数
+     */
+    private static final int SCAN_BATCH = 500;
+
+    private final StringRedisTemplate redisTemplate;
+    private final ExpiringKeySet localKeys;
+
+    private final AtomicLong localHits = new AtomicLong();
+    private final AtomicLong remoteCalls = new AtomicLong();
+    private final AtomicLong remoteDenied = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    @Value("${email.auto-reply.suppression.redis-enabled:true}")
+    private boolean redisEnabled;
+
+    public ReplySuppressionServiceImpl(StringRedisTemplate redisTemplate,
+                                       @Value("${email.auto-reply.suppression.max-entries:100000}") int maxEntries,
+                                       @Value("${email.auto-reply.suppression.concurrency:16}") int concurrency) {
+        this.redisTemplate = redisTemplate;
+        this.localKeys = new ExpiringKeySet(maxEntries, concurrency);
+    }
+
+    @Override
+    public boolean isSuppressed(String key) {
+        if (localKeys.contains(key)) {
+            localHits.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean claim(String key, Duration window) {
+        long ttl = Math.max(1, window.toMillis());
+        if (isSuppressed(key)) {
+            return false;
+        }
+        if (!redisEnabled) {
+            return localKeys.add(key, ttl);
+        }
+
+        try {
+            remoteCalls.incrementAndGet();
+            Boolean acquired = redisTemplate.opsForValue().setIfAbsent(KEY_PREFIX + key, "1", ttl, TimeUnit.MILLISECONDS);
+            if (Boolean.TRUE.equals(acquired)) {
+                localKeys.put(key, ttl);
+                return true;
+            }
+            remoteDenied.incrementAndGet();
+            Long remaining = redisTemplate.getExpire(KEY_PREFIX + key, TimeUnit.MILLISECONDS);
+            if (remaining != null && remaining > 0) {
+                localKeys.put(key, remaining);
+            }
+            return false;
+        } catch (Exception e) {
+            failures.incrementAndGet();
+            log.warn("Redis抑制记录不可用，使用本地记录: key={}, error={}", key, e.getMessage());
+            return localKeys.add(key, ttl);
+        }
+    }
+
+    @Override
+    public void clearByPrefix(String keyPrefix) {
+        localKeys.removeIf(key -> key.startsWith(keyPrefix));
+        if (!redisEnabled) {
+            return;
+        }
+        // 用SCAN分批遍历，避免KEYS在键多时阻塞Redis
+        ScanOptions options = ScanOptions.scanOptions().match(escapeGlob(KEY_PREFIX + keyPrefix) + "*").count(SCAN_BATCH).build();
+        try (Cursor<String> cursor = redisTemplate.scan(options)) {
+            List<String> batch = new ArrayList<>(SCAN_BATCH);
+            while (cursor.hasNext()) {
+                batch.add(cursor.next());
+                if (batch.size() >= SCAN_BATCH) {
+                    redisTemplate.delete(batch);
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                redisTemplate.delete(batch);
+            }
+        } catch (Exception e) {
+            log.error("清除抑制记录失败: prefix={}, error={}", keyPrefix, e.getMessage());
+        }
+    }
+
+    /**
+     * 转义SCAN匹配模式中的通配字符，前缀按字面匹配
+     */
+    private static String escapeGlob(String value) {
+        return value.replaceAll("([*?\\[\\]\\\\])", "\\\\$1");
+    }
+
+    /**
+     * 清扫本地已过期的记录
+     */
+    @Scheduled(fixedDelayString = "${email.auto-reply.suppression.sweep-millis:60000}")
+    public void purgeExpired() {
+        int removed = localKeys.purgeExpired();
+        if (removed > 0) {
+            log.debug("清扫过期的自动回复抑制记录: count={}", removed);
+        }
+    }
+
+    @Override
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("localKeys", localKeys.size());
+        stats.put("evictions", localKeys.getEvictions());
+        stats.put("localHits", localHits.get());
+        stats.put("remoteCalls", remoteCalls.get());
+        stats.put("remoteDenied", remoteDenied.get());
+        stats.put("failures", failures.get());
+        stats.put("redisEnabled", redisEnabled);
+        return stats;
+    }
+}
@@ -2,19 +2,23 @@ package com.enterprise.email.service.impl;
 
 import com.enterprise.email.entity.RspamdConfig;
 import com.enterprise.email.mapper.RspamdConfigMapper;
+import com.enterprise.email.rspamd.RspamdCheckResult;
+import com.enterprise.email.rspamd.RspamdClient;
 import com.enterprise.email.service.RspamdService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.http.*;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
 
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
 
 /**
  * Rspamd反垃圾邮件服务实现
@@ -25,7 +29,10 @@ import java.util.concurrent.ConcurrentHashMap;
 public class RspamdServiceImpl implements RspamdService {
 
     private final RspamdConfigMapper rspamdConfigMapper;
-    private final RestTemplate restTemplate = new RestTemplate();
+    private final RspamdClient rspamdClient;
+
+    @Value("${email.rspamd.batch-concurrency:16}")
+    private int batchConcurrency;
     
     // 缓存白名单和黑名单
     private final Map<String, Set<String>> whitelistCache = new ConcurrentHashMap<>();
@@ -103,6 +110,27 @@ public class RspamdServiceImpl implements RspamdService {
 
     @Override
     public Map<String, Object> checkSpam(String emailContent, String senderIp, String domain) {
+        return checkSpam(senderIp, domain, config ->
+                rspamdClient.check(config, emailContent, checkHeaders(emailContent, senderIp)));
+    }
+
+    @Override
+    public Map<String, Object> checkSpam(byte[] emailContent, String senderIp, String domain) {
+        // From头只在头部区内查找，头部按ISO-8859-1逐字节解码
+        String headerSection = new String(emailContent, 0, headerLength(emailContent), StandardCharsets.ISO_8859_1);
+        return checkSpam(senderIp, domain, config ->
+                rspamdClient.check(config, emailContent, checkHeaders(headerSection, senderIp)));
+    }
+
+    /**
+     * 一次检查调用（字符或原始字节）
+     */
+    @FunctionalInterface
+    private interface SpamCheck {
+        RspamdCheckResult check(RspamdConfig config) throws IOException;
+    }
+
+    private Map<String, Object> checkSpam(String senderIp, String domain, SpamCheck check) {
         Map<String, Object> result = new HashMap<>();
         
         try {
@@ -121,37 +149,11 @@ public class RspamdServiceImpl implements RspamdService {
             }
             
             // 调用Rspamd API检查垃圾邮件
-            String rspamdUrl = String.format("http://%s:%d/checkv2", 
-                config.getRspamdHost(), config.getRspamdPort());
-            
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.TEXT_PLAIN);
-            headers.set("IP", senderIp);
-            headers.set("From", extractFromAddress(emailContent));
-            
-            HttpEntity<String> entity = new HttpEntity<>(emailContent, headers);
-            ResponseEntity<Map> response = restTemplate.postForEntity(rspamdUrl, entity, Map.class);
+            RspamdCheckResult checked = check.check(config);
+            result = toCheckResult(config, checked);
             
-            if (response.getStatusCode() == HttpStatus.OK) {
-                Map<String, Object> rspamdResult = response.getBody();
-                
-                double score = (Double) rspamdResult.getOrDefault("score", 0.0);
-                String action = (String) rspamdResult.getOrDefault("action", "no action");
-                
-                result.put("isSpam", score >= config.getSpamThreshold());
-                result.put("score", score);
-                result.put("action", action);
-                result.put("symbols", rspamdResult.get("symbols"));
-                result.put("required_score", config.getSpamThreshold());
-                result.put("reject_score", config.getRejectThreshold());
-                
-                // 记录统计信息
-                updateStatistics(domain, score >= config.getSpamThreshold());
-                
-            } else {
-                result.put("status", "ERROR");
-                result.put("message", "Rspamd服务器响应异常");
-            }
+            // 记录统计信息
+            updateStatistics(domain, Boolean.TRUE.equals(result.get("isSpam")));
             
         } catch (Exception e) {
             log.error("检查垃圾邮件失败: {}", e.getMessage(), e);
@@ -166,29 +168,26 @@ public class RspamdServiceImpl implements RspamdService {
     public boolean learnSpam(String emailContent, boolean isSpam) {
         try {
             List<RspamdConfig> configs = getEnabledConfigs();
-            boolean success = true;
+            List<CompletableFuture<Boolean>> learned = new ArrayList<>();
             
+            // 各Rspamd实例同时学习
             for (RspamdConfig config : configs) {
                 if (!config.getBayesEnabled() || !config.getBayesAutolearn()) {
                     continue;
                 }
-                
-                String endpoint = isSpam ? "/learnspam" : "/learnham";
-                String rspamdUrl = String.format("http://%s:%d%s", 
-                    config.getRspamdHost(), config.getRspamdPort(), endpoint);
-                
-                HttpHeaders headers = new HttpHeaders();
-                headers.setContentType(MediaType.TEXT_PLAIN);
-                
-                HttpEntity<String> entity = new HttpEntity<>(emailContent, headers);
-                ResponseEntity<String> response = restTemplate.postForEntity(rspamdUrl, entity, String.class);
-                
-                if (response.getStatusCode() != HttpStatus.OK) {
+                learned.add(rspamdClient.learnAsync(config, isSpam, emailContent).exceptionally(e -> {
+                    log.error("学习{}失败: domain={}, error={}", isSpam ? "垃圾邮件" : "正常邮件", config.getDomain(),
+                        RspamdClient.asIOException(e).getMessage());
+                    return false;
+                }));
+            }
+            
+            boolean success = true;
+            for (CompletableFuture<Boolean> future : learned) {
+                if (!future.join()) {
                     success = false;
-                    log.error("学习{}失败: {}", isSpam ? "垃圾邮件" : "正常邮件", response.getBody());
                 }
             }
-            
             return success;
         } catch (Exception e) {
             log.error("学习邮件失败: {}", e.getMessage(), e);
@@ -365,14 +364,7 @@ public class RspamdServiceImpl implements RspamdService {
                 return stats;
             }
             
-            String rspamdUrl = String.format("http://%s:%d/stat", 
-                config.getRspamdHost(), config.getRspamdPort());
-            
-            ResponseEntity<Map> response = restTemplate.getForEntity(rspamdUrl, Map.class);
-            
-            if (response.getStatusCode() == HttpStatus.OK) {
-                stats = response.getBody();
-            }
+            stats = rspamdClient.stat(config);
             
         } catch (Exception e) {
             log.error("获取垃圾邮件统计失败: {}", e.getMessage(), e);
@@ -397,10 +389,7 @@ public class RspamdServiceImpl implements RspamdService {
                 
                 // 检查服务可用性
                 try {
-                    String rspamdUrl = String.format("http://%s:%d/ping", 
-                        config.getRspamdHost(), config.getRspamdPort());
-                    ResponseEntity<String> response = restTemplate.getForEntity(rspamdUrl, String.class);
-                    status.put("online", response.getStatusCode() == HttpStatus.OK);
+                    status.put("online", rspamdClient.ping(config));
                 } catch (Exception e) {
                     status.put("online", false);
                     status.put("error", e.getMessage());
@@ -628,7 +617,9 @@ public class RspamdServiceImpl implements RspamdService {
 
     @Override
     public Map<String, Object> getPerformanceMetrics(String domain) {
-        return new HashMap<>();
+        Map<String, Object> metrics = new HashMap<>();
+        metrics.put("httpClient", rspamdClient.getStatistics());
+        return metrics;
     }
 
     @Override
@@ -648,7 +639,50 @@ public class RspamdServiceImpl implements RspamdService {
 
     @Override
     public List<Map<String, Object>> batchCheckSpam(List<String> emails, String domain) {
-        return new ArrayList<>();
+        List<Map<String, Object>> results = new ArrayList<>();
+        RspamdConfig config = getRspamdConfig(domain);
+        if (config == null || !config.getEnabled()) {
+            for (int i = 0; i < emails.size(); i++) {
+                Map<String, Object> result = new HashMap<>();
+                result.put("status", "CONFIG_NOT_FOUND");
+                results.add(result);
+            }
+            return results;
+        }
+        
+        // 并发检查，在途请求数不超过batch-concurrency，结果保持输入顺序
+        Semaphore inFlight = new Semaphore(Math.max(1, batchConcurrency));
+        List<CompletableFuture<Map<String, Object>>> futures = new ArrayList<>(emails.size());
+        try {
+            for (String email : emails) {
+                inFlight.acquire();
+                futures.add(rspamdClient.checkAsync(config, email, checkHeaders(email, null))
+                    .handle((checked, e) -> {
+                        inFlight.release();
+                        if (e != null) {
+                            Map<String, Object> error = new HashMap<>();
+                            error.put("status", "ERROR");
+                            error.put("message", RspamdClient.asIOException(e).getMessage());
+                            return error;
+                        }
+                        Map<String, Object> result = toCheckResult(config, checked);
+                        updateStatistics(domain, Boolean.TRUE.equals(result.get("isSpam")));
+                        return result;
+                    }));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        
+        for (CompletableFuture<Map<String, Object>> future : futures) {
+            results.add(future.join());
+        }
+        while (results.size() < emails.size()) {
+            Map<String, Object> result = new HashMap<>();
+            result.put("status", "INTERRUPTED");
+            results.add(result);
+        }
+        return results;
     }
 
     // 私有辅助方法
@@ -670,14 +704,44 @@ public class RspamdServiceImpl implements RspamdService {
         return whitelist != null && whitelist.contains(ip);
     }
 
+    private Map<String, String> checkHeaders(String emailContent, String senderIp) {
+        Map<String, String> headers = new HashMap<>();
+        headers.put("IP", senderIp);
+        headers.put("From", extractFromAddress(emailContent));
+        return headers;
+    }
+
+    private Map<String, Object> toCheckResult(RspamdConfig config, RspamdCheckResult checked) {
+        Map<String, Object> result = new HashMap<>();
+        double score = checked.getScore();
+        result.put("isSpam", score >= config.getSpamThreshold());
+        result.put("score", score);
+        result.put("action", checked.getAction() != null ? checked.getAction() : "no action");
+        result.put("symbols", checked.getSymbols());
+        result.put("required_score", config.getSpamThreshold());
+        result.put("reject_score", config.getRejectThreshold());
+        return result;
+    }
+
+    /**
+     * 头部区的字节数（到第一个空行为止，没有空行时为全部内容）
+     */
+    private static int headerLength(byte[] content) {
+        for (int i = 1; i < content.length; i++) {
+            if (content[i] == '\n' && (content[i - 1] == '\n' || (i >= 2 && content[i - 1] == '\r' && content[i - 2] == '\n'))) {
+                return i + 1;
+            }
+        }
+        return content.length;
+    }
+
     private String extractFromAddress(String emailContent) {
         // 简化的From地址提取
-        if (emailContent.contains("From:")) {
-            String fromLine = emailContent.substring(emailContent.indexOf("From:") + 5);
-            if (fromLine.contains("\n")) {
-                fromLine = fromLine.substring(0, fromLine.indexOf("\n"));
-            }
-            return fromLine.trim();
+        int start = emailContent.indexOf("From:");
+        if (start >= 0) {
+            // 只截取这一行，不复制邮件的其余部分
+            int end = emailContent.indexOf('\n', start);
+            return emailContent.substring(start + 5, end >= 0 ? end : emailContent.length()).trim();
         }
         return "";
     }
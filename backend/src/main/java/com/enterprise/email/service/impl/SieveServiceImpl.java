@@ -1,18 +1,33 @@
 package com.enterprise.email.service.impl;
 
+import com.enterprise.email.entity.ProcessingHistory;
 import com.enterprise.email.entity.SieveRule;
+import com.enterprise.email.inbound.ParsedMessage;
 import com.enterprise.email.mapper.SieveRuleMapper;
+import com.enterprise.email.service.ProcessingHistoryService;
 import com.enterprise.email.service.SieveService;
+import com.enterprise.email.sieve.CompiledSieveRule;
+import com.enterprise.email.sieve.ContainsIndex;
+import com.enterprise.email.sieve.ContainsScan;
+import com.enterprise.email.sieve.RuleOrderOptimizer;
+import com.enterprise.email.sieve.RuleProfile;
+import com.enterprise.email.sieve.SieveException;
+import com.enterprise.email.sieve.SieveMessage;
+import com.enterprise.email.sieve.SieveProgram;
+import com.enterprise.email.sieve.SieveResult;
+import com.enterprise.email.sieve.SieveRuleCompiler;
+import com.enterprise.email.sieve.SieveScriptEngine;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDateTime;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * Sieve邮件过滤规则服务实现
@@ -23,10 +38,28 @@ import java.util.regex.Pattern;
 public class SieveServiceImpl implements SieveService {
 
     private final SieveRuleMapper sieveRuleMapper;
+    private final SieveRuleCompiler ruleCompiler;
+    private final SieveScriptEngine scriptEngine;
+    private final ContainsIndex containsIndex;
+    private final RuleOrderOptimizer orderOptimizer;
+    private final ProcessingHistoryService historyService;
     private final ObjectMapper objectMapper = new ObjectMapper();
     
-    // 规则执行历史缓存
-    private final Map<Long, List<Map<String, Object>>> executionHistory = new HashMap<>();
+    // 按别名缓存的已编译规则集（规则变更时失效）
+    private final Map<Long, CompiledRuleSet> compiledRules = new ConcurrentHashMap<>();
+    
+    // 按规则ID保存的运行统计（规则变更时丢弃）与手动启用顺序优化的别名
+    private final Map<Long, RuleProfile> ruleProfiles = new ConcurrentHashMap<>();
+    private final Set<Long> orderedAliases = ConcurrentHashMap.newKeySet();
+    
+    @Value("${email.sieve.compiled-cache-ttl-seconds:300}")
+    private long compiledCacheTtlSeconds;
+    
+    @Value("${email.sieve.auto-order:true}")
+    private boolean autoOrder;
+    
+    @Value("${email.sieve.profile-sample-rate:32}")
+    private int profileSampleRate;
 
     @Override
     public boolean createSieveRule(SieveRule rule) {
@@ -54,6 +87,7 @@ public class SieveServiceImpl implements SieveService {
             
             int result = sieveRuleMapper.insert(rule);
             if (result > 0) {
+                evictCompiledRules(rule);
                 log.info("Sieve规则创建成功: {}", rule.getRuleName());
                 return true;
             }
@@ -85,6 +119,7 @@ public class SieveServiceImpl implements SieveService {
             
             int result = sieveRuleMapper.updateById(rule);
             if (result > 0) {
+                evictCompiledRules(rule);
                 log.info("Sieve规则更新成功: {}", rule.getRuleName());
                 return true;
             }
@@ -103,6 +138,7 @@ public class SieveServiceImpl implements SieveService {
                 rule.setUpdatedAt(LocalDateTime.now());
                 int result = sieveRuleMapper.updateById(rule);
                 if (result > 0) {
+                    evictCompiledRules(rule);
                     log.info("Sieve规则删除成功: {}", rule.getRuleName());
                     return true;
                 }
@@ -130,51 +166,102 @@ public class SieveServiceImpl implements SieveService {
 
     @Override
     public Map<String, Object> applySieveRules(String emailContent, Long userAliasId) {
+        return applySieveRules(ParsedMessage.parse(emailContent), userAliasId);
+    }
+
+    @Override
+    public Map<String, Object> applySieveRules(ParsedMessage parsedMessage, Long userAliasId) {
+        // 头部和正文由调用方解析一次，"包含"条件扫描结果与转发、自动回复共用
+        return evaluateRules(parsedMessage.getSieveMessage(),
+                parsedMessage.containsScan(userAliasId, containsIndex), userAliasId, true);
+    }
+
+    @Override
+    public Map<String, Object> evaluateSieveRules(SieveMessage message, Long userAliasId) {
+        return evaluateRules(message, containsIndex.scan(userAliasId, message), userAliasId, false);
+    }
+
+    /**
+     * 按顺序求值别名的规则；record为false时不更新规则统计、不记录执行历史
+     */
+    private Map<String, Object> evaluateRules(SieveMessage message, ContainsScan containsScan,
+                                              Long userAliasId, boolean record) {
         Map<String, Object> result = new HashMap<>();
         List<Map<String, Object>> appliedRules = new ArrayList<>();
         
         try {
-            List<SieveRule> rules = getUserActiveSieveRules(userAliasId);
-            
-            // 解析邮件头部和正文
-            Map<String, Object> emailData = parseEmailContent(emailContent);
+            List<CompiledSieveRule> rules = getCompiledRules(userAliasId);
+            LocalDateTime now = LocalDateTime.now();
+            // 抽样的邮件对谓词树逐节点计时（不短路），供求值顺序优化使用
+            boolean sample = profileSampleRate > 0 && ThreadLocalRandom.current().nextInt(profileSampleRate) == 0;
             
             boolean processed = false;
             String finalAction = "keep";
             Map<String, Object> actionData = new HashMap<>();
+            String budgetError = null;
             
-            for (SieveRule rule : rules) {
+            for (CompiledSieveRule rule : rules) {
                 try {
                     // 检查规则是否在有效期内
-                    if (!isRuleEffective(rule)) {
+                    if (!rule.isEffectiveAt(now)) {
                         continue;
                     }
                     
-                    // 评估规则条件
-                    boolean conditionMet = evaluateRuleConditions(rule, emailData);
+                    // 评估规则条件（脚本规则由解释器执行，产生显式动作即视为命中）
+                    Map<String, Object> actionResult = null;
+                    boolean stopRequested = false;
+                    RuleProfile profile = ruleProfile(rule);
+                    if (rule.isScript()) {
+                        long start = sample ? System.nanoTime() : 0L;
+                        SieveResult scriptResult = scriptEngine.execute(rule.getProgram(), message);
+                        if (sample) {
+                            profile.recordScriptSample(System.nanoTime() - start);
+                        }
+                        if (scriptResult.getError() != null) {
+                            if (record) {
+                                updateRuleStatistics(rule.getRuleId(), false, scriptResult.getError());
+                            }
+                            if (scriptResult.isBudgetExceeded()) {
+                                log.warn("Sieve脚本超出执行预算: ruleId={}, error={}", rule.getRuleId(), scriptResult.getError());
+                                budgetError = "规则" + rule.getRuleId() + "求值失败: " + scriptResult.getError();
+                                break;
+                            }
+                        } else if (scriptResult.hasExplicitActions()) {
+                            actionResult = scriptResult.toActionResult();
+                            stopRequested = scriptResult.isStopped();
+                        }
+                    } else if (sample ? rule.profile(message, containsScan, profile) : rule.matches(message, containsScan)) {
+                        actionResult = rule.getAction().toResult();
+                    }
                     
-                    if (conditionMet) {
-                        // 执行规则动作
-                        Map<String, Object> actionResult = executeRuleActions(rule, emailData);
-                        
+                    boolean stops = actionResult != null && (stopRequested
+                            || "stop".equals(actionResult.get("action")) || !rule.isContinueProcessing());
+                    profile.recordEvaluation(actionResult != null, stops);
+                    
+                    if (actionResult != null) {
                         Map<String, Object> ruleExecution = new HashMap<>();
-                        ruleExecution.put("ruleId", rule.getId());
+                        ruleExecution.put("ruleId", rule.getRuleId());
                         ruleExecution.put("ruleName", rule.getRuleName());
                         ruleExecution.put("action", actionResult.get("action"));
                         ruleExecution.put("actionData", actionResult.get("actionData"));
-                        ruleExecution.put("appliedAt", LocalDateTime.now());
+                        if (actionResult.containsKey("actions")) {
+                            ruleExecution.put("actions", actionResult.get("actions"));
+                        }
+                        ruleExecution.put("appliedAt", now);
                         appliedRules.add(ruleExecution);
                         
-                        // 更新规则应用统计
-                        updateRuleStatistics(rule, true, null);
-                        
-                        // 记录执行历史
-                        recordRuleExecution(userAliasId, ruleExecution);
+                        if (record) {
+                            // 更新规则应用统计
+                            updateRuleStatistics(rule.getRuleId(), true, null);
+                            
+                            // 记录执行历史
+                            recordRuleExecution(userAliasId, ruleExecution);
+                        }
                         
                         // 检查是否停止处理
-                        if ("stop".equals(actionResult.get("action")) || !rule.getContinueProcessing()) {
+                        if (stops) {
                             finalAction = (String) actionResult.get("action");
-                            actionData = (Map<String, Object>) actionResult.get("actionData");
+                            actionData = actionData(actionResult);
                             processed = true;
                             break;
                         }
@@ -182,13 +269,23 @@ public class SieveServiceImpl implements SieveService {
                         // 更新最终动作
                         if (!"keep".equals(actionResult.get("action"))) {
                             finalAction = (String) actionResult.get("action");
-                            actionData = (Map<String, Object>) actionResult.get("actionData");
+                            actionData = actionData(actionResult);
                             processed = true;
                         }
                     }
+                } catch (SieveProgram.BudgetExceededException e) {
+                    // 正则匹配超时不能当作不匹配（not条件下会误触发动作），停止求值并按失败处理
+                    log.warn("Sieve规则匹配超时: ruleId={}, error={}", rule.getRuleId(), e.getMessage());
+                    if (record) {
+                        updateRuleStatistics(rule.getRuleId(), false, e.getMessage());
+                    }
+                    budgetError = "规则" + rule.getRuleId() + "求值失败: " + e.getMessage();
+                    break;
                 } catch (Exception e) {
-                    log.error("应用Sieve规则失败: ruleId={}, error={}", rule.getId(), e.getMessage(), e);
-                    updateRuleStatistics(rule, false, e.getMessage());
+                    log.error("应用Sieve规则失败: ruleId={}, error={}", rule.getRuleId(), e.getMessage(), e);
+                    if (record) {
+                        updateRuleStatistics(rule.getRuleId(), false, e.getMessage());
+                    }
                 }
             }
             
@@ -197,7 +294,13 @@ public class SieveServiceImpl implements SieveService {
             result.put("actionData", actionData);
             result.put("appliedRules", appliedRules);
             result.put("totalRules", rules.size());
+            result.put("scannedFields", containsScan.getScannedFields());
             result.put("processedAt", LocalDateTime.now());
+            if (budgetError != null) {
+                // 求值结果不完整，由调用方按失败处理（投递流水线隔离邮件）
+                result.put("error", true);
+                result.put("message", budgetError);
+            }
             
         } catch (Exception e) {
             log.error("应用Sieve规则失败: userAliasId={}, error={}", userAliasId, e.getMessage(), e);
@@ -224,15 +327,35 @@ public class SieveServiceImpl implements SieveService {
             // 解析邮件内容
             Map<String, Object> emailData = parseEmailContent(emailContent);
             
-            // 评估条件
-            boolean conditionMet = evaluateRuleConditions(rule, emailData);
+            // 编译并评估条件
+            CompiledSieveRule compiled = ruleCompiler.compile(rule);
+            if (compiled.getCompileError() != null) {
+                result.put("compileError", compiled.getCompileError());
+            }
+            SieveMessage message = SieveMessage.parse(emailContent);
+            Map<String, Object> actionResult = null;
+            if (compiled.isScript()) {
+                SieveResult scriptResult = scriptEngine.execute(compiled.getProgram(), message);
+                result.put("steps", scriptResult.getSteps());
+                if (scriptResult.getError() != null) {
+                    result.put("runtimeError", scriptResult.getError());
+                }
+                if (scriptResult.hasExplicitActions()) {
+                    actionResult = scriptResult.toActionResult();
+                }
+            } else if (compiled.matches(message)) {
+                actionResult = compiled.getAction().toResult();
+            }
+            boolean conditionMet = actionResult != null;
             result.put("conditionMet", conditionMet);
             
             if (conditionMet) {
                 // 模拟执行动作
-                Map<String, Object> actionResult = executeRuleActions(rule, emailData);
                 result.put("action", actionResult.get("action"));
                 result.put("actionData", actionResult.get("actionData"));
+                if (actionResult.containsKey("actions")) {
+                    result.put("actions", actionResult.get("actions"));
+                }
             } else {
                 result.put("action", "keep");
                 result.put("actionData", new HashMap<>());
@@ -263,36 +386,14 @@ public class SieveServiceImpl implements SieveService {
                 return result;
             }
             
-            // 基本语法检查
-            List<String> errors = new ArrayList<>();
-            
-            // 检查require语句
-            if (!sieveScript.contains("require")) {
-                errors.add("缺少require语句");
-            }
-            
-            // 检查括号匹配
-            if (!checkBracketMatching(sieveScript)) {
-                errors.add("括号不匹配");
-            }
-            
-            // 检查基本语法结构
-            if (!checkBasicSyntax(sieveScript)) {
-                errors.add("基本语法错误");
-            }
-            
-            // 检查支持的命令
-            List<String> unsupportedCommands = checkUnsupportedCommands(sieveScript);
-            if (!unsupportedCommands.isEmpty()) {
-                errors.add("不支持的命令: " + String.join(", ", unsupportedCommands));
-            }
-            
-            if (errors.isEmpty()) {
+            // 完整编译（词法、语法、require声明与参数检查）
+            String error = scriptEngine.validate(sieveScript);
+            if (error == null) {
                 result.put("valid", true);
                 result.put("message", "Sieve脚本语法正确");
             } else {
                 result.put("valid", false);
-                result.put("error", String.join("; ", errors));
+                result.put("error", error);
             }
             
             result.put("validatedAt", LocalDateTime.now());
@@ -309,57 +410,65 @@ public class SieveServiceImpl implements SieveService {
     @Override
     public String generateSieveScript(SieveRule rule) {
         try {
-            StringBuilder script = new StringBuilder();
-            
-            // 添加require语句
-            script.append("require [\"fileinto\", \"reject\", \"envelope\", \"body\", \"variables\"];\n\n");
-            
-            // 添加注释
-            script.append("# ").append(rule.getRuleName()).append("\n");
-            if (rule.getDescription() != null && !rule.getDescription().isEmpty()) {
-                script.append("# ").append(rule.getDescription()).append("\n");
-            }
-            script.append("\n");
+            // 先生成规则主体，再按实际用到的扩展生成require声明
+            Set<String> capabilities = new LinkedHashSet<>();
+            StringBuilder body = new StringBuilder();
             
             // 解析条件
             List<Map<String, Object>> conditions = parseConditions(rule.getConditions());
             List<Map<String, Object>> actions = parseActions(rule.getActions());
             
-            // 生成if语句
+            // 生成if语句（没有条件时动作无条件执行）
+            String indent = "";
             if (!conditions.isEmpty()) {
-                script.append("if ");
+                body.append("if ");
                 
                 if (conditions.size() == 1) {
-                    script.append(generateConditionScript(conditions.get(0)));
+                    body.append(generateConditionScript(conditions.get(0), capabilities));
                 } else {
                     String operator = "allof"; // 默认AND
                     if ("ANY".equals(rule.getConditionType())) {
                         operator = "anyof";
                     }
                     
-                    script.append(operator).append(" (");
+                    body.append(operator).append(" (");
                     for (int i = 0; i < conditions.size(); i++) {
-                        if (i > 0) script.append(",\n    ");
-                        script.append(generateConditionScript(conditions.get(i)));
+                        if (i > 0) body.append(",\n    ");
+                        body.append(generateConditionScript(conditions.get(i), capabilities));
                     }
-                    script.append(")");
-                }
-                
-                script.append(" {\n");
-                
-                // 生成动作
-                for (Map<String, Object> action : actions) {
-                    script.append("    ").append(generateActionScript(action)).append("\n");
-                }
-                
-                // 添加stop语句（如果不继续处理）
-                if (!rule.getContinueProcessing()) {
-                    script.append("    stop;\n");
+                    body.append(")");
                 }
                 
-                script.append("}\n");
+                body.append(" {\n");
+                indent = "    ";
+            }
+            
+            // 生成动作
+            for (Map<String, Object> action : actions) {
+                body.append(indent).append(generateActionScript(action, capabilities)).append("\n");
+            }
+            
+            // 添加stop语句（如果不继续处理）
+            if (Boolean.FALSE.equals(rule.getContinueProcessing())) {
+                body.append(indent).append("stop;\n");
             }
             
+            if (!conditions.isEmpty()) {
+                body.append("}\n");
+            }
+            
+            StringBuilder script = new StringBuilder();
+            if (!capabilities.isEmpty()) {
+                script.append("require ").append(SieveScriptEngine.requireList(capabilities)).append(";\n\n");
+            }
+            
+            // 添加注释
+            script.append("# ").append(commentText(rule.getRuleName())).append("\n");
+            if (rule.getDescription() != null && !rule.getDescription().isEmpty()) {
+                script.append("# ").append(commentText(rule.getDescription())).append("\n");
+            }
+            script.append("\n").append(body);
+            
             return script.toString();
             
         } catch (Exception e) {
@@ -373,17 +482,16 @@ public class SieveServiceImpl implements SieveService {
         Map<String, Object> parsed = new HashMap<>();
         
         try {
-            // 解析require语句
-            List<String> requirements = parseRequirements(sieveScript);
-            parsed.put("requirements", requirements);
+            SieveScriptEngine.ScriptOutline outline = scriptEngine.outline(sieveScript);
+            
+            // require声明
+            parsed.put("requirements", outline.getRequirements());
             
-            // 解析规则
-            List<Map<String, Object>> rules = parseRules(sieveScript);
-            parsed.put("rules", rules);
+            // 顶层规则片段（每条带上require声明，可单独编译）
+            parsed.put("rules", outline.getRules());
             
-            // 解析注释
-            List<String> comments = parseComments(sieveScript);
-            parsed.put("comments", comments);
+            // 注释
+            parsed.put("comments", outline.getComments());
             
             parsed.put("parsedAt", LocalDateTime.now());
             
@@ -551,25 +659,35 @@ public class SieveServiceImpl implements SieveService {
             script.append("# Sieve rules export for user ").append(userAliasId).append("\n");
             script.append("# Generated at ").append(LocalDateTime.now()).append("\n\n");
             
-            Set<String> allRequirements = new HashSet<>();
-            allRequirements.add("fileinto");
-            allRequirements.add("reject");
-            allRequirements.add("envelope");
-            allRequirements.add("body");
-            allRequirements.add("variables");
-            
-            script.append("require [");
-            script.append(String.join("\", \"", allRequirements));
-            script.append("\"];\n\n");
+            // 合并各规则的require声明，规则主体去掉自身的require后依次输出
+            Set<String> allRequirements = new LinkedHashSet<>();
+            StringBuilder ruleScripts = new StringBuilder();
             
             for (SieveRule rule : rules) {
-                if (rule.getEnabled() && rule.getSieveScript() != null) {
-                    script.append("# Rule: ").append(rule.getRuleName()).append("\n");
-                    script.append("# Priority: ").append(rule.getPriority()).append("\n");
-                    script.append(rule.getSieveScript()).append("\n\n");
+                if (!Boolean.TRUE.equals(rule.getEnabled()) || rule.getSieveScript() == null) {
+                    continue;
+                }
+                SieveScriptEngine.ScriptOutline outline;
+                try {
+                    outline = scriptEngine.outline(rule.getSieveScript());
+                } catch (SieveException e) {
+                    log.warn("导出时跳过无效的Sieve规则: ruleId={}, error={}", rule.getId(), e.getMessage());
+                    continue;
+                }
+                allRequirements.addAll(outline.getRequirements());
+                ruleScripts.append("# Rule: ").append(commentText(rule.getRuleName())).append("\n");
+                ruleScripts.append("# Priority: ").append(rule.getPriority()).append("\n");
+                for (Map<String, Object> part : outline.getRules()) {
+                    ruleScripts.append(part.get("body")).append("\n");
                 }
+                ruleScripts.append("\n");
             }
             
+            if (!allRequirements.isEmpty()) {
+                script.append("require ").append(SieveScriptEngine.requireList(allRequirements)).append(";\n\n");
+            }
+            script.append(ruleScripts);
+            
             return script.toString();
             
         } catch (Exception e) {
@@ -633,36 +751,23 @@ public class SieveServiceImpl implements SieveService {
 
     @Override
     public List<Map<String, Object>> getRuleExecutionHistory(Long userAliasId, int limit) {
-        List<Map<String, Object>> history = executionHistory.get(userAliasId);
-        if (history == null) {
-            return new ArrayList<>();
-        }
-        
-        int start = Math.max(0, history.size() - limit);
-        return new ArrayList<>(history.subList(start, history.size()));
+        return historyService.getRecent(ProcessingHistory.SOURCE_SIEVE, userAliasId, limit);
     }
 
     @Override
     public boolean cleanupRuleHistory(Long userAliasId, int days) {
-        try {
-            List<Map<String, Object>> history = executionHistory.get(userAliasId);
-            if (history != null) {
-                LocalDateTime cutoff = LocalDateTime.now().minusDays(days);
-                history.removeIf(record -> {
-                    LocalDateTime recordTime = (LocalDateTime) record.get("appliedAt");
-                    return recordTime != null && recordTime.isBefore(cutoff);
-                });
-            }
-            return true;
-        } catch (Exception e) {
-            log.error("清理规则历史失败: {}", e.getMessage(), e);
-            return false;
-        }
+        return historyService.cleanup(ProcessingHistory.SOURCE_SIEVE, userAliasId, days);
     }
 
     // 简化实现的其他方法
     @Override
-    public boolean optimizeRuleOrder(Long userAliasId) { return true; }
+    public boolean optimizeRuleOrder(Long userAliasId) {
+        // 下次加载规则集时按当前统计重新排列条件
+        orderedAliases.add(userAliasId);
+        compiledRules.remove(userAliasId);
+        log.info("已按运行统计重新规划规则求值顺序: userAliasId={}", userAliasId);
+        return true;
+    }
 
     @Override
     public List<Map<String, Object>> detectRuleConflicts(Long userAliasId) { return new ArrayList<>(); }
@@ -724,10 +829,29 @@ public class SieveServiceImpl implements SieveService {
     public List<Map<String, Object>> learnAndSuggestRules(Long userAliasId) { return new ArrayList<>(); }
 
     @Override
-    public Map<String, Object> getFilterPerformanceMetrics(Long userAliasId) { return new HashMap<>(); }
+    public Map<String, Object> getFilterPerformanceMetrics(Long userAliasId) {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        try {
+            // 按编写顺序重新编译，与统计对比得出当前与优化后的期望耗时
+            List<CompiledSieveRule> authored = new ArrayList<>();
+            for (SieveRule rule : sieveRuleMapper.selectEnabledByUserAliasId(userAliasId)) {
+                authored.add(ruleCompiler.compile(rule));
+            }
+            metrics.putAll(orderOptimizer.plan(authored, ruleProfiles::get));
+            metrics.put("orderingApplied", autoOrder || orderedAliases.contains(userAliasId));
+            metrics.put("profileSampleRate", profileSampleRate);
+        } catch (Exception e) {
+            log.error("获取过滤性能指标失败: userAliasId={}, error={}", userAliasId, e.getMessage(), e);
+            metrics.put("error", true);
+            metrics.put("message", e.getMessage());
+        }
+        return metrics;
+    }
 
     @Override
-    public boolean optimizeFilterPerformance(Long userAliasId) { return true; }
+    public boolean optimizeFilterPerformance(Long userAliasId) {
+        return optimizeRuleOrder(userAliasId);
+    }
 
     @Override
     public String backupRuleConfiguration(Long userAliasId) { return exportSieveRules(userAliasId); }
@@ -841,171 +965,81 @@ public class SieveServiceImpl implements SieveService {
         return emailData;
     }
 
-    private boolean isRuleEffective(SieveRule rule) {
-        LocalDateTime now = LocalDateTime.now();
-        
-        if (rule.getEffectiveFrom() != null && now.isBefore(rule.getEffectiveFrom())) {
-            return false;
+    /**
+     * 获取别名的已编译规则集（缓存未命中或过期时从数据库加载并编译）
+     */
+    private List<CompiledSieveRule> getCompiledRules(Long userAliasId) {
+        long now = System.nanoTime();
+        CompiledRuleSet ruleSet = compiledRules.get(userAliasId);
+        if (ruleSet != null && now - ruleSet.loadedAt < compiledCacheTtlSeconds * 1_000_000_000L) {
+            return ruleSet.rules;
         }
         
-        if (rule.getEffectiveUntil() != null && now.isAfter(rule.getEffectiveUntil())) {
-            return false;
+        // 同一别名的加载在computeIfAbsent内串行，失效操作会等待加载完成后再移除
+        if (ruleSet != null) {
+            compiledRules.remove(userAliasId, ruleSet);
         }
-        
-        return true;
-    }
-
-    private boolean evaluateRuleConditions(SieveRule rule, Map<String, Object> emailData) {
-        try {
-            List<Map<String, Object>> conditions = parseConditions(rule.getConditions());
-            if (conditions.isEmpty()) {
-                return true; // 没有条件则总是匹配
-            }
-            
-            boolean allMatch = true;
-            boolean anyMatch = false;
-            
-            for (Map<String, Object> condition : conditions) {
-                boolean match = evaluateSingleCondition(condition, emailData);
-                allMatch = allMatch && match;
-                anyMatch = anyMatch || match;
+        return compiledRules.computeIfAbsent(userAliasId, id -> {
+            List<CompiledSieveRule> rules = new ArrayList<>();
+            List<ContainsIndex.Needle> needles = new ArrayList<>();
+            boolean reorder = autoOrder || orderedAliases.contains(id);
+            for (SieveRule rule : sieveRuleMapper.selectEnabledByUserAliasId(id)) {
+                CompiledSieveRule compiled = ruleCompiler.compile(rule);
+                if (reorder) {
+                    compiled = orderOptimizer.optimize(compiled, ruleProfiles.get(compiled.getRuleId()));
+                }
+                compiled.collectNeedles(needles);
+                rules.add(compiled);
             }
-            
-            return "ANY".equals(rule.getConditionType()) ? anyMatch : allMatch;
-            
-        } catch (Exception e) {
-            log.error("评估规则条件失败: {}", e.getMessage(), e);
-            return false;
-        }
+            // 登记"包含"条件，只有条件集合变化的字段会重建自动机
+            containsIndex.update(id, ContainsIndex.SOURCE_SIEVE, "load@" + System.nanoTime(), () -> needles);
+            return new CompiledRuleSet(Collections.unmodifiableList(rules), System.nanoTime());
+        }).rules;
     }
-
-    private boolean evaluateSingleCondition(Map<String, Object> condition, Map<String, Object> emailData) {
-        String type = (String) condition.get("type");
-        String comparator = (String) condition.get("comparator");
-        String value = (String) condition.get("value");
-        
-        switch (type) {
-            case "header":
-                String headerName = (String) condition.get("header");
-                @SuppressWarnings("unchecked")
-                Map<String, String> headers = (Map<String, String>) emailData.get("headers");
-                String headerValue = headers.get(headerName.toLowerCase());
-                return compareValues(headerValue, value, comparator);
-                
-            case "body":
-                String body = (String) emailData.get("body");
-                return compareValues(body, value, comparator);
-                
-            case "size":
-                Integer size = (Integer) emailData.get("size");
-                Integer targetSize = Integer.valueOf(value);
-                return compareSizes(size, targetSize, comparator);
-                
-            case "envelope":
-                String envelopeField = (String) condition.get("envelope");
-                String envelopeValue = (String) emailData.get(envelopeField);
-                return compareValues(envelopeValue, value, comparator);
-                
-            default:
-                return false;
+    
+    /**
+     * 规则新增、修改、启停、调整优先级或删除后使对应别名的编译缓存失效
+     */
+    private void evictCompiledRules(SieveRule rule) {
+        Long userAliasId = rule.getUserAliasId();
+        if (userAliasId == null && rule.getId() != null) {
+            SieveRule stored = sieveRuleMapper.selectById(rule.getId());
+            userAliasId = stored != null ? stored.getUserAliasId() : null;
         }
-    }
-
-    private boolean compareValues(String actual, String expected, String comparator) {
-        if (actual == null) {
-            return false;
+        if (userAliasId != null) {
+            compiledRules.remove(userAliasId);
         }
-        
-        switch (comparator) {
-            case "is":
-                return actual.equals(expected);
-            case "contains":
-                return actual.contains(expected);
-            case "matches":
-                return actual.matches(expected);
-            case "regex":
-                Pattern pattern = Pattern.compile(expected);
-                return pattern.matcher(actual).find();
-            default:
-                return false;
+        if (rule.getId() != null) {
+            ruleProfiles.remove(rule.getId());
         }
     }
-
-    private boolean compareSizes(Integer actual, Integer expected, String comparator) {
-        if (actual == null || expected == null) {
-            return false;
-        }
-        
-        switch (comparator) {
-            case "over":
-                return actual > expected;
-            case "under":
-                return actual < expected;
-            case "equals":
-                return actual.equals(expected);
-            default:
-                return false;
+    
+    /**
+     * 规则的运行统计；节点数与编译结果不一致（规则已修改）时重新开始
+     */
+    private RuleProfile ruleProfile(CompiledSieveRule rule) {
+        RuleProfile profile = ruleProfiles.get(rule.getRuleId());
+        if (profile != null && profile.getNodeCount() == rule.getNodeCount()) {
+            return profile;
         }
+        return ruleProfiles.compute(rule.getRuleId(), (id, current) ->
+                current != null && current.getNodeCount() == rule.getNodeCount() ? current : new RuleProfile(rule.getNodeCount()));
     }
-
-    private Map<String, Object> executeRuleActions(SieveRule rule, Map<String, Object> emailData) {
-        Map<String, Object> result = new HashMap<>();
+    
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> actionData(Map<String, Object> actionResult) {
+        Object data = actionResult.get("actionData");
+        return data instanceof Map ? (Map<String, Object>) data : new HashMap<>();
+    }
+    
+    private static final class CompiledRuleSet {
+        private final List<CompiledSieveRule> rules;
+        private final long loadedAt;
         
-        try {
-            List<Map<String, Object>> actions = parseActions(rule.getActions());
-            
-            for (Map<String, Object> action : actions) {
-                String actionType = (String) action.get("type");
-                Map<String, Object> actionData = new HashMap<>();
-                
-                switch (actionType) {
-                    case "keep":
-                        result.put("action", "keep");
-                        break;
-                        
-                    case "discard":
-                        result.put("action", "discard");
-                        break;
-                        
-                    case "fileinto":
-                        String folder = (String) action.get("folder");
-                        actionData.put("folder", folder);
-                        result.put("action", "fileinto");
-                        result.put("actionData", actionData);
-                        break;
-                        
-                    case "redirect":
-                        String address = (String) action.get("address");
-                        actionData.put("address", address);
-                        result.put("action", "redirect");
-                        result.put("actionData", actionData);
-                        break;
-                        
-                    case "reject":
-                        String message = (String) action.get("message");
-                        actionData.put("message", message);
-                        result.put("action", "reject");
-                        result.put("actionData", actionData);
-                        break;
-                        
-                    case "stop":
-                        result.put("action", "stop");
-                        break;
-                        
-                    default:
-                        result.put("action", "keep");
-                }
-                
-                // 只执行第一个动作
-                break;
-            }
-            
-        } catch (Exception e) {
-            log.error("执行规则动作失败: {}", e.getMessage(), e);
-            result.put("action", "keep");
+        private CompiledRuleSet(List<CompiledSieveRule> rules, long loadedAt) {
+            this.rules = rules;
+            this.loadedAt = loadedAt;
         }
-        
-        return result;
     }
 
     private List<Map<String, Object>> parseConditions(String conditionsJson) {
@@ -1032,100 +1066,69 @@ public class SieveServiceImpl implements SieveService {
         }
     }
 
-    private void updateRuleStatistics(SieveRule rule, boolean success, String error) {
+    private void updateRuleStatistics(Long ruleId, boolean success, String error) {
         try {
+            // 只累加统计列，不经过updateSieveRule，避免重新生成脚本并使编译缓存失效
             if (success) {
-                rule.setAppliedCount(rule.getAppliedCount() + 1);
-                rule.setLastAppliedAt(LocalDateTime.now());
+                sieveRuleMapper.incrementAppliedCount(ruleId);
             } else {
-                rule.setErrorCount(rule.getErrorCount() + 1);
-                rule.setLastError(error);
-                rule.setLastErrorAt(LocalDateTime.now());
+                sieveRuleMapper.recordError(ruleId, error);
             }
-            updateSieveRule(rule);
         } catch (Exception e) {
             log.error("更新规则统计失败: {}", e.getMessage(), e);
         }
     }
 
     private void recordRuleExecution(Long userAliasId, Map<String, Object> execution) {
-        List<Map<String, Object>> history = executionHistory.computeIfAbsent(userAliasId, k -> new ArrayList<>());
-        history.add(execution);
-        
-        // 保持历史记录在合理范围内
-        if (history.size() > 1000) {
-            history.subList(0, history.size() - 1000).clear();
-        }
-    }
-
-    private boolean checkBracketMatching(String script) {
-        int braceCount = 0;
-        int parenCount = 0;
-        int bracketCount = 0;
-        
-        for (char c : script.toCharArray()) {
-            switch (c) {
-                case '{': braceCount++; break;
-                case '}': braceCount--; break;
-                case '(': parenCount++; break;
-                case ')': parenCount--; break;
-                case '[': bracketCount++; break;
-                case ']': bracketCount--; break;
-            }
-        }
-        
-        return braceCount == 0 && parenCount == 0 && bracketCount == 0;
-    }
-
-    private boolean checkBasicSyntax(String script) {
-        // 简化的语法检查
-        return script.contains("if") || script.contains("require") || script.contains("fileinto") || script.contains("redirect");
+        Object refId = execution.get("ruleId");
+        historyService.record(ProcessingHistory.SOURCE_SIEVE, userAliasId, refId instanceof Long ? (Long) refId : null, execution);
     }
 
-    private List<String> checkUnsupportedCommands(String script) {
-        List<String> unsupported = new ArrayList<>();
-        String[] unsupportedCommands = {"vacation", "notify", "include"};
-        
-        for (String command : unsupportedCommands) {
-            if (script.contains(command)) {
-                unsupported.add(command);
-            }
-        }
-        
-        return unsupported;
-    }
-
-    private String generateConditionScript(Map<String, Object> condition) {
+    private String generateConditionScript(Map<String, Object> condition, Set<String> capabilities) {
         String type = (String) condition.get("type");
-        String comparator = (String) condition.get("comparator");
-        String value = (String) condition.get("value");
+        String comparator = condition.get("comparator") != null ? condition.get("comparator").toString() : "is";
+        String value = condition.get("value") != null ? condition.get("value").toString() : "";
+        if ("regex".equals(comparator)) {
+            capabilities.add("regex");
+        }
         
-        switch (type) {
+        switch (type != null ? type : "") {
             case "header":
-                String header = (String) condition.get("header");
-                return String.format("header :%s \"%s\" \"%s\"", comparator, header, value);
+                String header = String.valueOf(condition.get("header"));
+                return String.format("header :%s %s %s", comparator,
+                        SieveScriptEngine.quote(header), SieveScriptEngine.quote(value));
             case "body":
-                return String.format("body :%s \"%s\"", comparator, value);
+                capabilities.add("body");
+                return String.format("body :%s %s", comparator, SieveScriptEngine.quote(value));
             case "size":
-                return String.format("size :%s %s", comparator, value);
+                String size = value.trim();
+                if ("equals".equals(comparator)) {
+                    // Sieve没有等于比较：既不大于也不小于
+                    return String.format("allof (not size :over %s, not size :under %s)", size, size);
+                }
+                return String.format("size :%s %s", comparator, size);
             case "envelope":
-                String envelope = (String) condition.get("envelope");
-                return String.format("envelope :%s \"%s\" \"%s\"", comparator, envelope, value);
+                capabilities.add("envelope");
+                String envelope = String.valueOf(condition.get("envelope"));
+                return String.format("envelope :%s %s %s", comparator,
+                        SieveScriptEngine.quote(envelope), SieveScriptEngine.quote(value));
             default:
                 return "true";
         }
     }
 
-    private String generateActionScript(Map<String, Object> action) {
+    private String generateActionScript(Map<String, Object> action, Set<String> capabilities) {
         String type = (String) action.get("type");
         
-        switch (type) {
+        switch (type != null ? type : "") {
             case "fileinto":
-                return String.format("fileinto \"%s\";", action.get("folder"));
+                capabilities.add("fileinto");
+                return "fileinto " + SieveScriptEngine.quote(String.valueOf(action.get("folder"))) + ";";
             case "redirect":
-                return String.format("redirect \"%s\";", action.get("address"));
+                return "redirect " + SieveScriptEngine.quote(String.valueOf(action.get("address"))) + ";";
             case "reject":
-                return String.format("reject \"%s\";", action.get("message"));
+                capabilities.add("reject");
+                return "reject " + SieveScriptEngine.quote(String.valueOf(action.get("message"))) + ";";
             case "discard":
                 return "discard;";
             case "stop":
@@ -1135,10 +1138,9 @@ public class SieveServiceImpl implements SieveService {
         }
     }
 
-    // 其他解析和转换方法的简化实现
-    private List<String> parseRequirements(String script) { return Arrays.asList("fileinto", "reject"); }
-    private List<Map<String, Object>> parseRules(String script) { return new ArrayList<>(); }
-    private List<String> parseComments(String script) { return new ArrayList<>(); }
+    private String commentText(String text) {
+        return text != null ? text.replaceAll("[\\r\\n]+", " ") : "";
+    }
     
     private void createSpamFilterRule(SieveRule rule, Map<String, Object> params) {
         rule.setRuleName("垃圾邮件过滤");
@@ -1174,7 +1176,11 @@ public class SieveServiceImpl implements SieveService {
         SieveRule rule = new SieveRule();
         rule.setUserAliasId(userAliasId);
         rule.setRuleName((String) ruleData.get("name"));
-        // 简化实现
+        rule.setSieveScript((String) ruleData.get("script"));
+        if (ruleData.get("priority") instanceof Integer) {
+            rule.setPriority((Integer) ruleData.get("priority"));
+        }
+        // 只有脚本、没有条件与动作JSON的规则由解释器执行
         return rule;
     }
     
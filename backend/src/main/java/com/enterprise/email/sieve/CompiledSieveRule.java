@@ -0,0 +1,454 @@
+package com.enterprise.email.sieve;
+
+import lombok.Getter;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 编译后的过滤规则（不可变）
+ *
+ * 条件编译为谓词树：字面量预先转为小写并与邮件的小写视图比较，正则与通配模式预先编译，
+ * 大小比较使用long。正则每次匹配创建Matcher（不在线程上保留邮件内容），输入按截止时间检查，
+ * 单次匹配超时按不匹配处理。
+ * 头部与正文上的字面量"包含"条件登记到 {@link ContainsIndex}，有扫描器时改为查询本封邮件的命中位图。
+ * 每个条件节点在编译时按先序分配编号，采样求值的统计（{@link RuleProfile}）按编号记录，
+ * {@link RuleOrderOptimizer} 据此生成子条件顺序不同、语义相同的副本。
+ */
+@Getter
+public final class CompiledSieveRule {
+
+    private final Long ruleId;
+    private final String ruleName;
+    private final Integer priority;
+    private final boolean continueProcessing;
+    private final LocalDateTime effectiveFrom;
+    private final LocalDateTime effectiveUntil;
+    private final Condition condition;
+    private final Action action;
+
+    /**
+     * 仅由Sieve脚本定义的规则编译得到的程序（条件、动作JSON为空时使用；为空表示谓词树规则）
+     */
+    private final SieveProgram program;
+
+    /**
+     * 编译错误（为空表示编译成功；有错误的规则永不匹配）
+     */
+    private final String compileError;
+
+    /**
+     * 条件节点数（节点编号范围）
+     */
+    private final int nodeCount;
+
+    CompiledSieveRule(Long ruleId, String ruleName, Integer priority, boolean continueProcessing,
+                      LocalDateTime effectiveFrom, LocalDateTime effectiveUntil,
+                      Condition condition, Action action, SieveProgram program, String compileError) {
+        this(ruleId, ruleName, priority, continueProcessing, effectiveFrom, effectiveUntil,
+                condition, action, program, compileError, Condition.assignIds(condition, 0));
+    }
+
+    private CompiledSieveRule(Long ruleId, String ruleName, Integer priority, boolean continueProcessing,
+                              LocalDateTime effectiveFrom, LocalDateTime effectiveUntil,
+                              Condition condition, Action action, SieveProgram program, String compileError,
+                              int nodeCount) {
+        this.ruleId = ruleId;
+        this.ruleName = ruleName;
+        this.priority = priority;
+        this.continueProcessing = continueProcessing;
+        this.effectiveFrom = effectiveFrom;
+        this.effectiveUntil = effectiveUntil;
+        this.condition = condition;
+        this.action = action;
+        this.program = program;
+        this.compileError = compileError;
+        this.nodeCount = nodeCount;
+    }
+
+    /**
+     * 条件替换为等价谓词树的副本（节点编号保持不变）
+     */
+    CompiledSieveRule withCondition(Condition reordered) {
+        return new CompiledSieveRule(ruleId, ruleName, priority, continueProcessing, effectiveFrom, effectiveUntil,
+                reordered, action, program, compileError, nodeCount);
+    }
+
+    /**
+     * 命中后是否可能终止后续规则（之后的规则构成新的独立分组）
+     */
+    public boolean isBarrier() {
+        return program != null || !continueProcessing || "stop".equals(action.getType());
+    }
+
+    /**
+     * 规则在给定时间是否生效
+     */
+    public boolean isEffectiveAt(LocalDateTime now) {
+        return (effectiveFrom == null || !now.isBefore(effectiveFrom))
+                && (effectiveUntil == null || !now.isAfter(effectiveUntil));
+    }
+
+    /**
+     * 是否为脚本规则（由解释器执行，而不是谓词树）
+     */
+    public boolean isScript() {
+        return program != null;
+    }
+
+    /**
+     * 评估规则条件（脚本规则不适用，始终返回false）
+     */
+    public boolean matches(SieveMessage message) {
+        return matches(message, null);
+    }
+
+    /**
+     * 评估规则条件，"包含"条件通过扫描器查询（scan为空时直接查找）
+     */
+    public boolean matches(SieveMessage message, ContainsScan scan) {
+        return compileError == null && program == null && condition.test(message, scan);
+    }
+
+    /**
+     * 采样求值：组合条件不短路，记录每个节点的耗时与结果（结果与 {@link #matches} 相同）
+     */
+    public boolean profile(SieveMessage message, ContainsScan scan, RuleProfile profile) {
+        return compileError == null && program == null && condition.profile(message, scan, profile);
+    }
+
+    /**
+     * 收集规则中的字面量"包含"条件
+     */
+    public void collectNeedles(List<ContainsIndex.Needle> needles) {
+        if (compileError == null && program == null) {
+            condition.collectNeedles(needles);
+        }
+    }
+
+    // ========== 谓词树 ==========
+
+    /**
+     * 条件节点
+     */
+    public abstract static class Condition {
+        /**
+         * 节点编号（共享的常量节点为-1，不参与统计）
+         */
+        int id = -1;
+
+        public abstract boolean test(SieveMessage message, ContainsScan scan);
+
+        boolean profile(SieveMessage message, ContainsScan scan, RuleProfile profile) {
+            long start = System.nanoTime();
+            boolean result = test(message, scan);
+            profile.recordNode(id, result, System.nanoTime() - start);
+            return result;
+        }
+
+        void collectNeedles(List<ContainsIndex.Needle> needles) {
+        }
+
+        /**
+         * 子条件（叶子节点为空数组）
+         */
+        Condition[] children() {
+            return NO_CHILDREN;
+        }
+
+        /**
+         * 按先序为尚未编号的节点分配编号，返回下一个可用编号
+         */
+        static int assignIds(Condition node, int next) {
+            if (node instanceof Always || node instanceof Never) {
+                return next;
+            }
+            if (node.id < 0) {
+                node.id = next;
+            }
+            next = Math.max(next, node.id + 1);
+            for (Condition child : node.children()) {
+                next = assignIds(child, next);
+            }
+            return next;
+        }
+    }
+
+    private static final Condition[] NO_CHILDREN = new Condition[0];
+
+    static final class Always extends Condition {
+        static final Always INSTANCE = new Always();
+
+        @Override
+        public boolean test(SieveMessage message, ContainsScan scan) {
+            return true;
+        }
+    }
+
+    static final class Never extends Condition {
+        static final Never INSTANCE = new Never();
+
+        @Override
+        public boolean test(SieveMessage message, ContainsScan scan) {
+            return false;
+        }
+    }
+
+    static final class AllOf extends Condition {
+        private final Condition[] children;
+
+        AllOf(Condition[] children) {
+            this.children = children;
+        }
+
+        @Override
+        public boolean test(SieveMessage message, ContainsScan scan) {
+            for (Condition child : children) {
+                if (!child.test(message, scan)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        boolean profile(SieveMessage message, ContainsScan scan, RuleProfile profile) {
+            long start = System.nanoTime();
+            boolean result = true;
+            for (Condition child : children) {
+                result &= child.profile(message, scan, profile);
+            }
+            profile.recordNode(id, result, System.nanoTime() - start);
+            return result;
+        }
+
+        @Override
+        Condition[] children() {
+            return children;
+        }
+
+        @Override
+        void collectNeedles(List<ContainsIndex.Needle> needles) {
+            for (Condition child : children) {
+                child.collectNeedles(needles);
+            }
+        }
+    }
+
+    static final class AnyOf extends Condition {
+        private final Condition[] children;
+
+        AnyOf(Condition[] children) {
+            this.children = children;
+        }
+
+        @Override
+        public boolean test(SieveMessage message, ContainsScan scan) {
+            for (Condition child : children) {
+                if (child.test(message, scan)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        boolean profile(SieveMessage message, ContainsScan scan, RuleProfile profile) {
+            long start = System.nanoTime();
+            boolean result = false;
+            for (Condition child : children) {
+                result |= child.profile(message, scan, profile);
+            }
+            profile.recordNode(id, result, System.nanoTime() - start);
+            return result;
+        }
+
+        @Override
+        Condition[] children() {
+            return children;
+        }
+
+        @Override
+        void collectNeedles(List<ContainsIndex.Needle> needles) {
+            for (Condition child : children) {
+                child.collectNeedles(needles);
+            }
+        }
+    }
+
+    /**
+     * 头部条件：任一同名头部取值匹配即成立
+     */
+    static final class HeaderTest extends Condition {
+        private final String headerName;
+        private final StringMatcher matcher;
+
+        private final String field;
+
+        HeaderTest(String headerName, StringMatcher matcher) {
+            this.headerName = headerName;
+            this.matcher = matcher;
+            this.field = ContainsIndex.headerField(headerName);
+        }
+
+        @Override
+        public boolean test(SieveMessage message, ContainsScan scan) {
+            if (scan != null && matcher instanceof ContainsMatcher) {
+                return scan.contains(field, ((ContainsMatcher) matcher).lowerLiteral, true);
+            }
+            List<String> values = message.headers(headerName);
+            List<String> lowerValues = message.lowerHeaders(headerName);
+            for (int i = 0; i < values.size(); i++) {
+                if (matcher.matches(values.get(i), lowerValues.get(i))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        void collectNeedles(List<ContainsIndex.Needle> needles) {
+            if (matcher instanceof ContainsMatcher) {
+                needles.add(new ContainsIndex.Needle(field, ((ContainsMatcher) matcher).lowerLiteral, true));
+            }
+        }
+    }
+
+    static final class BodyTest extends Condition {
+        private final StringMatcher matcher;
+
+        BodyTest(StringMatcher matcher) {
+            this.matcher = matcher;
+        }
+
+        @Override
+        public boolean test(SieveMessage message, ContainsScan scan) {
+            if (scan != null && matcher instanceof ContainsMatcher) {
+                return scan.contains(ContainsIndex.BODY_FIELD, ((ContainsMatcher) matcher).lowerLiteral, true);
+            }
+            return matcher.matches(message.getBody(), message.getLowerBody());
+        }
+
+        @Override
+        void collectNeedles(List<ContainsIndex.Needle> needles) {
+            if (matcher instanceof ContainsMatcher) {
+                needles.add(new ContainsIndex.Needle(ContainsIndex.BODY_FIELD, ((ContainsMatcher) matcher).lowerLiteral, true));
+            }
+        }
+    }
+
+    static final class SizeTest extends Condition {
+        private final int comparison;
+        private final long limit;
+
+        /**
+         * @param comparison 大于0表示over，小于0表示under，0表示等于
+         */
+        SizeTest(int comparison, long limit) {
+            this.comparison = comparison;
+            this.limit = limit;
+        }
+
+        @Override
+        public boolean test(SieveMessage message, ContainsScan scan) {
+            long size = message.getSize();
+            return comparison > 0 ? size > limit : comparison < 0 ? size < limit : size == limit;
+        }
+    }
+
+    // ========== 字符串匹配 ==========
+
+    /**
+     * 字符串匹配器：同时接收原值与小写值，按需使用
+     */
+    abstract static class StringMatcher {
+        abstract boolean matches(String value, String lowerValue);
+    }
+
+    static final class IsMatcher extends StringMatcher {
+        private final String lowerLiteral;
+
+        IsMatcher(String lowerLiteral) {
+            this.lowerLiteral = lowerLiteral;
+        }
+
+        @Override
+        boolean matches(String value, String lowerValue) {
+            return lowerValue.equals(lowerLiteral);
+        }
+    }
+
+    static final class ContainsMatcher extends StringMatcher {
+        private final String lowerLiteral;
+
+        ContainsMatcher(String lowerLiteral) {
+            this.lowerLiteral = lowerLiteral;
+        }
+
+        @Override
+        boolean matches(String value, String lowerValue) {
+            return lowerValue.contains(lowerLiteral);
+        }
+    }
+
+    /**
+     * 正则匹配（通配模式也编译为正则）：规则来自用户提交的JSON，单次匹配限时，防止回溯型正则卡住投递，
+     * 超时抛出 {@link SieveProgram.BudgetExceededException}
+     */
+    static final class PatternMatcher extends StringMatcher {
+        private final Pattern pattern;
+        private final boolean fullMatch;
+        private final long maxNanos;
+
+        PatternMatcher(Pattern pattern, boolean fullMatch, long maxNanos) {
+            this.pattern = pattern;
+            this.fullMatch = fullMatch;
+            this.maxNanos = maxNanos;
+        }
+
+        @Override
+        boolean matches(String value, String lowerValue) {
+            // 超时不能当作不匹配（not条件下会变成命中），异常交给调用方按求值失败处理
+            Matcher matcher = pattern.matcher(new SieveProgram.DeadlineCharSequence(value, System.nanoTime() + maxNanos));
+            return fullMatch ? matcher.matches() : matcher.find();
+        }
+    }
+
+    // ========== 动作 ==========
+
+    /**
+     * 编译后的动作（规则只执行第一个动作）
+     */
+    @Getter
+    public static final class Action {
+        static final Action KEEP = new Action("keep", null, null);
+
+        private final String type;
+        private final String argumentName;
+        private final String argument;
+
+        Action(String type, String argumentName, String argument) {
+            this.type = type;
+            this.argumentName = argumentName;
+            this.argument = argument;
+        }
+
+        /**
+         * 生成动作执行结果（规则命中时调用）
+         */
+        public Map<String, Object> toResult() {
+            Map<String, Object> result = new HashMap<>();
+            result.put("action", type);
+            if (argumentName != null) {
+                Map<String, Object> actionData = new HashMap<>();
+                actionData.put(argumentName, argument);
+                result.put("actionData", actionData);
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.enterprise.email.sieve;
+
+import com.enterprise.email.utils.AhoCorasickMatcher;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * 别名级"包含"条件索引
+ *
+ * 收集别名下过滤规则、转发配置与自动回复配置中所有字面量"包含"条件，按字段（区分大小写敏感与否）
+ * 各编译为一个 {@link AhoCorasickMatcher}。每封邮件的每个字段只扫描一次，条件求值变为查位图。
+ * 某个来源的条件变化时只重建条件集合发生变化的字段，其余字段的自动机直接复用。
+ */
+@Slf4j
+@Component
+public class ContainsIndex {
+
+    public static final String SOURCE_SIEVE = "sieve";
+    public static final String SOURCE_FORWARDING = "forwarding";
+    public static final String SOURCE_AUTORESPONDER = "autoresponder";
+
+    public static final String BODY_FIELD = "body";
+
+    private final Map<Long, AliasIndex> indexes = new ConcurrentHashMap<>();
+
+    /**
+     * 头部字段名
+     */
+    public static String headerField(String headerName) {
+        return "h:" + headerName.trim().toLowerCase(Locale.ROOT);
+    }
+
+    static String fieldKey(String field, boolean caseInsensitive) {
+        return caseInsensitive ? field : field + "#cs";
+    }
+
+    /**
+     * 来源的条件签名是否与已登记的一致
+     */
+    public boolean isCurrent(Long userAliasId, String source, String signature) {
+        AliasIndex index = indexes.get(userAliasId);
+        return index != null && signature.equals(index.signatures.get(source));
+    }
+
+    /**
+     * 登记来源的条件；签名未变化时不做任何事，否则只重建受影响的字段
+     */
+    public void update(Long userAliasId, String source, String signature, Supplier<Collection<Needle>> needles) {
+        if (isCurrent(userAliasId, source, signature)) {
+            return;
+        }
+        Collection<Needle> collected = needles.get();
+        indexes.compute(userAliasId, (id, current) -> rebuild(current, source, signature, collected));
+    }
+
+    /**
+     * 移除来源的条件
+     */
+    public void remove(Long userAliasId, String source) {
+        indexes.computeIfPresent(userAliasId, (id, current) -> {
+            AliasIndex next = rebuild(current, source, null, Collections.emptyList());
+            return next.sources.isEmpty() ? null : next;
+        });
+    }
+
+    /**
+     * 为一封邮件创建扫描器（字段在首次被查询时扫描）
+     */
+    public ContainsScan scan(Long userAliasId, ContainsScan.FieldValues values) {
+        AliasIndex index = userAliasId != null ? indexes.get(userAliasId) : null;
+        return new ContainsScan(index != null ? index.automata : Collections.emptyMap(), values);
+    }
+
+    /**
+     * 基于Sieve邮件视图创建扫描器（头部多值，已有小写视图）
+     */
+    public ContainsScan scan(Long userAliasId, SieveMessage message) {
+        return scan(userAliasId, new ContainsScan.FieldValues() {
+            @Override
+            public List<String> values(String field) {
+                return BODY_FIELD.equals(field) ? Collections.singletonList(message.getBody())
+                        : field.startsWith("h:") ? message.headers(field.substring(2)) : Collections.emptyList();
+            }
+
+            @Override
+            public List<String> lowerValues(String field) {
+                return BODY_FIELD.equals(field) ? Collections.singletonList(message.getLowerBody())
+                        : field.startsWith("h:") ? message.lowerHeaders(field.substring(2)) : Collections.emptyList();
+            }
+        });
+    }
+
+    private AliasIndex rebuild(AliasIndex current, String source, String signature, Collection<Needle> needles) {
+        Map<String, Map<String, Set<String>>> sources = new HashMap<>();
+        Map<String, String> signatures = new HashMap<>();
+        if (current != null) {
+            sources.putAll(current.sources);
+            signatures.putAll(current.signatures);
+        }
+        if (signature == null) {
+            sources.remove(source);
+            signatures.remove(source);
+        } else {
+            Map<String, Set<String>> byField = new HashMap<>();
+            for (Needle needle : needles) {
+                byField.computeIfAbsent(fieldKey(needle.getField(), needle.isCaseInsensitive()), k -> new HashSet<>())
+                        .add(needle.getText());
+            }
+            sources.put(source, byField);
+            signatures.put(source, signature);
+        }
+
+        // 合并所有来源后逐字段比较，集合不变的字段复用原自动机
+        Map<String, Set<String>> merged = new HashMap<>();
+        for (Map<String, Set<String>> byField : sources.values()) {
+            for (Map.Entry<String, Set<String>> entry : byField.entrySet()) {
+                merged.computeIfAbsent(entry.getKey(), k -> new HashSet<>()).addAll(entry.getValue());
+            }
+        }
+        Map<String, AhoCorasickMatcher> automata = new HashMap<>();
+        int rebuilt = 0;
+        for (Map.Entry<String, Set<String>> entry : merged.entrySet()) {
+            AhoCorasickMatcher existing = current != null ? current.automata.get(entry.getKey()) : null;
+            if (existing != null && existing.patterns().equals(entry.getValue())) {
+                automata.put(entry.getKey(), existing);
+            } else {
+                automata.put(entry.getKey(), AhoCorasickMatcher.build(entry.getValue()));
+                rebuilt++;
+            }
+        }
+        if (rebuilt > 0) {
+            log.debug("重建包含条件自动机: source={}, fields={}, rebuilt={}", source, automata.size(), rebuilt);
+        }
+        return new AliasIndex(sources, signatures, automata);
+    }
+
+    /**
+     * 别名的索引快照（不可变，整体替换）
+     */
+    private static final class AliasIndex {
+        private final Map<String, Map<String, Set<String>>> sources;
+        private final Map<String, String> signatures;
+        private final Map<String, AhoCorasickMatcher> automata;
+
+        private AliasIndex(Map<String, Map<String, Set<String>>> sources, Map<String, String> signatures,
+                           Map<String, AhoCorasickMatcher> automata) {
+            this.sources = sources;
+            this.signatures = signatures;
+            this.automata = automata;
+        }
+    }
+
+    /**
+     * 一个"包含"条件：字段、字面量（大小写不敏感时已转为小写）
+     */
+    public static final class Needle {
+        private final String field;
+        private final String text;
+        private final boolean caseInsensitive;
+
+        public Needle(String field, String text, boolean caseInsensitive) {
+            this.field = field;
+            this.text = caseInsensitive ? text.toLowerCase(Locale.ROOT) : text;
+            this.caseInsensitive = caseInsensitive;
+        }
+
+        public String getField() {
+            return field;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        public boolean isCaseInsensitive() {
+            return caseInsensitive;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.enterprise.email.sieve;
+
+import com.enterprise.email.utils.AhoCorasickMatcher;
+
+import java.util.*;
+
+/**
+ * 单封邮件的"包含"条件扫描器（非线程安全，随邮件处理创建与丢弃）
+ * 字段在首次被查询时用对应自动机扫描一次，结果位图缓存到本次处理结束；
+ * 不在自动机中的字面量（索引尚未更新）回退为直接查找，结果保持一致
+ */
+public final class ContainsScan {
+
+    /**
+     * 字段取值提供者
+     */
+    public interface FieldValues {
+        List<String> values(String field);
+
+        /**
+         * 小写取值（为空时由扫描器自行转换）
+         */
+        default List<String> lowerValues(String field) {
+            return null;
+        }
+    }
+
+    private final Map<String, AhoCorasickMatcher> automata;
+    private final FieldValues values;
+    private final Map<String, BitSet> hits = new HashMap<>(8);
+    private int scannedFields;
+    private int fallbacks;
+
+    ContainsScan(Map<String, AhoCorasickMatcher> automata, FieldValues values) {
+        this.automata = automata;
+        this.values = values;
+    }
+
+    /**
+     * 字段的任一取值是否包含字面量
+     *
+     * @param text 大小写不敏感时应为小写
+     */
+    public boolean contains(String field, String text, boolean caseInsensitive) {
+        String key = ContainsIndex.fieldKey(field, caseInsensitive);
+        AhoCorasickMatcher matcher = automata.get(key);
+        int id = matcher != null ? matcher.indexOf(text) : -1;
+        if (id < 0) {
+            fallbacks++;
+            for (String value : fieldValues(field, caseInsensitive)) {
+                if (value.contains(text)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        BitSet fieldHits = hits.get(key);
+        if (fieldHits == null) {
+            fieldHits = new BitSet(matcher.size());
+            for (String value : fieldValues(field, caseInsensitive)) {
+                matcher.scan(value, fieldHits);
+            }
+            hits.put(key, fieldHits);
+            scannedFields++;
+        }
+        return fieldHits.get(id);
+    }
+
+    private List<String> fieldValues(String field, boolean caseInsensitive) {
+        if (!caseInsensitive) {
+            return values.values(field);
+        }
+        List<String> lower = values.lowerValues(field);
+        if (lower != null) {
+            return lower;
+        }
+        List<String> raw = values.values(field);
+        List<String> lowered = new ArrayList<>(raw.size());
+        for (String value : raw) {
+            lowered.add(value.toLowerCase(Locale.ROOT));
+        }
+        return lowered;
+    }
+
+    /**
+     * 本次处理中实际扫描的字段数
+     */
+    public int getScannedFields() {
+        return scannedFields;
+    }
+
+    /**
+     * 未命中自动机、回退为直接查找的次数
+     */
+    public int getFallbacks() {
+        return fallbacks;
+    }
+}
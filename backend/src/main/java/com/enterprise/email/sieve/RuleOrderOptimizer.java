@@ -0,0 +1,222 @@
+package com.enterprise.email.sieve;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * 基于代价与选择性的求值顺序优化
+ *
+ * 规则按优先级分组：可能终止处理的规则（不继续处理、stop动作、脚本规则）是分组边界，
+ * 组内每条规则都要求值并按优先级记录命中，因此规则之间的顺序保持不变，优化发生在规则内部：
+ * 谓词树的条件没有副作用，同一allof/anyof下的子条件可以任意排列而结果不变。
+ * 假设子条件相互独立，allof按 耗时/(1-成立率) 升序、anyof按 耗时/成立率 升序排列时期望耗时最小，
+ * 即又快又能提前得出结果的条件放在前面。样本不足的组合节点保持原顺序。
+ *
+ * 整体期望耗时按"到达概率 × 规则期望耗时"累加，到达概率在每条规则后乘以(1-终止率)。
+ */
+@Component
+public class RuleOrderOptimizer {
+
+    @Value("${email.sieve.order-min-samples:50}")
+    private int minSamples;
+
+    /**
+     * 按统计重新排列规则的子条件；没有可用统计或顺序已是最优时返回原规则
+     */
+    public CompiledSieveRule optimize(CompiledSieveRule rule, RuleProfile profile) {
+        if (!usable(rule, profile)) {
+            return rule;
+        }
+        CompiledSieveRule.Condition reordered = reorder(rule.getCondition(), profile);
+        return reordered == rule.getCondition() ? rule : rule.withCondition(reordered);
+    }
+
+    /**
+     * 规则按当前子条件顺序的期望耗时（纳秒）
+     */
+    public double expectedNanos(CompiledSieveRule rule, RuleProfile profile) {
+        if (profile == null || rule.getCompileError() != null) {
+            return 0;
+        }
+        if (rule.isScript()) {
+            return Math.max(0, profile.getScriptNanos());
+        }
+        if (profile.getNodeCount() != rule.getNodeCount()) {
+            return 0;
+        }
+        return estimate(rule.getCondition(), profile).cost;
+    }
+
+    /**
+     * 生成求值计划：分组、每条规则的统计与优化前后的期望耗时
+     */
+    public Map<String, Object> plan(List<CompiledSieveRule> rules, Function<Long, RuleProfile> profiles) {
+        List<Map<String, Object>> ruleItems = new ArrayList<>();
+        List<Map<String, Object>> groups = new ArrayList<>();
+        double reach = 1.0;
+        double totalCurrent = 0;
+        double totalOptimized = 0;
+
+        List<Long> groupRules = new ArrayList<>();
+        double groupReach = reach;
+        double groupCurrent = 0;
+        double groupOptimized = 0;
+
+        for (CompiledSieveRule rule : rules) {
+            RuleProfile profile = profiles.apply(rule.getRuleId());
+            CompiledSieveRule optimized = optimize(rule, profile);
+            double current = expectedNanos(rule, profile);
+            double best = expectedNanos(optimized, profile);
+
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("ruleId", rule.getRuleId());
+            item.put("ruleName", rule.getRuleName());
+            item.put("priority", rule.getPriority());
+            item.put("group", groups.size());
+            item.put("barrier", rule.isBarrier());
+            item.put("evaluations", profile != null ? profile.getEvaluations() : 0L);
+            item.put("matchRate", profile != null ? profile.getMatchRate() : 0.0);
+            item.put("stopRate", profile != null ? profile.getStopRate() : 0.0);
+            item.put("expectedNanos", Math.round(current));
+            item.put("optimizedNanos", Math.round(best));
+            item.put("reordered", optimized != rule);
+            item.put("conditionOrder", nodeOrder(optimized.getCondition()));
+            ruleItems.add(item);
+
+            totalCurrent += reach * current;
+            totalOptimized += reach * best;
+            groupRules.add(rule.getRuleId());
+            groupCurrent += reach * current;
+            groupOptimized += reach * best;
+            reach *= 1.0 - (profile != null ? profile.getStopRate() : 0.0);
+
+            if (rule.isBarrier()) {
+                groups.add(group(groups.size(), groupRules, groupReach, groupCurrent, groupOptimized));
+                groupRules = new ArrayList<>();
+                groupReach = reach;
+                groupCurrent = 0;
+                groupOptimized = 0;
+            }
+        }
+        if (!groupRules.isEmpty()) {
+            groups.add(group(groups.size(), groupRules, groupReach, groupCurrent, groupOptimized));
+        }
+
+        Map<String, Object> plan = new LinkedHashMap<>();
+        plan.put("rules", ruleItems);
+        plan.put("groups", groups);
+        plan.put("expectedNanosCurrent", Math.round(totalCurrent));
+        plan.put("expectedNanosOptimized", Math.round(totalOptimized));
+        plan.put("expectedSavingsNanos", Math.round(totalCurrent - totalOptimized));
+        plan.put("expectedSavingsPercent", totalCurrent > 0 ? (totalCurrent - totalOptimized) * 100.0 / totalCurrent : 0.0);
+        plan.put("minSamples", minSamples);
+        return plan;
+    }
+
+    private boolean usable(CompiledSieveRule rule, RuleProfile profile) {
+        return profile != null && !rule.isScript() && rule.getCompileError() == null
+                && profile.getNodeCount() == rule.getNodeCount();
+    }
+
+    private CompiledSieveRule.Condition reorder(CompiledSieveRule.Condition node, RuleProfile profile) {
+        CompiledSieveRule.Condition[] children = node.children();
+        if (children.length == 0) {
+            return node;
+        }
+        CompiledSieveRule.Condition[] next = new CompiledSieveRule.Condition[children.length];
+        boolean changed = false;
+        for (int i = 0; i < children.length; i++) {
+            next[i] = reorder(children[i], profile);
+            changed |= next[i] != children[i];
+        }
+
+        boolean allOf = node instanceof CompiledSieveRule.AllOf;
+        if (sampled(next, profile)) {
+            CompiledSieveRule.Condition[] sorted = next.clone();
+            // 稳定排序，代价相同的条件保持原有先后
+            Arrays.sort(sorted, Comparator.comparingDouble(c -> rank(c, allOf, profile)));
+            changed |= !Arrays.equals(sorted, next);
+            next = sorted;
+        }
+        if (!changed) {
+            return node;
+        }
+        CompiledSieveRule.Condition copy = allOf ? new CompiledSieveRule.AllOf(next) : new CompiledSieveRule.AnyOf(next);
+        copy.id = node.id;
+        return copy;
+    }
+
+    private boolean sampled(CompiledSieveRule.Condition[] children, RuleProfile profile) {
+        for (CompiledSieveRule.Condition child : children) {
+            if (child.id >= 0 && profile.nodeSamples(child.id) < minSamples) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private double rank(CompiledSieveRule.Condition node, boolean allOf, RuleProfile profile) {
+        Estimate estimate = estimate(node, profile);
+        double decisive = allOf ? 1.0 - estimate.pass : estimate.pass;
+        return decisive <= 0 ? Double.MAX_VALUE : estimate.cost / decisive;
+    }
+
+    /**
+     * 节点的期望耗时与成立率；组合节点的耗时按当前子条件顺序和短路规则推算
+     */
+    private Estimate estimate(CompiledSieveRule.Condition node, RuleProfile profile) {
+        if (node instanceof CompiledSieveRule.Always) {
+            return new Estimate(0, 1);
+        }
+        if (node instanceof CompiledSieveRule.Never) {
+            return new Estimate(0, 0);
+        }
+        CompiledSieveRule.Condition[] children = node.children();
+        boolean measured = profile.nodeSamples(node.id) > 0;
+        if (children.length == 0) {
+            return measured ? new Estimate(profile.nodeNanos(node.id), profile.nodePassRate(node.id)) : new Estimate(0, 0.5);
+        }
+
+        boolean allOf = node instanceof CompiledSieveRule.AllOf;
+        double cost = 0;
+        double continueProbability = 1;
+        for (CompiledSieveRule.Condition child : children) {
+            Estimate childEstimate = estimate(child, profile);
+            cost += continueProbability * childEstimate.cost;
+            continueProbability *= allOf ? childEstimate.pass : 1 - childEstimate.pass;
+        }
+        double pass = measured ? profile.nodePassRate(node.id) : allOf ? continueProbability : 1 - continueProbability;
+        return new Estimate(cost, pass);
+    }
+
+    private static List<Integer> nodeOrder(CompiledSieveRule.Condition node) {
+        List<Integer> order = new ArrayList<>();
+        for (CompiledSieveRule.Condition child : node.children()) {
+            order.add(child.id);
+        }
+        return order;
+    }
+
+    private static Map<String, Object> group(int index, List<Long> ruleIds, double reach, double current, double optimized) {
+        Map<String, Object> group = new LinkedHashMap<>();
+        group.put("group", index);
+        group.put("ruleIds", ruleIds);
+        group.put("reachProbability", reach);
+        group.put("expectedNanosCurrent", Math.round(current));
+        group.put("expectedNanosOptimized", Math.round(optimized));
+        return group;
+    }
+
+    private static final class Estimate {
+        private final double cost;
+        private final double pass;
+
+        private Estimate(double cost, double pass) {
+            this.cost = cost;
+            this.pass = pass;
+        }
+    }
+}
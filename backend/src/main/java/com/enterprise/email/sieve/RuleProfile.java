@@ -0,0 +1,108 @@
+package com.enterprise.email.sieve;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 单条规则的运行统计
+ *
+ * 每次求值累计命中与终止次数；采样求值时按条件节点编号累计样本数、成立次数与耗时，
+ * 脚本规则只记录整体耗时。统计与编译结果的节点编号对应，规则修改后需丢弃。
+ */
+public final class RuleProfile {
+
+    private final int nodeCount;
+    private final LongAdder evaluations = new LongAdder();
+    private final LongAdder matches = new LongAdder();
+    private final LongAdder stops = new LongAdder();
+    private final LongAdder scriptSamples = new LongAdder();
+    private final LongAdder scriptNanos = new LongAdder();
+    private final AtomicLongArray nodeSamples;
+    private final AtomicLongArray nodePasses;
+    private final AtomicLongArray nodeNanos;
+
+    public RuleProfile(int nodeCount) {
+        this.nodeCount = nodeCount;
+        this.nodeSamples = new AtomicLongArray(nodeCount);
+        this.nodePasses = new AtomicLongArray(nodeCount);
+        this.nodeNanos = new AtomicLongArray(nodeCount);
+    }
+
+    /**
+     * 记录一次求值的结果
+     */
+    public void recordEvaluation(boolean matched, boolean stopped) {
+        evaluations.increment();
+        if (matched) {
+            matches.increment();
+        }
+        if (stopped) {
+            stops.increment();
+        }
+    }
+
+    /**
+     * 记录一次脚本规则的采样耗时
+     */
+    public void recordScriptSample(long nanos) {
+        scriptSamples.increment();
+        scriptNanos.add(nanos);
+    }
+
+    void recordNode(int id, boolean passed, long nanos) {
+        if (id < 0 || id >= nodeCount) {
+            return;
+        }
+        nodeSamples.incrementAndGet(id);
+        if (passed) {
+            nodePasses.incrementAndGet(id);
+        }
+        nodeNanos.addAndGet(id, nanos);
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    public long getEvaluations() {
+        return evaluations.sum();
+    }
+
+    public double getMatchRate() {
+        long total = evaluations.sum();
+        return total > 0 ? (double) matches.sum() / total : 0;
+    }
+
+    public double getStopRate() {
+        long total = evaluations.sum();
+        return total > 0 ? (double) stops.sum() / total : 0;
+    }
+
+    /**
+     * 脚本规则的平均耗时（没有样本时为-1）
+     */
+    public double getScriptNanos() {
+        long samples = scriptSamples.sum();
+        return samples > 0 ? (double) scriptNanos.sum() / samples : -1;
+    }
+
+    public long nodeSamples(int id) {
+        return id >= 0 && id < nodeCount ? nodeSamples.get(id) : 0;
+    }
+
+    /**
+     * 节点成立的比例
+     */
+    public double nodePassRate(int id) {
+        long samples = nodeSamples(id);
+        return samples > 0 ? (double) nodePasses.get(id) / samples : 0;
+    }
+
+    /**
+     * 节点的平均耗时（纳秒，组合节点为不短路时的合计）
+     */
+    public double nodeNanos(int id) {
+        long samples = nodeSamples(id);
+        return samples > 0 ? (double) nodeNanos.get(id) / samples : 0;
+    }
+}
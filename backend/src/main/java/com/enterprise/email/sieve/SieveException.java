@@ -0,0 +1,18 @@
+package com.enterprise.email.sieve;
+
+/**
+ * Sieve脚本解析、编译错误（带行号）
+ */
+public class SieveException extends RuntimeException {
+
+    private final int line;
+
+    public SieveException(int line, String message) {
+        super(line > 0 ? "第" + line + "行: " + message : message);
+        this.line = line;
+    }
+
+    public int getLine() {
+        return line;
+    }
+}
@@ -0,0 +1,182 @@
+package com.enterprise.email.sieve;
+
+import java.util.*;
+
+/**
+ * Sieve程序解释器
+ *
+ * 顺序执行 {@link SieveProgram} 的指令，跳转只向后，每条指令和每次键比较都计入步数预算，
+ * 并按步数间隔检查时间预算。预算耗尽或运行期错误时丢弃已收集的动作并回退为隐式keep。
+ */
+public final class SieveInterpreter {
+
+    static final int MAX_VARIABLE_LENGTH = 4096;
+    private static final int MAX_VARIABLES = 128;
+    private static final int MAX_ACTIONS = 64;
+    private static final int MAX_REDIRECTS = 5;
+
+    private SieveInterpreter() {
+    }
+
+    /**
+     * 执行程序
+     *
+     * @param envelopeFrom 信封发件人（可为空）
+     * @param envelopeTo   信封收件人（可为空）
+     * @param maxSteps     步数预算
+     * @param maxMillis    时间预算（毫秒）
+     */
+    public static SieveResult execute(SieveProgram program, SieveMessage message, String envelopeFrom, String envelopeTo,
+                                      int maxSteps, long maxMillis) {
+        SieveProgram.Context context = new SieveProgram.Context(message, envelopeFrom, envelopeTo, maxSteps,
+                System.nanoTime() + maxMillis * 1_000_000L, program.capabilities.contains("variables"));
+        ActionCollector collector = new ActionCollector();
+        boolean stopped = false;
+
+        try {
+            int[] code = program.code;
+            int count = code.length / SieveProgram.WIDTH;
+            int pc = 0;
+            while (pc < count) {
+                context.step();
+                int base = pc * SieveProgram.WIDTH;
+                switch (code[base]) {
+                    case SieveProgram.OP_TEST:
+                        pc = program.tests[code[base + 1]].eval(context) ? pc + 1 : code[base + 2];
+                        break;
+                    case SieveProgram.OP_JUMP:
+                        pc = code[base + 1];
+                        break;
+                    case SieveProgram.OP_ACTION:
+                        collector.apply(program.actions[code[base + 1]], context);
+                        pc++;
+                        break;
+                    case SieveProgram.OP_SET:
+                        assign(program.sets[code[base + 1]], context);
+                        pc++;
+                        break;
+                    case SieveProgram.OP_STOP:
+                        stopped = true;
+                        pc = count;
+                        break;
+                    default:
+                        throw new IllegalStateException("未知操作码: " + code[base]);
+                }
+            }
+        } catch (SieveProgram.BudgetExceededException e) {
+            return SieveResult.budgetExceeded(context.steps, e.getMessage());
+        } catch (SieveException e) {
+            return SieveResult.fallback(context.steps, e.getMessage());
+        }
+
+        return new SieveResult(collector.actions, collector.implicitKeep, stopped, context.steps, null);
+    }
+
+    private static void assign(SieveProgram.SetNode set, SieveProgram.Context context) {
+        String value = set.value.resolve(context);
+        for (String modifier : set.modifiers) {
+            switch (modifier) {
+                case "lower":
+                    value = value.toLowerCase(Locale.ROOT);
+                    break;
+                case "upper":
+                    value = value.toUpperCase(Locale.ROOT);
+                    break;
+                case "lowerfirst":
+                    value = value.isEmpty() ? value : value.substring(0, 1).toLowerCase(Locale.ROOT) + value.substring(1);
+                    break;
+                case "upperfirst":
+                    value = value.isEmpty() ? value : value.substring(0, 1).toUpperCase(Locale.ROOT) + value.substring(1);
+                    break;
+                case "quotewildcard":
+                    value = value.replace("\\", "\\\\").replace("*", "\\*").replace("?", "\\?");
+                    break;
+                case "length":
+                    value = String.valueOf(value.length());
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (value.length() > MAX_VARIABLE_LENGTH) {
+            value = value.substring(0, MAX_VARIABLE_LENGTH);
+        }
+        if (context.variables == null) {
+            context.variables = new HashMap<>();
+        }
+        if (!context.variables.containsKey(set.name) && context.variables.size() >= MAX_VARIABLES) {
+            throw new SieveException(0, "变量数量超出限制");
+        }
+        context.variables.put(set.name, value);
+    }
+
+    /**
+     * 收集动作并维护隐式keep（相同目标的重复动作只保留一次）
+     */
+    private static final class ActionCollector {
+        final List<SieveResult.SieveAction> actions = new ArrayList<>();
+        final Set<String> seen = new HashSet<>();
+        boolean implicitKeep = true;
+        int redirects;
+        boolean vacation;
+
+        void apply(SieveProgram.ActionNode node, SieveProgram.Context context) {
+            Map<String, Object> data = new LinkedHashMap<>();
+            String argument = node.argument != null ? node.argument.resolve(context) : null;
+            switch (node.type) {
+                case "fileinto":
+                    data.put("folder", argument);
+                    data.put("copy", node.copy);
+                    break;
+                case "redirect":
+                    if (++redirects > MAX_REDIRECTS) {
+                        throw new SieveException(0, "redirect 次数超出限制");
+                    }
+                    data.put("address", argument);
+                    data.put("copy", node.copy);
+                    break;
+                case "reject":
+                    data.put("message", argument);
+                    break;
+                case "vacation":
+                    if (vacation) {
+                        throw new SieveException(0, "vacation 只能执行一次");
+                    }
+                    vacation = true;
+                    data.put("reason", argument);
+                    for (Map.Entry<String, Object> option : node.options.entrySet()) {
+                        data.put(option.getKey(), resolveOption(option.getValue(), context));
+                    }
+                    break;
+                default:
+                    break;
+            }
+
+            // keep、discard、reject 以及不带 :copy 的 fileinto、redirect 取消隐式keep；vacation 不影响
+            if (!"vacation".equals(node.type) && !node.copy) {
+                implicitKeep = false;
+            }
+            if (!seen.add(node.type + '\u0000' + (argument != null ? argument : ""))) {
+                return;
+            }
+            if (actions.size() >= MAX_ACTIONS) {
+                throw new SieveException(0, "动作数量超出限制");
+            }
+            actions.add(new SieveResult.SieveAction(node.type, data));
+        }
+
+        private Object resolveOption(Object value, SieveProgram.Context context) {
+            if (value instanceof SieveProgram.StringValue) {
+                return ((SieveProgram.StringValue) value).resolve(context);
+            }
+            if (value instanceof SieveProgram.StringValue[]) {
+                List<String> resolved = new ArrayList<>();
+                for (SieveProgram.StringValue item : (SieveProgram.StringValue[]) value) {
+                    resolved.add(item.resolve(context));
+                }
+                return resolved;
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package com.enterprise.email.sieve;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sieve词法分析器（RFC 5228 第8.1节）
+ * 支持标识符、标签、带K/M/G后缀的数字、引号字符串、text:多行字符串、分隔符，以及#与斜杠星号两种注释
+ */
+public class SieveLexer {
+
+    /**
+     * 词法单元类型
+     */
+    public enum TokenType {
+        IDENTIFIER, TAG, NUMBER, STRING,
+        LEFT_BRACKET, RIGHT_BRACKET, LEFT_BRACE, RIGHT_BRACE, LEFT_PAREN, RIGHT_PAREN,
+        COMMA, SEMICOLON, EOF
+    }
+
+    /**
+     * 词法单元
+     */
+    public static final class Token {
+        final TokenType type;
+        final String text;
+        final long number;
+        final int line;
+        final int offset;
+
+        Token(TokenType type, String text, long number, int line, int offset) {
+            this.type = type;
+            this.text = text;
+            this.number = number;
+            this.line = line;
+            this.offset = offset;
+        }
+
+        @Override
+        public String toString() {
+            return type == TokenType.EOF ? "脚本结尾" : text != null ? text : type.name();
+        }
+    }
+
+    /**
+     * 注释（hash注释，用于导入时识别规则名称）
+     */
+    public static final class Comment {
+        final String text;
+        final int offset;
+
+        Comment(String text, int offset) {
+            this.text = text;
+            this.offset = offset;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        public int getOffset() {
+            return offset;
+        }
+    }
+
+    private final String input;
+    private final List<Comment> comments = new ArrayList<>();
+    private int pos;
+    private int line = 1;
+
+    public SieveLexer(String input) {
+        this.input = input;
+    }
+
+    /**
+     * 切分全部词法单元（末尾为EOF）
+     */
+    public List<Token> tokenize() {
+        List<Token> tokens = new ArrayList<>();
+        while (true) {
+            Token token = next();
+            tokens.add(token);
+            if (token.type == TokenType.EOF) {
+                return tokens;
+            }
+        }
+    }
+
+    public List<Comment> getComments() {
+        return comments;
+    }
+
+    private Token next() {
+        skipWhitespaceAndComments();
+        if (pos >= input.length()) {
+            return new Token(TokenType.EOF, null, 0, line, pos);
+        }
+
+        int start = pos;
+        char c = input.charAt(pos);
+        switch (c) {
+            case '[':
+                pos++;
+                return new Token(TokenType.LEFT_BRACKET, "[", 0, line, start);
+            case ']':
+                pos++;
+                return new Token(TokenType.RIGHT_BRACKET, "]", 0, line, start);
+            case '{':
+                pos++;
+                return new Token(TokenType.LEFT_BRACE, "{", 0, line, start);
+            case '}':
+                pos++;
+                return new Token(TokenType.RIGHT_BRACE, "}", 0, line, start);
+            case '(':
+                pos++;
+                return new Token(TokenType.LEFT_PAREN, "(", 0, line, start);
+            case ')':
+                pos++;
+                return new Token(TokenType.RIGHT_PAREN, ")", 0, line, start);
+            case ',':
+                pos++;
+                return new Token(TokenType.COMMA, ",", 0, line, start);
+            case ';':
+                pos++;
+                return new Token(TokenType.SEMICOLON, ";", 0, line, start);
+            case '"':
+                return quotedString();
+            case ':':
+                pos++;
+                if (pos >= input.length() || !isIdentifierStart(input.charAt(pos))) {
+                    throw new SieveException(line, "标签名缺失");
+                }
+                return new Token(TokenType.TAG, identifierText(), 0, line, start);
+            default:
+                break;
+        }
+
+        if (c >= '0' && c <= '9') {
+            return number();
+        }
+        if (isIdentifierStart(c)) {
+            String identifier = identifierText();
+            if ("text".equalsIgnoreCase(identifier) && pos < input.length() && input.charAt(pos) == ':') {
+                pos++;
+                return multiLineString(start);
+            }
+            return new Token(TokenType.IDENTIFIER, identifier, 0, line, start);
+        }
+        throw new SieveException(line, "无法识别的字符 '" + c + "'");
+    }
+
+    private void skipWhitespaceAndComments() {
+        while (pos < input.length()) {
+            char c = input.charAt(pos);
+            if (c == '\n') {
+                line++;
+                pos++;
+            } else if (c == ' ' || c == '\t' || c == '\r') {
+                pos++;
+            } else if (c == '#') {
+                int end = input.indexOf('\n', pos);
+                end = end < 0 ? input.length() : end;
+                comments.add(new Comment(input.substring(pos + 1, end).trim(), pos));
+                pos = end;
+            } else if (c == '/' && pos + 1 < input.length() && input.charAt(pos + 1) == '*') {
+                int end = input.indexOf("*/", pos + 2);
+                if (end < 0) {
+                    throw new SieveException(line, "注释未结束");
+                }
+                countLines(pos, end);
+                pos = end + 2;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private Token quotedString() {
+        int startLine = line;
+        int start = pos;
+        pos++;
+        StringBuilder sb = new StringBuilder();
+        while (pos < input.length()) {
+            char c = input.charAt(pos++);
+            if (c == '"') {
+                return new Token(TokenType.STRING, sb.toString(), 0, startLine, start);
+            }
+            if (c == '\\' && pos < input.length()) {
+                c = input.charAt(pos++);
+            }
+            if (c == '\n') {
+                line++;
+            }
+            sb.append(c);
+        }
+        throw new SieveException(startLine, "字符串未结束");
+    }
+
+    /**
+     * text: 多行字符串，以单独一行的"."结束，行首的".."还原为"."
+     */
+    private Token multiLineString(int start) {
+        int startLine = line;
+        // text: 之后到行尾只允许空白或注释
+        while (pos < input.length() && (input.charAt(pos) == ' ' || input.charAt(pos) == '\t')) {
+            pos++;
+        }
+        if (pos < input.length() && input.charAt(pos) == '#') {
+            int end = input.indexOf('\n', pos);
+            pos = end < 0 ? input.length() : end;
+        }
+        if (pos < input.length() && input.charAt(pos) == '\r') {
+            pos++;
+        }
+        if (pos >= input.length() || input.charAt(pos) != '\n') {
+            throw new SieveException(line, "text: 之后必须换行");
+        }
+        pos++;
+        line++;
+
+        StringBuilder sb = new StringBuilder();
+        while (pos < input.length()) {
+            int end = input.indexOf('\n', pos);
+            if (end < 0) {
+                break;
+            }
+            int lineEnd = end > pos && input.charAt(end - 1) == '\r' ? end - 1 : end;
+            String text = input.substring(pos, lineEnd);
+            pos = end + 1;
+            line++;
+            if (".".equals(text)) {
+                return new Token(TokenType.STRING, sb.toString(), 0, startLine, start);
+            }
+            sb.append(text.startsWith("..") ? text.substring(1) : text).append("\r\n");
+        }
+        throw new SieveException(startLine, "多行字符串未结束");
+    }
+
+    private Token number() {
+        int start = pos;
+        long value = 0;
+        while (pos < input.length() && Character.isDigit(input.charAt(pos))) {
+            value = value * 10 + (input.charAt(pos++) - '0');
+            if (value > Integer.MAX_VALUE * 1024L) {
+                throw new SieveException(line, "数字过大");
+            }
+        }
+        if (pos < input.length()) {
+            char unit = Character.toUpperCase(input.charAt(pos));
+            if (unit == 'K' || unit == 'M' || unit == 'G') {
+                pos++;
+                value *= unit == 'K' ? 1024L : unit == 'M' ? 1024L * 1024 : 1024L * 1024 * 1024;
+            }
+        }
+        return new Token(TokenType.NUMBER, input.substring(start, pos), value, line, start);
+    }
+
+    private String identifierText() {
+        int start = pos;
+        while (pos < input.length() && isIdentifierPart(input.charAt(pos))) {
+            pos++;
+        }
+        return input.substring(start, pos).toLowerCase();
+    }
+
+    private void countLines(int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (input.charAt(i) == '\n') {
+                line++;
+            }
+        }
+    }
+
+    private static boolean isIdentifierStart(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+    }
+
+    private static boolean isIdentifierPart(char c) {
+        return isIdentifierStart(c) || (c >= '0' && c <= '9');
+    }
+}
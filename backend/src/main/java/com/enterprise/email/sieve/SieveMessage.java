@@ -0,0 +1,162 @@
+package com.enterprise.email.sieve;
+
+import javax.mail.internet.MimeUtility;
+import java.io.UnsupportedEncodingException;
+import java.util.*;
+
+/**
+ * 供过滤规则求值的邮件视图
+ *
+ * 每封邮件只解析一次：头部名称统一小写，折叠行合并，RFC 2047编码字解码，同名头部保留全部取值；
+ * 同时保存原值与小写值，规则求值时直接比较，不再产生临时字符串。
+ */
+public final class SieveMessage {
+
+    private final Map<String, List<String>> headers;
+    private final Map<String, List<String>> lowerHeaders;
+    private final String body;
+    private final String lowerBody;
+    private final long size;
+
+    private SieveMessage(Map<String, List<String>> headers, Map<String, List<String>> lowerHeaders,
+                         String body, long size) {
+        this.headers = headers;
+        this.lowerHeaders = lowerHeaders;
+        this.body = body;
+        this.lowerBody = body.toLowerCase(Locale.ROOT);
+        this.size = size;
+    }
+
+    /**
+     * 解析原始邮件内容（头部与正文以第一个空行分隔）
+     */
+    public static SieveMessage parse(String content) {
+        Map<String, List<String>> headers = new HashMap<>();
+        if (content == null) {
+            return new SieveMessage(headers, new HashMap<>(), "", 0);
+        }
+
+        int pos = 0;
+        int length = content.length();
+        String currentName = null;
+        StringBuilder currentValue = null;
+        int bodyStart = length;
+
+        while (pos < length) {
+            int end = content.indexOf('\n', pos);
+            if (end < 0) {
+                end = length;
+            }
+            int lineEnd = end > pos && content.charAt(end - 1) == '\r' ? end - 1 : end;
+
+            if (lineEnd == pos) {
+                bodyStart = Math.min(end + 1, length);
+                break;
+            }
+
+            char first = content.charAt(pos);
+            if ((first == ' ' || first == '\t') && currentValue != null) {
+                // 折叠的头部续行
+                currentValue.append(' ').append(content, pos, lineEnd);
+            } else {
+                addDecodedHeader(headers, currentName, currentValue);
+                currentName = null;
+                currentValue = null;
+                int colon = content.indexOf(':', pos);
+                if (colon > pos && colon < lineEnd) {
+                    currentName = content.substring(pos, colon).trim().toLowerCase(Locale.ROOT);
+                    currentValue = new StringBuilder(content.substring(colon + 1, lineEnd));
+                }
+            }
+            pos = end + 1;
+        }
+        addDecodedHeader(headers, currentName, currentValue);
+
+        return new SieveMessage(headers, lower(headers), content.substring(bodyStart), content.length());
+    }
+
+    /**
+     * 由已拆分的字段构造（已入库的邮件没有原始内容时使用），取值为null的头部忽略
+     */
+    public static SieveMessage of(Map<String, String> fields, String body, long size) {
+        Map<String, List<String>> headers = new HashMap<>(fields.size() * 2);
+        for (Map.Entry<String, String> entry : fields.entrySet()) {
+            if (entry.getValue() != null) {
+                addHeader(headers, entry.getKey().trim().toLowerCase(Locale.ROOT), new StringBuilder(entry.getValue()));
+            }
+        }
+        String text = body != null ? body : "";
+        return new SieveMessage(headers, lower(headers), text, Math.max(size, text.length()));
+    }
+
+    private static Map<String, List<String>> lower(Map<String, List<String>> headers) {
+        Map<String, List<String>> lowerHeaders = new HashMap<>(headers.size() * 2);
+        for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+            List<String> lowered = new ArrayList<>(entry.getValue().size());
+            for (String value : entry.getValue()) {
+                lowered.add(value.toLowerCase(Locale.ROOT));
+            }
+            lowerHeaders.put(entry.getKey(), lowered);
+        }
+        return lowerHeaders;
+    }
+
+    private static void addHeader(Map<String, List<String>> headers, String name, StringBuilder value) {
+        if (name == null || name.isEmpty()) {
+            return;
+        }
+        headers.computeIfAbsent(name, k -> new ArrayList<>(1)).add(value.toString().trim());
+    }
+
+    /**
+     * 原始头部中的编码字（=?charset?B/Q?...?=）解码后再保存，规则按解码后的文本匹配
+     */
+    private static void addDecodedHeader(Map<String, List<String>> headers, String name, StringBuilder value) {
+        if (value != null && value.indexOf("=?") >= 0) {
+            try {
+                value = new StringBuilder(MimeUtility.decodeText(value.toString().trim()));
+            } catch (UnsupportedEncodingException | RuntimeException e) {
+                // 无法解码时保留原值
+            }
+        }
+        addHeader(headers, name, value);
+    }
+
+    /**
+     * 头部的全部取值（名称需为小写，不存在时返回空列表）
+     */
+    public List<String> headers(String lowerName) {
+        return headers.getOrDefault(lowerName, Collections.emptyList());
+    }
+
+    /**
+     * 头部的全部小写取值，与 {@link #headers(String)} 一一对应
+     */
+    public List<String> lowerHeaders(String lowerName) {
+        return lowerHeaders.getOrDefault(lowerName, Collections.emptyList());
+    }
+
+    /**
+     * 第一个取值（不存在时返回null）
+     */
+    public String firstHeader(String lowerName) {
+        List<String> values = headers.get(lowerName);
+        return values == null || values.isEmpty() ? null : values.get(0);
+    }
+
+    public Set<String> headerNames() {
+        return Collections.unmodifiableSet(headers.keySet());
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    public String getLowerBody() {
+        return lowerBody;
+    }
+
+    public long getSize() {
+        return size;
+    }
+}
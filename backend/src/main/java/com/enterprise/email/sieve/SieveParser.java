@@ -0,0 +1,249 @@
+package com.enterprise.email.sieve;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Sieve语法分析器（RFC 5228 第8.2节），生成命令与测试组成的语法树
+ * 限制嵌套深度与列表长度，避免恶意脚本耗尽栈或内存
+ */
+public class SieveParser {
+
+    private static final int MAX_DEPTH = 32;
+    private static final int MAX_LIST_SIZE = 1024;
+
+    /**
+     * 参数
+     */
+    public static final class Argument {
+        final String tag;
+        final Long number;
+        final List<String> strings;
+        final boolean list;
+        final int line;
+
+        private Argument(String tag, Long number, List<String> strings, boolean list, int line) {
+            this.tag = tag;
+            this.number = number;
+            this.strings = strings;
+            this.list = list;
+            this.line = line;
+        }
+
+        boolean isTag() {
+            return tag != null;
+        }
+
+        boolean isNumber() {
+            return number != null;
+        }
+
+        boolean isStrings() {
+            return strings != null;
+        }
+    }
+
+    /**
+     * 测试
+     */
+    public static final class Test {
+        final String name;
+        final List<Argument> arguments;
+        final List<Test> tests;
+        final int line;
+
+        Test(String name, List<Argument> arguments, List<Test> tests, int line) {
+            this.name = name;
+            this.arguments = arguments;
+            this.tests = tests;
+            this.line = line;
+        }
+    }
+
+    /**
+     * 命令（block为null表示以分号结束）
+     */
+    public static final class Command {
+        final String name;
+        final List<Argument> arguments;
+        final List<Test> tests;
+        final List<Command> block;
+        final int line;
+        final int startOffset;
+        final int endOffset;
+
+        Command(String name, List<Argument> arguments, List<Test> tests, List<Command> block,
+                int line, int startOffset, int endOffset) {
+            this.name = name;
+            this.arguments = arguments;
+            this.tests = tests;
+            this.block = block;
+            this.line = line;
+            this.startOffset = startOffset;
+            this.endOffset = endOffset;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getStartOffset() {
+            return startOffset;
+        }
+
+        public int getEndOffset() {
+            return endOffset;
+        }
+    }
+
+    private final List<SieveLexer.Token> tokens;
+    private int index;
+
+    public SieveParser(List<SieveLexer.Token> tokens) {
+        this.tokens = tokens;
+    }
+
+    /**
+     * 解析整个脚本
+     */
+    public List<Command> parse() {
+        List<Command> commands = commands(0);
+        if (peek().type != SieveLexer.TokenType.EOF) {
+            throw new SieveException(peek().line, "意外的 " + peek());
+        }
+        return commands;
+    }
+
+    private List<Command> commands(int depth) {
+        List<Command> commands = new ArrayList<>();
+        while (peek().type == SieveLexer.TokenType.IDENTIFIER) {
+            commands.add(command(depth));
+        }
+        return commands;
+    }
+
+    private Command command(int depth) {
+        SieveLexer.Token name = next();
+        List<Argument> arguments = arguments();
+        List<Test> tests = testsAfterArguments(depth);
+
+        SieveLexer.Token terminator = next();
+        if (terminator.type == SieveLexer.TokenType.SEMICOLON) {
+            return new Command(name.text, arguments, tests, null, name.line, name.offset, terminator.offset + 1);
+        }
+        if (terminator.type == SieveLexer.TokenType.LEFT_BRACE) {
+            if (depth >= MAX_DEPTH) {
+                throw new SieveException(terminator.line, "代码块嵌套过深");
+            }
+            List<Command> block = commands(depth + 1);
+            SieveLexer.Token close = expect(SieveLexer.TokenType.RIGHT_BRACE, "}");
+            return new Command(name.text, arguments, tests, block, name.line, name.offset, close.offset + 1);
+        }
+        throw new SieveException(terminator.line, "命令 " + name.text + " 之后缺少 ; 或 {，遇到 " + terminator);
+    }
+
+    private List<Argument> arguments() {
+        List<Argument> arguments = new ArrayList<>();
+        while (true) {
+            SieveLexer.Token token = peek();
+            switch (token.type) {
+                case TAG:
+                    next();
+                    arguments.add(new Argument(token.text, null, null, false, token.line));
+                    break;
+                case NUMBER:
+                    next();
+                    arguments.add(new Argument(null, token.number, null, false, token.line));
+                    break;
+                case STRING:
+                    next();
+                    arguments.add(new Argument(null, null, Collections.singletonList(token.text), false, token.line));
+                    break;
+                case LEFT_BRACKET:
+                    arguments.add(stringList());
+                    break;
+                default:
+                    return arguments;
+            }
+        }
+    }
+
+    private Argument stringList() {
+        SieveLexer.Token open = next();
+        List<String> strings = new ArrayList<>();
+        while (true) {
+            SieveLexer.Token token = expect(SieveLexer.TokenType.STRING, "字符串");
+            strings.add(token.text);
+            if (strings.size() > MAX_LIST_SIZE) {
+                throw new SieveException(token.line, "字符串列表过长");
+            }
+            SieveLexer.Token separator = next();
+            if (separator.type == SieveLexer.TokenType.RIGHT_BRACKET) {
+                return new Argument(null, null, strings, true, open.line);
+            }
+            if (separator.type != SieveLexer.TokenType.COMMA) {
+                throw new SieveException(separator.line, "字符串列表中缺少 , 或 ]");
+            }
+        }
+    }
+
+    private List<Test> testsAfterArguments(int depth) {
+        SieveLexer.Token token = peek();
+        if (token.type == SieveLexer.TokenType.IDENTIFIER) {
+            return Collections.singletonList(test(depth + 1));
+        }
+        if (token.type == SieveLexer.TokenType.LEFT_PAREN) {
+            return testList(depth + 1);
+        }
+        return Collections.emptyList();
+    }
+
+    private Test test(int depth) {
+        SieveLexer.Token name = expect(SieveLexer.TokenType.IDENTIFIER, "测试名");
+        if (depth >= MAX_DEPTH) {
+            throw new SieveException(name.line, "测试嵌套过深");
+        }
+        List<Argument> arguments = arguments();
+        List<Test> tests = testsAfterArguments(depth);
+        return new Test(name.text, arguments, tests, name.line);
+    }
+
+    private List<Test> testList(int depth) {
+        next();
+        List<Test> tests = new ArrayList<>();
+        while (true) {
+            tests.add(test(depth));
+            if (tests.size() > MAX_LIST_SIZE) {
+                throw new SieveException(peek().line, "测试列表过长");
+            }
+            SieveLexer.Token separator = next();
+            if (separator.type == SieveLexer.TokenType.RIGHT_PAREN) {
+                return tests;
+            }
+            if (separator.type != SieveLexer.TokenType.COMMA) {
+                throw new SieveException(separator.line, "测试列表中缺少 , 或 )");
+            }
+        }
+    }
+
+    private SieveLexer.Token expect(SieveLexer.TokenType type, String description) {
+        SieveLexer.Token token = next();
+        if (token.type != type) {
+            throw new SieveException(token.line, "期望" + description + "，遇到 " + token);
+        }
+        return token;
+    }
+
+    private SieveLexer.Token peek() {
+        return tokens.get(index);
+    }
+
+    private SieveLexer.Token next() {
+        SieveLexer.Token token = tokens.get(index);
+        if (token.type != SieveLexer.TokenType.EOF) {
+            index++;
+        }
+        return token;
+    }
+}
@@ -0,0 +1,624 @@
+package com.enterprise.email.sieve;
+
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 编译后的Sieve脚本（不可变的中间表示）
+ *
+ * 控制流编译为定长指令数组：每条指令 [操作码, 操作数A, 操作数B]，跳转只允许向后，
+ * 因此解释器的执行步数不超过指令数加上测试求值次数。测试、动作与变量赋值放在各自的常量池中，
+ * 常量字面量在编译期完成小写化与正则编译。
+ */
+public final class SieveProgram {
+
+    static final int OP_TEST = 1;    // [OP_TEST, 测试下标, 不成立时跳转的目标]
+    static final int OP_JUMP = 2;    // [OP_JUMP, 目标, 0]
+    static final int OP_ACTION = 3;  // [OP_ACTION, 动作下标, 0]
+    static final int OP_SET = 4;     // [OP_SET, 赋值下标, 0]
+    static final int OP_STOP = 5;    // [OP_STOP, 0, 0]
+    static final int WIDTH = 3;
+
+    final int[] code;
+    final TestNode[] tests;
+    final ActionNode[] actions;
+    final SetNode[] sets;
+    final Set<String> capabilities;
+    final String hash;
+
+    SieveProgram(int[] code, TestNode[] tests, ActionNode[] actions, SetNode[] sets,
+                 Set<String> capabilities, String hash) {
+        this.code = code;
+        this.tests = tests;
+        this.actions = actions;
+        this.sets = sets;
+        this.capabilities = Collections.unmodifiableSet(capabilities);
+        this.hash = hash;
+
+        // 校验跳转目标只能向后，保证解释器没有循环
+        int count = code.length / WIDTH;
+        for (int pc = 0; pc < count; pc++) {
+            int op = code[pc * WIDTH];
+            int target = op == OP_TEST ? code[pc * WIDTH + 2] : op == OP_JUMP ? code[pc * WIDTH + 1] : -1;
+            if (target >= 0 && (target <= pc || target > count)) {
+                throw new IllegalStateException("非法的跳转目标: pc=" + pc + ", target=" + target);
+            }
+        }
+    }
+
+    public Set<String> getCapabilities() {
+        return capabilities;
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    public int getInstructionCount() {
+        return code.length / WIDTH;
+    }
+
+    // ========== 执行上下文 ==========
+
+    /**
+     * 单次执行的上下文：邮件、信封、变量与预算
+     */
+    static final class Context {
+        final SieveMessage message;
+        final String envelopeFrom;
+        final String envelopeTo;
+        final int maxSteps;
+        final long deadline;
+        final boolean variablesEnabled;
+        Map<String, String> variables;
+        String[] matchVariables;
+        int steps;
+
+        Context(SieveMessage message, String envelopeFrom, String envelopeTo, int maxSteps, long deadline,
+                boolean variablesEnabled) {
+            this.message = message;
+            this.envelopeFrom = envelopeFrom;
+            this.envelopeTo = envelopeTo;
+            this.maxSteps = maxSteps;
+            this.deadline = deadline;
+            this.variablesEnabled = variablesEnabled;
+        }
+
+        void step() {
+            if (++steps > maxSteps) {
+                throw BudgetExceededException.STEPS;
+            }
+            if ((steps & 63) == 0) {
+                checkDeadline();
+            }
+        }
+
+        void checkDeadline() {
+            if (System.nanoTime() > deadline) {
+                throw BudgetExceededException.TIME;
+            }
+        }
+    }
+
+    /**
+     * 执行预算耗尽（不记录堆栈）；条件规则的正则匹配超时同样抛出，由调用方按求值失败处理
+     */
+    public static final class BudgetExceededException extends RuntimeException {
+        static final BudgetExceededException STEPS = new BudgetExceededException("执行步数超出限制");
+        static final BudgetExceededException TIME = new BudgetExceededException("执行时间超出限制");
+
+        private BudgetExceededException(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    /**
+     * 正则匹配的输入包装：按字符访问次数检查截止时间（System.nanoTime），防止回溯型正则卡住投递，
+     * 超时抛出 {@link BudgetExceededException#TIME}
+     */
+    static final class DeadlineCharSequence implements CharSequence {
+        private final CharSequence value;
+        private final long deadline;
+        private int accesses;
+
+        DeadlineCharSequence(CharSequence value, long deadline) {
+            this.value = value;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public int length() {
+            return value.length();
+        }
+
+        @Override
+        public char charAt(int index) {
+            if ((++accesses & 4095) == 0 && System.nanoTime() > deadline) {
+                throw BudgetExceededException.TIME;
+            }
+            return value.charAt(index);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new DeadlineCharSequence(value.subSequence(start, end), deadline);
+        }
+
+        @Override
+        public String toString() {
+            return value.toString();
+        }
+    }
+
+    // ========== 字符串与变量 ==========
+
+    /**
+     * 字符串值：常量，或包含 ${变量} 引用的模板
+     */
+    static final class StringValue {
+        final String constant;
+        final Object[] parts;
+
+        private StringValue(String constant, Object[] parts) {
+            this.constant = constant;
+            this.parts = parts;
+        }
+
+        static StringValue of(String constant) {
+            return new StringValue(constant, null);
+        }
+
+        static StringValue template(Object[] parts) {
+            return new StringValue(null, parts);
+        }
+
+        boolean isConstant() {
+            return constant != null;
+        }
+
+        String resolve(Context context) {
+            if (constant != null) {
+                return constant;
+            }
+            StringBuilder sb = new StringBuilder();
+            for (Object part : parts) {
+                if (part instanceof String) {
+                    sb.append((String) part);
+                } else if (part instanceof Integer) {
+                    int index = (Integer) part;
+                    String[] matches = context.matchVariables;
+                    if (matches != null && index < matches.length && matches[index] != null) {
+                        sb.append(matches[index]);
+                    }
+                } else {
+                    String name = ((VariableRef) part).name;
+                    String value = context.variables != null ? context.variables.get(name) : null;
+                    if (value != null) {
+                        sb.append(value);
+                    }
+                }
+                if (sb.length() > SieveInterpreter.MAX_VARIABLE_LENGTH) {
+                    sb.setLength(SieveInterpreter.MAX_VARIABLE_LENGTH);
+                    break;
+                }
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * 模板中的命名变量引用（名称已小写）
+     */
+    static final class VariableRef {
+        final String name;
+
+        VariableRef(String name) {
+            this.name = name;
+        }
+    }
+
+    // ========== 匹配 ==========
+
+    enum MatchType { IS, CONTAINS, MATCHES, REGEX }
+
+    enum AddressPart { ALL, LOCALPART, DOMAIN }
+
+    /**
+     * 比较键：常量键在编译期完成小写化或正则编译
+     */
+    static final class Key {
+        final StringValue value;
+        final String literal;
+        final Pattern pattern;
+
+        Key(StringValue value, String literal, Pattern pattern) {
+            this.value = value;
+            this.literal = literal;
+            this.pattern = pattern;
+        }
+    }
+
+    /**
+     * 比较器与匹配方式
+     */
+    static final class MatchSpec {
+        final MatchType type;
+        final boolean caseInsensitive;
+        final Key[] keys;
+
+        MatchSpec(MatchType type, boolean caseInsensitive, Key[] keys) {
+            this.type = type;
+            this.caseInsensitive = caseInsensitive;
+            this.keys = keys;
+        }
+
+        /**
+         * 任一键匹配即成立
+         *
+         * @param lowerValue 已小写的值（可为null，按需计算）
+         */
+        boolean matches(String value, String lowerValue, Context context) {
+            for (Key key : keys) {
+                context.step();
+                if (matchKey(value, lowerValue, key, context)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean matchKey(String value, String lowerValue, Key key, Context context) {
+            switch (type) {
+                case IS:
+                    String expected = key.literal != null ? key.literal : key.value.resolve(context);
+                    return caseInsensitive ? value.equalsIgnoreCase(expected) : value.equals(expected);
+                case CONTAINS:
+                    if (caseInsensitive) {
+                        String needle = key.literal != null ? key.literal : key.value.resolve(context).toLowerCase(Locale.ROOT);
+                        String haystack = lowerValue != null ? lowerValue : value.toLowerCase(Locale.ROOT);
+                        return haystack.contains(needle);
+                    }
+                    return value.contains(key.literal != null ? key.literal : key.value.resolve(context));
+                default:
+                    Pattern pattern = key.pattern != null ? key.pattern : compileRuntimePattern(key, context);
+                    return patternMatches(pattern, value, context);
+            }
+        }
+
+        private Pattern compileRuntimePattern(Key key, Context context) {
+            String source = key.value.resolve(context);
+            try {
+                return type == MatchType.MATCHES
+                        ? SieveScriptCompiler.globToPattern(source, caseInsensitive)
+                        : SieveScriptCompiler.regexPattern(source, caseInsensitive);
+            } catch (RuntimeException e) {
+                // 运行期生成的非法模式按不匹配处理
+                return null;
+            }
+        }
+
+        private boolean patternMatches(Pattern pattern, String value, Context context) {
+            if (pattern == null) {
+                return false;
+            }
+            Matcher matcher = pattern.matcher(new DeadlineCharSequence(value, context.deadline));
+            boolean matched = type == MatchType.MATCHES ? matcher.matches() : matcher.find();
+            if (matched && context.variablesEnabled) {
+                String[] groups = new String[Math.min(matcher.groupCount() + 1, 10)];
+                for (int i = 0; i < groups.length; i++) {
+                    groups[i] = matcher.group(i);
+                }
+                context.matchVariables = groups;
+            }
+            return matched;
+        }
+    }
+
+    // ========== 测试 ==========
+
+    abstract static class TestNode {
+        abstract boolean eval(Context context);
+    }
+
+    static final class ConstTest extends TestNode {
+        static final ConstTest TRUE = new ConstTest(true);
+        static final ConstTest FALSE = new ConstTest(false);
+
+        private final boolean value;
+
+        private ConstTest(boolean value) {
+            this.value = value;
+        }
+
+        @Override
+        boolean eval(Context context) {
+            return value;
+        }
+    }
+
+    static final class NotTest extends TestNode {
+        private final TestNode child;
+
+        NotTest(TestNode child) {
+            this.child = child;
+        }
+
+        @Override
+        boolean eval(Context context) {
+            context.step();
+            return !child.eval(context);
+        }
+    }
+
+    static final class AllOfTest extends TestNode {
+        private final TestNode[] children;
+
+        AllOfTest(TestNode[] children) {
+            this.children = children;
+        }
+
+        @Override
+        boolean eval(Context context) {
+            for (TestNode child : children) {
+                context.step();
+                if (!child.eval(context)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    static final class AnyOfTest extends TestNode {
+        private final TestNode[] children;
+
+        AnyOfTest(TestNode[] children) {
+            this.children = children;
+        }
+
+        @Override
+        boolean eval(Context context) {
+            for (TestNode child : children) {
+                context.step();
+                if (child.eval(context)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    static final class HeaderTest extends TestNode {
+        private final StringValue[] names;
+        private final MatchSpec match;
+
+        HeaderTest(StringValue[] names, MatchSpec match) {
+            this.names = names;
+            this.match = match;
+        }
+
+        @Override
+        boolean eval(Context context) {
+            for (StringValue name : names) {
+                String lowerName = name.resolve(context).toLowerCase(Locale.ROOT);
+                List<String> values = context.message.headers(lowerName);
+                List<String> lowerValues = context.message.lowerHeaders(lowerName);
+                for (int i = 0; i < values.size(); i++) {
+                    if (match.matches(values.get(i), lowerValues.get(i), context)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+    }
+
+    static final class AddressTest extends TestNode {
+        private final StringValue[] names;
+        private final AddressPart part;
+        private final MatchSpec match;
+
+        AddressTest(StringValue[] names, AddressPart part, MatchSpec match) {
+            this.names = names;
+            this.part = part;
+            this.match = match;
+        }
+
+        @Override
+        boolean eval(Context context) {
+            for (StringValue name : names) {
+                for (String value : context.message.headers(name.resolve(context).toLowerCase(Locale.ROOT))) {
+                    for (String address : parseAddresses(value)) {
+                        context.step();
+                        if (match.matches(addressPart(address, part), null, context)) {
+                            return true;
+                        }
+                    }
+                }
+            }
+            return false;
+        }
+    }
+
+    static final class EnvelopeTest extends TestNode {
+        private final StringValue[] parts;
+        private final AddressPart part;
+        private final MatchSpec match;
+
+        EnvelopeTest(StringValue[] parts, AddressPart part, MatchSpec match) {
+            this.parts = parts;
+            this.part = part;
+            this.match = match;
+        }
+
+        @Override
+        boolean eval(Context context) {
+            for (StringValue envelopePart : parts) {
+                String name = envelopePart.resolve(context).toLowerCase(Locale.ROOT);
+                String value = "from".equals(name) ? context.envelopeFrom : "to".equals(name) ? context.envelopeTo : null;
+                if (value == null) {
+                    continue;
+                }
+                for (String address : parseAddresses(value)) {
+                    context.step();
+                    if (match.matches(addressPart(address, part), null, context)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+    }
+
+    static final class ExistsTest extends TestNode {
+        private final StringValue[] names;
+
+        ExistsTest(StringValue[] names) {
+            this.names = names;
+        }
+
+        @Override
+        boolean eval(Context context) {
+            for (StringValue name : names) {
+                context.step();
+                if (context.message.headers(name.resolve(context).toLowerCase(Locale.ROOT)).isEmpty()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    static final class SizeTest extends TestNode {
+        private final boolean over;
+        private final long limit;
+
+        SizeTest(boolean over, long limit) {
+            this.over = over;
+            this.limit = limit;
+        }
+
+        @Override
+        boolean eval(Context context) {
+            long size = context.message.getSize();
+            return over ? size > limit : size < limit;
+        }
+    }
+
+    static final class BodyTest extends TestNode {
+        private final MatchSpec match;
+
+        BodyTest(MatchSpec match) {
+            this.match = match;
+        }
+
+        @Override
+        boolean eval(Context context) {
+            return match.matches(context.message.getBody(), context.message.getLowerBody(), context);
+        }
+    }
+
+    static final class StringTest extends TestNode {
+        private final StringValue[] sources;
+        private final MatchSpec match;
+
+        StringTest(StringValue[] sources, MatchSpec match) {
+            this.sources = sources;
+            this.match = match;
+        }
+
+        @Override
+        boolean eval(Context context) {
+            for (StringValue source : sources) {
+                if (match.matches(source.resolve(context), null, context)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    // ========== 动作与赋值 ==========
+
+    /**
+     * 动作：keep、discard、fileinto、redirect、reject、vacation
+     */
+    static final class ActionNode {
+        final String type;
+        final StringValue argument;
+        final boolean copy;
+        final Map<String, Object> options;
+
+        ActionNode(String type, StringValue argument, boolean copy, Map<String, Object> options) {
+            this.type = type;
+            this.argument = argument;
+            this.copy = copy;
+            this.options = options;
+        }
+    }
+
+    /**
+     * set 命令
+     */
+    static final class SetNode {
+        final String name;
+        final List<String> modifiers;
+        final StringValue value;
+
+        SetNode(String name, List<String> modifiers, StringValue value) {
+            this.name = name;
+            this.modifiers = modifiers;
+            this.value = value;
+        }
+    }
+
+    // ========== 地址解析 ==========
+
+    /**
+     * 从头部取值中拆出地址（逗号分隔，忽略引号与注释中的逗号，取尖括号内的地址）
+     */
+    static List<String> parseAddresses(String value) {
+        List<String> addresses = new ArrayList<>(2);
+        int depth = 0;
+        boolean quoted = false;
+        int start = 0;
+        for (int i = 0; i <= value.length(); i++) {
+            char c = i < value.length() ? value.charAt(i) : ',';
+            if (c == '"' && (i == 0 || value.charAt(i - 1) != '\\')) {
+                quoted = !quoted;
+            } else if (!quoted && c == '(') {
+                depth++;
+            } else if (!quoted && c == ')' && depth > 0) {
+                depth--;
+            } else if (!quoted && depth == 0 && c == ',') {
+                String address = extractAddress(value.substring(start, i));
+                if (!address.isEmpty()) {
+                    addresses.add(address);
+                }
+                start = i + 1;
+            }
+        }
+        return addresses;
+    }
+
+    private static String extractAddress(String mailbox) {
+        int open = mailbox.lastIndexOf('<');
+        int close = mailbox.lastIndexOf('>');
+        if (open >= 0 && close > open) {
+            return mailbox.substring(open + 1, close).trim();
+        }
+        return mailbox.replaceAll("\\([^)]*\\)", "").trim();
+    }
+
+    static String addressPart(String address, AddressPart part) {
+        if (part == AddressPart.ALL) {
+            return address;
+        }
+        int at = address.lastIndexOf('@');
+        if (part == AddressPart.LOCALPART) {
+            return at >= 0 ? address.substring(0, at) : address;
+        }
+        return at >= 0 ? address.substring(at + 1) : "";
+    }
+}
@@ -0,0 +1,100 @@
+package com.enterprise.email.sieve;
+
+import lombok.Getter;
+
+import java.util.*;
+
+/**
+ * Sieve脚本执行结果
+ * 运行期错误或预算耗尽时动作被丢弃并回退为隐式keep，保证邮件不丢失；预算耗尽另行标记，由调用方按求值失败处理
+ */
+@Getter
+public final class SieveResult {
+
+    private final List<SieveAction> actions;
+    private final boolean implicitKeep;
+    private final boolean stopped;
+    private final int steps;
+
+    /**
+     * 运行期错误（为空表示正常结束）
+     */
+    private final String error;
+
+    /**
+     * 是否因执行步数或时间超出预算而中止
+     */
+    private final boolean budgetExceeded;
+
+    SieveResult(List<SieveAction> actions, boolean implicitKeep, boolean stopped, int steps, String error) {
+        this(actions, implicitKeep, stopped, steps, error, false);
+    }
+
+    private SieveResult(List<SieveAction> actions, boolean implicitKeep, boolean stopped, int steps, String error,
+                        boolean budgetExceeded) {
+        this.actions = Collections.unmodifiableList(actions);
+        this.implicitKeep = implicitKeep;
+        this.stopped = stopped;
+        this.steps = steps;
+        this.error = error;
+        this.budgetExceeded = budgetExceeded;
+    }
+
+    static SieveResult fallback(int steps, String error) {
+        return new SieveResult(new ArrayList<>(), true, false, steps, error, false);
+    }
+
+    static SieveResult budgetExceeded(int steps, String error) {
+        return new SieveResult(new ArrayList<>(), true, false, steps, error, true);
+    }
+
+    /**
+     * 是否产生了除隐式keep之外的效果
+     */
+    public boolean hasExplicitActions() {
+        return !actions.isEmpty() || !implicitKeep;
+    }
+
+    /**
+     * 转为规则执行结果：主动作取第一个动作（没有显式动作时为keep），全部动作放在actions中
+     */
+    public Map<String, Object> toActionResult() {
+        Map<String, Object> result = new HashMap<>();
+        List<Map<String, Object>> all = new ArrayList<>();
+        for (SieveAction action : actions) {
+            Map<String, Object> item = new HashMap<>();
+            item.put("action", action.getType());
+            item.put("actionData", action.getData());
+            all.add(item);
+        }
+        if (implicitKeep) {
+            Map<String, Object> keep = new HashMap<>();
+            keep.put("action", "keep");
+            keep.put("actionData", Collections.emptyMap());
+            all.add(keep);
+        }
+        Map<String, Object> primary = all.isEmpty() ? Collections.emptyMap() : all.get(0);
+        result.put("action", primary.getOrDefault("action", "discard"));
+        result.put("actionData", primary.getOrDefault("actionData", Collections.emptyMap()));
+        result.put("actions", all);
+        result.put("stopped", stopped);
+        if (error != null) {
+            result.put("error", error);
+        }
+        return result;
+    }
+
+    /**
+     * 单个动作
+     */
+    @Getter
+    public static final class SieveAction {
+        private final String type;
+        private final Map<String, Object> data;
+
+        SieveAction(String type, Map<String, Object> data) {
+            this.type = type;
+            this.data = Collections.unmodifiableMap(data);
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package com.enterprise.email.sieve;
+
+import com.enterprise.email.entity.SieveRule;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * 过滤规则编译器
+ * 把规则的条件、动作JSON编译为不可变的谓词树与动作，编译错误在此一次性暴露而不是在每封邮件上抛出
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class SieveRuleCompiler {
+
+    private static final TypeReference<List<Map<String, Object>>> LIST_OF_MAPS = new TypeReference<>() {};
+
+    private final ObjectMapper objectMapper;
+    private final SieveScriptEngine scriptEngine;
+
+    /**
+     * 单次正则匹配的时间上限
+     */
+    @Value("${email.sieve.regex-max-millis:50}")
+    private long regexMaxMillis;
+
+    /**
+     * 编译规则（失败时返回带错误信息、永不匹配的规则）
+     * 没有条件与动作JSON、只有Sieve脚本的规则（导入或用户上传）编译为脚本程序
+     */
+    public CompiledSieveRule compile(SieveRule rule) {
+        CompiledSieveRule.Condition condition = CompiledSieveRule.Never.INSTANCE;
+        CompiledSieveRule.Action action = CompiledSieveRule.Action.KEEP;
+        SieveProgram program = null;
+        String error = null;
+
+        try {
+            if (isScriptOnly(rule)) {
+                program = scriptEngine.compile(rule.getSieveScript());
+            } else {
+                condition = compileConditions(parse(rule.getConditions()), "ANY".equals(rule.getConditionType()));
+                action = compileAction(parse(rule.getActions()));
+            }
+        } catch (Exception e) {
+            error = e.getMessage();
+            log.warn("编译Sieve规则失败: ruleId={}, error={}", rule.getId(), error);
+        }
+
+        return new CompiledSieveRule(rule.getId(), rule.getRuleName(), rule.getPriority(),
+                !Boolean.FALSE.equals(rule.getContinueProcessing()),
+                rule.getEffectiveFrom(), rule.getEffectiveUntil(), condition, action, program, error);
+    }
+
+    private boolean isScriptOnly(SieveRule rule) {
+        return isBlank(rule.getConditions()) && isBlank(rule.getActions()) && !isBlank(rule.getSieveScript());
+    }
+
+    private boolean isBlank(String value) {
+        return value == null || value.trim().isEmpty() || "[]".equals(value.trim());
+    }
+
+    private List<Map<String, Object>> parse(String json) throws Exception {
+        if (json == null || json.trim().isEmpty()) {
+            return new ArrayList<>();
+        }
+        return objectMapper.readValue(json, LIST_OF_MAPS);
+    }
+
+    private CompiledSieveRule.Condition compileConditions(List<Map<String, Object>> conditions, boolean any) {
+        if (conditions.isEmpty()) {
+            return CompiledSieveRule.Always.INSTANCE; // 没有条件则总是匹配
+        }
+        CompiledSieveRule.Condition[] compiled = new CompiledSieveRule.Condition[conditions.size()];
+        for (int i = 0; i < compiled.length; i++) {
+            compiled[i] = compileCondition(conditions.get(i));
+        }
+        if (compiled.length == 1) {
+            return compiled[0];
+        }
+        return any ? new CompiledSieveRule.AnyOf(compiled) : new CompiledSieveRule.AllOf(compiled);
+    }
+
+    private CompiledSieveRule.Condition compileCondition(Map<String, Object> condition) {
+        String type = string(condition, "type");
+        String comparator = string(condition, "comparator");
+        String value = string(condition, "value");
+        if (type == null) {
+            throw new IllegalArgumentException("条件缺少type");
+        }
+
+        switch (type) {
+            case "header":
+                String header = required(condition, "header");
+                return new CompiledSieveRule.HeaderTest(header.trim().toLowerCase(Locale.ROOT),
+                        compileMatcher(comparator, value));
+            case "envelope":
+                String field = required(condition, "envelope");
+                return new CompiledSieveRule.HeaderTest(field.trim().toLowerCase(Locale.ROOT),
+                        compileMatcher(comparator, value));
+            case "body":
+                return new CompiledSieveRule.BodyTest(compileMatcher(comparator, value));
+            case "size":
+                return new CompiledSieveRule.SizeTest(sizeComparison(comparator), parseSize(value));
+            default:
+                throw new IllegalArgumentException("不支持的条件类型: " + type);
+        }
+    }
+
+    private CompiledSieveRule.StringMatcher compileMatcher(String comparator, String value) {
+        if (value == null) {
+            throw new IllegalArgumentException("条件缺少value");
+        }
+        String mode = comparator != null ? comparator : "is";
+        try {
+            switch (mode) {
+                case "is":
+                    return new CompiledSieveRule.IsMatcher(value.toLowerCase(Locale.ROOT));
+                case "contains":
+                    return new CompiledSieveRule.ContainsMatcher(value.toLowerCase(Locale.ROOT));
+                case "matches":
+                    return new CompiledSieveRule.PatternMatcher(globToPattern(value), true, regexMaxNanos());
+                case "regex":
+                    return new CompiledSieveRule.PatternMatcher(
+                            Pattern.compile(value, Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE), false,
+                            regexMaxNanos());
+                default:
+                    throw new IllegalArgumentException("不支持的比较方式: " + mode);
+            }
+        } catch (PatternSyntaxException e) {
+            throw new IllegalArgumentException("正则表达式无效: " + e.getDescription());
+        }
+    }
+
+    /**
+     * Sieve :matches 通配模式：* 匹配任意串，? 匹配单个字符，\ 转义
+     */
+    static Pattern globToPattern(String glob) {
+        StringBuilder regex = new StringBuilder(glob.length() + 8);
+        StringBuilder literal = new StringBuilder();
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '\\' && i + 1 < glob.length()) {
+                literal.append(glob.charAt(++i));
+                continue;
+            }
+            if (c == '*' || c == '?') {
+                if (literal.length() > 0) {
+                    regex.append(Pattern.quote(literal.toString()));
+                    literal.setLength(0);
+                }
+                regex.append(c == '*' ? "[\\s\\S]*" : "[\\s\\S]");
+            } else {
+                literal.append(c);
+            }
+        }
+        if (literal.length() > 0) {
+            regex.append(Pattern.quote(literal.toString()));
+        }
+        return Pattern.compile(regex.toString(), Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+    }
+
+    private long regexMaxNanos() {
+        return Math.max(1, regexMaxMillis) * 1_000_000L;
+    }
+
+    private int sizeComparison(String comparator) {
+        if (comparator == null) {
+            throw new IllegalArgumentException("大小条件缺少comparator");
+        }
+        switch (comparator) {
+            case "over":
+                return 1;
+            case "under":
+                return -1;
+            case "equals":
+                return 0;
+            default:
+                throw new IllegalArgumentException("不支持的大小比较方式: " + comparator);
+        }
+    }
+
+    /**
+     * 解析大小（支持K、M、G后缀）
+     */
+    static long parseSize(String value) {
+        if (value == null || value.trim().isEmpty()) {
+            throw new IllegalArgumentException("大小条件缺少value");
+        }
+        String trimmed = value.trim().toUpperCase(Locale.ROOT);
+        long multiplier = 1;
+        char unit = trimmed.charAt(trimmed.length() - 1);
+        if (unit == 'K' || unit == 'M' || unit == 'G') {
+            multiplier = unit == 'K' ? 1024L : unit == 'M' ? 1024L * 1024 : 1024L * 1024 * 1024;
+            trimmed = trimmed.substring(0, trimmed.length() - 1).trim();
+        }
+        try {
+            return Math.multiplyExact(Long.parseLong(trimmed), multiplier);
+        } catch (NumberFormatException | ArithmeticException e) {
+            throw new IllegalArgumentException("大小无效: " + value);
+        }
+    }
+
+    private CompiledSieveRule.Action compileAction(List<Map<String, Object>> actions) {
+        if (actions.isEmpty()) {
+            return CompiledSieveRule.Action.KEEP;
+        }
+        // 只执行第一个动作
+        Map<String, Object> action = actions.get(0);
+        String type = string(action, "type");
+        if (type == null) {
+            return CompiledSieveRule.Action.KEEP;
+        }
+        switch (type) {
+            case "keep":
+            case "discard":
+            case "stop":
+                return new CompiledSieveRule.Action(type, null, null);
+            case "fileinto":
+                return new CompiledSieveRule.Action(type, "folder", string(action, "folder"));
+            case "redirect":
+                return new CompiledSieveRule.Action(type, "address", string(action, "address"));
+            case "reject":
+                return new CompiledSieveRule.Action(type, "message", string(action, "message"));
+            default:
+                return CompiledSieveRule.Action.KEEP;
+        }
+    }
+
+    private String string(Map<String, Object> map, String key) {
+        Object value = map.get(key);
+        return value != null ? value.toString() : null;
+    }
+
+    private String required(Map<String, Object> map, String key) {
+        String value = string(map, key);
+        if (value == null || value.trim().isEmpty()) {
+            throw new IllegalArgumentException("条件缺少" + key);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,631 @@
+package com.enterprise.email.sieve;
+
+import java.util.*;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Sieve脚本编译器：把语法树编译为 {@link SieveProgram}
+ *
+ * 所有语义检查（require声明、参数个数与类型、标签冲突、正则合法性）都在编译期完成，
+ * 运行期只剩下跳转、测试求值与动作收集。
+ */
+public final class SieveScriptCompiler {
+
+    /**
+     * 支持的扩展
+     */
+    public static final Set<String> SUPPORTED_CAPABILITIES = Collections.unmodifiableSet(new LinkedHashSet<>(Arrays.asList(
+            "fileinto", "reject", "envelope", "vacation", "variables", "regex", "body", "copy",
+            "comparator-i;octet", "comparator-i;ascii-casemap")));
+
+    private static final int MAX_INSTRUCTIONS = 8192;
+
+    private static final int FLAG = 0;
+    private static final int STRING = 1;
+    private static final int STRING_LIST = 2;
+    private static final int NUMBER = 3;
+
+    private static final Map<String, Integer> MATCH_TAGS = spec(
+            "is", FLAG, "contains", FLAG, "matches", FLAG, "regex", FLAG, "comparator", STRING);
+    private static final Map<String, Integer> ADDRESS_TAGS = merge(MATCH_TAGS, spec(
+            "all", FLAG, "localpart", FLAG, "domain", FLAG));
+    private static final Map<String, Integer> BODY_TAGS = merge(MATCH_TAGS, spec("raw", FLAG, "text", FLAG));
+    private static final Map<String, Integer> SIZE_TAGS = spec("over", FLAG, "under", FLAG);
+    private static final Map<String, Integer> COPY_TAGS = spec("copy", FLAG);
+    private static final Map<String, Integer> VACATION_TAGS = spec(
+            "days", NUMBER, "subject", STRING, "from", STRING, "addresses", STRING_LIST, "mime", FLAG, "handle", STRING);
+    private static final Map<String, Integer> SET_TAGS = spec(
+            "lower", FLAG, "upper", FLAG, "lowerfirst", FLAG, "upperfirst", FLAG, "quotewildcard", FLAG, "length", FLAG);
+    private static final List<String> SET_MODIFIER_ORDER = Arrays.asList(
+            "lower", "upper", "lowerfirst", "upperfirst", "quotewildcard", "length");
+    private static final Map<String, Integer> NO_TAGS = Collections.emptyMap();
+
+    private final Set<String> capabilities = new LinkedHashSet<>();
+    private int[] code = new int[64];
+    private int count;
+    private final List<SieveProgram.TestNode> tests = new ArrayList<>();
+    private final List<SieveProgram.ActionNode> actions = new ArrayList<>();
+    private final List<SieveProgram.SetNode> sets = new ArrayList<>();
+
+    private SieveScriptCompiler() {
+    }
+
+    /**
+     * 编译脚本
+     *
+     * @throws SieveException 语法或语义错误
+     */
+    public static SieveProgram compile(String script, String hash) {
+        List<SieveParser.Command> commands = new SieveParser(new SieveLexer(script).tokenize()).parse();
+        return new SieveScriptCompiler().compileCommands(commands, hash);
+    }
+
+    private SieveProgram compileCommands(List<SieveParser.Command> commands, String hash) {
+        int index = 0;
+        while (index < commands.size() && "require".equals(commands.get(index).name)) {
+            require(commands.get(index++));
+        }
+        block(commands.subList(index, commands.size()));
+        return new SieveProgram(Arrays.copyOf(code, count * SieveProgram.WIDTH),
+                tests.toArray(new SieveProgram.TestNode[0]),
+                actions.toArray(new SieveProgram.ActionNode[0]),
+                sets.toArray(new SieveProgram.SetNode[0]),
+                new LinkedHashSet<>(capabilities), hash);
+    }
+
+    private void require(SieveParser.Command command) {
+        if (command.arguments.size() != 1 || !command.arguments.get(0).isStrings()
+                || !command.tests.isEmpty() || command.block != null) {
+            throw new SieveException(command.line, "require 需要一个字符串或字符串列表参数");
+        }
+        for (String capability : command.arguments.get(0).strings) {
+            String normalized = capability.toLowerCase(Locale.ROOT);
+            if (!SUPPORTED_CAPABILITIES.contains(normalized)) {
+                throw new SieveException(command.line, "不支持的扩展: " + capability);
+            }
+            capabilities.add(normalized);
+        }
+    }
+
+    // ========== 命令 ==========
+
+    private void block(List<SieveParser.Command> commands) {
+        int i = 0;
+        while (i < commands.size()) {
+            SieveParser.Command command = commands.get(i);
+            switch (command.name) {
+                case "if":
+                    i = ifChain(commands, i);
+                    continue;
+                case "elsif":
+                case "else":
+                    throw new SieveException(command.line, command.name + " 之前缺少 if");
+                case "require":
+                    throw new SieveException(command.line, "require 必须位于脚本开头");
+                case "stop":
+                    noArguments(command);
+                    emit(SieveProgram.OP_STOP, 0, 0);
+                    break;
+                case "set":
+                    set(command);
+                    break;
+                default:
+                    action(command);
+                    break;
+            }
+            i++;
+        }
+    }
+
+    /**
+     * if / elsif / else 链：条件不成立时跳到下一分支，分支结束后跳到链尾
+     */
+    private int ifChain(List<SieveParser.Command> commands, int start) {
+        List<Integer> endJumps = new ArrayList<>();
+        int i = start;
+        while (true) {
+            SieveParser.Command branch = commands.get(i);
+            boolean conditional = !"else".equals(branch.name);
+            if (branch.block == null) {
+                throw new SieveException(branch.line, branch.name + " 之后缺少代码块");
+            }
+            if (conditional) {
+                if (branch.tests.size() != 1 || !branch.arguments.isEmpty()) {
+                    throw new SieveException(branch.line, branch.name + " 需要且只需要一个测试");
+                }
+            } else if (!branch.tests.isEmpty() || !branch.arguments.isEmpty()) {
+                throw new SieveException(branch.line, "else 不接受参数");
+            }
+
+            int testJump = -1;
+            if (conditional) {
+                tests.add(test(branch.tests.get(0)));
+                testJump = emit(SieveProgram.OP_TEST, tests.size() - 1, 0);
+            }
+            block(branch.block);
+            i++;
+
+            boolean hasNext = conditional && i < commands.size()
+                    && ("elsif".equals(commands.get(i).name) || "else".equals(commands.get(i).name));
+            if (hasNext) {
+                endJumps.add(emit(SieveProgram.OP_JUMP, 0, 0));
+            }
+            if (testJump >= 0) {
+                code[testJump * SieveProgram.WIDTH + 2] = count;
+            }
+            if (!hasNext) {
+                break;
+            }
+        }
+        for (int jump : endJumps) {
+            code[jump * SieveProgram.WIDTH + 1] = count;
+        }
+        return i;
+    }
+
+    private void action(SieveParser.Command command) {
+        if (command.block != null || !command.tests.isEmpty()) {
+            throw new SieveException(command.line, command.name + " 不接受测试或代码块");
+        }
+        switch (command.name) {
+            case "keep":
+            case "discard":
+                noArguments(command);
+                addAction(new SieveProgram.ActionNode(command.name, null, false, null));
+                break;
+            case "fileinto":
+            case "redirect": {
+                requireCapability(command.name.equals("fileinto") ? "fileinto" : null, command.line);
+                Args args = args(command.arguments, COPY_TAGS, command.name, command.line);
+                if (args.has("copy")) {
+                    requireCapability("copy", command.line);
+                }
+                String target = singleString(args, command.name, command.line);
+                if ("redirect".equals(command.name) && target.indexOf("${") < 0 && target.indexOf('@') <= 0) {
+                    throw new SieveException(command.line, "redirect 地址无效: " + target);
+                }
+                addAction(new SieveProgram.ActionNode(command.name, value(target), args.has("copy"), null));
+                break;
+            }
+            case "reject":
+                requireCapability("reject", command.line);
+                addAction(new SieveProgram.ActionNode("reject",
+                        value(singleString(args(command.arguments, NO_TAGS, "reject", command.line), "reject", command.line)),
+                        false, null));
+                break;
+            case "vacation":
+                vacation(command);
+                break;
+            default:
+                throw new SieveException(command.line, "不支持的命令: " + command.name);
+        }
+    }
+
+    private void vacation(SieveParser.Command command) {
+        requireCapability("vacation", command.line);
+        Args args = args(command.arguments, VACATION_TAGS, "vacation", command.line);
+        String reason = singleString(args, "vacation", command.line);
+
+        Map<String, Object> options = new LinkedHashMap<>();
+        long days = args.has("days") ? args.tagged.get("days").number : 7;
+        options.put("days", Math.max(1, days));
+        if (args.has("subject")) {
+            options.put("subject", value(args.tagged.get("subject").strings.get(0)));
+        }
+        if (args.has("from")) {
+            options.put("from", value(args.tagged.get("from").strings.get(0)));
+        }
+        if (args.has("addresses")) {
+            options.put("addresses", values(args.tagged.get("addresses").strings));
+        }
+        if (args.has("handle")) {
+            options.put("handle", value(args.tagged.get("handle").strings.get(0)));
+        }
+        options.put("mime", args.has("mime"));
+        addAction(new SieveProgram.ActionNode("vacation", value(reason), false, options));
+    }
+
+    private void set(SieveParser.Command command) {
+        requireCapability("variables", command.line);
+        if (command.block != null || !command.tests.isEmpty()) {
+            throw new SieveException(command.line, "set 不接受测试或代码块");
+        }
+        Args args = args(command.arguments, SET_TAGS, "set", command.line);
+        if (args.positional.size() != 2 || !args.positional.get(0).isStrings() || !args.positional.get(1).isStrings()
+                || args.positional.get(0).list || args.positional.get(1).list) {
+            throw new SieveException(command.line, "set 需要变量名与取值两个字符串");
+        }
+        if ((args.has("lower") && args.has("upper")) || (args.has("lowerfirst") && args.has("upperfirst"))) {
+            throw new SieveException(command.line, "set 的大小写修饰符冲突");
+        }
+        String name = args.positional.get(0).strings.get(0);
+        if (!isVariableName(name)) {
+            throw new SieveException(command.line, "变量名无效: " + name);
+        }
+        List<String> modifiers = new ArrayList<>();
+        for (String modifier : SET_MODIFIER_ORDER) {
+            if (args.has(modifier)) {
+                modifiers.add(modifier);
+            }
+        }
+        sets.add(new SieveProgram.SetNode(name.toLowerCase(Locale.ROOT), modifiers,
+                value(args.positional.get(1).strings.get(0))));
+        emit(SieveProgram.OP_SET, sets.size() - 1, 0);
+    }
+
+    private void addAction(SieveProgram.ActionNode action) {
+        actions.add(action);
+        emit(SieveProgram.OP_ACTION, actions.size() - 1, 0);
+    }
+
+    // ========== 测试 ==========
+
+    private SieveProgram.TestNode test(SieveParser.Test test) {
+        switch (test.name) {
+            case "true":
+            case "false":
+                noTestArguments(test);
+                return "true".equals(test.name) ? SieveProgram.ConstTest.TRUE : SieveProgram.ConstTest.FALSE;
+            case "not":
+                if (!test.arguments.isEmpty() || test.tests.size() != 1) {
+                    throw new SieveException(test.line, "not 需要且只需要一个测试");
+                }
+                return new SieveProgram.NotTest(test(test.tests.get(0)));
+            case "allof":
+            case "anyof": {
+                if (!test.arguments.isEmpty() || test.tests.isEmpty()) {
+                    throw new SieveException(test.line, test.name + " 需要测试列表");
+                }
+                SieveProgram.TestNode[] children = new SieveProgram.TestNode[test.tests.size()];
+                for (int i = 0; i < children.length; i++) {
+                    children[i] = test(test.tests.get(i));
+                }
+                return "allof".equals(test.name) ? new SieveProgram.AllOfTest(children) : new SieveProgram.AnyOfTest(children);
+            }
+            case "header": {
+                Args args = testArgs(test, MATCH_TAGS, 2);
+                return new SieveProgram.HeaderTest(values(args.positional.get(0).strings),
+                        matchSpec(args, args.positional.get(1).strings, test.line));
+            }
+            case "address": {
+                Args args = testArgs(test, ADDRESS_TAGS, 2);
+                return new SieveProgram.AddressTest(values(args.positional.get(0).strings), addressPart(args, test.line),
+                        matchSpec(args, args.positional.get(1).strings, test.line));
+            }
+            case "envelope": {
+                requireCapability("envelope", test.line);
+                Args args = testArgs(test, ADDRESS_TAGS, 2);
+                return new SieveProgram.EnvelopeTest(values(args.positional.get(0).strings), addressPart(args, test.line),
+                        matchSpec(args, args.positional.get(1).strings, test.line));
+            }
+            case "exists": {
+                Args args = testArgs(test, NO_TAGS, 1);
+                return new SieveProgram.ExistsTest(values(args.positional.get(0).strings));
+            }
+            case "size": {
+                if (!test.tests.isEmpty()) {
+                    throw new SieveException(test.line, "size 不接受子测试");
+                }
+                Args args = args(test.arguments, SIZE_TAGS, "size", test.line);
+                if (args.has("over") == args.has("under") || args.positional.size() != 1 || !args.positional.get(0).isNumber()) {
+                    throw new SieveException(test.line, "size 需要 :over 或 :under 之一以及一个数字");
+                }
+                return new SieveProgram.SizeTest(args.has("over"), args.positional.get(0).number);
+            }
+            case "body": {
+                requireCapability("body", test.line);
+                Args args = testArgs(test, BODY_TAGS, 1);
+                return new SieveProgram.BodyTest(matchSpec(args, args.positional.get(0).strings, test.line));
+            }
+            case "string": {
+                requireCapability("variables", test.line);
+                Args args = testArgs(test, MATCH_TAGS, 2);
+                return new SieveProgram.StringTest(values(args.positional.get(0).strings),
+                        matchSpec(args, args.positional.get(1).strings, test.line));
+            }
+            default:
+                throw new SieveException(test.line, "不支持的测试: " + test.name);
+        }
+    }
+
+    private Args testArgs(SieveParser.Test test, Map<String, Integer> tagSpec, int stringLists) {
+        if (!test.tests.isEmpty()) {
+            throw new SieveException(test.line, test.name + " 不接受子测试");
+        }
+        Args args = args(test.arguments, tagSpec, test.name, test.line);
+        if (args.positional.size() != stringLists) {
+            throw new SieveException(test.line, test.name + " 需要 " + stringLists + " 个字符串列表参数");
+        }
+        for (SieveParser.Argument argument : args.positional) {
+            if (!argument.isStrings()) {
+                throw new SieveException(test.line, test.name + " 的参数必须是字符串或字符串列表");
+            }
+        }
+        return args;
+    }
+
+    private SieveProgram.AddressPart addressPart(Args args, int line) {
+        int parts = (args.has("all") ? 1 : 0) + (args.has("localpart") ? 1 : 0) + (args.has("domain") ? 1 : 0);
+        if (parts > 1) {
+            throw new SieveException(line, "地址部分标签只能指定一个");
+        }
+        return args.has("localpart") ? SieveProgram.AddressPart.LOCALPART
+                : args.has("domain") ? SieveProgram.AddressPart.DOMAIN : SieveProgram.AddressPart.ALL;
+    }
+
+    private SieveProgram.MatchSpec matchSpec(Args args, List<String> keys, int line) {
+        int types = 0;
+        SieveProgram.MatchType type = SieveProgram.MatchType.IS;
+        if (args.has("contains")) {
+            type = SieveProgram.MatchType.CONTAINS;
+            types++;
+        }
+        if (args.has("matches")) {
+            type = SieveProgram.MatchType.MATCHES;
+            types++;
+        }
+        if (args.has("regex")) {
+            requireCapability("regex", line);
+            type = SieveProgram.MatchType.REGEX;
+            types++;
+        }
+        if (args.has("is")) {
+            types++;
+        }
+        if (types > 1) {
+            throw new SieveException(line, "匹配方式只能指定一个");
+        }
+
+        boolean caseInsensitive = true;
+        if (args.has("comparator")) {
+            String comparator = args.tagged.get("comparator").strings.get(0).toLowerCase(Locale.ROOT);
+            if ("i;octet".equals(comparator)) {
+                caseInsensitive = false;
+            } else if (!"i;ascii-casemap".equals(comparator)) {
+                throw new SieveException(line, "不支持的比较器: " + comparator);
+            }
+        }
+
+        SieveProgram.Key[] compiled = new SieveProgram.Key[keys.size()];
+        for (int i = 0; i < compiled.length; i++) {
+            String raw = keys.get(i);
+            SieveProgram.StringValue value = value(raw);
+            String literal = null;
+            Pattern pattern = null;
+            if (value.isConstant()) {
+                try {
+                    switch (type) {
+                        case IS:
+                            literal = raw;
+                            break;
+                        case CONTAINS:
+                            literal = caseInsensitive ? raw.toLowerCase(Locale.ROOT) : raw;
+                            break;
+                        case MATCHES:
+                            pattern = globToPattern(raw, caseInsensitive);
+                            break;
+                        default:
+                            pattern = regexPattern(raw, caseInsensitive);
+                            break;
+                    }
+                } catch (PatternSyntaxException e) {
+                    throw new SieveException(line, "正则表达式无效: " + e.getDescription());
+                }
+            }
+            compiled[i] = new SieveProgram.Key(value, literal, pattern);
+        }
+        return new SieveProgram.MatchSpec(type, caseInsensitive, compiled);
+    }
+
+    /**
+     * :matches 通配模式：* 与 ? 各自成为捕获组（供 ${1}..${9} 引用），* 尽量少匹配，\ 转义
+     */
+    static Pattern globToPattern(String glob, boolean caseInsensitive) {
+        StringBuilder regex = new StringBuilder(glob.length() + 16);
+        StringBuilder literal = new StringBuilder();
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '\\' && i + 1 < glob.length()) {
+                literal.append(glob.charAt(++i));
+                continue;
+            }
+            if (c == '*' || c == '?') {
+                if (literal.length() > 0) {
+                    regex.append(Pattern.quote(literal.toString()));
+                    literal.setLength(0);
+                }
+                regex.append(c == '*' ? "([\\s\\S]*?)" : "([\\s\\S])");
+            } else {
+                literal.append(c);
+            }
+        }
+        if (literal.length() > 0) {
+            regex.append(Pattern.quote(literal.toString()));
+        }
+        return Pattern.compile(regex.toString(), caseInsensitive ? Pattern.CASE_INSENSITIVE : 0);
+    }
+
+    static Pattern regexPattern(String regex, boolean caseInsensitive) {
+        return Pattern.compile(regex, caseInsensitive ? Pattern.CASE_INSENSITIVE : 0);
+    }
+
+    // ========== 参数 ==========
+
+    /**
+     * 拆分后的参数：标签（及其取值）与位置参数
+     */
+    private static final class Args {
+        final Map<String, SieveParser.Argument> tagged = new HashMap<>();
+        final List<SieveParser.Argument> positional = new ArrayList<>();
+
+        boolean has(String tag) {
+            return tagged.containsKey(tag);
+        }
+    }
+
+    private Args args(List<SieveParser.Argument> arguments, Map<String, Integer> tagSpec, String owner, int line) {
+        Args args = new Args();
+        for (int i = 0; i < arguments.size(); i++) {
+            SieveParser.Argument argument = arguments.get(i);
+            if (!argument.isTag()) {
+                args.positional.add(argument);
+                continue;
+            }
+            if (!args.positional.isEmpty()) {
+                throw new SieveException(argument.line, "标签 :" + argument.tag + " 必须位于位置参数之前");
+            }
+            Integer kind = tagSpec.get(argument.tag);
+            if (kind == null) {
+                throw new SieveException(argument.line, owner + " 不支持标签 :" + argument.tag);
+            }
+            if (args.tagged.containsKey(argument.tag)) {
+                throw new SieveException(argument.line, "标签 :" + argument.tag + " 重复");
+            }
+            SieveParser.Argument tagValue = argument;
+            if (kind != FLAG) {
+                if (i + 1 >= arguments.size()) {
+                    throw new SieveException(argument.line, "标签 :" + argument.tag + " 缺少取值");
+                }
+                tagValue = arguments.get(++i);
+                boolean valid = kind == NUMBER ? tagValue.isNumber()
+                        : tagValue.isStrings() && (kind == STRING_LIST || !tagValue.list);
+                if (!valid) {
+                    throw new SieveException(argument.line, "标签 :" + argument.tag + " 的取值类型错误");
+                }
+            }
+            args.tagged.put(argument.tag, tagValue);
+        }
+        return args;
+    }
+
+    private String singleString(Args args, String owner, int line) {
+        if (args.positional.size() != 1 || !args.positional.get(0).isStrings() || args.positional.get(0).list) {
+            throw new SieveException(line, owner + " 需要一个字符串参数");
+        }
+        return args.positional.get(0).strings.get(0);
+    }
+
+    private void noArguments(SieveParser.Command command) {
+        if (!command.arguments.isEmpty() || !command.tests.isEmpty() || command.block != null) {
+            throw new SieveException(command.line, command.name + " 不接受参数");
+        }
+    }
+
+    private void noTestArguments(SieveParser.Test test) {
+        if (!test.arguments.isEmpty() || !test.tests.isEmpty()) {
+            throw new SieveException(test.line, test.name + " 不接受参数");
+        }
+    }
+
+    private void requireCapability(String capability, int line) {
+        if (capability != null && !capabilities.contains(capability)) {
+            throw new SieveException(line, "使用前需要 require \"" + capability + "\"");
+        }
+    }
+
+    // ========== 字符串与变量 ==========
+
+    private SieveProgram.StringValue[] values(List<String> raws) {
+        SieveProgram.StringValue[] values = new SieveProgram.StringValue[raws.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = value(raws.get(i));
+        }
+        return values;
+    }
+
+    /**
+     * 声明了 variables 时解析 ${name} 与 ${N} 引用，无法识别的 ${...} 保持原文
+     */
+    private SieveProgram.StringValue value(String raw) {
+        if (!capabilities.contains("variables") || raw.indexOf("${") < 0) {
+            return SieveProgram.StringValue.of(raw);
+        }
+        List<Object> parts = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        int pos = 0;
+        while (pos < raw.length()) {
+            int start = raw.indexOf("${", pos);
+            int end = start < 0 ? -1 : raw.indexOf('}', start + 2);
+            if (start < 0 || end < 0) {
+                literal.append(raw, pos, raw.length());
+                break;
+            }
+            literal.append(raw, pos, start);
+            String name = raw.substring(start + 2, end);
+            Object reference = null;
+            if (!name.isEmpty() && name.length() <= 3 && name.chars().allMatch(Character::isDigit)) {
+                int index = Integer.parseInt(name);
+                reference = index <= 9 ? index : null;
+            } else if (isVariableName(name)) {
+                reference = new SieveProgram.VariableRef(name.toLowerCase(Locale.ROOT));
+            }
+            if (reference == null) {
+                literal.append("${");
+                pos = start + 2;
+                continue;
+            }
+            if (literal.length() > 0) {
+                parts.add(literal.toString());
+                literal.setLength(0);
+            }
+            parts.add(reference);
+            pos = end + 1;
+        }
+        if (literal.length() > 0) {
+            parts.add(literal.toString());
+        }
+        if (parts.size() == 1 && parts.get(0) instanceof String) {
+            return SieveProgram.StringValue.of((String) parts.get(0));
+        }
+        return SieveProgram.StringValue.template(parts.toArray());
+    }
+
+    private static boolean isVariableName(String name) {
+        if (name.isEmpty()) {
+            return false;
+        }
+        for (String segment : name.split("\\.", -1)) {
+            if (segment.isEmpty() || !(Character.isLetter(segment.charAt(0)) || segment.charAt(0) == '_')) {
+                return false;
+            }
+            for (int i = 1; i < segment.length(); i++) {
+                char c = segment.charAt(i);
+                if (!(c < 128 && (Character.isLetterOrDigit(c) || c == '_'))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    // ========== 指令 ==========
+
+    private int emit(int op, int a, int b) {
+        if (count >= MAX_INSTRUCTIONS) {
+            throw new SieveException(0, "脚本过大");
+        }
+        int base = count * SieveProgram.WIDTH;
+        if (base + SieveProgram.WIDTH > code.length) {
+            code = Arrays.copyOf(code, code.length * 2);
+        }
+        code[base] = op;
+        code[base + 1] = a;
+        code[base + 2] = b;
+        return count++;
+    }
+
+    private static Map<String, Integer> spec(Object... pairs) {
+        Map<String, Integer> map = new HashMap<>();
+        for (int i = 0; i < pairs.length; i += 2) {
+            map.put((String) pairs[i], (Integer) pairs[i + 1]);
+        }
+        return Collections.unmodifiableMap(map);
+    }
+
+    private static Map<String, Integer> merge(Map<String, Integer> first, Map<String, Integer> second) {
+        Map<String, Integer> map = new HashMap<>(first);
+        map.putAll(second);
+        return Collections.unmodifiableMap(map);
+    }
+}
@@ -0,0 +1,214 @@
+package com.enterprise.email.sieve;
+
+import lombok.Getter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Sieve脚本引擎
+ * 编译结果按脚本SHA-256缓存（LRU，有界），执行时使用配置的步数与时间预算
+ */
+@Component
+public class SieveScriptEngine {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final Pattern RULE_COMMENT = Pattern.compile("^Rule:\\s*(.+)$", Pattern.CASE_INSENSITIVE);
+    private static final Pattern PRIORITY_COMMENT = Pattern.compile("^Priority:\\s*(-?\\d+)$", Pattern.CASE_INSENSITIVE);
+
+    @Value("${email.sieve.max-steps:10000}")
+    private int maxSteps;
+
+    @Value("${email.sieve.max-millis:50}")
+    private long maxMillis;
+
+    private final Map<String, SieveProgram> programs;
+
+    public SieveScriptEngine(@Value("${email.sieve.script-cache-size:1000}") int cacheSize) {
+        this.programs = Collections.synchronizedMap(new LinkedHashMap<String, SieveProgram>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, SieveProgram> eldest) {
+                return size() > cacheSize;
+            }
+        });
+    }
+
+    /**
+     * 编译脚本（相同内容只编译一次）
+     *
+     * @throws SieveException 语法或语义错误
+     */
+    public SieveProgram compile(String script) {
+        String hash = sha256(script);
+        SieveProgram program = programs.get(hash);
+        if (program == null) {
+            program = SieveScriptCompiler.compile(script, hash);
+            programs.put(hash, program);
+        }
+        return program;
+    }
+
+    /**
+     * 校验脚本，返回错误信息（为空表示合法）
+     */
+    public String validate(String script) {
+        try {
+            compile(script);
+            return null;
+        } catch (SieveException e) {
+            return e.getMessage();
+        }
+    }
+
+    /**
+     * 对邮件执行程序。信封取自Return-Path与Delivered-To头部，缺失时使用From与To
+     */
+    public SieveResult execute(SieveProgram program, SieveMessage message) {
+        String envelopeFrom = message.firstHeader("return-path");
+        String envelopeTo = message.firstHeader("delivered-to");
+        return SieveInterpreter.execute(program, message,
+                envelopeFrom != null ? envelopeFrom : message.firstHeader("from"),
+                envelopeTo != null ? envelopeTo : message.firstHeader("to"),
+                maxSteps, maxMillis);
+    }
+
+    /**
+     * 拆分脚本用于导入：require声明、顶层规则片段（if链作为一个整体）与注释
+     * 规则名称取片段前的 "# Rule:" 注释，没有时取片段前第一条普通注释
+     *
+     * @throws SieveException 语法或语义错误
+     */
+    public ScriptOutline outline(String script) {
+        compile(script);
+        SieveLexer lexer = new SieveLexer(script);
+        List<SieveParser.Command> commands = new SieveParser(lexer.tokenize()).parse();
+        List<SieveLexer.Comment> comments = lexer.getComments();
+
+        List<String> requirements = new ArrayList<>();
+        int index = 0;
+        int previousEnd = 0;
+        while (index < commands.size() && "require".equals(commands.get(index).name)) {
+            for (String capability : commands.get(index).arguments.get(0).strings) {
+                String normalized = capability.toLowerCase(Locale.ROOT);
+                if (!requirements.contains(normalized)) {
+                    requirements.add(normalized);
+                }
+            }
+            previousEnd = commands.get(index).endOffset;
+            index++;
+        }
+        String header = requirements.isEmpty() ? "" : "require " + requireList(requirements) + ";\n\n";
+
+        List<Map<String, Object>> rules = new ArrayList<>();
+        while (index < commands.size()) {
+            SieveParser.Command first = commands.get(index);
+            int end = first.endOffset;
+            index++;
+            if ("if".equals(first.name)) {
+                while (index < commands.size()
+                        && ("elsif".equals(commands.get(index).name) || "else".equals(commands.get(index).name))) {
+                    end = commands.get(index++).endOffset;
+                }
+            }
+
+            String name = null;
+            String fallbackName = null;
+            Integer priority = null;
+            for (SieveLexer.Comment comment : comments) {
+                if (comment.offset < previousEnd || comment.offset >= first.startOffset) {
+                    continue;
+                }
+                Matcher ruleMatcher = RULE_COMMENT.matcher(comment.text);
+                Matcher priorityMatcher = PRIORITY_COMMENT.matcher(comment.text);
+                if (ruleMatcher.matches()) {
+                    name = ruleMatcher.group(1).trim();
+                } else if (priorityMatcher.matches()) {
+                    priority = Integer.valueOf(priorityMatcher.group(1));
+                } else if (fallbackName == null && !comment.text.isEmpty()) {
+                    fallbackName = comment.text;
+                }
+            }
+
+            Map<String, Object> rule = new HashMap<>();
+            rule.put("name", name != null ? name : fallbackName != null ? fallbackName : "导入规则" + (rules.size() + 1));
+            rule.put("priority", priority);
+            rule.put("line", first.line);
+            String body = script.substring(first.startOffset, end);
+            rule.put("body", body);
+            rule.put("script", header + body + "\n");
+            rules.add(rule);
+            previousEnd = end;
+        }
+
+        List<String> commentTexts = new ArrayList<>();
+        for (SieveLexer.Comment comment : comments) {
+            commentTexts.add(comment.text);
+        }
+        return new ScriptOutline(requirements, rules, commentTexts);
+    }
+
+    /**
+     * 生成 require 的字符串列表字面量
+     */
+    public static String requireList(Collection<String> capabilities) {
+        StringBuilder sb = new StringBuilder("[");
+        for (String capability : capabilities) {
+            if (sb.length() > 1) {
+                sb.append(", ");
+            }
+            sb.append(quote(capability));
+        }
+        return sb.append(']').toString();
+    }
+
+    /**
+     * 生成带转义的引号字符串
+     */
+    public static String quote(String value) {
+        StringBuilder sb = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\');
+            }
+            sb.append(c);
+        }
+        return sb.append('"').toString();
+    }
+
+    private static String sha256(String script) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(script.getBytes(StandardCharsets.UTF_8));
+            char[] chars = new char[digest.length * 2];
+            for (int i = 0; i < digest.length; i++) {
+                chars[i * 2] = HEX[(digest[i] >> 4) & 0x0f];
+                chars[i * 2 + 1] = HEX[digest[i] & 0x0f];
+            }
+            return new String(chars);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256算法不可用", e);
+        }
+    }
+
+    /**
+     * 脚本拆分结果
+     */
+    @Getter
+    public static final class ScriptOutline {
+        private final List<String> requirements;
+        private final List<Map<String, Object>> rules;
+        private final List<String> comments;
+
+        ScriptOutline(List<String> requirements, List<Map<String, Object>> rules, List<String> comments) {
+            this.requirements = requirements;
+            this.rules = rules;
+            this.comments = comments;
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package com.enterprise.email.utils;
+
+import java.util.*;
+
+/**
+ * Aho-Corasick多模式匹配自动机（构建后不可变，线程安全）
+ *
+ * 把同一字段上的大量"包含"模式合并为一个自动机，对文本扫描一次即可得到所有出现过的模式。
+ * 转移表以 (节点, 字符) 为键存放在开放寻址的long数组中，扫描过程不分配对象；
+ * 每个节点保存沿失败链最近的输出节点，命中时只遍历真正有输出的节点。
+ */
+public final class AhoCorasickMatcher {
+
+    private final String[] patterns;
+    private final Map<String, Integer> ids;
+
+    // 转移表：键为 node << 16 | char，空槽为 -1
+    private final long[] keys;
+    private final int[] targets;
+    private final int mask;
+
+    private final int[] fail;
+    private final int[] output;     // 节点自身对应的模式，-1表示没有
+    private final int[] dictLink;   // 沿失败链最近的有输出节点，-1表示没有
+    private final int emptyPattern; // 空模式总是命中，-1表示没有
+
+    private AhoCorasickMatcher(String[] patterns, Map<String, Integer> ids, long[] keys, int[] targets,
+                               int[] fail, int[] output, int[] dictLink, int emptyPattern) {
+        this.patterns = patterns;
+        this.ids = ids;
+        this.keys = keys;
+        this.targets = targets;
+        this.mask = keys.length - 1;
+        this.fail = fail;
+        this.output = output;
+        this.dictLink = dictLink;
+        this.emptyPattern = emptyPattern;
+    }
+
+    /**
+     * 构建自动机（重复模式只保留一个）
+     */
+    public static AhoCorasickMatcher build(Collection<String> patternList) {
+        LinkedHashSet<String> unique = new LinkedHashSet<>(patternList);
+        String[] patterns = unique.toArray(new String[0]);
+        Map<String, Integer> ids = new HashMap<>(patterns.length * 2);
+
+        // 先构建普通的字典树
+        List<Map<Character, Integer>> children = new ArrayList<>();
+        List<Integer> outputs = new ArrayList<>();
+        children.add(new HashMap<>());
+        outputs.add(-1);
+        int emptyPattern = -1;
+        int edges = 0;
+        for (int id = 0; id < patterns.length; id++) {
+            String pattern = patterns[id];
+            ids.put(pattern, id);
+            if (pattern.isEmpty()) {
+                emptyPattern = id;
+                continue;
+            }
+            int node = 0;
+            for (int i = 0; i < pattern.length(); i++) {
+                Integer next = children.get(node).get(pattern.charAt(i));
+                if (next == null) {
+                    next = children.size();
+                    children.get(node).put(pattern.charAt(i), next);
+                    children.add(new HashMap<>());
+                    outputs.add(-1);
+                    edges++;
+                }
+                node = next;
+            }
+            outputs.set(node, id);
+        }
+
+        int nodes = children.size();
+        int capacity = Integer.highestOneBit(Math.max(4, edges * 2 - 1)) << 1;
+        long[] keys = new long[capacity];
+        int[] targets = new int[capacity];
+        Arrays.fill(keys, -1L);
+        for (int node = 0; node < nodes; node++) {
+            for (Map.Entry<Character, Integer> edge : children.get(node).entrySet()) {
+                long key = ((long) node << 16) | edge.getKey();
+                int slot = slot(key, capacity - 1);
+                while (keys[slot] != -1L) {
+                    slot = (slot + 1) & (capacity - 1);
+                }
+                keys[slot] = key;
+                targets[slot] = edge.getValue();
+            }
+        }
+
+        // 广度优先计算失败链与输出链
+        int[] fail = new int[nodes];
+        int[] output = new int[nodes];
+        int[] dictLink = new int[nodes];
+        Arrays.fill(dictLink, -1);
+        for (int node = 0; node < nodes; node++) {
+            output[node] = outputs.get(node);
+        }
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int child : children.get(0).values()) {
+            fail[child] = 0;
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            int node = queue.poll();
+            for (Map.Entry<Character, Integer> edge : children.get(node).entrySet()) {
+                char c = edge.getKey();
+                int child = edge.getValue();
+                int f = fail[node];
+                while (f != 0 && !children.get(f).containsKey(c)) {
+                    f = fail[f];
+                }
+                Integer target = children.get(f).get(c);
+                fail[child] = target != null && target != child ? target : 0;
+                dictLink[child] = output[fail[child]] >= 0 ? fail[child] : dictLink[fail[child]];
+                queue.add(child);
+            }
+        }
+
+        return new AhoCorasickMatcher(patterns, Collections.unmodifiableMap(ids), keys, targets,
+                fail, output, dictLink, emptyPattern);
+    }
+
+    /**
+     * 模式数量
+     */
+    public int size() {
+        return patterns.length;
+    }
+
+    /**
+     * 模式编号（不存在时返回-1）
+     */
+    public int indexOf(String pattern) {
+        Integer id = ids.get(pattern);
+        return id != null ? id : -1;
+    }
+
+    /**
+     * 模式集合（用于判断重建时能否复用）
+     */
+    public Set<String> patterns() {
+        return ids.keySet();
+    }
+
+    /**
+     * 扫描文本，把出现的模式编号写入hits；所有模式都命中后提前结束
+     *
+     * @return hits
+     */
+    public BitSet scan(CharSequence text, BitSet hits) {
+        if (emptyPattern >= 0) {
+            hits.set(emptyPattern);
+        }
+        int remaining = patterns.length - hits.cardinality();
+        int node = 0;
+        for (int i = 0, n = text.length(); i < n && remaining > 0; i++) {
+            char c = text.charAt(i);
+            int next = transition(node, c);
+            while (next < 0 && node != 0) {
+                node = fail[node];
+                next = transition(node, c);
+            }
+            node = next < 0 ? 0 : next;
+
+            for (int match = output[node] >= 0 ? node : dictLink[node]; match >= 0; match = dictLink[match]) {
+                if (!hits.get(output[match])) {
+                    hits.set(output[match]);
+                    remaining--;
+                }
+            }
+        }
+        return hits;
+    }
+
+    /**
+     * 文本中是否出现任一模式（第一次命中即返回）
+     */
+    public boolean matchesAny(CharSequence text) {
+        if (emptyPattern >= 0) {
+            return true;
+        }
+        if (patterns.length == 0) {
+            return false;
+        }
+        int node = 0;
+        for (int i = 0, n = text.length(); i < n; i++) {
+            char c = text.charAt(i);
+            int next = transition(node, c);
+            while (next < 0 && node != 0) {
+                node = fail[node];
+                next = transition(node, c);
+            }
+            node = next < 0 ? 0 : next;
+            if (output[node] >= 0 || dictLink[node] >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int transition(int node, char c) {
+        long key = ((long) node << 16) | c;
+        int slot = slot(key, mask);
+        while (true) {
+            long stored = keys[slot];
+            if (stored == key) {
+                return targets[slot];
+            }
+            if (stored == -1L) {
+                return -1;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private static int slot(long key, int mask) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+}
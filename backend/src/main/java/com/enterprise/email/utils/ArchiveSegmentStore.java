@@ -0,0 +1,260 @@
+package com.enterprise.email.utils;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 归档段文件读写工具
+ *
+ * 段文件格式：文件头（魔数 + 版本），其后为只追加的块。
+ * 每个块：[原始长度 int][CRC32 int][压缩长度 int][Deflate压缩数据]，
+ * 解压后为若干条记录：[记录长度 int][记录数据]。
+ * 读取时整段内存映射（写入中的段映射到已提交的长度，长度增长后重新映射）。
+ * 段目录中的标识文件（store.id）用于确认各节点访问的是同一份共享存储。
+ */
+@Component
+public class ArchiveSegmentStore {
+
+    private static final int MAGIC = 0x454D4152; // "EMAR"
+    private static final int VERSION = 1;
+    private static final int FILE_HEADER_SIZE = 8;
+    private static final int BLOCK_HEADER_SIZE = 12;
+    private static final String STORE_ID_FILE = "store.id";
+
+    private final Map<String, MappedByteBuffer> mappings = new ConcurrentHashMap<>();
+
+    private volatile String storeId;
+
+    @Value("${email.archive.path:/data/email/archive}")
+    private String archiveBasePath;
+
+    @Value("${email.archive.compression-level:6}")
+    private int compressionLevel;
+
+    /**
+     * 段文件路径
+     */
+    public Path resolve(String fileName) {
+        return Paths.get(archiveBasePath).resolve(fileName);
+    }
+
+    /**
+     * 读取段目录的存储标识，目录中没有标识文件时返回null
+     */
+    public String readStoreId() throws IOException {
+        if (storeId != null) {
+            return storeId;
+        }
+        Path path = resolve(STORE_ID_FILE);
+        if (!Files.exists(path)) {
+            return null;
+        }
+        storeId = Files.readString(path, StandardCharsets.UTF_8).trim();
+        return storeId;
+    }
+
+    /**
+     * 段目录的存储标识，没有时生成（多个节点同时生成时以先写入的为准）
+     */
+    public String getOrCreateStoreId() throws IOException {
+        String existing = readStoreId();
+        if (existing != null) {
+            return existing;
+        }
+        Path path = resolve(STORE_ID_FILE);
+        Files.createDirectories(path.getParent());
+        try {
+            Files.writeString(path, UUID.randomUUID().toString(), StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE, StandardOpenOption.SYNC);
+        } catch (FileAlreadyExistsException e) {
+            // 其他节点已生成
+        }
+        return readStoreId();
+    }
+
+    /**
+     * 追加写入若干块并刷盘，返回每个块的 [偏移, 长度]
+     */
+    public List<long[]> appendBlocks(String fileName, List<List<byte[]>> blocks) throws IOException {
+        Path path = resolve(fileName);
+        Files.createDirectories(path.getParent());
+
+        List<long[]> locations = new ArrayList<>(blocks.size());
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.READ)) {
+            long position = channel.size();
+            if (position == 0) {
+                ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE).putInt(MAGIC).putInt(VERSION);
+                header.flip();
+                position += writeFully(channel, header, position);
+            }
+
+            for (List<byte[]> records : blocks) {
+                ByteBuffer block = encodeBlock(records);
+                int length = block.remaining();
+                writeFully(channel, block, position);
+                locations.add(new long[]{position, length});
+                position += length;
+            }
+            channel.force(true);
+        }
+        return locations;
+    }
+
+    /**
+     * 读取块内的全部记录
+     */
+    public List<byte[]> readBlock(String fileName, long offset, int length) throws IOException {
+        ByteBuffer view = map(fileName, offset + length).duplicate();
+        view.position((int) offset);
+        view.limit((int) (offset + length));
+
+        int rawLength = view.getInt();
+        int crc = view.getInt();
+        int compressedLength = view.getInt();
+        byte[] compressed = new byte[compressedLength];
+        view.get(compressed);
+
+        CRC32 checksum = new CRC32();
+        checksum.update(compressed);
+        if ((int) checksum.getValue() != crc) {
+            throw new IOException("归档块校验失败: file=" + fileName + ", offset=" + offset);
+        }
+
+        byte[] raw = inflate(compressed, rawLength);
+        ByteBuffer buffer = ByteBuffer.wrap(raw);
+        List<byte[]> records = new ArrayList<>();
+        while (buffer.remaining() >= 4) {
+            byte[] record = new byte[buffer.getInt()];
+            buffer.get(record);
+            records.add(record);
+        }
+        return records;
+    }
+
+    /**
+     * 当前文件大小
+     */
+    public long size(String fileName) throws IOException {
+        Path path = resolve(fileName);
+        return Files.exists(path) ? Files.size(path) : 0L;
+    }
+
+    /**
+     * 删除段文件
+     */
+    public void delete(String fileName) throws IOException {
+        mappings.remove(fileName);
+        Files.deleteIfExists(resolve(fileName));
+    }
+
+    private MappedByteBuffer map(String fileName, long requiredLength) throws IOException {
+        MappedByteBuffer mapped = mappings.get(fileName);
+        if (mapped != null && mapped.capacity() >= requiredLength) {
+            return mapped;
+        }
+        if (requiredLength > Integer.MAX_VALUE) {
+            throw new IOException("归档段文件过大: " + fileName);
+        }
+        try (FileChannel channel = FileChannel.open(resolve(fileName), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < requiredLength) {
+                throw new IOException("归档段文件长度不足: " + fileName);
+            }
+            MappedByteBuffer remapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            mappings.put(fileName, remapped);
+            return remapped;
+        }
+    }
+
+    private ByteBuffer encodeBlock(List<byte[]> records) throws IOException {
+        ByteArrayOutputStream rawStream = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(rawStream);
+        for (byte[] record : records) {
+            output.writeInt(record.length);
+            output.write(record);
+        }
+        output.flush();
+        byte[] raw = rawStream.toByteArray();
+        byte[] compressed = deflate(raw);
+
+        CRC32 checksum = new CRC32();
+        checksum.update(compressed);
+
+        ByteBuffer block = ByteBuffer.allocate(BLOCK_HEADER_SIZE + compressed.length);
+        block.putInt(raw.length).putInt((int) checksum.getValue()).putInt(compressed.length).put(compressed);
+        block.flip();
+        return block;
+    }
+
+    private byte[] deflate(byte[] raw) {
+        Deflater deflater = new Deflater(compressionLevel);
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            ByteArrayOutputStream output = new ByteArrayOutputStream(Math.max(64, raw.length / 2));
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                output.write(buffer, 0, n);
+            }
+            return output.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private byte[] inflate(byte[] compressed, int rawLength) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            byte[] raw = new byte[rawLength];
+            int offset = 0;
+            while (offset < rawLength && !inflater.finished()) {
+                int n = inflater.inflate(raw, offset, rawLength - offset);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                offset += n;
+            }
+            if (offset != rawLength) {
+                throw new IOException("归档块解压长度不符");
+            }
+            return raw;
+        } catch (DataFormatException e) {
+            throw new IOException("归档块解压失败", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private int writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        int written = 0;
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer, position + written);
+        }
+        return written;
+    }
+}
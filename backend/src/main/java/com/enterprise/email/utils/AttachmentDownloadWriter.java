@@ -0,0 +1,236 @@
+package com.enterprise.email.utils;
+
+import com.enterprise.email.dto.AttachmentContent;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * 附件下载输出工具
+ *
+ * 支持单区间Range/If-Range断点续传、基于内容哈希的ETag与304协商。
+ * 未压缩文件优先交给Tomcat sendfile，否则使用FileChannel.transferTo；
+ * 压缩存储的文件边解压边输出。无论文件大小，堆内存占用恒定。
+ */
+@Component
+public class AttachmentDownloadWriter {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final long[] INVALID_RANGE = new long[0];
+
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    @Value("${email.attachment.download.sendfile:true}")
+    private boolean sendfileEnabled;
+
+    /**
+     * 输出附件内容
+     */
+    public void write(HttpServletRequest request, HttpServletResponse response,
+                      AttachmentContent content) throws IOException {
+        String etag = "\"" + content.getContentHash() + "\"";
+        long length = content.getSize();
+
+        response.setHeader(HttpHeaders.ETAG, etag);
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        response.setHeader(HttpHeaders.CACHE_CONTROL, "private, no-cache");
+        response.setDateHeader(HttpHeaders.LAST_MODIFIED, content.getLastModified());
+
+        // 内容未变化
+        if (matchesEtag(request.getHeader(HttpHeaders.IF_NONE_MATCH), etag)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        long start = 0;
+        long end = length - 1;
+        long[] range = resolveRange(request, etag, content.getLastModified(), length);
+        if (range == INVALID_RANGE) {
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+            response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            return;
+        }
+        if (range != null) {
+            start = range[0];
+            end = range[1];
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+        } else {
+            response.setStatus(HttpServletResponse.SC_OK);
+        }
+
+        long count = length == 0 ? 0 : end - start + 1;
+        response.setContentType(content.getContentType() != null
+                ? content.getContentType() : MediaType.APPLICATION_OCTET_STREAM_VALUE);
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment()
+                .filename(content.getFileName(), StandardCharsets.UTF_8)
+                .build()
+                .toString());
+        response.setContentLengthLong(count);
+
+        if ("HEAD".equalsIgnoreCase(request.getMethod()) || count == 0) {
+            return;
+        }
+
+        if (content.isCompressed()) {
+            writeDecompressed(response, content, start, count);
+        } else if (sendfileEnabled && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            // 由容器在写出响应时直接从文件发送（零拷贝）
+            request.setAttribute(SENDFILE_FILENAME, content.getPath().toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START, start);
+            request.setAttribute(SENDFILE_END, start + count);
+        } else {
+            writeWithTransfer(response, content, start, count);
+        }
+    }
+
+    /**
+     * 未压缩文件：FileChannel.transferTo到响应输出通道
+     */
+    private void writeWithTransfer(HttpServletResponse response, AttachmentContent content,
+                                   long start, long count) throws IOException {
+        try (FileChannel fileChannel = FileChannel.open(content.getPath(), StandardOpenOption.READ)) {
+            WritableByteChannel target = Channels.newChannel(response.getOutputStream());
+            long position = start;
+            long remaining = count;
+            while (remaining > 0) {
+                long transferred = fileChannel.transferTo(position, remaining, target);
+                if (transferred <= 0) {
+                    throw new IOException("附件文件长度不足: " + content.getPath());
+                }
+                position += transferred;
+                remaining -= transferred;
+            }
+        }
+    }
+
+    /**
+     * 压缩存储：边解压边输出，跳过区间之前的数据
+     */
+    private void writeDecompressed(HttpServletResponse response, AttachmentContent content,
+                                   long start, long count) throws IOException {
+        try (InputStream inputStream = new GZIPInputStream(Files.newInputStream(content.getPath()), BUFFER_SIZE)) {
+            long skipped = 0;
+            while (skipped < start) {
+                long n = inputStream.skip(start - skipped);
+                if (n <= 0) {
+                    throw new IOException("附件文件长度不足: " + content.getPath());
+                }
+                skipped += n;
+            }
+
+            OutputStream outputStream = response.getOutputStream();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long remaining = count;
+            while (remaining > 0) {
+                int bytesRead = inputStream.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (bytesRead == -1) {
+                    throw new IOException("附件文件长度不足: " + content.getPath());
+                }
+                outputStream.write(buffer, 0, bytesRead);
+                remaining -= bytesRead;
+            }
+            outputStream.flush();
+        }
+    }
+
+    /**
+     * 解析Range请求头，返回 [start, end]；null表示返回完整内容
+     * 只支持单个区间，多区间请求按完整内容返回
+     */
+    private long[] resolveRange(HttpServletRequest request, String etag, long lastModified, long length) {
+        String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+        if (rangeHeader == null || !rangeHeader.startsWith("bytes=") || length == 0) {
+            return null;
+        }
+
+        // If-Range不匹配时忽略Range，返回完整内容
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange != null && !ifRangeMatches(request, ifRange, etag, lastModified)) {
+            return null;
+        }
+
+        String spec = rangeHeader.substring("bytes=".length()).trim();
+        if (spec.contains(",")) {
+            return null;
+        }
+
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            long start;
+            long end;
+            if (first.isEmpty()) {
+                // 后缀区间：最后N个字节
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0) {
+                    return INVALID_RANGE;
+                }
+                start = Math.max(0, length - suffix);
+                end = length - 1;
+            } else {
+                start = Long.parseLong(first);
+                end = last.isEmpty() ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+            }
+            if (start >= length || start > end) {
+                return INVALID_RANGE;
+            }
+            return new long[]{start, end};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private boolean ifRangeMatches(HttpServletRequest request, String ifRange, String etag, long lastModified) {
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            // If-Range要求强比较
+            return ifRange.equals(etag);
+        }
+        try {
+            long since = request.getDateHeader(HttpHeaders.IF_RANGE);
+            return since >= 0 && lastModified / 1000 <= since / 1000;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private boolean matchesEtag(String header, String etag) {
+        if (header == null) {
+            return false;
+        }
+        for (String candidate : header.split(",")) {
+            String tag = candidate.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if ("*".equals(tag) || tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,78 @@
+package com.enterprise.email.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Predicate;
+
+/**
+ * 固定容量的无锁环形缓冲区（多写多读），写满后覆盖最旧的元素
+ *
+ * 写入方通过自增序号占位后写槽位，槽位中保存序号；读取方只接受序号与期望值一致的槽位，
+ * 因此读到尚未写完或已被覆盖的槽位时会直接跳过，不会返回错位的数据。
+ */
+public final class ConcurrentRingBuffer<T> {
+
+    private final AtomicReferenceArray<Slot<T>> slots;
+    private final int mask;
+    private final AtomicLong cursor = new AtomicLong();
+
+    /**
+     * @param capacity 容量（向上取整为2的幂）
+     */
+    public ConcurrentRingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    public void add(T value) {
+        long sequence = cursor.getAndIncrement();
+        slots.set((int) (sequence & mask), new Slot<>(sequence, value));
+    }
+
+    /**
+     * 最近写入的元素（从旧到新），最多limit个，filter为空表示不过滤
+     */
+    public List<T> recent(int limit, Predicate<T> filter) {
+        long end = cursor.get();
+        long start = Math.max(0, end - Math.min(limit, capacity()));
+        List<T> result = new ArrayList<>((int) (end - start));
+        for (long sequence = start; sequence < end; sequence++) {
+            Slot<T> slot = slots.get((int) (sequence & mask));
+            if (slot != null && slot.sequence == sequence && (filter == null || filter.test(slot.value))) {
+                result.add(slot.value);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 是否从未覆盖过元素（即缓冲区中保有全部写入）
+     */
+    public boolean isComplete() {
+        return cursor.get() <= capacity();
+    }
+
+    /**
+     * 累计写入次数
+     */
+    public long getWritten() {
+        return cursor.get();
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    private static final class Slot<T> {
+        private final long sequence;
+        private final T value;
+
+        private Slot(long sequence, T value) {
+            this.sequence = sequence;
+            this.value = value;
+        }
+    }
+}
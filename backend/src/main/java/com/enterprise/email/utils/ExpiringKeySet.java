@@ -0,0 +1,169 @@
+package com.enterprise.email.utils;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * 带过期时间、总量有上限的键集合（线程安全）
+ *
+ * 按键的哈希分段加锁，每段是按写入顺序排列的LinkedHashMap；过期的键在访问和清扫时移除，
+ * 某段超出容量时淘汰该段最早写入的键，因此内存占用不随键的数量无限增长。
+ */
+public final class ExpiringKeySet {
+
+    private final Segment[] segments;
+    private final int mask;
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param maxEntries 总容量上限
+     * @param concurrency 分段数（向上取整为2的幂）
+     */
+    public ExpiringKeySet(int maxEntries, int concurrency) {
+        int size = Integer.highestOneBit(Math.max(2, concurrency) - 1) << 1;
+        int perSegment = Math.max(1, maxEntries / size);
+        this.segments = new Segment[size];
+        for (int i = 0; i < size; i++) {
+            segments[i] = new Segment(perSegment, evictions);
+        }
+        this.mask = size - 1;
+    }
+
+    /**
+     * 键是否存在且未过期
+     */
+    public boolean contains(String key) {
+        Segment segment = segment(key);
+        synchronized (segment) {
+            Long expiresAt = segment.get(key);
+            if (expiresAt == null) {
+                return false;
+            }
+            if (expiresAt <= System.currentTimeMillis()) {
+                segment.remove(key);
+                return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * 键不存在或已过期时写入并返回true，否则返回false
+     */
+    public boolean add(String key, long ttlMillis) {
+        Segment segment = segment(key);
+        long now = System.currentTimeMillis();
+        synchronized (segment) {
+            Long expiresAt = segment.get(key);
+            if (expiresAt != null && expiresAt > now) {
+                return false;
+            }
+            // 先移除再写入，使键移到写入顺序的末尾
+            segment.remove(key);
+            segment.put(key, now + ttlMillis);
+            return true;
+        }
+    }
+
+    /**
+     * 写入或覆盖键的过期时间
+     */
+    public void put(String key, long ttlMillis) {
+        Segment segment = segment(key);
+        synchronized (segment) {
+            segment.remove(key);
+            segment.put(key, System.currentTimeMillis() + ttlMillis);
+        }
+    }
+
+    public void remove(String key) {
+        Segment segment = segment(key);
+        synchronized (segment) {
+            segment.remove(key);
+        }
+    }
+
+    /**
+     * 移除满足条件的键，返回移除数量
+     */
+    public int removeIf(Predicate<String> filter) {
+        int removed = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                Iterator<String> iterator = segment.keySet().iterator();
+                while (iterator.hasNext()) {
+                    if (filter.test(iterator.next())) {
+                        iterator.remove();
+                        removed++;
+                    }
+                }
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * 清扫已过期的键，返回移除数量
+     */
+    public int purgeExpired() {
+        long now = System.currentTimeMillis();
+        int removed = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                Iterator<Long> iterator = segment.values().iterator();
+                while (iterator.hasNext()) {
+                    if (iterator.next() <= now) {
+                        iterator.remove();
+                        removed++;
+                    }
+                }
+            }
+        }
+        return removed;
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * 因容量不足被淘汰的键数
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    private Segment segment(String key) {
+        int h = key.hashCode();
+        return segments[(h ^ (h >>> 16)) & mask];
+    }
+
+    private static final class Segment extends LinkedHashMap<String, Long> {
+        private final int capacity;
+        private final AtomicLong evictions;
+
+        private Segment(int capacity, AtomicLong evictions) {
+            super(16, 0.75f, false);
+            this.capacity = capacity;
+            this.evictions = evictions;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            if (size() > capacity) {
+                evictions.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,520 @@
+package com.enterprise.email.utils;
+
+import lombok.Data;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * 邮件HTML净化工具类
+ *
+ * 单遍扫描的流式分词器（不构建DOM）：标签按白名单输出并只保留白名单属性，
+ * script、style等元素连同内容丢弃，未闭合的标签在末尾补齐，多余的结束标签忽略。
+ * 扫描时同时提取正文文本，生成摘要并统计文本长度。
+ * 净化策略变化时递增 {@link #POLICY_VERSION}，旧版本的渲染结果会在读取时重新生成。
+ */
+public class HtmlSanitizer {
+
+    /**
+     * 净化策略版本
+     */
+    public static final int POLICY_VERSION = 3;
+
+    public static final int SNIPPET_LENGTH = 200;
+
+    private static final Set<String> ALLOWED_TAGS = Set.of(
+            "a", "abbr", "b", "big", "blockquote", "br", "caption", "center", "code", "col", "colgroup",
+            "dd", "del", "div", "dl", "dt", "em", "font", "h1", "h2", "h3", "h4", "h5", "h6", "hr", "i",
+            "img", "ins", "li", "ol", "p", "pre", "q", "s", "small", "span", "strike", "strong", "sub",
+            "sup", "table", "tbody", "td", "tfoot", "th", "thead", "tr", "tt", "u", "ul");
+
+    private static final Set<String> VOID_TAGS = Set.of("br", "col", "hr", "img");
+
+    // 连同内容一起丢弃的元素
+    private static final Set<String> DROP_CONTENT_TAGS = Set.of(
+            "script", "style", "head", "title", "iframe", "frameset", "object", "embed", "applet",
+            "noscript", "noembed", "template", "textarea", "select", "svg", "math", "xml");
+
+    // 在提取的文本中产生分隔的元素
+    private static final Set<String> BLOCK_TAGS = Set.of(
+            "br", "p", "div", "li", "tr", "td", "th", "h1", "h2", "h3", "h4", "h5", "h6",
+            "blockquote", "pre", "hr", "table", "dd", "dt");
+
+    private static final Set<String> ALLOWED_ATTRIBUTES = Set.of(
+            "align", "alt", "bgcolor", "border", "cellpadding", "cellspacing", "color", "colspan", "dir",
+            "face", "height", "lang", "rowspan", "size", "span", "start", "style", "title", "type",
+            "valign", "width");
+
+    private static final Set<String> LINK_SCHEMES = Set.of("http", "https", "mailto");
+    private static final Set<String> IMAGE_SCHEMES = Set.of("http", "https");
+
+    private static final Map<String, Character> NAMED_ENTITIES = Map.of(
+            "amp", '&', "lt", '<', "gt", '>', "quot", '"', "apos", '\'', "nbsp", ' ');
+
+    private HtmlSanitizer() {
+    }
+
+    /**
+     * 净化HTML并提取摘要
+     *
+     * @param html        原始HTML，可为空
+     * @param text        纯文本正文，HTML为空时用于生成摘要
+     * @param cidResolver 把cid:引用的Content-ID解析为附件地址，无法解析时返回null
+     */
+    public static RenderResult render(String html, String text, Function<String, String> cidResolver) {
+        RenderResult result = new RenderResult();
+        TextCollector collector = new TextCollector();
+
+        if (html != null && !html.isEmpty()) {
+            result.setHtml(new Tokenizer(html, cidResolver, collector).run());
+        } else if (text != null) {
+            collector.append(text);
+        }
+
+        result.setSnippet(collector.snippet.toString());
+        result.setTextLength(collector.length);
+        return result;
+    }
+
+    /**
+     * 渲染结果
+     */
+    @Data
+    public static class RenderResult {
+        private String html;
+        private String snippet;
+        private int textLength;
+    }
+
+    /**
+     * 流式分词与输出
+     */
+    private static class Tokenizer {
+
+        private final String input;
+        private final Function<String, String> cidResolver;
+        private final TextCollector collector;
+        private final StringBuilder out;
+        private final Deque<String> openTags = new ArrayDeque<>();
+        private int pos;
+
+        Tokenizer(String input, Function<String, String> cidResolver, TextCollector collector) {
+            this.input = input;
+            this.cidResolver = cidResolver;
+            this.collector = collector;
+            this.out = new StringBuilder(input.length());
+        }
+
+        String run() {
+            int length = input.length();
+            while (pos < length) {
+                char c = input.charAt(pos);
+                if (c == '<') {
+                    readMarkup();
+                } else {
+                    readText();
+                }
+            }
+            while (!openTags.isEmpty()) {
+                out.append("</").append(openTags.pop()).append('>');
+            }
+            return out.toString();
+        }
+
+        private void readText() {
+            int end = input.indexOf('<', pos);
+            if (end < 0) {
+                end = input.length();
+            }
+            String decoded = decodeEntities(input, pos, end);
+            collector.append(decoded);
+            escapeText(decoded, out);
+            pos = end;
+        }
+
+        private void readMarkup() {
+            if (input.startsWith("<!--", pos)) {
+                int end = input.indexOf("-->", pos + 4);
+                pos = end < 0 ? input.length() : end + 3;
+                return;
+            }
+            if (input.startsWith("<!", pos) || input.startsWith("<?", pos)) {
+                int end = input.indexOf('>', pos);
+                pos = end < 0 ? input.length() : end + 1;
+                return;
+            }
+
+            int i = pos + 1;
+            boolean endTag = i < input.length() && input.charAt(i) == '/';
+            if (endTag) {
+                i++;
+            }
+            int nameStart = i;
+            while (i < input.length() && isNameChar(input.charAt(i))) {
+                i++;
+            }
+            if (i == nameStart || !Character.isLetter(input.charAt(nameStart))) {
+                // 不是标签，按文本处理
+                collector.append("<");
+                out.append("&lt;");
+                pos++;
+                return;
+            }
+            String name = input.substring(nameStart, i).toLowerCase(Locale.ROOT);
+
+            Map<String, String> attributes = new LinkedHashMap<>();
+            pos = readAttributes(i, attributes);
+
+            if (BLOCK_TAGS.contains(name)) {
+                collector.separate();
+            }
+            if (endTag) {
+                closeTag(name);
+            } else if (DROP_CONTENT_TAGS.contains(name)) {
+                skipContent(name);
+            } else if (ALLOWED_TAGS.contains(name)) {
+                openTag(name, attributes);
+            }
+        }
+
+        /**
+         * 读取属性直到标签结束，返回标签之后的位置
+         */
+        private int readAttributes(int i, Map<String, String> attributes) {
+            int length = input.length();
+            while (i < length) {
+                char c = input.charAt(i);
+                if (c == '>') {
+                    return i + 1;
+                }
+                if (c == '/' || Character.isWhitespace(c)) {
+                    i++;
+                    continue;
+                }
+
+                int nameStart = i;
+                while (i < length && !Character.isWhitespace(input.charAt(i))
+                        && "=>/\"'".indexOf(input.charAt(i)) < 0) {
+                    i++;
+                }
+                if (i == nameStart) {
+                    // 属性名位置出现的孤立引号
+                    i++;
+                    continue;
+                }
+                String attrName = input.substring(nameStart, i).toLowerCase(Locale.ROOT);
+
+                while (i < length && Character.isWhitespace(input.charAt(i))) {
+                    i++;
+                }
+                String value = "";
+                if (i < length && input.charAt(i) == '=') {
+                    i++;
+                    while (i < length && Character.isWhitespace(input.charAt(i))) {
+                        i++;
+                    }
+                    if (i < length && (input.charAt(i) == '"' || input.charAt(i) == '\'')) {
+                        char quote = input.charAt(i);
+                        int end = input.indexOf(quote, i + 1);
+                        if (end < 0) {
+                            end = length;
+                        }
+                        value = decodeEntities(input, i + 1, end);
+                        i = Math.min(end + 1, length);
+                    } else {
+                        int valueStart = i;
+                        while (i < length && !Character.isWhitespace(input.charAt(i)) && input.charAt(i) != '>') {
+                            i++;
+                        }
+                        value = decodeEntities(input, valueStart, i);
+                    }
+                }
+                attributes.putIfAbsent(attrName, value);
+            }
+            return length;
+        }
+
+        private void openTag(String name, Map<String, String> attributes) {
+            out.append('<').append(name);
+            for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+                String value = sanitizeAttribute(name, attribute.getKey(), attribute.getValue());
+                if (value != null) {
+                    out.append(' ').append(attribute.getKey()).append("=\"");
+                    escapeAttribute(value, out);
+                    out.append('"');
+                }
+            }
+            if ("a".equals(name) && attributes.containsKey("href")) {
+                out.append(" target=\"_blank\" rel=\"noopener noreferrer\"");
+            }
+            out.append('>');
+
+            if (!VOID_TAGS.contains(name)) {
+                openTags.push(name);
+            }
+        }
+
+        private void closeTag(String name) {
+            if (!openTags.contains(name)) {
+                return;
+            }
+            while (!openTags.isEmpty()) {
+                String open = openTags.pop();
+                out.append("</").append(open).append('>');
+                if (open.equals(name)) {
+                    break;
+                }
+            }
+        }
+
+        private void skipContent(String name) {
+            int end = input.indexOf("</", pos);
+            while (end >= 0 && !input.regionMatches(true, end + 2, name, 0, name.length())) {
+                end = input.indexOf("</", end + 2);
+            }
+            if (end < 0) {
+                pos = input.length();
+                return;
+            }
+            int close = input.indexOf('>', end);
+            pos = close < 0 ? input.length() : close + 1;
+        }
+
+        private String sanitizeAttribute(String tag, String name, String value) {
+            if ("href".equals(name) && "a".equals(tag)) {
+                return sanitizeUrl(value, LINK_SCHEMES, true);
+            }
+            if ("src".equals(name) && "img".equals(tag)) {
+                String trimmed = value.trim();
+                if (trimmed.regionMatches(true, 0, "cid:", 0, 4)) {
+                    return cidResolver != null ? cidResolver.apply(trimmed.substring(4)) : null;
+                }
+                if (trimmed.regionMatches(true, 0, "data:image/", 0, 11)
+                        && !trimmed.regionMatches(true, 11, "svg", 0, 3)) {
+                    return trimmed;
+                }
+                return sanitizeUrl(trimmed, IMAGE_SCHEMES, false);
+            }
+            if ("style".equals(name)) {
+                return sanitizeStyle(value);
+            }
+            return ALLOWED_ATTRIBUTES.contains(name) ? value : null;
+        }
+    }
+
+    private static String sanitizeUrl(String value, Set<String> schemes, boolean allowRelative) {
+        StringBuilder compact = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c > ' ' && c != 0x7f) {
+                compact.append(c);
+            }
+        }
+        String url = compact.toString();
+        int colon = url.indexOf(':');
+        int boundary = firstIndexOf(url, "/?#");
+        if (colon > 0 && (boundary < 0 || colon < boundary)) {
+            String scheme = url.substring(0, colon).toLowerCase(Locale.ROOT);
+            return schemes.contains(scheme) ? url : null;
+        }
+        return allowRelative && !url.isEmpty() ? url : null;
+    }
+
+    /**
+     * 检查前先去掉注释、解码CSS转义（\HH…、\c），避免u\72l(这类写法绕过
+     */
+    private static String sanitizeStyle(String value) {
+        String decoded = decodeCssEscapes(value.replaceAll("(?s)/\\*.*?(\\*/|$)", ""));
+        String lower = decoded.toLowerCase(Locale.ROOT).replaceAll("\\s+", "");
+        if (lower.contains("expression(") || lower.contains("url(") || lower.contains("javascript:")
+                || lower.contains("behavior:") || lower.contains("@import") || lower.contains("position:fixed")) {
+            return null;
+        }
+        return value;
+    }
+
+    /**
+     * 解码CSS转义：反斜杠后1~6位十六进制（其后可跟一个空白）为码点，换行为续行，其余字符表示自身
+     */
+    private static String decodeCssEscapes(String value) {
+        if (value.indexOf('\\') < 0) {
+            return value;
+        }
+        StringBuilder sb = new StringBuilder(value.length());
+        int i = 0;
+        while (i < value.length()) {
+            char c = value.charAt(i++);
+            if (c != '\\' || i >= value.length()) {
+                sb.append(c);
+                continue;
+            }
+            char next = value.charAt(i);
+            if (next == '\n' || next == '\r' || next == '\f') {
+                i += next == '\r' && i + 1 < value.length() && value.charAt(i + 1) == '\n' ? 2 : 1;
+                continue;
+            }
+            int end = i;
+            while (end < value.length() && end - i < 6 && Character.digit(value.charAt(end), 16) >= 0) {
+                end++;
+            }
+            if (end == i) {
+                sb.append(next);
+                i++;
+                continue;
+            }
+            int codePoint = Integer.parseInt(value.substring(i, end), 16);
+            sb.appendCodePoint(codePoint == 0 || codePoint > Character.MAX_CODE_POINT
+                    || (codePoint >= 0xD800 && codePoint <= 0xDFFF) ? 0xFFFD : codePoint);
+            i = end;
+            if (i < value.length() && Character.isWhitespace(value.charAt(i))) {
+                i += value.charAt(i) == '\r' && i + 1 < value.length() && value.charAt(i + 1) == '\n' ? 2 : 1;
+            }
+        }
+        return sb.toString();
+    }
+
+    private static int firstIndexOf(String value, String chars) {
+        for (int i = 0; i < value.length(); i++) {
+            if (chars.indexOf(value.charAt(i)) >= 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isNameChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '-' || c == ':' || c == '_';
+    }
+
+    /**
+     * 解码实体引用（命名实体只处理常用的几种，其余原样保留）
+     */
+    private static String decodeEntities(String input, int start, int end) {
+        int amp = input.indexOf('&', start);
+        if (amp < 0 || amp >= end) {
+            return input.substring(start, end);
+        }
+        StringBuilder sb = new StringBuilder(end - start);
+        int i = start;
+        while (i < end) {
+            char c = input.charAt(i);
+            if (c != '&') {
+                sb.append(c);
+                i++;
+                continue;
+            }
+            int semi = input.indexOf(';', i);
+            if (semi < 0 || semi >= end || semi - i > 10) {
+                sb.append(c);
+                i++;
+                continue;
+            }
+            String entity = input.substring(i + 1, semi);
+            int codePoint = -1;
+            if (entity.startsWith("#x") || entity.startsWith("#X")) {
+                codePoint = parseCodePoint(entity.substring(2), 16);
+            } else if (entity.startsWith("#")) {
+                codePoint = parseCodePoint(entity.substring(1), 10);
+            } else {
+                Character named = NAMED_ENTITIES.get(entity.toLowerCase(Locale.ROOT));
+                if (named != null) {
+                    codePoint = named;
+                }
+            }
+            if (codePoint < 0) {
+                sb.append(c);
+                i++;
+                continue;
+            }
+            sb.appendCodePoint(codePoint);
+            i = semi + 1;
+        }
+        return sb.toString();
+    }
+
+    private static int parseCodePoint(String digits, int radix) {
+        try {
+            int codePoint = Integer.parseInt(digits, radix);
+            return codePoint > 0 && Character.isValidCodePoint(codePoint) ? codePoint : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static void escapeText(String text, StringBuilder out) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '&':
+                    out.append("&amp;");
+                    break;
+                case '<':
+                    out.append("&lt;");
+                    break;
+                case '>':
+                    out.append("&gt;");
+                    break;
+                default:
+                    out.append(c);
+            }
+        }
+    }
+
+    private static void escapeAttribute(String value, StringBuilder out) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '&':
+                    out.append("&amp;");
+                    break;
+                case '<':
+                    out.append("&lt;");
+                    break;
+                case '>':
+                    out.append("&gt;");
+                    break;
+                case '"':
+                    out.append("&quot;");
+                    break;
+                default:
+                    out.append(c);
+            }
+        }
+    }
+
+    /**
+     * 折叠空白后的正文文本：只保留摘要长度的前缀，其余只计数
+     */
+    private static class TextCollector {
+
+        private final StringBuilder snippet = new StringBuilder();
+        private int length;
+        private boolean pendingSpace;
+
+        void append(String text) {
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (Character.isWhitespace(c) || Character.isSpaceChar(c)) {
+                    pendingSpace = true;
+                    continue;
+                }
+                if (pendingSpace && length > 0) {
+                    add(' ');
+                }
+                pendingSpace = false;
+                add(c);
+            }
+        }
+
+        void separate() {
+            pendingSpace = true;
+        }
+
+        private void add(char c) {
+            if (snippet.length() < SNIPPET_LENGTH) {
+                snippet.append(c);
+            }
+            length++;
+        }
+    }
+}
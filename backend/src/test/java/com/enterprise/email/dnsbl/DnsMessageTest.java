@@ -0,0 +1,141 @@
+package com.enterprise.email.dnsbl;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DnsMessageTest {
+
+    private static final String NAME = "2.0.0.127.zen.example.org";
+
+    @Test
+    void encodesQueryWithRecursionDesired() {
+        byte[] query = DnsMessage.encodeQuery(0x1234, NAME);
+        ByteBuffer buffer = ByteBuffer.wrap(query);
+
+        assertEquals(0x1234, buffer.getShort() & 0xffff);
+        assertEquals(0x0100, buffer.getShort() & 0xffff);
+        assertEquals(1, buffer.getShort());
+        assertEquals(12 + NAME.length() + 2 + 4, query.length);
+        assertEquals(1, query[query.length - 1]);
+        assertEquals(DnsMessage.TYPE_A, query[query.length - 3]);
+    }
+
+    @Test
+    void parsesAnswerWithCompressedNamesAndMinimumTtl() {
+        ByteArrayOutputStream packet = header(0x1234, 0x8180, 1, 2, 0);
+        question(packet);
+        answer(packet, 300, new byte[]{127, 0, 0, 2});
+        answer(packet, 60, new byte[]{127, 0, 0, 4});
+        byte[] data = packet.toByteArray();
+
+        DnsMessage message = DnsMessage.parse(data, data.length);
+
+        assertEquals(0x1234, message.getId());
+        assertTrue(message.isResponse());
+        assertFalse(message.isTruncated());
+        assertEquals(DnsMessage.RCODE_NOERROR, message.getRcode());
+        assertEquals(NAME, message.getQuestionName());
+        assertEquals(DnsMessage.TYPE_A, message.getQuestionType());
+        assertEquals(2, message.getAddresses().size());
+        assertArrayEquals(new byte[]{127, 0, 0, 4}, message.getAddresses().get(1));
+        assertEquals(60, message.getAnswerTtl());
+        assertEquals(-1, message.getNegativeTtl());
+    }
+
+    @Test
+    void parsesNxdomainWithSoaNegativeTtl() {
+        ByteArrayOutputStream packet = header(7, 0x8183, 1, 0, 1);
+        question(packet);
+        // 权威段：SOA，TTL 900，MINIMUM 120
+        pointer(packet, 12);
+        putShort(packet, DnsMessage.TYPE_SOA);
+        putShort(packet, DnsMessage.CLASS_IN);
+        putInt(packet, 900);
+        putShort(packet, 2 + 2 + 20);
+        pointer(packet, 12);
+        pointer(packet, 12);
+        for (int i = 0; i < 4; i++) {
+            putInt(packet, 1);
+        }
+        putInt(packet, 120);
+        byte[] data = packet.toByteArray();
+
+        DnsMessage message = DnsMessage.parse(data, data.length);
+
+        assertEquals(DnsMessage.RCODE_NXDOMAIN, message.getRcode());
+        assertTrue(message.getAddresses().isEmpty());
+        assertEquals(-1, message.getAnswerTtl());
+        assertEquals(120, message.getNegativeTtl());
+    }
+
+    @Test
+    void rejectsTruncatedAndLoopingPackets() {
+        byte[] data = header(1, 0x8180, 1, 1, 0).toByteArray();
+        assertThrows(IllegalArgumentException.class, () -> DnsMessage.parse(data, data.length));
+
+        ByteArrayOutputStream loop = header(1, 0x8180, 1, 0, 0);
+        pointer(loop, 12);
+        byte[] looping = loop.toByteArray();
+        assertThrows(IllegalArgumentException.class, () -> DnsMessage.parse(looping, looping.length));
+    }
+
+    @Test
+    void validatesQueryNames() {
+        assertTrue(DnsMessage.isValidName(NAME));
+        assertFalse(DnsMessage.isValidName(null));
+        assertFalse(DnsMessage.isValidName("a..b"));
+        assertFalse(DnsMessage.isValidName("a.b."));
+        assertFalse(DnsMessage.isValidName("a b.org"));
+        assertFalse(DnsMessage.isValidName("例子.org"));
+        assertFalse(DnsMessage.isValidName("x".repeat(64) + ".org"));
+        assertFalse(DnsMessage.isValidName(("abc.").repeat(64) + "org"));
+    }
+
+    private static ByteArrayOutputStream header(int id, int flags, int qd, int an, int ns) {
+        ByteArrayOutputStream packet = new ByteArrayOutputStream();
+        putShort(packet, id);
+        putShort(packet, flags);
+        putShort(packet, qd);
+        putShort(packet, an);
+        putShort(packet, ns);
+        putShort(packet, 0);
+        return packet;
+    }
+
+    private static void question(ByteArrayOutputStream packet) {
+        for (String label : NAME.split("\\.")) {
+            packet.write(label.length());
+            packet.writeBytes(label.getBytes());
+        }
+        packet.write(0);
+        putShort(packet, DnsMessage.TYPE_A);
+        putShort(packet, DnsMessage.CLASS_IN);
+    }
+
+    private static void answer(ByteArrayOutputStream packet, int ttl, byte[] address) {
+        pointer(packet, 12);
+        putShort(packet, DnsMessage.TYPE_A);
+        putShort(packet, DnsMessage.CLASS_IN);
+        putInt(packet, ttl);
+        putShort(packet, address.length);
+        packet.writeBytes(address);
+    }
+
+    private static void pointer(ByteArrayOutputStream packet, int offset) {
+        putShort(packet, 0xc000 | offset);
+    }
+
+    private static void putShort(ByteArrayOutputStream packet, int value) {
+        packet.write(value >>> 8);
+        packet.write(value);
+    }
+
+    private static void putInt(ByteArrayOutputStream packet, int value) {
+        putShort(packet, value >>> 16);
+        putShort(packet, value);
+    }
+}
@@ -0,0 +1,95 @@
+package com.enterprise.email.dnsbl;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class Ip6PrefixTrieTest {
+
+    private static byte[] ip(String address) {
+        return DnsblNames.parseIp(address);
+    }
+
+    @Test
+    void longestPrefixWins() {
+        int[] invalid = new int[1];
+        Ip6PrefixTrie trie = Ip6PrefixTrie.parse(List.of(
+                "# 注释",
+                ":2:默认 $",
+                "2001:db8::/32",
+                "2001:db8:1::/48 :3:子网",
+                "2001:db8:1:2::1 :4"), invalid);
+
+        assertEquals(0, invalid[0]);
+        assertEquals(3, trie.size());
+        assertEquals("127.0.0.2", trie.lookupIp(ip("2001:db8:ffff::1")).getCode());
+        assertEquals("默认 2001:db8::", trie.lookupIp(ip("2001:db8:ffff::1")).describe("2001:db8::"));
+        assertEquals("127.0.0.3", trie.lookupIp(ip("2001:db8:1:9::1")).getCode());
+        assertEquals("127.0.0.4", trie.lookupIp(ip("2001:db8:1:2::1")).getCode());
+        assertEquals("127.0.0.3", trie.lookupIp(ip("2001:db8:1:2::2")).getCode());
+        assertNull(trie.lookupIp(ip("2001:db9::1")));
+    }
+
+    @Test
+    void exclusionOverridesEnclosingPrefix() {
+        Ip6PrefixTrie trie = Ip6PrefixTrie.parse(List.of(
+                "2001:db8::/32",
+                "!2001:db8:abcd::/48",
+                "2001:db8:abcd:1::/64"), new int[1]);
+
+        assertNotNull(trie.lookupIp(ip("2001:db8:1::1")));
+        assertNull(trie.lookupIp(ip("2001:db8:abcd:2::1")));
+        assertNotNull(trie.lookupIp(ip("2001:db8:abcd:1::1")));
+    }
+
+    @Test
+    void exclusionWinsForDuplicatePrefix() {
+        Ip6PrefixTrie trie = Ip6PrefixTrie.parse(List.of(
+                "!2001:db8::/32",
+                "2001:db8::/32"), new int[1]);
+
+        assertNull(trie.lookupIp(ip("2001:db8::1")));
+    }
+
+    @Test
+    void splitsOnPrefixesSharingLeadingBits() {
+        Ip6PrefixTrie trie = Ip6PrefixTrie.parse(List.of(
+                "8000::/1 :5",
+                "::/1 :6",
+                "::/0 :7",
+                "fe80::/10 :8"), new int[1]);
+
+        assertEquals("127.0.0.5", trie.lookupIp(ip("c000::1")).getCode());
+        assertEquals("127.0.0.6", trie.lookupIp(ip("::1")).getCode());
+        assertEquals("127.0.0.8", trie.lookupIp(ip("fe80::1")).getCode());
+        assertEquals(4, trie.size());
+    }
+
+    @Test
+    void leadingDoubleColonIsAnEntryNotDefaults() {
+        Ip6PrefixTrie trie = Ip6PrefixTrie.parse(List.of(
+                "::1 :9",
+                "2001:db8::/32"), new int[1]);
+
+        assertEquals(2, trie.size());
+        assertEquals("127.0.0.9", trie.lookupIp(ip("::1")).getCode());
+        assertEquals("127.0.0.2", trie.lookupIp(ip("2001:db8::1")).getCode());
+    }
+
+    @Test
+    void skipsInvalidLinesAndIgnoresIpv4Lookups() {
+        int[] invalid = new int[1];
+        Ip6PrefixTrie trie = Ip6PrefixTrie.parse(List.of(
+                "2001:db8::/129",
+                "2001:db8::/x",
+                "not-an-address",
+                "192.0.2.1",
+                "2001:db8::/32"), invalid);
+
+        assertEquals(4, invalid[0]);
+        assertEquals(1, trie.size());
+        assertNull(trie.lookupIp(ip("192.0.2.1")));
+    }
+}
@@ -0,0 +1,61 @@
+package com.enterprise.email.rspamd;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class Utf8InputStreamTest {
+
+    private static final String[] SAMPLES = {
+            "",
+            "plain ascii",
+            "é ß ©",
+            "中文邮件主题",
+            "emoji 😀 and 𝄞",
+            "lone high \uD83D end",
+            "lone low \uDE00 end",
+            "reversed \uDE00\uD83D pair",
+            "trailing high \uD83D"
+    };
+
+    @Test
+    void encodedLengthMatchesStringGetBytes() {
+        for (String sample : SAMPLES) {
+            assertEquals(sample.getBytes(StandardCharsets.UTF_8).length, Utf8InputStream.encodedLength(sample), sample);
+        }
+    }
+
+    @Test
+    void streamMatchesStringGetBytes() throws IOException {
+        for (String sample : SAMPLES) {
+            try (Utf8InputStream in = new Utf8InputStream(sample)) {
+                assertArrayEquals(sample.getBytes(StandardCharsets.UTF_8), in.readAllBytes(), sample);
+            }
+        }
+    }
+
+    @Test
+    void streamsTextLargerThanBuffer() throws IOException {
+        // 多字节字符跨越内部缓冲区边界
+        String text = "邮件😀".repeat(10000);
+        byte[] expected = text.getBytes(StandardCharsets.UTF_8);
+
+        try (Utf8InputStream in = new Utf8InputStream(text)) {
+            assertArrayEquals(expected, in.readAllBytes());
+        }
+        assertEquals(expected.length, Utf8InputStream.encodedLength(text));
+    }
+
+    @Test
+    void singleByteReadsReachEndOfStream() {
+        Utf8InputStream in = new Utf8InputStream("é");
+
+        assertEquals(0xc3, in.read());
+        assertEquals(0xa9, in.read());
+        assertEquals(-1, in.read());
+        assertEquals(0, in.read(new byte[1], 0, 0));
+    }
+}
@@ -0,0 +1,60 @@
+package com.enterprise.email.sieve;
+
+import com.enterprise.email.entity.SieveRule;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompiledSieveRuleTest {
+
+    private final SieveRuleCompiler compiler = newCompiler();
+
+    private static SieveRuleCompiler newCompiler() {
+        SieveRuleCompiler compiler = new SieveRuleCompiler(new ObjectMapper(), new SieveScriptEngine(16));
+        ReflectionTestUtils.setField(compiler, "regexMaxMillis", 20L);
+        return compiler;
+    }
+
+    private CompiledSieveRule compile(String conditionType, String conditions) {
+        SieveRule rule = new SieveRule();
+        rule.setId(1L);
+        rule.setRuleName("test");
+        rule.setConditionType(conditionType);
+        rule.setConditions(conditions);
+        rule.setActions("[{\"type\":\"fileinto\",\"folder\":\"Junk\"}]");
+        return compiler.compile(rule);
+    }
+
+    @Test
+    void evaluatesHeaderBodyAndSizeConditions() {
+        CompiledSieveRule rule = compile("ALL", "["
+                + "{\"type\":\"header\",\"header\":\"Subject\",\"comparator\":\"contains\",\"value\":\"SALE\"},"
+                + "{\"type\":\"body\",\"comparator\":\"matches\",\"value\":\"*unsubscribe*\"},"
+                + "{\"type\":\"size\",\"comparator\":\"under\",\"value\":\"1K\"}]");
+
+        assertNull(rule.getCompileError());
+        assertTrue(rule.matches(SieveMessage.parse("Subject: Big sale\r\n\r\nclick to unsubscribe\r\n")));
+        assertFalse(rule.matches(SieveMessage.parse("Subject: Big sale\r\n\r\nhello\r\n")));
+    }
+
+    @Test
+    void invalidRegexBecomesCompileError() {
+        CompiledSieveRule rule = compile("ALL",
+                "[{\"type\":\"header\",\"header\":\"subject\",\"comparator\":\"regex\",\"value\":\"(\"}]");
+
+        assertNotNull(rule.getCompileError());
+        assertFalse(rule.matches(SieveMessage.parse("Subject: (\r\n\r\n")));
+    }
+
+    @Test
+    void regexTimeoutPropagatesInsteadOfNoMatch() {
+        // 反向引用使JDK无法对回溯做记忆化，匹配时间随长度指数增长
+        CompiledSieveRule rule = compile("ALL",
+                "[{\"type\":\"header\",\"header\":\"subject\",\"comparator\":\"regex\",\"value\":\"^(a+)+\\\\1b\"}]");
+        SieveMessage message = SieveMessage.parse("Subject: " + "a".repeat(40) + "!\r\n\r\n");
+
+        assertThrows(SieveProgram.BudgetExceededException.class, () -> rule.matches(message));
+    }
+}
@@ -0,0 +1,116 @@
+package com.enterprise.email.sieve;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SieveInterpreterTest {
+
+    private static final String MESSAGE = "From: Alice <alice@example.com>\r\n"
+            + "To: bob@example.org\r\n"
+            + "Subject: 本周促销 Sale\r\n"
+            + "\r\n"
+            + "Hello Bob\r\n";
+
+    private static SieveResult run(String script) {
+        return run(script, 10000, 1000);
+    }
+
+    private static SieveResult run(String script, int maxSteps, long maxMillis) {
+        SieveProgram program = SieveScriptCompiler.compile(script, "test");
+        return SieveInterpreter.execute(program, SieveMessage.parse(MESSAGE),
+                "alice@example.com", "bob@example.org", maxSteps, maxMillis);
+    }
+
+    @Test
+    void fileintoCancelsImplicitKeep() {
+        SieveResult result = run("require \"fileinto\";\n"
+                + "if header :contains \"subject\" \"促销\" { fileinto \"Promotions\"; }");
+
+        assertNull(result.getError());
+        assertFalse(result.isImplicitKeep());
+        assertEquals(1, result.getActions().size());
+        assertEquals("fileinto", result.getActions().get(0).getType());
+        assertEquals("Promotions", result.getActions().get(0).getData().get("folder"));
+    }
+
+    @Test
+    void copyKeepsImplicitKeep() {
+        SieveResult result = run("require [\"fileinto\", \"copy\"];\nfileinto :copy \"Archive\";");
+
+        assertTrue(result.isImplicitKeep());
+        Map<String, Object> actionResult = result.toActionResult();
+        assertEquals("fileinto", actionResult.get("action"));
+        assertEquals(2, ((List<?>) actionResult.get("actions")).size());
+    }
+
+    @Test
+    void evaluatesElsifChainAndStop() {
+        SieveResult result = run("require \"fileinto\";\n"
+                + "if address :domain \"from\" \"example.net\" { fileinto \"A\"; }\n"
+                + "elsif allof (address :localpart \"from\" \"alice\", not size :over 1M) { fileinto \"B\"; stop; }\n"
+                + "else { fileinto \"C\"; }\n"
+                + "discard;");
+
+        assertTrue(result.isStopped());
+        assertEquals(1, result.getActions().size());
+        assertEquals("B", result.getActions().get(0).getData().get("folder"));
+    }
+
+    @Test
+    void matchesCapturesFeedVariables() {
+        SieveResult result = run("require [\"fileinto\", \"variables\"];\n"
+                + "if header :matches \"from\" \"*<*@*>\" { set :lower \"domain\" \"${3}\"; fileinto \"From/${domain}\"; }");
+
+        assertEquals("From/example.com", result.getActions().get(0).getData().get("folder"));
+    }
+
+    @Test
+    void duplicateActionsAreRecordedOnce() {
+        SieveResult result = run("require \"fileinto\";\nfileinto \"A\";\nfileinto \"A\";\nkeep;");
+
+        assertEquals(2, result.getActions().size());
+    }
+
+    @Test
+    void runtimeErrorFallsBackToImplicitKeep() {
+        SieveResult result = run("redirect \"a@x.org\";\nredirect \"b@x.org\";\nredirect \"c@x.org\";\n"
+                + "redirect \"d@x.org\";\nredirect \"e@x.org\";\nredirect \"f@x.org\";");
+
+        assertNotNull(result.getError());
+        assertFalse(result.isBudgetExceeded());
+        assertTrue(result.isImplicitKeep());
+        assertTrue(result.getActions().isEmpty());
+    }
+
+    @Test
+    void stepBudgetExhaustionIsFlagged() {
+        StringBuilder script = new StringBuilder("require \"fileinto\";\n");
+        for (int i = 0; i < 50; i++) {
+            script.append("if header :contains \"subject\" \"x").append(i).append("\" { fileinto \"F").append(i).append("\"; }\n");
+        }
+        SieveResult result = run(script.toString(), 10, 1000);
+
+        assertTrue(result.isBudgetExceeded());
+        assertNotNull(result.getError());
+        assertTrue(result.isImplicitKeep());
+        assertTrue(result.getActions().isEmpty());
+    }
+
+    @Test
+    void regexTimeoutIsFlaggedAsBudgetExhaustion() {
+        // 反向引用使JDK无法对回溯做记忆化，匹配时间随长度指数增长
+        String subject = "a".repeat(40) + "!";
+        SieveProgram program = SieveScriptCompiler.compile(
+                "require \"regex\";\nif not header :regex \"subject\" \"^(a+)+\\\\1b\" { discard; }", "test");
+        SieveMessage message = SieveMessage.parse("Subject: " + subject + "\r\n\r\n");
+
+        SieveResult result = SieveInterpreter.execute(program, message, null, null, 10000, 20);
+
+        assertTrue(result.isBudgetExceeded());
+        assertTrue(result.getActions().isEmpty());
+    }
+}
@@ -0,0 +1,75 @@
+package com.enterprise.email.sieve;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SieveLexerTest {
+
+    @Test
+    void tokenizesCommandWithTagStringListAndNumber() {
+        List<SieveLexer.Token> tokens = new SieveLexer("if size :over 10K { fileinto [\"A\", \"B\"]; }").tokenize();
+
+        assertEquals(SieveLexer.TokenType.IDENTIFIER, tokens.get(0).type);
+        assertEquals("if", tokens.get(0).text);
+        assertEquals(SieveLexer.TokenType.TAG, tokens.get(2).type);
+        assertEquals("over", tokens.get(2).text);
+        assertEquals(SieveLexer.TokenType.NUMBER, tokens.get(3).type);
+        assertEquals(10 * 1024L, tokens.get(3).number);
+        assertEquals(SieveLexer.TokenType.LEFT_BRACE, tokens.get(4).type);
+        assertEquals(SieveLexer.TokenType.STRING, tokens.get(7).type);
+        assertEquals("A", tokens.get(7).text);
+        assertEquals(SieveLexer.TokenType.EOF, tokens.get(tokens.size() - 1).type);
+    }
+
+    @Test
+    void numberSuffixesAreBinaryMultiples() {
+        assertEquals(2L * 1024 * 1024, new SieveLexer("2M").tokenize().get(0).number);
+        assertEquals(1024L * 1024 * 1024, new SieveLexer("1g").tokenize().get(0).number);
+    }
+
+    @Test
+    void quotedStringUnescapesBackslash() {
+        SieveLexer.Token token = new SieveLexer("\"a\\\"b\\\\c\"").tokenize().get(0);
+
+        assertEquals("a\"b\\c", token.text);
+    }
+
+    @Test
+    void multiLineStringUnstuffsDotsAndUsesCrlf() {
+        String script = "text: # 注释\n第一行\n..点开头\n.\n;";
+        List<SieveLexer.Token> tokens = new SieveLexer(script).tokenize();
+
+        assertEquals(SieveLexer.TokenType.STRING, tokens.get(0).type);
+        assertEquals("第一行\r\n.点开头\r\n", tokens.get(0).text);
+        assertEquals(SieveLexer.TokenType.SEMICOLON, tokens.get(1).type);
+        assertEquals(5, tokens.get(1).line);
+    }
+
+    @Test
+    void collectsHashCommentsAndCountsLinesInBlockComments() {
+        SieveLexer lexer = new SieveLexer("# Rule: 垃圾\n/* a\nb */ keep;");
+        List<SieveLexer.Token> tokens = lexer.tokenize();
+
+        assertEquals(1, lexer.getComments().size());
+        assertEquals("Rule: 垃圾", lexer.getComments().get(0).getText());
+        assertEquals(3, tokens.get(0).line);
+    }
+
+    @Test
+    void identifiersAreLowerCased() {
+        assertEquals("fileinto", new SieveLexer("FileInto").tokenize().get(0).text);
+    }
+
+    @Test
+    void rejectsMalformedInput() {
+        assertThrows(SieveException.class, () -> new SieveLexer("\"未结束").tokenize());
+        assertThrows(SieveException.class, () -> new SieveLexer("/* 未结束").tokenize());
+        assertThrows(SieveException.class, () -> new SieveLexer("text:\n没有结束行\n").tokenize());
+        assertThrows(SieveException.class, () -> new SieveLexer("keep: ;").tokenize());
+        assertThrows(SieveException.class, () -> new SieveLexer("@").tokenize());
+        assertThrows(SieveException.class, () -> new SieveLexer("99999999999999").tokenize());
+    }
+}
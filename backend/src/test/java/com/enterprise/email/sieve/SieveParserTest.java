@@ -0,0 +1,87 @@
+package com.enterprise.email.sieve;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SieveParserTest {
+
+    private static List<SieveParser.Command> parse(String script) {
+        return new SieveParser(new SieveLexer(script).tokenize()).parse();
+    }
+
+    @Test
+    void parsesIfChainWithNestedTests() {
+        String script = "require [\"fileinto\"];\n"
+                + "if anyof (header :contains \"subject\" \"促销\", not exists \"from\") {\n"
+                + "  fileinto \"Junk\";\n"
+                + "} else {\n"
+                + "  keep;\n"
+                + "}\n";
+        List<SieveParser.Command> commands = parse(script);
+
+        assertEquals(3, commands.size());
+        assertEquals("require", commands.get(0).name);
+        assertEquals(List.of("fileinto"), commands.get(0).arguments.get(0).strings);
+        assertTrue(commands.get(0).arguments.get(0).list);
+
+        SieveParser.Command ifCommand = commands.get(1);
+        assertEquals("if", ifCommand.name);
+        assertEquals(2, ifCommand.line);
+        SieveParser.Test anyof = ifCommand.tests.get(0);
+        assertEquals("anyof", anyof.name);
+        assertEquals(2, anyof.tests.size());
+        assertEquals("header", anyof.tests.get(0).name);
+        assertEquals("contains", anyof.tests.get(0).arguments.get(0).tag);
+        assertEquals("not", anyof.tests.get(1).name);
+        assertEquals("exists", anyof.tests.get(1).tests.get(0).name);
+        assertEquals("fileinto", ifCommand.block.get(0).name);
+
+        assertEquals("else", commands.get(2).name);
+        assertEquals("keep", commands.get(2).block.get(0).name);
+    }
+
+    @Test
+    void recordsSourceOffsets() {
+        String script = "keep;\nif true { stop; }";
+        List<SieveParser.Command> commands = parse(script);
+
+        assertEquals("keep;", script.substring(commands.get(0).startOffset, commands.get(0).endOffset));
+        assertEquals("if true { stop; }", script.substring(commands.get(1).startOffset, commands.get(1).endOffset));
+    }
+
+    @Test
+    void rejectsSyntaxErrorsWithLineNumber() {
+        SieveException missingTerminator = assertThrows(SieveException.class, () -> parse("keep \"x\"\n}"));
+        assertEquals(2, missingTerminator.getLine());
+
+        assertThrows(SieveException.class, () -> parse("fileinto [\"a\" \"b\"];"));
+        assertThrows(SieveException.class, () -> parse("if anyof (true, ) { keep; }"));
+        assertThrows(SieveException.class, () -> parse("if true { keep;"));
+        assertThrows(SieveException.class, () -> parse("keep; }"));
+    }
+
+    @Test
+    void limitsNestingDepth() {
+        StringBuilder script = new StringBuilder();
+        for (int i = 0; i < 40; i++) {
+            script.append("if true { ");
+        }
+        script.append("keep;");
+        for (int i = 0; i < 40; i++) {
+            script.append(" }");
+        }
+
+        SieveException error = assertThrows(SieveException.class, () -> parse(script.toString()));
+        assertTrue(error.getMessage().contains("嵌套过深"));
+    }
+
+    @Test
+    void limitsTestNestingDepth() {
+        String script = "if " + "not ".repeat(40) + "true { keep; }";
+
+        assertThrows(SieveException.class, () -> parse(script));
+    }
+}
@@ -0,0 +1,70 @@
+package com.enterprise.email.sieve;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SieveScriptCompilerTest {
+
+    private static SieveProgram compile(String script) {
+        return SieveScriptCompiler.compile(script, "test");
+    }
+
+    private static String error(String script) {
+        return assertThrows(SieveException.class, () -> compile(script)).getMessage();
+    }
+
+    @Test
+    void collectsRequiredCapabilities() {
+        SieveProgram program = compile("require [\"FileInto\", \"copy\"];\nfileinto :copy \"Archive\";");
+
+        assertEquals(Set.of("fileinto", "copy"), program.capabilities);
+    }
+
+    @Test
+    void rejectsUndeclaredOrUnsupportedCapabilities() {
+        assertTrue(error("fileinto \"Junk\";").contains("fileinto"));
+        assertTrue(error("require \"fileinto\";\nfileinto :copy \"Junk\";").contains("copy"));
+        assertTrue(error("require \"imap4flags\";").contains("不支持的扩展"));
+        assertTrue(error("if header :regex \"subject\" \"a+\" { keep; }").contains("regex"));
+    }
+
+    @Test
+    void rejectsMisplacedCommands() {
+        assertTrue(error("keep;\nrequire \"fileinto\";").contains("开头"));
+        assertTrue(error("else { keep; }").contains("if"));
+        assertTrue(error("frobnicate;").contains("不支持的命令"));
+    }
+
+    @Test
+    void validatesArguments() {
+        assertTrue(error("if size 100 { keep; }").startsWith("第1行"));
+        assertTrue(error("if size :over :under 100 { keep; }").contains("size"));
+        assertTrue(error("if header :is :contains \"subject\" \"x\" { keep; }").contains("匹配方式"));
+        assertTrue(error("if header \"subject\" { keep; }").contains("header"));
+        assertTrue(error("if not (true, false) { keep; }").contains("not"));
+        assertTrue(error("redirect \"not-an-address\";").contains("redirect"));
+        assertTrue(error("if header :comparator \"i;unknown\" \"subject\" \"x\" { keep; }").contains("比较器"));
+        assertTrue(error("require \"regex\";\nif header :regex \"subject\" \"(\" { keep; }").contains("正则"));
+    }
+
+    @Test
+    void rejectsConflictingSetModifiers() {
+        assertTrue(error("require \"variables\";\nset :lower :upper \"a\" \"b\";").contains("冲突"));
+        assertTrue(error("require \"variables\";\nset \"1a\" \"b\";").contains("变量名"));
+    }
+
+    @Test
+    void globPatternCapturesWildcardsAndHonoursEscapes() {
+        Pattern pattern = SieveScriptCompiler.globToPattern("*@example.?om", true);
+        assertTrue(pattern.matcher("Alice@EXAMPLE.com").matches());
+        assertFalse(pattern.matcher("alice@example.org").matches());
+
+        Pattern escaped = SieveScriptCompiler.globToPattern("a\\*b", false);
+        assertTrue(escaped.matcher("a*b").matches());
+        assertFalse(escaped.matcher("axxb").matches());
+    }
+}
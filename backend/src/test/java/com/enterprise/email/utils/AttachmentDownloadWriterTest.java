@@ -0,0 +1,160 @@
+package com.enterprise.email.utils;
+
+import com.enterprise.email.dto.AttachmentContent;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AttachmentDownloadWriterTest {
+
+    private static final byte[] DATA = "0123456789abcdefghij".getBytes(StandardCharsets.US_ASCII);
+    private static final String ETAG = "\"hash\"";
+    private static final long LAST_MODIFIED = 1_700_000_000_000L;
+
+    @TempDir
+    Path dir;
+
+    private final AttachmentDownloadWriter writer = new AttachmentDownloadWriter();
+    private AttachmentContent content;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        content = content(Files.write(dir.resolve("plain"), DATA), false);
+    }
+
+    private static AttachmentContent content(Path path, boolean compressed) {
+        return AttachmentContent.builder()
+                .attachmentId(1L)
+                .fileName("附件.txt")
+                .contentType("text/plain")
+                .path(path)
+                .size(DATA.length)
+                .contentHash("hash")
+                .compressed(compressed)
+                .lastModified(LAST_MODIFIED)
+                .build();
+    }
+
+    private MockHttpServletResponse get(String range, String ifRange) throws IOException {
+        return get(range, ifRange, content);
+    }
+
+    private static MockHttpServletResponse get(String range, String ifRange, AttachmentContent content)
+            throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/attachments/1");
+        if (range != null) {
+            request.addHeader(HttpHeaders.RANGE, range);
+        }
+        if (ifRange != null) {
+            request.addHeader(HttpHeaders.IF_RANGE, ifRange);
+        }
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        new AttachmentDownloadWriter().write(request, response, content);
+        return response;
+    }
+
+    @Test
+    void withoutRangeReturnsWholeContent() throws IOException {
+        MockHttpServletResponse response = get(null, null);
+
+        assertEquals(200, response.getStatus());
+        assertEquals("bytes", response.getHeader(HttpHeaders.ACCEPT_RANGES));
+        assertEquals(ETAG, response.getHeader(HttpHeaders.ETAG));
+        assertArrayEquals(DATA, response.getContentAsByteArray());
+    }
+
+    @Test
+    void closedRange() throws IOException {
+        MockHttpServletResponse response = get("bytes=2-5", null);
+
+        assertEquals(206, response.getStatus());
+        assertEquals("bytes 2-5/20", response.getHeader(HttpHeaders.CONTENT_RANGE));
+        assertEquals(4, response.getContentLengthLong());
+        assertEquals("2345", response.getContentAsString());
+    }
+
+    @Test
+    void openEndedAndClampedRanges() throws IOException {
+        assertEquals("fghij", get("bytes=15-", null).getContentAsString());
+
+        MockHttpServletResponse clamped = get("bytes=18-100", null);
+        assertEquals("bytes 18-19/20", clamped.getHeader(HttpHeaders.CONTENT_RANGE));
+        assertEquals("ij", clamped.getContentAsString());
+    }
+
+    @Test
+    void suffixRange() throws IOException {
+        assertEquals("hij", get("bytes=-3", null).getContentAsString());
+        assertEquals(new String(DATA, StandardCharsets.US_ASCII), get("bytes=-100", null).getContentAsString());
+    }
+
+    @Test
+    void unsatisfiableRanges() throws IOException {
+        for (String range : new String[]{"bytes=20-", "bytes=5-2", "bytes=-0"}) {
+            MockHttpServletResponse response = get(range, null);
+            assertEquals(416, response.getStatus(), range);
+            assertEquals("bytes */20", response.getHeader(HttpHeaders.CONTENT_RANGE), range);
+            assertEquals(0, response.getContentAsByteArray().length, range);
+        }
+    }
+
+    @Test
+    void unsupportedOrMalformedRangesFallBackToWholeContent() throws IOException {
+        for (String range : new String[]{"bytes=0-1,4-5", "bytes=abc", "bytes=x-3", "items=0-1"}) {
+            MockHttpServletResponse response = get(range, null);
+            assertEquals(200, response.getStatus(), range);
+            assertArrayEquals(DATA, response.getContentAsByteArray(), range);
+        }
+    }
+
+    @Test
+    void ifRangeMustMatchStrongEtagOrDate() throws IOException {
+        assertEquals(206, get("bytes=0-1", ETAG).getStatus());
+        assertEquals(200, get("bytes=0-1", "\"other\"").getStatus());
+        assertEquals(200, get("bytes=0-1", "W/" + ETAG).getStatus());
+
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/attachments/1");
+        request.addHeader(HttpHeaders.RANGE, "bytes=0-1");
+        request.addHeader(HttpHeaders.IF_RANGE, "Tue, 14 Nov 2023 22:13:20 GMT");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        writer.write(request, response, content);
+        assertEquals(206, response.getStatus());
+    }
+
+    @Test
+    void ifNoneMatchReturnsNotModified() throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/attachments/1");
+        request.addHeader(HttpHeaders.IF_NONE_MATCH, "\"a\", W/" + ETAG);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        writer.write(request, response, content);
+
+        assertEquals(304, response.getStatus());
+        assertEquals(0, response.getContentAsByteArray().length);
+    }
+
+    @Test
+    void compressedContentHonoursRange() throws IOException {
+        ByteArrayOutputStream gzip = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(gzip)) {
+            out.write(DATA);
+        }
+        Path path = Files.write(dir.resolve("compressed"), gzip.toByteArray());
+
+        MockHttpServletResponse response = get("bytes=10-12", null, content(path, true));
+
+        assertEquals(206, response.getStatus());
+        assertEquals("abc", response.getContentAsString());
+    }
+}
@@ -0,0 +1,94 @@
+package com.enterprise.email.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConcurrentRingBufferTest {
+
+    @Test
+    void capacityRoundsUpToPowerOfTwo() {
+        assertEquals(2, new ConcurrentRingBuffer<>(0).capacity());
+        assertEquals(8, new ConcurrentRingBuffer<>(8).capacity());
+        assertEquals(16, new ConcurrentRingBuffer<>(9).capacity());
+    }
+
+    @Test
+    void returnsRecentElementsOldestFirst() {
+        ConcurrentRingBuffer<Integer> buffer = new ConcurrentRingBuffer<>(4);
+        for (int i = 0; i < 3; i++) {
+            buffer.add(i);
+        }
+
+        assertTrue(buffer.isComplete());
+        assertEquals(List.of(0, 1, 2), buffer.recent(10, null));
+        assertEquals(List.of(1, 2), buffer.recent(2, null));
+    }
+
+    @Test
+    void overwritesOldestWhenFull() {
+        ConcurrentRingBuffer<Integer> buffer = new ConcurrentRingBuffer<>(4);
+        for (int i = 0; i < 10; i++) {
+            buffer.add(i);
+        }
+
+        assertFalse(buffer.isComplete());
+        assertEquals(10, buffer.getWritten());
+        assertEquals(List.of(6, 7, 8, 9), buffer.recent(100, null));
+        assertEquals(List.of(6, 8), buffer.recent(100, i -> i % 2 == 0));
+    }
+
+    @Test
+    void concurrentWritersNeverYieldMisplacedElements() throws Exception {
+        int threads = 4;
+        int perThread = 20000;
+        ConcurrentRingBuffer<Long> buffer = new ConcurrentRingBuffer<>(64);
+        ExecutorService executor = Executors.newFixedThreadPool(threads + 1);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            long base = (long) t * perThread;
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < perThread; i++) {
+                    buffer.add(base + i);
+                }
+                return null;
+            }));
+        }
+        futures.add(executor.submit(() -> {
+            start.await();
+            for (int i = 0; i < 2000; i++) {
+                List<Long> recent = buffer.recent(64, null);
+                assertTrue(recent.size() <= 64);
+                assertEquals(recent.size(), new HashSet<>(recent).size());
+            }
+            return null;
+        }));
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        assertEquals((long) threads * perThread, buffer.getWritten());
+        // 写入方占位后被其他写入方超过时，槽位可能保留较旧的序号，读取方跳过这样的槽位
+        List<Long> recent = buffer.recent(64, null);
+        assertFalse(recent.isEmpty());
+        Set<Long> distinct = new HashSet<>(recent);
+        assertEquals(recent.size(), distinct.size());
+        for (Long value : recent) {
+            assertTrue(value >= 0 && value < (long) threads * perThread);
+        }
+    }
+}
@@ -50,6 +50,7 @@ CREATE TABLE IF NOT EXISTS domains (
     imap_host VARCHAR(255) NULL COMMENT 'IMAP服务器',
     imap_port INT DEFAULT 993 COMMENT 'IMAP端口',
     imap_ssl BOOLEAN DEFAULT TRUE COMMENT 'IMAP是否启用SSL',
+    archive_after_days INT NULL COMMENT '邮件归档天数（为空表示不归档）',
     created_by BIGINT NULL COMMENT '创建者ID',
     updated_by BIGINT NULL COMMENT '更新者ID',
     create_time TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
@@ -97,6 +98,9 @@ CREATE TABLE IF NOT EXISTS emails (
     alias_id BIGINT NULL COMMENT '别名ID（如果通过别名收发）',
     message_uid VARCHAR(255) NULL COMMENT '邮件UID（IMAP服务器中的唯一标识）',
     message_id VARCHAR(255) NULL COMMENT '邮件ID（Message-ID头）',
+    in_reply_to VARCHAR(255) NULL COMMENT '回复的邮件ID（In-Reply-To头）',
+    message_references TEXT NULL COMMENT '引用的邮件ID列表（References头）',
+    thread_id BIGINT NULL COMMENT '会话ID',
     sender VARCHAR(255) NOT NULL COMMENT '发件人',
     recipient VARCHAR(255) NOT NULL COMMENT '收件人',
     cc TEXT NULL COMMENT '抄送',
@@ -104,6 +108,11 @@ CREATE TABLE IF NOT EXISTS emails (
     subject VARCHAR(500) NULL COMMENT '邮件主题',
     content_text LONGTEXT NULL COMMENT '邮件内容（文本）',
     content_html LONGTEXT NULL COMMENT '邮件内容（HTML）',
+    content_sanitized LONGTEXT NULL COMMENT '净化后的HTML内容',
+    snippet VARCHAR(300) NULL COMMENT '正文摘要',
+    text_length INT DEFAULT 0 COMMENT '正文纯文本长度',
+    render_version INT DEFAULT 0 COMMENT '渲染结果对应的净化策略版本',
+    render_cids_pending BOOLEAN DEFAULT FALSE COMMENT '渲染时有未解析的cid:引用',
     size_bytes BIGINT DEFAULT 0 COMMENT '邮件大小（字节）',
     email_type VARCHAR(20) DEFAULT 'inbox' COMMENT '邮件类型（inbox/sent/draft/trash）',
     is_read BOOLEAN DEFAULT FALSE COMMENT '是否已读',
@@ -128,6 +137,7 @@ CREATE TABLE IF NOT EXISTS emails (
     INDEX idx_sent_time (sent_time),
     INDEX idx_received_time (received_time),
     INDEX idx_is_read (is_read),
+    INDEX idx_thread_id (thread_id),
     FOREIGN KEY (user_id) REFERENCES users(id) ON DELETE CASCADE,
     FOREIGN KEY (alias_id) REFERENCES user_aliases(id) ON DELETE SET NULL
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='邮件表';
@@ -442,6 +452,214 @@ INSERT INTO auto_reply_settings (alias_id, reply_subject, reply_content, content
 (1, '自动回复：您的邮件已收到', '感谢您的邮件。我们已收到您的信息，将尽快回复。如有紧急事务，请致电：400-xxx-xxxx。', 'TEXT', FALSE, 1, TRUE, 1),
 (2, 'Re: 自动回复', '您好！\n\n感谢您的邮件。我们已收到您的消息，会在24小时内回复。\n\n如有急事，请联系：demo@example.com\n\n此为自动回复，请勿回复。', 'TEXT', FALSE, 1, TRUE, 2);
 
+-- 邮件附件表
+CREATE TABLE IF NOT EXISTS email_attachments (
+    id BIGINT PRIMARY KEY AUTO_INCREMENT,
+    email_id BIGINT NULL COMMENT '邮件ID（临时附件为空）',
+    file_name VARCHAR(255) NOT NULL COMMENT '文件名',
+    original_name VARCHAR(255) NULL COMMENT '原始文件名',
+    content_type VARCHAR(255) NULL COMMENT '文件类型',
+    file_size BIGINT DEFAULT 0 COMMENT '文件大小（字节）',
+    file_path VARCHAR(1000) NOT NULL COMMENT '文件路径',
+    file_md5 VARCHAR(32) NULL COMMENT '文件MD5值',
+    content_hash CHAR(64) NULL COMMENT '内容SHA-256',
+    status VARCHAR(20) DEFAULT 'normal' COMMENT '附件状态（normal/temp）',
+    is_inline BOOLEAN DEFAULT FALSE COMMENT '是否为内嵌图片',
+    content_id VARCHAR(255) NULL COMMENT '内容ID（用于内嵌图片）',
+    create_time TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    update_time TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+    deleted INT DEFAULT 0 COMMENT '逻辑删除标志',
+    version INT DEFAULT 0 COMMENT '版本号（乐观锁）',
+    
+    INDEX idx_email_id (email_id),
+    INDEX idx_content_hash (content_hash),
+    INDEX idx_status_time (status, create_time)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='邮件附件表';
+
+-- 附件内容块表（内容寻址、引用计数）
+CREATE TABLE IF NOT EXISTS attachment_blobs (
+    id BIGINT PRIMARY KEY,
+    content_hash CHAR(64) NOT NULL COMMENT '内容SHA-256',
+    file_size BIGINT DEFAULT 0 COMMENT '文件大小（字节）',
+    stored_size BIGINT DEFAULT 0 COMMENT '实际存储大小（字节）',
+    compression VARCHAR(10) DEFAULT 'none' COMMENT '存储压缩方式（none/gzip）',
+    storage_path VARCHAR(255) NOT NULL COMMENT '相对存储路径',
+    ref_count INT NOT NULL DEFAULT 0 COMMENT '引用计数',
+    last_release_time TIMESTAMP NULL COMMENT '最后一次引用释放时间',
+    create_time TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    update_time TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+    
+    UNIQUE KEY uk_content_hash (content_hash),
+    INDEX idx_orphan (ref_count, last_release_time)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='附件内容块表';
+
+-- 后台清理检查点表
+CREATE TABLE IF NOT EXISTS purge_checkpoints (
+    job_name VARCHAR(50) PRIMARY KEY COMMENT '清理任务名称',
+    last_id BIGINT NOT NULL DEFAULT 0 COMMENT '已处理的最大主键',
+    cutoff_time DATETIME COMMENT '本轮基准时间',
+    status VARCHAR(20) NOT NULL COMMENT '任务状态',
+    processed_count BIGINT NOT NULL DEFAULT 0 COMMENT '本轮已处理记录数',
+    deleted_files BIGINT NOT NULL DEFAULT 0 COMMENT '本轮已删除文件数',
+    started_time DATETIME COMMENT '本轮开始时间',
+    completed_time DATETIME COMMENT '最近完成时间',
+    update_time DATETIME DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间'
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='后台清理检查点表';
+
+-- 邮件会话表（merged_into不为空表示已并入其他会话）
+CREATE TABLE IF NOT EXISTS email_threads (
+    id BIGINT PRIMARY KEY COMMENT '会话ID',
+    user_id BIGINT NOT NULL COMMENT '用户ID',
+    subject VARCHAR(500) NULL COMMENT '会话主题',
+    merged_into BIGINT NULL COMMENT '并入的会话ID',
+    message_count INT NOT NULL DEFAULT 0 COMMENT '邮件数',
+    unread_count INT NOT NULL DEFAULT 0 COMMENT '未读数',
+    latest_time DATETIME NULL COMMENT '最新邮件时间',
+    create_time DATETIME DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
+    update_time DATETIME DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
+    INDEX idx_user_latest (user_id, merged_into, latest_time)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='邮件会话表';
+
+-- 会话键映射表（Message-ID/规范化主题 -> 会话ID）
+CREATE TABLE IF NOT EXISTS email_thread_keys (
+    id BIGINT PRIMARY KEY COMMENT '主键ID',
+    user_id BIGINT NOT NULL COMMENT '用户ID',
+    key_type VARCHAR(20) NOT NULL COMMENT '键类型（message/subject）',
+    thread_key VARCHAR(255) NOT NULL COMMENT '键值',
+    thread_id BIGINT NOT NULL COMMENT '会话ID（可能已被合并，读取时解析到根会话）',
+    create_time DATETIME DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
+    UNIQUE KEY uk_user_key (user_id, key_type, thread_key)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='会话键映射表';
+
+-- 归档段文件表
+CREATE TABLE IF NOT EXISTS archive_segments (
+    id BIGINT PRIMARY KEY COMMENT '段ID',
+    file_name VARCHAR(255) NOT NULL COMMENT '段文件名',
+    store_id VARCHAR(64) NULL COMMENT '写入该段的存储标识（共享段目录中的store.id）',
+    status VARCHAR(20) NOT NULL COMMENT '状态（OPEN/SEALED）',
+    size_bytes BIGINT NOT NULL DEFAULT 0 COMMENT '已提交的文件大小',
+    record_count INT NOT NULL DEFAULT 0 COMMENT '邮件数',
+    create_time DATETIME DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
+    update_time DATETIME DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
+    INDEX idx_status (status)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='归档段文件表';
+
+-- 归档稀疏索引表（每个块为同一用户按时间连续的若干封邮件）
+CREATE TABLE IF NOT EXISTS archive_index (
+    id BIGINT PRIMARY KEY COMMENT '块ID',
+    segment_id BIGINT NOT NULL COMMENT '段ID',
+    user_id BIGINT NOT NULL COMMENT '用户ID',
+    first_id BIGINT NOT NULL COMMENT '块内最小邮件ID',
+    last_id BIGINT NOT NULL COMMENT '块内最大邮件ID',
+    min_time DATETIME NULL COMMENT '块内最早邮件时间',
+    max_time DATETIME NULL COMMENT '块内最晚邮件时间',
+    block_offset BIGINT NOT NULL COMMENT '块在段文件中的偏移',
+    block_length INT NOT NULL COMMENT '块长度（字节）',
+    record_count INT NOT NULL COMMENT '块内邮件数',
+    create_time DATETIME DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
+    INDEX idx_user_id_range (user_id, first_id, last_id),
+    INDEX idx_user_time (user_id, max_time),
+    INDEX idx_segment_id (segment_id)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='归档稀疏索引表';
+
+-- 入站邮件处理记录表（每个别名的每封邮件只经过一次入站流水线，多节点收取时以唯一键认领）
+CREATE TABLE IF NOT EXISTS inbound_receipts (
+    id BIGINT PRIMARY KEY COMMENT '记录ID',
+    alias_id BIGINT NOT NULL COMMENT '别名ID',
+    message_key VARCHAR(255) NOT NULL COMMENT 'Message-ID，没有时为原始内容的SHA-256',
+    disposition VARCHAR(20) NULL COMMENT '处置方式（deliver/reject/discard/quarantine）',
+    email_id BIGINT NULL COMMENT '保存的邮件ID',
+    create_time DATETIME DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
+    UNIQUE KEY uk_alias_message (alias_id, message_key)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='入站邮件处理记录表';
+
+-- 跨节点任务租约表（归档等后台任务同一时刻只在持有租约的节点执行）
+CREATE TABLE IF NOT EXISTS job_leases (
+    name VARCHAR(300) PRIMARY KEY COMMENT '租约名称',
+    owner VARCHAR(255) NOT NULL DEFAULT '' COMMENT '持有节点',
+    lease_until DATETIME NOT NULL COMMENT '租约到期时间',
+    update_time DATETIME DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间'
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='跨节点任务租约表';
+
+-- 邮件处理历史表（Sieve规则执行、转发、自动回复，由后台批量写入）
+CREATE TABLE IF NOT EXISTS processing_history (
+    id BIGINT PRIMARY KEY COMMENT '记录ID（按时间递增）',
+    user_alias_id BIGINT NOT NULL COMMENT '用户别名ID',
+    source VARCHAR(20) NOT NULL COMMENT '来源（SIEVE/FORWARDING/AUTORESPONDER）',
+    ref_id BIGINT NULL COMMENT '关联的规则或配置ID',
+    detail TEXT NULL COMMENT '记录内容（JSON）',
+    occurred_at DATETIME NOT NULL COMMENT '发生时间',
+    INDEX idx_alias_source_id (user_alias_id, source, id),
+    INDEX idx_alias_source_time (user_alias_id, source, occurred_at)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='邮件处理历史表';
+
+-- 重新过滤任务表
+CREATE TABLE IF NOT EXISTS refilter_jobs (
+    id BIGINT PRIMARY KEY COMMENT '任务ID',
+    user_id BIGINT NOT NULL COMMENT '用户ID',
+    user_alias_id BIGINT NOT NULL COMMENT '用户别名ID',
+    status VARCHAR(20) NOT NULL COMMENT '任务状态',
+    last_id BIGINT NOT NULL DEFAULT 0 COMMENT '已处理的最大邮件ID',
+    total_count BIGINT NOT NULL DEFAULT 0 COMMENT '邮件总数',
+    scanned_count BIGINT NOT NULL DEFAULT 0 COMMENT '已求值邮件数',
+    changed_count BIGINT NOT NULL DEFAULT 0 COMMENT '已改变文件夹的邮件数',
+    error_count BIGINT NOT NULL DEFAULT 0 COMMENT '求值失败的邮件数',
+    error_message VARCHAR(500) NULL COMMENT '最近一次错误信息',
+    started_time DATETIME NULL COMMENT '开始时间',
+    completed_time DATETIME NULL COMMENT '结束时间',
+    owner VARCHAR(255) NULL COMMENT '运行任务的节点',
+    lease_until DATETIME NULL COMMENT '租约到期时间',
+    create_time DATETIME DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
+    update_time DATETIME DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
+    INDEX idx_alias_id (user_alias_id, id)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='重新过滤任务表';
+
+-- 病毒扫描任务表
+CREATE TABLE IF NOT EXISTS clamav_scan_jobs (
+    id BIGINT PRIMARY KEY COMMENT '任务ID',
+    domain VARCHAR(255) NOT NULL COMMENT '域名',
+    root_path VARCHAR(1024) NOT NULL COMMENT '扫描的根目录',
+    include_subdirs TINYINT(1) NOT NULL DEFAULT 1 COMMENT '是否包含子目录',
+    status VARCHAR(20) NOT NULL COMMENT '任务状态',
+    checkpoint_count BIGINT NOT NULL DEFAULT 0 COMMENT '检查点：按遍历顺序已处理完的文件数',
+    checkpoint_path VARCHAR(2048) NULL COMMENT '检查点：按名称排序遍历时最后一个处理完的文件路径',
+    total_files BIGINT NOT NULL DEFAULT 0 COMMENT '已遍历到的文件数',
+    scanned_count BIGINT NOT NULL DEFAULT 0 COMMENT '已扫描文件数',
+    skipped_count BIGINT NOT NULL DEFAULT 0 COMMENT '未变化而跳过的文件数',
+    infected_count BIGINT NOT NULL DEFAULT 0 COMMENT '发现病毒的文件数',
+    oversize_count BIGINT NOT NULL DEFAULT 0 COMMENT '超过大小限制的文件数',
+    error_count BIGINT NOT NULL DEFAULT 0 COMMENT '扫描失败的文件数',
+    bytes_scanned BIGINT NOT NULL DEFAULT 0 COMMENT '已扫描字节数',
+    error_message VARCHAR(500) NULL COMMENT '最近一次错误信息',
+    started_time DATETIME NULL COMMENT '开始时间',
+    completed_time DATETIME NULL COMMENT '结束时间',
+    owner VARCHAR(255) NULL COMMENT '运行任务的节点',
+    lease_until DATETIME NULL COMMENT '租约到期时间',
+    create_time DATETIME DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
+    update_time DATETIME DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
+    INDEX idx_domain_id (domain, id)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='病毒扫描任务表';
+
+-- 文件扫描状态表
+CREATE TABLE IF NOT EXISTS clamav_file_states (
+    id BIGINT PRIMARY KEY COMMENT '主键ID',
+    domain VARCHAR(255) NOT NULL COMMENT '域名',
+    path_hash CHAR(64) NOT NULL COMMENT '文件路径的SHA-256',
+    dir_hash CHAR(64) NOT NULL COMMENT '所在目录路径的SHA-256',
+    file_path VARCHAR(2048) NOT NULL COMMENT '文件路径',
+    file_size BIGINT NOT NULL COMMENT '文件大小',
+    modified_time BIGINT NOT NULL COMMENT '文件修改时间（毫秒）',
+    sha256 CHAR(64) NOT NULL COMMENT '文件内容的SHA-256',
+    signatures_version VARCHAR(100) NOT NULL DEFAULT '' COMMENT '扫描时的病毒库版本',
+    infected TINYINT(1) NOT NULL DEFAULT 0 COMMENT '是否发现病毒',
+    virus_name VARCHAR(255) NULL COMMENT '病毒名称',
+    job_id BIGINT NULL COMMENT '最近一次处理该文件的扫描任务',
+    scanned_time DATETIME NULL COMMENT '扫描时间',
+    UNIQUE KEY uk_domain_path (domain, path_hash),
+    INDEX idx_domain_dir (domain, dir_hash),
+    INDEX idx_job_infected (job_id, infected)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='文件扫描状态表';
+
 -- 创建索引以优化查询性能
 CREATE INDEX idx_emails_user_type_time ON emails(user_id, email_type, received_time DESC);
 CREATE INDEX idx_login_logs_user_time ON user_login_logs(user_id, login_time DESC);
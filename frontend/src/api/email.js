@@ -159,5 +159,13 @@ export const emailApi = {
   // 搜索邮件
   searchEmails(params) {
     return this.getEmails(params)
+  },
+
+  // 事件流地址（EventSource不经过axios，按axios实例的baseURL拼接，令牌放在查询参数中）
+  eventsUrl(token) {
+    return request.getUri({
+      url: '/api/email/events',
+      params: { access_token: token }
+    })
   }
 }
\ No newline at end of file
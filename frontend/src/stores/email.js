@@ -371,6 +371,55 @@ export const useEmailStore = defineStore('email', () => {
     }
   }
 
+  // 事件流（新邮件、标记变化、计数增量由服务端推送，替代定时轮询）
+  let eventSource = null
+  const newMailListeners = new Set()
+
+  const connectEvents = () => {
+    const token = localStorage.getItem('token')
+    if (eventSource || !token || typeof EventSource === 'undefined') {
+      return
+    }
+    eventSource = new EventSource(emailApi.eventsUrl(token))
+
+    eventSource.addEventListener('counter_delta', (event) => {
+      JSON.parse(event.data).forEach(delta => {
+        const item = unreadCounts.value.find(c => c.aliasId === delta.aliasId)
+        if (item) {
+          item.unreadCount = Math.max(0, item.unreadCount + delta.unread)
+        }
+      })
+    })
+
+    eventSource.addEventListener('flag_change', (event) => {
+      JSON.parse(event.data).forEach(change => {
+        const email = emails.value.find(e => e.id === change.emailId)
+        if (email && change.flag === 'read') {
+          email.isRead = change.value
+        } else if (email && change.flag === 'important') {
+          email.isImportant = change.value
+        }
+      })
+    })
+
+    eventSource.addEventListener('new_mail', (event) => {
+      const data = JSON.parse(event.data)
+      newMailListeners.forEach(listener => listener(data))
+    })
+  }
+
+  const disconnectEvents = () => {
+    if (eventSource) {
+      eventSource.close()
+      eventSource = null
+    }
+  }
+
+  const onNewMail = (listener) => {
+    newMailListeners.add(listener)
+    return () => newMailListeners.delete(listener)
+  }
+
   return {
     // 状态
     emails,
@@ -401,6 +450,9 @@ export const useEmailStore = defineStore('email', () => {
     clearEmails,
     updateEmailStatus,
     addEmail,
-    removeEmail
+    removeEmail,
+    connectEvents,
+    disconnectEvents,
+    onNewMail
   }
 })
\ No newline at end of file